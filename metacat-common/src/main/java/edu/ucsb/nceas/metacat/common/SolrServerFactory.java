@@ -156,6 +156,36 @@ public class SolrServerFactory {
 	    }
 	    return collectionName;
 	}
-	
-	
+
+	/**
+	 * Get the name of the core which the http solr server uses
+	 * @return the core name
+	 */
+	public static String getCoreName() {
+	    return Settings.getConfiguration().getString(CORENAME_PROPERTY_NAME);
+	}
+
+	/**
+	 * Create a new solr client for the given core on the http solr server, e.g. a shadow core.
+	 * Unlike createSolrServer, the client isn't shared, so the caller should close it.
+	 * @param coreName  the name of the core
+	 * @return the solr client of the core
+	 * @throws UnsupportedType  if the solr server is an embedded one
+	 */
+	public static SolrClient createSolrServer(String coreName) throws UnsupportedType {
+	    String className = Settings.getConfiguration().getString(SOLR_SERVER_CLASSNAME_PROPERTY_NAME);
+	    if (className == null || !className.equals(HTTPSERVERCLASS)) {
+	        throw new UnsupportedType("0000","SolrServerFactory.createSolrServer - only the http solr server can create a client for the core "+coreName
+	                                    +", but the solr server type is "+className);
+	    }
+	    String solrServerBaseURL = Settings.getConfiguration().getString(SOLR_ENPOINT_PROPERTY_NAME);
+	    if (solrServerBaseURL != null && solrServerBaseURL.endsWith(SLASH)) {
+	        solrServerBaseURL = solrServerBaseURL+coreName;
+	    } else {
+	        solrServerBaseURL = solrServerBaseURL+SLASH+coreName;
+	    }
+	    log.info("SolrServerFactory.createSolrServer - the solr server base url for the core "+coreName+" is "+solrServerBaseURL);
+	    return new HttpSolrClient.Builder(solrServerBaseURL).build();
+	}
+
 }
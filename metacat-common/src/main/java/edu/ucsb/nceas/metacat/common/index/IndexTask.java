@@ -1,12 +1,24 @@
 package edu.ucsb.nceas.metacat.common.index;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.List;
 import java.util.Map;
 
 import org.dataone.service.types.v2.SystemMetadata;
 
-public class IndexTask implements Serializable {
+import edu.ucsb.nceas.metacat.common.serialization.SystemMetadataSerializer;
+
+/**
+ * A task in the index queue. It is externalizable, so the system metadata in the
+ * queue is written in the compact form of the SystemMetadataSerializer rather than
+ * by the default java serialization.
+ */
+public class IndexTask implements Externalizable {
+	
+	private static final long serialVersionUID = 2L;
 	
 	private SystemMetadata systemMetadata;
 	
@@ -64,4 +76,30 @@ public class IndexTask implements Serializable {
 	    this.isDeleteing = isDeleteing;
 	}
 
+	/**
+	 * Write the task to the output
+	 * @param out  the output
+	 * @throws IOException
+	 */
+	public void writeExternal(ObjectOutput out) throws IOException {
+	    SystemMetadataSerializer.write(out, systemMetadata);
+	    out.writeObject(fields);
+	    out.writeBoolean(isDeleteing);
+	    out.writeLong(timeAddToQueque);
+	}
+
+	/**
+	 * Read the task written by the writeExternal method
+	 * @param in  the input
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+	    systemMetadata = SystemMetadataSerializer.read(in);
+	    fields = (Map<String, List<Object>>) in.readObject();
+	    isDeleteing = in.readBoolean();
+	    timeAddToQueque = in.readLong();
+	}
+
 }
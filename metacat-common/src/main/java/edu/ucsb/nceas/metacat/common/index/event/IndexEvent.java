@@ -21,22 +21,27 @@
  */
 package edu.ucsb.nceas.metacat.common.index.event;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Date;
 
 import org.dataone.service.types.v1.Event;
 import org.dataone.service.types.v1.Identifier;
 
+import edu.ucsb.nceas.metacat.common.serialization.SystemMetadataSerializer;
+
 
 /**
  * A class represents an event for the solr indexing.
  * @author tao
  *
  */
-public class IndexEvent implements Serializable {
+public class IndexEvent implements Externalizable {
     
 
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
 	
 	private Event action = null;
     private Date date = null;
@@ -108,4 +113,28 @@ public class IndexEvent implements Serializable {
     }
     
    
+    /**
+     * Write the event to the output in a compact form
+     * @param out  the output
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        SystemMetadataSerializer.writeString(out, action == null ? null : action.xmlValue());
+        SystemMetadataSerializer.writeDate(out, date);
+        SystemMetadataSerializer.writeIdentifier(out, identifier);
+        SystemMetadataSerializer.writeString(out, description);
+    }
+    
+    /**
+     * Read the event written by the writeExternal method
+     * @param in  the input
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        String event = SystemMetadataSerializer.readString(in);
+        action = event == null ? null : Event.convert(event);
+        date = SystemMetadataSerializer.readDate(in);
+        identifier = SystemMetadataSerializer.readIdentifier(in);
+        description = SystemMetadataSerializer.readString(in);
+    }
 }
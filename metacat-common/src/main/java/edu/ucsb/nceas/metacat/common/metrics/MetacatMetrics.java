@@ -0,0 +1,204 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.jmx.JmxReporter;
+
+/**
+ * The registry of the timers, histograms, counters and gauges of a web application
+ * (Metacat or the Metacat index). Each web application has its own copy of this class,
+ * so it has its own registry. The metrics are published over JMX under the domain given
+ * to startJmxReporter and in the Prometheus text format by the MetricsServlet.
+ *
+ * The names are dotted and start with the component, e.g. d1.mn.v2.object.GET,
+ * db.pool.free or index.solr.add. A name may end with labels in braces, e.g.
+ * d1.mn.v2.object.GET.responses{status=404}, which the Prometheus format writes as labels
+ * of one metric instead of a metric per value. Use labeled to build such a name.
+ *
+ * The timers and histograms also keep the sum of their values, so they can be written as
+ * complete Prometheus summaries.
+ */
+public class MetacatMetrics {
+
+    private static Log log = LogFactory.getLog(MetacatMetrics.class);
+    private static final MetricRegistry registry = new MetricRegistry();
+    private static JmxReporter jmxReporter = null;
+
+    /**
+     * Get the registry of this web application
+     * @return the registry
+     */
+    public static MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Publish the metrics over JMX. It only starts one reporter, the later calls do nothing.
+     * @param domain  the JMX domain of the metrics, which should differ between the web applications
+     */
+    public static synchronized void startJmxReporter(String domain) {
+        if (jmxReporter == null) {
+            jmxReporter = JmxReporter.forRegistry(registry).inDomain(domain).convertDurationsTo(TimeUnit.MILLISECONDS)
+                                      .convertRatesTo(TimeUnit.SECONDS).build();
+            jmxReporter.start();
+            log.info("MetacatMetrics.startJmxReporter - the metrics are published over JMX in the domain " + domain);
+        }
+    }
+
+    /**
+     * Stop publishing the metrics over JMX
+     */
+    public static synchronized void stopJmxReporter() {
+        if (jmxReporter != null) {
+            jmxReporter.stop();
+            jmxReporter = null;
+        }
+    }
+
+    /**
+     * Get the timer with the given name. It is created if it doesn't exist.
+     * @param name  the name of the timer
+     * @return the timer
+     */
+    public static Timer timer(String name) {
+        return registry.timer(name, new MetricSupplier<Timer>() {
+            public Timer newMetric() {
+                return new SummingTimer();
+            }
+        });
+    }
+
+    /**
+     * Get the histogram with the given name. It is created if it doesn't exist.
+     * @param name  the name of the histogram
+     * @return the histogram
+     */
+    public static Histogram histogram(String name) {
+        return registry.histogram(name, new MetricSupplier<Histogram>() {
+            public Histogram newMetric() {
+                return new SummingHistogram();
+            }
+        });
+    }
+
+    /**
+     * Get the counter with the given name. It is created if it doesn't exist.
+     * @param name  the name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        return registry.counter(name);
+    }
+
+    /**
+     * Build the name of a metric with a label, e.g. d1.mn.v2.object.GET.responses{status=404}
+     * @param name  the dotted name of the metric
+     * @param label  the name of the label, e.g. status
+     * @param value  the value of the label, e.g. 404
+     * @return the name with the label
+     */
+    public static String labeled(String name, String label, String value) {
+        return name + "{" + label + "=" + value + "}";
+    }
+
+    /**
+     * Register a gauge. A gauge registered before with the same name is replaced, so the
+     * services which are initialized again don't fail.
+     * @param name  the name of the gauge
+     * @param gauge  the gauge
+     */
+    public static synchronized void registerGauge(String name, Gauge<?> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+    /**
+     * Record the time since the given start time in a timer
+     * @param name  the name of the timer
+     * @param startNanos  the start time from System.nanoTime()
+     * @return the elapsed time in milliseconds, which is handy for the log messages
+     */
+    public static long stopTimer(String name, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        timer(name).update(elapsed, TimeUnit.NANOSECONDS);
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    /**
+     * A timer which keeps the sum of the recorded durations. All of the durations go through
+     * update(long, TimeUnit), either directly or from a Timer.Context.
+     */
+    static class SummingTimer extends Timer {
+        private AtomicLong sum = new AtomicLong(0);
+
+        @Override
+        public void update(long duration, TimeUnit unit) {
+            if (duration >= 0) {
+                sum.addAndGet(unit.toNanos(duration));
+            }
+            super.update(duration, unit);
+        }
+
+        /**
+         * Get the sum of the recorded durations
+         * @return the sum in nanoseconds
+         */
+        long getSum() {
+            return sum.get();
+        }
+    }
+
+    /**
+     * A histogram which keeps the sum of the recorded values
+     */
+    static class SummingHistogram extends Histogram {
+        private AtomicLong sum = new AtomicLong(0);
+
+        SummingHistogram() {
+            super(new ExponentiallyDecayingReservoir());
+        }
+
+        @Override
+        public void update(long value) {
+            sum.addAndGet(value);
+            super.update(value);
+        }
+
+        /**
+         * Get the sum of the recorded values
+         * @return the sum
+         */
+        long getSum() {
+            return sum.get();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.metrics;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.configuration.Settings;
+
+/**
+ * A servlet which returns the metrics of the web application in the Prometheus text format.
+ * It also starts publishing the metrics over JMX, so it should be loaded on startup.
+ * The init parameters are:
+ * prefix - the prefix of the metric names, e.g. metacat
+ * jmxDomain - the JMX domain of the metrics, e.g. metacat
+ *
+ * Only the requests from the IP addresses listed in the property metrics.allowedAddresses
+ * (comma separated) are answered; the others get 403. No address is trusted implicitly, 
+ * so even this host (e.g. 127.0.0.1 or ::1) has to be listed, since a request relayed by a
+ * proxy on this host comes from the loopback address as well.
+ */
+public class MetricsServlet extends HttpServlet {
+
+    public static final String ALLOWED_ADDRESSES_PROPERTY_NAME = "metrics.allowedAddresses";
+    private static final String PREFIX_PARAM = "prefix";
+    private static final String JMX_DOMAIN_PARAM = "jmxDomain";
+    private static Log log = LogFactory.getLog(MetricsServlet.class);
+
+    private PrometheusFormatter formatter = null;
+
+    /**
+     * Initialize the servlet and start the JMX reporter
+     */
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+        formatter = new PrometheusFormatter(config.getInitParameter(PREFIX_PARAM));
+        String domain = config.getInitParameter(JMX_DOMAIN_PARAM);
+        if (domain != null && !domain.trim().equals("")) {
+            try {
+                MetacatMetrics.startJmxReporter(domain.trim());
+            } catch (Exception e) {
+                log.warn("MetricsServlet.init - couldn't publish the metrics over JMX: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Stop the JMX reporter
+     */
+    public void destroy() {
+        MetacatMetrics.stopJmxReporter();
+        super.destroy();
+    }
+
+    /** Handle "GET" method requests from HTTP clients */
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!isAllowed(request.getRemoteAddr())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        response.setContentType(PrometheusFormatter.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+        try {
+            formatter.write(MetacatMetrics.getRegistry(), writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+     * If the address is one of the configured addresses
+     */
+    private boolean isAllowed(String remoteAddress) {
+        return isAllowed(remoteAddress, Settings.getConfiguration().getStringArray(ALLOWED_ADDRESSES_PROPERTY_NAME));
+    }
+
+    /*
+     * If the address is one of the given addresses
+     */
+    static boolean isAllowed(String remoteAddress, String[] allowed) {
+        if (allowed != null && remoteAddress != null) {
+            InetAddress remote = null;
+            try {
+                remote = InetAddress.getByName(remoteAddress);
+            } catch (Exception e) {
+                log.warn("MetricsServlet.isAllowed - couldn't parse the address " + remoteAddress + ": " + e.getMessage());
+            }
+            for (String address : allowed) {
+                if (address == null || address.trim().equals("")) {
+                    continue;
+                }
+                if (address.trim().equals(remoteAddress)) {
+                    return true;
+                }
+                // the same address may be written differently, e.g. ::1 and 0:0:0:0:0:0:0:1
+                try {
+                    if (remote != null && remote.equals(InetAddress.getByName(address.trim()))) {
+                        return true;
+                    }
+                } catch (Exception e) {
+                    log.warn("MetricsServlet.isAllowed - couldn't parse the allowed address " + address + ": " + e.getMessage());
+                }
+            }
+        }
+        log.debug("MetricsServlet.isAllowed - the address " + remoteAddress + " isn't allowed to read the metrics");
+        return false;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Write the metrics of a registry in the Prometheus text exposition format (version 0.0.4).
+ * The dotted names become underscored names with a prefix, e.g. d1.mn.v2.object.GET becomes
+ * metacat_d1_mn_v2_object_GET. The labels in braces at the end of a name, e.g.
+ * d1.mn.v2.object.GET.responses{status=404}, become Prometheus labels, so all of the values
+ * of a label are one metric. Timers and histograms are written as summaries with the
+ * quantiles of their reservoirs, the count and the sum; timers are in seconds and get the
+ * _seconds suffix.
+ */
+public class PrometheusFormatter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.98, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    private String prefix = null;
+
+    /**
+     * Constructor
+     * @param prefix  the prefix of the names, e.g. metacat. The names have no prefix if it is null or blank.
+     */
+    public PrometheusFormatter(String prefix) {
+        if (prefix != null && !prefix.trim().equals("")) {
+            this.prefix = sanitize(prefix.trim());
+        }
+    }
+
+    /**
+     * Write all of the metrics of the registry. The registry sorts the metrics by name, so the
+     * samples of a labeled metric come one after another.
+     * @param registry  the registry of the metrics
+     * @param writer  the writer which the metrics are written into
+     * @throws IOException
+     */
+    public void write(MetricRegistry registry, Writer writer) throws IOException {
+        //the last metric whose TYPE line was written, so the samples of a labeled metric share one
+        String typed = null;
+        for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+            Object value = entry.getValue().getValue();
+            Double number = null;
+            if (value instanceof Number) {
+                number = ((Number) value).doubleValue();
+            } else if (value instanceof Boolean) {
+                number = ((Boolean) value).booleanValue() ? 1.0 : 0.0;
+            }
+            if (number != null) {
+                String name = getName(entry.getKey());
+                typed = writeType(writer, name, "gauge", typed);
+                writeSample(writer, name, "", getLabels(entry.getKey()), number.doubleValue());
+            }
+        }
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+            String name = getName(entry.getKey());
+            typed = writeType(writer, name, "gauge", typed);
+            writeSample(writer, name, "", getLabels(entry.getKey()), entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
+            String name = getName(entry.getKey()) + "_total";
+            typed = writeType(writer, name, "counter", typed);
+            writeSample(writer, name, "", getLabels(entry.getKey()), entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            Snapshot snapshot = histogram.getSnapshot();
+            double sum = histogram instanceof MetacatMetrics.SummingHistogram
+                         ? ((MetacatMetrics.SummingHistogram) histogram).getSum() : snapshot.getMean() * histogram.getCount();
+            typed = writeSummary(writer, getName(entry.getKey()), getLabels(entry.getKey()), snapshot,
+                                 histogram.getCount(), sum, 1.0, typed);
+        }
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            Snapshot snapshot = timer.getSnapshot();
+            double sum = timer instanceof MetacatMetrics.SummingTimer
+                         ? ((MetacatMetrics.SummingTimer) timer).getSum() : snapshot.getMean() * timer.getCount();
+            typed = writeSummary(writer, getName(entry.getKey()) + "_seconds", getLabels(entry.getKey()), snapshot,
+                                 timer.getCount(), sum, NANOS_PER_SECOND, typed);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Get the Prometheus name of a metric
+     * @param name  the dotted name of the metric. The labels at its end aren't part of the name.
+     * @return the name with the prefix and only the characters Prometheus allows
+     */
+    public String getName(String name) {
+        int labelStart = getLabelStart(name);
+        if (labelStart >= 0) {
+            name = name.substring(0, labelStart);
+        }
+        String sanitized = sanitize(name);
+        if (prefix != null) {
+            sanitized = prefix + "_" + sanitized;
+        } else if (Character.isDigit(sanitized.charAt(0))) {
+            sanitized = "_" + sanitized;
+        }
+        return sanitized;
+    }
+
+    /**
+     * Get the Prometheus labels of a metric, e.g. status="404" for the name
+     * d1.mn.v2.object.GET.responses{status=404}
+     * @param name  the dotted name of the metric
+     * @return the comma separated labels without the braces. It is empty if the name has no labels.
+     */
+    public String getLabels(String name) {
+        int labelStart = getLabelStart(name);
+        if (labelStart < 0) {
+            return "";
+        }
+        StringBuffer labels = new StringBuffer();
+        for (String pair : name.substring(labelStart + 1, name.length() - 1).split(",")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                if (labels.length() > 0) {
+                    labels.append(',');
+                }
+                labels.append(sanitize(pair.substring(0, equals).trim()));
+                labels.append("=\"");
+                labels.append(escape(pair.substring(equals + 1).trim()));
+                labels.append('"');
+            }
+        }
+        return labels.toString();
+    }
+
+    /*
+     * Get the index of the brace which starts the labels at the end of a name, or -1
+     */
+    private static int getLabelStart(String name) {
+        if (name.endsWith("}")) {
+            int start = name.indexOf('{');
+            if (start > 0) {
+                return start;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Replace the characters which aren't allowed in a name by underscores
+     */
+    private static String sanitize(String name) {
+        StringBuffer buffer = new StringBuffer(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == ':') {
+                buffer.append(c);
+            } else {
+                buffer.append('_');
+            }
+        }
+        return buffer.toString();
+    }
+
+    /*
+     * Escape the backslashes, quotes and line feeds of a label value
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /*
+     * Write a summary with the quantiles, the count and the sum of a snapshot. Return the name.
+     */
+    private String writeSummary(Writer writer, String name, String labels, Snapshot snapshot, long count, double sum,
+                                 double divisor, String typed) throws IOException {
+        writeType(writer, name, "summary", typed);
+        String separator = labels.equals("") ? "" : ",";
+        for (double quantile : QUANTILES) {
+            writeSample(writer, name, "", labels + separator + "quantile=\"" + quantile + "\"", snapshot.getValue(quantile) / divisor);
+        }
+        writeSample(writer, name, "_count", labels, count);
+        writeSample(writer, name, "_sum", labels, sum / divisor);
+        return name;
+    }
+
+    /*
+     * Write the TYPE line of a metric, unless it was just written for another label value of it.
+     * Return the name.
+     */
+    private String writeType(Writer writer, String name, String type, String typed) throws IOException {
+        if (name.equals(typed)) {
+            return name;
+        }
+        writer.write("# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+        return name;
+    }
+
+    /*
+     * Write a sample line
+     */
+    private void writeSample(Writer writer, String name, String suffix, String labels, double value) throws IOException {
+        writer.write(name);
+        writer.write(suffix);
+        if (!labels.equals("")) {
+            writer.write('{');
+            writer.write(labels);
+            writer.write('}');
+        }
+        writer.write(' ');
+        if (Double.isNaN(value)) {
+            writer.write("NaN");
+        } else if (Double.isInfinite(value)) {
+            writer.write(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            writer.write(Long.toString((long) value));
+        } else {
+            writer.write(Double.toString(value));
+        }
+        writer.write('\n');
+    }
+}
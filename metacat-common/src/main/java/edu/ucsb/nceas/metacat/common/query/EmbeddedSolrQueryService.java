@@ -28,6 +28,7 @@ import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
@@ -152,6 +153,14 @@ public class EmbeddedSolrQueryService extends SolrQueryService {
         return super.getValidSchemaFields();
     }
     
+    /**
+     * Get the client of the solr server
+     * @return the client
+     */
+    protected SolrClient getSolrClient() {
+        return solrServer;
+    }
+    
     /**
      * Get the version of the solr server.
      * @return
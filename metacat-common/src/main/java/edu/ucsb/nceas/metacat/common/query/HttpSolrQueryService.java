@@ -41,6 +41,7 @@ import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.util.Version;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrClient;
@@ -277,6 +278,14 @@ public class HttpSolrQueryService extends SolrQueryService {
         return (new URL(schemaURL)).openStream();
     }
     
+    /**
+     * Get the client of the solr server
+     * @return the client
+     */
+    protected SolrClient getSolrClient() {
+        return httpSolrServer;
+    }
+    
     /**
      * Get the version of the solr server.
      * @return
@@ -20,12 +20,18 @@ package edu.ucsb.nceas.metacat.common.query;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrRequest;
 import org.apache.solr.common.params.AppendedSolrParams;
 import org.apache.solr.common.params.SolrParams;
@@ -33,6 +39,7 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.dataone.service.types.v1.Subject;
+import org.dataone.configuration.Settings;
 import org.dataone.service.util.Constants;
 
 import edu.ucsb.nceas.metacat.common.query.SolrQueryResponseWriterFactory;
@@ -58,14 +65,28 @@ public abstract class SolrQueryService {
     private static final String CLOSEPARENTHESES = ")";
     private static final String COLON = ":";
     private static final String OR = "OR";
+    //the field which the schema copies the readPermission, writePermission and changePermission into
+    public static final String ACCESS_SUBJECT = "accessSubject";
+    public static final String COMBINED_FIELD_PROPERTY_NAME = "solr.query.accessFilter.combinedField";
+    public static final String CACHE_SIZE_PROPERTY_NAME = "solr.query.accessFilter.cacheSize";
+    //the subjects are separated by new lines in the terms filter since they may have commas (e.g. LDAP DNs)
+    private static final String TERMS_FILTER_PREFIX = "{!terms f=" + ACCESS_SUBJECT + " separator=\"\n\"}";
+    private static final String RIGHTSHOLDER_FILTER_PREFIX = "{!terms f=" + RIGHTSHOLDER + " separator=\"\n\"}";
+    private static final String SUBJECT_SEPARATOR = "\n";
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+    //how often the index is checked again while some documents don't have the accessSubject field
+    private static final long POPULATED_CHECK_INTERVAL = 10 * 60 * 1000;
     
     private static Log log = LogFactory.getLog(SolrQueryService.class);
     private static List<String> supportedWriterTypes = null;
+    private static Map<String, String> accessFilterCache = null;
     
     protected IndexSchema schema = null;
     protected Map<String, SchemaField> fieldMap = null;
     protected List<String> validSolrFieldNames = null;
     protected String solrSpecVersion = null;
+    private volatile boolean accessSubjectPopulated = false;
+    private volatile long accessSubjectCheckTime = 0;
     
     static {
         supportedWriterTypes = new ArrayList<String>();
@@ -77,6 +98,12 @@ public abstract class SolrQueryService {
         supportedWriterTypes.add(SolrQueryResponseWriterFactory.VELOCITY);
         supportedWriterTypes.add(SolrQueryResponseWriterFactory.PYTHON);
         supportedWriterTypes.add(SolrQueryResponseWriterFactory.XML);
+        final int cacheSize = Settings.getConfiguration().getInt(CACHE_SIZE_PROPERTY_NAME, DEFAULT_CACHE_SIZE);
+        accessFilterCache = Collections.synchronizedMap(new LinkedHashMap<String, String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
     }
   
     
@@ -155,11 +182,11 @@ public abstract class SolrQueryService {
     protected SolrParams appendAccessFilterParams(SolrParams solrParams, Set<Subject>subjects) {
         SolrParams append = null;
         if(solrParams != null) {
-            StringBuffer query = generateAccessFilterParamsString(subjects);      
+            String query = getAccessFilter(subjects);
             if(query != null && query.length() != 0) {
-                log.info("=================== fq query is "+query.toString());
+                log.debug("=================== fq query is "+query);
                 NamedList fq = new NamedList();
-                fq.add(FILTERQUERY, query.toString());
+                fq.add(FILTERQUERY, query);
                 SolrParams fqParam = SolrParams.toSolrParams(fq);
                 append = AppendedSolrParams.wrapAppended(solrParams, fqParam);
             } else {
@@ -169,6 +196,160 @@ public abstract class SolrQueryService {
         return append;
     }
     
+    /**
+     * Get the access filter of the subjects. The subjects are normalized (trimmed, de-duplicated and
+     * sorted), so the same identity always gets the same filter string and Solr can reuse the cached
+     * filter across its queries. The filters are cached by the normalized subjects as well.
+     * If the schema has the accessSubject field, every document has it and
+     * solr.query.accessFilter.combinedField isn't false, the filter is a terms filter over that field;
+     * otherwise it is the OR of the clauses over the permission fields which
+     * generateAccessFilterParamsString builds.
+     * @param subjects  the subjects of the user, including the groups and the equivalent identities
+     * @return the filter query. It is empty if there is no subject.
+     */
+    protected String getAccessFilter(Set<Subject> subjects) {
+        Set<String> normalized = normalizeSubjects(subjects);
+        if (normalized.isEmpty()) {
+            return "";
+        }
+        boolean combined = useCombinedField();
+        StringBuffer key = new StringBuffer(combined ? "terms" : "or");
+        for (String subject : normalized) {
+            key.append(SUBJECT_SEPARATOR).append(subject);
+        }
+        String filter = accessFilterCache.get(key.toString());
+        if (filter == null) {
+            if (combined) {
+                filter = generateTermsFilterString(normalized);
+            } else {
+                Set<Subject> sorted = new LinkedHashSet<Subject>();
+                for (String value : normalized) {
+                    Subject subject = new Subject();
+                    subject.setValue(value);
+                    sorted.add(subject);
+                }
+                filter = generateAccessFilterParamsString(sorted).toString();
+            }
+            accessFilterCache.put(key.toString(), filter);
+        }
+        return filter;
+    }
+
+    /*
+     * If the filter can use the combined accessSubject field
+     */
+    private boolean useCombinedField() {
+        return Settings.getConfiguration().getBoolean(COMBINED_FIELD_PROPERTY_NAME, true)
+                && fieldMap != null && fieldMap.containsKey(ACCESS_SUBJECT) && isAccessSubjectPopulated();
+    }
+
+    /**
+     * If every document in the index has the accessSubject field. The documents indexed before the
+     * schema had the field don't get it until the index is rebuilt, and a terms filter over it would
+     * hide them. Once every document has it, every new one gets it as well, so it is only checked
+     * again, at most every ten minutes, while some documents don't have it.
+     * @return true if no document is missing the field; false if some are or the check failed
+     */
+    protected boolean isAccessSubjectPopulated() {
+        if (accessSubjectPopulated) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - accessSubjectCheckTime < POPULATED_CHECK_INTERVAL) {
+            return false;
+        }
+        accessSubjectCheckTime = now;
+        SolrClient client = getSolrClient();
+        if (client == null) {
+            return false;
+        }
+        try {
+            SolrQuery query = new SolrQuery("*:* -" + ACCESS_SUBJECT + ":[* TO *]");
+            query.setRows(0);
+            long missing = client.query(query).getResults().getNumFound();
+            if (missing == 0) {
+                accessSubjectPopulated = true;
+                log.info("SolrQueryService.isAccessSubjectPopulated - every document has the " + ACCESS_SUBJECT
+                         + " field, so the access filter uses it from now on.");
+            } else {
+                log.info("SolrQueryService.isAccessSubjectPopulated - " + missing + " documents don't have the "
+                         + ACCESS_SUBJECT + " field yet, so the access filter uses the permission fields until the index is rebuilt.");
+            }
+        } catch (Exception e) {
+            log.warn("SolrQueryService.isAccessSubjectPopulated - can't check the " + ACCESS_SUBJECT + " field: "
+                     + e.getMessage());
+        }
+        return accessSubjectPopulated;
+    }
+
+    /**
+     * Get the client of the solr server, which is used to check the index itself.
+     * @return the client. It is null if the service doesn't have one.
+     */
+    protected SolrClient getSolrClient() {
+        return null;
+    }
+
+    /*
+     * Trim, de-duplicate and sort the values of the subjects
+     */
+    private static Set<String> normalizeSubjects(Set<Subject> subjects) {
+        Set<String> normalized = new TreeSet<String>();
+        if (subjects != null) {
+            for (Subject subject : subjects) {
+                if (subject != null && subject.getValue() != null && !subject.getValue().trim().equals("")) {
+                    normalized.add(subject.getValue().trim());
+                }
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Generate the terms filter over the accessSubject field, which the schema fills with the
+     * subjects of the readPermission, writePermission and changePermission fields at index time.
+     * The public subject matches the public objects since it is in one of those fields of any
+     * object whose isPublic is true. The rightsHolder isn't copied into the field: like the clauses
+     * of generateAccessFilterParamsString, it only matches the subjects other than public and
+     * authenticatedUser, so it is a second terms filter which the first one is OR-ed with.
+     * @param subjects  the normalized subjects
+     * @return the terms filter
+     */
+    protected static String generateTermsFilterString(Set<String> subjects) {
+        String permissions = generateTermsFilterString(TERMS_FILTER_PREFIX, subjects);
+        Set<String> owners = new TreeSet<String>(subjects);
+        owners.remove(Constants.SUBJECT_PUBLIC);
+        owners.remove(Constants.SUBJECT_AUTHENTICATED_USER);
+        if (owners.isEmpty()) {
+            return permissions;
+        }
+        String rightsHolder = generateTermsFilterString(RIGHTSHOLDER_FILTER_PREFIX, owners);
+        return "{!bool should='" + escapeLocalParam(permissions) + "' should='" + escapeLocalParam(rightsHolder) + "'}";
+    }
+
+    /*
+     * Generate a terms filter with the prefix which names its field
+     */
+    private static String generateTermsFilterString(String prefix, Set<String> subjects) {
+        StringBuffer filter = new StringBuffer(prefix);
+        boolean first = true;
+        for (String subject : subjects) {
+            if (!first) {
+                filter.append(SUBJECT_SEPARATOR);
+            }
+            filter.append(subject);
+            first = false;
+        }
+        return filter.toString();
+    }
+
+    /*
+     * Escape a value which is quoted with single quotes in the local params of a query
+     */
+    private static String escapeLocalParam(String value) {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
     protected StringBuffer generateAccessFilterParamsString(Set<Subject>subjects) {
         StringBuffer query = new StringBuffer();
         boolean first = true;
@@ -0,0 +1,471 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: A compact binary form of the system metadata which is shared by
+ *    Metacat and Metacat-index.
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.serialization;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+
+import org.dataone.service.types.v1.AccessPolicy;
+import org.dataone.service.types.v1.AccessRule;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.NodeReference;
+import org.dataone.service.types.v1.ObjectFormatIdentifier;
+import org.dataone.service.types.v1.Permission;
+import org.dataone.service.types.v1.Replica;
+import org.dataone.service.types.v1.ReplicationPolicy;
+import org.dataone.service.types.v1.ReplicationStatus;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v2.MediaType;
+import org.dataone.service.types.v2.MediaTypeProperty;
+import org.dataone.service.types.v2.SystemMetadata;
+
+/**
+ * Writes and reads the system metadata field by field in a compact binary form.
+ * The default java serialization writes the class descriptions of the whole object
+ * graph (subjects, node references, replicas and so on) with every entry, which makes
+ * the entries of the Hazelcast structures several times larger than the data itself.
+ * The classes put into the Hazelcast structures use this class in their writeExternal
+ * and readExternal methods, so Metacat and Metacat-index agree on the format.
+ *
+ * Every optional field is preceded by a flag telling whether it is present. The first
+ * byte is the version of the format; a new field of the DataONE types needs a new version.
+ * @author tao
+ *
+ */
+public class SystemMetadataSerializer {
+    private static final byte VERSION = 1;
+    private static final String UTF8 = "UTF-8";
+
+    /**
+     * Write the system metadata to the output. It may be null.
+     * @param out  the output
+     * @param sysmeta  the system metadata
+     * @throws IOException
+     */
+    public static void write(DataOutput out, SystemMetadata sysmeta) throws IOException {
+        if (sysmeta == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(VERSION);
+        writeBigInteger(out, sysmeta.getSerialVersion());
+        writeIdentifier(out, sysmeta.getIdentifier());
+        writeString(out, sysmeta.getFormatId() == null ? null : sysmeta.getFormatId().getValue());
+        writeBigInteger(out, sysmeta.getSize());
+        Checksum checksum = sysmeta.getChecksum();
+        out.writeBoolean(checksum != null);
+        if (checksum != null) {
+            writeString(out, checksum.getValue());
+            writeString(out, checksum.getAlgorithm());
+        }
+        writeSubject(out, sysmeta.getSubmitter());
+        writeSubject(out, sysmeta.getRightsHolder());
+        writeAccessPolicy(out, sysmeta.getAccessPolicy());
+        writeReplicationPolicy(out, sysmeta.getReplicationPolicy());
+        writeIdentifier(out, sysmeta.getObsoletes());
+        writeIdentifier(out, sysmeta.getObsoletedBy());
+        writeBoolean(out, sysmeta.getArchived());
+        writeDate(out, sysmeta.getDateUploaded());
+        writeDate(out, sysmeta.getDateSysMetadataModified());
+        writeNodeReference(out, sysmeta.getOriginMemberNode());
+        writeNodeReference(out, sysmeta.getAuthoritativeMemberNode());
+        List<Replica> replicas = sysmeta.getReplicaList();
+        writeSize(out, replicas);
+        if (replicas != null) {
+            for (Replica replica : replicas) {
+                writeNodeReference(out, replica.getReplicaMemberNode());
+                writeString(out, replica.getReplicationStatus() == null ? null : replica.getReplicationStatus().xmlValue());
+                writeDate(out, replica.getReplicaVerified());
+            }
+        }
+        writeIdentifier(out, sysmeta.getSeriesId());
+        MediaType mediaType = sysmeta.getMediaType();
+        out.writeBoolean(mediaType != null);
+        if (mediaType != null) {
+            writeString(out, mediaType.getName());
+            List<MediaTypeProperty> properties = mediaType.getPropertyList();
+            writeSize(out, properties);
+            if (properties != null) {
+                for (MediaTypeProperty property : properties) {
+                    writeString(out, property.getName());
+                    writeString(out, property.getValue());
+                }
+            }
+        }
+        writeString(out, sysmeta.getFileName());
+    }
+
+    /**
+     * Read the system metadata written by the write method
+     * @param in  the input
+     * @return the system metadata. It may be null.
+     * @throws IOException
+     */
+    public static SystemMetadata read(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version == 0) {
+            return null;
+        }
+        if (version != VERSION) {
+            throw new IOException("SystemMetadataSerializer.read - unknown version " + version + " of the serialized system metadata");
+        }
+        SystemMetadata sysmeta = new SystemMetadata();
+        sysmeta.setSerialVersion(readBigInteger(in));
+        sysmeta.setIdentifier(readIdentifier(in));
+        String formatId = readString(in);
+        if (formatId != null) {
+            ObjectFormatIdentifier format = new ObjectFormatIdentifier();
+            format.setValue(formatId);
+            sysmeta.setFormatId(format);
+        }
+        sysmeta.setSize(readBigInteger(in));
+        if (in.readBoolean()) {
+            Checksum checksum = new Checksum();
+            checksum.setValue(readString(in));
+            checksum.setAlgorithm(readString(in));
+            sysmeta.setChecksum(checksum);
+        }
+        sysmeta.setSubmitter(readSubject(in));
+        sysmeta.setRightsHolder(readSubject(in));
+        sysmeta.setAccessPolicy(readAccessPolicy(in));
+        sysmeta.setReplicationPolicy(readReplicationPolicy(in));
+        sysmeta.setObsoletes(readIdentifier(in));
+        sysmeta.setObsoletedBy(readIdentifier(in));
+        sysmeta.setArchived(readBoolean(in));
+        sysmeta.setDateUploaded(readDate(in));
+        sysmeta.setDateSysMetadataModified(readDate(in));
+        sysmeta.setOriginMemberNode(readNodeReference(in));
+        sysmeta.setAuthoritativeMemberNode(readNodeReference(in));
+        int replicas = in.readInt();
+        for (int i = 0; i < replicas; i++) {
+            Replica replica = new Replica();
+            replica.setReplicaMemberNode(readNodeReference(in));
+            String status = readString(in);
+            if (status != null) {
+                replica.setReplicationStatus(ReplicationStatus.convert(status));
+            }
+            replica.setReplicaVerified(readDate(in));
+            sysmeta.addReplica(replica);
+        }
+        sysmeta.setSeriesId(readIdentifier(in));
+        if (in.readBoolean()) {
+            MediaType mediaType = new MediaType();
+            mediaType.setName(readString(in));
+            int properties = in.readInt();
+            for (int i = 0; i < properties; i++) {
+                MediaTypeProperty property = new MediaTypeProperty();
+                property.setName(readString(in));
+                property.setValue(readString(in));
+                mediaType.addProperty(property);
+            }
+            sysmeta.setMediaType(mediaType);
+        }
+        sysmeta.setFileName(readString(in));
+        return sysmeta;
+    }
+
+    /**
+     * Write an identifier. It may be null.
+     * @param out  the output
+     * @param identifier  the identifier
+     * @throws IOException
+     */
+    public static void writeIdentifier(DataOutput out, Identifier identifier) throws IOException {
+        writeString(out, identifier == null ? null : identifier.getValue());
+    }
+
+    /**
+     * Read an identifier written by the writeIdentifier method
+     * @param in  the input
+     * @return the identifier. It may be null.
+     * @throws IOException
+     */
+    public static Identifier readIdentifier(DataInput in) throws IOException {
+        String value = readString(in);
+        if (value == null) {
+            return null;
+        }
+        Identifier identifier = new Identifier();
+        identifier.setValue(value);
+        return identifier;
+    }
+
+    /**
+     * Write a string. Unlike writeUTF, it isn't limited to 64k bytes. It may be null.
+     * @param out  the output
+     * @param value  the string
+     * @throws IOException
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by the writeString method
+     * @param in  the input
+     * @return the string. It may be null.
+     * @throws IOException
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write a date. It may be null.
+     * @param out  the output
+     * @param date  the date
+     * @throws IOException
+     */
+    public static void writeDate(DataOutput out, Date date) throws IOException {
+        out.writeBoolean(date != null);
+        if (date != null) {
+            out.writeLong(date.getTime());
+        }
+    }
+
+    /**
+     * Read a date written by the writeDate method
+     * @param in  the input
+     * @return the date. It may be null.
+     * @throws IOException
+     */
+    public static Date readDate(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new Date(in.readLong());
+    }
+
+    /*
+     * Write a subject. It may be null.
+     */
+    private static void writeSubject(DataOutput out, Subject subject) throws IOException {
+        writeString(out, subject == null ? null : subject.getValue());
+    }
+
+    /*
+     * Read a subject written by the writeSubject method
+     */
+    private static Subject readSubject(DataInput in) throws IOException {
+        String value = readString(in);
+        if (value == null) {
+            return null;
+        }
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+
+    /*
+     * Write a node reference. It may be null.
+     */
+    private static void writeNodeReference(DataOutput out, NodeReference node) throws IOException {
+        writeString(out, node == null ? null : node.getValue());
+    }
+
+    /*
+     * Read a node reference written by the writeNodeReference method
+     */
+    private static NodeReference readNodeReference(DataInput in) throws IOException {
+        String value = readString(in);
+        if (value == null) {
+            return null;
+        }
+        NodeReference node = new NodeReference();
+        node.setValue(value);
+        return node;
+    }
+
+    /*
+     * Write the access policy. It may be null.
+     */
+    private static void writeAccessPolicy(DataOutput out, AccessPolicy policy) throws IOException {
+        out.writeBoolean(policy != null);
+        if (policy == null) {
+            return;
+        }
+        List<AccessRule> rules = policy.getAllowList();
+        writeSize(out, rules);
+        if (rules != null) {
+            for (AccessRule rule : rules) {
+                List<Subject> subjects = rule.getSubjectList();
+                writeSize(out, subjects);
+                if (subjects != null) {
+                    for (Subject subject : subjects) {
+                        writeSubject(out, subject);
+                    }
+                }
+                List<Permission> permissions = rule.getPermissionList();
+                writeSize(out, permissions);
+                if (permissions != null) {
+                    for (Permission permission : permissions) {
+                        writeString(out, permission.xmlValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Read an access policy written by the writeAccessPolicy method
+     */
+    private static AccessPolicy readAccessPolicy(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        AccessPolicy policy = new AccessPolicy();
+        int rules = in.readInt();
+        for (int i = 0; i < rules; i++) {
+            AccessRule rule = new AccessRule();
+            int subjects = in.readInt();
+            for (int j = 0; j < subjects; j++) {
+                rule.addSubject(readSubject(in));
+            }
+            int permissions = in.readInt();
+            for (int j = 0; j < permissions; j++) {
+                rule.addPermission(Permission.convert(readString(in)));
+            }
+            policy.addAllow(rule);
+        }
+        return policy;
+    }
+
+    /*
+     * Write the replication policy. It may be null.
+     */
+    private static void writeReplicationPolicy(DataOutput out, ReplicationPolicy policy) throws IOException {
+        out.writeBoolean(policy != null);
+        if (policy == null) {
+            return;
+        }
+        writeBoolean(out, policy.getReplicationAllowed());
+        out.writeBoolean(policy.getNumberReplicas() != null);
+        if (policy.getNumberReplicas() != null) {
+            out.writeInt(policy.getNumberReplicas().intValue());
+        }
+        List<NodeReference> preferred = policy.getPreferredMemberNodeList();
+        writeSize(out, preferred);
+        if (preferred != null) {
+            for (NodeReference node : preferred) {
+                writeNodeReference(out, node);
+            }
+        }
+        List<NodeReference> blocked = policy.getBlockedMemberNodeList();
+        writeSize(out, blocked);
+        if (blocked != null) {
+            for (NodeReference node : blocked) {
+                writeNodeReference(out, node);
+            }
+        }
+    }
+
+    /*
+     * Read a replication policy written by the writeReplicationPolicy method
+     */
+    private static ReplicationPolicy readReplicationPolicy(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        ReplicationPolicy policy = new ReplicationPolicy();
+        policy.setReplicationAllowed(readBoolean(in));
+        if (in.readBoolean()) {
+            policy.setNumberReplicas(in.readInt());
+        }
+        int preferred = in.readInt();
+        for (int i = 0; i < preferred; i++) {
+            policy.addPreferredMemberNode(readNodeReference(in));
+        }
+        int blocked = in.readInt();
+        for (int i = 0; i < blocked; i++) {
+            policy.addBlockedMemberNode(readNodeReference(in));
+        }
+        return policy;
+    }
+
+    /*
+     * Write a Boolean object. It may be null.
+     */
+    private static void writeBoolean(DataOutput out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : (value.booleanValue() ? 1 : 0));
+    }
+
+    /*
+     * Read a Boolean object written by the writeBoolean method
+     */
+    private static Boolean readBoolean(DataInput in) throws IOException {
+        byte value = in.readByte();
+        if (value < 0) {
+            return null;
+        }
+        return Boolean.valueOf(value == 1);
+    }
+
+    /*
+     * Write a BigInteger. It may be null.
+     */
+    private static void writeBigInteger(DataOutput out, BigInteger value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /*
+     * Read a BigInteger written by the writeBigInteger method
+     */
+    private static BigInteger readBigInteger(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    /*
+     * Write the size of a list. An empty or null list is written as 0.
+     */
+    private static void writeSize(DataOutput out, List<?> list) throws IOException {
+        out.writeInt(list == null ? 0 : list.size());
+    }
+}
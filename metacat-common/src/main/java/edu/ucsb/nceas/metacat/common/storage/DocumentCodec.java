@@ -0,0 +1,342 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes the metadata documents which may be stored compressed on disk.
+ * A compressed file starts with a header of 14 bytes:
+ * the magic bytes 0x89 'M' 'C' 'Z', the format version (1), the codec (1 - gzip) and
+ * the length of the original bytes as a big-endian long. The compressed stream follows.
+ * A file without the header is a plain file, so both kinds can live in the same directory
+ * and the readers don't need to know which one they get. An XML document can't start with
+ * the byte 0x89, so the plain documents are never mistaken for compressed ones.
+ *
+ * Both directions stream: the readers get an inflating stream and the writers a deflating one,
+ * so a document is never held in memory as a whole.
+ */
+public class DocumentCodec {
+
+    public static final int HEADER_LENGTH = 14;
+    public static final byte VERSION = 1;
+    public static final byte CODEC_GZIP = 1;
+    /** The suffix of the temporary files written by compress and decompress */
+    public static final String TEMP_SUFFIX = ".mcz.tmp";
+    private static final byte[] MAGIC = {(byte) 0x89, 'M', 'C', 'Z'};
+    private static final int LENGTH_OFFSET = 6;
+    private static final long UNKNOWN_LENGTH = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String DIGEST_ALGORITHM = "MD5";
+
+    /**
+     * If the file is stored compressed
+     * @param file  the file
+     * @return true if the file starts with the header of a compressed document
+     * @throws IOException
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        if (file.length() < HEADER_LENGTH) {
+            return false;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return readHeader(in) != null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Open a stream of the original bytes of a document. A plain file is returned as
+     * a FileInputStream positioned at the start of the file; a compressed one is inflated
+     * while it is read.
+     * @param file  the file of the document
+     * @return the stream of the original bytes
+     * @throws IOException
+     */
+    public static InputStream openInputStream(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            Long length = null;
+            if (file.length() >= HEADER_LENGTH) {
+                length = readHeader(in);
+            }
+            if (length == null) {
+                in.getChannel().position(0);
+                return in;
+            }
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a stream which compresses the bytes written into it to the file. The length
+     * of the original bytes is written into the header when the stream is closed.
+     * @param file  the file. It is replaced if it exists.
+     * @return the compressing stream
+     * @throws IOException
+     */
+    public static OutputStream openCompressingOutputStream(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            writeHeader(out, UNKNOWN_LENGTH);
+            return new CompressingOutputStream(file, new GZIPOutputStream(out, BUFFER_SIZE));
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the length of the original bytes of a document
+     * @param file  the file of the document
+     * @return the length of the original bytes, which is the length of the file for a plain one.
+     *         It is 0 if the file doesn't exist.
+     * @throws IOException
+     */
+    public static long getOriginalLength(File file) throws IOException {
+        if (file.length() < HEADER_LENGTH) {
+            return file.length();
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            Long length = readHeader(in);
+            if (length == null) {
+                return file.length();
+            } else if (length.longValue() != UNKNOWN_LENGTH) {
+                return length.longValue();
+            }
+        } finally {
+            in.close();
+        }
+        //the writer didn't finish the header, so count the bytes
+        InputStream original = openInputStream(file);
+        try {
+            return copy(original, null, null);
+        } finally {
+            original.close();
+        }
+    }
+
+    /**
+     * Compress a plain file in place. The compressed copy is written into a temporary file
+     * in the same directory, its inflated bytes are compared with the original ones and then
+     * it replaces the file by a rename, so the readers see either the old or the new file.
+     * The modification time of the file is kept.
+     * @param file  the plain file
+     * @return true if the file was compressed, false if it already was compressed
+     * @throws IOException  if the file couldn't be compressed or the copy doesn't match. The file is unchanged then.
+     */
+    public static boolean compress(File file) throws IOException {
+        return rewrite(file, true);
+    }
+
+    /**
+     * Decompress a compressed file in place, the same way compress does the opposite
+     * @param file  the compressed file
+     * @return true if the file was decompressed, false if it already was plain
+     * @throws IOException  if the file couldn't be decompressed. The file is unchanged then.
+     */
+    public static boolean decompress(File file) throws IOException {
+        return rewrite(file, false);
+    }
+
+    /*
+     * Write the file in the other form into a temporary file, verify it and rename it over the file
+     */
+    private static boolean rewrite(File file, boolean compress) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("DocumentCodec.rewrite - the file " + file.getAbsolutePath() + " doesn't exist");
+        }
+        if (isCompressed(file) == compress) {
+            return false;
+        }
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        boolean success = false;
+        try {
+            MessageDigest originalDigest = getDigest();
+            InputStream in = openInputStream(file);
+            OutputStream out = null;
+            try {
+                if (compress) {
+                    out = openCompressingOutputStream(temp);
+                } else {
+                    out = new FileOutputStream(temp);
+                }
+                copy(in, out, originalDigest);
+            } finally {
+                in.close();
+                if (out != null) {
+                    out.close();
+                }
+            }
+            MessageDigest copyDigest = getDigest();
+            InputStream check = openInputStream(temp);
+            try {
+                copy(check, null, copyDigest);
+            } finally {
+                check.close();
+            }
+            if (!MessageDigest.isEqual(originalDigest.digest(), copyDigest.digest())) {
+                throw new IOException("DocumentCodec.rewrite - the bytes of the new copy of " + file.getAbsolutePath()
+                                      + " don't match the original ones");
+            }
+            long modified = file.lastModified();
+            if (!temp.renameTo(file)) {
+                throw new IOException("DocumentCodec.rewrite - couldn't rename " + temp.getAbsolutePath() + " to "
+                                      + file.getAbsolutePath());
+            }
+            file.setLastModified(modified);
+            success = true;
+        } finally {
+            if (!success) {
+                temp.delete();
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Read the header. Return the original length if the stream starts with the header of a
+     * compressed document, or null if it doesn't. The stream is at the end of the header then.
+     */
+    private static Long readHeader(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        DataInputStream data = new DataInputStream(in);
+        try {
+            data.readFully(header);
+        } catch (EOFException e) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+        if (header[4] != VERSION || header[5] != CODEC_GZIP) {
+            throw new IOException("DocumentCodec.readHeader - the compressed document has the unsupported version "
+                                   + header[4] + " or codec " + header[5]);
+        }
+        long length = 0;
+        for (int i = LENGTH_OFFSET; i < HEADER_LENGTH; i++) {
+            length = (length << 8) | (header[i] & 0xff);
+        }
+        return Long.valueOf(length);
+    }
+
+    /*
+     * Write the header with the given original length
+     */
+    private static void writeHeader(OutputStream out, long length) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(CODEC_GZIP);
+        data.writeLong(length);
+        data.flush();
+    }
+
+    /*
+     * Copy the stream into the output and the digest, which both can be null. Return the number of bytes.
+     */
+    private static long copy(InputStream in, OutputStream out, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long count = 0;
+        int read = 0;
+        while ((read = in.read(buffer)) != -1) {
+            if (out != null) {
+                out.write(buffer, 0, read);
+            }
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    /*
+     * Get the digest comparing the original bytes and the copy
+     */
+    private static MessageDigest getDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("DocumentCodec.getDigest - " + e.getMessage());
+        }
+    }
+
+    /*
+     * The stream compressing the bytes, which counts them and writes the count into
+     * the header of the file when it is closed.
+     */
+    private static class CompressingOutputStream extends FilterOutputStream {
+        private File file = null;
+        private long count = 0;
+        private boolean closed = false;
+
+        CompressingOutputStream(File file, GZIPOutputStream out) {
+            super(out);
+            this.file = file;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            super.close();
+            RandomAccessFile header = new RandomAccessFile(file, "rw");
+            try {
+                header.seek(LENGTH_OFFSET);
+                header.writeLong(count);
+            } finally {
+                header.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.metrics;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the address check of the MetricsServlet class
+ */
+public class MetricsServletTest {
+
+    /**
+     * Test that no address, not even the loopback address, is allowed without being listed
+     */
+    @Test
+    public void testNothingImplicit() {
+        assertFalse(MetricsServlet.isAllowed("127.0.0.1", null));
+        assertFalse(MetricsServlet.isAllowed("127.0.0.1", new String[0]));
+        assertFalse(MetricsServlet.isAllowed("0:0:0:0:0:0:0:1", new String[] {""}));
+        assertFalse(MetricsServlet.isAllowed(null, new String[] {"127.0.0.1"}));
+    }
+
+    /**
+     * Test that the listed addresses are allowed however they are written
+     */
+    @Test
+    public void testListed() {
+        String[] allowed = new String[] {"192.168.1.10", " ::1 "};
+        assertTrue(MetricsServlet.isAllowed("192.168.1.10", allowed));
+        assertTrue(MetricsServlet.isAllowed("0:0:0:0:0:0:0:1", allowed));
+        assertFalse(MetricsServlet.isAllowed("127.0.0.1", allowed));
+        assertFalse(MetricsServlet.isAllowed("192.168.1.11", allowed));
+    }
+}
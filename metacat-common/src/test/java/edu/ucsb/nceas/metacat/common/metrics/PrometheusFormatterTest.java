@@ -0,0 +1,112 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: Test the Prometheus text format of the metrics.
+ *    Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistry.MetricSupplier;
+import com.codahale.metrics.Timer;
+
+/**
+ * Test the PrometheusFormatter class
+ */
+public class PrometheusFormatterTest {
+
+    /**
+     * Test the names with and without a prefix
+     */
+    @Test
+    public void testGetName() {
+        PrometheusFormatter formatter = new PrometheusFormatter("metacat");
+        assertEquals("metacat_d1_mn_v2_object_GET", formatter.getName("d1.mn.v2.object.GET"));
+        assertEquals("metacat_index_subprocessor_Foo_Bar", formatter.getName("index.subprocessor.Foo$Bar"));
+        formatter = new PrometheusFormatter(null);
+        assertEquals("db_pool_free", formatter.getName("db.pool.free"));
+        assertEquals("_404_count", formatter.getName("404.count"));
+    }
+
+    /**
+     * Test that the labels at the end of a name aren't part of the name
+     */
+    @Test
+    public void testGetLabels() {
+        PrometheusFormatter formatter = new PrometheusFormatter("metacat");
+        String name = MetacatMetrics.labeled("d1.mn.v2.object.GET.responses", "status", "404");
+        assertEquals("d1.mn.v2.object.GET.responses{status=404}", name);
+        assertEquals("metacat_d1_mn_v2_object_GET_responses", formatter.getName(name));
+        assertEquals("status=\"404\"", formatter.getLabels(name));
+        assertEquals("a_b=\"x\\\"y\",c=\"z\"", formatter.getLabels("foo{a.b=x\"y, c=z}"));
+        assertEquals("", formatter.getLabels("d1.mn.v2.object.GET"));
+    }
+
+    /**
+     * Test writing the gauges, counters and timers
+     * @throws Exception
+     */
+    @Test
+    public void testWrite() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.register("db.pool.free", new Gauge<Integer>() {
+            public Integer getValue() {
+                return 7;
+            }
+        });
+        registry.register("not.a.number", new Gauge<String>() {
+            public String getValue() {
+                return "seven";
+            }
+        });
+        registry.counter("d1.mn.v2.object.GET.responses{status=200}").inc(3);
+        registry.counter("d1.mn.v2.object.GET.responses{status=404}").inc();
+        registry.timer("d1.mn.v2.object.GET", new MetricSupplier<Timer>() {
+            public Timer newMetric() {
+                return new MetacatMetrics.SummingTimer();
+            }
+        });
+        registry.timer("d1.mn.v2.object.GET").update(250, TimeUnit.MILLISECONDS);
+        registry.timer("d1.mn.v2.object.GET").update(250, TimeUnit.MILLISECONDS);
+        registry.histogram("index.batch.size").update(5);
+        StringWriter writer = new StringWriter();
+        new PrometheusFormatter("metacat").write(registry, writer);
+        String text = writer.toString();
+        assertTrue(text.contains("# TYPE metacat_db_pool_free gauge\nmetacat_db_pool_free 7\n"));
+        assertTrue(!text.contains("not_a_number"));
+        // one metric with a sample per status
+        assertTrue(text.contains("# TYPE metacat_d1_mn_v2_object_GET_responses gauge\n"
+                                 + "metacat_d1_mn_v2_object_GET_responses{status=\"200\"} 3\n"
+                                 + "metacat_d1_mn_v2_object_GET_responses{status=\"404\"} 1\n"));
+        assertTrue(text.contains("# TYPE metacat_d1_mn_v2_object_GET_seconds summary\n"));
+        assertTrue(text.contains("metacat_d1_mn_v2_object_GET_seconds{quantile=\"0.99\"} 0.25\n"));
+        assertTrue(text.contains("metacat_d1_mn_v2_object_GET_seconds_count 2\n"));
+        assertTrue(text.contains("metacat_d1_mn_v2_object_GET_seconds_sum 0.5\n"));
+        // a histogram which isn't a summing one gets the sum from its snapshot
+        assertTrue(text.contains("metacat_index_batch_size_count 1\n"));
+        assertTrue(text.contains("metacat_index_batch_size_sum 5\n"));
+    }
+}
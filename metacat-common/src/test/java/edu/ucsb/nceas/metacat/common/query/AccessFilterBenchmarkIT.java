@@ -0,0 +1,68 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: Compare the cost of the access filters of the solr queries.
+ *    Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.query;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Subject;
+import org.junit.Test;
+
+/**
+ * Compares building the OR string of the permission clauses for every query with getting the
+ * cached terms filter for a user with many groups. It is timing-dependent, so surefire doesn't
+ * run it by default; run it with mvn test -Dtest=AccessFilterBenchmarkIT.
+ */
+public class AccessFilterBenchmarkIT {
+    private static final int GROUPS = 60;
+    private static final int ROUNDS = 20000;
+    private static Log log = LogFactory.getLog(AccessFilterBenchmarkIT.class);
+
+    /**
+     * Compare the time and the length of the filters for a user with many groups
+     */
+    @Test
+    public void benchmark() throws Exception {
+        SolrQueryService permissions = AccessFilterTest.createService(false);
+        SolrQueryService terms = AccessFilterTest.createService(true);
+        Set<Subject> subjects = AccessFilterTest.createSubjects(GROUPS);
+        String oldFilter = permissions.generateAccessFilterParamsString(subjects).toString();
+        String newFilter = terms.getAccessFilter(subjects);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            permissions.generateAccessFilterParamsString(subjects);
+        }
+        long oldTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            terms.getAccessFilter(subjects);
+        }
+        long newTime = System.nanoTime() - start;
+        log.info("AccessFilterBenchmarkIT.benchmark - for " + subjects.size() + " subjects the permission filter has "
+                 + oldFilter.length() + " characters and takes " + oldTime / ROUNDS / 1000.0
+                 + " microseconds to build; the cached terms filter has " + newFilter.length()
+                 + " characters and takes " + newTime / ROUNDS / 1000.0 + " microseconds to get");
+        assertTrue(newFilter.length() < oldFilter.length());
+    }
+}
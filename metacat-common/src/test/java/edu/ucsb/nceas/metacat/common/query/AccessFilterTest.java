@@ -0,0 +1,201 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: Test the access filter of the solr queries.
+ *    Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.schema.SchemaField;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.util.Constants;
+import org.junit.Test;
+
+/**
+ * Test the access filter which the SolrQueryService appends to the queries
+ */
+public class AccessFilterTest {
+
+    /**
+     * Test the terms filter over the combined field
+     */
+    @Test
+    public void testTermsFilter() throws Exception {
+        SolrQueryService service = createService(true);
+        Set<Subject> subjects = createSubjects(2);
+        String filter = service.getAccessFilter(subjects);
+        assertTrue(filter.startsWith("{!bool should='{!terms f=" + SolrQueryService.ACCESS_SUBJECT + " "));
+        assertTrue(filter.contains("CN=group0,DC=dataone,DC=org"));
+        assertFalse(filter.contains(" OR "));
+        //the public and authenticatedUser subjects only match the permission fields
+        String permissions = filter.substring(0, filter.indexOf("' should='"));
+        String rightsHolder = filter.substring(filter.indexOf("' should='"));
+        assertTrue(permissions.contains(Constants.SUBJECT_PUBLIC));
+        assertTrue(permissions.contains(Constants.SUBJECT_AUTHENTICATED_USER));
+        assertTrue(rightsHolder.contains("{!terms f=rightsHolder "));
+        assertTrue(rightsHolder.contains("CN=group0,DC=dataone,DC=org"));
+        assertFalse(rightsHolder.contains(Constants.SUBJECT_PUBLIC));
+        assertFalse(rightsHolder.contains(Constants.SUBJECT_AUTHENTICATED_USER));
+
+        //the same subjects in another order and with spaces get the same filter
+        List<Subject> reversed = new ArrayList<Subject>(subjects);
+        Collections.reverse(reversed);
+        Set<Subject> other = new LinkedHashSet<Subject>();
+        for (Subject subject : reversed) {
+            other.add(createSubject(" " + subject.getValue() + " "));
+        }
+        assertEquals(filter, service.getAccessFilter(other));
+        assertEquals("", service.getAccessFilter(null));
+        assertEquals("", service.getAccessFilter(new HashSet<Subject>()));
+    }
+
+    /**
+     * Test that an anonymous user only gets the terms filter over the combined field, and that the
+     * quotes of a subject are escaped in the filter over the rightsHolder
+     */
+    @Test
+    public void testTermsFilterWithoutRightsHolder() throws Exception {
+        SolrQueryService service = createService(true);
+        Set<Subject> subjects = new LinkedHashSet<Subject>();
+        subjects.add(createSubject(Constants.SUBJECT_PUBLIC));
+        assertEquals("{!terms f=" + SolrQueryService.ACCESS_SUBJECT + " separator=\"\n\"}" + Constants.SUBJECT_PUBLIC,
+                     service.getAccessFilter(subjects));
+        subjects.add(createSubject("CN=O'Brien,DC=dataone,DC=org"));
+        assertTrue(service.getAccessFilter(subjects).contains("CN=O\\'Brien,DC=dataone,DC=org"));
+    }
+
+    /**
+     * Test the filter over the permission fields when the schema doesn't have the combined field
+     */
+    @Test
+    public void testPermissionFilter() throws Exception {
+        SolrQueryService service = createService(false);
+        String filter = service.getAccessFilter(createSubjects(1));
+        assertTrue(filter.contains("readPermission:\"CN=group0,DC=dataone,DC=org\""));
+        assertTrue(filter.contains("isPublic:true"));
+        assertFalse(filter.startsWith("{!"));
+    }
+
+    /**
+     * Test the filter over the permission fields when the schema has the combined field, but the
+     * documents indexed before it was added don't have it
+     */
+    @Test
+    public void testCombinedFieldNotPopulated() throws Exception {
+        SolrQueryService service = createService(true, false);
+        String filter = service.getAccessFilter(createSubjects(1));
+        assertTrue(filter.contains("readPermission:\"CN=group0,DC=dataone,DC=org\""));
+        assertFalse(filter.startsWith("{!"));
+    }
+
+    /**
+     * Test that the service without a client doesn't use the combined field since it can't check
+     * that the documents have it
+     */
+    @Test
+    public void testNoClient() throws Exception {
+        SolrQueryService service = new SolrQueryService() {
+            public InputStream query(SolrParams query, Set<Subject> subjects, SolrRequest.METHOD method) throws Exception {
+                return null;
+            }
+
+            public Map<String, SchemaField> getIndexSchemaFields() throws Exception {
+                return fieldMap;
+            }
+
+            public String getSolrServerVersion() {
+                return null;
+            }
+        };
+        service.fieldMap = new HashMap<String, SchemaField>();
+        service.fieldMap.put(SolrQueryService.ACCESS_SUBJECT, null);
+        assertFalse(service.isAccessSubjectPopulated());
+        assertFalse(service.getAccessFilter(createSubjects(1)).startsWith("{!"));
+    }
+
+    /*
+     * Create a service whose schema has the combined field or not. All the documents have the field.
+     */
+    static SolrQueryService createService(boolean combinedField) {
+        return createService(combinedField, true);
+    }
+
+    /*
+     * Create a service whose schema has the combined field or not and whose documents have it or not
+     */
+    private static SolrQueryService createService(boolean combinedField, final boolean populated) {
+        SolrQueryService service = new SolrQueryService() {
+            protected boolean isAccessSubjectPopulated() {
+                return populated;
+            }
+
+            public InputStream query(SolrParams query, Set<Subject> subjects, SolrRequest.METHOD method) throws Exception {
+                return null;
+            }
+
+            public Map<String, SchemaField> getIndexSchemaFields() throws Exception {
+                return fieldMap;
+            }
+
+            public String getSolrServerVersion() {
+                return null;
+            }
+        };
+        service.fieldMap = new HashMap<String, SchemaField>();
+        if (combinedField) {
+            service.fieldMap.put(SolrQueryService.ACCESS_SUBJECT, null);
+        }
+        return service;
+    }
+
+    /*
+     * Create a user with the given number of groups, an equivalent identity and the public subjects
+     */
+    static Set<Subject> createSubjects(int groups) {
+        Set<Subject> subjects = new LinkedHashSet<Subject>();
+        subjects.add(createSubject("http://orcid.org/0000-0002-1234-5678"));
+        subjects.add(createSubject("CN=Jane Doe A123,O=Google,C=US,DC=cilogon,DC=org"));
+        for (int i = 0; i < groups; i++) {
+            subjects.add(createSubject("CN=group" + i + ",DC=dataone,DC=org"));
+        }
+        subjects.add(createSubject(Constants.SUBJECT_AUTHENTICATED_USER));
+        subjects.add(createSubject(Constants.SUBJECT_PUBLIC));
+        return subjects;
+    }
+
+    private static Subject createSubject(String value) {
+        Subject subject = new Subject();
+        subject.setValue(value);
+        return subject;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: Test the compact binary form of the system metadata.
+ *    Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dataone.service.types.v1.AccessPolicy;
+import org.dataone.service.types.v1.AccessRule;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Event;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.NodeReference;
+import org.dataone.service.types.v1.ObjectFormatIdentifier;
+import org.dataone.service.types.v1.Permission;
+import org.dataone.service.types.v1.Replica;
+import org.dataone.service.types.v1.ReplicationPolicy;
+import org.dataone.service.types.v1.ReplicationStatus;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v2.MediaType;
+import org.dataone.service.types.v2.MediaTypeProperty;
+import org.dataone.service.types.v2.SystemMetadata;
+import org.dataone.service.util.TypeMarshaller;
+import org.junit.Test;
+
+import edu.ucsb.nceas.metacat.common.index.IndexTask;
+import edu.ucsb.nceas.metacat.common.index.event.IndexEvent;
+
+/**
+ * Test the SystemMetadataSerializer and the classes using it. The benchmark compares
+ * the serialized size and the round trip time with the default java serialization.
+ * @author tao
+ *
+ */
+public class SystemMetadataSerializerTest {
+    private static final int ROUNDS = 2000;
+
+    /**
+     * Test that the system metadata survives a round trip in an index task
+     * @throws Exception
+     */
+    @Test
+    public void testIndexTaskRoundTrip() throws Exception {
+        SystemMetadata sysmeta = createSystemMetadata();
+        IndexTask task = new IndexTask();
+        task.setSystemMetadata(sysmeta);
+        Map<String, List<Object>> fields = new HashMap<String, List<Object>>();
+        List<Object> values = new ArrayList<Object>();
+        values.add("foo");
+        fields.put("sem_annotation", values);
+        task.setFields(fields);
+        task.setIsDeleteing(true);
+        task.setTimeAddToQueque(12345);
+        IndexTask copy = (IndexTask) deserialize(serialize(task));
+        assertEquals(toXml(sysmeta), toXml(copy.getSystemMetadata()));
+        assertEquals("foo", copy.getFields().get("sem_annotation").get(0));
+        assertTrue(copy.isDeleting());
+        assertEquals(12345, copy.getTimeAddToQueque());
+
+        //a deleting task may not have system metadata
+        task = new IndexTask();
+        copy = (IndexTask) deserialize(serialize(task));
+        assertNull(copy.getSystemMetadata());
+        assertNull(copy.getFields());
+    }
+
+    /**
+     * Test that an index event survives a round trip
+     * @throws Exception
+     */
+    @Test
+    public void testIndexEventRoundTrip() throws Exception {
+        IndexEvent event = new IndexEvent();
+        event.setAction(Event.CREATE);
+        event.setDate(new Date(1000));
+        Identifier pid = new Identifier();
+        pid.setValue("urn:uuid:event");
+        event.setIdentifier(pid);
+        IndexEvent copy = (IndexEvent) deserialize(serialize(event));
+        assertEquals(Event.CREATE, copy.getAction());
+        assertEquals(1000, copy.getDate().getTime());
+        assertEquals("urn:uuid:event", copy.getIdentifier().getValue());
+        assertNull(copy.getDescription());
+    }
+
+    /**
+     * Compare the size and the round trip time with the default java serialization
+     * @throws Exception
+     */
+    @Test
+    public void benchmark() throws Exception {
+        SystemMetadata sysmeta = createSystemMetadata();
+        IndexTask task = new IndexTask();
+        task.setSystemMetadata(sysmeta);
+        int defaultSize = serialize(sysmeta).length;
+        int compactSize = serialize(task).length;
+        System.out.println("SystemMetadataSerializerTest.benchmark - the default size is " + defaultSize
+                           + " bytes and the compact size is " + compactSize + " bytes");
+        assertTrue(compactSize < defaultSize);
+
+        //warm up before timing
+        for (int i = 0; i < ROUNDS; i++) {
+            deserialize(serialize(sysmeta));
+            deserialize(serialize(task));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            deserialize(serialize(sysmeta));
+        }
+        long defaultTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            deserialize(serialize(task));
+        }
+        long compactTime = System.nanoTime() - start;
+        System.out.println("SystemMetadataSerializerTest.benchmark - a round trip takes " + defaultTime / ROUNDS / 1000.0
+                           + " microseconds by default and " + compactTime / ROUNDS / 1000.0 + " microseconds in the compact form");
+    }
+
+    /*
+     * Create a system metadata object with all of the fields set
+     */
+    private SystemMetadata createSystemMetadata() {
+        SystemMetadata sysmeta = new SystemMetadata();
+        sysmeta.setSerialVersion(BigInteger.valueOf(3));
+        Identifier pid = new Identifier();
+        pid.setValue("urn:uuid:3a5f6bd5-6a1e-4b4e-9d65-5a3b8e6e2c11");
+        sysmeta.setIdentifier(pid);
+        ObjectFormatIdentifier format = new ObjectFormatIdentifier();
+        format.setValue("https://eml.ecoinformatics.org/eml-2.2.0");
+        sysmeta.setFormatId(format);
+        sysmeta.setSize(BigInteger.valueOf(123456789L));
+        Checksum checksum = new Checksum();
+        checksum.setAlgorithm("SHA-256");
+        checksum.setValue("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08");
+        sysmeta.setChecksum(checksum);
+        Subject submitter = new Subject();
+        submitter.setValue("http://orcid.org/0000-0002-1825-0097");
+        sysmeta.setSubmitter(submitter);
+        sysmeta.setRightsHolder(submitter);
+        AccessPolicy policy = new AccessPolicy();
+        AccessRule rule = new AccessRule();
+        Subject publicSubject = new Subject();
+        publicSubject.setValue("public");
+        rule.addSubject(publicSubject);
+        rule.addPermission(Permission.READ);
+        policy.addAllow(rule);
+        rule = new AccessRule();
+        Subject group = new Subject();
+        group.setValue("CN=test-group,DC=dataone,DC=org");
+        rule.addSubject(group);
+        rule.addPermission(Permission.WRITE);
+        rule.addPermission(Permission.CHANGE_PERMISSION);
+        policy.addAllow(rule);
+        sysmeta.setAccessPolicy(policy);
+        ReplicationPolicy replicationPolicy = new ReplicationPolicy();
+        replicationPolicy.setReplicationAllowed(true);
+        replicationPolicy.setNumberReplicas(2);
+        NodeReference preferred = new NodeReference();
+        preferred.setValue("urn:node:KNB");
+        replicationPolicy.addPreferredMemberNode(preferred);
+        sysmeta.setReplicationPolicy(replicationPolicy);
+        Identifier obsoletes = new Identifier();
+        obsoletes.setValue("urn:uuid:obsoleted");
+        sysmeta.setObsoletes(obsoletes);
+        sysmeta.setArchived(false);
+        sysmeta.setDateUploaded(new Date(1600000000000L));
+        sysmeta.setDateSysMetadataModified(new Date(1600000001000L));
+        NodeReference node = new NodeReference();
+        node.setValue("urn:node:METACAT");
+        sysmeta.setOriginMemberNode(node);
+        sysmeta.setAuthoritativeMemberNode(node);
+        Replica replica = new Replica();
+        replica.setReplicaMemberNode(preferred);
+        replica.setReplicationStatus(ReplicationStatus.COMPLETED);
+        replica.setReplicaVerified(new Date(1600000002000L));
+        sysmeta.addReplica(replica);
+        Identifier sid = new Identifier();
+        sid.setValue("series-id");
+        sysmeta.setSeriesId(sid);
+        MediaType mediaType = new MediaType();
+        mediaType.setName("text/csv");
+        MediaTypeProperty property = new MediaTypeProperty();
+        property.setName("header");
+        property.setValue("present");
+        mediaType.addProperty(property);
+        sysmeta.setMediaType(mediaType);
+        sysmeta.setFileName("data.csv");
+        return sysmeta;
+    }
+
+    /*
+     * Serialize an object by the java serialization
+     */
+    private byte[] serialize(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /*
+     * Deserialize an object by the java serialization
+     */
+    private Object deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * The xml form of the system metadata, which is used to compare two objects
+     */
+    private String toXml(SystemMetadata sysmeta) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TypeMarshaller.marshalTypeToOutputStream(sysmeta, out);
+        return out.toString("UTF-8");
+    }
+}
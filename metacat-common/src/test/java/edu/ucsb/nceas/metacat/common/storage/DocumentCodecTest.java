@@ -0,0 +1,254 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: Test the compressed storage of the metadata documents.
+ *    Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.common.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the DocumentCodec class. The benchmark compares the size on disk and the read
+ * latency of plain and compressed documents. For the cold-cache latency, set the system
+ * property documentcodec.benchmark.dir to a directory: the first run writes the documents
+ * there and later runs only read them, so the page cache can be dropped between two runs
+ * (e.g. echo 3 > /proc/sys/vm/drop_caches).
+ */
+public class DocumentCodecTest {
+    private static final int DOCUMENTS = 200;
+    private File dir = null;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = createTempDirectory();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    /**
+     * Test writing and reading a compressed document and reading a plain one
+     * @throws Exception
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] document = createDocument(new Random(1));
+        File compressed = new File(dir, "compressed.1.1");
+        OutputStream out = DocumentCodec.openCompressingOutputStream(compressed);
+        out.write(document, 0, 10);
+        out.write(document[10]);
+        out.write(document, 11, document.length - 11);
+        out.close();
+        assertTrue(DocumentCodec.isCompressed(compressed));
+        assertEquals(document.length, DocumentCodec.getOriginalLength(compressed));
+        assertTrue(compressed.length() < document.length);
+        assertArrayEquals(document, read(compressed));
+
+        File plain = new File(dir, "plain.1.1");
+        write(plain, document);
+        assertFalse(DocumentCodec.isCompressed(plain));
+        assertEquals(document.length, DocumentCodec.getOriginalLength(plain));
+        InputStream in = DocumentCodec.openInputStream(plain);
+        assertTrue(in instanceof FileInputStream);
+        in.close();
+        assertArrayEquals(document, read(plain));
+
+        //shorter than the header
+        File tiny = new File(dir, "tiny.1.1");
+        write(tiny, "<a/>".getBytes("UTF-8"));
+        assertFalse(DocumentCodec.isCompressed(tiny));
+        assertEquals(4, DocumentCodec.getOriginalLength(tiny));
+        assertArrayEquals("<a/>".getBytes("UTF-8"), read(tiny));
+    }
+
+    /**
+     * Test compressing and decompressing a document in place
+     * @throws Exception
+     */
+    @Test
+    public void testCompressInPlace() throws Exception {
+        byte[] document = createDocument(new Random(2));
+        File file = new File(dir, "document.2.1");
+        write(file, document);
+        long modified = 1000000000000L;
+        file.setLastModified(modified);
+
+        assertTrue(DocumentCodec.compress(file));
+        assertTrue(DocumentCodec.isCompressed(file));
+        assertFalse(DocumentCodec.compress(file));
+        assertArrayEquals(document, read(file));
+        assertEquals(modified, file.lastModified());
+        assertEquals(1, dir.list().length);
+
+        assertTrue(DocumentCodec.decompress(file));
+        assertFalse(DocumentCodec.isCompressed(file));
+        assertFalse(DocumentCodec.decompress(file));
+        assertArrayEquals(document, read(file));
+        assertEquals(modified, file.lastModified());
+        assertEquals(1, dir.list().length);
+    }
+
+    /**
+     * Compare the size on disk and the read latency of plain and compressed documents
+     * @throws Exception
+     */
+    @Test
+    public void benchmark() throws Exception {
+        File root = dir;
+        String benchmarkDir = System.getProperty("documentcodec.benchmark.dir");
+        if (benchmarkDir != null && !benchmarkDir.trim().equals("")) {
+            root = new File(benchmarkDir);
+        }
+        File plainDir = new File(root, "plain");
+        File compressedDir = new File(root, "compressed");
+        if (!plainDir.exists()) {
+            plainDir.mkdirs();
+            compressedDir.mkdirs();
+            Random random = new Random(3);
+            for (int i = 0; i < DOCUMENTS; i++) {
+                byte[] document = createDocument(random);
+                write(new File(plainDir, "benchmark." + i + ".1"), document);
+                OutputStream out = DocumentCodec.openCompressingOutputStream(new File(compressedDir, "benchmark." + i + ".1"));
+                out.write(document);
+                out.close();
+            }
+        } else {
+            System.out.println("DocumentCodecTest.benchmark - reading the existing documents in " + root.getAbsolutePath());
+        }
+        long plainSize = size(plainDir);
+        long compressedSize = size(compressedDir);
+        System.out.println("DocumentCodecTest.benchmark - " + plainDir.list().length + " documents take " + plainSize
+                           + " bytes plain and " + compressedSize + " bytes compressed");
+        assertTrue(compressedSize < plainSize);
+
+        //each document is read once, so only the first read of the files is timed
+        long plainTime = readAll(plainDir);
+        long compressedTime = readAll(compressedDir);
+        System.out.println("DocumentCodecTest.benchmark - reading a document takes " + plainTime / plainDir.list().length / 1000.0
+                           + " microseconds plain and " + compressedTime / compressedDir.list().length / 1000.0
+                           + " microseconds compressed");
+    }
+
+    /*
+     * Read all of the documents in the directory and return the nanoseconds it took
+     */
+    private long readAll(File directory) throws IOException {
+        byte[] buffer = new byte[8192];
+        long start = System.nanoTime();
+        for (File file : directory.listFiles()) {
+            InputStream in = DocumentCodec.openInputStream(file);
+            try {
+                while (in.read(buffer) != -1) {
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /*
+     * Create an EML-like document with some variation
+     */
+    private byte[] createDocument(Random random) throws IOException {
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buffer.append("<eml:eml xmlns:eml=\"https://eml.ecoinformatics.org/eml-2.2.0\" packageId=\"benchmark."
+                      + random.nextInt(100000) + ".1\" system=\"knb\">\n  <dataset>\n    <dataTable>\n");
+        buffer.append("      <entityName>table" + random.nextInt(1000) + ".csv</entityName>\n      <attributeList>\n");
+        int attributes = 50 + random.nextInt(150);
+        for (int i = 0; i < attributes; i++) {
+            buffer.append("        <attribute id=\"att." + i + "\">\n");
+            buffer.append("          <attributeName>column_" + i + "</attributeName>\n");
+            buffer.append("          <attributeDefinition>The measured value " + random.nextInt(10000)
+                          + " of the sample at the site</attributeDefinition>\n");
+            buffer.append("          <measurementScale><ratio><unit><standardUnit>meter</standardUnit></unit>"
+                          + "<numericDomain><numberType>real</numberType></numericDomain></ratio></measurementScale>\n");
+            buffer.append("        </attribute>\n");
+        }
+        buffer.append("      </attributeList>\n    </dataTable>\n  </dataset>\n</eml:eml>\n");
+        return buffer.toString().getBytes("UTF-8");
+    }
+
+    private byte[] read(File file) throws IOException {
+        InputStream in = DocumentCodec.openInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read = 0;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private void write(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private long size(File directory) {
+        long size = 0;
+        for (File file : directory.listFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private File createTempDirectory() throws IOException {
+        File temp = File.createTempFile("DocumentCodecTest", "");
+        temp.delete();
+        temp.mkdir();
+        return temp;
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
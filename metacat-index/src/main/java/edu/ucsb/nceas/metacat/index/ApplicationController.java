@@ -221,6 +221,10 @@ public class ApplicationController implements Runnable {
         	sysmetaListeners.add(smel);
         }
         
+        // the blue-green reindex job builds its shadow index from the first one
+        if (!solrIndexes.isEmpty()) {
+            ReindexJobManager.getInstance().setSolrIndex(solrIndexes.get(FIRST));
+        }
     }
     
     /**
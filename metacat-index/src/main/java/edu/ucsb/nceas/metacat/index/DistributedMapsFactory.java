@@ -17,8 +17,9 @@
  */
 package edu.ucsb.nceas.metacat.index;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.commons.logging.Log;
@@ -37,6 +38,7 @@ import com.hazelcast.core.ISet;
 
 import edu.ucsb.nceas.metacat.common.index.IndexTask;
 import edu.ucsb.nceas.metacat.common.index.event.IndexEvent;
+import edu.ucsb.nceas.metacat.common.storage.DocumentCodec;
 
 
 /**
@@ -205,10 +207,10 @@ public class DistributedMapsFactory {
      * Get the DataObject for the specified id. The null will be returned if not data object is found.
      * @param id the specified id
      * @return the InputStream of the data object for the specified id.
-     * @throws FileNotFoundException
+     * @throws IOException
      * @throws ServiceFailure
      */
-    public static InputStream getDataObject(String id) throws FileNotFoundException, ServiceFailure {
+    public static InputStream getDataObject(String id) throws IOException, ServiceFailure {
         if(objectPathMap == null) {
             getObjectPathMap();
         }
@@ -218,7 +220,7 @@ public class DistributedMapsFactory {
             identifier.setValue(id);
             String objectPath = objectPathMap.get(identifier);
             if(objectPath != null) {
-                data = new FileInputStream(objectPath);
+                data = DocumentCodec.openInputStream(new File(objectPath));
             }
         }
         return data;
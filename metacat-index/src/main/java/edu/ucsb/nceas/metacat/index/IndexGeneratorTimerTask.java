@@ -18,7 +18,7 @@
  */
 package edu.ucsb.nceas.metacat.index;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -55,6 +55,7 @@ import com.hazelcast.core.ISet;
 import edu.ucsb.nceas.metacat.common.index.IndexTask;
 import edu.ucsb.nceas.metacat.common.index.event.IndexEvent;
 import edu.ucsb.nceas.metacat.common.resourcemap.ResourceMapNamespaces;
+import edu.ucsb.nceas.metacat.common.storage.DocumentCodec;
 import edu.ucsb.nceas.metacat.index.event.EventlogFactory;
 import edu.ucsb.nceas.metacat.index.event.IndexEventLogException;
 
@@ -742,14 +743,14 @@ public class IndexGeneratorTimerTask extends TimerTask {
      * Get an InputStream as the data object for the specific pid.
      * @param pid
      * @return
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    private InputStream getDataObject(String pid) throws FileNotFoundException {
+    private InputStream getDataObject(String pid) throws IOException {
         Identifier identifier = new Identifier();
         identifier.setValue(pid);
         String objectPath = objectPathMap.get(identifier);
         InputStream data = null;
-        data = new FileInputStream(objectPath);
+        data = DocumentCodec.openInputStream(new File(objectPath));
         return data;
 
     }
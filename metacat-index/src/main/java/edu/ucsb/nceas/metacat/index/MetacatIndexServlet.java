@@ -21,6 +21,8 @@ package edu.ucsb.nceas.metacat.index;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -30,10 +32,14 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.dataone.configuration.Settings;
 
 
 /**
- * A servlet class for the Metadata Index module. This class only does one thing - initialize the ApplicationController class.
+ * A servlet class for the Metadata Index module. It initializes the ApplicationController class and
+ * controls the blue-green reindex job (see ReindexJobManager) for the requests which carry the shared
+ * secret of index.reindex.secret in the X-Metacat-Reindex-Secret header: GET returns the status of the
+ * job; POST with action=start starts or resumes it and POST with action=cancel stops it.
  * @author tao
  *
  */
@@ -44,6 +50,11 @@ public class MetacatIndexServlet extends HttpServlet {
     //private static final String FILEPREFIX = "file:";
     
 	private static Log log = LogFactory.getLog(MetacatIndexServlet.class);
+	private static final String ACTION = "action";
+	private static final String START = "start";
+	private static final String CANCEL = "cancel";
+	public static final String SECRET_HEADER = "X-Metacat-Reindex-Secret";
+	public static final String SECRET_PROPERTY_NAME = "index.reindex.secret";
 
     /**
      * Initialize the servlet 
@@ -124,14 +135,64 @@ public class MetacatIndexServlet extends HttpServlet {
     /** Handle "GET" method requests from HTTP clients */
     public void doGet(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException {
-        //do nothing
-      
+        if (!isAuthorized(request, response)) {
+            return;
+        }
+        writeStatus(response, null);
     }
     
     /** Handle "POST" method requests from HTTP clients */
     public void doPost(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException {
-        //do nothing
-      
+        if (!isAuthorized(request, response)) {
+            return;
+        }
+        String action = request.getParameter(ACTION);
+        String message = null;
+        if (START.equals(action)) {
+            boolean started = ReindexJobManager.getInstance().start();
+            message = started ? "The reindex job started." : "The reindex job is running or the index isn't ready yet.";
+        } else if (CANCEL.equals(action)) {
+            ReindexJobManager.getInstance().cancel();
+            message = "The reindex job was asked to stop.";
+        } else {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The action should be " + START + " or " + CANCEL);
+            return;
+        }
+        log.info("MetacatIndexServlet.doPost - " + message);
+        writeStatus(response, message);
+    }
+    
+    /*
+     * Only the callers which know the shared secret may control the reindex job. The remote address
+     * can't tell, since every request comes from this host behind a proxy. If no secret is
+     * configured, nobody may.
+     */
+    private boolean isAuthorized(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        boolean authorized = false;
+        String secret = Settings.getConfiguration().getString(SECRET_PROPERTY_NAME);
+        String given = request.getHeader(SECRET_HEADER);
+        if (secret == null || secret.trim().equals("")) {
+            log.warn("MetacatIndexServlet.isAuthorized - the property " + SECRET_PROPERTY_NAME
+                      + " isn't set, so the reindex job can't be controlled.");
+        } else if (given != null) {
+            //compare in constant time, so the secret can't be guessed from the timing
+            authorized = MessageDigest.isEqual(secret.trim().getBytes("UTF-8"), given.trim().getBytes("UTF-8"));
+        }
+        if (!authorized) {
+            log.warn("MetacatIndexServlet.isAuthorized - refuse the reindex request from " + request.getRemoteAddr());
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        }
+        return authorized;
+    }
+    
+    /*
+     * Write the status of the reindex job
+     */
+    private void writeStatus(HttpServletResponse response, String message) throws IOException {
+        response.setContentType("text/xml");
+        PrintWriter out = response.getWriter();
+        out.print(ReindexJobManager.getInstance().getStatusXML(message));
+        out.close();
     }
 }
@@ -0,0 +1,690 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.request.CoreStatus;
+import org.apache.solr.common.params.CoreAdminParams.CoreAdminAction;
+import org.dataone.configuration.Settings;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ISet;
+
+import edu.ucsb.nceas.metacat.common.SolrServerFactory;
+import edu.ucsb.nceas.metacat.common.index.IndexTask;
+import edu.ucsb.nceas.metacat.index.resourcemap.ResourceMapSubprocessor;
+
+/**
+ * Rebuild the whole solr index into a shadow core while the live core keeps serving the
+ * searches, then swap the two cores. The steps are:
+ * 1. Create the shadow core (named after the live core with the suffix -shadow) in the sibling
+ *    of the solr home with the same suffix, with a copy of the live configuration.
+ * 2. Index all objects into the shadow core, the resource maps last. The rate is throttled to
+ *    spare the database and the file system, and the progress is written into a checkpoint
+ *    file, so a job which failed or was canceled resumes where it stopped.
+ * 3. Replay the index tasks which arrived on the index queue during the build.
+ * 4. Swap the cores and replay the tasks which arrived since the last replay once more, so
+ *    nothing is lost in between. The old index is unloaded.
+ * 5. Move the new index back into the solr home, where the upgraders, the admin pages and the
+ *    index event logs expect the live core: it is merged into a new core there, the tasks since
+ *    then are replayed and the cores are swapped once more. The shadow directory is deleted.
+ * It only works with the http solr server, since it relies on the core admin API.
+ * @author tao
+ *
+ */
+public class ReindexJobManager implements Runnable, EntryListener<Identifier, IndexTask> {
+
+    public static final String IDLE = "idle";
+    public static final String BUILDING = "building";
+    public static final String REPLAYING = "replaying";
+    public static final String SWAPPING = "swapping";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+    public static final String CANCELED = "canceled";
+
+    private static final String SHADOWSUFFIX = "-shadow";
+    private static final String CONF = "conf";
+    private static final String DATA = "data";
+    private static final String COREPROPERTIES = "core.properties";
+    private static final int OTHERS = 0;
+    private static final int RESOURCEMAPS = 1;
+    private static final String SHADOWCOREKEY = "shadowCore";
+    private static final String STARTTIMEKEY = "startTime";
+    private static final String PHASEKEY = "phase";
+    private static final String LASTIDKEY = "lastId";
+    private static final String PROCESSEDKEY = "processed";
+    private static final String DEFAULTCHECKPOINTFILE = "/var/metacat/reindex-checkpoint.properties";
+    private static final int DEFAULTMAXRATE = 50;
+    private static final int DEFAULTCHECKPOINTINTERVAL = 500;
+    private static final int MAXREPLAYROUNDS = 10;
+
+    private static Log log = LogFactory.getLog(ReindexJobManager.class);
+    private static ReindexJobManager manager = null;
+
+    private SolrIndex liveIndex = null;
+    private Thread worker = null;
+    private volatile boolean canceled = false;
+    private volatile String status = IDLE;
+    private volatile String error = null;
+    private volatile String shadowCore = null;
+    private volatile long total = 0;
+    private volatile long processed = 0;
+    private volatile long processedInThisRun = 0;
+    private volatile long replayed = 0;
+    private volatile long runStartTime = 0;
+    private volatile long endTime = 0;
+    //the tasks which arrived on the index queue since the job started
+    private Map<Identifier, IndexTask> changes = new ConcurrentHashMap<Identifier, IndexTask>();
+    private File checkpointFile = null;
+    private int maxRate = DEFAULTMAXRATE;
+    private int checkpointInterval = DEFAULTCHECKPOINTINTERVAL;
+
+    /*
+     * Constructor
+     */
+    private ReindexJobManager() {
+        checkpointFile = new File(Settings.getConfiguration().getString("index.reindex.checkpointFile", DEFAULTCHECKPOINTFILE));
+        maxRate = Settings.getConfiguration().getInt("index.reindex.maxObjectsPerSecond", DEFAULTMAXRATE);
+        checkpointInterval = Settings.getConfiguration().getInt("index.reindex.checkpointInterval", DEFAULTCHECKPOINTINTERVAL);
+    }
+
+    /**
+     * Get the singleton instance
+     * @return the instance of the manager
+     */
+    public static synchronized ReindexJobManager getInstance() {
+        if (manager == null) {
+            manager = new ReindexJobManager();
+        }
+        return manager;
+    }
+
+    /**
+     * Set the SolrIndex of the live core. The shadow SolrIndex is a copy of it.
+     * @param liveIndex  the SolrIndex of the live core
+     */
+    public void setSolrIndex(SolrIndex liveIndex) {
+        this.liveIndex = liveIndex;
+    }
+
+    /**
+     * Start a job in the background. A job which failed or was canceled resumes from its checkpoint.
+     * @return false if a job is running already or the index hasn't been initialized
+     */
+    public synchronized boolean start() {
+        if (liveIndex == null) {
+            log.warn("ReindexJobManager.start - the index hasn't been initialized, so the job can't start.");
+            return false;
+        }
+        if (worker != null && worker.isAlive()) {
+            log.info("ReindexJobManager.start - a job is running, so a new one won't start.");
+            return false;
+        }
+        canceled = false;
+        error = null;
+        replayed = 0;
+        processedInThisRun = 0;
+        endTime = 0;
+        runStartTime = System.currentTimeMillis();
+        status = BUILDING;
+        worker = new Thread(this, "metacat-index-reindex");
+        worker.start();
+        return true;
+    }
+
+    /**
+     * Ask the running job to stop. It stops after the object being indexed and keeps its checkpoint.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    /**
+     * Get the status of the job as an xml string
+     * @param message  a message for the caller, which can be null
+     * @return the xml string
+     */
+    public String getStatusXML(String message) {
+        StringBuffer xml = new StringBuffer();
+        xml.append("<reindexJob>");
+        if (message != null) {
+            xml.append("<message>").append(StringEscapeUtils.escapeXml(message)).append("</message>");
+        }
+        xml.append("<status>").append(status).append("</status>");
+        if (shadowCore != null) {
+            xml.append("<shadowCore>").append(StringEscapeUtils.escapeXml(shadowCore)).append("</shadowCore>");
+        }
+        xml.append("<total>").append(total).append("</total>");
+        xml.append("<processed>").append(processed).append("</processed>");
+        xml.append("<replayed>").append(replayed).append("</replayed>");
+        xml.append("<pending>").append(changes.size()).append("</pending>");
+        if (runStartTime > 0) {
+            long end = endTime > 0 ? endTime : System.currentTimeMillis();
+            double seconds = Math.max(1, end - runStartTime) / 1000.0;
+            xml.append("<started>").append(new Date(runStartTime)).append("</started>");
+            xml.append("<objectsPerSecond>").append(String.format("%.2f", processedInThisRun / seconds)).append("</objectsPerSecond>");
+        }
+        if (error != null) {
+            xml.append("<error>").append(StringEscapeUtils.escapeXml(error)).append("</error>");
+        }
+        xml.append("</reindexJob>");
+        return xml.toString();
+    }
+
+    /**
+     * Run the job
+     */
+    public void run() {
+        SolrClient shadowClient = null;
+        IMap<Identifier, IndexTask> indexQueue = null;
+        try {
+            SolrClient adminClient = SolrServerFactory.createSolrAdminClient();
+            String liveCore = SolrServerFactory.getCoreName();
+            if (adminClient == null || liveCore == null) {
+                throw new Exception("The blue-green reindex only works with the http solr server.");
+            }
+            shadowCore = liveCore + SHADOWSUFFIX;
+            File home = new File(Settings.getConfiguration().getString(SolrServerFactory.SOLR_HOME_PROPERTY_NAME));
+
+            //listen before the ids are read, so no change is missed
+            indexQueue = DistributedMapsFactory.getIndexQueue();
+            indexQueue.addEntryListener(this, true);
+
+            String liveDir = getInstanceDir(liveCore, adminClient);
+            if (liveDir != null && !isSameDirectory(new File(liveDir), home)) {
+                //a job stopped after the swap, but before the new index was back in the solr home
+                log.info("ReindexJobManager.run - the core " + liveCore + " is in " + liveDir + " rather than the solr home "
+                          + home + ", so the job finishes moving it instead of rebuilding it.");
+                status = SWAPPING;
+                moveToHome(liveCore, shadowCore, home, adminClient);
+                deleteCheckpoint();
+                status = DONE;
+                return;
+            }
+
+            Properties checkpoint = readCheckpoint();
+            boolean resume = checkpoint != null && shadowCore.equals(checkpoint.getProperty(SHADOWCOREKEY))
+                                && getInstanceDir(shadowCore, adminClient) != null;
+            if (!resume) {
+                checkpoint = new Properties();
+                checkpoint.setProperty(SHADOWCOREKEY, shadowCore);
+                checkpoint.setProperty(STARTTIMEKEY, Long.toString(System.currentTimeMillis()));
+                createShadowCore(liveCore, shadowCore, adminClient);
+                writeCheckpoint(checkpoint);
+            } else {
+                log.info("ReindexJobManager.run - resume the job from the checkpoint " + checkpoint);
+            }
+            shadowClient = SolrServerFactory.createSolrServer(shadowCore);
+            SolrIndex shadowIndex = liveIndex.copyWithSolrServer(shadowClient);
+            //the merges with the indexed docs should read the shadow core as well
+            ResourceMapSubprocessor.setSolrServerForCurrentThread(shadowClient);
+
+            build(shadowIndex, checkpoint, resume);
+            if (canceled) {
+                status = CANCELED;
+                return;
+            }
+            status = REPLAYING;
+            int rounds = 0;
+            while (!changes.isEmpty() && rounds < MAXREPLAYROUNDS && !canceled) {
+                replay(shadowIndex);
+                rounds++;
+            }
+            if (canceled) {
+                status = CANCELED;
+                return;
+            }
+
+            status = SWAPPING;
+            ResourceMapSubprocessor.setSolrServerForCurrentThread(null);
+            swapCores(liveCore, shadowCore, adminClient);
+            //the tasks after the last replay may have gone into the old index. Now the live name is the new index.
+            replay(liveIndex);
+            unloadCore(shadowCore, adminClient);
+            moveToHome(liveCore, shadowCore, home, adminClient);
+            deleteCheckpoint();
+            status = DONE;
+            log.info("ReindexJobManager.run - the core " + liveCore + " was rebuilt and swapped. " + processed + " objects were indexed.");
+        } catch (Exception e) {
+            status = FAILED;
+            error = e.getMessage();
+            log.error("ReindexJobManager.run - the job failed and it will resume from the checkpoint next time: " + e.getMessage(), e);
+        } finally {
+            endTime = System.currentTimeMillis();
+            ResourceMapSubprocessor.setSolrServerForCurrentThread(null);
+            if (indexQueue != null) {
+                indexQueue.removeEntryListener(this);
+            }
+            if (shadowClient != null) {
+                try {
+                    shadowClient.close();
+                } catch (IOException e) {
+                    log.warn("ReindexJobManager.run - couldn't close the client of the shadow core: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /*
+     * Index all objects into the shadow core, skipping the ones done before the checkpoint
+     */
+    private void build(SolrIndex shadowIndex, Properties checkpoint, boolean resume) throws Exception {
+        IMap<Identifier, SystemMetadata> systemMetadataMap = DistributedMapsFactory.getSystemMetadataMap();
+        long jobStartTime = Long.parseLong(checkpoint.getProperty(STARTTIMEKEY));
+        List<String> others = new ArrayList<String>();
+        List<String> resourceMaps = new ArrayList<String>();
+        ISet<Identifier> ids = DistributedMapsFactory.getIdentifiersSet();
+        if (ids != null) {
+            for (Identifier identifier : ids) {
+                if (identifier == null || identifier.getValue() == null || identifier.getValue().trim().equals("")) {
+                    continue;
+                }
+                SystemMetadata sysmeta = systemMetadataMap.get(identifier);
+                if (sysmeta == null) {
+                    continue;
+                }
+                if (IndexGeneratorTimerTask.isResourceMap(sysmeta.getFormatId())) {
+                    resourceMaps.add(identifier.getValue());
+                } else {
+                    others.add(identifier.getValue());
+                }
+                //nobody listened for the changes while the job was stopped
+                if (resume && sysmeta.getDateSysMetadataModified() != null
+                        && sysmeta.getDateSysMetadataModified().getTime() >= jobStartTime) {
+                    IndexTask task = new IndexTask();
+                    task.setSystemMetadata(sysmeta);
+                    changes.put(identifier, task);
+                }
+            }
+        }
+        //a stable order makes the last id a position to resume from
+        Collections.sort(others);
+        Collections.sort(resourceMaps);
+        total = others.size() + resourceMaps.size();
+        int phase = Integer.parseInt(checkpoint.getProperty(PHASEKEY, Integer.toString(OTHERS)));
+        String lastId = checkpoint.getProperty(LASTIDKEY);
+        processed = Long.parseLong(checkpoint.getProperty(PROCESSEDKEY, "0"));
+        log.info("ReindexJobManager.build - start to index " + total + " objects into the core " + shadowCore
+                  + " from the phase " + phase + " after the id " + lastId);
+        if (phase == OTHERS) {
+            index(shadowIndex, systemMetadataMap, others, lastId, OTHERS, checkpoint);
+            lastId = null;
+        }
+        if (!canceled) {
+            index(shadowIndex, systemMetadataMap, resourceMaps, lastId, RESOURCEMAPS, checkpoint);
+        }
+    }
+
+    /*
+     * Index the sorted ids after the given one and write the checkpoint now and then
+     */
+    private void index(SolrIndex shadowIndex, IMap<Identifier, SystemMetadata> systemMetadataMap, List<String> ids,
+                        String afterId, int phase, Properties checkpoint) throws Exception {
+        long start = System.currentTimeMillis();
+        long count = 0;
+        String lastDone = null;
+        try {
+            for (String id : ids) {
+                if (canceled) {
+                    log.info("ReindexJobManager.index - the job was canceled after " + processed + " objects.");
+                    break;
+                }
+                if (afterId != null && id.compareTo(afterId) <= 0) {
+                    continue;
+                }
+                Identifier pid = new Identifier();
+                pid.setValue(id);
+                SystemMetadata sysmeta = systemMetadataMap.get(pid);
+                if (sysmeta != null) {
+                    shadowIndex.update(pid, sysmeta);
+                }
+                lastDone = id;
+                processed++;
+                processedInThisRun++;
+                count++;
+                if (count % checkpointInterval == 0) {
+                    setCheckpoint(checkpoint, phase, id);
+                }
+                throttle(start, count);
+            }
+        } finally {
+            //save the position whether it finished, was canceled or failed
+            if (lastDone != null) {
+                setCheckpoint(checkpoint, phase, lastDone);
+            }
+        }
+    }
+
+    /*
+     * Record the position in the checkpoint file
+     */
+    private void setCheckpoint(Properties checkpoint, int phase, String lastId) throws IOException {
+        checkpoint.setProperty(PHASEKEY, Integer.toString(phase));
+        checkpoint.setProperty(LASTIDKEY, lastId);
+        checkpoint.setProperty(PROCESSEDKEY, Long.toString(processed));
+        writeCheckpoint(checkpoint);
+    }
+
+    /*
+     * Sleep to keep the rate under the maximum objects per second
+     */
+    private void throttle(long start, long count) throws InterruptedException {
+        if (maxRate > 0) {
+            long due = start + count * 1000 / maxRate;
+            long wait = due - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+    }
+
+    /*
+     * Apply the recorded index tasks to the given SolrIndex, the same way as the SystemMetadataEventListener does.
+     */
+    private void replay(SolrIndex index) throws Exception {
+        IMap<Identifier, SystemMetadata> systemMetadataMap = DistributedMapsFactory.getSystemMetadataMap();
+        Iterator<Identifier> it = changes.keySet().iterator();
+        while (it.hasNext()) {
+            Identifier pid = it.next();
+            IndexTask task = changes.remove(pid);
+            if (task == null) {
+                continue;
+            }
+            if (task.isDeleting()) {
+                index.remove(pid, task.getSystemMetadata());
+            } else {
+                //the latest system metadata wins if the object changed more than once
+                SystemMetadata sysmeta = systemMetadataMap.get(pid);
+                if (sysmeta == null) {
+                    sysmeta = task.getSystemMetadata();
+                }
+                if (sysmeta != null) {
+                    index.update(pid, sysmeta);
+                }
+            }
+            if (task.getFields() != null) {
+                index.insertFields(pid, task.getFields());
+            }
+            replayed++;
+        }
+    }
+
+    /*
+     * Create the shadow core in the sibling directory of the solr home, with the configuration of
+     * the live core. A shadow core left by another job is dropped first.
+     */
+    private void createShadowCore(String liveCore, String shadowCore, SolrClient adminClient) throws Exception {
+        if (getInstanceDir(shadowCore, adminClient) != null) {
+            log.info("ReindexJobManager.createShadowCore - unload the stale shadow core " + shadowCore);
+            unloadCore(shadowCore, adminClient);
+        }
+        String liveDir = getInstanceDir(liveCore, adminClient);
+        if (liveDir == null) {
+            throw new Exception("The live core " + liveCore + " doesn't exist on the solr server.");
+        }
+        String homeDir = Settings.getConfiguration().getString(SolrServerFactory.SOLR_HOME_PROPERTY_NAME);
+        File shadowDir = getShadowDirectory(new File(homeDir));
+        prepareShadowDirectory(shadowDir, new File(liveDir));
+        //the solr user should be able to write the data directory
+        Set<PosixFilePermission> perms = new HashSet<PosixFilePermission>();
+        perms.add(PosixFilePermission.OWNER_READ);
+        perms.add(PosixFilePermission.OWNER_WRITE);
+        perms.add(PosixFilePermission.OWNER_EXECUTE);
+        perms.add(PosixFilePermission.GROUP_READ);
+        perms.add(PosixFilePermission.GROUP_WRITE);
+        perms.add(PosixFilePermission.GROUP_EXECUTE);
+        perms.add(PosixFilePermission.OTHERS_READ);
+        perms.add(PosixFilePermission.OTHERS_EXECUTE);
+        try {
+            Files.setPosixFilePermissions(shadowDir.toPath(), perms);
+        } catch (Exception e) {
+            log.warn("ReindexJobManager.createShadowCore - couldn't give the group the write permission on " + shadowDir + ": " + e.getMessage());
+        }
+        log.info("ReindexJobManager.createShadowCore - create the shadow core " + shadowCore + " in " + shadowDir);
+        CoreAdminRequest.createCore(shadowCore, shadowDir.getAbsolutePath(), adminClient);
+    }
+
+    /*
+     * Move the live core, which the swap left in the shadow directory, back into the solr home. Its
+     * index is merged into a new core in the solr home, the tasks which arrived since then are
+     * replayed into it and the two cores are swapped once more, so the searches are served all along.
+     */
+    private void moveToHome(String liveCore, String shadowCore, File home, SolrClient adminClient) throws Exception {
+        String liveDir = getInstanceDir(liveCore, adminClient);
+        if (liveDir == null || isSameDirectory(new File(liveDir), home)) {
+            return;
+        }
+        if (getInstanceDir(shadowCore, adminClient) != null) {
+            unloadCore(shadowCore, adminClient);
+        }
+        log.info("ReindexJobManager.moveToHome - move the core " + liveCore + " from " + liveDir + " into " + home);
+        prepareHome(home, new File(liveDir));
+        CoreAdminRequest.createCore(shadowCore, home.getAbsolutePath(), adminClient);
+        SolrClient homeClient = SolrServerFactory.createSolrServer(shadowCore);
+        try {
+            CoreAdminRequest.mergeIndexes(shadowCore, new String[0], new String[] {liveCore}, adminClient);
+            homeClient.commit();
+            SolrIndex homeIndex = liveIndex.copyWithSolrServer(homeClient);
+            ResourceMapSubprocessor.setSolrServerForCurrentThread(homeClient);
+            int rounds = 0;
+            while (!changes.isEmpty() && rounds < MAXREPLAYROUNDS) {
+                replay(homeIndex);
+                rounds++;
+            }
+        } finally {
+            ResourceMapSubprocessor.setSolrServerForCurrentThread(null);
+            homeClient.close();
+        }
+        swapCores(liveCore, shadowCore, adminClient);
+        replay(liveIndex);
+        boolean deleteIndex = true;
+        boolean deleteInstanceDir = true;
+        CoreAdminRequest.unloadCore(shadowCore, deleteIndex, deleteInstanceDir, adminClient);
+    }
+
+    /**
+     * Get the directory of the shadow core, which is the sibling of the solr home. The live core
+     * always stays in the solr home.
+     * @param home  the solr home
+     * @return the directory of the shadow core
+     */
+    static File getShadowDirectory(File home) {
+        return new File(home.getAbsolutePath() + SHADOWSUFFIX);
+    }
+
+    /**
+     * Empty the shadow directory and copy the configuration of the live core into it
+     * @param shadowDir  the directory of the shadow core
+     * @param liveDir  the instance directory of the live core
+     * @throws IOException if the shadow directory is the one of the live core or it can't be written
+     */
+    static void prepareShadowDirectory(File shadowDir, File liveDir) throws IOException {
+        if (isSameDirectory(shadowDir, liveDir)) {
+            throw new IOException("The live core is in the shadow directory " + shadowDir + ", so it can't be emptied.");
+        }
+        FileUtils.deleteDirectory(shadowDir);
+        FileUtils.copyDirectory(new File(liveDir, CONF), new File(shadowDir, CONF));
+    }
+
+    /**
+     * Make the solr home ready for a new core with the configuration of the live core. The old
+     * index and the core descriptor are removed, but the other files, such as the ones of the
+     * index event logs, are kept.
+     * @param home  the solr home
+     * @param liveDir  the instance directory of the live core
+     * @throws IOException if the live core is in the solr home or the files can't be written
+     */
+    static void prepareHome(File home, File liveDir) throws IOException {
+        if (isSameDirectory(home, liveDir)) {
+            throw new IOException("The live core is in the solr home " + home + " already.");
+        }
+        FileUtils.deleteDirectory(new File(home, DATA));
+        FileUtils.deleteDirectory(new File(home, CONF));
+        FileUtils.copyDirectory(new File(liveDir, CONF), new File(home, CONF));
+        //solr renames the descriptor of an unloaded core rather than deleting it
+        File[] files = home.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(COREPROPERTIES)) {
+                    FileUtils.forceDelete(file);
+                }
+            }
+        }
+    }
+
+    /*
+     * If the two files are the same directory
+     */
+    private static boolean isSameDirectory(File dir1, File dir2) throws IOException {
+        return dir1.getCanonicalFile().equals(dir2.getCanonicalFile());
+    }
+
+    /*
+     * Swap the names of the two cores on the solr server. It is atomic for the searches.
+     */
+    private void swapCores(String liveCore, String shadowCore, SolrClient adminClient) throws Exception {
+        log.info("ReindexJobManager.swapCores - swap the core " + liveCore + " with " + shadowCore);
+        CoreAdminRequest swap = new CoreAdminRequest();
+        swap.setAction(CoreAdminAction.SWAP);
+        swap.setCoreName(liveCore);
+        swap.setOtherCoreName(shadowCore);
+        swap.process(adminClient);
+    }
+
+    /*
+     * Unload a core and delete its index, but keep its instance directory for the next job
+     */
+    private void unloadCore(String core, SolrClient adminClient) throws Exception {
+        boolean deleteIndex = true;
+        CoreAdminRequest.unloadCore(core, deleteIndex, adminClient);
+    }
+
+    /*
+     * Get the instance directory of a core. Null will be returned if the core doesn't exist.
+     */
+    private String getInstanceDir(String core, SolrClient adminClient) throws Exception {
+        String instanceDir = null;
+        CoreStatus status = CoreAdminRequest.getCoreStatus(core, adminClient);
+        if (status != null) {
+            try {
+                instanceDir = status.getInstanceDirectory();
+            } catch (NullPointerException e) {
+                //the core doesn't exist
+            }
+        }
+        return instanceDir;
+    }
+
+    /*
+     * Read the checkpoint file. Null will be returned if there is no checkpoint.
+     */
+    private Properties readCheckpoint() throws IOException {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        Properties checkpoint = new Properties();
+        InputStream in = new FileInputStream(checkpointFile);
+        try {
+            checkpoint.load(in);
+        } finally {
+            in.close();
+        }
+        return checkpoint;
+    }
+
+    /*
+     * Write the checkpoint into a temporary file and move it over the old one
+     */
+    private void writeCheckpoint(Properties checkpoint) throws IOException {
+        File parent = checkpointFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File temp = new File(checkpointFile.getAbsolutePath() + ".tmp");
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            checkpoint.store(out, "The checkpoint of the job rebuilding the solr index");
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Delete the checkpoint after the job finished
+     */
+    private void deleteCheckpoint() {
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            log.warn("ReindexJobManager.deleteCheckpoint - couldn't delete the checkpoint file " + checkpointFile);
+        }
+    }
+
+    /**
+     * Record an index task which arrived on the index queue
+     */
+    public void entryAdded(EntryEvent<Identifier, IndexTask> entryEvent) {
+        entryUpdated(entryEvent);
+    }
+
+    /**
+     * Record an index task which arrived on the index queue
+     */
+    public void entryUpdated(EntryEvent<Identifier, IndexTask> entryEvent) {
+        if (entryEvent.getKey() != null && entryEvent.getValue() != null) {
+            changes.put(entryEvent.getKey(), entryEvent.getValue());
+        }
+    }
+
+    public void entryRemoved(EntryEvent<Identifier, IndexTask> entryEvent) {
+        //the live listener removes the tasks it took, so do nothing
+    }
+
+    public void entryEvicted(EntryEvent<Identifier, IndexTask> entryEvent) {
+        //do nothing
+    }
+}
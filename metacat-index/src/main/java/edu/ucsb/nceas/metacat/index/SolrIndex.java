@@ -19,7 +19,7 @@
 package edu.ucsb.nceas.metacat.index;
 
 import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -81,7 +81,9 @@ import org.xml.sax.SAXException;
 
 import edu.ucsb.nceas.metacat.common.Settings;
 import edu.ucsb.nceas.metacat.common.index.event.IndexEvent;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.common.query.SolrQueryServiceController;
+import edu.ucsb.nceas.metacat.common.storage.DocumentCodec;
 import edu.ucsb.nceas.metacat.index.event.EventlogFactory;
 import edu.ucsb.nceas.metacat.index.resourcemap.ResourceMapSubprocessor;
 
@@ -228,14 +230,15 @@ public class SolrIndex {
 	                    // metadata document.
 	                    // note that resource map processing touches all objects
 	                    // referenced by the resource map.
-	                	FileInputStream dataStream = new FileInputStream(objectPath);
-	                    if (!dataStream.getFD().valid()) {
-	                    	log.error("SolrIndex.process - subprocessor "+ subprocessor.getClass().getName() +" couldn't process since it could not load OBJECT file for ID,Path=" + id + ", "
-                                    + objectPath);
-	                        //throw new Exception("Could not load OBJECT for ID " + id );
-	                    } else {
+	                    // the metadata document may be stored compressed
+	                    InputStream dataStream = DocumentCodec.openInputStream(new File(objectPath));
+	                    try {
+	                        long start = System.nanoTime();
 	                        docs = subprocessor.processDocument(id, docs, dataStream);
+	                        MetacatMetrics.stopTimer("index.subprocessor." + subprocessor.getClass().getSimpleName(), start);
 	                        log.debug("SolrIndex.process - subprocessor "+ subprocessor.getClass().getName() +" generated solr doc for id "+id);
+	                    } finally {
+	                        dataStream.close();
 	                    }
 	                } catch (Exception e) {
 	                    e.printStackTrace();
@@ -255,11 +258,13 @@ public class SolrIndex {
         
        // TODO: in the XPathDocumentParser class in d1_cn_index_process module,
        // merge is only for resource map. We need more work here.
+       long start = System.nanoTime();
        for (SolrDoc mergeDoc : docs.values()) {
            if (!mergeDoc.isMerged()) {
                  mergeWithIndexedDocument(mergeDoc);
            }
        }
+       MetacatMetrics.stopTimer("index.merge", start);
 
        /*if(docs != null) {
                SolrDoc solrDoc  = docs.get(id);
@@ -424,13 +429,13 @@ public class SolrIndex {
                     XPathExpressionException, SolrServerException, MarshallingException, EncoderException, NotImplemented, NotFound, UnsupportedType {
         checkParams(pid, systemMetadata, objectPath);
         log.debug("SolrIndex.insert - trying to insert the solrDoc for object "+pid.getValue());
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         Map<String, SolrDoc> docs = process(pid.getValue(), systemMetadata, objectPath);
-        long end = System.currentTimeMillis();
-        log.info(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Index subprocessors process" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+        long duration = MetacatMetrics.stopTimer("index.process", start);
+        log.debug(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Index subprocessors process" + Settings.PERFORMANCELOG_DURATION + duration + " ms");
         //transform the Map to the SolrInputDocument which can be used by the solr server
         if(docs != null) {
-            start = System.currentTimeMillis();
+            start = System.nanoTime();
             Set<String> ids = docs.keySet();
             for(String id : ids) {
                 if(id != null) {
@@ -440,8 +445,9 @@ public class SolrIndex {
                 }
                 
             }
-            end = System.currentTimeMillis();
-            log.info(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Sending solr docs to the server" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+            duration = MetacatMetrics.stopTimer("index.solr.add", start);
+            MetacatMetrics.histogram("index.solr.docsPerObject").update(ids.size());
+            log.debug(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Sending solr docs to the server" + Settings.PERFORMANCELOG_DURATION + duration + " ms");
             log.debug("SolrIndex.insert - finished to insert the solrDoc for object "+pid.getValue());
         } else {
             log.debug("SolrIndex.insert - the genered solrDoc is null. So we will not index the object "+pid.getValue());
@@ -1068,8 +1074,10 @@ public class SolrIndex {
             identifier.setValue(pid);
             event.setIdentifier(identifier);*/
             try {
+                long start = System.nanoTime();
                 solrServer.deleteById(pid);
                 solrServer.commit();
+                MetacatMetrics.stopTimer("index.solr.delete", start);
                 /*event.setType(IndexEvent.SUCCESSDELETE);
                 event.setDescription("Successfully remove the solr index for the id "+identifier.getValue());
                 try {
@@ -1117,6 +1125,21 @@ public class SolrIndex {
     public void setSolrServer(SolrClient solrServer) {
         this.solrServer = solrServer;
     }
+
+    /**
+     * Create a SolrIndex which has the same configuration and subprocessors as this one,
+     * but writes into another solr server, e.g. a shadow core being rebuilt.
+     * @param solrServer  the solr server of the new SolrIndex
+     * @return the new SolrIndex
+     */
+    public SolrIndex copyWithSolrServer(SolrClient solrServer) throws XPathExpressionException,
+                                        ParserConfigurationException, IOException, SAXException {
+        SolrIndex copy = new SolrIndex(xmlNamespaceConfig, sysmetaSolrFields);
+        copy.subprocessors = subprocessors;
+        copy.deleteSubprocessors = deleteSubprocessors;
+        copy.setSolrServer(solrServer);
+        return copy;
+    }
     
     /**
      * Get all indexed ids in the solr server. 
@@ -21,6 +21,7 @@ package edu.ucsb.nceas.metacat.index;
 import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +35,7 @@ import com.hazelcast.core.IMap;
 
 import edu.ucsb.nceas.metacat.common.Settings;
 import edu.ucsb.nceas.metacat.common.index.IndexTask;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 
 public class SystemMetadataEventListener implements EntryListener<Identifier, IndexTask>, Runnable {
 	
@@ -157,10 +159,13 @@ public class SystemMetadataEventListener implements EntryListener<Identifier, In
 			solrIndex.insertFields(pid, fields);
 		}
 		long end = System.currentTimeMillis();
-        log.info(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Total time to process indexer" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+		MetacatMetrics.timer("index.task").update(end - start, TimeUnit.MILLISECONDS);
+        log.debug(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Total time to process indexer" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
         long startFromQueuing = task.getTimeAddToQueque();
         if (startFromQueuing != 0) {
-            log.info(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Total indexing (including queuing time)" + Settings.PERFORMANCELOG_DURATION + (end-startFromQueuing)/1000);
+            //the time was set by the Metacat web application, so it is the wall clock time
+            MetacatMetrics.timer("index.task.sinceQueued").update(Math.max(0, end - startFromQueuing), TimeUnit.MILLISECONDS);
+            log.debug(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_INDEX_METHOD + " Total indexing (including queuing time)" + Settings.PERFORMANCELOG_DURATION + (end-startFromQueuing) + " ms");
         }
 
 	}
@@ -74,6 +74,8 @@ public class ResourceMapSubprocessor extends BaseXPathDocumentSubprocessor imple
     private static final String QUERY2="q="+SolrElementField.FIELD_RESOURCEMAP+":";
     private static Log log = LogFactory.getLog(SolrIndex.class);
     private static SolrClient solrServer =  null;
+    //the solr server read by the current thread instead of the configured one, e.g. a shadow core being rebuilt
+    private static ThreadLocal<SolrClient> threadSolrServer = new ThreadLocal<SolrClient>();
     static {
         try {
             solrServer = SolrServerFactory.createSolrServer();
@@ -81,6 +83,20 @@ public class ResourceMapSubprocessor extends BaseXPathDocumentSubprocessor imple
             log.error("ResourceMapSubprocessor - can't generate the SolrServer since - "+e.getMessage());
         }
     }
+    
+    /**
+     * Make the current thread read the existing solr docs from the given solr server rather than
+     * the configured one. The thread which rebuilds a shadow core needs it, since the packaging and
+     * annotation information must be merged with the docs in the shadow core.
+     * @param server  the solr server. Null means going back to the configured one.
+     */
+    public static void setSolrServerForCurrentThread(SolrClient server) {
+        if (server == null) {
+            threadSolrServer.remove();
+        } else {
+            threadSolrServer.set(server);
+        }
+    }
           
     @Override
     public Map<String, SolrDoc> processDocument(String identifier, Map<String, SolrDoc> docs,
@@ -239,6 +255,10 @@ public class ResourceMapSubprocessor extends BaseXPathDocumentSubprocessor imple
 	public static List<SolrDoc> getDocumentsByQuery(String query, boolean ignoreArdhivedObjects) throws SolrServerException, MalformedURLException, UnsupportedType, 
 	                                                                NotFound, ParserConfigurationException, IOException, SAXException {
 	    List<SolrDoc> docs = new ArrayList<SolrDoc>();
+	    SolrClient solrServer = threadSolrServer.get();
+	    if (solrServer == null) {
+	        solrServer = ResourceMapSubprocessor.solrServer;
+	    }
 	    if (solrServer != null && query != null && !query.trim().equals("")) {
             SolrParams solrParams = SolrRequestParsers.parseQueryString(query);
             if(!ignoreArdhivedObjects) {
@@ -0,0 +1,113 @@
+package edu.ucsb.nceas.metacat.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the handling of the core directories of the ReindexJobManager. The live core must always
+ * end up in the solr home, which the upgraders, the admin pages and the index event logs use.
+ */
+public class ReindexJobManagerTest {
+    private static final String LASTPROCESSEDDATEFILE = edu.ucsb.nceas.metacat.common.Settings.LASTPROCESSEDDATEFILENAME;
+
+    private File root = null;
+    private File home = null;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("ReindexJobManagerTest").toFile();
+        home = new File(root, "solr-home");
+        FileUtils.writeStringToFile(new File(home, "conf/solrconfig.xml"), "old config", "UTF-8");
+        FileUtils.writeStringToFile(new File(home, "data/index/segments_1"), "old index", "UTF-8");
+        FileUtils.writeStringToFile(new File(home, "core.properties.unloaded"), "name=metacat-index-shadow", "UTF-8");
+        FileUtils.writeStringToFile(new File(home, LASTPROCESSEDDATEFILE), "2026-10-01", "UTF-8");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Test that the shadow core never uses the solr home
+     */
+    @Test
+    public void testShadowDirectory() throws Exception {
+        File shadowDir = ReindexJobManager.getShadowDirectory(home);
+        assertEquals(root.getCanonicalFile(), shadowDir.getParentFile().getCanonicalFile());
+        assertEquals("solr-home-shadow", shadowDir.getName());
+        assertFalse(shadowDir.getCanonicalFile().equals(home.getCanonicalFile()));
+    }
+
+    /**
+     * Test that the shadow directory is emptied and gets the live configuration, while the solr
+     * home, which has the live core, isn't touched
+     */
+    @Test
+    public void testPrepareShadowDirectory() throws Exception {
+        File shadowDir = ReindexJobManager.getShadowDirectory(home);
+        FileUtils.writeStringToFile(new File(shadowDir, "data/index/segments_9"), "stale index", "UTF-8");
+        ReindexJobManager.prepareShadowDirectory(shadowDir, home);
+        assertEquals("old config", FileUtils.readFileToString(new File(shadowDir, "conf/solrconfig.xml"), "UTF-8"));
+        assertFalse(new File(shadowDir, "data").exists());
+        assertTrue(new File(home, "data/index/segments_1").exists());
+        assertTrue(new File(home, LASTPROCESSEDDATEFILE).exists());
+    }
+
+    /**
+     * Test that the directory of the live core is never emptied
+     */
+    @Test
+    public void testPrepareShadowDirectoryOfLiveCore() throws Exception {
+        File shadowDir = ReindexJobManager.getShadowDirectory(home);
+        FileUtils.writeStringToFile(new File(shadowDir, "conf/solrconfig.xml"), "new config", "UTF-8");
+        try {
+            ReindexJobManager.prepareShadowDirectory(shadowDir, shadowDir);
+            fail("the directory of the live core shouldn't be emptied");
+        } catch (IOException e) {
+            assertTrue(new File(shadowDir, "conf/solrconfig.xml").exists());
+        }
+    }
+
+    /**
+     * Test that the solr home gets the configuration of the live core which is moved back into it,
+     * loses the old index and core descriptor, and keeps the other files
+     */
+    @Test
+    public void testPrepareHome() throws Exception {
+        File shadowDir = ReindexJobManager.getShadowDirectory(home);
+        FileUtils.writeStringToFile(new File(shadowDir, "conf/solrconfig.xml"), "new config", "UTF-8");
+        FileUtils.writeStringToFile(new File(shadowDir, "data/index/segments_2"), "new index", "UTF-8");
+        ReindexJobManager.prepareHome(home, shadowDir);
+        assertEquals("new config", FileUtils.readFileToString(new File(home, "conf/solrconfig.xml"), "UTF-8"));
+        assertFalse(new File(home, "data").exists());
+        assertFalse(new File(home, "core.properties.unloaded").exists());
+        assertEquals("2026-10-01", FileUtils.readFileToString(new File(home, LASTPROCESSEDDATEFILE), "UTF-8"));
+        //the index of the live core isn't touched until solr unloads it
+        assertTrue(new File(shadowDir, "data/index/segments_2").exists());
+    }
+
+    /**
+     * Test that the solr home isn't emptied when the live core is in it
+     */
+    @Test
+    public void testPrepareHomeWithLiveCore() throws Exception {
+        try {
+            ReindexJobManager.prepareHome(home, home);
+            fail("the solr home with the live core shouldn't be emptied");
+        } catch (IOException e) {
+            assertTrue(new File(home, "data/index/segments_1").exists());
+        }
+    }
+}
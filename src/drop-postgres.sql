@@ -45,6 +45,14 @@ DROP TABLE xml_replication;
 DROP TABLE xml_catalog;
 DROP TABLE identifier;
 DROP TABLE access_log;
+DROP TABLE access_log_rollup;
+DROP TABLE access_log_rollup_status;
+DROP TABLE object_store_ref;
+DROP TABLE object_store_content;
+DROP TABLE series_head;
+DROP TABLE doi_registration_queue;
+DROP TABLE replica_notification_queue;
+DROP TABLE harvest_document_validator;
 DROP TABLE harvest_site_schedule;
 DROP TABLE harvest_detail_log;
 DROP TABLE harvest_log;
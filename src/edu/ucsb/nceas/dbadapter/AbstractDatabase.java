@@ -29,7 +29,9 @@
 package edu.ucsb.nceas.dbadapter;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 
@@ -166,5 +168,91 @@ public abstract class AbstractDatabase {
    */
   public abstract String getPagedQuery(String queryWithOrderBy, Integer start, Integer count);
   
+  /**
+   * The sql command to create a partition of a range-partitioned table, holding
+   * the rows whose partition key is in [from, to). The database adapters which
+   * don't support table partitioning return null.
+   * @param parentTable the name of the partitioned table
+   * @param partitionName the name of the new partition
+   * @param from the inclusive lower bound of the partition
+   * @param to the exclusive upper bound of the partition
+   * @return the sql command, or null if partitioning is not supported
+   */
+  public String getCreateRangePartitionSQL(String parentTable, String partitionName, 
+                                             Timestamp from, Timestamp to) {
+    return null;
+  }
+  
+  /**
+   * The sql command to create the default partition of a partitioned table, which
+   * holds the rows not fitting in any other partition (e.g. a null partition key).
+   * @param parentTable the name of the partitioned table
+   * @param partitionName the name of the default partition
+   * @return the sql command, or null if partitioning is not supported
+   */
+  public String getCreateDefaultPartitionSQL(String parentTable, String partitionName) {
+    return null;
+  }
+  
+  /**
+   * The sql query listing the names of the partitions of a table. The query
+   * takes the name of the partitioned table as its only parameter. An empty 
+   * result means the table is not partitioned.
+   * @return the sql query, or null if partitioning is not supported
+   */
+  public String getPartitionListSQL() {
+    return null;
+  }
+  
+  /**
+   * The sql command to detach a partition from its partitioned table. The table
+   * of the partition is kept.
+   * @param parentTable the name of the partitioned table
+   * @param partitionName the name of the partition
+   * @return the sql command, or null if partitioning is not supported
+   */
+  public String getDetachPartitionSQL(String parentTable, String partitionName) {
+    return null;
+  }
+  
+  /**
+   * The sql command to attach a table as the default partition of a partitioned table
+   * @param parentTable the name of the partitioned table
+   * @param partitionName the name of the table which becomes the default partition
+   * @return the sql command, or null if partitioning is not supported
+   */
+  public String getAttachDefaultPartitionSQL(String parentTable, String partitionName) {
+    return null;
+  }
+  
+  /**
+   * Check that the database server supports the sql which this adapter and Metacat
+   * run. The default checks nothing.
+   * @param conn the connection to the database
+   * @throws SQLException if the server is too old
+   */
+  public void checkServerVersion(Connection conn) throws SQLException {
+  }
+  
+  /**
+   * Check that the database server is at least the given version, so a feature
+   * which needs it fails with a clear message instead of a syntax error.
+   * @param conn the connection to the database
+   * @param major the required major version
+   * @param minor the required minor version
+   * @param feature the description of the feature which needs the version
+   * @throws SQLException if the server is older or its version can't be read
+   */
+  public void checkServerVersion(Connection conn, int major, int minor, String feature) 
+                                   throws SQLException {
+    DatabaseMetaData metadata = conn.getMetaData();
+    int serverMajor = metadata.getDatabaseMajorVersion();
+    int serverMinor = metadata.getDatabaseMinorVersion();
+    if (serverMajor < major || (serverMajor == major && serverMinor < minor)) {
+      throw new SQLException(feature + " needs " + metadata.getDatabaseProductName() + " " + major + "." + minor 
+                             + " or later, but the database server is version " + metadata.getDatabaseProductVersion());
+    }
+  }
+  
 }
     
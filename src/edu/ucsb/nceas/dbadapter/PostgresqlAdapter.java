@@ -30,6 +30,7 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 
 /**
  * The PostgreSQL db adapter implementation.
@@ -140,5 +141,51 @@ public class PostgresqlAdapter extends AbstractDatabase {
 	  }
 	  return query;
   }
+  
+  /**
+   * The queues claim their rows with FOR UPDATE SKIP LOCKED and the series heads, the
+   * usage rollups and the queued rows are upserted with ON CONFLICT (PostgreSQL 9.5 or later)
+   */
+  public void checkServerVersion(Connection conn) throws SQLException {
+      checkServerVersion(conn, 9, 5, "Metacat");
+  }
+  
+  /**
+   * PostgreSQL's declarative range partition (PostgreSQL 10 or later)
+   */
+  public String getCreateRangePartitionSQL(String parentTable, String partitionName, 
+                                             Timestamp from, Timestamp to) {
+      return "CREATE TABLE IF NOT EXISTS " + partitionName + " PARTITION OF " + parentTable
+             + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+  }
+  
+  /**
+   * PostgreSQL's default partition (PostgreSQL 11 or later)
+   */
+  public String getCreateDefaultPartitionSQL(String parentTable, String partitionName) {
+      return "CREATE TABLE IF NOT EXISTS " + partitionName + " PARTITION OF " + parentTable + " DEFAULT";
+  }
+  
+  /**
+   * PostgreSQL's detach partition (PostgreSQL 10 or later)
+   */
+  public String getDetachPartitionSQL(String parentTable, String partitionName) {
+      return "ALTER TABLE " + parentTable + " DETACH PARTITION " + partitionName;
+  }
+  
+  /**
+   * PostgreSQL's attach default partition (PostgreSQL 11 or later)
+   */
+  public String getAttachDefaultPartitionSQL(String parentTable, String partitionName) {
+      return "ALTER TABLE " + parentTable + " ATTACH PARTITION " + partitionName + " DEFAULT";
+  }
+  
+  /**
+   * List the partitions of a table from the PostgreSQL catalog
+   */
+  public String getPartitionListSQL() {
+      return "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+             + "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ? ORDER BY c.relname";
+  }
 }
     
@@ -26,6 +26,7 @@
 
 package edu.ucsb.nceas.metacat;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Hashtable;
 
@@ -38,6 +39,7 @@ import org.apache.commons.logging.LogFactory;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.HandlerException;
 import edu.ucsb.nceas.metacat.shared.MetacatUtilException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.ErrorSendingErrorException;
 import edu.ucsb.nceas.metacat.util.ResponseUtil;
 import edu.ucsb.nceas.utilities.FileUtil;
@@ -129,9 +131,8 @@ public class ArchiveHandler  {
 //            			+ " : " + sqle.getMessage());
 //            } 
             
-            // Get the path to the archive file
-            String archiveFileBasePath = PropertyService.getProperty("application.datafilepath");
-            String archiveFilePath = archiveFileBasePath + FileUtil.getFS() + docid;
+            // Get the path to the archive file in the object store
+            String archiveFilePath = ObjectStore.getInstance().getFile(docid).getAbsolutePath();
             
             // Get the paths to the expanded archive directory and to the content file within
             // that directory
@@ -178,6 +179,11 @@ public class ArchiveHandler  {
         		+ docid + " : " + ple.getMessage();
         	ResponseUtil.sendErrorXML(response, ResponseUtil.METACAT_UTILITY_ERROR, errorString);
         	throw new ErrorHandledException(null);
+        } catch (IOException ioe) {
+        	String errorString = "ArchiveHandler.readArchiveEntry -  Object store error reading archive entry for docid: " 
+        		+ docid + " : " + ioe.getMessage();
+        	ResponseUtil.sendErrorXML(response, ResponseUtil.GENERAL_UTILITY_ERROR, errorString);
+        	throw new ErrorHandledException(null);
         }
 	}
 
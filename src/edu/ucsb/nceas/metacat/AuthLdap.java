@@ -30,6 +30,7 @@ package edu.ucsb.nceas.metacat;
 
 import java.net.ConnectException;
 import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
@@ -51,7 +52,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.lang.StringEscapeUtils;
 
+import edu.ucsb.nceas.metacat.authentication.LdapCache;
+import edu.ucsb.nceas.metacat.authentication.LdapContextPool;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.TimeToLiveCache;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
 
 import java.io.IOException;
@@ -360,6 +364,12 @@ public class AuthLdap implements AuthInterface {
 	 */
 	private String getAliasedDn(String alias, Hashtable<String, String> env, boolean useTLS) throws NamingException, IOException  {
 	    String aliasedDn = null;
+	    String server = env == null ? null : env.get(Context.PROVIDER_URL);
+	    TimeToLiveCache.Entry<Object> cached = LdapCache.getInstance().get(LdapCache.ALIAS, alias, server);
+	    if (cached != null) {
+	        logMetacat.debug("AuthLdap.getAliasedDn - use the cached aliased dn of " + alias);
+	        return (String) cached.getValue();
+	    }
 	    if(env != null) {
 	        env.put(Context.REFERRAL, "ignore");
 	    }
@@ -394,6 +404,7 @@ public class AuthLdap implements AuthInterface {
                 sctx.close();
             }
         }
+        LdapCache.getInstance().put(LdapCache.ALIAS, alias, server, aliasedDn);
         return aliasedDn;
 	    
 	}
@@ -489,12 +500,18 @@ public class AuthLdap implements AuthInterface {
 	private String getIdentifyingName(String user, String ldapUrl, String ldapBase)
 			throws NamingException {
 
+		TimeToLiveCache.Entry<Object> cached = LdapCache.getInstance().get(LdapCache.DN, user, ldapUrl + ldapBase);
+		if (cached != null) {
+			logMetacat.debug("AuthLdap.getIdentifyingName - use the cached identifying name of " + user);
+			return (String) cached.getValue();
+		}
 		String identifier = null;
 		Hashtable env = new Hashtable();
 		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
 		env.put(Context.REFERRAL, "throw");
 		env.put(Context.PROVIDER_URL, ldapUrl + ldapBase);
 		DirContext sctx = null;
+		DirContext pooledCtx = null;
 		try {
 			int position = user.indexOf(",");
 			String uid = user.substring(user.indexOf("=") + 1, position);
@@ -503,7 +520,8 @@ public class AuthLdap implements AuthInterface {
 					.indexOf(",", position + 1));
 			logMetacat.info("AuthLdap.getIdentifyingName - org is: " + org);
 
-			sctx = new InitialDirContext(env);
+			pooledCtx = LdapContextPool.getInstance().getContext(env);
+			sctx = pooledCtx;
 			SearchControls ctls = new SearchControls();
 			ctls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 			String filter = "(&(uid=" + uid + ")(o=" + org + "))";
@@ -519,6 +537,7 @@ public class AuthLdap implements AuthInterface {
 					while (answer.hasMore()) {
 						SearchResult sr = (SearchResult) answer.next();
 						identifier = sr.getName();
+						LdapCache.getInstance().put(LdapCache.DN, user, ldapUrl + ldapBase, identifier);
 						return identifier;
 					}
 					// The search completes with no more referrals
@@ -545,13 +564,17 @@ public class AuthLdap implements AuthInterface {
 			}
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getIdentifyingName - Naming exception while getting dn: " + e);
+			LdapContextPool.getInstance().invalidate(pooledCtx);
 			throw new NamingException("Naming exception in AuthLdap.getIdentifyingName: "
 					+ e);
 		} finally {
-		    if (sctx != null) {
-		        sctx.close();
+		    if (sctx != pooledCtx) {
+		        // a referral context
+		        LdapContextPool.getInstance().returnContext(sctx);
 		    }
+		    LdapContextPool.getInstance().returnContext(pooledCtx);
 		}
+		LdapCache.getInstance().put(LdapCache.DN, user, ldapUrl + ldapBase, identifier);
 		return identifier;
 	}
 
@@ -577,7 +600,7 @@ public class AuthLdap implements AuthInterface {
 		try {
 
 			// Create the initial directory context
-			ctx = new InitialDirContext(env);
+			ctx = LdapContextPool.getInstance().getContext(env);
 
 			// Specify the attributes to match.
 			// Users are objects that have the attribute
@@ -645,6 +668,7 @@ public class AuthLdap implements AuthInterface {
 			}
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getUsers - Problem getting users in AuthLdap.getUsers:" + e);
+			LdapContextPool.getInstance().invalidate(ctx);
 			// e.printStackTrace(System.err);
 			/*
 			 * throw new ConnectException( "Problem getting users in
@@ -652,13 +676,7 @@ public class AuthLdap implements AuthInterface {
 			 */
 		} finally {
             // Close the context when we're done
-		    try {
-		        if (ctx != null ) {
-		            ctx.close();
-		        }
-		    } catch (NamingException ee) {
-		        logMetacat.error("AuthLdap.getUsers - can't close the LdapContext since " + ee.getMessage());
-		    }
+		    LdapContextPool.getInstance().returnContext(ctx);
 		}
 		return users;
 	}
@@ -696,7 +714,7 @@ public class AuthLdap implements AuthInterface {
 
 			// Create the initial directory context
 		    env.put(Context.REFERRAL, referral);
-			ctx = new InitialDirContext(env);
+			ctx = LdapContextPool.getInstance().getContext(env);
 			// Specify the attributes to match.
 			// Users are objects that have the attribute
 			// objectclass=InetOrgPerson.
@@ -750,17 +768,12 @@ public class AuthLdap implements AuthInterface {
 			}
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getUserInfo - Problem getting users:" + e);
+			LdapContextPool.getInstance().invalidate(ctx);
 			// e.printStackTrace(System.err);
 			throw new ConnectException("Problem getting users in AuthLdap.getUsers:" + e);
 		} finally {
             // Close the context when we're done
-		    if (ctx != null) {
-		        try {
-		            ctx.close();
-		        } catch (NamingException ee) {
-		            logMetacat.error("AuthLdap.getUserInfo - can't close the LdapContext since " + ee.getMessage());
-		        }
-		    }
+		    LdapContextPool.getInstance().returnContext(ctx);
 		}
 		return userinfo;
 	}
@@ -789,7 +802,7 @@ public class AuthLdap implements AuthInterface {
 		try {
 
 			// Create the initial directory context
-			ctx = new InitialDirContext(env);
+			ctx = LdapContextPool.getInstance().getContext(env);
 
 			// Specify the ids of the attributes to return
 			String[] attrIDs = { "uniqueMember" };
@@ -818,19 +831,14 @@ public class AuthLdap implements AuthInterface {
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getUsers - Problem getting users for a group in "
 					+ "AuthLdap.getUsers:" + e);
+			LdapContextPool.getInstance().invalidate(ctx);
 			/*
 			 * throw new ConnectException( "Problem getting users for a group in
 			 * AuthLdap.getUsers:" + e);
 			 */
 		} finally {
 		    // Close the context when we're done
-            if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (NamingException ee) {
-                    logMetacat.error("AuthLdap.getUsers - can't close the LdapContext since " + ee.getMessage());
-                }
-            }
+            LdapContextPool.getInstance().returnContext(ctx);
 		}
 
 		return users;
@@ -864,6 +872,13 @@ public class AuthLdap implements AuthInterface {
 			throws ConnectException {
 
 		logMetacat.debug("AuthLdap.getGroups - getGroups() called.");
+		if (foruser != null) {
+			TimeToLiveCache.Entry<Object> cached = LdapCache.getInstance().get(LdapCache.GROUPS, foruser, ldapUrl + ldapBase);
+			if (cached != null) {
+				logMetacat.debug("AuthLdap.getGroups - use the cached groups of " + foruser);
+				return copyGroups((String[][]) cached.getValue());
+			}
+		}
 
 		// create vectors to store group and dscription values returned from the
 		// ldap servers
@@ -896,10 +911,14 @@ public class AuthLdap implements AuthInterface {
 		// outer catch statement, ReferralExceptions in the inner catch
 		// statement
 		DirContext ctx = null;
+		DirContext pooledCtx = null;
+		boolean pooledBroken = false;
+		boolean failed = false;
 		try { // outer try
 
 			// Create the initial directory context
-			ctx = new InitialDirContext(env);
+			pooledCtx = LdapContextPool.getInstance().getContext(env);
+			ctx = pooledCtx;
 
 			// Specify the attributes to match.
 			// Groups are objects with attribute objectclass=groupofuniquenames.
@@ -964,19 +983,14 @@ public class AuthLdap implements AuthInterface {
 							// referral point
 							// in the top directory tree, and ldapBase.
 
-							// configure a new directory search first
-							Hashtable envHash = new Hashtable(11);
-							// Identify service provider to use
-							envHash.put(Context.INITIAL_CONTEXT_FACTORY,
-									"com.sun.jndi.ldap.LdapCtxFactory");
-							envHash.put(Context.REFERRAL, "ignore");
-							envHash.put(Context.PROVIDER_URL, ldapUrl);
-							envHash.put("com.sun.jndi.ldap.connect.timeout",
-									ldapConnectTimeLimit);
-
+							// search on the held top level context instead of borrowing a
+							// second one from the pool, so a lookup never waits for a context
+							// while this call keeps one. The referral entries are only returned
+							// as entries when the referrals are ignored.
+							boolean ignoring = false;
 							try {
-								// Create the initial directory context
-								DirContext DirCtx = new InitialDirContext(envHash);
+								pooledCtx.addToEnvironment(Context.REFERRAL, "ignore");
+								ignoring = true;
 
 								SearchControls searchCtls = new SearchControls();
 								// Specify the ids of the attributes to return
@@ -1000,7 +1014,7 @@ public class AuthLdap implements AuthInterface {
 												currentReferralInfo.indexOf("?")) + "))";
 								logMetacat.debug("AuthLdap.getGroups - rFilter is: " + rFilter);
 
-								NamingEnumeration rNamingEnum = DirCtx.search(ldapBase,
+								NamingEnumeration rNamingEnum = pooledCtx.search(ldapBase,
 										rFilter, searchCtls);
 
 								while (rNamingEnum.hasMore()) {
@@ -1040,6 +1054,19 @@ public class AuthLdap implements AuthInterface {
 							} catch (NamingException nameEx) {
 								logMetacat.debug("AuthLdap.getGroups - Caught naming exception: ");
 								nameEx.printStackTrace(System.err);
+								failed = true;
+								if (nameEx instanceof CommunicationException) {
+									pooledBroken = true;
+								}
+							} finally {
+								if (ignoring) {
+									try {
+										pooledCtx.addToEnvironment(Context.REFERRAL, "throw");
+									} catch (NamingException nameEx) {
+										logMetacat.warn("AuthLdap.getGroups - couldn't restore the referral mode: " + nameEx.getMessage());
+										pooledBroken = true;
+									}
+								}
 							}
 						}
 					}// end while
@@ -1060,6 +1087,10 @@ public class AuthLdap implements AuthInterface {
 					boolean referralError = true;
 					while (referralError) {
 						try {
+							if (ctx != pooledCtx) {
+								// close the previous referral context
+								LdapContextPool.getInstance().returnContext(ctx);
+							}
 							ctx = (DirContext) re.getReferralContext();
 							referralError = false;
 						}
@@ -1077,15 +1108,21 @@ public class AuthLdap implements AuthInterface {
 			// naming exceptions get logged, groups are returned
 			logMetacat.info("AuthLdap.getGroups - caught naming exception: ");
 			e.printStackTrace(System.err);
+			failed = true;
+			if (ctx == pooledCtx) {
+				pooledBroken = true;
+			}
 
 		} finally {
-		    if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (NamingException ee) {
-                    logMetacat.error("AuthLdap.getGroups - can't close the LdapContext since " + ee.getMessage());
-                }
-            }
+		    if (ctx != pooledCtx) {
+		        // a referral context
+		        LdapContextPool.getInstance().returnContext(ctx);
+		    }
+		    if (pooledBroken) {
+		        LdapContextPool.getInstance().invalidate(pooledCtx);
+		    } else {
+		        LdapContextPool.getInstance().returnContext(pooledCtx);
+		    }
 			// once all referrals are followed, report and return the groups
 			// found
 			logMetacat.warn("AuthLdap.getGroups - The user is in the following groups: " + gvec.toString());
@@ -1095,10 +1132,36 @@ public class AuthLdap implements AuthInterface {
 				groups[i][0] = (String) gvec.elementAt(i);
 				groups[i][1] = (String) desc.elementAt(i);
 			}
+			if (foruser != null && !failed) {
+				LdapCache.getInstance().put(LdapCache.GROUPS, foruser, ldapUrl + ldapBase, copyGroups(groups));
+			}
 			return groups;
 		}// end outer try
 	}
 
+	/*
+	 * Copy a group array, so the callers can't change the cached one
+	 */
+	private static String[][] copyGroups(String[][] groups) {
+		if (groups == null) {
+			return null;
+		}
+		String[][] copy = new String[groups.length][];
+		for (int i = 0; i < groups.length; i++) {
+			copy[i] = groups[i] == null ? null : groups[i].clone();
+		}
+		return copy;
+	}
+
+	/**
+	 * Remove all of the cached LDAP lookups and close the idle pooled contexts,
+	 * e.g. after the authentication configuration changed
+	 */
+	public static void clearCache() {
+		LdapCache.getInstance().clear();
+		LdapContextPool.getInstance().clear();
+	}
+
 	/**
 	 * Get attributes describing a user or group
 	 * 
@@ -1138,7 +1201,7 @@ public class AuthLdap implements AuthInterface {
 		try {
 
 			// Create the initial directory context
-			ctx = new InitialDirContext(env);
+			ctx = LdapContextPool.getInstance().getContext(env);
 
 			// Ask for all attributes of the user
 			// Attributes attrs = ctx.getAttributes(userident);
@@ -1165,16 +1228,11 @@ public class AuthLdap implements AuthInterface {
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getAttributes - Problem getting attributes:"
 					+ e);
+			LdapContextPool.getInstance().invalidate(ctx);
 			throw new ConnectException(
 					"Problem getting attributes in AuthLdap.getAttributes:" + e);
 		} finally {
-		    if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (NamingException ee) {
-                    logMetacat.error("AuthLdap.getAttributes - can't close the LdapContext since " + ee.getMessage());
-                }
-            }
+		    LdapContextPool.getInstance().returnContext(ctx);
 		}
 
 		return attributes;
@@ -1205,7 +1263,7 @@ public class AuthLdap implements AuthInterface {
 		try {
 
 			// Create the initial directory context
-			ctx = new InitialDirContext(env);
+			ctx = LdapContextPool.getInstance().getContext(env);
 
 			// Specify the ids of the attributes to return
 			String[] attrIDs = { "o", "ref" };
@@ -1277,16 +1335,11 @@ public class AuthLdap implements AuthInterface {
 			}
 		} catch (NamingException e) {
 			logMetacat.error("AuthLdap.getSubtrees - Problem getting subtrees in AuthLdap.getSubtrees:" + e);
+			LdapContextPool.getInstance().invalidate(ctx);
 			throw new ConnectException(
 					"Problem getting subtrees in AuthLdap.getSubtrees:" + e);
 		} finally {
-		    if (ctx != null) {
-                try {
-                    ctx.close();
-                } catch (NamingException ee) {
-                    logMetacat.error("AuthLdap.getSubtrees - can't close the LdapContext since " + ee.getMessage());
-                }
-            }
+		    LdapContextPool.getInstance().returnContext(ctx);
 		}
 
 		return trees;
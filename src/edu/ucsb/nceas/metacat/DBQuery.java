@@ -71,6 +71,7 @@ import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.HandlerException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.AuthUtil;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
@@ -2311,13 +2312,9 @@ public class DBQuery
         byte[] byteString = null;
         ZipEntry zEntry = null;
         // this is data file; add file to zip
-        String filePath = PropertyService.getProperty("application.datafilepath");
-        if (!filePath.endsWith("/")) {
-            filePath += "/";
-        }
         String fileName = docImpl.getDocID() + PropertyService.getProperty("document.accNumSeparator") + docImpl.getRev();
         String entityName = docImpl.getDocname();
-        filePath = filePath + fileName;
+        String filePath = ObjectStore.getInstance().getFile(fileName).getAbsolutePath();
         zEntry = new ZipEntry(packageZipEntry + "/data/" + fileName + "-" + entityName);
         zipOut.putNextEntry(zEntry);
         FileInputStream fin = null;
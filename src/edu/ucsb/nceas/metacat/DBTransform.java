@@ -31,6 +31,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.Writer;
@@ -41,6 +43,8 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
@@ -48,7 +52,9 @@ import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.sax.SAXSource;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.xerces.parsers.DOMParser;
@@ -56,7 +62,10 @@ import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 import org.apache.xpath.XPathAPI;
 
 import edu.ucsb.nceas.metacat.properties.PropertyService;
@@ -76,6 +85,7 @@ public class DBTransform {
 	private static Map<String,Templates> TemplatesMap = new HashMap<>();                                                                      
 	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();                                                  
 	private static boolean forceRebuild = false;
+	private static volatile long stylesheetVersion = System.currentTimeMillis();
 	                                                                                                                                                    
 	/**                                                                                                                                               
 	 * The method that manages the Templates Map instances that will be used to build                                                                 
@@ -189,13 +199,64 @@ public class DBTransform {
   }
 
 
+  /**
+   * Transform an XML document read from a stream and write the result to a stream. Unlike
+   * the method taking a String, the document is never held in memory as a whole. The
+   * DOCTYPE isn't removed from the document but its external DTD isn't loaded, which
+   * avoids the same problems with incorrect SystemIDs.
+   *
+   * @param doc the document to be transformed
+   * @param sourceType the document type of the source
+   * @param targetType the target document type
+   * @param qformat the name of the style set to use
+   * @param out the stream to which the result is written
+   * @param param some parameters for eml2 transformation
+   * @param sessionid the session id
+   * @throws TransformerException
+   * @throws PropertyNotFoundException
+   * @throws IOException
+   */
+  public void transformXMLDocument(InputStream doc, String sourceType,
+                                   String targetType, String qformat,
+                                   OutputStream out, Hashtable<String, String[]> param,
+                                   String sessionid) 
+                                   throws TransformerException, PropertyNotFoundException, IOException
+  {
+    String xslSystemId = getStyleSystemId(qformat, sourceType, targetType);
+    if (xslSystemId == null) {
+      // No stylesheet registered form this document type, so just return the
+      // document we were passed
+      IOUtils.copyLarge(doc, out);
+      return;
+    }
+    XMLReader reader = null;
+    try {
+      SAXParserFactory factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+      reader = factory.newSAXParser().getXMLReader();
+    } catch (Exception e) {
+      throw new TransformerException("DBTransform.transformXMLDocument - couldn't create the xml reader: " 
+                                      + e.getMessage(), e);
+    }
+    reader.setEntityResolver(new EntityResolver() {
+      public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+        //never fetch the external entities of the documents
+        return new InputSource(new StringReader(""));
+      }
+    });
+    SAXSource xml = new SAXSource(reader, new InputSource(doc));
+    StreamResult result = new StreamResult(out);
+    doTransform(xml, result, xslSystemId, param, qformat, sessionid);
+  }
+
   /**
    * Reads skin's config file if it exists, and populates Transformer paramaters
    * with its contents.
    * It then adds the parameters passed to it via Hashtable param to the Transformer.
    * It then calls the Transformer.transform method.
    */
-  protected void doTransform(StreamSource xml, 
+  protected void doTransform(Source xml, 
           StreamResult resultOutput,
           String xslSystemId, 
           Hashtable<String, String[]> param,
@@ -447,6 +508,18 @@ public class DBTransform {
      */
     public static void setForceRebuild(boolean forceBuild) {
         forceRebuild = forceBuild;
+        if (forceBuild) {
+            stylesheetVersion = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Get the version of the style sheets. It changes whenever the style sheets
+     * are reloaded from disk, so the rendered documents can be cached by it.
+     * @return the version of the style sheets
+     */
+    public static long getStylesheetVersion() {
+        return stylesheetVersion;
     }
 //  private void dbg(int position) {
 //    System.err.println("Debug flag: " + position);
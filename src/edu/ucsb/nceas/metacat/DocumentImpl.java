@@ -81,13 +81,14 @@ import edu.ucsb.nceas.metacat.service.XMLSchema;
 import edu.ucsb.nceas.metacat.service.XMLSchemaService;
 import edu.ucsb.nceas.metacat.shared.AccessException;
 import edu.ucsb.nceas.metacat.spatial.SpatialHarvester;
+import edu.ucsb.nceas.metacat.storage.DocumentStore;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.AuthUtil;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
 import edu.ucsb.nceas.metacat.util.SystemUtil;
 import edu.ucsb.nceas.utilities.FileUtil;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
-import edu.ucsb.nceas.utilities.UtilException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -653,6 +654,7 @@ public class DocumentImpl
         //write inputstream into file system.
         File dataDirectory = new File(filePath);
         File newFile = null;
+        boolean stored = false;
         try
         {
             newFile = new File(dataDirectory, accnum);
@@ -675,13 +677,21 @@ public class DocumentImpl
             outPut.close();
             fos.close();
             
+            //hand the data file over to the object store
+            newFile = ObjectStore.getInstance().put(accnum, null, newFile, null);
+            stored = true;
+            
             //register data file into xml_documents table
             registerDocumentInReplication(docname, doctype, accnum, user,
                     serverCode, tableName, createDate, updateDate);
         }
         catch (Exception ee)
         {
-            newFile.delete();
+            if (stored) {
+                ObjectStore.getInstance().delete(accnum);
+            } else if (newFile != null) {
+                newFile.delete();
+            }
             throw ee;
         }
         
@@ -1083,7 +1093,7 @@ public class DocumentImpl
 			throws McdbException {
 		String documentDir = null;
 		String documentPath = null;
-		FileOutputStream fos = null;
+		OutputStream fos = null;
 		try {
 			String separator = PropertyService.getProperty("document.accNumSeparator");
 			documentDir = PropertyService.getProperty("application.documentfilepath");
@@ -1091,7 +1101,7 @@ public class DocumentImpl
 
 			if (FileUtil.getFileStatus(documentPath) == FileUtil.DOES_NOT_EXIST
 					|| FileUtil.getFileSize(documentPath) == 0) {
-				fos = new FileOutputStream(documentPath);
+				fos = DocumentStore.create(documentPath);
 				toXmlFromDb(fos, user, groups, true);
 				fos.close();
 			}
@@ -1142,8 +1152,6 @@ public class DocumentImpl
         // flag for process inline data
         boolean processInlineData = false;
 
-        TreeSet<NodeRecord> nodeRecordLists = null;
-        
         // Note: we haven't stored the encoding, so we use the default for XML
         String encoding = "UTF-8";
         Writer out = new OutputStreamWriter(outputStream, encoding);
@@ -1161,246 +1169,258 @@ public class DocumentImpl
          *  } else { nodeRecordLists = getNodeRecordList(rootnodeid); }
          */
         
+        // Stream the nodes from the database unless they were already loaded
+        // by the constructor. The only state kept while writing is the stack
+        // of open elements, so its size is bounded by the depth of the tree.
+        NodeRecordCursor cursor = null;
+        Iterator<NodeRecord> it = null;
         if(this.nodeRecordList == null){
-            nodeRecordLists = getNodeRecordList(rootnodeid);
+            cursor = openNodeRecordCursor(rootnodeid);
+            it = cursor;
         } else {
-        	nodeRecordLists = this.nodeRecordList;
+        	it = this.nodeRecordList.iterator();
         }
         Stack<NodeRecord> openElements = new Stack<NodeRecord>();
         boolean atRootElement = true;
         boolean previousNodeWasElement = false;
 
         // Step through all of the node records we were given
+        try {
+            while (it.hasNext()) {
 
-        Iterator<NodeRecord> it = nodeRecordLists.iterator();
-
-        while (it.hasNext()) {
-
-            NodeRecord currentNode = it.next();
-            logMetacat.debug("[Got Node ID: " + currentNode.getNodeId() + " ("
-                    + currentNode.getParentNodeId() + ", " + currentNode.getNodeIndex()
-                    + ", " + currentNode.getNodeType() + ", " + currentNode.getNodeName()
-                    + ", " + currentNode.getNodeData() + ")]");
-            // Print the end tag for the previous node if needed
-            //
-            // This is determined by inspecting the parent nodeid for the
-            // currentNode. If it is the same as the nodeid of the last element
-            // that was pushed onto the stack, then we are still in that
-            // previous
-            // parent element, and we do nothing. However, if it differs, then
-            // we
-            // have returned to a level above the previous parent, so we go into
-            // a loop and pop off nodes and print out their end tags until we
-            // get
-            // the node on the stack to match the currentNode parentnodeid
-            //
-            // So, this of course means that we rely on the list of elements
-            // having been sorted in a depth first traversal of the nodes, which
-            // is handled by the NodeComparator class used by the TreeSet
-            if (!atRootElement) {
-                NodeRecord currentElement = openElements.peek();
-                if (currentNode.getParentNodeId() != currentElement.getNodeId()) {
-                    while (currentNode.getParentNodeId() != currentElement.getNodeId()) {
-                        currentElement = (NodeRecord) openElements.pop();
-                        logMetacat.debug("\n POPPED: "
-                                + currentElement.getNodeName());
-                        if (previousNodeWasElement) {
-                            out.write(">");
-                            previousNodeWasElement = false;
-                        }
-                        if (currentElement.getNodePrefix() != null) {
-                            out.write("</" + currentElement.getNodePrefix() + ":"
-                                    + currentElement.getNodeName() + ">");
-                        } else {
-                            out.write("</" + currentElement.getNodeName() + ">");
+                NodeRecord currentNode = it.next();
+                logMetacat.debug("[Got Node ID: " + currentNode.getNodeId() + " ("
+                        + currentNode.getParentNodeId() + ", " + currentNode.getNodeIndex()
+                        + ", " + currentNode.getNodeType() + ", " + currentNode.getNodeName()
+                        + ", " + currentNode.getNodeData() + ")]");
+                // Print the end tag for the previous node if needed
+                //
+                // This is determined by inspecting the parent nodeid for the
+                // currentNode. If it is the same as the nodeid of the last element
+                // that was pushed onto the stack, then we are still in that
+                // previous
+                // parent element, and we do nothing. However, if it differs, then
+                // we
+                // have returned to a level above the previous parent, so we go into
+                // a loop and pop off nodes and print out their end tags until we
+                // get
+                // the node on the stack to match the currentNode parentnodeid
+                //
+                // So, this of course means that we rely on the list of elements
+                // having been sorted in a depth first traversal of the nodes, which
+                // is handled by the NodeComparator class used by the TreeSet
+                if (!atRootElement) {
+                    NodeRecord currentElement = openElements.peek();
+                    if (currentNode.getParentNodeId() != currentElement.getNodeId()) {
+                        while (currentNode.getParentNodeId() != currentElement.getNodeId()) {
+                            currentElement = (NodeRecord) openElements.pop();
+                            logMetacat.debug("\n POPPED: "
+                                    + currentElement.getNodeName());
+                            if (previousNodeWasElement) {
+                                out.write(">");
+                                previousNodeWasElement = false;
+                            }
+                            if (currentElement.getNodePrefix() != null) {
+                                out.write("</" + currentElement.getNodePrefix() + ":"
+                                        + currentElement.getNodeName() + ">");
+                            } else {
+                                out.write("</" + currentElement.getNodeName() + ">");
+                            }
+                            currentElement = openElements.peek();
                         }
-                        currentElement = openElements.peek();
                     }
                 }
-            }
 
-            // Handle the DOCUMENT node
-            if (currentNode.getNodeType().equals("DOCUMENT")) {
-                out.write("<?xml version=\"1.0\"?>");
+                // Handle the DOCUMENT node
+                if (currentNode.getNodeType().equals("DOCUMENT")) {
+                    out.write("<?xml version=\"1.0\"?>");
 
-                // Handle the ELEMENT nodes
-            } else if (currentNode.getNodeType().equals("ELEMENT")) {
-                if (atRootElement) {
-                    atRootElement = false;
-                } else {
-                    if (previousNodeWasElement) {
-                        out.write(">");
+                    // Handle the ELEMENT nodes
+                } else if (currentNode.getNodeType().equals("ELEMENT")) {
+                    if (atRootElement) {
+                        atRootElement = false;
+                    } else {
+                        if (previousNodeWasElement) {
+                            out.write(">");
+                        }
                     }
-                }
 
-                // if publicid or system is not stored into db send it out by
-                // default
-                if (!storedDTD & firstElement) {
-                    if (docname != null && validateType != null
-                            && validateType.equals(DTD)) {
-                        if ((doctype != null) && (system_id != null)) {
+                    // if publicid or system is not stored into db send it out by
+                    // default
+                    if (!storedDTD & firstElement) {
+                        if (docname != null && validateType != null
+                                && validateType.equals(DTD)) {
+                            if ((doctype != null) && (system_id != null)) {
 
-                            out.write("<!DOCTYPE " + docname + " PUBLIC \""
-                                    + doctype + "\" \"" + system_id + "\">");
-                        } else {
+                                out.write("<!DOCTYPE " + docname + " PUBLIC \""
+                                        + doctype + "\" \"" + system_id + "\">");
+                            } else {
 
-                            out.write("<!DOCTYPE " + docname + ">");
+                                out.write("<!DOCTYPE " + docname + ">");
+                            }
                         }
                     }
-                }
-                firstElement = false;
-                openElements.push(currentNode);
-                logMetacat.debug("\n PUSHED: " + currentNode.getNodeName());
-                previousNodeWasElement = true;
-                if (currentNode.getNodePrefix() != null) {
-                    out.write("<" + currentNode.getNodePrefix() + ":"
-                            + currentNode.getNodeName());
-                } else {
-                    out.write("<" + currentNode.getNodeName());
-                }
+                    firstElement = false;
+                    openElements.push(currentNode);
+                    logMetacat.debug("\n PUSHED: " + currentNode.getNodeName());
+                    previousNodeWasElement = true;
+                    if (currentNode.getNodePrefix() != null) {
+                        out.write("<" + currentNode.getNodePrefix() + ":"
+                                + currentNode.getNodeName());
+                    } else {
+                        out.write("<" + currentNode.getNodeName());
+                    }
 
-                // if currentNode is inline and handle eml2, set flag process
-                // on
-                if (currentNode.getNodeName() != null
-                        && currentNode.getNodeName().equals(Eml200SAXHandler.INLINE)
-                        && proccessEml2) {
-                	processInlineData = true;
-                }
+                    // if currentNode is inline and handle eml2, set flag process
+                    // on
+                    if (currentNode.getNodeName() != null
+                            && currentNode.getNodeName().equals(Eml200SAXHandler.INLINE)
+                            && proccessEml2) {
+                    	processInlineData = true;
+                    }
 
-                // Handle the ATTRIBUTE nodes
-            } else if (currentNode.getNodeType().equals("ATTRIBUTE")) {
-                if (currentNode.getNodePrefix() != null) {
-                    out.write(" " + currentNode.getNodePrefix() + ":"
-                            + currentNode.getNodeName() + "=\""
-                            + currentNode.getNodeData() + "\"");
-                } else {
-                    out.write(" " + currentNode.getNodeName() + "=\""
-                            + currentNode.getNodeData() + "\"");
-                }
+                    // Handle the ATTRIBUTE nodes
+                } else if (currentNode.getNodeType().equals("ATTRIBUTE")) {
+                    if (currentNode.getNodePrefix() != null) {
+                        out.write(" " + currentNode.getNodePrefix() + ":"
+                                + currentNode.getNodeName() + "=\""
+                                + currentNode.getNodeData() + "\"");
+                    } else {
+                        out.write(" " + currentNode.getNodeName() + "=\""
+                                + currentNode.getNodeData() + "\"");
+                    }
 
-                // Handle the NAMESPACE nodes
-            } else if (currentNode.getNodeType().equals("NAMESPACE")) {
-                String nsprefix = " xmlns:";
-                if(currentNode.getNodeName() == null || currentNode.getNodeName().trim().equals(""))
-                {
-                  nsprefix = " xmlns";
-                }
+                    // Handle the NAMESPACE nodes
+                } else if (currentNode.getNodeType().equals("NAMESPACE")) {
+                    String nsprefix = " xmlns:";
+                    if(currentNode.getNodeName() == null || currentNode.getNodeName().trim().equals(""))
+                    {
+                      nsprefix = " xmlns";
+                    }
                 
-                out.write(nsprefix + currentNode.getNodeName() + "=\""
-                          + currentNode.getNodeData() + "\"");
+                    out.write(nsprefix + currentNode.getNodeName() + "=\""
+                              + currentNode.getNodeData() + "\"");
 
-                // Handle the TEXT nodes
-            } else if (currentNode.getNodeType().equals("TEXT")) {
-                if (previousNodeWasElement) {
-                    out.write(">");
-                }
-                if (!processInlineData) {
-                    // if it is not inline data just out put data
-                    out.write(currentNode.getNodeData());
-                } else {
-                    // if it is inline data first to get the inline data
-                    // internal id
-                    String fileName = currentNode.getNodeData();
-                    // use full docid with revision
-                    String accessfileName = fileName; //DocumentUtil.getDocIdWithoutRevFromInlineDataID(fileName);
-                    
-                    // check if user has read permision for this inline data
-                    boolean readInlinedata = false;
-                    try {
-                        Hashtable<String, String> unReadableInlineDataList =
-                            PermissionController.getUnReadableInlineDataIdList(accessfileName, user, groups);
-                        if (!unReadableInlineDataList.containsValue(fileName)) {
-                            readInlinedata = true;
-                        }
-                    } catch (Exception e) {
-                        throw new McdbException(e.getMessage());
+                    // Handle the TEXT nodes
+                } else if (currentNode.getNodeType().equals("TEXT")) {
+                    if (previousNodeWasElement) {
+                        out.write(">");
                     }
-
-                    if (readInlinedata) {
-                        //user want to see it, pull out from file system and 
-                    	// output it for inline data, the data base only store 
-                    	// the file name, so we can combine the file name and
-                    	// inline data file path, to get it
-
-                        Reader reader = Eml200SAXHandler
-                                .readInlineDataFromFileSystem(fileName, encoding);
-                        char[] characterArray = new char[4 * 1024];
+                    if (!processInlineData) {
+                        // if it is not inline data just out put data
+                        out.write(currentNode.getNodeData());
+                    } else {
+                        // if it is inline data first to get the inline data
+                        // internal id
+                        String fileName = currentNode.getNodeData();
+                        // use full docid with revision
+                        String accessfileName = fileName; //DocumentUtil.getDocIdWithoutRevFromInlineDataID(fileName);
+                    
+                        // check if user has read permision for this inline data
+                        boolean readInlinedata = false;
                         try {
-                            int length = reader.read(characterArray);
-                            while (length != -1) {
-                                out.write(new String(characterArray, 0,
-                                                length));
-                                out.flush();
-                                length = reader.read(characterArray);
+                            Hashtable<String, String> unReadableInlineDataList =
+                                PermissionController.getUnReadableInlineDataIdList(accessfileName, user, groups);
+                            if (!unReadableInlineDataList.containsValue(fileName)) {
+                                readInlinedata = true;
                             }
-                            reader.close();
-                        } catch (IOException e) {
+                        } catch (Exception e) {
                             throw new McdbException(e.getMessage());
                         }
-                    }//if can read inline data
-                    else {
-                        // if user can't read it, we only send it back a empty
-                        // string in inline element.
-                        out.write("");
-                    }// else can't read inlinedata
-                    // reset proccess inline data false
-                    processInlineData = false;
-                }// in inlinedata part
-                previousNodeWasElement = false;
-                // Handle the COMMENT nodes
-            } else if (currentNode.getNodeType().equals("COMMENT")) {
-                if (previousNodeWasElement) {
-                    out.write(">");
-                }
-                out.write("<!--" + currentNode.getNodeData() + "-->");
-                previousNodeWasElement = false;
 
-                // Handle the PI nodes
-            } else if (currentNode.getNodeType().equals("PI")) {
-                if (previousNodeWasElement) {
-                    out.write(">");
-                }
-                out.write("<?" + currentNode.getNodeName() + " "
-                        + currentNode.getNodeData() + "?>");
-                previousNodeWasElement = false;
-                // Handle the DTD nodes (docname, publicid, systemid)
-            } else if (currentNode.getNodeType().equals(DTD)) {
-                storedDTD = true;
-                if (currentNode.getNodeName().equals(DOCNAME)) {
-                    dbDocName = currentNode.getNodeData();
-                }
-                if (currentNode.getNodeName().equals(PUBLICID)) {
-                    dbPublicID = currentNode.getNodeData();
-                }
-                if (currentNode.getNodeName().equals(SYSTEMID)) {
-                    dbSystemID = currentNode.getNodeData();
-                    // send out <!doctype .../>
-                    if (dbDocName != null) {
-                        if ((dbPublicID != null) && (dbSystemID != null)) {
-
-                            out
-                                    .write("<!DOCTYPE " + dbDocName
-                                            + " PUBLIC \"" + dbPublicID
-                                            + "\" \"" + dbSystemID + "\">");
-                        } else {
-
-                            out.write("<!DOCTYPE " + dbDocName + ">");
+                        if (readInlinedata) {
+                            //user want to see it, pull out from file system and 
+                        	// output it for inline data, the data base only store 
+                        	// the file name, so we can combine the file name and
+                        	// inline data file path, to get it
+
+                            Reader reader = Eml200SAXHandler
+                                    .readInlineDataFromFileSystem(fileName, encoding);
+                            char[] characterArray = new char[4 * 1024];
+                            try {
+                                int length = reader.read(characterArray);
+                                while (length != -1) {
+                                    out.write(new String(characterArray, 0,
+                                                    length));
+                                    out.flush();
+                                    length = reader.read(characterArray);
+                                }
+                                reader.close();
+                            } catch (IOException e) {
+                                throw new McdbException(e.getMessage());
+                            }
+                        }//if can read inline data
+                        else {
+                            // if user can't read it, we only send it back a empty
+                            // string in inline element.
+                            out.write("");
+                        }// else can't read inlinedata
+                        // reset proccess inline data false
+                        processInlineData = false;
+                    }// in inlinedata part
+                    previousNodeWasElement = false;
+                    // Handle the COMMENT nodes
+                } else if (currentNode.getNodeType().equals("COMMENT")) {
+                    if (previousNodeWasElement) {
+                        out.write(">");
+                    }
+                    out.write("<!--" + currentNode.getNodeData() + "-->");
+                    previousNodeWasElement = false;
+
+                    // Handle the PI nodes
+                } else if (currentNode.getNodeType().equals("PI")) {
+                    if (previousNodeWasElement) {
+                        out.write(">");
+                    }
+                    out.write("<?" + currentNode.getNodeName() + " "
+                            + currentNode.getNodeData() + "?>");
+                    previousNodeWasElement = false;
+                    // Handle the DTD nodes (docname, publicid, systemid)
+                } else if (currentNode.getNodeType().equals(DTD)) {
+                    storedDTD = true;
+                    if (currentNode.getNodeName().equals(DOCNAME)) {
+                        dbDocName = currentNode.getNodeData();
+                    }
+                    if (currentNode.getNodeName().equals(PUBLICID)) {
+                        dbPublicID = currentNode.getNodeData();
+                    }
+                    if (currentNode.getNodeName().equals(SYSTEMID)) {
+                        dbSystemID = currentNode.getNodeData();
+                        // send out <!doctype .../>
+                        if (dbDocName != null) {
+                            if ((dbPublicID != null) && (dbSystemID != null)) {
+
+                                out
+                                        .write("<!DOCTYPE " + dbDocName
+                                                + " PUBLIC \"" + dbPublicID
+                                                + "\" \"" + dbSystemID + "\">");
+                            } else {
+
+                                out.write("<!DOCTYPE " + dbDocName + ">");
+                            }
                         }
+
+                        //reset these variable
+                        dbDocName = null;
+                        dbPublicID = null;
+                        dbSystemID = null;
                     }
 
-                    //reset these variable
-                    dbDocName = null;
-                    dbPublicID = null;
-                    dbSystemID = null;
+                    // Handle any other node type (do nothing)
+                } else {
+                    // Any other types of nodes are not handled.
+                    // Probably should throw an exception here to indicate this
                 }
-
-                // Handle any other node type (do nothing)
-            } else {
-                // Any other types of nodes are not handled.
-                // Probably should throw an exception here to indicate this
-            }
             
-            out.flush();
+                out.flush();
+            }
+        } catch (IllegalStateException e) {
+            throw new McdbException("DocumentImpl.toXmlFromDb - couldn't read the nodes of "
+                                    + docid + " : " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
         }
 
         // Print the final end tag for the root element
@@ -1449,15 +1469,22 @@ public class DocumentImpl
 			// from the doc
 			if (unReadableInlineDataList.size() > 0 && doctype != null) {
 				
-				// detect and use correct encoding
-	            xmlFileContents = FileUtil.readFileToString(documentPath);
-	            // guess the encoding from default bytes
-				XmlStreamReader xsr = new XmlStreamReader(new ByteArrayInputStream(xmlFileContents.getBytes()));
+				// the document may be stored compressed, so read the original bytes once
+				InputStream original = DocumentStore.read(documentPath);
+				byte[] xmlBytes = null;
+				try {
+				    xmlBytes = IOUtils.toByteArray(original);
+				} finally {
+				    IOUtils.closeQuietly(original);
+				}
+	            xmlFileContents = new String(xmlBytes);
+	            // detect and use correct encoding
+				XmlStreamReader xsr = new XmlStreamReader(new ByteArrayInputStream(xmlBytes));
 				encoding = xsr.getEncoding();
 				xsr.close();
-				// reread the contents using the correct encoding
+				// decode the contents using the correct encoding
 				if (encoding != null) {
-					xmlFileContents = FileUtil.readFileToString(documentPath, encoding);
+					xmlFileContents = new String(xmlBytes, encoding);
 				}
 				
 				Set<String> inlineKeySet = unReadableInlineDataList.keySet();
@@ -1486,7 +1513,7 @@ public class DocumentImpl
 			if (xmlFileContents != null) {
 				is = IOUtils.toInputStream(xmlFileContents, encoding);
 			} else {
-				is = new FileInputStream(documentPath);
+				is = DocumentStore.read(documentPath);
 			}
 
 			// send it to out
@@ -1496,8 +1523,6 @@ public class DocumentImpl
 			// return the stream
 			return is;
 			
-	     } catch (UtilException e) {
-             throw new McdbException(e.getMessage());
          } catch (IOException e) {
              throw new McdbException(e.getMessage());
         }
@@ -1525,7 +1550,7 @@ public class DocumentImpl
 			documentDir = PropertyService.getProperty("application.documentfilepath");
 			documentPath = documentDir + FileUtil.getFS() + accNumber;
 
-			if (xml == null || xml.equals("")) {
+			if ((xml == null || xml.length == 0) && (objectFile == null || !objectFile.exists())) {
 				throw new McdbException("Attempting to write a file with no xml content: " + documentPath);
 			}
 			
@@ -1544,7 +1569,7 @@ public class DocumentImpl
 			    if (objectFile != null && objectFile.exists()) {
 			        logMetacat.info("DocumentImpl.writeToFileSystem - the object file already exists at the temp location and the checksum was checked. Metacat only needs to move it to the permanent position " + documentPath);
 			        File permanentFile = new File(documentPath);
-			        FileUtils.moveFile(objectFile, permanentFile);
+			        DocumentStore.moveIn(objectFile, permanentFile);
 			    } else {
 			        logMetacat.info("DocumentImpl.writeToFileSystem - Metacat needs to write the metadata bytes into the file  " + documentPath);
 			        if (checksum != null) {
@@ -1573,10 +1598,11 @@ public class DocumentImpl
 	                try {
 	                    if (needCalculateChecksum) {
 	                        logMetacat.info("DocumentImpl.writeToFileSystem - we need to compute the checksum since it is from DataONE API");
-	                        fos = new DigestOutputStream(new FileOutputStream(documentPath), md);
+	                        // digest the original bytes, not the ones on disk which may be compressed
+	                        fos = new DigestOutputStream(DocumentStore.create(documentPath), md);
 	                    } else {
 	                        logMetacat.info("DocumentImpl.writeToFileSystem - we don't need to compute the checksum since it is from Metacat API or the checksum has been verified.");
-	                        fos = new FileOutputStream(documentPath);
+	                        fos = DocumentStore.create(documentPath);
 	                    }
 	                    
 	                    IOUtils.write(xml, fos);
@@ -1622,11 +1648,21 @@ public class DocumentImpl
 			throw new McdbException("Could not delete file.  Accession Number number is null" );
 		}
     	
+    	// the data files are removed by the object store
+    	if (!isXml) {
+    		try {
+    			ObjectStore.getInstance().delete(accNumber);
+    		} catch (IOException ioe) {
+    			throw new McdbException("Could not delete the data object " + accNumber + " : " + ioe.getMessage());
+    		}
+    		return;
+    	}
+    	
 		// remove the document from disk	
     	String documentPath = null;
 	
 		// get the correct location on disk
-		documentPath = getFilePath(accNumber, isXml);
+		documentPath = getFilePath(accNumber);
 		// delete it if it exists			
 		if (accNumber != null && FileUtil.getFileStatus(documentPath) != FileUtil.DOES_NOT_EXIST) {
 			    try {
@@ -1638,20 +1674,17 @@ public class DocumentImpl
 		
 	}
     
-    private static String getFilePath(String accNumber, boolean isXml) throws McdbException{
+    /*
+     * Get the path of a metadata document. The data files are only reached through the object store.
+     */
+    private static String getFilePath(String accNumber) throws McdbException{
     	if (accNumber == null) {
 			throw new McdbException("Could not get the file path since the Accession Number number is null" );
 		}
     	String documentPath = null;
     	try {
-    		String documentDir = null;
-    		
 			// get the correct location on disk
-			if (isXml) {
-				documentDir = PropertyService.getProperty("application.documentfilepath");
-			} else {
-				documentDir = PropertyService.getProperty("application.datafilepath");
-			}
+    		String documentDir = PropertyService.getProperty("application.documentfilepath");
 			documentPath = documentDir + FileUtil.getFS() + accNumber;
 			return documentPath;
 			
@@ -1794,29 +1827,26 @@ public class DocumentImpl
         }
     	logMetacat.info("DocumentImpl.buildIndex - building index for docid " + docid);
     	double start = System.currentTimeMillis()/1000;
-        TreeSet<NodeRecord> nodeRecordLists = getNodeRecordList(rootnodeid);
         boolean atRootElement = true;
         long rootNodeId = -1;
 
-        // Build a map of the same records that are present in the
-        // TreeSet so that any node can be easily accessed by nodeId
+        // The nodes are streamed in depth-first order, so the parents of the
+        // current node are exactly the chain of nodes which are still open.
+        // Only that chain (plus the current leaf) is kept in the map which
+        // traverseParents walks, instead of every node of the document.
         HashMap<Long, NodeRecord> nodeRecordMap = new HashMap<Long, NodeRecord>();
-        Iterator<NodeRecord> it = nodeRecordLists.iterator();
-        while (it.hasNext()) {
-            NodeRecord currentNode = (NodeRecord) it.next();
-            Long nodeId = new Long(currentNode.getNodeId());
-            nodeRecordMap.put(nodeId, currentNode);
-        }
+        Stack<NodeRecord> openNodes = new Stack<NodeRecord>();
+        NodeRecordCursor it = null;
 
 //        String doc = docid;
-      double afterPutNode = System.currentTimeMillis()/1000;
-      logMetacat.debug("DocumentImpl.buildIndex - The time to put node id into map is " + (afterPutNode - start));
       double afterDelete = 0;
         // Opening separate db connection for deleting and writing
         // XML Index -- be sure that it is all in one db transaction
         int serialNumber = -1;
         DBConnection dbConn = null;
         try {
+            // look up the node table first, so only one connection is used below
+            String nodeTable = getNodeTableName();
             dbConn = DBConnectionPool.getDBConnection("DocumentImpl.buildIndex");
             serialNumber = dbConn.getCheckOutSerialNumber();
             dbConn.setAutoCommit(false);
@@ -1830,10 +1860,27 @@ public class DocumentImpl
             // and build the new index and update the database. Process
             // TEXT nodes with their parent ELEMENT node ids to associate the
             // element with it's node data (stored in the text node)
-            it = nodeRecordLists.iterator();
+            // read the nodes in the same transaction instead of holding a second connection
+            it = new NodeRecordCursor(rootnodeid, nodeTable, dbConn);
+            if (!it.hasNext()) {
+                // nothing to index, but the old entries are still removed
+                logMetacat.warn("DocumentImpl.buildIndex - the document " + docid 
+                        + " has no nodes under the root node " + rootnodeid);
+            }
             HashMap<String, PathIndexEntry> pathsFound = new HashMap<String, PathIndexEntry>();
             while (it.hasNext()) {
                 NodeRecord currentNode = (NodeRecord) it.next();
+                // close the nodes which are not ancestors of the current one
+                while (!openNodes.empty() 
+                        && openNodes.peek().getNodeId() != currentNode.getParentNodeId()) {
+                    nodeRecordMap.remove(new Long(openNodes.pop().getNodeId()));
+                }
+                Long currentNodeId = new Long(currentNode.getNodeId());
+                nodeRecordMap.put(currentNodeId, currentNode);
+                // only the DOCUMENT and ELEMENT nodes can be parents. Check it
+                // now since TEXT nodes are converted to ELEMENT nodes below.
+                boolean canBeParent = currentNode.getNodeType().equals("DOCUMENT") ||
+                                       currentNode.getNodeType().equals("ELEMENT");
                 HashMap<String, PathIndexEntry> pathList = new HashMap<String, PathIndexEntry>();
                 if ( currentNode.getNodeType().equals("ELEMENT") ||
                      currentNode.getNodeType().equals("ATTRIBUTE") ){
@@ -1858,7 +1905,11 @@ public class DocumentImpl
                   NodeRecord parentNode = 
                 	  nodeRecordMap.get(new Long(currentNode.getParentNodeId()));
 
-                  if ( parentNode.getNodeType().equals("ELEMENT") ) {
+                  if ( parentNode == null ) {
+                    // the parent isn't an open element, e.g. the node tree is incomplete
+                    logMetacat.warn("DocumentImpl.buildIndex - the parent " + currentNode.getParentNodeId()
+                      + " of the text node " + currentNode.getNodeId() + " in " + docid + " wasn't found");
+                  } else if ( parentNode.getNodeType().equals("ELEMENT") ) {
                     
                     currentNode.setNodeType(parentNode.getNodeType());
                     currentNode.setNodeName("");
@@ -1879,9 +1930,24 @@ public class DocumentImpl
 
                 	pathsFound.clear();
                 }
+                if (canBeParent) {
+                    openNodes.push(currentNode);
+                } else {
+                    nodeRecordMap.remove(currentNodeId);
+                }
             }
             
             dbConn.commit();
+        } catch (IllegalStateException ise) {
+            logMetacat.error("DocumentImpl.buildIndex - couldn't read the nodes of "
+                    + "document " + docid + " : " + ise.getMessage());
+            try {
+                dbConn.rollback();
+            } catch (SQLException sqle2) {
+                logMetacat.error("DocumentImpl.buildIndex - Error while rolling back: "
+                		 + sqle2.getMessage());
+            }
+            throw new McdbException("Error reading nodes when building Index: " + ise.getMessage());
         } catch (SQLException sqle) {
             logMetacat.error("DocumentImpl.buildIndex - SQL Exception while indexing "
             		+ "document " + docid + " : " + sqle.getMessage());
@@ -1893,9 +1959,13 @@ public class DocumentImpl
             }
             throw new McdbException("SQL error when building Index: " + sqle.getMessage());
         } finally {
+            if (it != null) {
+                it.close();
+            }
 			DBConnectionPool.returnDBConnection(dbConn, serialNumber);
 		}
 		double finish = System.currentTimeMillis() / 1000;
+		logMetacat.info("DocumentImpl.buildIndex - The time for deleting is " + (afterDelete - start));
 		logMetacat.info("DocumentImpl.buildIndex - The time for inserting is " + (finish - afterDelete));
 		logMetacat.info("DocumentImpl.buildIndex - BuildIndex complete for docid " + docid);
 
@@ -2382,6 +2452,44 @@ public class DocumentImpl
     }
 
 
+    /**
+     * Determine which node table holds the nodes of this document revision
+     * @return xml_nodes_revisions if this revision only lives in the revision
+     *         tables, otherwise xml_nodes
+     * @throws McdbDocNotFoundException
+     */
+    private String getNodeTableName() throws McdbDocNotFoundException
+    {
+        String table = "xml_nodes";
+        try {
+            if (isRevisionOnly(docid, rev)) { //pull the document from xml_revisions
+                // instead of from xml_documents;
+                table = "xml_nodes_revisions";
+            }
+        }  catch (McdbDocNotFoundException notFound) {
+            throw notFound;
+        } catch (Exception e) {
+
+            logMetacat.error("DocumentImpl.getNodeTableName - General error: "
+                    + e.getMessage());
+        }
+        return table;
+    }
+
+    /**
+     * Open a streaming cursor over the node records of the tree. The records
+     * come back in the same order as the TreeSet from getNodeRecordList, but
+     * only one page of rows is held in memory at a time. The caller must close
+     * the cursor.
+     *
+     * @param rootnodeid
+     *            the id of the root node of the node tree to look up
+     */
+    private NodeRecordCursor openNodeRecordCursor(long rootnodeid) throws McdbException
+    {
+        return new NodeRecordCursor(rootnodeid, getNodeTableName());
+    }
+
     /**
      * Look up the node data from the database
      *
@@ -2405,21 +2513,7 @@ public class DocumentImpl
         Timestamp nodedatadate = null;
 
 //        String quotechar = DatabaseService.getDBAdapter().getStringDelimiter();
-        String table = "xml_nodes";
-        //System.out.println("in getNodeREcorelist !!!!!!!!!!!for root node id "+rootnodeid);
-        try {
-            if (isRevisionOnly(docid, rev)) { //pull the document from xml_revisions
-                // instead of from xml_documents;
-                table = "xml_nodes_revisions";
-                //System.out.println("in getNodeREcorelist !!!!!!!!!!!2");
-            }
-        }  catch (McdbDocNotFoundException notFound) {
-            throw notFound;
-        } catch (Exception e) {
-
-            logMetacat.error("DocumentImpl.getNodeRecordList - General error: "
-                    + e.getMessage());
-        }
+        String table = getNodeTableName();
         //System.out.println("in getNodeREcorelist !!!!!!!!!!!3");
         try {
             dbconn = DBConnectionPool
@@ -2769,19 +2863,30 @@ public class DocumentImpl
     {
         // NEW - WHEN CLIENT ALWAYS PROVIDE ACCESSION NUMBER INCLUDING REV IN IT
     	
-    	// Get the xml as a string so we can write to file later
-    	StringReader xmlReader = new StringReader(xmlString);
-    	// detect encoding
-        XmlStreamReader xsr = null;
-        if(xmlBytes == null || xmlBytes.length == 0 ) {
-            xsr = new XmlStreamReader(new ByteArrayInputStream(xmlString.getBytes()));
+        Reader xmlReader = null;
+        String encoding = null;
+        if (xmlString == null && objectFile != null && objectFile.exists()) {
+            // the document was spooled to a file whose checksum has been verified (this comes from the DataONE API).
+            // Parse it from the file, which is moved to the permanent position later, rather than holding it in memory.
+            logMetacat.debug("DocumentImpl.write - parse the document from the file " + objectFile);
+            XmlStreamReader fileReader = new XmlStreamReader(objectFile);
+            encoding = fileReader.getEncoding();
+            xmlReader = fileReader;
         } else {
-            xsr = new XmlStreamReader(new ByteArrayInputStream(xmlBytes));
-        }         
-        String encoding = xsr.getEncoding();
-        //get the byte array from xmlString if the xmlbyte is null (this comes from metacat api)
-        if(xmlBytes == null || xmlBytes.length == 0) {
-            xmlBytes = xmlString.getBytes(encoding);
+            // Get the xml as a string so we can write to file later
+            xmlReader = new StringReader(xmlString);
+            // detect encoding
+            XmlStreamReader xsr = null;
+            if(xmlBytes == null || xmlBytes.length == 0 ) {
+                xsr = new XmlStreamReader(new ByteArrayInputStream(xmlString.getBytes()));
+            } else {
+                xsr = new XmlStreamReader(new ByteArrayInputStream(xmlBytes));
+            }         
+            encoding = xsr.getEncoding();
+            //get the byte array from xmlString if the xmlbyte is null (this comes from metacat api)
+            if(xmlBytes == null || xmlBytes.length == 0) {
+                xmlBytes = xmlString.getBytes(encoding);
+            }
         }
 
         logMetacat.debug("DocumentImpl.write - conn usage count before writing: "
@@ -2859,6 +2964,7 @@ public class DocumentImpl
                     conn.setAutoCommit(false);
                     logMetacat.debug("DocumentImpl.write - parsing xml");
                     parser.parse(new InputSource(xmlReader));
+                    xmlReader.close();
                     
                     // update the node data to include numeric and date values
                     updateNodeValues(conn, docid);
@@ -2889,6 +2995,7 @@ public class DocumentImpl
                } catch (Exception e) {
                    e.printStackTrace();
             	   logMetacat.error("DocumentImpl.write - Problem with parsing: " + e.getMessage());
+                   IOUtils.closeQuietly(xmlReader);
                     conn.rollback();
                     conn.setAutoCommit(true);
                     //if it is a eml2 document, we need delete online data
@@ -2965,6 +3072,7 @@ public class DocumentImpl
             conn.setAutoCommit(false);
             //logMetacat.debug("DocumentImpl.write - XML to be parsed: " + xmlString);
             parser.parse(new InputSource(xmlReader));
+            xmlReader.close();
 
             //update nodes
             updateNodeValues(conn, docid);
@@ -2988,6 +3096,7 @@ public class DocumentImpl
         } catch (Exception e) {
         	logMetacat.error("DocumentImpl.write - Problem with parsing: " + e.getMessage());
             e.printStackTrace();
+            IOUtils.closeQuietly(xmlReader);
             conn.rollback();
             conn.setAutoCommit(true);
             //if it is a eml2 document, we need delete online data
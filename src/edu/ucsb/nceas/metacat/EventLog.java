@@ -34,6 +34,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.LogFactory;
 import org.dataone.service.types.v1.Identifier;
 import org.dataone.service.types.v2.Log;
@@ -42,12 +44,15 @@ import org.dataone.configuration.Settings;
 import org.dataone.service.types.v1.Event;
 import org.dataone.service.types.v1.NodeReference;
 import org.dataone.service.types.v1.Subject;
+import org.dataone.service.util.Constants;
 import org.dataone.service.util.DateTimeMarshaller;
 
 
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.database.DatabaseService;
+import edu.ucsb.nceas.metacat.dataone.LogStreamWriter;
+import edu.ucsb.nceas.metacat.dataone.ObjectCountCache;
 import edu.ucsb.nceas.metacat.index.MetacatSolrIndex;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
@@ -86,6 +91,21 @@ public class EventLog
     private static final int USERAGENTLENGTH = 512;
     private EventLogFilter filter = null;
     private boolean enableEvenLogIndex= false;
+    // the fields of a D1 log entry, selected from access_log al joined with identifier id
+    private static final String D1_REPORT_FIELDS = 
+            "entryid, " +
+            "id.guid as identifier, " +
+            "ip_address, " +
+            "user_agent, " +
+            "principal, " +
+            "case " +
+            "	when event = 'insert' then 'create' " +
+            " when event = 'INSERT' then 'create' " +
+            " when event = 'upload' then 'create' " +
+            " when event = 'UPLOAD' then 'create' " +
+            "	else event " +
+            "end as event, " +
+            "date_logged ";
 
 
     /**
@@ -164,8 +184,7 @@ public class EventLog
 	        	int eventCount = 0;
 	        	
 	        	String docid = IdentifierManager.getInstance().getLocalId(pid.getValue());
-	        	Log eventLog = this.getD1Report(null, null, new String[] {docid}, event, null, null, false, 0, 0);
-	        	eventCount = eventLog.getTotal();
+	        	eventCount = (int) getEventCount(docid, event);
 	
 		        List<Object> values = new ArrayList<Object>();
 				values.add(eventCount);
@@ -421,7 +440,6 @@ public class EventLog
     public Log getD1Report(String[] ipAddress, String[] principal, String[] docid,
             String event, Timestamp startDate, Timestamp endDate, boolean anonymous, Integer start, Integer count)
     {
-        boolean isCreateEvent = false;
         Log log = new Log();
     	
     	NodeReference memberNode = new NodeReference();
@@ -435,108 +453,10 @@ public class EventLog
         memberNode.setValue(nodeId);
         
         // subquery does the heavy lifting
+        List<Object> paramValues = new ArrayList<Object>();
         StringBuffer subQueryFrom = new StringBuffer();
         subQueryFrom.append("from access_log ");
-        
-        boolean clauseAdded = false;
-        
-        List<String> paramValues = new ArrayList<String>();
-        if (ipAddress != null) {
-        	if (clauseAdded) {
-        		subQueryFrom.append(" and ");
-            } else {
-            	subQueryFrom.append(" where ");
-            }
-        	subQueryFrom.append("ip_address in (");
-        	for (int i = 0; i < ipAddress.length; i++) {
-        		if (i > 0) {
-        			subQueryFrom.append(", ");
-        		}
-        		subQueryFrom.append("?");
-        		paramValues.add(ipAddress[i]);
-        	}
-        	subQueryFrom.append(") ");
-            clauseAdded = true;
-        }
-        if (principal != null) {
-        	if (clauseAdded) {
-        		subQueryFrom.append(" and ");
-            } else {
-            	subQueryFrom.append(" where ");
-            }
-        	subQueryFrom.append("principal in (");
-        	for (int i = 0; i < principal.length; i++) {
-        		if (i > 0) {
-        			subQueryFrom.append(", ");
-        		}
-        		subQueryFrom.append("?");
-        		paramValues.add(principal[i]);
-        	}
-        	subQueryFrom.append(") ");
-            clauseAdded = true;
-        }
-        if (docid != null) {
-        	if (clauseAdded) {
-        		subQueryFrom.append(" and ");
-            } else {
-            	subQueryFrom.append(" where ");
-            }
-        	subQueryFrom.append("docid in (");
-        	for (int i = 0; i < docid.length; i++) {
-        		if (i > 0) {
-        			subQueryFrom.append(", ");
-        		}
-        		subQueryFrom.append("?");
-        		paramValues.add(docid[i]);
-        	}
-        	subQueryFrom.append(") ");
-            clauseAdded = true;
-        }
-        
-       //please make sure the handling of event is just before the the startDate clause!!!
-        if (event != null) {
-            if (clauseAdded) {
-                subQueryFrom.append(" and ");
-            } else {
-                subQueryFrom.append(" where ");
-            }
-            subQueryFrom.append("event in (");
-            subQueryFrom.append("?");
-            String eventString = event;
-            if (eventString.equals(Event.CREATE.xmlValue())) {
-                isCreateEvent = true; //since the create event maps create, insert and et al, we handle it in different way
-                subQueryFrom.append(",?");// for INSERT, the insert is handled by line 508
-                subQueryFrom.append(",?");// for upload
-                subQueryFrom.append(",?");// for UPLOAD
-                subQueryFrom.append(",?");// for create
-                //eventString = "insert,INSERT,upload,UPLOAD,create";
-            } else {
-                paramValues.add(eventString);
-            }
-            subQueryFrom.append(") ");
-            clauseAdded = true;
-        }
-
-        if (startDate != null) {
-            if (clauseAdded) {
-            	subQueryFrom.append(" and ");
-            } else {
-            	subQueryFrom.append(" where ");
-            }
-            subQueryFrom.append("date_logged >= ?");
-            clauseAdded = true;
-        }
-        if (endDate != null) {
-            if (clauseAdded) {
-            	subQueryFrom.append(" and ");
-            } else {
-            	subQueryFrom.append(" where ");
-            }
-            subQueryFrom.append("date_logged < ?");
-            clauseAdded = true;
-        }
-        
-        
+        subQueryFrom.append(getD1ReportFilter("", ipAddress, principal, docid, event, startDate, endDate, paramValues));
 
         // count query
         String countSelect = "select count(*) ";
@@ -546,20 +466,7 @@ public class EventLog
         
         // for selecting fields we want in the join
         String fieldSelect = 
-        		"select " +
-        		"entryid, " +
-        		"id.guid as identifier, " +
-        		"ip_address, " +
-        		"user_agent, " +
-        		"principal, " +
-        		"case " +
-        		"	when event = 'insert' then 'create' " +
-        		" when event = 'INSERT' then 'create' " +
-        		" when event = 'upload' then 'create' " +
-        		" when event = 'UPLOAD' then 'create' " +
-        		"	else event " +
-        		"end as event, " +
-        		"date_logged " +	 
+        		"select " + D1_REPORT_FIELDS +
         		"from access_log al, identifier id " +
         		"where al.docid = id.docid||'.'||id.rev " +
         		"and al.entryid in ";
@@ -589,44 +496,8 @@ public class EventLog
             PreparedStatement countStmt = dbConn.prepareStatement(countQuery);
 
             //set the param values
-            int parameterIndex = 1;
-            for (String val: paramValues) {
-            	countStmt.setString(parameterIndex, val);
-            	fieldsStmt.setString(parameterIndex, val);
-            	parameterIndex++;
-            }
-            
-            if(isCreateEvent) {
-                //handle the event mapping. If we add another event mapping, we need add a "?" in line 496
-                //those values are not in the paramValues.
-                countStmt.setString(parameterIndex, "insert");
-                fieldsStmt.setString(parameterIndex, "insert");
-                parameterIndex++;
-                countStmt.setString(parameterIndex, "INSERT");
-                fieldsStmt.setString(parameterIndex, "INSERT");
-                parameterIndex++;
-                countStmt.setString(parameterIndex, "upload");
-                fieldsStmt.setString(parameterIndex, "upload");
-                parameterIndex++;
-                countStmt.setString(parameterIndex, "UPLOAD");
-                fieldsStmt.setString(parameterIndex, "UPLOAD");
-                parameterIndex++;
-                countStmt.setString(parameterIndex, "create");
-                fieldsStmt.setString(parameterIndex, "create");
-                parameterIndex++;
-            }
-            
-            if (startDate != null) {
-            	countStmt.setTimestamp(parameterIndex, startDate); 
-                fieldsStmt.setTimestamp(parameterIndex, startDate); 
-            	parameterIndex++;
-            }
-            if (endDate != null) {
-            	countStmt.setTimestamp(parameterIndex, endDate);
-            	fieldsStmt.setTimestamp(parameterIndex, endDate);
-            	parameterIndex++;
-            }
-            
+            bindParameters(countStmt, paramValues);
+            bindParameters(fieldsStmt, paramValues);
 
             // for the return Log list
             List<LogEntry> logs = new Vector<LogEntry>();
@@ -719,6 +590,346 @@ public class EventLog
         return log;
     }
     
+    /**
+     * Write the D1 log entries matching the filter to the given writer with keyset
+     * paging. The entries are ordered by entryid and a page starts right after the
+     * given entry id, so each page is an index range scan instead of skipping 
+     * start rows with an offset. The date range is applied to the partition key 
+     * date_logged of the joined access_log, so the partitions outside of it are 
+     * pruned. The total is cached for a short time since harvesters ask for the
+     * same filter page after page.
+     * 
+     * @param ipAddress the ip addresses of the clients. Null means any.
+     * @param principal the principals of the clients. Null means any.
+     * @param docid the docids of the objects. Null means any.
+     * @param event the event. Null means any.
+     * @param startDate the inclusive start of the date range. It can be null.
+     * @param endDate the exclusive end of the date range. It can be null.
+     * @param anonymous if the ip addresses and subjects should be hidden
+     * @param afterEntryId the id of the last entry of the previous page. Use -1 for the first page.
+     * @param count the maximum number of the entries in the page
+     * @param writer the writer which the log entries are written to
+     * @return the id of the last entry if the page is full, -1 otherwise
+     * @throws SQLException
+     * @throws XMLStreamException
+     */
+    public long streamD1Report(String[] ipAddress, String[] principal, String[] docid,
+            String event, Timestamp startDate, Timestamp endDate, boolean anonymous, long afterEntryId, 
+            int count, LogStreamWriter writer) throws SQLException, XMLStreamException {
+        String nodeId = "localhost";
+        try {
+            nodeId = PropertyService.getProperty("dataone.nodeId");
+        } catch (PropertyNotFoundException e) {
+            logMetacat.warn("EventLog.streamD1Report - couldn't get the node id: " + e.getMessage());
+        }
+        List<Object> paramValues = new ArrayList<Object>();
+        String where = getD1ReportFilter("al.", ipAddress, principal, docid, event, startDate, endDate, paramValues);
+        String countQuery = "select count(*) from access_log al" + where;
+        String query = "select " + D1_REPORT_FIELDS + "from access_log al, identifier id" 
+                        + (where.equals("") ? " where " : where + " and ")
+                        + "al.docid = id.docid||'.'||id.rev and al.entryid > ? order by al.entryid";
+        String pagedQuery = DatabaseService.getInstance().getDBAdapter().getPagedQuery(query, null, count);
+        logMetacat.debug("EventLog.streamD1Report - the selection query is " + pagedQuery);
+
+        long lastEntryId = -1;
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement fieldsStmt = null;
+        PreparedStatement countStmt = null;
+        ResultSet rs = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("EventLog.streamD1Report");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            if (count > 0) {
+                fieldsStmt = dbConn.prepareStatement(pagedQuery);
+                int index = bindParameters(fieldsStmt, paramValues);
+                fieldsStmt.setLong(index, afterEntryId);
+                rs = fieldsStmt.executeQuery();
+                while (rs.next()) {
+                    lastEntryId = rs.getLong(1);
+                    writer.addLogEntry(Long.toString(lastEntryId), 
+                            getValue(rs.getString(2), "N/A"),
+                            anonymous ? "N/A" : getValue(rs.getString(3), "N/A"),
+                            rs.getString(4) == null ? "N/A" : rs.getString(4),
+                            anonymous ? "N/A" : getValue(rs.getString(5), "N/A"),
+                            getValue(rs.getString(6), "unknown"),
+                            rs.getTimestamp(7), nodeId);
+                }
+                rs.close();
+                rs = null;
+            }
+            String cacheKey = countQuery + paramValues.toString();
+            long total = ObjectCountCache.getInstance().get(cacheKey);
+            if (total < 0) {
+                countStmt = dbConn.prepareStatement(countQuery);
+                bindParameters(countStmt, paramValues);
+                rs = countStmt.executeQuery();
+                total = rs.next() ? rs.getLong(1) : 0;
+                ObjectCountCache.getInstance().put(cacheKey, total);
+            }
+            writer.setTotal(total);
+        } finally {
+            // a failed write to the client mustn't leave the cursor open on the returned connection
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+            } catch (SQLException e) {
+                logMetacat.warn("EventLog.streamD1Report - couldn't close the result set: " + e.getMessage());
+            }
+            closeStatement(fieldsStmt);
+            closeStatement(countStmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return writer.getCount() >= count ? lastEntryId : -1;
+    }
+
+    /*
+     * Close a statement and log the failure
+     */
+    private void closeStatement(PreparedStatement stmt) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                logMetacat.warn("EventLog.closeStatement - couldn't close the statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the number of the given event on the given object. The count is read
+     * from the daily rollups plus the few access_log entries logged after the
+     * last rollup run, so it is exact but doesn't recount every raw entry.
+     * 
+     * @param docid the docid (with revision) of the object
+     * @param event the event. The create event also counts insert and upload.
+     * @return the number of the events
+     * @throws SQLException
+     */
+    public long getEventCount(String docid, String event) throws SQLException {
+        String[] events = getEventNames(event);
+        String eventList = getPlaceHolders(events.length);
+        // one statement, so the rollups and the high-water mark are read from the same snapshot
+        String query = "select (select coalesce(sum(event_count), 0) from access_log_rollup "
+                + "where docid = ? and event in (" + eventList + ")) + "
+                + "(select count(*) from access_log where docid = ? and event in (" + eventList + ") "
+                + "and entryid > (select last_entryid from access_log_rollup_status))";
+        long count = 0;
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("EventLog.getEventCount");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            PreparedStatement stmt = dbConn.prepareStatement(query);
+            int parameterIndex = 1;
+            for (int i = 0; i < 2; i++) {
+                stmt.setString(parameterIndex++, docid);
+                for (String name : events) {
+                    stmt.setString(parameterIndex++, name);
+                }
+            }
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                count = rs.getLong(1);
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return count;
+    }
+    
+    /**
+     * Get a report of the daily usage statistics that match a set of filters.
+     * The filter parameters can be null. The report is read from the rollups,
+     * so it covers the events up to the last rollup run. Since the rollups don't
+     * keep the ip addresses and principals, a report filtered by them is counted
+     * from the raw access_log entries instead.
+     * 
+     * @param ipAddress the internet protocol addresses of the events
+     * @param principal the principals of the events
+     * @param docid the identifiers (with revision) of the documents
+     * @param event the string code for the event
+     * @param startDate beginning of date range for query
+     * @param endDate end of date range for query (exclusive)
+     * @return an XML-formatted report of the daily counts
+     */
+    public String getUsageReport(String[] ipAddress, String[] principal, String[] docid, String event, 
+            Timestamp startDate, Timestamp endDate) {
+        List<Object> paramValues = new ArrayList<Object>();
+        StringBuffer query = new StringBuffer();
+        if (ipAddress != null || principal != null) {
+            // the same daily counts as the rollup job aggregates
+            paramValues.add(Constants.SUBJECT_PUBLIC);
+            query.append("select coalesce(docid, ''), coalesce(event, ''), (principal is null or principal = ?), "
+                    + "cast(coalesce(date_logged, '1900-01-01') as date), count(*) from access_log");
+            query.append(getD1ReportFilter("", ipAddress, principal, docid, event, startDate, endDate, paramValues));
+            query.append(" group by 1, 2, 3, 4 order by 4, 1, 2, 3");
+        } else {
+            List<String> clauses = new ArrayList<String>();
+            if (docid != null) {
+                clauses.add("docid in (" + getPlaceHolders(docid.length) + ")");
+                for (String value : docid) {
+                    paramValues.add(value);
+                }
+            }
+            if (event != null) {
+                String[] events = getEventNames(event);
+                clauses.add("event in (" + getPlaceHolders(events.length) + ")");
+                for (String value : events) {
+                    paramValues.add(value);
+                }
+            }
+            if (startDate != null) {
+                clauses.add("day >= ?");
+                paramValues.add(startDate);
+            }
+            if (endDate != null) {
+                clauses.add("day < ?");
+                paramValues.add(endDate);
+            }
+            query.append("select docid, event, anonymous, day, event_count from access_log_rollup");
+            for (int i = 0; i < clauses.size(); i++) {
+                query.append(i == 0 ? " where " : " and ");
+                query.append(clauses.get(i));
+            }
+            query.append(" order by day, docid, event, anonymous");
+        }
+        
+        StringBuffer resultDoc = new StringBuffer();
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("EventLog.getUsageReport");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            PreparedStatement stmt = dbConn.prepareStatement(query.toString());
+            bindParameters(stmt, paramValues);
+            ResultSet rs = stmt.executeQuery();
+            resultDoc.append("<?xml version=\"1.0\"?>\n");
+            resultDoc.append("<usage>\n");
+            while (rs.next()) {
+                resultDoc.append("<usageEntry>");
+                resultDoc.append(generateXmlElement("docid", rs.getString(1)));
+                resultDoc.append(generateXmlElement("event", rs.getString(2)));
+                resultDoc.append(generateXmlElement("anonymous", Boolean.toString(rs.getBoolean(3))));
+                resultDoc.append(generateXmlElement("day", rs.getDate(4).toString()));
+                resultDoc.append(generateXmlElement("count", Long.toString(rs.getLong(5))));
+                resultDoc.append("</usageEntry>\n");
+            }
+            resultDoc.append("</usage>");
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            logMetacat.error("EventLog.getUsageReport - error while reading the usage statistics: " + e.getMessage(), e);
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return resultDoc.toString();
+    }
+
+    /*
+     * Get the event names stored in the access_log for the given event. Since the
+     * create event maps create, insert and et al, it has several names.
+     */
+    private String[] getEventNames(String event) {
+        if (event.equals(Event.CREATE.xmlValue())) {
+            return new String[] {"insert", "INSERT", "upload", "UPLOAD", "create"};
+        }
+        return new String[] {event};
+    }
+
+    /*
+     * Build the where clause of the D1 report on the access_log table and add the
+     * parameter values to the given list. The column names get the given prefix.
+     * An empty string will be returned if there is no condition.
+     */
+    private String getD1ReportFilter(String prefix, String[] ipAddress, String[] principal, String[] docid,
+            String event, Timestamp startDate, Timestamp endDate, List<Object> paramValues) {
+        List<String> clauses = new ArrayList<String>();
+        if (ipAddress != null) {
+            clauses.add(prefix + "ip_address in (" + getPlaceHolders(ipAddress.length) + ")");
+            for (String value : ipAddress) {
+                paramValues.add(value);
+            }
+        }
+        if (principal != null) {
+            clauses.add(prefix + "principal in (" + getPlaceHolders(principal.length) + ")");
+            for (String value : principal) {
+                paramValues.add(value);
+            }
+        }
+        if (docid != null) {
+            clauses.add(prefix + "docid in (" + getPlaceHolders(docid.length) + ")");
+            for (String value : docid) {
+                paramValues.add(value);
+            }
+        }
+        if (event != null) {
+            String[] events = getEventNames(event);
+            clauses.add(prefix + "event in (" + getPlaceHolders(events.length) + ")");
+            for (String value : events) {
+                paramValues.add(value);
+            }
+        }
+        if (startDate != null) {
+            clauses.add(prefix + "date_logged >= ?");
+            paramValues.add(startDate);
+        }
+        if (endDate != null) {
+            clauses.add(prefix + "date_logged < ?");
+            paramValues.add(endDate);
+        }
+        StringBuffer where = new StringBuffer();
+        for (int i = 0; i < clauses.size(); i++) {
+            where.append(i == 0 ? " where " : " and ");
+            where.append(clauses.get(i));
+        }
+        return where.toString();
+    }
+
+    /*
+     * Get the comma separated place holders of a sql "in" list
+     */
+    private String getPlaceHolders(int size) {
+        StringBuffer holders = new StringBuffer();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                holders.append(", ");
+            }
+            holders.append("?");
+        }
+        return holders.toString();
+    }
+
+    /*
+     * Bind the Timestamp and String values to the statement, starting from the first 
+     * parameter. Return the index of the next parameter.
+     */
+    private int bindParameters(PreparedStatement stmt, List<Object> paramValues) throws SQLException {
+        int parameterIndex = 1;
+        for (Object value : paramValues) {
+            if (value instanceof Timestamp) {
+                stmt.setTimestamp(parameterIndex, (Timestamp) value);
+            } else {
+                stmt.setString(parameterIndex, (String) value);
+            }
+            parameterIndex++;
+        }
+        return parameterIndex;
+    }
+
+    /*
+     * Return the given default value if the value is null or blank
+     */
+    private String getValue(String value, String defaultValue) {
+        if (value == null || value.trim().equals("")) {
+            return defaultValue;
+        }
+        return value;
+    }
+    
     /**
      * Format each returned log record as an XML structure.
      * 
@@ -0,0 +1,184 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.util.Constants;
+
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * Rolls the access_log entries up into the daily usage statistics in the
+ * access_log_rollup table (one row per docid, event, anonymous flag and day).
+ * The entryid of the last rolled up entry is kept as a high-water mark in the
+ * access_log_rollup_status table, so each run only aggregates the entries
+ * logged since the previous run. A large backlog (e.g. the first run after an
+ * upgrade) is processed in batches of event.log.rollup.batchSize entries, each
+ * one in its own transaction.
+ * 
+ * The entryid values come from a sequence, so an entry may be committed a moment
+ * after an entry with a greater id. The entries younger than event.log.rollup.lag
+ * milliseconds are left for the next run to make sure they aren't skipped.
+ */
+public class EventLogRollup extends TimerTask {
+    private static final long DEFAULT_BATCH_SIZE = 1000000;
+    private static final long DEFAULT_LAG = 60000;
+    private static Log logMetacat = LogFactory.getLog(EventLogRollup.class);
+
+    /**
+     * Roll up the entries logged since the previous run
+     */
+    public void run() {
+        long lag = DEFAULT_LAG;
+        try {
+            lag = Long.parseLong(PropertyService.getProperty("event.log.rollup.lag"));
+        } catch (Exception e) {
+            logMetacat.debug("EventLogRollup.run - use the default lag " + DEFAULT_LAG + " since " + e.getMessage());
+        }
+        try {
+            long mark = rollup(new Timestamp(System.currentTimeMillis() - lag));
+            logMetacat.info("EventLogRollup.run - the access log was rolled up to the entry " + mark);
+        } catch (SQLException e) {
+            logMetacat.error("EventLogRollup.run - couldn't roll up the access log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Roll up the access_log entries after the high-water mark which were logged
+     * before the given time
+     * @param before  the entries logged at or after this time are left for the next run
+     * @return the new high-water mark
+     * @throws SQLException
+     */
+    public long rollup(Timestamp before) throws SQLException {
+        long batchSize = DEFAULT_BATCH_SIZE;
+        try {
+            batchSize = Long.parseLong(PropertyService.getProperty("event.log.rollup.batchSize"));
+        } catch (Exception e) {
+            logMetacat.debug("EventLogRollup.rollup - use the default batch size " + DEFAULT_BATCH_SIZE + " since " + e.getMessage());
+        }
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("EventLogRollup.rollup");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            long target = getTarget(dbConn, before);
+            long mark = -1;
+            dbConn.setAutoCommit(false);
+            try {
+                while (true) {
+                    // the lock keeps two metacat instances sharing the database from counting an entry twice
+                    mark = getHighWaterMark(dbConn, true);
+                    if (mark >= target) {
+                        dbConn.commit();
+                        break;
+                    }
+                    long to = Math.min(mark + batchSize, target);
+                    int rows = aggregate(dbConn, mark, to);
+                    PreparedStatement pstmt = dbConn.prepareStatement(
+                            "UPDATE access_log_rollup_status SET last_entryid = ?, date_updated = ?");
+                    pstmt.setLong(1, to);
+                    pstmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                    pstmt.executeUpdate();
+                    pstmt.close();
+                    dbConn.commit();
+                    logMetacat.debug("EventLogRollup.rollup - rolled up the entries (" + mark + ", " + to + "] into " + rows + " rows");
+                }
+            } catch (SQLException e) {
+                dbConn.rollback();
+                throw e;
+            } finally {
+                dbConn.setAutoCommit(true);
+            }
+            return mark;
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /*
+     * Get the greatest entryid of the entries logged before the given time
+     */
+    private long getTarget(DBConnection dbConn, Timestamp before) throws SQLException {
+        long target = 0;
+        PreparedStatement pstmt = dbConn.prepareStatement(
+                "SELECT max(entryid) FROM access_log WHERE date_logged < ?");
+        pstmt.setTimestamp(1, before);
+        ResultSet rs = pstmt.executeQuery();
+        if (rs.next()) {
+            target = rs.getLong(1);
+        }
+        rs.close();
+        pstmt.close();
+        return target;
+    }
+
+    /**
+     * Get the entryid of the last access_log entry in the rollups
+     * @param dbConn  the connection to the database
+     * @param lock  if the status row should be locked until the end of the transaction
+     * @return the high-water mark
+     * @throws SQLException
+     */
+    static long getHighWaterMark(DBConnection dbConn, boolean lock) throws SQLException {
+        long mark = 0;
+        PreparedStatement pstmt = dbConn.prepareStatement(
+                "SELECT last_entryid FROM access_log_rollup_status" + (lock ? " FOR UPDATE" : ""));
+        ResultSet rs = pstmt.executeQuery();
+        if (rs.next()) {
+            mark = rs.getLong(1);
+        }
+        rs.close();
+        pstmt.close();
+        return mark;
+    }
+
+    /*
+     * Add the counts of the entries in (from, to] to the rollups. The entries
+     * without a docid, event or date are counted under '' and 1900-01-01.
+     */
+    private int aggregate(DBConnection dbConn, long from, long to) throws SQLException {
+        PreparedStatement pstmt = dbConn.prepareStatement(
+                "INSERT INTO access_log_rollup (docid, event, anonymous, day, event_count) "
+                + "SELECT coalesce(docid, ''), coalesce(event, ''), (principal IS NULL OR principal = ?), "
+                + "cast(coalesce(date_logged, '1900-01-01') AS DATE), count(*) "
+                + "FROM access_log WHERE entryid > ? AND entryid <= ? GROUP BY 1, 2, 3, 4 "
+                + "ON CONFLICT (docid, event, anonymous, day) "
+                + "DO UPDATE SET event_count = access_log_rollup.event_count + EXCLUDED.event_count");
+        pstmt.setString(1, Constants.SUBJECT_PUBLIC);
+        pstmt.setLong(2, from);
+        pstmt.setLong(3, to);
+        int rows = pstmt.executeUpdate();
+        pstmt.close();
+        return rows;
+    }
+}
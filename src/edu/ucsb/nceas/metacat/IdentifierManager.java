@@ -25,18 +25,26 @@
 package edu.ucsb.nceas.metacat;
 
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.Vector;
 
+import javax.xml.stream.XMLStreamException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dataone.client.v2.formats.ObjectFormatCache;
@@ -64,10 +72,15 @@ import edu.ucsb.nceas.metacat.accesscontrol.XMLAccessAccess;
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.database.DatabaseService;
+import edu.ucsb.nceas.metacat.dataone.ListObjectsToken;
+import edu.ucsb.nceas.metacat.dataone.ObjectCountCache;
+import edu.ucsb.nceas.metacat.dataone.ObjectListStreamWriter;
+import edu.ucsb.nceas.metacat.dataone.SeriesHeadCache;
 import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.AccessException;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.utilities.FileUtil;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -1067,6 +1080,10 @@ public class IdentifierManager {
      * 2. if only 1 candidate chain-end, return it as the HEAD
      * 3. otherwise return the one in the chain with the latest dateUploaded value. However, we find that dateUpload doesn't refect the obsoletes information
      * (espically on the cn), so we will check osoletes information as well. https://redmine.dataone.org/issues/7624
+     * 
+     * The heads are kept in the series_head table, which is maintained whenever the system 
+     * metadata changes, and the hot ones in the SeriesHeadCache, so the chain is only walked 
+     * for a series which isn't in the table yet.
      * @param sid specified sid which should match.
      * @return the pid of the head version. The null will be returned if there is no pid found.
      * @throws SQLException 
@@ -1074,10 +1091,57 @@ public class IdentifierManager {
     public Identifier getHeadPID(Identifier sid) throws SQLException {
         Identifier pid = null;
         if(sid != null && sid.getValue() != null && !sid.getValue().trim().equals("")) {
-            logMetacat.debug("getting pid of the head version for matching the sid: " + sid.getValue());
-            String sql = "select guid, obsoleted_by, obsoletes from systemMetadata where series_id = ? order by date_uploaded DESC";
+            String head = SeriesHeadCache.getInstance().get(sid.getValue());
+            if (head != null) {
+                pid = new Identifier();
+                pid.setValue(head);
+                logMetacat.debug("IdentifierManager.getHeadPID - the head of chain for sid " + sid.getValue() + " is the cached " + head);
+                return pid;
+            }
+            // a head read before a concurrent change commits mustn't be cached after its invalidation
+            long generation = SeriesHeadCache.getInstance().getGeneration();
             DBConnection dbConn = null;
             int serialNumber = -1;
+            try {
+                dbConn = DBConnectionPool.getDBConnection("IdentifierManager.getHeadPID");
+                serialNumber = dbConn.getCheckOutSerialNumber();
+                pid = getSeriesHead(sid.getValue(), dbConn.getConnections());
+                if (pid == null) {
+                    pid = computeHeadPID(sid, dbConn.getConnections());
+                    if (pid != null) {
+                        // a series which isn't in the table yet (e.g. before it was rebuilt)
+                        saveSeriesHead(sid.getValue(), pid.getValue(), false, dbConn.getConnections());
+                    }
+                }
+            } finally {
+                DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+            }
+            if (pid != null) {
+                SeriesHeadCache.getInstance().put(sid.getValue(), pid.getValue(), generation);
+            }
+        }
+        if(pid != null && sid != null) {
+            logMetacat.info("The head of chain for sid "+sid.getValue()+"  --is--  "+pid.getValue());
+        } else if(pid == null && sid != null) {
+            logMetacat.info("The head of chain for sid "+sid.getValue()+" is null. So it is pid.");
+        }
+        
+        return pid;
+    }
+    
+    /**
+     * Walk the obsoletes chain of the series to find its head, as described in getHeadPID. 
+     * It doesn't use the series_head table.
+     * @param sid  the series id
+     * @param conn  the connection to read the system metadata with
+     * @return the pid of the head version, or null if no object has the series id.
+     * @throws SQLException
+     */
+    public Identifier computeHeadPID(Identifier sid, Connection conn) throws SQLException {
+        Identifier pid = null;
+        if(sid != null && sid.getValue() != null && !sid.getValue().trim().equals("")) {
+            logMetacat.debug("getting pid of the head version for matching the sid: " + sid.getValue());
+            String sql = "select guid, obsoleted_by, obsoletes from systemMetadata where series_id = ? order by date_uploaded DESC";
             PreparedStatement stmt = null;
             PreparedStatement stmt2 = null;
             ResultSet rs = null;
@@ -1087,11 +1151,7 @@ public class IdentifierManager {
             HashMap<String, String> obsoletesIdGuidMap = new HashMap<String, String>();//the key is an obsoletes id, the value is an guid
             Vector<Identifier> endsList = new Vector<Identifier>();//the vector storing ends
             try {
-                // Get a database connection from the pool
-                dbConn = DBConnectionPool.getDBConnection("IdentifierManager.getHeadPID");
-                serialNumber = dbConn.getCheckOutSerialNumber();
-                // Execute the insert statement
-                stmt = dbConn.prepareStatement(sql);
+                stmt = conn.prepareStatement(sql);
                 stmt.setString(1, sid.getValue());
                 rs = stmt.executeQuery();
                 boolean hasNext = rs.next();
@@ -1132,7 +1192,10 @@ public class IdentifierManager {
                             obsoletedBy.setValue(obsoletedByStr);
                             //SystemMetadata obsoletedBySysmeta = HazelcastService.getInstance().getSystemMetadataMap().get(obsoletedBy);
                             String sql2 = "select series_id, guid from systemMetadata where guid = ? ";
-                            stmt2 = dbConn.prepareStatement(sql2);
+                            if (stmt2 != null) {
+                                stmt2.close();
+                            }
+                            stmt2 = conn.prepareStatement(sql2);
                             stmt2.setString(1, obsoletedByStr);
                             result = stmt2.executeQuery();
                             boolean next = result.next();
@@ -1241,21 +1304,118 @@ public class IdentifierManager {
                     }
                 } catch (Exception e) {
                     logMetacat.warn("Couldn't close the prepared statement since "+e.getMessage());
-                } finally {
-                    // Return database connection to the pool
-                    DBConnectionPool.returnDBConnection(dbConn, serialNumber);
                 }
             }
         }
-        if(pid != null && sid != null) {
-            logMetacat.info("The head of chain for sid "+sid.getValue()+"  --is--  "+pid.getValue());
-        } else if(pid == null && sid != null) {
-            logMetacat.info("The head of chain for sid "+sid.getValue()+" is null. So it is pid.");
+        return pid;
+    }
+    
+    /*
+     * Read the head of a series from the series_head table
+     */
+    private Identifier getSeriesHead(String sid, Connection conn) throws SQLException {
+        Identifier pid = null;
+        PreparedStatement stmt = conn.prepareStatement("select guid from series_head where series_id = ?");
+        try {
+            stmt.setString(1, sid);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                pid = new Identifier();
+                pid.setValue(rs.getString(1));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
         }
-        
         return pid;
     }
     
+    /*
+     * Save the head of a series into the series_head table. An existing row is only
+     * replaced if overwrite is true.
+     */
+    private void saveSeriesHead(String sid, String guid, boolean overwrite, Connection conn) throws SQLException {
+        String sql = "insert into series_head (series_id, guid, date_modified) values (?, ?, now()) on conflict (series_id) do ";
+        if (overwrite) {
+            sql = sql + "update set guid = excluded.guid, date_modified = excluded.date_modified";
+        } else {
+            sql = sql + "nothing";
+        }
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try {
+            stmt.setString(1, sid);
+            stmt.setString(2, guid);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+    }
+    
+    /**
+     * Recompute the head of a series from the obsoletes chain and save it into the 
+     * series_head table, or remove the row if no object has the series id any more. 
+     * It holds a transaction-level advisory lock on the series, so concurrent updates 
+     * of the same series are applied one after the other. It should be called inside
+     * the transaction which changed the system metadata; the SeriesHeadCache should
+     * be invalidated after the commit. A transaction updating several series must
+     * update them in the sorted order of their ids, so two transactions never wait
+     * for each other's locks.
+     * @param sid  the series id
+     * @param conn  the connection of the transaction
+     * @throws SQLException
+     */
+    public void updateSeriesHead(String sid, Connection conn) throws SQLException {
+        if (sid == null || sid.trim().equals("")) {
+            return;
+        }
+        PreparedStatement stmt = conn.prepareStatement("select pg_advisory_xact_lock(hashtext(?))");
+        try {
+            stmt.setString(1, sid);
+            stmt.executeQuery().close();
+        } finally {
+            stmt.close();
+        }
+        Identifier series = new Identifier();
+        series.setValue(sid);
+        Identifier head = computeHeadPID(series, conn);
+        if (head != null) {
+            saveSeriesHead(sid, head.getValue(), true, conn);
+        } else {
+            stmt = conn.prepareStatement("delete from series_head where series_id = ?");
+            try {
+                stmt.setString(1, sid);
+                stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+        }
+        logMetacat.debug("IdentifierManager.updateSeriesHead - the head of the series " + sid + " is " 
+                          + (head == null ? null : head.getValue()));
+    }
+    
+    /*
+     * Get the series ids of the given objects and of the objects they obsolete or which 
+     * obsolete them, i.e. the series whose heads may change when the objects change.
+     * They are sorted, the order in which updateSeriesHead locks them.
+     */
+    private Set<String> getRelatedSeriesIds(String guid, Connection conn) throws SQLException {
+        Set<String> sids = new TreeSet<String>();
+        String sql = "select s.series_id from systemMetadata s, systemMetadata o where o.guid = ? " 
+                   + "and (s.guid = o.guid or s.guid = o.obsoletes or s.guid = o.obsoleted_by) and s.series_id is not null";
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        try {
+            stmt.setString(1, guid);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                sids.add(rs.getString(1));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return sids;
+    }
+    
     /*
      * For the non-ideal chain, we used to return the latest Dateupload object as the head pid. However, Dateupload
      * sometimes doesn't refect the obsoletes chain. We need to check if any other objects obsoletes it recursively.
@@ -1400,7 +1560,38 @@ public class IdentifierManager {
 		}
 		return exists;
 	}
-    
+
+    /**
+     * Get the ids which place an object in the obsoletes chain of its series
+     * @param guid  the identifier of the object
+     * @return the series id, the obsoletes and the obsoleted_by id of the object, or null if
+     * its system metadata isn't in the database
+     * @throws SQLException
+     */
+    public String[] getChainIds(String guid) throws SQLException {
+        String[] ids = null;
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("IdentifierManager.getChainIds");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            PreparedStatement stmt = dbConn.prepareStatement("select series_id, obsoletes, obsoleted_by from systemMetadata where guid = ?");
+            try {
+                stmt.setString(1, guid);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    ids = new String[] {rs.getString(1), rs.getString(2), rs.getString(3)};
+                }
+                rs.close();
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return ids;
+    }
+
     /**
      * creates a system metadata mapping and adds additional fields from sysmeta
      * to the table for quick searching.
@@ -1413,25 +1604,78 @@ public class IdentifierManager {
      */
     public void insertOrUpdateSystemMetadata(SystemMetadata sysmeta) 
         throws McdbDocNotFoundException, SQLException, InvalidSystemMetadata {
-    	String guid = sysmeta.getIdentifier().getValue();
-    	
+        List<SystemMetadata> sysmetaList = new ArrayList<SystemMetadata>();
+        sysmetaList.add(sysmeta);
+        insertOrUpdateSystemMetadata(sysmetaList);
+    }
+    
+    /**
+     * Insert or update the system metadata of many objects in a single transaction,
+     * so a batch of objects only needs one commit. Nothing is saved if one of them fails.
+     * 
+     * @param sysmetaList the system metadata of the objects
+     * @throws SQLException 
+     */
+    public void insertOrUpdateSystemMetadata(Collection<SystemMetadata> sysmetaList) throws SQLException {
+        insertOrUpdateSystemMetadata(sysmetaList, false);
+    }
+    
+    /**
+     * Insert or update the system metadata of many objects in a single transaction, but leave
+     * the rows which are newer than the given system metadata alone. A row is newer if its
+     * serial version is higher, or if the serial versions are the same and its modification
+     * date is later. It is used to write changes which may have been overtaken by a write
+     * elsewhere, e.g. the journaled changes of the write-behind store.
+     * 
+     * @param sysmetaList the system metadata of the objects
+     * @return the system metadata which weren't written since the database has a newer version
+     * @throws SQLException 
+     */
+    public List<SystemMetadata> insertOrUpdateSystemMetadataIfNewer(Collection<SystemMetadata> sysmetaList) throws SQLException {
+        return insertOrUpdateSystemMetadata(sysmetaList, true);
+    }
+    
+    private List<SystemMetadata> insertOrUpdateSystemMetadata(Collection<SystemMetadata> sysmetaList, boolean onlyNewer) throws SQLException {
+        List<SystemMetadata> skipped = new ArrayList<SystemMetadata>();
+        if (sysmetaList == null || sysmetaList.isEmpty()) {
+            return skipped;
+        }
+        String guid = null;
     	 // Get a database connection from the pool
         DBConnection dbConn = DBConnectionPool.getDBConnection("IdentifierManager.insertSystemMetadata");
         int serialNumber = dbConn.getCheckOutSerialNumber();
+        // sorted, so the advisory locks of the series are always taken in the same order
+        Set<String> seriesIds = new TreeSet<String>();
         
         try {
         	// use a single transaction for it all
         	dbConn.setAutoCommit(false);
         	
-	    	// insert the record if needed
-        	if (!IdentifierManager.getInstance().systemMetadataPIDExists(guid)) {
-    	        insertSystemMetadata(guid, dbConn);
-			}
-	        // update with the values
-	        updateSystemMetadata(sysmeta, dbConn);
+        	for (SystemMetadata sysmeta : sysmetaList) {
+        	    guid = sysmeta.getIdentifier().getValue();
+        	    if (onlyNewer && hasNewerSystemMetadata(sysmeta, dbConn)) {
+        	        logMetacat.info("IdentifierManager.insertOrUpdateSystemMetadata - skip the system metadata of " + guid
+        	                        + " since the database has a newer version");
+        	        skipped.add(sysmeta);
+        	        continue;
+        	    }
+    	    	// insert the record if needed
+            	if (!IdentifierManager.getInstance().systemMetadataPIDExists(guid)) {
+        	        insertSystemMetadata(guid, dbConn);
+    			}
+            	// the series before and after the change may get new heads
+            	seriesIds.addAll(getRelatedSeriesIds(guid, dbConn.getConnections()));
+    	        // update with the values
+    	        updateSystemMetadata(sysmeta, dbConn);
+    	        seriesIds.addAll(getRelatedSeriesIds(guid, dbConn.getConnections()));
+        	}
+	        for (String sid : seriesIds) {
+	            updateSeriesHead(sid, dbConn.getConnections());
+	        }
 	        
 	        // commit if we got here with no errors
 	        dbConn.commit();
+	        SeriesHeadCache.getInstance().invalidate(seriesIds);
         } catch (Exception e) {
             e.printStackTrace();
             logMetacat.error("Error while creating " + TYPE_SYSTEM_METADATA + " record: " + guid, e );
@@ -1441,8 +1685,42 @@ public class IdentifierManager {
             // Return database connection to the pool
             DBConnectionPool.returnDBConnection(dbConn, serialNumber);
         }
-        
-        
+        return skipped;
+    }
+    
+    /*
+     * Check if the row of the system metadata has a higher serial version, or the same serial
+     * version and a later modification date. The row is locked until the transaction ends, so
+     * a concurrent write can't slip in between the check and the update.
+     */
+    private boolean hasNewerSystemMetadata(SystemMetadata sysmeta, DBConnection dbConn) throws SQLException {
+        PreparedStatement stmt = dbConn.prepareStatement("select serial_version, date_modified from " 
+                                      + TYPE_SYSTEM_METADATA + " where guid = ? for update");
+        try {
+            stmt.setString(1, sysmeta.getIdentifier().getValue());
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return false;
+            }
+            String storedSerial = rs.getString(1);
+            Timestamp storedModified = rs.getTimestamp(2);
+            BigInteger serial = sysmeta.getSerialVersion();
+            if (storedSerial != null && serial != null) {
+                try {
+                    int compare = new BigInteger(storedSerial.trim()).compareTo(serial);
+                    if (compare != 0) {
+                        return compare > 0;
+                    }
+                } catch (NumberFormatException e) {
+                    logMetacat.warn("IdentifierManager.hasNewerSystemMetadata - the serial version " + storedSerial + " of "
+                                    + sysmeta.getIdentifier().getValue() + " isn't a number, so only the dates are compared");
+                }
+            }
+            Date modified = sysmeta.getDateSysMetadataModified();
+            return storedModified != null && modified != null && storedModified.getTime() > modified.getTime();
+        } finally {
+            stmt.close();
+        }
     }
         
     
@@ -1936,8 +2214,6 @@ public class IdentifierManager {
         ObjectList ol = new ObjectList();
         DBConnection dbConn = null;
         int serialNumber = -1;
-        PreparedStatement countStmt=null;
-        ResultSet totalResult=null;
         PreparedStatement fieldStmt = null;
         ResultSet rs= null;
 
@@ -1946,95 +2222,10 @@ public class IdentifierManager {
                     + "checksum_algorithm, origin_member_node, authoritive_member_node, "
                     + "date_modified, submitter, object_format, size from systemmetadata";
             
-            // handle special case quickly
-            String countSql = "select count(guid) from systemmetadata";
-            
-            // the clause
-            String whereClauseSql = "";
-            
-
-            boolean f1 = false;
-            boolean f2 = false;
-            boolean f3 = false;
-            boolean f4 = false;
-            boolean f5 = false;
-
-
-            if (startTime != null) {
-                whereClauseSql += " where systemmetadata.date_modified >= ?";
-                f1 = true;
-            }
-
-            if (endTime != null) {
-                if (!f1) {
-                    whereClauseSql += " where systemmetadata.date_modified < ?";
-                } else {
-                    whereClauseSql += " and systemmetadata.date_modified < ?";
-                }
-                f2 = true;
-            }
-
-            if (objectFormatId != null) {
-                if (!f1 && !f2) {
-                    whereClauseSql += " where object_format = ?";
-                } else {
-                    whereClauseSql += " and object_format = ?";
-                }
-                f3 = true;
-            }
-            
-            if(identifier != null && identifier.getValue() != null && !identifier.getValue().equals("")) {
-                if (!f1 && !f2 && !f3 ) {
-                    if(isSID) {
-                        whereClauseSql += " where series_id = ?";
-                    } else {
-                        whereClauseSql += " where guid = ?";
-                    }
-                    
-                } else {
-                    if(isSID) {
-                        whereClauseSql += " and series_id = ?";
-                    } else {
-                        whereClauseSql += " and guid = ?";
-                    }
-                }
-                f4 = true;
-            }
-
-            /*if (!replicaStatus) {
-                String currentNodeId = PropertyService.getInstance().getProperty("dataone.nodeId");
-                if (!f1 && !f2 && !f3 && !f4) {
-                    whereClauseSql += " where authoritive_member_node = '" +
-                        currentNodeId.trim() + "'";
-                } else {
-                    whereClauseSql += " and authoritive_member_node = '" +
-                        currentNodeId.trim() + "'";
-                }
-            }*/
-            
-            if (nodeId != null && nodeId.getValue() != null && !nodeId.getValue().trim().equals("")) {
-                if (!f1 && !f2 && !f3 && !f4) {
-                    whereClauseSql += " where authoritive_member_node = '" +
-                        nodeId.getValue().trim() + "'";
-                } else {
-                    whereClauseSql += " and authoritive_member_node = '" +
-                        nodeId.getValue().trim() + "'";
-                }
-                f5 = true;
-            }
-            
-          //add a filter to remove pids whith white spaces
-            if(filterWhiteSpaces) {
-                logMetacat.debug("IdnetifierManager.querySystemMetadata - the default value of the property \"dataone.listingidentifier.filteringwhitespaces\" is true, so we will filter the white spaces in the query");
-                if(!f1 && !f2 && !f3 && !f4 && !f5) {
-                    whereClauseSql += " where guid not like '% %' ";
-                } else {
-                    whereClauseSql += " and guid not like '% %' ";
-                }
-            } else {
-                logMetacat.debug("IdnetifierManager.querySystemMetadata - the property \"dataone.listingidentifier.filteringwhitespaces\" is configured to be false, so we don't filter the white spaces in the query.");
-            }
-           
+            // the clause and the values bound to it
+            List<Object> params = new ArrayList<Object>();
+            String whereClauseSql = getSystemMetadataFilter(startTime, endTime, objectFormatId, 
+                                                            nodeId, identifier, isSID, params);
             
             // connection
             dbConn = DBConnectionPool.getDBConnection("IdentifierManager.querySystemMetadata");
@@ -2045,119 +2236,12 @@ public class IdentifierManager {
             String fieldQuery = fieldSql + whereClauseSql + orderBySql;
             String finalQuery = DatabaseService.getInstance().getDBAdapter().getPagedQuery(fieldQuery, start, count);
             fieldStmt = dbConn.prepareStatement(finalQuery);
-            
-            // construct the count query and statment
-            String countQuery = countSql + whereClauseSql;
-            countStmt = dbConn.prepareStatement(countQuery);
-
-            if (f1 && f2 && f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(3, objectFormatId.getValue());
-                fieldStmt.setString(4, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                countStmt.setString(3, objectFormatId.getValue());
-                countStmt.setString(4, identifier.getValue());
-            } if (f1 && f2 && f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(3, objectFormatId.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                countStmt.setString(3, objectFormatId.getValue());
-            } else if (f1 && f2 && !f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(3, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                countStmt.setString(3, identifier.getValue());
-            } else if (f1 && f2 && !f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setTimestamp(2, new Timestamp(endTime.getTime()));
-            } else if (f1 && !f2 && f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setString(2, objectFormatId.getValue());
-                fieldStmt.setString(3, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setString(2, objectFormatId.getValue());
-                countStmt.setString(3, identifier.getValue());
-            } else if (f1 && !f2 && f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setString(2, objectFormatId.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setString(2, objectFormatId.getValue());
-            } else if (f1 && !f2 && !f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                fieldStmt.setString(2, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                countStmt.setString(2, identifier.getValue());
-            } else if (f1 && !f2 && !f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-                // count
-                countStmt.setTimestamp(1, new Timestamp(startTime.getTime()));
-            } else if (!f1 && f2 && f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(2, objectFormatId.getValue());
-                fieldStmt.setString(3, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                countStmt.setString(2, objectFormatId.getValue());
-                countStmt.setString(3, identifier.getValue());
-            } else if (!f1 && f2 && f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(2, objectFormatId.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                countStmt.setString(2, objectFormatId.getValue());
-            } else if (!f1 && !f2 && f3 && f4) {
-                fieldStmt.setString(1, objectFormatId.getValue());
-                fieldStmt.setString(2, identifier.getValue());
-                // count
-                countStmt.setString(1, objectFormatId.getValue());
-                countStmt.setString(2, identifier.getValue());
-            } else if (!f1 && !f2 && f3 && !f4) {
-                fieldStmt.setString(1, objectFormatId.getValue());
-                // count
-                countStmt.setString(1, objectFormatId.getValue());
-            } else if (!f1 && f2 && !f3 && f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                fieldStmt.setString(2, identifier.getValue());
-                // count
-                countStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                countStmt.setString(2, identifier.getValue());
-            } else if (!f1 && f2 && !f3 && !f4) {
-                fieldStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-                // count
-                countStmt.setTimestamp(1, new Timestamp(endTime.getTime()));
-            } else if (!f1 && !f2 && !f3 && f4) {
-                fieldStmt.setString(1, identifier.getValue());
-                // count
-                countStmt.setString(1, identifier.getValue());
-            } else if (!f1 && !f2 && !f3 && !f4) {
-                //do nothing
-            }
+            bindParameters(fieldStmt, params, 1);
 
             logMetacat.info("list objects fieldStmt: " + fieldStmt.toString());
             
-            logMetacat.info("list objects countStmt: " + countStmt.toString());
-            
             // get the total object count no matter what
-            int total = 0;
-            totalResult = countStmt.executeQuery();
-            if (totalResult.next()) {
-            	total = totalResult.getInt(1);
-            }
+            long total = countSystemMetadata(dbConn, whereClauseSql, params);
             
             logMetacat.debug("list objects total: " + total);
 
@@ -2227,16 +2311,10 @@ public class IdentifierManager {
 	            
 	
 	        }
-            ol.setTotal(total);
+            ol.setTotal((int) total);
         } finally {
             // Return database connection to the pool
             try {
-                if(totalResult !=null ){
-                    totalResult.close();
-                }
-                if(countStmt!=null ) {
-                    countStmt.close();
-                }
                 if(rs != null) {
                     rs.close();
                 }
@@ -2258,6 +2336,221 @@ public class IdentifierManager {
         return ol;
     }
     
+    /**
+     * Query the systemmetadata table with keyset paging and write the matched 
+     * objects to the given writer as the rows are read. Instead of skipping 
+     * "start" rows, the query continues right after the (date_modified, guid) 
+     * pair remembered in the token, so every page is an index range scan. The 
+     * start of the page is the position carried in the token.
+     * The objects without a modification date are listed first, by guid.
+     * The total is served from the ObjectCountCache when it is available.
+     * @param startTime  the objects modified on or after this time. It can be null.
+     * @param endTime  the objects modified before this time. It can be null.
+     * @param objectFormatId  the format of the objects. It can be null.
+     * @param nodeId  the authoritative member node of the objects. It can be null.
+     * @param identifier  the pid or sid of the objects. It can be null.
+     * @param isSID  if the identifier is a sid
+     * @param after  the token of the last object on the previous page. Null means the first page.
+     * @param count  the maximum number of objects on this page
+     * @param writer  the writer which the objects are written to
+     * @return the token of the last object on this page, or null if there are no more objects
+     * @throws SQLException
+     * @throws PropertyNotFoundException
+     * @throws ServiceException
+     * @throws XMLStreamException
+     */
+    public ListObjectsToken listSystemMetadata(Date startTime, Date endTime,
+            ObjectFormatIdentifier objectFormatId, NodeReference nodeId, Identifier identifier, 
+            boolean isSID, ListObjectsToken after, int count, ObjectListStreamWriter writer) 
+            throws SQLException, PropertyNotFoundException, ServiceException, XMLStreamException {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement fieldStmt = null;
+        ResultSet rs = null;
+        ListObjectsToken next = null;
+        try {
+            String fieldSql = "select guid, checksum, checksum_algorithm, date_modified, "
+                    + "object_format, size from systemmetadata";
+            List<Object> params = new ArrayList<Object>();
+            String whereClauseSql = getSystemMetadataFilter(startTime, endTime, objectFormatId, 
+                                                            nodeId, identifier, isSID, params);
+            dbConn = DBConnectionPool.getDBConnection("IdentifierManager.listSystemMetadata");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+
+            // the total doesn't depend on the position of the page
+            long total = countSystemMetadata(dbConn, whereClauseSql, params);
+            long position = after == null ? 0 : after.getPosition();
+            writer.setStart((int) Math.min(position, Integer.MAX_VALUE));
+            writer.setTotal(total);
+            if (count <= 0) {
+                return null;
+            }
+
+            String keysetSql = whereClauseSql;
+            List<Object> keysetParams = new ArrayList<Object>(params);
+            if (after != null && after.getDateModified() == null) {
+                // the rest of the objects without a date, then all of the dated ones
+                keysetSql += (whereClauseSql.equals("") ? " where " : " and ") 
+                        + "(date_modified is not null or guid < ?)";
+                keysetParams.add(after.getGuid());
+            } else if (after != null) {
+                // a row value comparison is a bound of the (date_modified, guid) index scan. 
+                // A comparison with null is never true, so the objects without a date are left out.
+                keysetSql += (whereClauseSql.equals("") ? " where " : " and ") 
+                        + "(date_modified, guid) < (?, ?)";
+                keysetParams.add(after.getDateModified());
+                keysetParams.add(after.getGuid());
+            }
+            // nulls first is the default order of DESC, so the index can still be read backwards
+            String orderBySql = " order by date_modified DESC NULLS FIRST, guid DESC ";
+            String finalQuery = DatabaseService.getInstance().getDBAdapter()
+                                        .getPagedQuery(fieldSql + keysetSql + orderBySql, null, count);
+            fieldStmt = dbConn.prepareStatement(finalQuery);
+            bindParameters(fieldStmt, keysetParams, 1);
+            logMetacat.info("IdentifierManager.listSystemMetadata - the field statement: " + fieldStmt.toString());
+            rs = fieldStmt.executeQuery();
+            int rows = 0;
+            String lastGuid = null;
+            Timestamp lastDateModified = null;
+            while (rs.next()) {
+                rows++;
+                String guid = rs.getString(1);
+                String checksum = rs.getString(2);
+                String checksumAlgorithm = rs.getString(3);
+                Timestamp dateModified = rs.getTimestamp(4);
+                String fmtidStr = rs.getString(5);
+                String sz = rs.getString(6);
+                lastGuid = guid;
+                lastDateModified = dateModified;
+                if (checksumAlgorithm == null) {
+                    logMetacat.error("IdentifierManager.listSystemMetadata - could not find the checksum algorithm for " + guid);
+                    continue;
+                }
+                BigInteger size = new BigInteger("0");
+                if (sz != null && !sz.trim().equals("")) {
+                    size = new BigInteger(sz.trim());
+                }
+                writer.addObjectInfo(guid, fmtidStr, checksum, checksumAlgorithm, dateModified, size);
+            }
+            // a full page means there may be more objects
+            if (rows == count) {
+                next = new ListObjectsToken(lastDateModified, lastGuid, position + rows);
+            }
+            logMetacat.debug("IdentifierManager.listSystemMetadata - wrote " + writer.getCount() + " objects");
+        } finally {
+            try {
+                if (rs != null) {
+                    rs.close();
+                }
+                if (fieldStmt != null) {
+                    fieldStmt.close();
+                }
+            } catch (SQLException sql) {
+                logMetacat.warn("IdentifierManager.listSystemMetadata - couldn't close the statement: " + sql.getMessage());
+            }
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return next;
+    }
+    
+    /*
+     * Build the where clause of the listObjects queries. The values of the
+     * place holders are appended to the given parameter list in order.
+     */
+    private String getSystemMetadataFilter(Date startTime, Date endTime,
+            ObjectFormatIdentifier objectFormatId, NodeReference nodeId, Identifier identifier,
+            boolean isSID, List<Object> params) {
+        List<String> conditions = new ArrayList<String>();
+        if (startTime != null) {
+            conditions.add("systemmetadata.date_modified >= ?");
+            params.add(new Timestamp(startTime.getTime()));
+        }
+        if (endTime != null) {
+            conditions.add("systemmetadata.date_modified < ?");
+            params.add(new Timestamp(endTime.getTime()));
+        }
+        if (objectFormatId != null) {
+            conditions.add("object_format = ?");
+            params.add(objectFormatId.getValue());
+        }
+        if (identifier != null && identifier.getValue() != null && !identifier.getValue().equals("")) {
+            if (isSID) {
+                conditions.add("series_id = ?");
+            } else {
+                conditions.add("guid = ?");
+            }
+            params.add(identifier.getValue());
+        }
+        if (nodeId != null && nodeId.getValue() != null && !nodeId.getValue().trim().equals("")) {
+            conditions.add("authoritive_member_node = ?");
+            params.add(nodeId.getValue().trim());
+        }
+        //add a filter to remove pids whith white spaces
+        if (filterWhiteSpaces) {
+            logMetacat.debug("IdnetifierManager.getSystemMetadataFilter - the default value of the property \"dataone.listingidentifier.filteringwhitespaces\" is true, so we will filter the white spaces in the query");
+            conditions.add("guid not like '% %'");
+        } else {
+            logMetacat.debug("IdnetifierManager.getSystemMetadataFilter - the property \"dataone.listingidentifier.filteringwhitespaces\" is configured to be false, so we don't filter the white spaces in the query.");
+        }
+        StringBuilder whereClause = new StringBuilder();
+        for (String condition : conditions) {
+            whereClause.append(whereClause.length() == 0 ? " where " : " and ");
+            whereClause.append(condition);
+        }
+        return whereClause.toString();
+    }
+    
+    /*
+     * Bind the values to the place holders of the statement, starting at the given index
+     */
+    private void bindParameters(PreparedStatement stmt, List<Object> params, int startIndex) throws SQLException {
+        int index = startIndex;
+        for (Object param : params) {
+            if (param instanceof Timestamp) {
+                stmt.setTimestamp(index, (Timestamp) param);
+            } else {
+                stmt.setString(index, (String) param);
+            }
+            index++;
+        }
+    }
+    
+    /*
+     * Count the system metadata records matching the where clause. The total
+     * is cached for a short time per filter, so paging through a filter only
+     * runs the count query once.
+     */
+    private long countSystemMetadata(DBConnection dbConn, String whereClauseSql, List<Object> params) throws SQLException {
+        String countQuery = "select count(guid) from systemmetadata" + whereClauseSql;
+        String cacheKey = countQuery + params.toString();
+        long total = ObjectCountCache.getInstance().get(cacheKey);
+        if (total >= 0) {
+            logMetacat.debug("IdentifierManager.countSystemMetadata - got the total " + total + " from the cache");
+            return total;
+        }
+        PreparedStatement countStmt = null;
+        ResultSet totalResult = null;
+        total = 0;
+        try {
+            countStmt = dbConn.prepareStatement(countQuery);
+            bindParameters(countStmt, params, 1);
+            logMetacat.info("list objects countStmt: " + countStmt.toString());
+            totalResult = countStmt.executeQuery();
+            if (totalResult.next()) {
+                total = totalResult.getLong(1);
+            }
+        } finally {
+            if (totalResult != null) {
+                totalResult.close();
+            }
+            if (countStmt != null) {
+                countStmt.close();
+            }
+        }
+        ObjectCountCache.getInstance().put(cacheKey, total);
+        return total;
+    }
+    
     /**
      * create a mapping in the identifier table
      * @param guid
@@ -2396,6 +2689,7 @@ public class IdentifierManager {
             dbConn = DBConnectionPool.getDBConnection("IdentifierManager.deleteSystemMetadata");
             serialNumber = dbConn.getCheckOutSerialNumber();
             dbConn.setAutoCommit(false);
+            Set<String> seriesIds = getRelatedSeriesIds(guid, dbConn.getConnections());
         	
             // remove the smReplicationPolicy
             query = "delete from smReplicationPolicy " + 
@@ -2441,8 +2735,13 @@ public class IdentifierManager {
             rows = stmt.executeUpdate();
             stmt.close();
             
+            for (String sid : seriesIds) {
+                updateSeriesHead(sid, dbConn.getConnections());
+            }
+            
             dbConn.commit();
             dbConn.setAutoCommit(true);
+            SeriesHeadCache.getInstance().invalidate(seriesIds);
             success = true;
             // TODO: remove the access?
             // Metacat keeps "deleted" documents so we should not remove access rules.
@@ -2530,14 +2829,17 @@ public class IdentifierManager {
     public String getObjectFilePath(String localId, boolean isScienceMetadata) throws PropertyNotFoundException {
         String documentPath = null;
         if (localId != null) {      
-            String documentDir = null;
             // get the correct location on disk
             if (isScienceMetadata) {
-                documentDir = PropertyService.getProperty("application.documentfilepath");
+                String documentDir = PropertyService.getProperty("application.documentfilepath");
+                documentPath = documentDir + FileUtil.getFS() + localId;
             } else {
-                documentDir = PropertyService.getProperty("application.datafilepath");
+                try {
+                    documentPath = ObjectStore.getInstance().getFile(localId).getAbsolutePath();
+                } catch (IOException e) {
+                    logMetacat.warn("IdentifierManager.getObjectFilePath - couldn't resolve the data object " + localId + " in the object store: " + e.getMessage());
+                }
             }
-            documentPath = documentDir + FileUtil.getFS() + localId;
         } 
         logMetacat.debug("IdentifierManager.getObjectFilePath - the file path for the object with localId "+localId+" which is scienceMetacat "+isScienceMetadata+", is "+documentPath+". If the value is null, this means we can't find it.");
         return documentPath;   
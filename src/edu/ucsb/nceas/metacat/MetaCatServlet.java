@@ -56,9 +56,13 @@ import org.dataone.service.types.v1.Checksum;
 
 import edu.ucsb.nceas.metacat.common.query.EnabledQueryEngines;
 import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.AccessLogPartitionManager;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.database.DatabaseService;
+import edu.ucsb.nceas.metacat.dataone.ReplicaNotificationQueue;
 import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
+import edu.ucsb.nceas.metacat.doi.DOIRegistrationQueue;
+import edu.ucsb.nceas.metacat.doi.DOIServiceFactory;
 import edu.ucsb.nceas.metacat.plugin.MetacatHandlerPlugin;
 import edu.ucsb.nceas.metacat.plugin.MetacatHandlerPluginManager;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
@@ -176,6 +180,7 @@ import edu.ucsb.nceas.utilities.UtilException;
  *     event -- filter on event type (e.g., read, insert, update, delete)
  *     start -- filter out events before the start date-time
  *     end -- filter out events before the end date-time
+ *     summary -- if true, get the daily event counts per document instead
  * action=getloggedinuserinfo -- get user info for the currently logged in user
  *     ipAddress --  filter on one or more IP addresses>
  *     principal -- filter on one or more principals (LDAP DN syntax)
@@ -240,6 +245,8 @@ import edu.ucsb.nceas.utilities.UtilException;
  * action=reindex -- rebuild the solr index for the specified pids.
  *     pid -- the id of the document which will be rebuilt slor index.
  * action=reindexall -- rebuild the solr index for all objects in the systemmetadata table.
+ *     shadow -- If provided, rebuild the index into a shadow core and swap it with the live one
+ *               when it is done. The value is start, cancel or status.
  *     
  * Here are some of the common parameters for actions
  *     doctype -- document type list returned by the query (publicID) 
@@ -260,6 +267,7 @@ public class MetaCatServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 	private Timer timer = null;
+	private Timer accessLogTimer = null;
     private static boolean _firstHalfInitialized = false;
     private static boolean _fullyInitialized = false;
     private MetacatHandler handler = null;
@@ -298,7 +306,6 @@ public class MetaCatServlet extends HttpServlet {
             // Register preliminary services
             ServiceService.registerService("PropertyService", PropertyService.getInstance(context));         
             ServiceService.registerService("SkinPropertyService", SkinPropertyService.getInstance());
-            ServiceService.registerService("SessionService", SessionService.getInstance()); 
     		
             // Check to see if the user has requested to bypass configuration 
             // (dev option) and check see if metacat has been configured.
@@ -340,6 +347,9 @@ public class MetaCatServlet extends HttpServlet {
 			DBConnectionPool connPool = DBConnectionPool.getInstance();
 			logMetacat.debug("MetaCatServlet.initSecondHalf - DBConnection pool initialized: " + connPool.toString());
 			
+			// fail now rather than with sql errors of the queues and upserts later
+			DatabaseService.getInstance().checkServerVersion();
+			
 			// register the XML schema service
 			ServiceService.registerService("XMLSchemaService", XMLSchemaService.getInstance());
 			
@@ -422,20 +432,35 @@ public class MetaCatServlet extends HttpServlet {
 			
 			System.setProperty("replication.logfile.name", replicationLogPath);			
 			
-			SessionService.getInstance().unRegisterAllSessions();
-			
 	         //Initialize Metacat Handler
             handler = new MetacatHandler(timer);
 
 			// Turn on sitemaps if appropriate
 			initializeSitemapTask(handler);
 
+			// keep the monthly partitions of the access_log table ahead of time
+			initializeAccessLogPartitionTask();
+			
+			// roll the access_log up into the daily usage statistics
+			initializeEventLogRollupTask();
+
 			// initialize the plugins
 			MetacatHandlerPluginManager.getInstance();
 			
 			// initialize the HazelcastService
 			ServiceService.registerService("HazelcastService", HazelcastService.getInstance());
 
+			// the session store may keep the sessions in the database or the Hazelcast cluster
+			SessionService.getInstance().startSessionStore();
+			ServiceService.registerService("SessionService", SessionService.getInstance());
+			SessionService.getInstance().unRegisterAllSessions();
+
+			// submit the queued DOI registrations, including the ones left by the last run
+			initializeDOIRegistrationQueue();
+
+			// send the queued notifications to the replica nodes, including the ones left by the last run
+			initializeReplicaNotificationQueue();
+
 			_fullyInitialized = true;
 			
 			logMetacat.warn("MetaCatServlet.initSecondHalf - Metacat (" + MetacatVersion.getVersionID()
@@ -478,6 +503,9 @@ public class MetaCatServlet extends HttpServlet {
             logMetacat.warn("MetaCatServlet.destroy - Destroying MetacatServlet");
         } finally {
             timer.cancel();
+            if (accessLogTimer != null) {
+                accessLogTimer.cancel();
+            }
             IndexingQueue.getInstance().setMetacatRunning(false);
             DBConnectionPool.release();
         }
@@ -1109,6 +1137,16 @@ public class MetaCatServlet extends HttpServlet {
                     return;
                 }
                 handler.handleReindexAllAction(params, request, response, userName, groupNames);
+            } else if (action.equals("compressdocuments")) {
+                if(isReadOnly(response)) {
+                    return;
+                }
+                handler.handleCompressDocumentsAction(params, request, response, userName, groupNames);
+            } else if (action.equals("migratedata")) {
+                if(isReadOnly(response)) {
+                    return;
+                }
+                handler.handleMigrateDataAction(params, request, response, userName, groupNames);
             } else if (action.equals("login") || action.equals("logout")) {
 				/*
 				 * } else if (action.equals("protocoltest")) { String testURL =
@@ -1239,6 +1277,83 @@ public class MetaCatServlet extends HttpServlet {
         return readOnly;
 		}
 		
+		/**
+		 * Schedule the task creating the monthly partitions of the access_log table.
+		 * It runs right away and then every database.accessLog.partitionCheckInterval
+		 * milliseconds (a day by default).
+		 */
+		private void initializeAccessLogPartitionTask() {
+			long interval = 86400000;
+			try {
+				interval = Long.parseLong(PropertyService.getProperty("database.accessLog.partitionCheckInterval"));
+			} catch (Exception e) {
+				logMetacat.info("MetaCatServlet.initializeAccessLogPartitionTask - use the default interval " 
+						+ interval + " since " + e.getMessage());
+			}
+			if (interval > 0) {
+				getAccessLogTimer().schedule(new AccessLogPartitionManager(), 0, interval);
+			}
+		}
+		
+		/**
+		 * Schedule the task rolling the access_log entries up into the daily usage 
+		 * statistics every event.log.rollup.interval milliseconds.
+		 */
+		private void initializeEventLogRollupTask() {
+			long interval = 600000;
+			try {
+				interval = Long.parseLong(PropertyService.getProperty("event.log.rollup.interval"));
+			} catch (Exception e) {
+				logMetacat.info("MetaCatServlet.initializeEventLogRollupTask - use the default interval " 
+						+ interval + " since " + e.getMessage());
+			}
+			if (interval > 0) {
+				getAccessLogTimer().schedule(new EventLogRollup(), interval, interval);
+			}
+		}
+		
+		/*
+		 * Start the DOI registration queue if the registrations are queued
+		 */
+		private void initializeDOIRegistrationQueue() {
+			try {
+				DOIRegistrationQueue queue = DOIServiceFactory.getRegistrationQueue();
+				if (queue != null) {
+					ServiceService.registerService("DOIRegistrationQueue", queue);
+					queue.start();
+				}
+			} catch (Exception e) {
+				logMetacat.error("MetaCatServlet.initializeDOIRegistrationQueue - couldn't start the DOI registration queue: " 
+						+ e.getMessage(), e);
+			}
+		}
+		
+		/*
+		 * Start the queue of the notifications to the replica nodes on a coordinating node
+		 */
+		private void initializeReplicaNotificationQueue() {
+			try {
+				if ("cn".equalsIgnoreCase(PropertyService.getProperty("dataone.nodeType"))) {
+					ReplicaNotificationQueue queue = ReplicaNotificationQueue.getInstance();
+					ServiceService.registerService("ReplicaNotificationQueue", queue);
+					queue.start();
+				}
+			} catch (Exception e) {
+				logMetacat.error("MetaCatServlet.initializeReplicaNotificationQueue - couldn't start the replica notification queue: " 
+						+ e.getMessage(), e);
+			}
+		}
+		
+		/*
+		 * Get the daemon timer shared by the access_log maintenance tasks
+		 */
+		private synchronized Timer getAccessLogTimer() {
+			if (accessLogTimer == null) {
+				accessLogTimer = new Timer("AccessLogMaintenance", true);
+			}
+			return accessLogTimer;
+		}
+		
 		public static void initializeSitemapTask(MetacatHandler handler) {
 			Boolean sitemap_enabled = false;
 
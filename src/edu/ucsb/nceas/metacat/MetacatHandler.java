@@ -89,6 +89,9 @@ import edu.ucsb.nceas.metacat.accesscontrol.AccessControlException;
 import edu.ucsb.nceas.metacat.accesscontrol.AccessControlForSingleFile;
 import edu.ucsb.nceas.utilities.access.AccessControlInterface;
 import edu.ucsb.nceas.metacat.accesscontrol.AccessControlList;
+import edu.ucsb.nceas.metacat.admin.AdminException;
+import edu.ucsb.nceas.metacat.admin.SolrAdmin;
+import edu.ucsb.nceas.metacat.admin.upgrade.MigrateDataToObjectStore;
 import edu.ucsb.nceas.metacat.cart.CartManager;
 import edu.ucsb.nceas.metacat.client.InsufficientKarmaException;
 import edu.ucsb.nceas.metacat.common.query.EnabledQueryEngines;
@@ -112,6 +115,10 @@ import edu.ucsb.nceas.metacat.shared.MetacatUtilException;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
 import edu.ucsb.nceas.metacat.spatial.SpatialHarvester;
 import edu.ucsb.nceas.metacat.spatial.SpatialQuery;
+import edu.ucsb.nceas.metacat.storage.DocumentStore;
+import edu.ucsb.nceas.metacat.storage.DocumentStoreMigration;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
+import edu.ucsb.nceas.metacat.storage.StoredFileInputStream;
 import edu.ucsb.nceas.metacat.util.AuthUtil;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
@@ -1066,7 +1073,8 @@ public class MetacatHandler {
                 filepath += "/";
             }
             String filename = filepath + docid;
-            inputStream = readFromFilesystem(filename);
+            // the document may be stored compressed
+            inputStream = DocumentStore.read(filename);
 		} else {
 		 // accomodate old clients that send docids without revision numbers
 	        docid = DocumentUtil.appendRev(docid);
@@ -1074,21 +1082,9 @@ public class MetacatHandler {
 		    // deal with data or metadata cases
 	        if (doc.getRootNodeID() == 0) {
 	            // this is a data file
-	            // get the path to the file to read
-	            try {
-	                String filepath = PropertyService.getProperty("application.datafilepath");
-	                // ensure it is a directory path
-	                if (!(filepath.endsWith("/"))) {
-	                    filepath += "/";
-	                }
-	                String filename = filepath + docid;
-	                inputStream = readFromFilesystem(filename);
-	            } catch (PropertyNotFoundException pnf) {
-	                logMetacat.debug("There was a problem finding the "
-	                        + "application.datafilepath property. The error "
-	                        + "message was: " + pnf.getMessage());
-	                throw pnf;
-	            } // end try()
+	            // get the file from the object store
+	            String filename = ObjectStore.getInstance().getFile(docid).getAbsolutePath();
+	            inputStream = readFromFilesystem(filename);
 	        } else {
 	            // this is an metadata document
 	            // Get the xml (will try disk then DB)
@@ -1113,7 +1109,8 @@ public class MetacatHandler {
      *
      * @param filename  The full path file name of the file to read
      * 
-     * @return fileInputStream  The file to read as a FileInputStream
+     * @return fileInputStream  The file to read as a FileInputStream. It knows its file, so the
+     * REST handlers can hand the file to the sendfile support of the container.
      */
     private static FileInputStream readFromFilesystem(String filename) 
       throws FileNotFoundException {
@@ -1123,7 +1120,7 @@ public class MetacatHandler {
         FileInputStream fileInputStream = null;
         
         try {
-          fileInputStream = new FileInputStream(filename);
+          fileInputStream = new StoredFileInputStream(new File(filename));
 
         } catch ( FileNotFoundException fnfe ) {
           logMetacat.debug("There was an error reading the file " +
@@ -1278,12 +1275,8 @@ public class MetacatHandler {
             }
             
             if (doc.getRootNodeID() == 0) {
-                // this is data file, so find the path on disk for the file
-                String filepath = PropertyService.getProperty("application.datafilepath");
-                if (!filepath.endsWith("/")) {
-                    filepath += "/";
-                }
-                String filename = filepath + docid;
+                // this is data file, so find the file in the object store
+                String filename = ObjectStore.getInstance().getFile(docid).getAbsolutePath();
                 FileInputStream fin = null;
                 fin = new FileInputStream(filename);
                 
@@ -1515,11 +1508,7 @@ public class MetacatHandler {
                 
                 if (doc.getRootNodeID() == 0) {
                     // this is data file; add file to zip
-                    String filepath = PropertyService.getProperty("application.datafilepath");
-                    if (!filepath.endsWith("/")) {
-                        filepath += "/";
-                    }
-                    String filename = filepath + docid;
+                    String filename = ObjectStore.getInstance().getFile(docid).getAbsolutePath();
                     FileInputStream fin = null;
                     fin = new FileInputStream(filename);
                     try {
@@ -1684,7 +1673,7 @@ public class MetacatHandler {
               }
           }
           
-          if(doctext == null){
+          if(doctext == null && objectFile == null){
               String msg = this.PROLOG +
                            this.ERROR +
                            "Document text not submitted." +
@@ -1698,10 +1687,15 @@ public class MetacatHandler {
               return msg;
           }
           
-          logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - " + 
-        		           "the xml document in metacat servlet (before parsing):\n" + 
-        		           doctext[0]);
-          StringReader xmlReader = new StringReader(doctext[0]);
+          if (doctext != null) {
+              logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - " + 
+            		           "the xml document in metacat servlet (before parsing):\n" + 
+            		           doctext[0]);
+          } else {
+              logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - " + 
+                               "the xml document will be parsed from the file " + objectFile);
+          }
+          Reader xmlReader = null;
           boolean validate = false;
           DocumentImplWrapper documentWrapper = null;
           String namespace = null;
@@ -1710,7 +1704,9 @@ public class MetacatHandler {
             // look inside XML Document for <!DOCTYPE ... PUBLIC/SYSTEM ...
             // >
             // in order to decide whether to use validation parser
+            xmlReader = openDocumentReader(doctext, objectFile);
             validate = needDTDValidation(xmlReader);
+            xmlReader.close();
             if (validate) {
                 // set a dtd base validation parser
                 logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - the xml object will be validate by a dtd");
@@ -1718,7 +1714,9 @@ public class MetacatHandler {
                 documentWrapper = new DocumentImplWrapper(rule, validate, writeAccessRules);
             } else {
                 XMLSchemaService.getInstance().doRefresh();
+                xmlReader = openDocumentReader(doctext, objectFile);
                 namespace = XMLSchemaService.findDocumentNamespace(xmlReader);
+                xmlReader.close();
                 if (namespace != null) {
                     logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - the xml object will be validated by a schema which has a target namespace: "+namespace);
                     schemaLocation = XMLSchemaService.getInstance().findNamespaceAndSchemaLocalLocation(formatId, namespace);
@@ -1729,7 +1727,7 @@ public class MetacatHandler {
                         String rule = DocumentImpl.EML200;
                         // using emlparser to check id validation
                         @SuppressWarnings("unused")
-                        EMLParser parser = new EMLParser(doctext[0]);
+                        EMLParser parser = doctext != null ? new EMLParser(doctext[0]) : new EMLParser(objectFile);
                         documentWrapper = new DocumentImplWrapper(rule, true, writeAccessRules);
                     } else if (
                     		namespace.compareTo(DocumentImpl.EML2_1_0NAMESPACE) == 0
@@ -1738,7 +1736,7 @@ public class MetacatHandler {
                         String rule = DocumentImpl.EML210;
                         // using emlparser to check id validation
                         @SuppressWarnings("unused")
-                        EMLParser parser = new EMLParser(doctext[0]);
+                        EMLParser parser = doctext != null ? new EMLParser(doctext[0]) : new EMLParser(objectFile);
                         documentWrapper = new DocumentImplWrapper(rule, true, writeAccessRules);
                     } else {
                         if(!XMLSchemaService.isNamespaceRegistered(namespace)) {
@@ -1749,8 +1747,9 @@ public class MetacatHandler {
                         documentWrapper = new DocumentImplWrapper(rule, true, writeAccessRules);
                     }
                 } else {
-                    xmlReader = new StringReader(doctext[0]);
+                    xmlReader = openDocumentReader(doctext, objectFile);
                     String noNamespaceSchemaLocationAttr = XMLSchemaService.findNoNamespaceSchemaLocationAttr(xmlReader);
+                    xmlReader.close();
                     if(noNamespaceSchemaLocationAttr != null) {
                         logMetacat.debug("MetacatHandler.handleInsertOrUpdateAction - the xml object will be validated by a schema which deoe NOT have a target namespace.");
                         schemaLocation = XMLSchemaService.getInstance().findNoNamespaceSchemaLocalLocation(formatId, noNamespaceSchemaLocationAttr);
@@ -1803,7 +1802,7 @@ public class MetacatHandler {
                   EventLog.getInstance().log(ipAddress, userAgent, user, "", action[0]);
               
               } else {*/
-              newdocid = documentWrapper.write(dbConn, doctext[0], pub, dtd,
+              newdocid = documentWrapper.write(dbConn, doctext != null ? doctext[0] : null, pub, dtd,
                           doAction, accNumber, user, groups, xmlBytes, schemaLocation, checksum, objectFile);
             
               EventLog.getInstance().log(ipAddress, userAgent, user, accNumber, action[0]);
@@ -1900,6 +1899,9 @@ public class MetacatHandler {
             		          "document to the database: " + 
             		          npe.getMessage());
               npe.printStackTrace();
+          } finally {
+              // a sniffer may have failed before its reader was closed
+              IOUtils.closeQuietly(xmlReader);
           }
         } catch (Exception e) {
             //response.setContentType("text/xml");
@@ -1944,7 +1946,7 @@ public class MetacatHandler {
      * Parse XML Document to look for <!DOCTYPE ... PUBLIC/SYSTEM ... > in
      * order to decide whether to use validation parser
      */
-    private static boolean needDTDValidation(StringReader xmlreader)
+    private static boolean needDTDValidation(Reader xmlreader)
     throws IOException {
         StringBuffer cbuff = new StringBuffer();
         java.util.Stack<String> st = new java.util.Stack<String>();
@@ -1985,9 +1987,6 @@ public class MetacatHandler {
             }
         }
         
-        // close the stream
-        xmlreader.reset();
-        
         // check the stack whether it contains the keywords:
         // "<!DOCTYPE", "PUBLIC" or "SYSTEM", and ">" in this order
         if (st.size() == 4) {
@@ -2003,6 +2002,18 @@ public class MetacatHandler {
         return validate;
     }
     
+    /*
+     * Open a new reader of the submitted document. It reads the text if it was submitted,
+     * otherwise the file, whose encoding is detected from its xml declaration.
+     */
+    private static Reader openDocumentReader(String[] doctext, File objectFile)
+    throws IOException {
+        if (doctext != null) {
+            return new StringReader(doctext[0]);
+        }
+        return new XmlStreamReader(objectFile);
+    }
+    
     // END OF INSERT/UPDATE SECTION
     
     /**
@@ -2499,6 +2510,17 @@ public class MetacatHandler {
                 }
             }
             
+            String[] summary = params.get("summary");
+            if (summary != null && summary.length > 0 && Boolean.parseBoolean(summary[0])) {
+                // the daily usage statistics from the rollups
+                response.setContentType("text/xml");
+                out = response.getWriter();
+                out.println(EventLog.getInstance().getUsageReport(ipAddress, principal, docid, 
+                        event != null && event.length > 0 ? event[0] : null, startDate, endDate));
+                out.close();
+                return;
+            }
+            
             String report = 
             	EventLog.getInstance().getReport(
             		ipAddress, 
@@ -2789,6 +2811,26 @@ public class MetacatHandler {
                 out.close();
                 return;
             }
+            
+            // the blue-green reindex builds a shadow core in the metacat-index web application and swaps it with the live one
+            String[] shadow = params.get("shadow");
+            if (shadow != null && shadow.length > 0 && shadow[0] != null) {
+                String shadowAction = null;
+                if (shadow[0].equalsIgnoreCase("start") || shadow[0].equalsIgnoreCase("true")) {
+                    shadowAction = "start";
+                } else if (shadow[0].equalsIgnoreCase("cancel")) {
+                    shadowAction = "cancel";
+                }
+                try {
+                    results.append(SolrAdmin.getInstance().requestShadowReindex(shadowAction));
+                } catch (AdminException e) {
+                    logMetacat.error("MetacatHandler.handleReindexAllAction - " + e.getMessage());
+                    results.append("<error>");
+                    results.append(e.getMessage());
+                    results.append("</error>");
+                }
+                return;
+            }
           
            // Process all of the documents
            logMetacat.info("queueing doc index for all documents");
@@ -2836,6 +2878,159 @@ public class MetacatHandler {
     }
     
     
+    /**
+     * Compress the existing metadata documents on disk in the background, or decompress them
+     * if the decompress parameter is true. The cancel parameter stops the running migration
+     * and the status parameter reports its progress.
+     * 
+     * @param params
+     *            the parameters from the web request
+     * @param request
+     *            the http request object for getting request details
+     * @param response
+     *            the http response object for writing output
+     * @param username
+     *            the username of the authenticated user
+     */
+    protected void handleCompressDocumentsAction(Hashtable<String, String[]> params,
+            HttpServletRequest request, HttpServletResponse response,
+            String username, String[] groups) {
+        PrintWriter out = null;
+        StringBuffer results = new StringBuffer();
+        try {
+            response.setContentType("text/xml");
+            out = response.getWriter();
+            
+            // Check that the user is authenticated as an administrator account
+            if (!AuthUtil.isAdministrator(username, groups)) {
+                results.append("<error>");
+                results.append("The user \"" + username + "\" is not authorized for this action.");
+                results.append("</error>");
+                return;
+            }
+            
+            DocumentStoreMigration migration = DocumentStoreMigration.getRunning();
+            if (params.containsKey("status") || params.containsKey("cancel")) {
+                if (migration == null) {
+                    results.append("<success>No migration of the documents is running.</success>");
+                } else {
+                    if (params.containsKey("cancel")) {
+                        migration.cancel();
+                    }
+                    results.append("<success>");
+                    results.append(migration.getStatus());
+                    results.append("</success>");
+                }
+                return;
+            }
+            
+            boolean compress = true;
+            String[] decompress = params.get("decompress");
+            if (decompress != null && decompress.length > 0 && Boolean.parseBoolean(decompress[0])) {
+                compress = false;
+            }
+            try {
+                DocumentStoreMigration.start(compress);
+                results.append("<success>");
+                results.append("The compressdocuments action was accepted by the Metacat and it is working on the background right now. You may monitor the process with the status parameter or through the Metacat log file.");
+                results.append("</success>");
+            } catch (Exception e) {
+                logMetacat.error("MetacatHandler.handleCompressDocumentsAction - " + e.getMessage());
+                results.append("<error>");
+                results.append(e.getMessage());
+                results.append("</error>");
+            }
+        } catch (IOException e) {
+            logMetacat.error("MetacatHandler.handleCompressDocumentsAction - " +
+                             "Could not open http response for writing: " + 
+                             e.getMessage());
+        } catch (MetacatUtilException ue) {
+            logMetacat.error("MetacatHandler.handleCompressDocumentsAction - " +
+                             "Could not determine if user is administrator: " + 
+                             ue.getMessage());
+        } finally {
+            if(out != null) {
+                out.print(results.toString());
+                out.close();
+            }
+        }
+    }
+    
+    
+    /**
+     * Move the data files in application.datafilepath into the content-addressed object
+     * store in the background. The cancel parameter stops the running migration and the
+     * status parameter reports its progress.
+     * 
+     * @param params
+     *            the parameters from the web request
+     * @param request
+     *            the http request object for getting request details
+     * @param response
+     *            the http response object for writing output
+     * @param username
+     *            the username of the authenticated user
+     */
+    protected void handleMigrateDataAction(Hashtable<String, String[]> params,
+            HttpServletRequest request, HttpServletResponse response,
+            String username, String[] groups) {
+        PrintWriter out = null;
+        StringBuffer results = new StringBuffer();
+        try {
+            response.setContentType("text/xml");
+            out = response.getWriter();
+            
+            // Check that the user is authenticated as an administrator account
+            if (!AuthUtil.isAdministrator(username, groups)) {
+                results.append("<error>");
+                results.append("The user \"" + username + "\" is not authorized for this action.");
+                results.append("</error>");
+                return;
+            }
+            
+            MigrateDataToObjectStore migration = MigrateDataToObjectStore.getRunning();
+            if (params.containsKey("status") || params.containsKey("cancel")) {
+                if (migration == null) {
+                    results.append("<success>No migration of the data files is running.</success>");
+                } else {
+                    if (params.containsKey("cancel")) {
+                        migration.cancel();
+                    }
+                    results.append("<success>");
+                    results.append(migration.getStatus());
+                    results.append("</success>");
+                }
+                return;
+            }
+            
+            try {
+                MigrateDataToObjectStore.start();
+                results.append("<success>");
+                results.append("The migratedata action was accepted by the Metacat and it is working on the background right now. You may monitor the process with the status parameter or through the Metacat log file.");
+                results.append("</success>");
+            } catch (Exception e) {
+                logMetacat.error("MetacatHandler.handleMigrateDataAction - " + e.getMessage());
+                results.append("<error>");
+                results.append(e.getMessage());
+                results.append("</error>");
+            }
+        } catch (IOException e) {
+            logMetacat.error("MetacatHandler.handleMigrateDataAction - " +
+                             "Could not open http response for writing: " + 
+                             e.getMessage());
+        } catch (MetacatUtilException ue) {
+            logMetacat.error("MetacatHandler.handleMigrateDataAction - " +
+                             "Could not determine if user is administrator: " + 
+                             ue.getMessage());
+        } finally {
+            if(out != null) {
+                out.print(results.toString());
+                out.close();
+            }
+        }
+    }
+    
+    
     /*
      * Index all non-resourcemap objects first. We don't put the list of pids in a vector anymore.
      */
@@ -3396,6 +3591,7 @@ public class MetacatHandler {
                             String newFileName = dataDirectory + File.separator + docid;
                             long size = 0;
                             boolean fileExists = false;
+                            boolean stored = false;
 
                             try {
                                 newFile = new File(newFileName);
@@ -3415,6 +3611,9 @@ public class MetacatHandler {
                                     if (size == 0) {
                                         throw new IOException("Uploaded file is 0 bytes!");
                                     }
+                                    // hand the data file over to the object store
+                                    newFile = ObjectStore.getInstance().put(docid, null, newFile, null);
+                                    stored = true;
                                 } // Latent bug here if the file already exists, then the
                                   // conditional fails but the document is still registered.
                                   // maybe this never happens because we already requested a lock?
@@ -3447,7 +3646,9 @@ public class MetacatHandler {
                                 // method was called, then the exception probably
                                 // occurs when registering the document, and so we
                                 // want to leave the old file in place.
-                                if ( fileExists == false ) {
+                                if (stored) {
+                                    ObjectStore.getInstance().delete(docid);
+                                } else if ( fileExists == false ) {
                                     newFile.delete();
                                 }
                                 
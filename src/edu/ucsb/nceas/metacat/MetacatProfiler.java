@@ -33,7 +33,10 @@ import java.util.Vector;
 /**
  * @author berkley
  *  Singleton to track metacat profile stats and print them to a CSV file
+ * @deprecated use the timers of edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics, which are
+ *  thread safe and published over JMX and the /metrics servlet
  */
+@Deprecated
 public class MetacatProfiler
 {
     private static MetacatProfiler profiler = null;
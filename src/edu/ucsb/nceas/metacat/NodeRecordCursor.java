@@ -0,0 +1,246 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.MetacatUtil;
+
+/**
+ * A forward-only cursor over the node records of a document, ordered by nodeid
+ * (the same depth-first order the NodeComparator gives a TreeSet). The rows are
+ * read in pages of database.nodeFetchSize records, each page starting after the 
+ * last nodeid of the previous one, so the caller only holds one page in memory 
+ * instead of the whole node tree.
+ *
+ * No connection is kept between the pages: each page is read on a connection 
+ * which is checked out of the pool and returned right away, so a slow reader 
+ * doesn't hold a pooled connection or an open transaction. A caller which already
+ * has a connection (e.g. the transaction of buildIndex) can pass it instead.
+ * 
+ * Since the pages don't share a snapshot, the nodes may move to the revision 
+ * table (or be deleted) between two pages when the document is updated. So when
+ * a later page comes back short, the cursor checks that the first node of the 
+ * tree is still there, and fails instead of ending a truncated document.
+ */
+public class NodeRecordCursor implements Iterator<NodeRecord> {
+
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static Log logMetacat = LogFactory.getLog(NodeRecordCursor.class);
+
+    private long rootnodeid = -1;
+    private String table = null;
+    private DBConnection callerConn = null;
+    private int pageSize = DEFAULT_FETCH_SIZE;
+    private long lastNodeId = Long.MIN_VALUE;
+    private long firstNodeId = Long.MIN_VALUE;
+    private boolean lastPage = false;
+    private ArrayDeque<NodeRecord> page = new ArrayDeque<NodeRecord>();
+    private boolean closed = false;
+
+    /**
+     * Open a cursor over the nodes of the tree rooted at the given node id. The
+     * pages are read on pooled connections.
+     * @param rootnodeid  the id of the root node of the node tree to read
+     * @param table  the node table to read from - xml_nodes or xml_nodes_revisions
+     * @throws McdbException
+     */
+    public NodeRecordCursor(long rootnodeid, String table) throws McdbException {
+        this(rootnodeid, table, null);
+    }
+
+    /**
+     * Open a cursor over the nodes of the tree rooted at the given node id
+     * @param rootnodeid  the id of the root node of the node tree to read
+     * @param table  the node table to read from - xml_nodes or xml_nodes_revisions
+     * @param dbconn  the connection to read the pages on. It stays with the caller.
+     *                If it is null, each page is read on a pooled connection.
+     * @throws McdbException
+     */
+    public NodeRecordCursor(long rootnodeid, String table, DBConnection dbconn) throws McdbException {
+        this.rootnodeid = rootnodeid;
+        this.table = table;
+        this.callerConn = dbconn;
+        this.pageSize = getFetchSize();
+        try {
+            readPage();
+        } catch (SQLException e) {
+            close();
+            throw new McdbException("Error in NodeRecordCursor.NodeRecordCursor " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the page size for the node query from the properties
+     * @return the page size. The default value is 1000.
+     */
+    private static int getFetchSize() {
+        int fetchSize = DEFAULT_FETCH_SIZE;
+        try {
+            fetchSize = Integer.parseInt(PropertyService.getProperty("database.nodeFetchSize"));
+        } catch (Exception e) {
+            logMetacat.debug("NodeRecordCursor.getFetchSize - couldn't get the property database.nodeFetchSize, so use the default value "
+                              + DEFAULT_FETCH_SIZE + " : " + e.getMessage());
+        }
+        if (fetchSize <= 0) {
+            fetchSize = DEFAULT_FETCH_SIZE;
+        }
+        return fetchSize;
+    }
+
+    /*
+     * Read the next page of records after the last node id
+     */
+    private void readPage() throws SQLException {
+        DBConnection dbconn = callerConn;
+        int serialNumber = -1;
+        PreparedStatement pstmt = null;
+        try {
+            if (dbconn == null) {
+                dbconn = DBConnectionPool.getDBConnection("NodeRecordCursor.readPage");
+                serialNumber = dbconn.getCheckOutSerialNumber();
+            }
+            pstmt = dbconn.prepareStatement("SELECT nodeid,parentnodeid,nodeindex, "
+                    + "nodetype,nodename,nodeprefix,nodedata, nodedatanumerical, nodedatadate "
+                    + "FROM " + table + " WHERE rootnodeid = ? AND nodeid > ? ORDER BY nodeid LIMIT ?");
+            pstmt.setLong(1, rootnodeid);
+            pstmt.setLong(2, lastNodeId);
+            pstmt.setInt(3, pageSize);
+            logMetacat.debug("NodeRecordCursor.readPage - executing SQL: " + pstmt.toString());
+            ResultSet rs = pstmt.executeQuery();
+            int count = 0;
+            while (rs.next()) {
+                page.add(toRecord(rs));
+                count++;
+            }
+            rs.close();
+            lastPage = count < pageSize;
+            if (lastPage && firstNodeId != Long.MIN_VALUE && !exists(dbconn, firstNodeId)) {
+                page.clear();
+                throw new SQLException("NodeRecordCursor.readPage - the nodes of the root node " + rootnodeid 
+                                        + " were removed from " + table + " while they were read");
+            }
+            if (!page.isEmpty()) {
+                if (firstNodeId == Long.MIN_VALUE) {
+                    firstNodeId = page.peekFirst().getNodeId();
+                }
+                lastNodeId = page.peekLast().getNodeId();
+            }
+        } finally {
+            if (pstmt != null) {
+                pstmt.close();
+            }
+            if (callerConn == null) {
+                DBConnectionPool.returnDBConnection(dbconn, serialNumber);
+            }
+        }
+    }
+
+    /*
+     * Check if a node of the tree is still in the table
+     */
+    private boolean exists(DBConnection dbconn, long nodeid) throws SQLException {
+        PreparedStatement pstmt = dbconn.prepareStatement("SELECT 1 FROM " + table + " WHERE rootnodeid = ? AND nodeid = ?");
+        try {
+            pstmt.setLong(1, rootnodeid);
+            pstmt.setLong(2, nodeid);
+            ResultSet rs = pstmt.executeQuery();
+            boolean found = rs.next();
+            rs.close();
+            return found;
+        } finally {
+            pstmt.close();
+        }
+    }
+
+    /*
+     * Build a record from the current row
+     */
+    private static NodeRecord toRecord(ResultSet rs) throws SQLException {
+        long nodeid = rs.getLong(1);
+        long parentnodeid = rs.getLong(2);
+        long nodeindex = rs.getLong(3);
+        String nodetype = rs.getString(4);
+        String nodename = rs.getString(5);
+        String nodeprefix = rs.getString(6);
+        String nodedata = rs.getString(7);
+        try {
+            nodedata = MetacatUtil.normalize(nodedata);
+        } catch (java.lang.StringIndexOutOfBoundsException SIO) {
+            logMetacat.warn("NodeRecordCursor.toRecord - StringIndexOutOfBoundsException in normalize() while reading the document");
+        }
+        float nodedatanumerical = rs.getFloat(8);
+        Timestamp nodedatadate = rs.getTimestamp(9);
+        return new NodeRecord(nodeid, parentnodeid, nodeindex, nodetype, nodename,
+                              nodeprefix, nodedata, nodedatanumerical, nodedatadate);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (page.isEmpty() && !lastPage && !closed) {
+            try {
+                readPage();
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("NodeRecordCursor.hasNext - couldn't read the next node records: "
+                                                 + e.getMessage(), e);
+            }
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public NodeRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("NodeRecordCursor.next - there are no more node records");
+        }
+        return page.poll();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("NodeRecordCursor.remove - the cursor is read only");
+    }
+
+    /**
+     * Drop the records which haven't been read yet. No connection is held between
+     * the pages, so this only stops the cursor. It is safe to call this method more 
+     * than once.
+     */
+    public void close() {
+        closed = true;
+        page.clear();
+    }
+}
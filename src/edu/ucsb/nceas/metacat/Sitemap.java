@@ -26,34 +26,37 @@ package edu.ucsb.nceas.metacat;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.ParseException;
+import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimerTask;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import java.net.URLEncoder;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-
-import org.apache.commons.lang.StringEscapeUtils;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
 import org.dataone.client.v2.formats.ObjectFormatCache;
 import org.dataone.service.types.v2.ObjectFormatList;
 import org.dataone.service.types.v2.ObjectFormat;
@@ -71,6 +74,22 @@ import org.dataone.service.types.v2.ObjectFormat;
  * - Only documents with object_formats in the xml_catalog table are included
  * - All non-obsoleted metadata objects are included in the sitemap(s)
  * 
+ * How are the sitemaps generated?
+ * 
+ * - The URLs are spread over gzip-compressed sitemap files (shards) by a hash
+ *   of the identifier, so an object always lands in the same shard as long
+ *   as the number of shards stays the same
+ * - Each run only regenerates the shards holding an object whose system
+ *   metadata was modified since the previous run. The number of shards and
+ *   the time of the previous run are kept in the sitemap_state.properties
+ *   file in the sitemap directory
+ * - All of the shards are regenerated, and re-sized if needed, on the first
+ *   run, when a shard would get too big, and every 'sitemap.rebuild.interval'
+ *   milliseconds, which also drops the entries of deleted objects
+ * - The entries are streamed from the database to the files, and every file
+ *   is written to a temporary file first and then renamed, so crawlers never
+ *   see a partial file
+ * 
  * Other notes:
  * 
  * - The sitemaps this class generates are intended to be served another
@@ -91,11 +110,8 @@ import org.dataone.service.types.v2.ObjectFormat;
 public class Sitemap extends TimerTask {
     private static Log logMetacat = LogFactory.getLog(Sitemap.class);
 
-    /** Create just a single document builder factory and builder to be
-     * re-used through this class.
-     */
-    DocumentBuilderFactory documentBuilderFactory;
-    DocumentBuilder documentBuilder;
+    /** Create just a single output factory to be re-used through this class. */
+    private static XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
 
     /** The directory in which sitemaps are written. */
     private File directory;
@@ -112,18 +128,40 @@ public class Sitemap extends TimerTask {
     /** Set of format IDs to determine whether a record is a portal or not. */
     private List<String> portalFormats;
 
+    /** Milliseconds between the runs which regenerate all of the shards */
+    private long rebuildInterval = DEFAULT_REBUILD_INTERVAL;
+
     /** Maximum number of URLs to write to a single sitemap file */
     static final int MAX_URLS_IN_FILE = 50000; // 50,000 according to Google
 
+    /** Average number of URLs in a sitemap file when the shards are sized,
+     * leaving room for the shards to grow between the full rebuilds */
+    static final int TARGET_URLS_IN_FILE = MAX_URLS_IN_FILE / 2;
+
+    /** The default interval between the full rebuilds (one week) */
+    static final long DEFAULT_REBUILD_INTERVAL = 7L * 24 * 60 * 60 * 1000;
+
+    /** Objects modified this many milliseconds before the previous run are
+     * checked again, covering the clock difference of Metacat and the database */
+    static final long CLOCK_MARGIN = 60000;
+
     /** The root name to be used in naming sitemap files. */
     static final String fileRoot = "sitemap";
 
+    /** The extension of the sitemap files */
+    static final String fileSuffix = ".xml.gz";
+
     /** The name to give to the sitemap index file */
     static final String indexFilename = "sitemap_index.xml";
 
-    /** lastmod (SystemMetadata.date_modified) format strings to try */
-    static final String lastModFormatFull = "yyyy-MM-dd H:mm:ss.S";
-    static final String lastModFormatShort = "yyyy-MM-dd H:mm:ss";
+    /** The name of the file keeping the state of the previous run */
+    static final String stateFilename = "sitemap_state.properties";
+
+    /** The namespace of the sitemap documents */
+    static final String SITEMAP_NAMESPACE = "http://www.sitemaps.org/schemas/sitemap/0.9";
+
+    /** Matches the sitemap files, including the uncompressed ones of older versions */
+    private static final Pattern SITEMAP_FILE = Pattern.compile(fileRoot + "(\\d+)\\.xml(\\.gz)?");
 
     /**
      * Construct a new instance of the Sitemap class.
@@ -143,12 +181,11 @@ public class Sitemap extends TimerTask {
         this.portalBase = portalBase;
         this.portalFormats = portalFormats;
 
-        this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
         try {
-            this.documentBuilder =
-                    this.documentBuilderFactory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            logMetacat.error(e.getMessage());
+            this.rebuildInterval = Long.parseLong(PropertyService.getProperty("sitemap.rebuild.interval"));
+        } catch (Exception e) {
+            logMetacat.debug("Sitemap.Sitemap - use the default rebuild interval " +
+                    DEFAULT_REBUILD_INTERVAL + " since " + e.getMessage());
         }
     }
 
@@ -161,13 +198,14 @@ public class Sitemap extends TimerTask {
     }
 
     /**
-     * Generate all of the sitemap files needed to list the URLs from this
+     * Generate the sitemap files needed to list the URLs from this
      * instance of Metacat, using the open sitemap format described here:
      * http://www.sitemaps.org/protocol.html
-     * URLs are written to a one or more files and a sitemap index file is
-     * always written. The number of sitemap files is determined by
-     * MAX_URLS_IN_FILE and how many metadata documents you have registered
-     * in Metacat.
+     * URLs are written to one or more gzip-compressed files and a sitemap
+     * index file is always written. The number of sitemap files is determined
+     * by TARGET_URLS_IN_FILE and how many metadata documents you have
+     * registered in Metacat. Only the files holding objects modified since
+     * the previous run are regenerated, except for the full rebuilds.
      * <p>
      * The sitemap index can be registered with search index providers such as
      * Google, but beware that it needs to be accessible in a location above the
@@ -192,47 +230,11 @@ public class Sitemap extends TimerTask {
             return;
         }
 
-        // Stop if we don't have a document builder
-        if (documentBuilder == null) {
-            logMetacat.error("Couldn't generate sitemaps because we didn't " +
-                    "have a document builder instance.");
-
-            return;
-        }
-
-        /**
-         * Query the database for documents that are considered to be metadata
-         * and iterate through them, generating sitemap index and sitemap files
-         * as we go.
-         *
-         * Depends on ObjectFormatCache fetching a list of available format IDs.
-         *
-         * We query for documents that are:
-         *
-         * - Metadata (their object_format is in the xml_catalog)
-         * - Latest/head versions (their obsoleted_by field is NULL)
-         * - Publicly readable (their access policy has a public + read perm)
-         */
-
-        String query =
-            "SELECT " +
-                "identifier.guid as pid, " +
-                "systemmetadata.series_id as sid, " +
-                "systemmetadata.date_modified as lastmod, " +
-                "systemmetadata.object_format as format " +
-            "FROM identifier " +
-            "LEFT JOIN systemmetadata on " +
-                    "identifier.guid = systemmetadata.guid " +
-            "LEFT JOIN xml_access on identifier.guid = xml_access.guid " +
-            "WHERE " +
-            "systemmetadata.object_format in (" +
-                getMetadataFormatsQueryString() +
-            ") AND " +
-            "systemmetadata.obsoleted_by is NULL AND " +
-            "systemmetadata.archived = FALSE AND " +
-            "xml_access.principal_name = 'public' AND " +
-            "xml_access.perm_type = 'allow' " +
-            "ORDER BY systemmetadata.date_uploaded ASC;";
+        Properties state = loadState();
+        int shardCount = Integer.parseInt(state.getProperty("shards", "0"));
+        long lastRun = Long.parseLong(state.getProperty("lastRun", "0"));
+        long lastRebuild = Long.parseLong(state.getProperty("lastRebuild", "0"));
+        String formats = getMetadataFormatsQueryString();
 
         DBConnection dbConn = null;
         int serialNumber = -1;
@@ -243,93 +245,56 @@ public class Sitemap extends TimerTask {
                     .getDBConnection("Sitemap.generateSitemap()");
             serialNumber = dbConn.getCheckOutSerialNumber();
 
-            // Execute the query statement
-            PreparedStatement stmt = dbConn.prepareStatement(query);
-            stmt.execute();
-            ResultSet rs = stmt.getResultSet();
-
-            // Set up the first file
-            File sitemapFile = null;
-            OutputStreamWriter sitemapWriter = null;
-            Document document = null;
-            Element rootNode = null;
-
-            int counter = 0;
-            int fileNumber = 0;
+            boolean rebuild = shardCount <= 0 || lastRun <= 0 ||
+                    start.getTime() - lastRebuild >= rebuildInterval ||
+                    !new File(directory, indexFilename).exists();
 
-            while (rs.next()) {
-                // Write out the current sitemap file and set up a new one if
-                // we need to
-                if (counter % MAX_URLS_IN_FILE == 0) {
-                    // Only write out the sitemap file if one's already open
-                    // This basically prevents writing before we even begin
-                    if (sitemapFile != null && sitemapFile.canWrite()) {
-                        Transformer tr = TransformerFactory.newInstance()
-                                .newTransformer();
-                        tr.setOutputProperty(OutputKeys.INDENT, "yes");
-                        tr.setOutputProperty(OutputKeys.METHOD, "xml");
-                        tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-                        tr.transform(new DOMSource(document),
-                                new StreamResult(sitemapWriter));
+            if (!rebuild) {
+                Set<Integer> changed = findChangedShards(dbConn, formats, shardCount,
+                        new Timestamp(lastRun - CLOCK_MARGIN));
+                if (changed.isEmpty()) {
+                    logMetacat.info("Sitemap.generateSitemaps - no sitemap file " +
+                            "has changed since the previous run.");
+                } else {
+                    Map<Integer, Integer> counts = countEntries(dbConn, formats, shardCount, changed);
+                    if (getLargest(counts) > MAX_URLS_IN_FILE) {
+                        logMetacat.info("Sitemap.generateSitemaps - a sitemap file " +
+                                "would be too big, so all of them will be re-sized.");
+                        rebuild = true;
+                    } else {
+                        logMetacat.info("Sitemap.generateSitemaps - regenerating " +
+                                changed.size() + " of " + shardCount + " sitemap files.");
+                        writeShards(dbConn, formats, shardCount, changed);
                     }
-
-                    // Open a new sitemap file for writing
-                    fileNumber++;
-                    sitemapFile = new File(directory, fileRoot +
-                            fileNumber + ".xml");
-                    sitemapWriter = new OutputStreamWriter(
-                            new FileOutputStream(sitemapFile),
-                            Charset.forName("UTF-8"));
-                    document = this.documentBuilder.newDocument();
-                    rootNode = document.createElement("urlset");
-                    rootNode.setAttribute("xmlns",
-                            "http://www.sitemaps.org/schemas/sitemap/0.9");
-                    document.appendChild(rootNode);
                 }
-
-                Element urlElement = createSitemapEntry(document, rs.getString(1), rs.getString(2), rs.getString(3),
-                        rs.getString(4));
-                rootNode.appendChild(urlElement);
-                counter++;
             }
 
-            stmt.close();
-
-            // Write out the last sitemap file and the index file so long as we
-            // had at least one URL
-            if (counter > 0) {
-                if (sitemapFile != null && sitemapFile.canWrite()) {
-
-                    Transformer tr = TransformerFactory.newInstance()
-                            .newTransformer();
-                    tr.setOutputProperty(OutputKeys.INDENT, "yes");
-                    tr.setOutputProperty(OutputKeys.METHOD, "xml");
-                    tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            if (rebuild) {
+                shardCount = sizeShards(dbConn, formats);
+                logMetacat.info("Sitemap.generateSitemaps - regenerating all " +
+                        shardCount + " sitemap files.");
+                writeShards(dbConn, formats, shardCount, null);
+                lastRebuild = start.getTime();
+            }
 
-                    tr.transform(new DOMSource(document),
-                            new StreamResult(sitemapWriter));
-                }
+            writeSitemapIndex(shardCount);
 
-                // Write out the sitemap index file
-                writeSitemapIndex(fileNumber);
+            if (rebuild) {
+                removeStaleFiles(shardCount);
             }
 
-            // Onlhy close the sitemapWriter if one's still instantiated
-            // which will happen when we have zero documents
-            if (sitemapWriter != null) {
-                sitemapWriter.close();
-            }
+            state.setProperty("shards", Integer.toString(shardCount));
+            state.setProperty("lastRun", Long.toString(start.getTime()));
+            state.setProperty("lastRebuild", Long.toString(lastRebuild));
+            saveState(state);
         } catch (SQLException e) {
             logMetacat.warn("Error while writing to the sitemap file: "
                     + e.getMessage());
         } catch (IOException ioe) {
             logMetacat.warn("Could not open or write to the sitemap file: "
                     + ioe.getMessage());
-        } catch (TransformerConfigurationException e) {
-            logMetacat.warn("Could not transform (serialize) the sitemap file: "
-                    + e.getMessage());
-        } catch (TransformerException e) {
-            logMetacat.warn("Could not transform (serialize) the sitemap file: "
+        } catch (XMLStreamException e) {
+            logMetacat.warn("Could not serialize the sitemap file: "
                     + e.getMessage());
         } finally {
             // Return database connection to the pool
@@ -341,35 +306,265 @@ public class Sitemap extends TimerTask {
     }
 
     /**
-     * Create and return a `url` element for a single PID.
+     * Get the SQL expression assigning an identifier to a shard. It uses the
+     * first 28 bits of the md5 digest of the identifier, so the assignment is
+     * stable between runs and Postgres versions.
+     *
+     * @param column      The column holding the identifier
+     * @param shardCount  The number of shards
+     * @return The SQL expression
+     */
+    static String getShardExpression(String column, int shardCount) {
+        return "mod(('x' || substr(md5(" + column + "), 1, 7))::bit(28)::int, " +
+                shardCount + ")";
+    }
+
+    /**
+     * Get the FROM and WHERE clauses selecting the documents which belong in
+     * the sitemaps. These are documents that are:
+     *
+     * - Metadata (their object_format is in the xml_catalog)
+     * - Latest/head versions (their obsoleted_by field is NULL)
+     * - Publicly readable (their access policy has a public + read perm)
+     *
+     * @param formats  The metadata formats, see getMetadataFormatsQueryString
+     * @return The clauses
+     */
+    private String getEntryClauses(String formats) {
+        return
+            "FROM identifier " +
+            "LEFT JOIN systemmetadata on " +
+                    "identifier.guid = systemmetadata.guid " +
+            "LEFT JOIN xml_access on identifier.guid = xml_access.guid " +
+            "WHERE " +
+            "systemmetadata.object_format in (" + formats + ") AND " +
+            "systemmetadata.obsoleted_by is NULL AND " +
+            "systemmetadata.archived = FALSE AND " +
+            "xml_access.principal_name = 'public' AND " +
+            "xml_access.perm_type = 'allow' ";
+    }
+
+    /**
+     * Get an SQL condition restricting the shard expression to the given shards
+     *
+     * @param shardExpression  The shard expression
+     * @param shards           The shards, or null for all of them
+     * @return The condition, starting with AND, or an empty string
+     */
+    private String getShardCondition(String shardExpression, Set<Integer> shards) {
+        if (shards == null) {
+            return "";
+        }
+        StringBuilder condition = new StringBuilder("AND " + shardExpression + " in (");
+        for (Integer shard : shards) {
+            condition.append(shard).append(",");
+        }
+        condition.setCharAt(condition.length() - 1, ')');
+        return condition.append(" ").toString();
+    }
+
+    /**
+     * Find the shards holding a metadata object whose system metadata was
+     * modified since the given time. This includes objects which left the
+     * sitemaps, e.g. because they were obsoleted, archived or are no longer
+     * public.
+     *
+     * @param dbConn      The database connection
+     * @param formats     The metadata formats
+     * @param shardCount  The number of shards
+     * @param since       The time of the previous run
+     * @return The changed shards
+     * @throws SQLException
+     */
+    private Set<Integer> findChangedShards(DBConnection dbConn, String formats, int shardCount,
+                                           Timestamp since) throws SQLException {
+        Set<Integer> shards = new TreeSet<Integer>();
+        String query = "SELECT DISTINCT " + getShardExpression("guid", shardCount) +
+                " FROM systemmetadata WHERE date_modified > ? AND object_format in (" +
+                formats + ")";
+        PreparedStatement stmt = dbConn.prepareStatement(query);
+        try {
+            stmt.setTimestamp(1, since);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                shards.add(rs.getInt(1));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return shards;
+    }
+
+    /**
+     * Count the sitemap entries of each shard
+     *
+     * @param dbConn      The database connection
+     * @param formats     The metadata formats
+     * @param shardCount  The number of shards
+     * @param shards      The shards to count, or null for all of them
+     * @return The number of the entries keyed by the shard. Empty shards are missing.
+     * @throws SQLException
+     */
+    private Map<Integer, Integer> countEntries(DBConnection dbConn, String formats, int shardCount,
+                                               Set<Integer> shards) throws SQLException {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        String shardExpression = getShardExpression("identifier.guid", shardCount);
+        String query = "SELECT " + shardExpression + " as shard, count(*) " +
+                getEntryClauses(formats) + getShardCondition(shardExpression, shards) +
+                "GROUP BY shard";
+        PreparedStatement stmt = dbConn.prepareStatement(query);
+        try {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                counts.put(rs.getInt(1), rs.getInt(2));
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return counts;
+    }
+
+    /*
+     * Get the largest of the counts
+     */
+    private int getLargest(Map<Integer, Integer> counts) {
+        int largest = 0;
+        for (Integer count : counts.values()) {
+            largest = Math.max(largest, count);
+        }
+        return largest;
+    }
+
+    /**
+     * Determine the number of shards for all of the sitemap entries, so that
+     * they hold TARGET_URLS_IN_FILE entries on average and none of them holds
+     * more than MAX_URLS_IN_FILE.
+     *
+     * @param dbConn   The database connection
+     * @param formats  The metadata formats
+     * @return The number of shards
+     * @throws SQLException
+     */
+    private int sizeShards(DBConnection dbConn, String formats) throws SQLException {
+        Integer total = countEntries(dbConn, formats, 1, null).get(0);
+        int shardCount = total == null ? 1 : Math.max(1, (total + TARGET_URLS_IN_FILE - 1) / TARGET_URLS_IN_FILE);
+        while (shardCount > 1 && getLargest(countEntries(dbConn, formats, shardCount, null)) > MAX_URLS_IN_FILE) {
+            shardCount *= 2;
+        }
+        return shardCount;
+    }
+
+    /**
+     * Regenerate the given shards, streaming their entries from the database.
+     * The files of the shards without any entries are removed.
+     *
+     * @param dbConn      The database connection
+     * @param formats     The metadata formats
+     * @param shardCount  The number of shards
+     * @param shards      The shards to regenerate, or null for all of them
+     * @throws SQLException
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private void writeShards(DBConnection dbConn, String formats, int shardCount, Set<Integer> shards)
+            throws SQLException, IOException, XMLStreamException {
+        String shardExpression = getShardExpression("identifier.guid", shardCount);
+        String query =
+            "SELECT " +
+                "identifier.guid as pid, " +
+                "systemmetadata.series_id as sid, " +
+                "systemmetadata.date_modified as lastmod, " +
+                "systemmetadata.object_format as format, " +
+                shardExpression + " as shard " +
+            getEntryClauses(formats) + getShardCondition(shardExpression, shards) +
+            "ORDER BY shard, systemmetadata.date_uploaded ASC";
+        Set<Integer> written = new TreeSet<Integer>();
+        ShardWriter writer = null;
+
+        // Stream the rows instead of reading them all into memory, which
+        // needs a cursor and so a transaction
+        dbConn.setAutoCommit(false);
+        PreparedStatement stmt = dbConn.prepareStatement(query);
+        try {
+            stmt.setFetchSize(1000);
+            ResultSet rs = stmt.executeQuery();
+            int currentShard = -1;
+
+            while (rs.next()) {
+                int shard = rs.getInt(5);
+                // Finish the current sitemap file and set up a new one if
+                // this row belongs to the next shard
+                if (shard != currentShard) {
+                    if (writer != null) {
+                        writer.commit();
+                    }
+                    currentShard = shard;
+                    written.add(shard);
+                    writer = new ShardWriter(getShardFile(shard));
+                }
+
+                String url = createSitemapUrl(rs.getString(1), rs.getString(2), rs.getString(4));
+                if (url != null) {
+                    writer.addEntry(url, rs.getTimestamp(3));
+                }
+            }
+
+            if (writer != null) {
+                writer.commit();
+                writer = null;
+            }
+            rs.close();
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+            stmt.close();
+            dbConn.commit();
+            dbConn.setAutoCommit(true);
+        }
+
+        // Remove the files of the shards which became empty
+        if (shards != null) {
+            for (Integer shard : shards) {
+                if (!written.contains(shard)) {
+                    getShardFile(shard).delete();
+                }
+            }
+        }
+    }
+
+    /*
+     * Get the file of the given shard. The file numbers start with 1.
+     */
+    private File getShardFile(int shard) {
+        return new File(directory, fileRoot + (shard + 1) + fileSuffix);
+    }
+
+    /**
+     * Create the URL of a sitemap entry for a single PID.
      *
-     * @param document An instance of the Document so we can create a new
-     *                 element
      * @param pid      The identifier to be turned into a URL and written in the
      *                 sitemap file
      * @param sid      The serids id to be turned into a URL and written in the
      *                 sitemap file. Used for portals.
-     * @param lastmod  The datetime at which the objec associated with `pid` was
-     *                 last modified
      * @param format   The format of the object associated with `pid`
      *
-     * @return The newly-created `url` element
+     * @return The URL, or null if it couldn't be created
      */
-    private Element createSitemapEntry(Document document, String pid, String sid, String lastmod, String format)
+    private String createSitemapUrl(String pid, String sid, String format)
     {
-        Element urlElement = document.createElement("url");
-
-        if (document == null || pid == null || entryBase == null) {
-            return urlElement;
+        if (pid == null || entryBase == null) {
+            return null;
         }
 
         try {
             // Dynamically generate the url text from the PID
             StringBuffer url = new StringBuffer();
 
-            // url
             // Does different stuff depending on whether this is a portal or not
-            if (portalFormats.contains(format)) {
+            if (portalFormats != null && portalFormats.contains(format)) {
                 url.append(portalBase);
 
                 if (!portalBase.endsWith("/")) {
@@ -378,9 +573,9 @@ public class Sitemap extends TimerTask {
 
                 // Use a SID only if we have one (we should), otherwise use the pid
                 if (sid != null) {
-                    url.append(StringEscapeUtils.escapeXml(URLEncoder.encode(sid, "UTF-8")));
+                    url.append(URLEncoder.encode(sid, "UTF-8"));
                 } else {
-                    url.append(StringEscapeUtils.escapeXml(URLEncoder.encode(pid, "UTF-8")));
+                    url.append(URLEncoder.encode(pid, "UTF-8"));
                 }
             } else {
                 url.append(entryBase);
@@ -389,99 +584,78 @@ public class Sitemap extends TimerTask {
                     url.append("/");
                 }
 
-                url.append(StringEscapeUtils.escapeXml(URLEncoder.encode(pid, "UTF-8")));
+                url.append(URLEncoder.encode(pid, "UTF-8"));
             }
 
-            // loc
-            Element locElement = document.createElement("loc");
-            locElement.setTextContent(url.toString());
-            urlElement.appendChild(locElement);
-
-            // lastmod
-            // Parsing can fail so we guard this with a null check
-            Date lastmodDate = tryParseLastModDateTime(lastmod);
-
-            if (lastmodDate != null) {
-                Element lastmodElement = document.createElement("lastmod");
-                SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
-                lastmodElement.setTextContent(fmt.format(lastmodDate));
-                urlElement.appendChild(lastmodElement);
-            }
-
-            return urlElement;
+            return url.toString();
         } catch (UnsupportedEncodingException  e) {
             logMetacat.warn("Couldn't encode PID " + pid + " in UTF-8 so this" +
                     " entry will be skipped.");
         }
 
-        return urlElement;
+        return null;
     }
 
     /**
-     * Create an index file listing all of the sitemap files that were created.
+     * Create an index file listing all of the sitemap files of the shards.
+     * The lastmod of an entry is the time its file was regenerated last.
      *
-     * @param totalFiles The number of sitemap files that were created.
+     * @param shardCount The number of shards
+     * @throws IOException
+     * @throws XMLStreamException
      */
-    private void writeSitemapIndex(int totalFiles) {
+    private void writeSitemapIndex(int shardCount) throws IOException, XMLStreamException {
         File sitemapIndexFile = new File(directory, indexFilename);
-        OutputStreamWriter sitemapIndex = null;
+        File temp = new File(directory, indexFilename + ".tmp");
+        OutputStreamWriter sitemapIndex = new OutputStreamWriter(
+                new FileOutputStream(temp), Charset.forName("UTF-8"));
+        boolean success = false;
 
         try {
-            sitemapIndex = new OutputStreamWriter(
-                    new FileOutputStream(sitemapIndexFile),
-                    Charset.forName("UTF-8"));
-            Document doc = this.documentBuilder.newDocument();
-            Element root = doc.createElement("sitemapindex");
-            root.setAttribute("xmlns",
-                    "http://www.sitemaps.org/schemas/sitemap/0.9");
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(sitemapIndex);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("sitemapindex");
+            writer.writeDefaultNamespace(SITEMAP_NAMESPACE);
 
             // Write out one index entry for each sitemap file
-            for (int fileNumber = 1; fileNumber <= totalFiles; fileNumber++) {
-                String filename = fileRoot + fileNumber + ".xml";
-                Element entry = createSitemapIndexEntry(doc, filename);
-                root.appendChild(entry);
+            for (int shard = 0; shard < shardCount; shard++) {
+                File shardFile = getShardFile(shard);
+                if (shardFile.exists()) {
+                    writeSitemapIndexEntry(writer, shardFile);
+                }
             }
 
-            Transformer tr = TransformerFactory.newInstance().newTransformer();
-            tr.setOutputProperty(OutputKeys.INDENT, "yes");
-            tr.setOutputProperty(OutputKeys.METHOD, "xml");
-            tr.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-
-            doc.appendChild(root);
-            tr.transform(new DOMSource(doc), new StreamResult(sitemapIndex));
-
-            // Close the index file
-            if (sitemapIndex != null) {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            sitemapIndex.close();
+            Files.move(temp.toPath(), sitemapIndexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            success = true;
+        } finally {
+            if (!success) {
                 sitemapIndex.close();
+                temp.delete();
             }
-        } catch (IOException e) {
-            logMetacat.warn("Could not open or write to the sitemap index " +
-                    "file: " + e.getMessage());
-        } catch (TransformerException e) {
-            logMetacat.warn("Could not transform (serialize) the index file:" +
-                    e.getMessage());
         }
     }
 
     /**
-     * Write a single line of the sitemap index file containing the URL to a
+     * Write a single entry of the sitemap index file containing the URL to a
      * specific sitemap file.
      *
-     * @param document An instance of the Document so we can create a new
-     *                 element
-     * @param filename the name of the index file to be used
+     * @param writer     The writer of the index file
+     * @param shardFile  The sitemap file
+     * @throws XMLStreamException
      */
-    private Element createSitemapIndexEntry(Document document,
-                                            String filename) {
-        Element sitemapElement = document.createElement("sitemap");
-
-        if (filename == null || locationBase == null) {
-            return sitemapElement;
+    private void writeSitemapIndexEntry(XMLStreamWriter writer, File shardFile)
+            throws XMLStreamException {
+        if (locationBase == null) {
+            return;
         }
 
-        // loc
-        Element loc = document.createElement("loc");
-
         // url
         StringBuffer url = new StringBuffer();
         url.append(locationBase);
@@ -490,48 +664,77 @@ public class Sitemap extends TimerTask {
             url.append("/");
         }
 
-        url.append(filename);
-        loc.setTextContent(url.toString());
+        url.append(shardFile.getName());
 
-        // lastmod
-        Element lastmod = document.createElement("lastmod");
-        Date now = new Date();
         SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
-        lastmod.setTextContent(fmt.format(now));
-
-        sitemapElement.appendChild(loc);
-        sitemapElement.appendChild(lastmod);
-
-        return sitemapElement;
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("sitemap");
+        writeElement(writer, "loc", url.toString());
+        writeElement(writer, "lastmod", fmt.format(new Date(shardFile.lastModified())));
+        writer.writeEndElement();
     }
 
-    private Date tryParseLastModDateTime(String lastmod) {
-        Date lastmodDate = null;
+    /*
+     * Write a simple element with text content
+     */
+    private static void writeElement(XMLStreamWriter writer, String name, String value)
+            throws XMLStreamException {
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
 
-        try {
-            lastmodDate =
-                    new SimpleDateFormat(lastModFormatFull).parse(lastmod);
-        } catch (ParseException e) {
-            logMetacat.debug("Failed to parse " + lastmod +
-                    " with SimpleDateFormat of " + lastModFormatFull + " " +
-                    "trying the next format.");
+    /**
+     * Remove the sitemap files of the shards beyond the given number, and the
+     * uncompressed sitemap files of older versions.
+     *
+     * @param shardCount The number of shards
+     */
+    private void removeStaleFiles(int shardCount) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
         }
-
-        if (lastmodDate != null) {
-            return lastmodDate;
+        for (File file : files) {
+            Matcher matcher = SITEMAP_FILE.matcher(file.getName());
+            if (matcher.matches() &&
+                    (matcher.group(2) == null || Integer.parseInt(matcher.group(1)) > shardCount)) {
+                logMetacat.debug("Sitemap.removeStaleFiles - removing " + file.getName());
+                file.delete();
+            }
         }
+    }
 
-        try {
-            lastmodDate =
-                    new SimpleDateFormat(lastModFormatShort).parse(lastmod);
-        } catch (ParseException e) {
-            logMetacat.debug("Failed to parse " + lastmod +
-                    " with SimpleDateFormat of " + lastModFormatShort + " a " +
-                    "lastmod element won't be inserted for this sitemap entry" +
-                    ".");
+    /*
+     * Load the state of the previous run. An empty state is returned if there
+     * is none.
+     */
+    private Properties loadState() {
+        Properties state = new Properties();
+        File stateFile = new File(directory, stateFilename);
+        if (stateFile.exists()) {
+            try (InputStream in = new FileInputStream(stateFile)) {
+                state.load(in);
+            } catch (IOException e) {
+                logMetacat.warn("Sitemap.loadState - could not read " + stateFile +
+                        " so all of the sitemap files will be regenerated: " + e.getMessage());
+                state.clear();
+            }
         }
+        return state;
+    }
 
-        return lastmodDate;
+    /*
+     * Save the state of this run
+     */
+    private void saveState(Properties state) throws IOException {
+        File stateFile = new File(directory, stateFilename);
+        File temp = new File(directory, stateFilename + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            state.store(out, "The state of the sitemap generation");
+        }
+        Files.move(temp.toPath(), stateFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
@@ -563,4 +766,76 @@ public class Sitemap extends TimerTask {
 
         return sb.toString();
     }
+
+    /**
+     * Writes a single gzip-compressed sitemap file. The file is written to a
+     * temporary file, which replaces the sitemap file when it is complete.
+     */
+    private static class ShardWriter {
+        private File target;
+        private File temp;
+        private OutputStream out;
+        private XMLStreamWriter writer;
+
+        /**
+         * Open the temporary file and write the start of the urlset
+         * @param target  The sitemap file
+         * @throws IOException
+         * @throws XMLStreamException
+         */
+        private ShardWriter(File target) throws IOException, XMLStreamException {
+            this.target = target;
+            this.temp = new File(target.getParentFile(), target.getName() + ".tmp");
+            this.out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            this.writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("urlset");
+            writer.writeDefaultNamespace(SITEMAP_NAMESPACE);
+        }
+
+        /**
+         * Write a url element
+         * @param url      The URL of the entry
+         * @param lastmod  The time the object was modified. It can be null.
+         * @throws XMLStreamException
+         */
+        private void addEntry(String url, Timestamp lastmod) throws XMLStreamException {
+            writer.writeCharacters("\n  ");
+            writer.writeStartElement("url");
+            writeElement(writer, "loc", url);
+            if (lastmod != null) {
+                SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd");
+                writeElement(writer, "lastmod", fmt.format(lastmod));
+            }
+            writer.writeEndElement();
+        }
+
+        /**
+         * Finish the document and replace the sitemap file with it
+         * @throws IOException
+         * @throws XMLStreamException
+         */
+        private void commit() throws IOException, XMLStreamException {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            out.close();
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Discard the temporary file
+         */
+        private void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logMetacat.debug("Sitemap.ShardWriter.abort - " + e.getMessage());
+            }
+            temp.delete();
+        }
+    }
 }
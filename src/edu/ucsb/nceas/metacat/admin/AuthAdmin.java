@@ -37,6 +37,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.ucsb.nceas.metacat.AuthLdap;
 import edu.ucsb.nceas.metacat.AuthSession;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.MetacatUtilException;
@@ -192,6 +193,8 @@ public class AuthAdmin extends MetacatAdmin {
 				// file
 				PropertyService.persistProperties();
 				PropertyService.syncToSettings();
+				// the cached lookups and the pooled contexts may belong to the old directory
+				AuthLdap.clearCache();
 
 				// Validate that the options provided are legitimate. Note that
 				// we've allowed them to persist their entries. As of this point
@@ -55,6 +55,7 @@ import edu.ucsb.nceas.metacat.admin.upgrade.solr.SolrSchemaModificationException
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.database.DBVersion;
+import edu.ucsb.nceas.metacat.database.DatabaseService;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.MetacatUtilException;
 import edu.ucsb.nceas.metacat.util.DatabaseUtil;
@@ -776,6 +777,9 @@ public class DBAdmin extends MetacatAdmin {
 	public void upgradeDatabase() throws AdminException {
 	    boolean persist = true;
 		try {
+			// the upgrade scripts and classes need the sql of a recent server
+			checkServerVersion();
+
 			// get a list of the script names that need to be run
 			Vector<String> updateScriptList = getUpdateScripts();
 
@@ -840,6 +844,27 @@ public class DBAdmin extends MetacatAdmin {
 		
 	}
 
+	/*
+	 * Check that the database server supports the sql which Metacat runs
+	 */
+	private void checkServerVersion() throws AdminException, SQLException {
+		Connection connection = null;
+		try {
+			connection = DBUtil.getConnection(PropertyService
+					.getProperty("database.connectionURI"), PropertyService
+					.getProperty("database.user"), PropertyService
+					.getProperty("database.password"));
+			DatabaseService.getInstance().getDBAdapter().checkServerVersion(connection);
+		} catch (PropertyNotFoundException pnfe) {
+			throw new AdminException("DBAdmin.checkServerVersion - Could not find property to connect to the database: " 
+					+ pnfe.getMessage());
+		} finally {
+			if (connection != null) {
+				connection.close();
+			}
+		}
+	}
+
 	/**
 	 * Runs the commands in a sql script. Individual commands are loaded into a
 	 * string vector and run one at a time.
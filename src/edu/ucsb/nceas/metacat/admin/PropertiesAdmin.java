@@ -28,6 +28,8 @@ package edu.ucsb.nceas.metacat.admin;
 
 import java.io.File;
 import java.io.StringReader;
+import java.math.BigInteger;
+import java.security.SecureRandom;
 import java.util.Vector;
 
 import javax.servlet.http.HttpServletRequest;
@@ -135,10 +137,18 @@ public class PropertiesAdmin extends MetacatAdmin {
 						externalDir + FileUtil.getFS() + "documents");
 				PropertyService.setPropertyNoPersist("application.tempDir",
 						externalDir + FileUtil.getFS() + "temporary");
+				PropertyService.setPropertyNoPersist("storage.objectStore.path",
+						externalDir + FileUtil.getFS() + "objects");
 				PropertyService.setPropertyNoPersist("replication.logdir",
 						externalDir + FileUtil.getFS() + "logs");
 				PropertyService.setPropertyNoPersist("solr.homeDir",
 						externalDir + FileUtil.getFS() + "solr-home");
+				// the metacat-index web application only takes the reindex requests with this secret
+				String reindexSecret = PropertyService.getProperty("index.reindex.secret");
+				if (reindexSecret == null || reindexSecret.trim().equals("")) {
+					PropertyService.setPropertyNoPersist("index.reindex.secret",
+							new BigInteger(130, new SecureRandom()).toString(32));
+				}
 
 				PropertyService.persistProperties();
 				PropertyService.syncToSettings();
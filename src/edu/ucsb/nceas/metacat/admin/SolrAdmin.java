@@ -28,7 +28,12 @@ package edu.ucsb.nceas.metacat.admin;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
 import java.nio.file.FileSystem;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -49,6 +54,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.NameFileFilter;
 import org.apache.commons.io.filefilter.NotFileFilter;
@@ -71,6 +77,7 @@ import edu.ucsb.nceas.metacat.service.ServiceService;
 import edu.ucsb.nceas.metacat.shared.MetacatUtilException;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
 import edu.ucsb.nceas.metacat.util.RequestUtil;
+import edu.ucsb.nceas.metacat.util.SystemUtil;
 import edu.ucsb.nceas.utilities.FileUtil;
 import edu.ucsb.nceas.utilities.GeneralPropertyException;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -732,4 +739,57 @@ public class SolrAdmin extends MetacatAdmin {
 	         logMetacat.error("SolrAdmin.modifySolrHomeInSolrEnvScript - the solr home string shouldn't be null or blank.");
 	     }
 	 }
+	 
+	 /**
+	  * Send a request to the blue-green reindex job of the metacat-index web application on this host.
+	  * The job rebuilds the index into a shadow core and swaps it with the live core, so the searches
+	  * keep working during the rebuild. The request carries the shared secret of index.reindex.secret,
+	  * which the metacat-index web application checks.
+	  * @param action  start (also resumes a failed or canceled job) or cancel. Null only asks for the status.
+	  * @return the status of the job as an xml string
+	  * @throws AdminException
+	  */
+	 public String requestShadowReindex(String action) throws AdminException {
+	     HttpURLConnection connection = null;
+	     try {
+	         String secret = PropertyService.getProperty("index.reindex.secret");
+	         if (secret == null || secret.trim().equals("")) {
+	             throw new AdminException("SolrAdmin.requestShadowReindex - the property index.reindex.secret should be set "
+	                                      + "to control the reindex job of the metacat-index web application.");
+	         }
+	         String url = SystemUtil.getInternalServerURL() + "/" + PropertyService.getProperty("index.context") + "/reindex";
+	         logMetacat.info("SolrAdmin.requestShadowReindex - send the action " + action + " to " + url);
+	         connection = (HttpURLConnection) new URL(url).openConnection();
+	         connection.setRequestProperty("X-Metacat-Reindex-Secret", secret.trim());
+	         if (action != null) {
+	             connection.setRequestMethod("POST");
+	             connection.setDoOutput(true);
+	             connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+	             OutputStream out = connection.getOutputStream();
+	             try {
+	                 out.write(("action=" + URLEncoder.encode(action, "UTF-8")).getBytes("UTF-8"));
+	             } finally {
+	                 out.close();
+	             }
+	         }
+	         int code = connection.getResponseCode();
+	         if (code != HttpURLConnection.HTTP_OK) {
+	             throw new AdminException("The metacat-index web application answered the reindex request with the code " + code);
+	         }
+	         InputStream in = connection.getInputStream();
+	         try {
+	             return IOUtils.toString(in, "UTF-8");
+	         } finally {
+	             in.close();
+	         }
+	     } catch (PropertyNotFoundException e) {
+	         throw new AdminException("SolrAdmin.requestShadowReindex - couldn't find the url of the metacat-index web application: " + e.getMessage());
+	     } catch (IOException e) {
+	         throw new AdminException("SolrAdmin.requestShadowReindex - couldn't send the reindex request: " + e.getMessage());
+	     } finally {
+	         if (connection != null) {
+	             connection.disconnect();
+	         }
+	     }
+	 }
 }
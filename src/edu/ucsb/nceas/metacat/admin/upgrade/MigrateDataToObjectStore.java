@@ -0,0 +1,256 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.admin.upgrade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.metacat.admin.AdminException;
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.storage.ContentAddressedObjectStore;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
+import edu.ucsb.nceas.utilities.DBUtil;
+
+/**
+ * Move the data files named by their local ids in application.datafilepath into
+ * the content-addressed object store. The identifier of each file is looked up
+ * in the identifier table, so the store can resolve it without the database
+ * afterwards. Each file is moved in its own transaction, and the files which are 
+ * already in the store are only dropped from the data directory, so the migration 
+ * can be run again after a failure. 
+ * 
+ * The digests are calculated from the files rather than taken from the system
+ * metadata, so a damaged file can't be stored under the digest of its original 
+ * content.
+ * 
+ * It runs as an upgrade utility and, after the store is switched on later, as a 
+ * background task started by the action=migratedata request of an administrator.
+ * Nothing is done if the object store isn't a ContentAddressedObjectStore.
+ */
+public class MigrateDataToObjectStore implements UpgradeUtilityInterface, Runnable {
+    private static Log log = LogFactory.getLog(MigrateDataToObjectStore.class);
+    private static MigrateDataToObjectStore running = null;
+
+    private ContentAddressedObjectStore store = null;
+    private volatile boolean cancelled = false;
+    private volatile long migrated = 0;
+    private volatile long failed = 0;
+
+    /**
+     * Default constructor used by the upgrade
+     */
+    public MigrateDataToObjectStore() {
+    }
+
+    /*
+     * Constructor used by the background task
+     */
+    private MigrateDataToObjectStore(ContentAddressedObjectStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Start to move the data files into the object store in a background thread
+     * @return the new migration
+     * @throws IOException  if another migration is running or the object store isn't content-addressed
+     */
+    public static synchronized MigrateDataToObjectStore start() throws IOException {
+        if (running != null) {
+            throw new IOException("A migration of the data files is running: " + running.getStatus());
+        }
+        ObjectStore store = ObjectStore.getInstance();
+        if (!(store instanceof ContentAddressedObjectStore)) {
+            throw new IOException("The object store is " + store.getClass().getName() + ", so the data files stay as they are.");
+        }
+        running = new MigrateDataToObjectStore((ContentAddressedObjectStore) store);
+        Thread thread = new Thread(running, "MigrateDataToObjectStore");
+        thread.setDaemon(true);
+        thread.start();
+        return running;
+    }
+
+    /**
+     * Get the running migration
+     * @return the running migration or null if there is none
+     */
+    public static synchronized MigrateDataToObjectStore getRunning() {
+        return running;
+    }
+
+    /**
+     * Stop the migration after the current data file
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Get the progress of the migration
+     * @return the numbers of the moved and failed data files
+     */
+    public String getStatus() {
+        return "moved " + migrated + " data files into the object store and " + failed + " files failed" 
+               + (cancelled ? " - cancelled" : "");
+    }
+
+    public boolean upgrade() throws AdminException {
+        String className = null;
+        try {
+            className = PropertyService.getProperty("storage.objectStore.classname");
+        } catch (Exception e) {
+            log.debug("MigrateDataToObjectStore.upgrade - storage.objectStore.classname isn't set: " + e.getMessage());
+        }
+        if (!ContentAddressedObjectStore.class.getName().equals(className)) {
+            log.info("MigrateDataToObjectStore.upgrade - the object store is " + className + ", so the data files stay as they are.");
+            return true;
+        }
+        Connection conn = null;
+        try {
+            store = new ContentAddressedObjectStore();
+            conn = DBUtil.getConnection(PropertyService.getProperty("database.connectionURI"), 
+                                        PropertyService.getProperty("database.user"), 
+                                        PropertyService.getProperty("database.password"));
+            migrate(conn);
+        } catch (Exception e) {
+            String msg = "MigrateDataToObjectStore.upgrade - couldn't move the data files into the object store: " + e.getMessage();
+            log.error(msg, e);
+            AdminException ae = new AdminException(msg);
+            ae.initCause(e);
+            throw ae;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    log.warn("MigrateDataToObjectStore.upgrade - couldn't close the connection: " + e.getMessage());
+                }
+            }
+        }
+        log.warn("MigrateDataToObjectStore.upgrade - " + getStatus());
+        if (failed > 0) {
+            throw new AdminException("MigrateDataToObjectStore.upgrade - " + failed + " data files couldn't be moved into the object store. "
+                                     + "They stay in the data directory and the upgrade can be run again.");
+        }
+        return true;
+    }
+
+    /**
+     * Move the data files on a pooled connection
+     */
+    public void run() {
+        long start = System.currentTimeMillis();
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("MigrateDataToObjectStore.run");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            migrate(dbConn.getConnections());
+        } catch (Exception e) {
+            log.error("MigrateDataToObjectStore.run - couldn't move the data files into the object store: " + e.getMessage(), e);
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+            synchronized (MigrateDataToObjectStore.class) {
+                running = null;
+            }
+        }
+        log.info("MigrateDataToObjectStore.run - " + getStatus() + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /*
+     * Move the files of the data directory into the store one by one
+     */
+    private void migrate(Connection conn) throws Exception {
+        File dataDir = ObjectStore.getDataDirectory();
+        PreparedStatement stmt = conn.prepareStatement("SELECT guid FROM identifier WHERE docid = ? AND rev = ?");
+        DirectoryStream<Path> files = Files.newDirectoryStream(dataDir.toPath());
+        try {
+            for (Path path : files) {
+                if (cancelled) {
+                    break;
+                }
+                File file = path.toFile();
+                if (!file.isFile()) {
+                    continue;
+                }
+                String localId = file.getName();
+                try {
+                    store.put(conn, localId, getIdentifier(stmt, localId), file, null);
+                    migrated++;
+                    if (migrated % 10000 == 0) {
+                        log.info("MigrateDataToObjectStore.migrate - moved " + migrated + " data files into the object store");
+                    }
+                } catch (IOException | SQLException e) {
+                    failed++;
+                    log.error("MigrateDataToObjectStore.migrate - couldn't move the data file " + file.getAbsolutePath() 
+                               + " into the object store: " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            files.close();
+            stmt.close();
+        }
+    }
+
+    /*
+     * Look up the identifier of a local id (docid.rev). Return null if the local id
+     * isn't in the identifier table.
+     */
+    private static Identifier getIdentifier(PreparedStatement stmt, String localId) throws SQLException {
+        int separator = localId.lastIndexOf(".");
+        if (separator <= 0) {
+            return null;
+        }
+        int rev = 0;
+        try {
+            rev = Integer.parseInt(localId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        stmt.setString(1, localId.substring(0, separator));
+        stmt.setInt(2, rev);
+        ResultSet rs = stmt.executeQuery();
+        try {
+            if (rs.next()) {
+                Identifier pid = new Identifier();
+                pid.setValue(rs.getString(1));
+                return pid;
+            }
+            return null;
+        } finally {
+            rs.close();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.admin.upgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.dbadapter.AbstractDatabase;
+import edu.ucsb.nceas.metacat.admin.AdminException;
+import edu.ucsb.nceas.metacat.database.AccessLogPartitionManager;
+import edu.ucsb.nceas.metacat.database.DatabaseService;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.DBUtil;
+
+/**
+ * Convert the access_log table to a table range-partitioned by month on
+ * date_logged. The old table is renamed to access_log_unpartitioned, the new
+ * partitioned table and its partitions are created, and the rows are copied
+ * one month at a time (each month in its own transaction) so the copy of a large
+ * log doesn't need one huge transaction. The old table is dropped only if all of
+ * its rows are in the new table; otherwise it is kept and the upgrade fails.
+ * 
+ * A copy which failed or was cut off is resumed when the upgrade runs again: if
+ * access_log_unpartitioned is still there, only its rows which aren't in the
+ * partitioned table yet are copied.
+ * 
+ * The key of a partitioned table has to include the partition key, so the
+ * partitioned table has the unique key (entryid, date_logged) instead of the
+ * primary key on entryid. date_logged is not null, so the key holds for every
+ * row; the old rows without a date get 1900-01-01, the day the usage rollups
+ * already count them on. Since entryid alone isn't unique any more, its values
+ * have to keep coming from access_log_id_seq.
+ * 
+ * Partitioning needs PostgreSQL 11 or later (for the default partition). Nothing
+ * is done if the table is already partitioned or the database adapter doesn't
+ * support partitioning.
+ */
+public class PartitionAccessLog implements UpgradeUtilityInterface {
+    private static final String OLD_TABLE = AccessLogPartitionManager.TABLE + "_unpartitioned";
+    private static final String COLUMNS = "entryid, ip_address, user_agent, principal, docid, event, date_logged";
+    private static final String SOURCE_COLUMNS = "entryid, ip_address, user_agent, principal, docid, event, "
+                                                 + "coalesce(date_logged, '1900-01-01')";
+    // the rows of the old table which aren't in the partitioned one yet
+    private static final String NOT_COPIED = "NOT EXISTS (SELECT 1 FROM " + AccessLogPartitionManager.TABLE 
+                                             + " p WHERE p.entryid = o.entryid)";
+    private static Log log = LogFactory.getLog(PartitionAccessLog.class);
+
+    public boolean upgrade() throws AdminException {
+        AbstractDatabase adapter = DatabaseService.getInstance().getDBAdapter();
+        if (adapter.getPartitionListSQL() == null) {
+            log.warn("PartitionAccessLog.upgrade - the database adapter doesn't support partitioning, so the access_log table stays as it is.");
+            return true;
+        }
+        Connection conn = null;
+        try {
+            conn = DBUtil.getConnection(PropertyService.getProperty("database.connectionURI"), 
+                                        PropertyService.getProperty("database.user"), 
+                                        PropertyService.getProperty("database.password"));
+            boolean partitioned = !AccessLogPartitionManager.listPartitions(conn).isEmpty();
+            boolean leftover = tableExists(conn, OLD_TABLE);
+            if (partitioned && !leftover) {
+                log.info("PartitionAccessLog.upgrade - the access_log table is already partitioned.");
+                return true;
+            }
+            if (!partitioned && leftover) {
+                throw new AdminException("PartitionAccessLog.upgrade - the table " + OLD_TABLE + " exists, but the access_log table "
+                                         + "isn't partitioned. Rename or drop one of them before running the upgrade again.");
+            }
+            if (partitioned) {
+                log.warn("PartitionAccessLog.upgrade - resume copying the rows of " + OLD_TABLE + " to the partitioned access_log table.");
+            } else {
+                adapter.checkServerVersion(conn, 11, 0, "The partitioned access_log table");
+                conn.setAutoCommit(false);
+                createPartitionedTable(conn, adapter);
+                conn.commit();
+                conn.setAutoCommit(true);
+            }
+            long copied = copyRows(conn, getFirstMonth(conn));
+            long missing = countNotCopied(conn);
+            if (missing > 0) {
+                throw new AdminException("PartitionAccessLog.upgrade - " + missing + " rows of " + OLD_TABLE + " couldn't be copied to "
+                                         + "the partitioned access_log table. The table " + OLD_TABLE + " is kept and the copy is "
+                                         + "resumed when the upgrade runs again.");
+            }
+            Statement stmt = conn.createStatement();
+            stmt.execute("DROP TABLE " + OLD_TABLE);
+            stmt.close();
+            log.warn("PartitionAccessLog.upgrade - the access_log table was partitioned, " + copied + " rows were copied.");
+        } catch (AdminException e) {
+            throw e;
+        } catch (Exception e) {
+            String msg = "PartitionAccessLog.upgrade - couldn't partition the access_log table: " + e.getMessage();
+            log.error(msg, e);
+            try {
+                if (conn != null && !conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+            } catch (SQLException ee) {
+                log.warn("PartitionAccessLog.upgrade - couldn't roll back: " + ee.getMessage());
+            }
+            AdminException ae = new AdminException(msg);
+            ae.initCause(e);
+            throw ae;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    log.warn("PartitionAccessLog.upgrade - couldn't close the connection: " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Rename the old table and create the partitioned one with the monthly partitions
+     * from the first logged month until the months ahead of now.
+     */
+    private void createPartitionedTable(Connection conn, AbstractDatabase adapter) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            stmt.execute("ALTER TABLE access_log RENAME TO " + OLD_TABLE);
+            stmt.execute("ALTER TABLE " + OLD_TABLE + " RENAME CONSTRAINT access_log_pk TO " + OLD_TABLE + "_pk");
+            stmt.execute("ALTER INDEX access_log_docid RENAME TO " + OLD_TABLE + "_docid");
+            stmt.execute("CREATE TABLE access_log ("
+                    + "entryid INT8 default nextval ('access_log_id_seq'), "
+                    + "ip_address VARCHAR(512), "
+                    + "user_agent VARCHAR(512), "
+                    + "principal VARCHAR(512), "
+                    + "docid VARCHAR(250), "
+                    + "event VARCHAR(512), "
+                    + "date_logged TIMESTAMP NOT NULL, "
+                    + "CONSTRAINT access_log_key UNIQUE (entryid, date_logged)"
+                    + ") PARTITION BY RANGE (date_logged)");
+            stmt.execute("CREATE INDEX access_log_docid ON access_log(docid)");
+            stmt.execute("CREATE INDEX access_log_date_logged ON access_log(date_logged)");
+            stmt.execute(adapter.getCreateDefaultPartitionSQL(AccessLogPartitionManager.TABLE, 
+                                                               AccessLogPartitionManager.DEFAULT_PARTITION));
+            Timestamp first = getFirstMonth(conn);
+            Date from = first == null ? new Date() : first;
+            Calendar end = AccessLogPartitionManager.getMonthStart(new Date());
+            end.add(Calendar.MONTH, AccessLogPartitionManager.getMonthsAhead() + 1);
+            int months = AccessLogPartitionManager.createPartitions(conn, from, end.getTime());
+            log.info("PartitionAccessLog.createPartitionedTable - created " + months + " monthly partitions.");
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * Get the beginning of the first logged month of the old table, or null if it has no dated rows
+     */
+    private Timestamp getFirstMonth(Connection conn) throws SQLException {
+        Timestamp first = null;
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT min(date_logged) FROM " + OLD_TABLE);
+            if (rs.next()) {
+                first = rs.getTimestamp(1);
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return first == null ? null : new Timestamp(AccessLogPartitionManager.getMonthStart(first).getTimeInMillis());
+    }
+
+    /*
+     * Copy the rows of the old table which aren't in the partitioned one yet month by month,
+     * then the rows without a date. Return the number of copied rows.
+     */
+    private long copyRows(Connection conn, Timestamp first) throws SQLException {
+        long copied = 0;
+        String insert = "INSERT INTO access_log (" + COLUMNS + ") SELECT " + SOURCE_COLUMNS + " FROM " + OLD_TABLE 
+                        + " o WHERE " + NOT_COPIED;
+        if (first != null) {
+            Calendar monthStart = AccessLogPartitionManager.getMonthStart(first);
+            PreparedStatement pstmt = conn.prepareStatement(insert + " AND date_logged >= ? AND date_logged < ?");
+            try {
+                Date now = new Date();
+                while (!monthStart.getTime().after(now)) {
+                    Calendar monthEnd = (Calendar) monthStart.clone();
+                    monthEnd.add(Calendar.MONTH, 1);
+                    pstmt.setTimestamp(1, new Timestamp(monthStart.getTimeInMillis()));
+                    pstmt.setTimestamp(2, new Timestamp(monthEnd.getTimeInMillis()));
+                    int rows = pstmt.executeUpdate();
+                    copied += rows;
+                    log.debug("PartitionAccessLog.copyRows - copied " + rows + " rows to " 
+                               + AccessLogPartitionManager.getPartitionName(monthStart));
+                    monthStart = monthEnd;
+                }
+            } finally {
+                pstmt.close();
+            }
+            // the rows logged in the future (a wrong clock) go to their partitions or the default one
+            pstmt = conn.prepareStatement(insert + " AND date_logged >= ?");
+            try {
+                pstmt.setTimestamp(1, new Timestamp(monthStart.getTimeInMillis()));
+                copied += pstmt.executeUpdate();
+            } finally {
+                pstmt.close();
+            }
+        }
+        copied += executeUpdate(conn, insert + " AND date_logged IS NULL");
+        return copied;
+    }
+
+    /*
+     * Execute an update statement and return the number of the affected rows
+     */
+    private int executeUpdate(Connection conn, String sql) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            return stmt.executeUpdate(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * Check if a table exists
+     */
+    private boolean tableExists(Connection conn, String table) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, null, table, new String[] {"TABLE"});
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    /*
+     * Count the rows of the old table which aren't in the partitioned one
+     */
+    private long countNotCopied(Connection conn) throws SQLException {
+        long count = 0;
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SELECT count(*) FROM " + OLD_TABLE + " o WHERE " + NOT_COPIED);
+            if (rs.next()) {
+                count = rs.getLong(1);
+            }
+            rs.close();
+        } finally {
+            stmt.close();
+        }
+        return count;
+    }
+}
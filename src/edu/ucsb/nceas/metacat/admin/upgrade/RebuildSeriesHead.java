@@ -0,0 +1,128 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.admin.upgrade;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.IdentifierManager;
+import edu.ucsb.nceas.metacat.admin.AdminException;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.DBUtil;
+
+/**
+ * Rebuild the series_head table from the obsoletes chains in the systemMetadata 
+ * table. It fills the table during the upgrade and can be run again to repair it,
+ * e.g. after the system metadata were changed directly in the database. Each 
+ * series is recomputed in its own transaction, and the rows of the series which 
+ * no longer exist are removed.
+ * 
+ * The SeriesHeadCache of a running Metacat isn't cleared by this utility; its 
+ * entries expire after dataone.seriesHead.cacheTTL.
+ */
+public class RebuildSeriesHead implements UpgradeUtilityInterface {
+    private static final int FETCH_SIZE = 1000;
+    private static Log log = LogFactory.getLog(RebuildSeriesHead.class);
+
+    public boolean upgrade() throws AdminException {
+        Connection readConn = null;
+        Connection writeConn = null;
+        int rebuilt = 0;
+        int failed = 0;
+        try {
+            String url = PropertyService.getProperty("database.connectionURI");
+            String user = PropertyService.getProperty("database.user");
+            String password = PropertyService.getProperty("database.password");
+            readConn = DBUtil.getConnection(url, user, password);
+            writeConn = DBUtil.getConnection(url, user, password);
+            writeConn.setAutoCommit(false);
+
+            PreparedStatement delete = writeConn.prepareStatement("DELETE FROM series_head WHERE series_id NOT IN "
+                    + "(SELECT series_id FROM systemMetadata WHERE series_id IS NOT NULL)");
+            int removed = delete.executeUpdate();
+            delete.close();
+            writeConn.commit();
+            log.info("RebuildSeriesHead.upgrade - removed " + removed + " rows of the series which don't exist any more");
+
+            // the postgresql driver only uses a cursor with the fetch size outside of the auto commit mode
+            readConn.setAutoCommit(false);
+            PreparedStatement select = readConn.prepareStatement("SELECT DISTINCT series_id FROM systemMetadata WHERE series_id IS NOT NULL");
+            select.setFetchSize(FETCH_SIZE);
+            ResultSet rs = select.executeQuery();
+            try {
+                while (rs.next()) {
+                    String sid = rs.getString(1);
+                    try {
+                        IdentifierManager.getInstance().updateSeriesHead(sid, writeConn);
+                        writeConn.commit();
+                        rebuilt++;
+                        if (rebuilt % 10000 == 0) {
+                            log.info("RebuildSeriesHead.upgrade - rebuilt the heads of " + rebuilt + " series");
+                        }
+                    } catch (SQLException e) {
+                        failed++;
+                        writeConn.rollback();
+                        log.error("RebuildSeriesHead.upgrade - couldn't rebuild the head of the series " + sid + ": " + e.getMessage(), e);
+                    }
+                }
+            } finally {
+                rs.close();
+                select.close();
+                readConn.commit();
+            }
+        } catch (Exception e) {
+            String msg = "RebuildSeriesHead.upgrade - couldn't rebuild the series_head table: " + e.getMessage();
+            log.error(msg, e);
+            AdminException ae = new AdminException(msg);
+            ae.initCause(e);
+            throw ae;
+        } finally {
+            close(readConn);
+            close(writeConn);
+        }
+        log.warn("RebuildSeriesHead.upgrade - rebuilt the heads of " + rebuilt + " series and " + failed + " series failed.");
+        if (failed > 0) {
+            throw new AdminException("RebuildSeriesHead.upgrade - the heads of " + failed + " series couldn't be rebuilt. "
+                                     + "The upgrade can be run again.");
+        }
+        return true;
+    }
+
+    /*
+     * Close a connection and log the error
+     */
+    private static void close(Connection conn) {
+        if (conn != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.warn("RebuildSeriesHead.close - couldn't close the connection: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.admin.upgrade;
+
+import edu.ucsb.nceas.metacat.admin.AdminException;
+
+/**
+ * Upgrade the application to version 2.17.0 (mainly partition the access_log table by month,
+ * move the data files into the object store and fill the series_head table)
+ */
+public class Upgrade2_17_0 implements UpgradeUtilityInterface {
+
+    public boolean upgrade() throws AdminException {
+        boolean success = true;
+
+        // monthly partitions of the access_log table
+        PartitionAccessLog accessLogUpgrader = new PartitionAccessLog();
+        success = accessLogUpgrader.upgrade();
+
+        // the data files named by their local ids go into the object store
+        MigrateDataToObjectStore dataUpgrader = new MigrateDataToObjectStore();
+        success = success && dataUpgrader.upgrade();
+
+        // the heads of the series from the obsoletes chains
+        RebuildSeriesHead seriesHeadUpgrader = new RebuildSeriesHead();
+        success = success && seriesHeadUpgrader.upgrade();
+
+        return success;
+    }
+
+}
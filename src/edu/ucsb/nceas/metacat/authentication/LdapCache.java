@@ -0,0 +1,154 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.authentication;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.TimeToLiveCache;
+
+/**
+ * A time-to-live cache of the LDAP lookups which are repeated for every login or
+ * request of a user: the group memberships of a user and the resolution of a user 
+ * name or an alias to a distinguished name. The entries are keyed by the user
+ * (lower case) in front of the other parts of the lookup, so all entries of a user
+ * can be invalidated at once.
+ * 
+ * Misses of the directory (no group, no DN found) are cached as well, but only
+ * for the shorter ldap.cache.negativeTTL, so a user added to the directory shows 
+ * up soon. Failed lookups (e.g. the directory is down) are not cached at all.
+ */
+public class LdapCache {
+    public static final String GROUPS = "groups";
+    public static final String DN = "dn";
+    public static final String ALIAS = "alias";
+    private static final String SEPARATOR = "\n";
+    private static final long DEFAULT_TTL = 300000; //five minutes
+    private static final long DEFAULT_NEGATIVE_TTL = 60000; //one minute
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static Log logMetacat = LogFactory.getLog(LdapCache.class);
+    private static volatile LdapCache cache = null;
+
+    private TimeToLiveCache<Object> entries = null;
+    private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+
+    /*
+     * Constructor. It reads the time to live values and the maximum size from the properties.
+     */
+    private LdapCache() {
+        long ttl = DEFAULT_TTL;
+        int maxSize = DEFAULT_MAX_SIZE;
+        try {
+            ttl = Long.parseLong(PropertyService.getProperty("ldap.cache.ttl"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapCache.LdapCache - use the default ttl " + DEFAULT_TTL + " since " + e.getMessage());
+        }
+        try {
+            negativeTtl = Long.parseLong(PropertyService.getProperty("ldap.cache.negativeTTL"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapCache.LdapCache - use the default negative ttl " + DEFAULT_NEGATIVE_TTL + " since " + e.getMessage());
+        }
+        try {
+            maxSize = Integer.parseInt(PropertyService.getProperty("ldap.cache.maxSize"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapCache.LdapCache - use the default size " + DEFAULT_MAX_SIZE + " since " + e.getMessage());
+        }
+        entries = new TimeToLiveCache<Object>(ttl, maxSize);
+    }
+
+    /**
+     * Get the singleton instance of the cache
+     * @return the instance
+     */
+    public static LdapCache getInstance() {
+        if (cache == null) {
+            synchronized (LdapCache.class) {
+                if (cache == null) {
+                    cache = new LdapCache();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get a cached lookup
+     * @param type  the type of the lookup, e.g. GROUPS
+     * @param user  the user the lookup is about
+     * @param qualifier  the other parts of the lookup, e.g. the ldap url. It can be null.
+     * @return the entry, or null if the lookup isn't cached or has expired. The value
+     *         of the entry is null for a cached miss.
+     */
+    public TimeToLiveCache.Entry<Object> get(String type, String user, String qualifier) {
+        if (user == null) {
+            return null;
+        }
+        return entries.getEntry(getKey(type, user, qualifier));
+    }
+
+    /**
+     * Cache the result of a lookup
+     * @param type  the type of the lookup, e.g. GROUPS
+     * @param user  the user the lookup is about
+     * @param qualifier  the other parts of the lookup. It can be null.
+     * @param value  the result. Null or an empty array means a miss, which is kept 
+     *               for the negative time to live.
+     */
+    public void put(String type, String user, String qualifier, Object value) {
+        if (user == null) {
+            return;
+        }
+        boolean miss = value == null || (value instanceof Object[] && ((Object[]) value).length == 0);
+        if (miss) {
+            entries.put(getKey(type, user, qualifier), value, negativeTtl);
+        } else {
+            entries.put(getKey(type, user, qualifier), value);
+        }
+    }
+
+    /**
+     * Remove all of the cached lookups about a user
+     * @param user  the user
+     */
+    public void invalidate(String user) {
+        if (user == null) {
+            return;
+        }
+        entries.invalidatePrefix(user.trim().toLowerCase() + SEPARATOR);
+    }
+
+    /**
+     * Remove all of the cached lookups
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /*
+     * The key of a lookup. The user comes first so invalidate can find all of its entries.
+     */
+    private static String getKey(String type, String user, String qualifier) {
+        return user.trim().toLowerCase() + SEPARATOR + type + SEPARATOR + (qualifier == null ? "" : qualifier);
+    }
+}
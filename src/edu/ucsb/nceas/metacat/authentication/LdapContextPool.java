@@ -0,0 +1,301 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.authentication;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * A bounded pool of anonymous LDAP directory contexts. Creating a context means
+ * a TCP connection (and maybe a TLS handshake) plus a bind, so the searches of 
+ * AuthLdap borrow an open context instead of creating a new one each time.
+ * 
+ * There is one pool per provider url and referral mode. At most ldap.pool.maxSize
+ * contexts of a pool exist at a time; a caller waits up to ldap.pool.borrowTimeout 
+ * milliseconds for one to be returned, so a login storm queues up here instead of
+ * flooding the directory server. An idle context is checked with a cheap read of 
+ * the base entry before it is handed out again if it has been idle longer than 
+ * ldap.pool.validationInterval, and it is closed if it has been idle longer than 
+ * ldap.pool.idleTimeout.
+ * 
+ * The contexts which bind with user credentials (authentication) and the referral
+ * contexts are never pooled. returnContext simply closes a context which didn't come
+ * from the pool.
+ */
+public class LdapContextPool {
+    private static final int DEFAULT_MAX_SIZE = 20;
+    private static final long DEFAULT_BORROW_TIMEOUT = 5000;
+    private static final long DEFAULT_VALIDATION_INTERVAL = 30000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 300000;
+    private static Log logMetacat = LogFactory.getLog(LdapContextPool.class);
+    private static volatile LdapContextPool pool = null;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long borrowTimeout = DEFAULT_BORROW_TIMEOUT;
+    private long validationInterval = DEFAULT_VALIDATION_INTERVAL;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private Map<String, ServerPool> servers = new ConcurrentHashMap<String, ServerPool>();
+    private Map<DirContext, ServerPool> borrowed = new ConcurrentHashMap<DirContext, ServerPool>();
+
+    /*
+     * Constructor. It reads the settings from the properties.
+     */
+    private LdapContextPool() {
+        try {
+            maxSize = Integer.parseInt(PropertyService.getProperty("ldap.pool.maxSize"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapContextPool.LdapContextPool - use the default maximum size " + DEFAULT_MAX_SIZE + " since " + e.getMessage());
+        }
+        try {
+            borrowTimeout = Long.parseLong(PropertyService.getProperty("ldap.pool.borrowTimeout"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapContextPool.LdapContextPool - use the default borrow timeout " + DEFAULT_BORROW_TIMEOUT + " since " + e.getMessage());
+        }
+        try {
+            validationInterval = Long.parseLong(PropertyService.getProperty("ldap.pool.validationInterval"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapContextPool.LdapContextPool - use the default validation interval " + DEFAULT_VALIDATION_INTERVAL + " since " + e.getMessage());
+        }
+        try {
+            idleTimeout = Long.parseLong(PropertyService.getProperty("ldap.pool.idleTimeout"));
+        } catch (Exception e) {
+            logMetacat.debug("LdapContextPool.LdapContextPool - use the default idle timeout " + DEFAULT_IDLE_TIMEOUT + " since " + e.getMessage());
+        }
+    }
+
+    /*
+     * Constructor with the given settings
+     */
+    LdapContextPool(int maxSize, long borrowTimeout, long validationInterval, long idleTimeout) {
+        this.maxSize = maxSize;
+        this.borrowTimeout = borrowTimeout;
+        this.validationInterval = validationInterval;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Get the singleton instance of the pool
+     * @return the instance
+     */
+    public static LdapContextPool getInstance() {
+        if (pool == null) {
+            synchronized (LdapContextPool.class) {
+                if (pool == null) {
+                    pool = new LdapContextPool();
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Borrow an anonymous directory context for the given environment. It must be 
+     * given back by returnContext or invalidate.
+     * @param env  the environment of the context. Only the provider url and the referral 
+     *             mode tell the pools apart; the other values of the first environment 
+     *             of a pool are used for all of its contexts.
+     * @return the context
+     * @throws NamingException if no context can be created or the pool stays exhausted
+     *                         longer than the borrow timeout
+     */
+    public DirContext getContext(Hashtable<?, ?> env) throws NamingException {
+        String key = env.get(Context.PROVIDER_URL) + " " + env.get(Context.REFERRAL);
+        ServerPool server = servers.get(key);
+        if (server == null) {
+            servers.putIfAbsent(key, new ServerPool(key, env));
+            server = servers.get(key);
+        }
+        DirContext ctx = server.borrow();
+        borrowed.put(ctx, server);
+        return ctx;
+    }
+
+    /**
+     * Give a context back to its pool. A context which doesn't come from the pool,
+     * e.g. a referral context, is closed.
+     * @param ctx  the context. Nothing happens if it is null.
+     */
+    public void returnContext(DirContext ctx) {
+        if (ctx == null) {
+            return;
+        }
+        ServerPool server = borrowed.remove(ctx);
+        if (server == null) {
+            close(ctx);
+        } else {
+            server.giveBack(ctx);
+        }
+    }
+
+    /**
+     * Close a context after an error instead of giving it back, since its connection 
+     * may be broken.
+     * @param ctx  the context. Nothing happens if it is null.
+     */
+    public void invalidate(DirContext ctx) {
+        if (ctx == null) {
+            return;
+        }
+        ServerPool server = borrowed.remove(ctx);
+        close(ctx);
+        if (server != null) {
+            server.discard();
+        }
+    }
+
+    /**
+     * Close all of the idle contexts, e.g. after the directory configuration changed.
+     * The borrowed contexts are closed when they are returned.
+     */
+    public void clear() {
+        for (ServerPool server : servers.values()) {
+            server.closeIdle();
+        }
+    }
+
+    /*
+     * Close a context and ignore the errors
+     */
+    private static void close(DirContext ctx) {
+        try {
+            ctx.close();
+        } catch (NamingException e) {
+            logMetacat.debug("LdapContextPool.close - can't close the context since " + e.getMessage());
+        }
+    }
+
+    /*
+     * The pool of one provider url and referral mode. The permits of the semaphore
+     * are the contexts which may still be borrowed; the idle contexts are used
+     * last-in first-out so the ones not needed any more age out.
+     */
+    private class ServerPool {
+        private String key = null;
+        private Hashtable<Object, Object> env = null;
+        private Semaphore permits = new Semaphore(maxSize, true);
+        private LinkedBlockingDeque<IdleContext> idle = new LinkedBlockingDeque<IdleContext>();
+
+        private ServerPool(String key, Hashtable<?, ?> env) {
+            this.key = key;
+            this.env = new Hashtable<Object, Object>(env);
+            //the pooled contexts are anonymous
+            this.env.remove(Context.SECURITY_PRINCIPAL);
+            this.env.remove(Context.SECURITY_CREDENTIALS);
+            this.env.remove(Context.SECURITY_AUTHENTICATION);
+        }
+
+        private DirContext borrow() throws NamingException {
+            try {
+                if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new ServiceUnavailableException("LdapContextPool.borrow - all " + maxSize 
+                            + " contexts for " + key + " are in use");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceUnavailableException("LdapContextPool.borrow - interrupted while waiting for a context for " + key);
+            }
+            try {
+                IdleContext candidate = idle.pollFirst();
+                while (candidate != null) {
+                    long idleTime = System.currentTimeMillis() - candidate.since;
+                    if (idleTime > idleTimeout) {
+                        close(candidate.ctx);
+                    } else if (idleTime > validationInterval && !isValid(candidate.ctx)) {
+                        logMetacat.info("LdapContextPool.borrow - dropped a broken context for " + key);
+                        close(candidate.ctx);
+                    } else {
+                        return candidate.ctx;
+                    }
+                    candidate = idle.pollFirst();
+                }
+                logMetacat.debug("LdapContextPool.borrow - open a new context for " + key);
+                return new InitialDirContext(env);
+            } catch (NamingException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void giveBack(DirContext ctx) {
+            idle.offerFirst(new IdleContext(ctx));
+            permits.release();
+        }
+
+        private void discard() {
+            permits.release();
+        }
+
+        private void closeIdle() {
+            IdleContext candidate = idle.pollFirst();
+            while (candidate != null) {
+                close(candidate.ctx);
+                candidate = idle.pollFirst();
+            }
+        }
+
+        /*
+         * Read the base entry to see if the connection still works. Only a failure
+         * of the connection makes the context invalid; e.g. a missing permission
+         * to read the entry doesn't.
+         */
+        private boolean isValid(DirContext ctx) {
+            try {
+                ctx.getAttributes("", new String[] {"objectClass"});
+                return true;
+            } catch (CommunicationException | ServiceUnavailableException e) {
+                return false;
+            } catch (NamingException e) {
+                return true;
+            }
+        }
+    }
+
+    /*
+     * A context in the idle list and the time since when it is idle
+     */
+    private static class IdleContext {
+        private DirContext ctx;
+        private long since;
+
+        private IdleContext(DirContext ctx) {
+            this.ctx = ctx;
+            this.since = System.currentTimeMillis();
+        }
+    }
+}
@@ -30,6 +30,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.ucsb.nceas.metacat.service.SessionService;
+import edu.ucsb.nceas.metacat.shared.ServiceException;
+import edu.ucsb.nceas.metacat.util.SessionData;
 
 
 /**
@@ -95,7 +97,14 @@ public class CartManager {
 			}
 		}
 		
-		SessionService.getInstance().getRegisteredSession(sessionId).setDocumentCart(documentCart);
+		SessionData sessionData = SessionService.getInstance().getRegisteredSession(sessionId);
+		sessionData.setDocumentCart(documentCart);
+		// save the change in case the session store is shared by a cluster
+		try {
+			SessionService.getInstance().registerSession(sessionData);
+		} catch (ServiceException e) {
+			log.error("CartManager.editCart - couldn't save the cart of the session " + sessionId + ": " + e.getMessage());
+		}
 	}
 
 }
@@ -23,10 +23,13 @@
  */
 package edu.ucsb.nceas.metacat.cart;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
-public class DocumentCart {
+public class DocumentCart implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	
 	private Map docids = new HashMap();
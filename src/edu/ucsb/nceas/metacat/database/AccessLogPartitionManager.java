@@ -0,0 +1,298 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimerTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.dbadapter.AbstractDatabase;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * Keeps the monthly partitions of the access_log table ahead of time. The
+ * access_log table is range-partitioned on date_logged, one partition per
+ * calendar month named access_log_yYYYYmMM, plus a default partition for the
+ * rows outside of them. This task runs periodically and creates the partitions
+ * of the current month and the next database.accessLog.partitionMonthsAhead
+ * months, so new log events never land in the default partition.
+ * 
+ * If the access_log table isn't partitioned (the 2.17.0 upgrade hasn't run yet)
+ * or the database adapter doesn't support partitioning, the task does nothing.
+ */
+public class AccessLogPartitionManager extends TimerTask {
+    public static final String TABLE = "access_log";
+    public static final String DEFAULT_PARTITION = TABLE + "_default";
+    private static final int DEFAULT_MONTHS_AHEAD = 3;
+    private static Log logMetacat = LogFactory.getLog(AccessLogPartitionManager.class);
+    // the partitions which couldn't be created since the rows of the default partition couldn't be moved
+    private static Set<String> failedPartitions = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Create the partitions of the current month and the following months
+     */
+    public void run() {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("AccessLogPartitionManager.run");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            Connection conn = dbConn.getConnections();
+            if (listPartitions(conn).isEmpty()) {
+                logMetacat.debug("AccessLogPartitionManager.run - the access_log table isn't partitioned, so skip it.");
+                return;
+            }
+            Calendar end = getMonthStart(new Date());
+            end.add(Calendar.MONTH, getMonthsAhead() + 1);
+            int created = createPartitions(conn, new Date(), end.getTime());
+            logMetacat.info("AccessLogPartitionManager.run - checked " + created + " monthly partitions of the access_log table.");
+        } catch (SQLException e) {
+            logMetacat.error("AccessLogPartitionManager.run - couldn't create the partitions of the access_log table: " 
+                              + e.getMessage(), e);
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /**
+     * Create the monthly partitions covering the period from the month of the 
+     * given start date to the given end date. Existing partitions are kept. If
+     * the default partition already holds rows of a new month, the default
+     * partition is detached, the month's partition is created, the rows are
+     * moved into it and the default partition is attached again, all in one
+     * transaction. A month whose rows can't be moved is logged as an error and
+     * isn't tried again until Metacat restarts.
+     * @param conn  the connection to the database
+     * @param from  a date in the first month
+     * @param to  the exclusive end of the period
+     * @return the number of months covered. 0 will be returned if the database 
+     *         adapter doesn't support partitioning.
+     * @throws SQLException
+     */
+    public static int createPartitions(Connection conn, Date from, Date to) throws SQLException {
+        AbstractDatabase adapter = DatabaseService.getInstance().getDBAdapter();
+        int months = 0;
+        Calendar monthStart = getMonthStart(from);
+        List<String> existing = listPartitions(conn);
+        Statement stmt = conn.createStatement();
+        try {
+            while (monthStart.getTime().before(to)) {
+                Calendar monthEnd = (Calendar) monthStart.clone();
+                monthEnd.add(Calendar.MONTH, 1);
+                String partition = getPartitionName(monthStart);
+                Timestamp start = new Timestamp(monthStart.getTimeInMillis());
+                Timestamp end = new Timestamp(monthEnd.getTimeInMillis());
+                String sql = adapter.getCreateRangePartitionSQL(TABLE, partition, start, end);
+                if (sql == null) {
+                    return 0;
+                }
+                monthStart = monthEnd;
+                if (existing.contains(partition)) {
+                    months++;
+                    continue;
+                }
+                if (failedPartitions.contains(partition)) {
+                    continue;
+                }
+                if (existing.contains(DEFAULT_PARTITION) && countDefaultRows(conn, start, end) > 0) {
+                    if (moveDefaultRows(conn, adapter, partition, sql, start, end)) {
+                        months++;
+                    }
+                    continue;
+                }
+                logMetacat.debug("AccessLogPartitionManager.createPartitions - " + sql);
+                stmt.execute(sql);
+                months++;
+            }
+        } finally {
+            stmt.close();
+        }
+        return months;
+    }
+
+    /*
+     * Count the rows of the default partition in [start, end)
+     */
+    private static long countDefaultRows(Connection conn, Timestamp start, Timestamp end) throws SQLException {
+        long count = 0;
+        PreparedStatement pstmt = conn.prepareStatement("SELECT count(*) FROM " + DEFAULT_PARTITION 
+                                                        + " WHERE date_logged >= ? AND date_logged < ?");
+        try {
+            pstmt.setTimestamp(1, start);
+            pstmt.setTimestamp(2, end);
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                count = rs.getLong(1);
+            }
+            rs.close();
+        } finally {
+            pstmt.close();
+        }
+        return count;
+    }
+
+    /*
+     * Create the partition of a month whose rows are in the default partition. A partition
+     * can't be created while the default partition holds rows of its range, so the default
+     * partition is detached meanwhile. It runs in the transaction of the caller if one is
+     * open, otherwise in its own.
+     * @return true if the partition was created
+     */
+    private static boolean moveDefaultRows(Connection conn, AbstractDatabase adapter, String partition, String createSQL,
+                                           Timestamp start, Timestamp end) throws SQLException {
+        String detach = adapter.getDetachPartitionSQL(TABLE, DEFAULT_PARTITION);
+        String attach = adapter.getAttachDefaultPartitionSQL(TABLE, DEFAULT_PARTITION);
+        if (detach == null || attach == null) {
+            logMetacat.error("AccessLogPartitionManager.moveDefaultRows - the partition " + partition + " can't be created since "
+                             + DEFAULT_PARTITION + " has rows of its month and the database adapter can't detach a partition.");
+            failedPartitions.add(partition);
+            return false;
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        Statement stmt = conn.createStatement();
+        PreparedStatement pstmt = null;
+        try {
+            if (autoCommit) {
+                conn.setAutoCommit(false);
+            }
+            stmt.execute(detach);
+            stmt.execute(createSQL);
+            pstmt = conn.prepareStatement("INSERT INTO " + TABLE + " SELECT * FROM " + DEFAULT_PARTITION 
+                                          + " WHERE date_logged >= ? AND date_logged < ?");
+            pstmt.setTimestamp(1, start);
+            pstmt.setTimestamp(2, end);
+            int rows = pstmt.executeUpdate();
+            pstmt.close();
+            pstmt = conn.prepareStatement("DELETE FROM " + DEFAULT_PARTITION + " WHERE date_logged >= ? AND date_logged < ?");
+            pstmt.setTimestamp(1, start);
+            pstmt.setTimestamp(2, end);
+            pstmt.executeUpdate();
+            stmt.execute(attach);
+            if (autoCommit) {
+                conn.commit();
+            }
+            logMetacat.warn("AccessLogPartitionManager.moveDefaultRows - moved " + rows + " rows from " + DEFAULT_PARTITION 
+                            + " to the new partition " + partition);
+            return true;
+        } catch (SQLException e) {
+            if (!autoCommit) {
+                // the caller's transaction is broken, so let the caller roll it back
+                throw e;
+            }
+            conn.rollback();
+            logMetacat.error("AccessLogPartitionManager.moveDefaultRows - couldn't move the rows of " + DEFAULT_PARTITION 
+                             + " into the new partition " + partition + ", so it isn't tried again until Metacat restarts: " 
+                             + e.getMessage(), e);
+            failedPartitions.add(partition);
+            return false;
+        } finally {
+            if (pstmt != null) {
+                pstmt.close();
+            }
+            stmt.close();
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Get the names of the partitions of the access_log table
+     * @param conn  the connection to the database
+     * @return the names. It is empty if the table isn't partitioned.
+     * @throws SQLException
+     */
+    public static List<String> listPartitions(Connection conn) throws SQLException {
+        List<String> partitions = new ArrayList<String>();
+        String sql = DatabaseService.getInstance().getDBAdapter().getPartitionListSQL();
+        if (sql == null) {
+            return partitions;
+        }
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        try {
+            pstmt.setString(1, TABLE);
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                partitions.add(rs.getString(1));
+            }
+            rs.close();
+        } finally {
+            pstmt.close();
+        }
+        return partitions;
+    }
+
+    /**
+     * Get the name of the partition holding the given month, e.g. access_log_y2026m10
+     * @param month  a time in the month
+     * @return the name of the partition
+     */
+    public static String getPartitionName(Calendar month) {
+        return String.format("%s_y%04dm%02d", TABLE, month.get(Calendar.YEAR), month.get(Calendar.MONTH) + 1);
+    }
+
+    /**
+     * Get the beginning of the month of the given date
+     * @param date  the date
+     * @return the first millisecond of the month
+     */
+    public static Calendar getMonthStart(Date date) {
+        Calendar month = Calendar.getInstance();
+        month.setTime(date);
+        month.set(Calendar.DAY_OF_MONTH, 1);
+        month.set(Calendar.HOUR_OF_DAY, 0);
+        month.set(Calendar.MINUTE, 0);
+        month.set(Calendar.SECOND, 0);
+        month.set(Calendar.MILLISECOND, 0);
+        return month;
+    }
+
+    /**
+     * Get the number of the months whose partitions are created ahead of time
+     * @return the number of months. The default value is 3.
+     */
+    public static int getMonthsAhead() {
+        int months = DEFAULT_MONTHS_AHEAD;
+        try {
+            months = Integer.parseInt(PropertyService.getProperty("database.accessLog.partitionMonthsAhead"));
+        } catch (Exception e) {
+            logMetacat.debug("AccessLogPartitionManager.getMonthsAhead - use the default value " + DEFAULT_MONTHS_AHEAD 
+                              + " since " + e.getMessage());
+        }
+        return months;
+    }
+}
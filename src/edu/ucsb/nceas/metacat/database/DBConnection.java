@@ -33,6 +33,7 @@ import java.sql.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
 
@@ -56,11 +57,16 @@ public class DBConnection
                                      //for a connection
   private SQLWarning warningMessage;
   private String checkOutMethodName;
+  private PreparedStatementCache statementCache;
   
   private static String  DBDriver;
   private static String  DBConnectedJDBC;
   private static String  userName;
   private static String  passWord;
+  private static int statementCacheSize = 50;
+  private static final String STATEMENT_CACHE_HITS = "db.statementCache.hits";
+  private static final String STATEMENT_CACHE_MISSES = "db.statementCache.misses";
+  private static final String STATEMENT_CACHE_REPLANS = "db.statementCache.replans";
   
   private static Log logMetacat = LogFactory.getLog(DBConnection.class);
 
@@ -79,6 +85,12 @@ public class DBConnection
 		System.err.println("Could not get property in static block: "
 			+ pnfe.getMessage());
 	}
+	try {
+		statementCacheSize = Integer.parseInt(PropertyService.getProperty("database.statementCacheSize"));
+	} catch (Exception e) {
+		logMetacat.debug("DBConnection.DBConnection - use the default statement cache size " 
+			+ statementCacheSize + " since " + e.getMessage());
+	}
 	  
     conn = openConnection();
     if(conn == null)
@@ -95,6 +107,7 @@ public class DBConnection
     checkOutSerialNumber=0;
     warningMessage = null;
     checkOutMethodName = null;
+    statementCache = newStatementCache(conn);
     
   }
   
@@ -114,7 +127,9 @@ public class DBConnection
    */
   public void setConnections( Connection myConnection)
   {
+    clearStatementCache();
     this.conn = myConnection;
+    statementCache = newStatementCache(myConnection);
   }
 
   /**
@@ -325,6 +340,8 @@ public class DBConnection
    */
   public void close() throws SQLException
   {
+    clearStatementCache();
+    statementCache = null;
     conn.close();
     tag = null;
     status = 0;
@@ -406,9 +423,92 @@ public class DBConnection
    */
   public PreparedStatement prepareStatement( String sql ) throws SQLException
   {
+    if (statementCache != null) {
+      return statementCache.prepareStatement(sql);
+    }
     return conn.prepareStatement(sql);
   }//prepareStatement
   
+  /**
+   * Get the number of the prepared statements which were reused from the statement
+   * cache of this connection
+   */
+  public long getStatementCacheHitCount()
+  {
+    return statementCache == null ? 0 : statementCache.getHits();
+  }
+  
+  /**
+   * Get the number of the prepared statements which had to be prepared on this connection
+   */
+  public long getStatementCacheMissCount()
+  {
+    return statementCache == null ? 0 : statementCache.getMisses();
+  }
+  
+  /**
+   * Get the number of the prepared statements which were reused from the statement
+   * caches of all connections. It is published as the db.statementCache.hits metric.
+   */
+  public static long getStatementCacheHits()
+  {
+    return MetacatMetrics.counter(STATEMENT_CACHE_HITS).getCount();
+  }
+  
+  /**
+   * Get the number of the prepared statements which had to be prepared on all connections.
+   * It is published as the db.statementCache.misses metric.
+   */
+  public static long getStatementCacheMisses()
+  {
+    return MetacatMetrics.counter(STATEMENT_CACHE_MISSES).getCount();
+  }
+  
+  /*
+   * Count a prepared statement which was reused
+   */
+  static void countStatementCacheHit()
+  {
+    MetacatMetrics.counter(STATEMENT_CACHE_HITS).inc();
+  }
+  
+  /*
+   * Count a prepared statement which had to be prepared
+   */
+  static void countStatementCacheMiss()
+  {
+    MetacatMetrics.counter(STATEMENT_CACHE_MISSES).inc();
+  }
+  
+  /*
+   * Count a cached statement which was prepared again since its plan went stale
+   */
+  static void countStatementCacheReplan()
+  {
+    MetacatMetrics.counter(STATEMENT_CACHE_REPLANS).inc();
+  }
+  
+  /*
+   * Create the statement cache of a connection. It is null if the cache is turned off.
+   */
+  private static PreparedStatementCache newStatementCache(Connection connection)
+  {
+    if (connection == null || statementCacheSize <= 0) {
+      return null;
+    }
+    return new PreparedStatementCache(connection, statementCacheSize);
+  }
+  
+  /*
+   * Close the cached statements of the current connection
+   */
+  private void clearStatementCache()
+  {
+    if (statementCache != null) {
+      statementCache.clear();
+    }
+  }
+  
   
   /**
    * Method to create a Statement
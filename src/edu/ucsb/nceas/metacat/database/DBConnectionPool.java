@@ -28,11 +28,15 @@
 package edu.ucsb.nceas.metacat.database;
 
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.codahale.metrics.Gauge;
+
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
 
@@ -154,6 +158,7 @@ public class DBConnectionPool implements Runnable
   {
     connectionPool = new Vector<DBConnection>();
     initialDBConnectionPool();
+    registerGauges();
     //running the thread to recycle DBConnection
     if (DBCONNECTIONRECYCLETHREAD.equals("on"))
     {
@@ -162,6 +167,31 @@ public class DBConnectionPool implements Runnable
     }
   }//DBConnection
 
+  /*
+   * Publish the size of the pool and the numbers of the free and busy connections
+   */
+  private static void registerGauges()
+  {
+    MetacatMetrics.registerGauge("db.pool.size", new Gauge<Integer>() {
+      public Integer getValue()
+      {
+        return connectionPool.size();
+      }
+    });
+    MetacatMetrics.registerGauge("db.pool.free", new Gauge<Integer>() {
+      public Integer getValue()
+      {
+        return getFreeDBConnectionNumber();
+      }
+    });
+    MetacatMetrics.registerGauge("db.pool.busy", new Gauge<Integer>() {
+      public Integer getValue()
+      {
+        return connectionPool.size() - getFreeDBConnectionNumber();
+      }
+    });
+  }
+
   /**
    * Method to get the size of DBConnectionPool
    */
@@ -329,6 +359,7 @@ public class DBConnectionPool implements Runnable
     		" open db connections is reached. New db connection to MetaCat" +
        		" cannot be established.");
        _countOfReachMaximum ++;
+       MetacatMetrics.counter("db.pool.exhausted").inc();
        if (_countOfReachMaximum >= 10)
        {
          _countOfReachMaximum =0;
@@ -448,6 +479,7 @@ public class DBConnectionPool implements Runnable
         //count connection time
         dbConn.setConnectionTime
                           (System.currentTimeMillis()-dbConn.getCheckOutTime());
+        MetacatMetrics.timer("db.pool.holdTime").update(dbConn.getConnectionTime(), TimeUnit.MILLISECONDS);
                           
         //set check out time to 0
         dbConn.setCheckOutTime(0);
@@ -759,6 +791,8 @@ public class DBConnectionPool implements Runnable
      usedConnectionCount = connectionPoolSize - freeConnectionSize;
 
      printBusyDBConnections(usedConnectionCount);
+     logMetacat.debug("DBConnectionPool.shrinkDBConnectionPoolSize - Prepared statement cache hits: " +
+             DBConnection.getStatementCacheHits() + " misses: " + DBConnection.getStatementCacheMisses());
      
      if(freeConnectionSize < connectionPoolSize){
          logMetacat.info("DBConnectionPool.shrinkDBConnectionPoolSize - " + usedConnectionCount + " connection(s) " +
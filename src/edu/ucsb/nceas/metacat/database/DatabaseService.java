@@ -26,6 +26,8 @@
 
 package edu.ucsb.nceas.metacat.database;
 
+import java.sql.SQLException;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -98,6 +100,24 @@ public class DatabaseService extends BaseService {
 		return object;
 	}
 	
+	/**
+	 * Check that the database server supports the sql which Metacat runs, so an old
+	 * server fails at the start with a clear message instead of with sql errors later.
+	 * 
+	 * @throws SQLException if the server is too old
+	 */
+	public void checkServerVersion() throws SQLException {
+		DBConnection dbConn = null;
+		int serialNumber = -1;
+		try {
+			dbConn = DBConnectionPool.getDBConnection("DatabaseService.checkServerVersion");
+			serialNumber = dbConn.getCheckOutSerialNumber();
+			dbAdapter.checkServerVersion(dbConn.getConnections());
+		} finally {
+			DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+		}
+	}
+	
 	/**
 	 * gets the database adapter
 	 * 
@@ -0,0 +1,433 @@
+/**
+ *  '$RCSfile$'
+ *    Purpose: A least recently used cache of the prepared statements of one
+ *    database connection.
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.ucsb.nceas.metacat.database;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A least recently used cache of the PreparedStatements of one DBConnection, keyed by
+ * the sql text. Reusing the same statement object lets the jdbc driver switch to a named
+ * server-side statement, so the query is only parsed and planned once per connection.
+ *
+ * The callers keep calling close() on the statements when they are done, as they always
+ * did. The statement handed out is a proxy whose close() only resets the statement and
+ * gives it back to the cache. A statement is never handed out twice at the same time: if
+ * the cached one is still in use (e.g. the same query nested in a loop over its own
+ * result set), a plain uncached statement is prepared instead.
+ *
+ * A cached plan goes stale when a table it reads is altered, and PostgreSQL then fails the
+ * statement with "cached plan must not change result type". Outside of a transaction the
+ * statement is prepared again and executed once more with the same parameters; inside a
+ * transaction, which the error has aborted, it is dropped from the cache and the error is
+ * thrown, so the next checkout prepares a fresh one.
+ *
+ * The cache belongs to a single DBConnection, which is only used by the thread that
+ * checked it out, but the methods are synchronized anyway since the pool may close the
+ * connection from its recycle thread.
+ */
+class PreparedStatementCache
+{
+  private static Log logMetacat = LogFactory.getLog(PreparedStatementCache.class);
+  private static final String STALE_PLAN = "cached plan must not change result type";
+
+  private Connection conn;
+  private int maxSize;
+  private long hits = 0;
+  private long misses = 0;
+  private LinkedHashMap<String, CachedStatement> statements;
+
+  /**
+   * Constructor
+   * @param conn  the connection which prepares the statements
+   * @param maxSize  the maximum number of the cached statements
+   */
+  PreparedStatementCache(Connection conn, int maxSize)
+  {
+    this.conn = conn;
+    this.maxSize = maxSize;
+    //access order makes the first entry the least recently used one
+    this.statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest)
+      {
+        if (size() > PreparedStatementCache.this.maxSize) {
+          evict(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get a prepared statement for the given sql from the cache, or prepare a new one.
+   * @param sql  the sql statement
+   * @return the prepared statement. Callers must close it when they are done.
+   * @throws SQLException
+   */
+  synchronized PreparedStatement prepareStatement(String sql) throws SQLException
+  {
+    CachedStatement cached = statements.get(sql);
+    if (cached != null && !cached.inUse) {
+      if (!isPhysicallyClosed(cached.statement)) {
+        hits++;
+        DBConnection.countStatementCacheHit();
+        cached.inUse = true;
+        return cached.newHandle();
+      }
+      statements.remove(sql);
+      cached = null;
+    }
+    misses++;
+    DBConnection.countStatementCacheMiss();
+    PreparedStatement statement = conn.prepareStatement(sql);
+    if (cached != null) {
+      //the cached one is still in use, so this one can't be shared
+      return statement;
+    }
+    cached = new CachedStatement(sql, statement);
+    cached.inUse = true;
+    statements.put(sql, cached);
+    return cached.newHandle();
+  }
+
+  /**
+   * Close all of the cached statements and empty the cache. The statements which are in
+   * use are closed when their callers close them.
+   */
+  synchronized void clear()
+  {
+    List<CachedStatement> all = new ArrayList<CachedStatement>(statements.values());
+    statements.clear();
+    for (CachedStatement cached : all) {
+      evict(cached);
+    }
+  }
+
+  /**
+   * Get the number of the statements which were taken from the cache
+   */
+  synchronized long getHits()
+  {
+    return hits;
+  }
+
+  /**
+   * Get the number of the statements which had to be prepared
+   */
+  synchronized long getMisses()
+  {
+    return misses;
+  }
+
+  /**
+   * Get the number of the cached statements
+   */
+  synchronized int size()
+  {
+    return statements.size();
+  }
+
+  /*
+   * A statement leaves the cache. It is closed now if nobody uses it, otherwise when
+   * the caller closes it.
+   */
+  private void evict(CachedStatement cached)
+  {
+    cached.evicted = true;
+    if (!cached.inUse) {
+      closeQuietly(cached.statement);
+    }
+  }
+
+  /*
+   * A caller closed its handle of a statement.
+   */
+  private synchronized void release(CachedStatement cached)
+  {
+    cached.inUse = false;
+    if (cached.evicted) {
+      closeQuietly(cached.statement);
+      return;
+    }
+    try {
+      //don't let the settings of one caller leak into the next one
+      cached.statement.clearParameters();
+      cached.statement.clearBatch();
+      cached.statement.clearWarnings();
+      cached.statement.setFetchSize(0);
+      cached.statement.setMaxRows(0);
+      cached.statement.setQueryTimeout(0);
+    } catch (SQLException e) {
+      logMetacat.warn("PreparedStatementCache.release - couldn't reset the statement, so it is removed from the cache: "
+                       + e.getMessage());
+      remove(cached);
+    }
+  }
+
+  /*
+   * Take a statement out of the cache, e.g. when the caller asked it to close on completion.
+   */
+  private synchronized void remove(CachedStatement cached)
+  {
+    if (statements.get(cached.sql) == cached) {
+      statements.remove(cached.sql);
+    }
+    evict(cached);
+  }
+
+  /*
+   * Prepare a statement again after its cached plan went stale. The old one is closed.
+   */
+  private synchronized void replan(CachedStatement cached) throws SQLException
+  {
+    PreparedStatement fresh = conn.prepareStatement(cached.sql);
+    closeQuietly(cached.statement);
+    cached.statement = fresh;
+    DBConnection.countStatementCacheReplan();
+  }
+
+  /*
+   * Check if the driver has closed the statement, e.g. since the connection was closed
+   */
+  private static boolean isPhysicallyClosed(PreparedStatement statement)
+  {
+    try {
+      return statement.isClosed();
+    } catch (SQLException e) {
+      return true;
+    }
+  }
+
+  /*
+   * Close a statement and only log the failure
+   */
+  private static void closeQuietly(PreparedStatement statement)
+  {
+    try {
+      statement.close();
+    } catch (SQLException e) {
+      logMetacat.debug("PreparedStatementCache.closeQuietly - " + e.getMessage());
+    }
+  }
+
+  /*
+   * A cached statement and its state
+   */
+  private class CachedStatement
+  {
+    private String sql;
+    private PreparedStatement statement;
+    private boolean inUse = false;
+    private boolean evicted = false;
+
+    private CachedStatement(String sql, PreparedStatement statement)
+    {
+      this.sql = sql;
+      this.statement = statement;
+    }
+
+    /*
+     * Create a new handle which is given to the caller. Every checkout gets its own
+     * handle, so a caller who closes its statement twice can't release it for another one.
+     */
+    private PreparedStatement newHandle()
+    {
+      return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                   new Class<?>[] {PreparedStatement.class}, new Handle(this));
+    }
+  }
+
+  /*
+   * The handle of a cached statement. It passes all calls to the statement, except
+   * that close() gives the statement back to the cache. It remembers the parameters and
+   * settings of the caller, so a statement whose plan went stale can be executed again.
+   */
+  private class Handle implements InvocationHandler
+  {
+    private CachedStatement cached;
+    private boolean closed = false;
+    private boolean batched = false;
+    private Map<Integer, Call> parameters = new LinkedHashMap<Integer, Call>();
+    private Map<String, Call> settings = new LinkedHashMap<String, Call>();
+
+    private Handle(CachedStatement cached)
+    {
+      this.cached = cached;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+      String name = method.getName();
+      if (name.equals("equals") && args != null && args.length == 1) {
+        return proxy == args[0];
+      } else if (name.equals("hashCode") && args == null) {
+        return System.identityHashCode(proxy);
+      } else if (name.equals("toString") && args == null) {
+        return "Cached " + cached.statement.toString();
+      } else if (name.equals("isClosed") && args == null) {
+        return closed;
+      } else if (name.equals("close") && args == null) {
+        if (!closed) {
+          closed = true;
+          ResultSet resultSet = null;
+          try {
+            resultSet = cached.statement.getResultSet();
+          } catch (SQLException e) {
+            //nothing is open
+          }
+          if (resultSet != null) {
+            try {
+              resultSet.close();
+            } catch (SQLException e) {
+              logMetacat.debug("PreparedStatementCache.Handle.invoke - " + e.getMessage());
+            }
+          }
+          release(cached);
+        }
+        return null;
+      }
+      if (closed) {
+        throw new SQLException("The statement has been closed");
+      }
+      if (name.equals("closeOnCompletion")) {
+        //the driver would close it behind our back
+        remove(cached);
+      }
+      Object result;
+      try {
+        result = method.invoke(cached.statement, args);
+      } catch (InvocationTargetException e) {
+        if (name.startsWith("execute") && isStalePlan(e.getCause())) {
+          return retry(method, args, (SQLException) e.getCause());
+        }
+        throw e.getCause();
+      }
+      record(name, method, args);
+      return result;
+    }
+
+    /*
+     * Remember the parameters and settings which have to be replayed on a fresh statement
+     */
+    private void record(String name, Method method, Object[] args)
+    {
+      if (name.equals("clearParameters")) {
+        parameters.clear();
+      } else if (name.equals("addBatch")) {
+        batched = true;
+      } else if (name.equals("clearBatch")) {
+        batched = false;
+      } else if (name.startsWith("set") && args != null && args.length > 0) {
+        if (args.length > 1 && args[0] instanceof Integer) {
+          parameters.put((Integer) args[0], new Call(method, args));
+        } else {
+          settings.put(name, new Call(method, args));
+        }
+      }
+    }
+
+    /*
+     * Prepare the statement again and execute it once more. It is only done outside of a
+     * transaction and when the parameters can be set again, e.g. aren't streams which were
+     * already read. Otherwise the statement leaves the cache and the error is thrown.
+     */
+    private Object retry(Method method, Object[] args, SQLException error) throws Throwable
+    {
+      if (batched || !conn.getAutoCommit() || hasStreamParameter()) {
+        logMetacat.warn("PreparedStatementCache.Handle.retry - the plan of the statement went stale and "
+                         + "it can't be executed again, so it is removed from the cache: " + cached.sql);
+        remove(cached);
+        throw error;
+      }
+      logMetacat.warn("PreparedStatementCache.Handle.retry - the plan of the statement went stale, "
+                       + "so it is prepared again: " + cached.sql);
+      replan(cached);
+      try {
+        for (Call call : settings.values()) {
+          call.method.invoke(cached.statement, call.args);
+        }
+        for (Call call : parameters.values()) {
+          call.method.invoke(cached.statement, call.args);
+        }
+        return method.invoke(cached.statement, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    private boolean hasStreamParameter()
+    {
+      for (Call call : parameters.values()) {
+        for (Object arg : call.args) {
+          if (arg instanceof InputStream || arg instanceof Reader) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  /*
+   * Check if the error is the one PostgreSQL throws when a cached plan went stale
+   */
+  private static boolean isStalePlan(Throwable error)
+  {
+    return error instanceof SQLException && error.getMessage() != null
+           && error.getMessage().contains(STALE_PLAN);
+  }
+
+  /*
+   * A method called on a statement and its arguments
+   */
+  private static class Call
+  {
+    private Method method;
+    private Object[] args;
+
+    private Call(Method method, Object[] args)
+    {
+      this.method = method;
+      this.args = args;
+    }
+  }
+}
@@ -0,0 +1,454 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.BaseException;
+import org.dataone.service.exceptions.IdentifierNotUnique;
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.exceptions.InvalidSystemMetadata;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v2.SystemMetadata;
+import org.dataone.service.types.v2.TypeFactory;
+
+import edu.ucsb.nceas.metacat.IdentifierManager;
+import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
+import edu.ucsb.nceas.metacat.doi.DOIServiceFactory;
+import edu.ucsb.nceas.metacat.index.MetacatSolrIndex;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.restservice.multipart.CheckedFile;
+import edu.ucsb.nceas.metacat.restservice.multipart.DetailedFileInputStream;
+import edu.ucsb.nceas.metacat.restservice.multipart.StreamingMultipartRequestResolver;
+
+/**
+ * Creates (or updates) many objects of one request. A single create saves the system metadata
+ * in its own transaction, writes the file and queues its own index task. A batch instead
+ * 1. validates all of the objects before anything is saved,
+ * 2. saves the system metadata of the new objects in one transaction (one by one if the transaction fails),
+ * 3. writes the object files in parallel and
+ * 4. queues the index tasks of the new objects together, the resource maps after the objects they aggregate.
+ * Each object succeeds or fails on its own and the result of every object is reported. An object
+ * whose DOI couldn't be registered is still created and indexed, and the failure is reported as a warning.
+ * The objects obsoleting an existing one go through MNodeService.update one after another in the
+ * order of the request, since an update depends on the state of the object it obsoletes.
+ */
+public class BatchIngester {
+    public static final String STATUS_CREATED = "created";
+    public static final String STATUS_UPDATED = "updated";
+    public static final String STATUS_FAILED = "failed";
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_MAX_OBJECTS = 10000;
+    private static Log logMetacat = LogFactory.getLog(BatchIngester.class);
+    private static ExecutorService executor = null;
+
+    private HttpServletRequest request = null;
+    private Session session = null;
+    private String ipAddress = null;
+    private String userAgent = null;
+    private List<BatchItem> items = new ArrayList<BatchItem>();
+
+    /**
+     * An object of a batch and its result
+     */
+    public static class BatchItem {
+        private String key = null;
+        private SystemMetadata sysmeta = null;
+        private File file = null;
+        private String status = null;
+        private BaseException error = null;
+        private BaseException warning = null;
+
+        BatchItem(String key, SystemMetadata sysmeta, File file) {
+            this.key = key;
+            this.sysmeta = sysmeta;
+            this.file = file;
+        }
+
+        /**
+         * Get the key of the object in the request
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the identifier of the object
+         * @return the identifier or null if the system metadata doesn't have it
+         */
+        public String getPid() {
+            if (sysmeta != null && sysmeta.getIdentifier() != null) {
+                return sysmeta.getIdentifier().getValue();
+            }
+            return null;
+        }
+
+        /**
+         * Get the status of the object
+         * @return created, updated or failed
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the reason why the object failed
+         * @return the exception or null if the object succeeded
+         */
+        public BaseException getError() {
+            return error;
+        }
+
+        /**
+         * Get the problem of an object which was created anyway, such as a failed DOI registration
+         * @return the exception or null if there was no problem
+         */
+        public BaseException getWarning() {
+            return warning;
+        }
+
+        /*
+         * If the object obsoletes an existing one
+         */
+        private boolean isUpdate() {
+            return sysmeta.getObsoletes() != null && sysmeta.getObsoletes().getValue() != null
+                    && !sysmeta.getObsoletes().getValue().trim().equals("");
+        }
+
+        private void fail(BaseException e) {
+            status = STATUS_FAILED;
+            error = e;
+        }
+    }
+
+    /**
+     * Constructor
+     * @param request  the request of the batch
+     * @param session  the session of the submitter
+     * @param ipAddress  the ip address of the client
+     * @param userAgent  the user agent of the client
+     */
+    public BatchIngester(HttpServletRequest request, Session session, String ipAddress, String userAgent) {
+        this.request = request;
+        this.session = session;
+        this.ipAddress = ipAddress;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * Add an object to the batch. The object fails if its system metadata or its bytes are missing.
+     * @param key  the key of the object in the request
+     * @param sysmeta  the system metadata of the object (v1 or v2)
+     * @param file  the file of the object bytes
+     * @return the item of the object
+     */
+    public BatchItem add(String key, org.dataone.service.types.v1.SystemMetadata sysmeta, File file) {
+        BatchItem item = new BatchItem(key, null, file);
+        items.add(item);
+        if (sysmeta == null) {
+            item.fail(new InvalidRequest("1102", "The part sysmeta." + key + " must contain the system metadata document."));
+            return item;
+        } else if (sysmeta instanceof SystemMetadata) {
+            item.sysmeta = (SystemMetadata) sysmeta;
+        } else {
+            try {
+                item.sysmeta = TypeFactory.convertTypeFromType(sysmeta, SystemMetadata.class);
+            } catch (Exception e) {
+                item.fail(new InvalidSystemMetadata("1180", "Couldn't read the system metadata of " + key + " since " + e.getMessage()));
+                return item;
+            }
+        }
+        if (file == null) {
+            item.fail(new InvalidRequest("1102", "The part object." + key + " must contain the object bytes."));
+        }
+        return item;
+    }
+
+    /**
+     * Create or update the objects of the batch
+     * @return the items of the objects with their results in the order they were added
+     * @throws InvalidRequest  if the batch carries more objects than dataone.batch.maxObjects
+     */
+    public List<BatchItem> ingest() throws InvalidRequest {
+        int maxObjects = getIntProperty("dataone.batch.maxObjects", DEFAULT_MAX_OBJECTS);
+        if (items.size() > maxObjects) {
+            throw new InvalidRequest("1102", "The batch has " + items.size() + " objects, but it can't have more than " + maxObjects);
+        }
+        long start = System.currentTimeMillis();
+        MNodeService service = MNodeService.getInstance(request, ipAddress, userAgent);
+        List<BatchItem> creates = new ArrayList<BatchItem>();
+        List<BatchItem> updates = new ArrayList<BatchItem>();
+        validate(service, creates, updates);
+        saveSystemMetadata(creates);
+        storeObjects(creates);
+        update(service, updates);
+
+        List<SystemMetadata> created = new ArrayList<SystemMetadata>();
+        for (BatchItem item : creates) {
+            if (STATUS_CREATED.equals(item.status)) {
+                created.add(item.sysmeta);
+            }
+        }
+        MetacatSolrIndex.getInstance().submitAll(created);
+        logMetacat.info("BatchIngester.ingest - created " + created.size() + " and updated " + updates.size()
+                        + " of " + items.size() + " objects in " + (System.currentTimeMillis() - start) + " ms");
+        return items;
+    }
+
+    /*
+     * Check all of the objects before anything is saved and sort them into the creates and the updates
+     */
+    private void validate(MNodeService service, List<BatchItem> creates, List<BatchItem> updates) {
+        Set<String> pids = new HashSet<String>();
+        // prepareCreate only finds the series ids in the database, not the ones of this batch
+        Set<String> sids = new HashSet<String>();
+        for (BatchItem item : items) {
+            if (item.status != null) {
+                continue;
+            }
+            try {
+                Identifier pid = item.sysmeta.getIdentifier();
+                if (pid == null || pid.getValue() == null || pid.getValue().trim().equals("")) {
+                    throw new InvalidSystemMetadata("1180", "The system metadata of " + item.key + " must have an identifier.");
+                }
+                if (!pids.add(pid.getValue())) {
+                    throw new IdentifierNotUnique("1120", "The identifier " + pid.getValue() + " is used by more than one object of the batch.");
+                }
+                if (item.isUpdate()) {
+                    updates.add(item);
+                    continue;
+                }
+                checkChecksum(item);
+                service.prepareCreate(session, pid, item.sysmeta);
+                service.checkCreate(session, pid, item.sysmeta);
+                Identifier sid = item.sysmeta.getSeriesId();
+                if (sid != null && sid.getValue() != null && !sids.add(sid.getValue())) {
+                    throw new InvalidSystemMetadata("1180", "The series identifier " + sid.getValue()
+                                                    + " is used by more than one new object of the batch.");
+                }
+                creates.add(item);
+            } catch (BaseException e) {
+                logMetacat.debug("BatchIngester.validate - the object " + item.key + " is invalid: " + e.getDescription());
+                item.fail(e);
+            }
+        }
+    }
+
+    /*
+     * Compare the checksum calculated while the object was streamed with the one in the system metadata
+     */
+    private void checkChecksum(BatchItem item) throws InvalidSystemMetadata {
+        Checksum expected = item.sysmeta.getChecksum();
+        if (!(item.file instanceof CheckedFile) || expected == null) {
+            return;
+        }
+        Checksum actual = ((CheckedFile) item.file).getChecksum();
+        if (actual != null && actual.getAlgorithm() != null && actual.getAlgorithm().equalsIgnoreCase(expected.getAlgorithm())
+                && actual.getValue() != null && !actual.getValue().equalsIgnoreCase(expected.getValue())) {
+            throw new InvalidSystemMetadata("1180", "The checksum " + actual.getValue() + " of the object " + item.getPid()
+                                            + " doesn't match the one in its system metadata " + expected.getValue());
+        }
+    }
+
+    /*
+     * Save the system metadata of the new objects in one transaction and put them into the shared map
+     * without writing them again. If the transaction fails, the system metadata are saved one by one,
+     * so only the objects whose own system metadata can't be saved fail.
+     */
+    private void saveSystemMetadata(List<BatchItem> creates) {
+        if (creates.isEmpty()) {
+            return;
+        }
+        List<SystemMetadata> sysmetas = new ArrayList<SystemMetadata>();
+        for (BatchItem item : creates) {
+            sysmetas.add(item.sysmeta);
+        }
+        try {
+            IdentifierManager.getInstance().insertOrUpdateSystemMetadata(sysmetas);
+        } catch (SQLException e) {
+            logMetacat.warn("BatchIngester.saveSystemMetadata - couldn't save the system metadata of the batch in one transaction,"
+                            + " so they are saved one by one: " + e.getMessage());
+            for (BatchItem item : creates) {
+                try {
+                    IdentifierManager.getInstance().insertOrUpdateSystemMetadata(item.sysmeta);
+                } catch (Exception ee) {
+                    logMetacat.error("BatchIngester.saveSystemMetadata - couldn't save the system metadata of " + item.getPid(), ee);
+                    item.fail(new ServiceFailure("1190", "There was problem to save the system metadata: " + item.getPid() + " since " + ee.getMessage()));
+                }
+            }
+        }
+        for (BatchItem item : creates) {
+            if (item.status == null) {
+                HazelcastService.getInstance().getSystemMetadataMap().putTransient(item.sysmeta.getIdentifier(), item.sysmeta, 0, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    /*
+     * Write the files of the new objects whose system metadata was saved in parallel
+     */
+    private void storeObjects(List<BatchItem> creates) {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<BatchItem> stored = new ArrayList<BatchItem>();
+        for (final BatchItem item : creates) {
+            if (item.status != null) {
+                continue;
+            }
+            stored.add(item);
+            futures.add(getExecutor().submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    storeObject(item);
+                    return null;
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            BatchItem item = stored.get(i);
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                item.fail(new ServiceFailure("1190", "The Node was interrupted while creating the object " + item.getPid()));
+            } catch (ExecutionException e) {
+                item.fail(new ServiceFailure("1190", "The Node is unable to create the object " + item.getPid()
+                                             + " since " + e.getCause().getMessage()));
+            }
+        }
+    }
+
+    /*
+     * Write the file of a new object and register its DOI
+     */
+    private void storeObject(BatchItem item) {
+        MNodeService service = MNodeService.getInstance(request, ipAddress, userAgent);
+        Identifier pid = item.sysmeta.getIdentifier();
+        DetailedFileInputStream object = null;
+        try {
+            Checksum checksum = null;
+            if (item.file instanceof CheckedFile) {
+                checksum = ((CheckedFile) item.file).getChecksum();
+            }
+            object = new DetailedFileInputStream(item.file, checksum);
+            service.storeObject(session, pid, object, item.sysmeta);
+            item.status = STATUS_CREATED;
+        } catch (BaseException e) {
+            item.fail(e);
+            return;
+        } catch (Exception e) {
+            item.fail(new ServiceFailure("1190", "The Node is unable to create the object " + pid.getValue() + " since " + e.getMessage()));
+            return;
+        } finally {
+            if (object != null) {
+                try {
+                    object.close();
+                } catch (Exception e) {
+                    logMetacat.warn("BatchIngester.storeObject - couldn't close the file of " + pid.getValue() + " since " + e.getMessage());
+                }
+            }
+            StreamingMultipartRequestResolver.deleteTempFile(item.file);
+        }
+        try {
+            registerDOI(item.sysmeta);
+        } catch (Exception e) {
+            //the object is stored, so it stays created
+            logMetacat.warn("BatchIngester.storeObject - created the object " + pid.getValue() + ", but couldn't register its DOI", e);
+            ServiceFailure sf = new ServiceFailure("1190", "Could not register DOI: " + e.getMessage());
+            sf.initCause(e);
+            item.warning = sf;
+        }
+    }
+
+    /**
+     * Register the DOI of a new object
+     * @param sysmeta  the system metadata of the object
+     * @throws Exception
+     */
+    protected void registerDOI(SystemMetadata sysmeta) throws Exception {
+        DOIServiceFactory.getDOIService().registerDOI(sysmeta);
+    }
+
+    /*
+     * Update the objects one after another in the order of the batch
+     */
+    private void update(MNodeService service, List<BatchItem> updates) {
+        for (BatchItem item : updates) {
+            DetailedFileInputStream object = null;
+            try {
+                Checksum checksum = null;
+                if (item.file instanceof CheckedFile) {
+                    checksum = ((CheckedFile) item.file).getChecksum();
+                }
+                object = new DetailedFileInputStream(item.file, checksum);
+                service.update(session, item.sysmeta.getObsoletes(), object, item.sysmeta.getIdentifier(), item.sysmeta);
+                item.status = STATUS_UPDATED;
+            } catch (BaseException e) {
+                item.fail(e);
+            } catch (Exception e) {
+                item.fail(new ServiceFailure("1310", "The Node is unable to update the object " + item.getPid() + " since " + e.getMessage()));
+            } finally {
+                if (object != null) {
+                    try {
+                        object.close();
+                    } catch (Exception e) {
+                        logMetacat.warn("BatchIngester.update - couldn't close the file of " + item.getPid() + " since " + e.getMessage());
+                    }
+                }
+                StreamingMultipartRequestResolver.deleteTempFile(item.file);
+            }
+        }
+    }
+
+    /*
+     * Get the shared executor writing the files of the batches
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getIntProperty("dataone.batch.threads", DEFAULT_THREADS));
+        }
+        return executor;
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(PropertyService.getProperty(name));
+        } catch (Exception e) {
+            logMetacat.debug("BatchIngester.getIntProperty - use the default value " + defaultValue + " for " + name);
+            return defaultValue;
+        }
+    }
+}
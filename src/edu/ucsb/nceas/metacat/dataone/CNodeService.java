@@ -44,7 +44,6 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dataone.client.v2.CNode;
-import org.dataone.client.v2.MNode;
 import org.dataone.client.v2.itk.D1Client;
 import org.dataone.exceptions.MarshallingException;
 import org.dataone.service.cn.v2.CNAuthorization;
@@ -2128,82 +2127,20 @@ public class CNodeService extends D1NodeService implements CNAuthorization,
 	}
 
   /**
-   * Notify replica Member Nodes of system metadata changes for a given pid
+   * Notify replica Member Nodes of system metadata changes for a given pid.
+   * The notifications are queued and sent in the background by the ReplicaNotificationQueue,
+   * so a slow or unreachable node doesn't hold up the call.
    * 
    * @param currentSystemMetadata - the up to date system metadata
    */
   public void notifyReplicaNodes(SystemMetadata currentSystemMetadata) {
-      
-      Session session = null;
-      List<Replica> replicaList = currentSystemMetadata.getReplicaList();
-      //MNode mn = null;
-      NodeReference replicaNodeRef = null;
-      CNode cn = null;
-      NodeType nodeType = null;
-      List<Node> nodeList = null;
-      
       try {
-          nodeList = getCNNodeList().getNodeList();
-          
-      } catch (Exception e) { // handle BaseException and other I/O issues
-          
+          ReplicaNotificationQueue.getInstance().enqueue(currentSystemMetadata);
+      } catch (Exception e) {
           // swallow errors since the call is not critical
-          logMetacat.error("Can't inform MNs of system metadata changes due " +
-              "to communication issues with the CN: " + e.getMessage());
-          
-      }
-      
-      if ( replicaList != null ) {
-          
-          // iterate through the replicas and inform  MN replica nodes
-          for (Replica replica : replicaList) {
-              String replicationVersion = null;
-              replicaNodeRef = replica.getReplicaMemberNode();
-              try {
-                  if (nodeList != null) {
-                      // find the node type
-                      for (Node node : nodeList) {
-                          if ( node.getIdentifier().getValue().equals(replicaNodeRef.getValue()) ) {
-                              nodeType = node.getType();
-                              D1NodeVersionChecker checker = new D1NodeVersionChecker(replicaNodeRef);
-                              replicationVersion = checker.getVersion("MNRead");
-                              break;
-              
-                          }
-                      }
-                  }
-              
-                  // notify only MNs
-                  if (replicationVersion != null && nodeType != null && nodeType == NodeType.MN) {
-                      if(replicationVersion.equalsIgnoreCase(D1NodeVersionChecker.V2)) {
-                          //connect to a v2 mn
-                          MNode mn = D1Client.getMN(replicaNodeRef);
-                          mn.systemMetadataChanged(session, 
-                              currentSystemMetadata.getIdentifier(), 
-                              currentSystemMetadata.getSerialVersion().longValue(),
-                              currentSystemMetadata.getDateSysMetadataModified());
-                      } else if (replicationVersion.equalsIgnoreCase(D1NodeVersionChecker.V1)) {
-                          //connect to a v1 mn
-                          org.dataone.client.v1.MNode mn = org.dataone.client.v1.itk.D1Client.getMN(replicaNodeRef);
-                          mn.systemMetadataChanged(session, 
-                                  currentSystemMetadata.getIdentifier(), 
-                                  currentSystemMetadata.getSerialVersion().longValue(),
-                                  currentSystemMetadata.getDateSysMetadataModified());
-                      }
-                      
-                  }
-              
-              } catch (Exception e) { // handle BaseException and other I/O issues
-              
-                  // swallow errors since the call is not critical
-                  logMetacat.error("Can't inform "
-                          + replicaNodeRef.getValue()
-                          + " of system metadata changes due "
-                          + "to communication issues with the CN: "
-                          + e.getMessage());
-              
-              }
-          }
+          logMetacat.error("Can't queue the notifications of the system metadata changes of "
+                  + currentSystemMetadata.getIdentifier().getValue() + " to the replica nodes: "
+                  + e.getMessage(), e);
       }
   }
   
@@ -23,15 +23,13 @@
 
 package edu.ucsb.nceas.metacat.dataone;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.math.BigInteger;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
@@ -54,6 +52,7 @@ import java.util.concurrent.locks.Lock;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.DatatypeConverter;
+import javax.xml.transform.TransformerException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -112,7 +111,7 @@ import edu.ucsb.nceas.metacat.IdentifierManager;
 import edu.ucsb.nceas.metacat.McdbDocNotFoundException;
 import edu.ucsb.nceas.metacat.MetacatHandler;
 import edu.ucsb.nceas.metacat.client.InsufficientKarmaException;
-import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeByteArrayInputStream;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
@@ -123,9 +122,11 @@ import edu.ucsb.nceas.metacat.object.handler.NonXMLMetadataHandlers;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.properties.SkinPropertyService;
 import edu.ucsb.nceas.metacat.replication.ForceReplicationHandler;
+import edu.ucsb.nceas.metacat.restservice.multipart.CheckedFile;
 import edu.ucsb.nceas.metacat.restservice.multipart.DetailedFileInputStream;
 import edu.ucsb.nceas.metacat.restservice.multipart.StreamingMultipartRequestResolver;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.AuthUtil;
 import edu.ucsb.nceas.metacat.util.SkinUtil;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -411,8 +412,45 @@ public abstract class D1NodeService {
     NotImplemented, InvalidRequest {
 
     Identifier resultPid = null;
-    String localId = null;
+    checkCreate(session, pid, sysmeta);
+
+    // save the sysmeta
+    try {
+        // lock and unlock of the pid happens in the subclass
+        HazelcastService.getInstance().getSystemMetadataMap().put(sysmeta.getIdentifier(), sysmeta);
+
+    } catch (Exception e) {
+        logMetacat.error("D1Node.create - There was problem to save the system metadata: " + pid.getValue(), e);
+        throw new ServiceFailure("1190", "There was problem to save the system metadata: " + pid.getValue()+" since "+e.getMessage());
+    }
+    storeObject(session, pid, object, sysmeta);
     
+    try {
+        // submit for indexing
+        MetacatSolrIndex.getInstance().submit(sysmeta.getIdentifier(), sysmeta, null, true);
+    } catch (Exception e) {
+        logMetacat.warn("Couldn't create solr index for object "+pid.getValue());
+    }
+
+    resultPid = pid;
+    
+    logMetacat.info("create() complete for object: " + pid.getValue());
+
+    return resultPid;
+  }
+  
+  /**
+   * Check the session, the identifier and the checksum of a new object before
+   * its system metadata is saved
+   * @param session  the session of the creator
+   * @param pid  the identifier of the new object
+   * @param sysmeta  the system metadata of the new object
+   * @throws InvalidToken
+   * @throws NotAuthorized
+   * @throws InvalidSystemMetadata
+   */
+  protected void checkCreate(Session session, Identifier pid, SystemMetadata sysmeta) 
+          throws InvalidToken, NotAuthorized, InvalidSystemMetadata {
     // check for null session
     if (session == null) {
         throw new InvalidToken("4894", "Session is required to WRITE to the Node.");
@@ -445,17 +483,23 @@ public abstract class D1NodeService {
         logMetacat.error("D1NodeService.create - the checksum object from the system metadata shouldn't be null for the object "+pid.getValue());
         throw new InvalidSystemMetadata("1180", "The checksum object from the system metadata shouldn't be null.");
     } 
-    
-
-    // save the sysmeta
-    try {
-        // lock and unlock of the pid happens in the subclass
-        HazelcastService.getInstance().getSystemMetadataMap().put(sysmeta.getIdentifier(), sysmeta);
-
-    } catch (Exception e) {
-        logMetacat.error("D1Node.create - There was problem to save the system metadata: " + pid.getValue(), e);
-        throw new ServiceFailure("1190", "There was problem to save the system metadata: " + pid.getValue()+" since "+e.getMessage());
-    }
+  }
+  
+  /**
+   * Store the bytes of a new object whose system metadata has been saved. The system metadata
+   * and the identifier mapping are removed again if it fails.
+   * @param session  the session of the creator
+   * @param pid  the identifier of the new object
+   * @param object  the bytes of the object
+   * @param sysmeta  the system metadata of the object
+   * @throws ServiceFailure
+   * @throws InvalidSystemMetadata
+   * @throws NotAuthorized
+   * @throws InvalidRequest
+   */
+  protected void storeObject(Session session, Identifier pid, InputStream object, SystemMetadata sysmeta) 
+          throws ServiceFailure, InvalidSystemMetadata, NotAuthorized, InvalidRequest {
+    String localId = null;
     boolean isScienceMetadata = false;
       // Science metadata (XML) or science data object?
       // TODO: there are cases where certain object formats are science metadata
@@ -481,7 +525,7 @@ public abstract class D1NodeService {
 	            if(sysmeta.getFormatId() != null)  {
 	                formatId = sysmeta.getFormatId().getValue();
 	            }
-	            localId = insertOrUpdateDocument(object,"UTF-8", pid, session, "insert", formatId, sysmeta.getChecksum());
+	            localId = insertOrUpdateDocument(object, pid, session, "insert", formatId, sysmeta.getChecksum());
 	        }
         } catch (IOException e) {
             removeSystemMetaAndIdentifier(pid);
@@ -546,20 +590,6 @@ public abstract class D1NodeService {
         removeSystemMetaAndIdentifier(pid);
         throw new ServiceFailure("1190", "The Node is unable to create the object. "+pid.getValue() + " since "+e.getMessage());
     }
-
-    
-    try {
-        // submit for indexing
-        MetacatSolrIndex.getInstance().submit(sysmeta.getIdentifier(), sysmeta, null, true);
-    } catch (Exception e) {
-        logMetacat.warn("Couldn't create solr index for object "+pid.getValue());
-    }
-
-    resultPid = pid;
-    
-    logMetacat.info("create() complete for object: " + pid.getValue());
-
-    return resultPid;
   }
   
   
@@ -682,7 +712,6 @@ public abstract class D1NodeService {
           // "Only the CN or admin is allowed to harvest logs from this node";
 	  
     Log log = new Log();
-    IdentifierManager im = IdentifierManager.getInstance();
     EventLog el = EventLog.getInstance();
     if ( fromDate == null ) {
       logMetacat.debug("setting fromdate from null");
@@ -706,25 +735,9 @@ public abstract class D1NodeService {
     	count = MAXIMUM_DB_RECORD_COUNT;
     }
 
-    String[] filterDocid = null;
-    if (pidFilter != null && !pidFilter.trim().equals("")) {
-        //check if the given identifier is a sid. If it is sid, choose the current pid of the sid.
-        Identifier pid = new Identifier();
-        pid.setValue(pidFilter);
-        String serviceFailureCode = "1490";
-        Identifier headPid = getPIDForSID(pid,serviceFailureCode);
-        if (headPid != null) {
-            pidFilter = headPid.getValue();  // replaces the identifier value
-        } 
-		try {
-	      String localId = im.getLocalId(pidFilter);
-	      filterDocid = new String[] {localId};
-	    } catch (Exception ex) { 
-	    	String msg = "Could not find localId for given pidFilter '" + pidFilter + "'";
-	        logMetacat.warn(msg, ex);
-	        //throw new InvalidRequest("1480", msg);
-	        return log; //return 0 record
-	    }
+    String[] filterDocid = getLogDocidFilter(pidFilter);
+    if (filterDocid != null && filterDocid.length == 0) {
+        return log; //return 0 record
     }
     
     logMetacat.debug("fromDate: " + fromDate);
@@ -737,6 +750,91 @@ public abstract class D1NodeService {
     logMetacat.info("getLogRecords");
     return log;
   }
+
+  /**
+   * Write the log records matching the calling parameters to the given writer
+   * with keyset paging. This is a Metacat extension of getLogRecords for the log
+   * harvesters: rather than a start index, the caller passes the opaque 
+   * continuation token returned with the previous page. Only admin users may access.
+   * 
+   * @param session - the Session object containing the credentials for the Subject
+   * @param fromDate - the start time to include log records (>=)
+   * @param toDate - the end time to include log records (<)
+   * @param event - restrict the log records to the given event
+   * @param pidFilter - restrict the log records to the given pid or sid
+   * @param continuationToken - the token of the previous page. Null or blank for the first page.
+   * @param count - maximum number of log records to return in the response
+   * @param writer - the writer which the log records are written to
+   * 
+   * @return the continuation token for the next page, or null if it is the last page
+   * 
+   * @throws InvalidToken
+   * @throws ServiceFailure
+   * @throws NotAuthorized
+   * @throws InvalidRequest
+   * @throws NotImplemented
+   */
+  public String getLogRecords(Session session, Date fromDate, Date toDate, String event, String pidFilter, 
+          String continuationToken, Integer count, LogStreamWriter writer) throws InvalidToken, ServiceFailure,
+      NotAuthorized, InvalidRequest, NotImplemented {
+      D1AuthHelper authDel = new D1AuthHelper(request,null, "1460", "1490");
+      authDel.doAdminAuthorization(session);
+      
+      LogRecordsToken after = LogRecordsToken.decode(continuationToken);
+      long afterEntryId = after == null ? -1 : after.getEntryId();
+      if ( fromDate == null ) {
+          fromDate = new Date(1);
+      }
+      if ( toDate == null ) {
+          toDate = new Date();
+      }
+      // safeguard against large requests
+      if (count == null || count > MAXIMUM_DB_RECORD_COUNT) {
+          count = MAXIMUM_DB_RECORD_COUNT;
+      }
+      String[] filterDocid = getLogDocidFilter(pidFilter);
+      if (filterDocid != null && filterDocid.length == 0) {
+          return null; //return 0 record
+      }
+      long last = -1;
+      try {
+          last = EventLog.getInstance().streamD1Report(null, null, filterDocid, event,
+                  new java.sql.Timestamp(fromDate.getTime()), new java.sql.Timestamp(toDate.getTime()), 
+                  false, afterEntryId, count, writer);
+      } catch (Exception e) {
+          throw new ServiceFailure("1490", "Error querying the log records: " + e.getMessage());
+      }
+      return last < 0 ? null : new LogRecordsToken(last).encode();
+  }
+
+  /*
+   * Get the docid filter of the log records from the given pid or sid filter. 
+   * Null will be returned if there is no filter; an empty array will be returned
+   * if the filter matches no object.
+   */
+  private String[] getLogDocidFilter(String pidFilter) throws ServiceFailure {
+      String[] filterDocid = null;
+      if (pidFilter != null && !pidFilter.trim().equals("")) {
+          //check if the given identifier is a sid. If it is sid, choose the current pid of the sid.
+          Identifier pid = new Identifier();
+          pid.setValue(pidFilter);
+          String serviceFailureCode = "1490";
+          Identifier headPid = getPIDForSID(pid,serviceFailureCode);
+          if (headPid != null) {
+              pidFilter = headPid.getValue();  // replaces the identifier value
+          } 
+          try {
+              String localId = IdentifierManager.getInstance().getLocalId(pidFilter);
+              filterDocid = new String[] {localId};
+          } catch (Exception ex) { 
+              String msg = "Could not find localId for given pidFilter '" + pidFilter + "'";
+              logMetacat.warn(msg, ex);
+              //throw new InvalidRequest("1480", msg);
+              filterDocid = new String[0];
+          }
+      }
+      return filterDocid;
+  }
     
   /**
    * Return the object identified by the given object identifier
@@ -1028,15 +1126,16 @@ public abstract class D1NodeService {
   
   
   /**
-   * Insert or update an XML document into Metacat
+   * Insert or update an XML document into Metacat. The document is parsed with the encoding
+   * given by its byte order mark or xml declaration (UTF-8 if it has neither).
    * 
-   * @param xml - the XML document to insert or update
+   * @param xmlStream - the XML document to insert or update
    * @param pid - the identifier to be used for the resulting object
    * 
    * @return localId - the resulting docid of the document created or updated
    * 
    */
-  public String insertOrUpdateDocument(InputStream xmlStream, String encoding,  Identifier pid, 
+  public String insertOrUpdateDocument(InputStream xmlStream, Identifier pid, 
     Session session, String insertOrUpdate, String formatId, Checksum checksum) 
     throws ServiceFailure, IOException, PropertyNotFoundException, InvalidSystemMetadata{
     
@@ -1084,14 +1183,18 @@ public abstract class D1NodeService {
             logMetacat.info("D1NodeService.insertOrUpdateDocument - mark the temp file to be deleted on exist.");
             //tempFile.deleteOnExit(); //since we will write bytes from the stream to the disk in this case, the temp file can be deleted when the programm ends. 
             StreamingMultipartRequestResolver.deleteTempFile(tempFile);
-            tempFile = null; //tempFile being null implicitly means that Metacat will write the bytes to the final destination.
+            tempFile = null; //the stream will be spooled into a new file below.
         }
     }
+    if (tempFile == null) {
+        // spool the object to disk once while computing its checksum. The document is sniffed, 
+        // parsed and moved to its permanent location from this file, so it is never held in memory.
+        tempFile = spoolToCheckedFile(xmlStream, pid, checksumValue, algorithm);
+    } else {
+        IOUtils.closeQuietly(xmlStream);
+    }
     // generate pid/localId pair for sysmeta
     String localId = null;
-    byte[] xmlBytes  = IOUtils.toByteArray(xmlStream);
-    IOUtils.closeQuietly(xmlStream);
-    String xmlStr = new String(xmlBytes, encoding);
     if(insertOrUpdate.equals("insert")) {
       localId = im.generateLocalId(pid.getValue(), 1);
       
@@ -1114,12 +1217,14 @@ public abstract class D1NodeService {
         logMetacat.debug("incremented localId: " + localId);
       
       } catch(McdbDocNotFoundException e) {
+        StreamingMultipartRequestResolver.deleteTempFile(tempFile);
         throw new ServiceFailure("1030", "D1NodeService.insertOrUpdateDocument(): " +
             "pid " + pid.getValue() + 
             " should have been in the identifier table, but it wasn't: " + 
             e.getMessage());
       
       } catch (SQLException e) {
+          StreamingMultipartRequestResolver.deleteTempFile(tempFile);
           throw new ServiceFailure("1030", "D1NodeService.insertOrUpdateDocument() -"+
                      " couldn't identify if the pid "+pid.getValue()+" is in the identifier table since "+e.getMessage());
       }
@@ -1133,9 +1238,6 @@ public abstract class D1NodeService {
     String[] docid = new String[1];
     docid[0] = localId;
     params.put("docid", docid);
-    String[] doctext = new String[1];
-    doctext[0] = xmlStr;
-    params.put("doctext", doctext);
     
     String username = Constants.SUBJECT_PUBLIC;
     String[] groupnames = null;
@@ -1160,16 +1262,20 @@ public abstract class D1NodeService {
     if (userAgent == null) {
         userAgent = request.getHeader("User-Agent");
     }
-    long start = System.currentTimeMillis();
+    long start = System.nanoTime();
     String result = handler.handleInsertOrUpdateAction(ipAddress, userAgent, null, 
-                        null, params, username, groupnames, false, false, xmlBytes, formatId, checksum,tempFile);
-    long end = System.currentTimeMillis();
-    logMetacat.info(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
+                        null, params, username, groupnames, false, false, null, formatId, checksum,tempFile);
+    long duration = MetacatMetrics.stopTimer("d1.write.metadata", start);
+    if (tempFile.exists()) {
+        // the document was moved to its permanent location unless something went wrong
+        StreamingMultipartRequestResolver.deleteTempFile(tempFile);
+    }
+    logMetacat.debug(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
             pid.getValue() + 
             edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + 
             " Parse and write the metadata object into database (if the multiparts handler hasn't calculated the checksum, it will write the content to the disk again)" + 
             edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_DURATION + 
-            (end-start)/1000);
+            duration + " ms");
     boolean isScienceMetadata = true;
     if(result.indexOf("<error>") != -1 || !IdentifierManager.getInstance().objectFileExists(localId, isScienceMetadata)) {
     	String detailCode = "";
@@ -1190,6 +1296,38 @@ public abstract class D1NodeService {
     return localId;
   }
   
+  /*
+   * Write a metadata object into a temporary file and check it against the checksum from
+   * the system metadata.
+   */
+  private File spoolToCheckedFile(InputStream xmlStream, Identifier pid, String checksumValue, String algorithm) 
+                                   throws ServiceFailure, InvalidSystemMetadata, IOException {
+      File spooled = null;
+      try {
+          File tempDir = new File(PropertyService.getProperty("application.tempDir"));
+          tempDir.mkdirs();
+          spooled = File.createTempFile("metadata-" + System.currentTimeMillis(), null, tempDir);
+          CheckedFile checkedFile = StreamingMultipartRequestResolver.writeStreamToCheckedFile(spooled, xmlStream, 
+                                                                                                 algorithm, pid.getValue());
+          String localChecksum = checkedFile.getChecksum().getValue();
+          if (!localChecksum.equalsIgnoreCase(checksumValue)) {
+              logMetacat.error("D1NodeService.spoolToCheckedFile - the check sum calculated from the saved local file is " + localChecksum + 
+                                   ". But it doesn't match the value from the system metadata " + checksumValue + " for the object " + pid.getValue());
+              StreamingMultipartRequestResolver.deleteTempFile(spooled);
+              throw new InvalidSystemMetadata("1180", "The checksum calculated from the saved local file is " + localChecksum + 
+                                   ". But it doesn't match the value from the system metadata " + checksumValue + ".");
+          }
+          return spooled;
+      } catch (NoSuchAlgorithmException e) {
+          StreamingMultipartRequestResolver.deleteTempFile(spooled);
+          throw new InvalidSystemMetadata("1180", "The algorithm " + algorithm + " to calculate the checksum is not supported: " + e.getMessage());
+      } catch (PropertyNotFoundException e) {
+          throw new ServiceFailure("1190", "D1NodeService.spoolToCheckedFile - couldn't find the temporary directory: " + e.getMessage());
+      } finally {
+          IOUtils.closeQuietly(xmlStream);
+      }
+  }
+  
   /**
    * Insert a data object into Metacat
    * @param object  the input stream of the object will be inserted
@@ -1228,6 +1366,7 @@ public abstract class D1NodeService {
    */
   protected String insertDataObject(InputStream object, Identifier pid, Session session, Checksum checksum, EventLogData event) 
                    throws ServiceFailure, InvalidSystemMetadata, NotAuthorized {
+      // the object is only staged here, insertObject moves it into the object store
       String dataFilePath = null;
       try {
           dataFilePath = PropertyService.getProperty("application.datafilepath");
@@ -1301,6 +1440,15 @@ public abstract class D1NodeService {
               File dataDirectory = new File(fileDirectory);
               dataDirectory.mkdirs();
               File newFile = writeStreamToFile(dataDirectory, localId, object, checksum, pid);
+              if (docType != null && docType.equals(DocumentImpl.BIN)) {
+                  // hand the data file over to the object store before it is registered
+                  try {
+                      newFile = ObjectStore.getInstance().put(localId, pid, newFile, checksum);
+                  } catch (IOException e) {
+                      logMetacat.error("D1NodeService.insertObject - couldn't put the data object " + pid.getValue() + " into the object store: " + e.getMessage(), e);
+                      throw new ServiceFailure("1190", "The object " + pid.getValue() + " couldn't be put into the object store: " + e.getMessage());
+                  }
+              }
       
               // TODO: Check that the file size matches SystemMetadata
           // long size = newFile.length();
@@ -1361,7 +1509,7 @@ public abstract class D1NodeService {
         throw ise;
     }
     return localId;
-  }
+  }
 
   /**
    * Insert a systemMetadata document and return its localId
@@ -1431,6 +1579,52 @@ public abstract class D1NodeService {
       return objectList;
   }
 
+  /**
+   * Write the list of objects matching the calling parameters to the given writer
+   * with keyset paging. This is a Metacat extension of listObjects for harvesters
+   * which page through many objects: rather than a start index, the caller passes 
+   * the opaque continuation token returned with the previous page.
+   * 
+   * @param session - the Session object containing the credentials for the Subject
+   * @param startTime - Specifies the beginning of the time range from which 
+   *                    to return object (>=)
+   * @param endTime - Specifies the end of the time range from which 
+   *                  to return object (<)
+   * @param objectFormatId - Restrict results to the specified object format
+   * @param identifier - Restrict results to the specified pid or sid
+   * @param nodeId - Restrict results to the specified authoritative member node
+   * @param continuationToken - the token of the previous page. Null or blank for the first page.
+   * @param count - The maximum number of entries that should be returned in 
+   *                the response.
+   * @param writer - the writer which the object list is written to
+   * 
+   * @return the continuation token for the next page, or null if it is the last page
+   * 
+   * @throws InvalidRequest
+   * @throws ServiceFailure
+   */
+  public String listObjects(Session session, Date startTime, Date endTime, ObjectFormatIdentifier objectFormatId, 
+          Identifier identifier, NodeReference nodeId, String continuationToken, Integer count, 
+          ObjectListStreamWriter writer) throws InvalidRequest, ServiceFailure {
+      ListObjectsToken after = ListObjectsToken.decode(continuationToken);
+      ListObjectsToken next = null;
+      try {
+          // safeguard against large requests
+          if (count == null || count > MAXIMUM_DB_RECORD_COUNT) {
+              count = MAXIMUM_DB_RECORD_COUNT;
+          }
+          boolean isSid = false;
+          if(identifier != null) {
+              isSid = IdentifierManager.getInstance().systemMetadataSIDExists(identifier);
+          }
+          next = IdentifierManager.getInstance().listSystemMetadata(startTime, endTime, objectFormatId, nodeId, 
+                                                                      identifier, isSid, after, count, writer);
+      } catch (Exception e) {
+          throw new ServiceFailure("1580", "Error querying system metadata: " + e.getMessage());
+      }
+      return next == null ? null : next.encode();
+  }
+
 
   /**
    * Update a systemMetadata document
@@ -1865,7 +2059,7 @@ public abstract class D1NodeService {
                       logMetacat.error("D1NodeService.writeStreamToFile - the algorithm to calculate the checksum from the system metadata shouldn't be null or blank for the data object "+pid.getValue());
                       throw new InvalidSystemMetadata("1180", "The algorithm to calculate the checksum from the system metadata shouldn't be null or blank.");
                   }
-                long start = System.currentTimeMillis();
+                long start = System.nanoTime();
                 //if the input stream is an object DetailedFileInputStream, it means this object already has the checksum information.
                 if (dataStream instanceof DetailedFileInputStream ) {
                     DetailedFileInputStream stream = (DetailedFileInputStream) dataStream;
@@ -1878,14 +2072,14 @@ public abstract class D1NodeService {
                             //The algorithm is the same and the checksum is same, we just need to move the file from the temporary location (serialized by the multiple parts handler)  to the permanent location
                             if (expectedChecksumValue != null && expectedChecksumValue.equalsIgnoreCase(checksumValue)) {
                                 FileUtils.moveFile(tempFile, newFile);
-                                long end = System.currentTimeMillis();
+                                long duration = MetacatMetrics.stopTimer("d1.write.data.move", start);
                                 logMetacat.info("D1NodeService.writeStreamToFile - Metacat only needs the move the data file from temporary location to the permanent location for the object " + pid.getValue());
-                                logMetacat.info(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
+                                logMetacat.debug(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
                                         pid.getValue() + 
                                         edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + 
                                         " Only move the data file from the temporary location to the permanent location since the multiparts handler has calculated the checksum" + 
                                         edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_DURATION + 
-                                        (end-start)/1000);
+                                        duration + " ms");
                                 return newFile;
                             } else {
                                 logMetacat.error("D1NodeService.writeStreamToFile - the check sum calculated from the saved local file is " + expectedChecksumValue + 
@@ -1913,12 +2107,13 @@ public abstract class D1NodeService {
                     logMetacat.info("delete the file "+newFile.getAbsolutePath()+" for the object "+pid.getValue()+" sucessfully?"+success);
                     throw new InvalidSystemMetadata("1180", "The checksum calculated from the saved local file is "+localChecksum+ ". But it doesn't match the value from the system metadata "+checksumValue+".");
                 }
-                long end = System.currentTimeMillis();
-                logMetacat.info(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
+                long duration = MetacatMetrics.stopTimer("d1.write.data.copy", start);
+                MetacatMetrics.histogram("d1.write.data.bytes").update(length);
+                logMetacat.debug(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
                         pid.getValue() + edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + 
                         " Need to read the data file from the temporary location and write it to the permanent location since the multiparts handler has NOT calculated the checksum" + 
                         edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_DURATION + 
-                        (end-start)/1000);
+                        duration + " ms");
                 if(tempFile != null) {
                     //tempFile.deleteOnExit();
                     StreamingMultipartRequestResolver.deleteTempFile(tempFile);
@@ -2370,6 +2565,8 @@ public abstract class D1NodeService {
       String notFoundCode = "2835";
       String invalidRequestCode = "2833";
       boolean needDeleteInfo = false;
+      // a rendering which starts before the object changes mustn't be cached after the change
+      long viewGeneration = ViewCache.getInstance().getGeneration();
       //SystemMetadata sysmeta = getSeriesHead(pid, serviceFailureCode, notFoundCode,invalidRequestCode);
       Identifier HeadOfSid = getPIDForSID(id, serviceFailureCode);
       if(HeadOfSid != null) {
@@ -2386,13 +2583,18 @@ public abstract class D1NodeService {
           // can only transform metadata, really
           ObjectFormat objectFormat = ObjectFormatCache.getInstance().getFormat(sysmeta.getFormatId());
           if (objectFormat.getFormatType().equals("METADATA")) {
+              // the access was checked by the get() call, so a cached rendering can be served
+              String key = ViewCache.getKey(id.getValue(), format, DBTransform.getStylesheetVersion());
+              resultInputStream = ViewCache.getInstance().get(key);
+              if (resultInputStream != null) {
+                  logMetacat.debug("D1NodeService.view - serve the cached view " + format + " of " + id.getValue());
+                  IOUtils.closeQuietly(object);
+                  return resultInputStream;
+              }
               // transform
               DBTransform transformer = new DBTransform();
-              String documentContent = IOUtils.toString(object, "UTF-8");
               String sourceType = objectFormat.getFormatId().getValue();
               String targetType = "-//W3C//HTML//EN";
-              ByteArrayOutputStream baos = new ByteArrayOutputStream();
-              Writer writer = new OutputStreamWriter(baos , "UTF-8");
               // TODO: include more params?
               Hashtable<String, String[]> params = new Hashtable<String, String[]>();
               String localId = null;
@@ -2405,19 +2607,38 @@ public abstract class D1NodeService {
               params.put("docid", new String[] {localId});
               params.put("pid", new String[] {id.getValue()});
               addParamsFromSkinProperties(params, format);//add more params from the skin properties file 
-              transformer.transformXMLDocument(
-                      documentContent , 
-                      sourceType, 
-                      targetType , 
-                      format, 
-                      writer, 
-                      params, 
-                      null //sessionid
-                      );
+              // stream the document through the transformer into a file rather than memory
+              File rendered = ViewCache.getInstance().newRenderFile();
+              OutputStream out = null;
+              boolean success = false;
+              try {
+                  out = new BufferedOutputStream(new FileOutputStream(rendered));
+                  transformer.transformXMLDocument(
+                          object, 
+                          sourceType, 
+                          targetType , 
+                          format, 
+                          out, 
+                          params, 
+                          null //sessionid
+                          );
+                  out.close();
+                  success = true;
+              } catch (TransformerException e) {
+                  ServiceFailure sf = new ServiceFailure("1030", "Error transforming the document " + id.getValue() 
+                                                          + " in the view method: " + e.getMessage());
+                  sf.initCause(e);
+                  throw sf;
+              } finally {
+                  IOUtils.closeQuietly(out);
+                  IOUtils.closeQuietly(object);
+                  if (!success && !rendered.delete()) {
+                      logMetacat.warn("D1NodeService.view - couldn't delete the file " + rendered);
+                  }
+              }
               
               // finally, get the HTML back
-              resultInputStream = new ContentTypeByteArrayInputStream(baos.toByteArray());
-              ((ContentTypeByteArrayInputStream) resultInputStream).setContentType("text/html");
+              resultInputStream = ViewCache.getInstance().put(key, id.getValue(), rendered, "text/html", viewGeneration);
   
           } else {
               // just return the raw bytes
@@ -90,24 +90,37 @@ public class D1NodeVersionChecker {
                     }
                 }
             }
-            if(node != null) {
-                Services services = node.getServices();
-                if(services != null) {
-                   
-                   List<Service> list = services.getServiceList();
-                   if(list != null) {
-                       for(Service service : list) {
-                           if(service != null && service.getName() != null && service.getName().equals(serviceName) && 
-                                   service.getVersion() != null && service.getVersion().equalsIgnoreCase(HIGHESTVERSION) && service.getAvailable() == true ) {
-                               version = HIGHESTVERSION;
-                               break;
-                           }  else if(service != null && service.getName() != null && service.getName().equals(serviceName) && 
-                                   service.getVersion() != null && service.getVersion().equalsIgnoreCase(SECONDHIGHESTVERSION) && service.getAvailable() == true ) {
-                               version = SECONDHIGHESTVERSION;
-                           } 
-                       }
+            version = getVersion(node, serviceName);
+        }
+        return version;
+    }
+    
+    /**
+     * Get the version of the service name from the capabilities of a node, e.g. a node
+     * of a node list which has been fetched already.
+     * @param node  the node. It can be null.
+     * @param serviceName
+     * @return the highest available version of the service, or null if the node doesn't have it
+     */
+    public static String getVersion(Node node, String serviceName) {
+        String version = null;
+        if(node != null && serviceName != null) {
+            Services services = node.getServices();
+            if(services != null) {
+               
+               List<Service> list = services.getServiceList();
+               if(list != null) {
+                   for(Service service : list) {
+                       if(service != null && service.getName() != null && service.getName().equals(serviceName) && 
+                               service.getVersion() != null && service.getVersion().equalsIgnoreCase(HIGHESTVERSION) && service.getAvailable() == true ) {
+                           version = HIGHESTVERSION;
+                           break;
+                       }  else if(service != null && service.getName() != null && service.getName().equals(serviceName) && 
+                               service.getVersion() != null && service.getVersion().equalsIgnoreCase(SECONDHIGHESTVERSION) && service.getAvailable() == true ) {
+                           version = SECONDHIGHESTVERSION;
+                       } 
                    }
-                }
+               }
             }
         }
         return version;
@@ -0,0 +1,123 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+import org.dataone.service.exceptions.InvalidRequest;
+
+/**
+ * An opaque continuation token for the keyset paging of listObjects. The token
+ * remembers the (date_modified, guid) pair of the last object on a page, so the
+ * next page starts with an index range scan right after it instead of skipping
+ * "start" rows. It also carries the position of the next page, which is the
+ * start reported in its ObjectList. The value is a url-safe base64 string of
+ * "position:milliseconds:nanoseconds:guid". The objects without a modification
+ * date come first; their tokens have empty milliseconds and nanoseconds.
+ */
+public class ListObjectsToken {
+    private static final String SEPARATOR = ":";
+    private Timestamp dateModified = null;
+    private String guid = null;
+    private long position = 0;
+
+    /**
+     * Constructor
+     * @param dateModified  the modification date of the last object on the page. It can be null.
+     * @param guid  the identifier of the last object on the page
+     * @param position  the number of the objects listed before the next page
+     */
+    public ListObjectsToken(Timestamp dateModified, String guid, long position) {
+        this.dateModified = dateModified;
+        this.guid = guid;
+        this.position = position;
+    }
+
+    /**
+     * Get the modification date of the last object on the previous page
+     * @return the modification date, or null if the object doesn't have one
+     */
+    public Timestamp getDateModified() {
+        return dateModified;
+    }
+
+    /**
+     * Get the identifier of the last object on the previous page
+     * @return the identifier
+     */
+    public String getGuid() {
+        return guid;
+    }
+
+    /**
+     * Get the position of the next page in the whole list
+     * @return the number of the objects listed before the next page
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Encode the token to the opaque string handed to clients
+     * @return the encoded token
+     */
+    public String encode() {
+        String plain = position + SEPARATOR + (dateModified == null ? SEPARATOR + SEPARATOR + guid
+                       : dateModified.getTime() + SEPARATOR + dateModified.getNanos() + SEPARATOR + guid);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token from a client
+     * @param token  the encoded token
+     * @return the token object. Null will be returned if the token is null or blank,
+     *         which means the client asks for the first page.
+     * @throws InvalidRequest if the token can't be decoded
+     */
+    public static ListObjectsToken decode(String token) throws InvalidRequest {
+        if (token == null || token.trim().equals("")) {
+            return null;
+        }
+        try {
+            String plain = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            String[] parts = plain.split(SEPARATOR, 4);
+            if (parts.length != 4 || parts[3].equals("")) {
+                throw new IllegalArgumentException("it doesn't have four parts");
+            }
+            long position = Long.parseLong(parts[0]);
+            if (position < 0) {
+                throw new IllegalArgumentException("the position is negative");
+            }
+            if (parts[1].equals("") && parts[2].equals("")) {
+                return new ListObjectsToken(null, parts[3], position);
+            }
+            Timestamp dateModified = new Timestamp(Long.parseLong(parts[1]));
+            dateModified.setNanos(Integer.parseInt(parts[2]));
+            return new ListObjectsToken(dateModified, parts[3], position);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequest("1540", "The continuation token " + token + " is not valid since " + e.getMessage());
+        }
+    }
+}
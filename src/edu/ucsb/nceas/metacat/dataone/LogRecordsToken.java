@@ -0,0 +1,87 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.dataone.service.exceptions.InvalidRequest;
+
+/**
+ * An opaque continuation token for the keyset paging of getLogRecords. The token
+ * remembers the entryid of the last log entry on a page, so the next page starts
+ * with an index range scan right after it instead of skipping "start" rows. The
+ * value is a url-safe base64 string of "log:entryid", so clients can't mistake it
+ * for an entry id or build one themselves.
+ */
+public class LogRecordsToken {
+    private static final String PREFIX = "log:";
+    private long entryId = -1;
+
+    /**
+     * Constructor
+     * @param entryId  the entryid of the last log entry on the page
+     */
+    public LogRecordsToken(long entryId) {
+        this.entryId = entryId;
+    }
+
+    /**
+     * Get the entryid of the last log entry on the previous page
+     * @return the entryid
+     */
+    public long getEntryId() {
+        return entryId;
+    }
+
+    /**
+     * Encode the token to the opaque string handed to clients
+     * @return the encoded token
+     */
+    public String encode() {
+        String plain = PREFIX + entryId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a token from a client
+     * @param token  the encoded token
+     * @return the token object. Null will be returned if the token is null or blank,
+     *         which means the client asks for the first page.
+     * @throws InvalidRequest if the token can't be decoded
+     */
+    public static LogRecordsToken decode(String token) throws InvalidRequest {
+        if (token == null || token.trim().equals("")) {
+            return null;
+        }
+        try {
+            String plain = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            if (!plain.startsWith(PREFIX)) {
+                throw new IllegalArgumentException("it isn't a token of the log records");
+            }
+            return new LogRecordsToken(Long.parseLong(plain.substring(PREFIX.length())));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequest("1480", "The continuation token " + token + " is not valid since " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dataone.service.util.DateTimeMarshaller;
+
+/**
+ * Writes a DataONE (v2) Log document while the access_log rows are read from
+ * the database, instead of building LogEntry objects and marshalling the whole
+ * Log with JiBX at the end. It works the same way as the ObjectListStreamWriter:
+ * the logEntry elements are serialized as soon as they are added and kept as 
+ * compact UTF-8 bytes until the count is known.
+ */
+public class LogStreamWriter {
+    public static final String TYPES_V2_NAMESPACE = "http://ns.dataone.org/service/types/v2.0";
+    private static final String PREFIX = "ns3";
+    private static XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    private ByteArrayOutputStream logEntries = new ByteArrayOutputStream();
+    private XMLStreamWriter writer = null;
+    private int count = 0;
+    private int start = 0;
+    private long total = 0;
+
+    /**
+     * Constructor
+     * @throws XMLStreamException
+     */
+    public LogStreamWriter() throws XMLStreamException {
+        writer = outputFactory.createXMLStreamWriter(logEntries, "UTF-8");
+    }
+
+    /**
+     * Serialize a logEntry element
+     * @param entryId  the id of the log entry
+     * @param identifier  the identifier of the object
+     * @param ipAddress  the ip address of the client
+     * @param userAgent  the user agent of the client
+     * @param subject  the subject of the client
+     * @param event  the event
+     * @param dateLogged  the date when the event was logged. It can be null.
+     * @param nodeIdentifier  the id of this node
+     * @throws XMLStreamException
+     */
+    public void addLogEntry(String entryId, String identifier, String ipAddress, String userAgent, String subject,
+                              String event, Date dateLogged, String nodeIdentifier) throws XMLStreamException {
+        writer.writeStartElement("logEntry");
+        writeElement("entryId", entryId);
+        writeElement("identifier", identifier);
+        writeElement("ipAddress", ipAddress);
+        writeElement("userAgent", userAgent);
+        writeElement("subject", subject);
+        writeElement("event", event);
+        if (dateLogged != null) {
+            writeElement("dateLogged", DateTimeMarshaller.serializeDateToUTC(dateLogged));
+        }
+        writeElement("nodeIdentifier", nodeIdentifier);
+        writer.writeEndElement();
+        count++;
+    }
+
+    /*
+     * Write a simple element with text content
+     */
+    private void writeElement(String name, String value) throws XMLStreamException {
+        writer.writeStartElement(name);
+        if (value != null) {
+            writer.writeCharacters(value);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Set the start attribute of the log
+     * @param start  the start index
+     */
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Set the total attribute of the log
+     * @param total  the total number of the log entries matching the filter
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Get the number of the logEntry elements written so far
+     * @return the count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Write the complete Log document to the output stream.
+     * The output stream will not be closed.
+     * @param out  the destination of the document
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws XMLStreamException, IOException {
+        writer.flush();
+        writer.close();
+        StringBuilder head = new StringBuilder();
+        head.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        head.append("<").append(PREFIX).append(":log xmlns:").append(PREFIX).append("=\"")
+            .append(TYPES_V2_NAMESPACE).append("\" count=\"").append(count).append("\" start=\"")
+            .append(start).append("\" total=\"").append(total).append("\">");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        logEntries.writeTo(out);
+        out.write(("</" + PREFIX + ":log>").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
@@ -634,7 +634,7 @@ public class MNodeService extends D1NodeService
                         if(sysmeta.getFormatId() != null) {
                             formatId = sysmeta.getFormatId().getValue();
                         }
-                        localId = insertOrUpdateDocument(object, "UTF-8", pid, session, "update", formatId, sysmeta.getChecksum());
+                        localId = insertOrUpdateDocument(object, pid, session, "update", formatId, sysmeta.getChecksum());
                     }
                     // register the newPid and the generated localId
                     if (newPid != null) {
@@ -729,6 +729,41 @@ public class MNodeService extends D1NodeService
     public Identifier create(Session session, Identifier pid, InputStream object, SystemMetadata sysmeta) throws InvalidToken, ServiceFailure, NotAuthorized,
             IdentifierNotUnique, UnsupportedType, InsufficientResources, InvalidSystemMetadata, NotImplemented, InvalidRequest {
 
+        prepareCreate(session, pid, sysmeta);
+        // call the shared impl
+        Identifier resultPid = super.create(session, pid, object, sysmeta);
+        
+        // attempt to register the identifier - it checks if it is a doi
+        try {
+            DOIServiceFactory.getDOIService().registerDOI(sysmeta);
+		} catch (Exception e) {
+			ServiceFailure sf = new ServiceFailure("1190", "Could not register DOI: " + e.getMessage());
+			sf.initCause(e);
+            throw sf;
+		}
+        
+        // return 
+		return resultPid ;
+    }
+
+    /**
+     * Validate a new object and fill in the fields of its system metadata which the node sets
+     * (submitter, origin and authoritative member node, dates and serial version).
+     * It checks the identifiers, the access and the quota, but doesn't save anything.
+     * @param session  the session of the creator
+     * @param pid  the identifier of the new object
+     * @param sysmeta  the system metadata of the new object
+     * @throws InvalidToken
+     * @throws ServiceFailure
+     * @throws NotAuthorized
+     * @throws IdentifierNotUnique
+     * @throws InsufficientResources
+     * @throws InvalidSystemMetadata
+     * @throws NotImplemented
+     * @throws InvalidRequest
+     */
+    protected void prepareCreate(Session session, Identifier pid, SystemMetadata sysmeta) throws InvalidToken, ServiceFailure, NotAuthorized,
+            IdentifierNotUnique, InsufficientResources, InvalidSystemMetadata, NotImplemented, InvalidRequest {
         if(isReadOnlyMode()) {
             throw new ServiceFailure("1190", ReadOnlyChecker.DATAONEERROR);
         }
@@ -827,20 +862,6 @@ public class MNodeService extends D1NodeService
         } catch (NotFound e) {
             throw new InvalidRequest("1102", "Can't find the resource " + e.getMessage());
         }
-        // call the shared impl
-        Identifier resultPid = super.create(session, pid, object, sysmeta);
-        
-        // attempt to register the identifier - it checks if it is a doi
-        try {
-            DOIServiceFactory.getDOIService().registerDOI(sysmeta);
-		} catch (Exception e) {
-			ServiceFailure sf = new ServiceFailure("1190", "Could not register DOI: " + e.getMessage());
-			sf.initCause(e);
-            throw sf;
-		}
-        
-        // return 
-		return resultPid ;
     }
 
     /**
@@ -1265,6 +1286,45 @@ public class MNodeService extends D1NodeService
         return super.listObjects(session, startTime, endTime, objectFormatId, identifier, nodeId, start, count);
     }
 
+    /**
+     * Write the list of objects present on the MN that match the calling parameters
+     * to the writer with keyset paging. See D1NodeService.listObjects for the details.
+     * 
+     * @param session - the Session object containing the credentials for the Subject
+     * @param startTime - Specifies the beginning of the time range from which 
+     *                    to return object (>=)
+     * @param endTime - Specifies the end of the time range from which 
+     *                  to return object (<)
+     * @param objectFormatId - Restrict results to the specified object format
+     * @param identifier - Restrict results to the specified pid or sid
+     * @param replicaStatus - Indicates if replicated objects should be returned in the list
+     * @param continuationToken - the token of the previous page. Null or blank for the first page.
+     * @param count - The maximum number of entries that should be returned in 
+     *                the response.
+     * @param writer - the writer which the object list is written to
+     * 
+     * @return the continuation token for the next page, or null if it is the last page
+     * 
+     * @throws InvalidRequest
+     * @throws ServiceFailure
+     */
+    public String listObjects(Session session, Date startTime, Date endTime, ObjectFormatIdentifier objectFormatId, 
+            Identifier identifier, Boolean replicaStatus, String continuationToken, Integer count, 
+            ObjectListStreamWriter writer) throws InvalidRequest, ServiceFailure {
+        NodeReference nodeId = null;
+        if(replicaStatus != null && !replicaStatus) {
+            //not include those objects whose authoritative node is not this mn
+            nodeId = new NodeReference();
+            try {
+                String currentNodeId = PropertyService.getInstance().getProperty("dataone.nodeId"); // return only pids for which this mn
+                nodeId.setValue(currentNodeId);
+            } catch(Exception e) {
+                throw new ServiceFailure("1580", e.getMessage());
+            }
+        }
+        return super.listObjects(session, startTime, endTime, objectFormatId, identifier, nodeId, continuationToken, count, writer);
+    }
+
     /**
      * Return a description of the node's capabilities and services.
      * 
@@ -0,0 +1,106 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.TimeToLiveCache;
+
+/**
+ * A small time-to-live cache of the total counts of the listObjects and the
+ * getLogRecords queries, keyed by the filter (the count query plus its parameter
+ * values). Harvesters page through the same filter many times in a row, so the count query
+ * only runs once per filter per time-to-live period. The totals may be slightly
+ * stale, which is acceptable since they are only a hint for paging clients.
+ */
+public class ObjectCountCache {
+    private static final long DEFAULT_TTL = 60000; //one minute
+    private static final int DEFAULT_MAX_SIZE = 1000;
+    private static Log logMetacat = LogFactory.getLog(ObjectCountCache.class);
+    private static volatile ObjectCountCache cache = null;
+
+    private TimeToLiveCache<Long> counts = null;
+
+    /*
+     * Constructor. It reads the time to live and the maximum size from the properties.
+     */
+    private ObjectCountCache() {
+        long ttl = DEFAULT_TTL;
+        int maxSize = DEFAULT_MAX_SIZE;
+        try {
+            ttl = Long.parseLong(PropertyService.getProperty("dataone.listObjects.countCacheTTL"));
+        } catch (Exception e) {
+            logMetacat.debug("ObjectCountCache.ObjectCountCache - use the default ttl " + DEFAULT_TTL + " since " + e.getMessage());
+        }
+        try {
+            maxSize = Integer.parseInt(PropertyService.getProperty("dataone.listObjects.countCacheSize"));
+        } catch (Exception e) {
+            logMetacat.debug("ObjectCountCache.ObjectCountCache - use the default size " + DEFAULT_MAX_SIZE + " since " + e.getMessage());
+        }
+        counts = new TimeToLiveCache<Long>(ttl, maxSize);
+    }
+
+    /**
+     * Get the singleton instance of the cache
+     * @return the instance
+     */
+    public static ObjectCountCache getInstance() {
+        if (cache == null) {
+            synchronized (ObjectCountCache.class) {
+                if (cache == null) {
+                    cache = new ObjectCountCache();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the cached total for the given filter
+     * @param filterKey  the key identifying the filter
+     * @return the total, or -1 if it isn't cached or has expired
+     */
+    public long get(String filterKey) {
+        Long total = counts.get(filterKey);
+        return total == null ? -1 : total.longValue();
+    }
+
+    /**
+     * Put the total of the given filter into the cache
+     * @param filterKey  the key identifying the filter
+     * @param total  the total count of the filter
+     */
+    public void put(String filterKey, long total) {
+        counts.put(filterKey, Long.valueOf(total));
+    }
+
+    /**
+     * Remove all of the cached totals, e.g. when the exact totals are needed
+     * right away.
+     */
+    public void clear() {
+        counts.clear();
+    }
+}
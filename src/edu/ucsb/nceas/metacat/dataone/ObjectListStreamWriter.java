@@ -0,0 +1,147 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dataone.service.util.DateTimeMarshaller;
+
+/**
+ * Writes a DataONE ObjectList document while the rows are read from the
+ * database, instead of building ObjectInfo objects and marshalling the whole
+ * ObjectList with JiBX at the end. The objectInfo elements are serialized as
+ * soon as they are added. Since the count attribute of the root element is
+ * only known after the last row, the serialized elements are kept as compact
+ * UTF-8 bytes until writeTo is called.
+ */
+public class ObjectListStreamWriter {
+    public static final String TYPES_V1_NAMESPACE = "http://ns.dataone.org/service/types/v1";
+    private static final String PREFIX = "ns2";
+    private static XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    private ByteArrayOutputStream objectInfos = new ByteArrayOutputStream();
+    private XMLStreamWriter writer = null;
+    private int count = 0;
+    private int start = 0;
+    private long total = 0;
+
+    /**
+     * Constructor
+     * @throws XMLStreamException
+     */
+    public ObjectListStreamWriter() throws XMLStreamException {
+        writer = outputFactory.createXMLStreamWriter(objectInfos, "UTF-8");
+    }
+
+    /**
+     * Serialize an objectInfo element
+     * @param identifier  the identifier of the object
+     * @param formatId  the format id of the object
+     * @param checksum  the checksum value of the object
+     * @param checksumAlgorithm  the checksum algorithm
+     * @param dateModified  the modification date of the system metadata. It can be null.
+     * @param size  the size of the object
+     * @throws XMLStreamException
+     */
+    public void addObjectInfo(String identifier, String formatId, String checksum, String checksumAlgorithm,
+                                Date dateModified, BigInteger size) throws XMLStreamException {
+        writer.writeStartElement("objectInfo");
+        writeElement("identifier", identifier);
+        writeElement("formatId", formatId);
+        writer.writeStartElement("checksum");
+        writer.writeAttribute("algorithm", checksumAlgorithm);
+        writer.writeCharacters(checksum);
+        writer.writeEndElement();
+        if (dateModified != null) {
+            writeElement("dateSysMetadataModified", DateTimeMarshaller.serializeDateToUTC(dateModified));
+        }
+        writeElement("size", size.toString());
+        writer.writeEndElement();
+        count++;
+    }
+
+    /*
+     * Write a simple element with text content
+     */
+    private void writeElement(String name, String value) throws XMLStreamException {
+        writer.writeStartElement(name);
+        if (value != null) {
+            writer.writeCharacters(value);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Set the start attribute of the list
+     * @param start  the start index
+     */
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Set the total attribute of the list
+     * @param total  the total number of the objects matching the filter
+     */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * Get the number of the objectInfo elements written so far
+     * @return the count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Write the complete ObjectList document to the output stream.
+     * The output stream will not be closed.
+     * @param out  the destination of the document
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws XMLStreamException, IOException {
+        writer.flush();
+        writer.close();
+        StringBuilder head = new StringBuilder();
+        head.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        head.append("<").append(PREFIX).append(":objectList xmlns:").append(PREFIX).append("=\"")
+            .append(TYPES_V1_NAMESPACE).append("\" count=\"").append(count).append("\" start=\"")
+            .append(start).append("\" total=\"").append(total).append("\">");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+        objectInfos.writeTo(out);
+        out.write(("</" + PREFIX + ":objectList>").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
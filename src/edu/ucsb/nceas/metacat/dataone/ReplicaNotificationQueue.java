@@ -0,0 +1,395 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.client.v2.MNode;
+import org.dataone.client.v2.itk.D1Client;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.NodeReference;
+import org.dataone.service.types.v1.NodeType;
+import org.dataone.service.types.v1.Replica;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v2.Node;
+import org.dataone.service.types.v2.NodeList;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import com.codahale.metrics.Gauge;
+
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.shared.DurableQueue;
+import edu.ucsb.nceas.metacat.shared.ServiceException;
+
+/**
+ * A durable queue of the systemMetadataChanged notifications which a CN sends to the member
+ * nodes holding the replicas of an object, kept in the replica_notification_queue table, so
+ * the CN calls changing the system metadata don't wait for the member nodes.
+ *
+ * There is one row per object and node. Queuing the object again before the notification is
+ * sent bumps the version and keeps the highest serial version, so the repeated changes of an
+ * object collapse into one call to each node. The claiming, versioning and back-off of the
+ * rows are done by the DurableQueue; after dataone.replicaNotification.maxAttempts attempts
+ * the row is marked failed.
+ *
+ * The calls run in a bounded pool. Each node has at most
+ * dataone.replicaNotification.maxCallsPerNode calls running, so a slow or unreachable node
+ * only holds its own permits, and a call taking longer than dataone.replicaNotification.timeout
+ * counts as a failure.
+ *
+ * The node list of the CN is indexed by the node identifiers and cached for
+ * dataone.replicaNotification.nodeListRefresh milliseconds.
+ */
+public class ReplicaNotificationQueue extends DurableQueue<ReplicaNotificationQueue.Claim> {
+    private static final String MN_READ = "MNRead";
+    private static Log logMetacat = LogFactory.getLog(ReplicaNotificationQueue.class);
+    private static ReplicaNotificationQueue instance = null;
+
+    private int maxCallsPerNode = 2;
+    private long timeout = 30000;
+    private long nodeListRefresh = 300000;
+    private ThreadPoolExecutor callPool = null;
+    private ConcurrentHashMap<String, Semaphore> nodePermits = new ConcurrentHashMap<String, Semaphore>();
+    private Map<String, Node> nodes = null;
+    private long nodesLoaded = 0;
+
+    /**
+     * Constructor. It reads the settings from the properties, but doesn't start the workers.
+     */
+    protected ReplicaNotificationQueue() {
+        super("ReplicaNotification", "replica_notification_queue", new String[] {"guid", "node_id"},
+              "dataone.replicaNotification", 4, 60000, 10);
+        maxCallsPerNode = (int) getLongProperty("dataone.replicaNotification.maxCallsPerNode", maxCallsPerNode);
+        timeout = getLongProperty("dataone.replicaNotification.timeout", timeout);
+        nodeListRefresh = getLongProperty("dataone.replicaNotification.nodeListRefresh", nodeListRefresh);
+    }
+
+    /**
+     * Get the queue
+     * @return the single instance of the queue
+     */
+    public static synchronized ReplicaNotificationQueue getInstance() {
+        if (instance == null) {
+            instance = new ReplicaNotificationQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Start the call pool, the poller and the workers. The rows left by an earlier run are picked up.
+     */
+    @Override
+    public synchronized void start() {
+        if (callPool == null) {
+            // the calls which outlive their timeout keep their threads, so there is room for them next to the workers
+            callPool = new ThreadPoolExecutor(0, workers * 2, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                                              new DaemonThreadFactory("ReplicaNotificationCall"));
+        }
+        super.start();
+        MetacatMetrics.registerGauge("replicaNotification.running", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getRunning();
+            }
+        });
+    }
+
+    /**
+     * Queue the notifications of a change of the system metadata to the nodes of its replicas.
+     * The notifications of the object which are queued already are merged with the new ones.
+     * @param sysmeta  the changed system metadata
+     * @throws SQLException if the rows can't be saved
+     */
+    public void enqueue(SystemMetadata sysmeta) throws SQLException {
+        List<Replica> replicas = sysmeta.getReplicaList();
+        if (replicas == null || replicas.isEmpty()) {
+            return;
+        }
+        Timestamp modified = null;
+        if (sysmeta.getDateSysMetadataModified() != null) {
+            modified = new Timestamp(sysmeta.getDateSysMetadataModified().getTime());
+        }
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("ReplicaNotificationQueue.enqueue");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement("INSERT INTO replica_notification_queue "
+                    + "(guid, node_id, serial_version, date_modified, status, attempts, version, date_queued, next_attempt) "
+                    + "VALUES (?, ?, ?, ?, ?, 0, 1, now(), now()) "
+                    + "ON CONFLICT (guid, node_id) DO UPDATE SET "
+                    + "serial_version = GREATEST(replica_notification_queue.serial_version, excluded.serial_version), "
+                    + "date_modified = GREATEST(replica_notification_queue.date_modified, excluded.date_modified), "
+                    + "status = excluded.status, attempts = 0, version = replica_notification_queue.version + 1, "
+                    + "date_queued = now(), next_attempt = now(), last_error = NULL");
+            for (Replica replica : replicas) {
+                if (replica == null || replica.getReplicaMemberNode() == null) {
+                    continue;
+                }
+                stmt.setString(1, sysmeta.getIdentifier().getValue());
+                stmt.setString(2, replica.getReplicaMemberNode().getValue());
+                stmt.setLong(3, sysmeta.getSerialVersion().longValue());
+                stmt.setTimestamp(4, modified);
+                stmt.setString(5, QUEUED);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            logMetacat.debug("ReplicaNotificationQueue.enqueue - queued the notifications of " + sysmeta.getIdentifier().getValue());
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        // don't wait for the next poll
+        pollNow();
+    }
+
+    @Override
+    protected String getClaimColumns() {
+        return "serial_version, date_modified";
+    }
+
+    @Override
+    protected Claim readClaim(ResultSet rs) throws SQLException {
+        return new Claim(rs.getString(1), rs.getString(2), rs.getLong(3), rs.getTimestamp(4), rs.getLong(5), rs.getInt(6));
+    }
+
+    @Override
+    protected String describe(Claim claim) {
+        return "the notification of " + claim.getNodeId() + " of the change of " + claim.getGuid();
+    }
+
+    /**
+     * Take a permit of the node of a claimed row. The rows of the nodes which have
+     * maxCallsPerNode calls running are given back for a later poll.
+     * @param claim  the claimed row
+     * @return true if the permit was taken
+     */
+    @Override
+    protected boolean reserve(Claim claim) {
+        if (getPermit(claim.getNodeId()).tryAcquire()) {
+            return true;
+        }
+        // the node is busy, so give the claim back without counting the attempt
+        postpone(claim, pollInterval);
+        return false;
+    }
+
+    @Override
+    protected void unreserve(Claim claim) {
+        getPermit(claim.getNodeId()).release();
+    }
+
+    /**
+     * Send a claimed notification and record the outcome. It runs in a worker thread. The
+     * permit of the node, taken by reserve, is released when the call returns, even after
+     * its timeout.
+     * @param claim  the claimed row
+     */
+    @Override
+    protected void process(final Claim claim) {
+        final Semaphore permit = getPermit(claim.getNodeId());
+        String error = null;
+        Future<Boolean> call = null;
+        try {
+            call = callPool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        return notifyNode(claim);
+                    } finally {
+                        permit.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            permit.release();
+            error = "there are too many calls running: " + e.getMessage();
+        }
+        long start = System.nanoTime();
+        if (call != null) {
+            try {
+                if (!call.get(timeout, TimeUnit.MILLISECONDS)) {
+                    logMetacat.debug("ReplicaNotificationQueue.process - " + claim.getNodeId() + " isn't a member node which "
+                                      + "can be notified of the change of " + claim.getGuid());
+                }
+            } catch (TimeoutException e) {
+                call.cancel(true);
+                error = "the call timed out after " + timeout + " ms";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                error = "the notification was interrupted";
+            } catch (Exception e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+            }
+        }
+        MetacatMetrics.stopTimer("replicaNotification.call", start);
+        if (error != null && isLastAttempt(claim)) {
+            MetacatMetrics.counter("replicaNotification.failed").inc();
+        }
+        complete(claim, error);
+    }
+
+    /**
+     * Call systemMetadataChanged on the node of a claimed row
+     * @param claim  the claimed row
+     * @return false if the node isn't a member node supporting MNRead, so it isn't notified
+     * @throws Exception
+     */
+    protected boolean notifyNode(Claim claim) throws Exception {
+        Node node = getNodes().get(claim.getNodeId());
+        if (node == null || node.getType() != NodeType.MN) {
+            return false;
+        }
+        String version = D1NodeVersionChecker.getVersion(node, MN_READ);
+        NodeReference nodeRef = node.getIdentifier();
+        Identifier pid = new Identifier();
+        pid.setValue(claim.getGuid());
+        Session session = null;
+        if (D1NodeVersionChecker.V2.equalsIgnoreCase(version)) {
+            MNode mn = D1Client.getMN(nodeRef);
+            mn.systemMetadataChanged(session, pid, claim.getSerialVersion(), claim.getDateModified());
+        } else if (D1NodeVersionChecker.V1.equalsIgnoreCase(version)) {
+            org.dataone.client.v1.MNode mn = org.dataone.client.v1.itk.D1Client.getMN(nodeRef);
+            mn.systemMetadataChanged(session, pid, claim.getSerialVersion(), claim.getDateModified());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the nodes of the CN node list by their identifiers. The list is loaded once
+     * and refreshed after nodeListRefresh milliseconds.
+     * @return the nodes by their identifiers
+     * @throws Exception if the node list can't be loaded
+     */
+    protected synchronized Map<String, Node> getNodes() throws Exception {
+        if (nodes == null || System.currentTimeMillis() - nodesLoaded > nodeListRefresh) {
+            NodeList nodeList = D1Client.getCN().listNodes();
+            Map<String, Node> index = new HashMap<String, Node>();
+            if (nodeList != null && nodeList.getNodeList() != null) {
+                for (Node node : nodeList.getNodeList()) {
+                    if (node != null && node.getIdentifier() != null) {
+                        index.put(node.getIdentifier().getValue(), node);
+                    }
+                }
+            }
+            nodes = index;
+            nodesLoaded = System.currentTimeMillis();
+        }
+        return nodes;
+    }
+
+    /*
+     * Get the permits limiting the running calls to a node
+     */
+    private Semaphore getPermit(String nodeId) {
+        Semaphore permit = nodePermits.get(nodeId);
+        if (permit == null) {
+            permit = new Semaphore(maxCallsPerNode);
+            Semaphore existing = nodePermits.putIfAbsent(nodeId, permit);
+            if (existing != null) {
+                permit = existing;
+            }
+        }
+        return permit;
+    }
+
+    /**
+     * Get the status of the queue: the numbers of the queued, failed and running
+     * notifications, and the numbers of the notifications sent, retried and given up
+     * since the start.
+     * @return the metrics by name
+     */
+    public Map<String, Long> getStatus() {
+        return getStatus("notified");
+    }
+
+    /**
+     * Stop the poller, the workers and the calls. The queued rows stay in the table.
+     */
+    @Override
+    public synchronized void stop() throws ServiceException {
+        super.stop();
+        if (callPool != null) {
+            callPool.shutdownNow();
+            callPool = null;
+        }
+    }
+
+    @Override
+    protected long getStopTimeout() {
+        return timeout;
+    }
+
+    /**
+     * A row claimed by the poller
+     */
+    protected static class Claim extends DurableQueue.Claim {
+        private long serialVersion;
+        private Date dateModified;
+
+        protected Claim(String guid, String nodeId, long serialVersion, Date dateModified, long version, int attempts) {
+            super(new String[] {guid, nodeId}, version, attempts);
+            this.serialVersion = serialVersion;
+            this.dateModified = dateModified;
+        }
+
+        protected String getGuid() {
+            return getKey()[0];
+        }
+
+        protected String getNodeId() {
+            return getKey()[1];
+        }
+
+        protected long getSerialVersion() {
+            return serialVersion;
+        }
+
+        protected Date getDateModified() {
+            return dateModified;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.util.Collection;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.TimeToLiveCache;
+
+/**
+ * An in-memory time-to-live cache of the heads of the series which are resolved
+ * often, in front of the series_head table. When the head of a series changes, 
+ * IdentifierManager invalidates it here after the commit, and the invalidation 
+ * is published on a Hazelcast topic so the other members drop their copies too.
+ * If the Hazelcast topic is not available, the entries are only invalidated locally
+ * and the time to live bounds how long another member may serve an old head.
+ * 
+ * A lookup which read the table before a change was committed must not cache the old 
+ * head after the invalidation, so the lookups get the generation of the cache before 
+ * they read the table and pass it to put.
+ */
+public class SeriesHeadCache implements MessageListener<String> {
+    private static final long DEFAULT_TTL = 300000; //five minutes
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final String DEFAULT_TOPIC = "hzSeriesHeadInvalidation";
+    private static Log logMetacat = LogFactory.getLog(SeriesHeadCache.class);
+    private static volatile SeriesHeadCache cache = null;
+
+    private TimeToLiveCache<String> heads = null;
+    private ITopic<String> topic = null;
+
+    /*
+     * Constructor. It reads the settings from the properties and listens to the
+     * invalidation topic.
+     */
+    private SeriesHeadCache() {
+        long ttl = DEFAULT_TTL;
+        int maxSize = DEFAULT_MAX_SIZE;
+        try {
+            ttl = Long.parseLong(PropertyService.getProperty("dataone.seriesHead.cacheTTL"));
+        } catch (Exception e) {
+            logMetacat.debug("SeriesHeadCache.SeriesHeadCache - use the default ttl " + DEFAULT_TTL + " since " + e.getMessage());
+        }
+        try {
+            maxSize = Integer.parseInt(PropertyService.getProperty("dataone.seriesHead.cacheSize"));
+        } catch (Exception e) {
+            logMetacat.debug("SeriesHeadCache.SeriesHeadCache - use the default size " + DEFAULT_MAX_SIZE + " since " + e.getMessage());
+        }
+        heads = new TimeToLiveCache<String>(ttl, maxSize);
+        String topicName = DEFAULT_TOPIC;
+        try {
+            topicName = PropertyService.getProperty("dataone.hazelcast.storageCluster.seriesHeadTopic");
+        } catch (Exception e) {
+            logMetacat.debug("SeriesHeadCache.SeriesHeadCache - use the default topic " + DEFAULT_TOPIC + " since " + e.getMessage());
+        }
+        if (heads.isEnabled()) {
+            try {
+                topic = HazelcastService.getInstance().getHazelcastInstance().getTopic(topicName);
+                topic.addMessageListener(this);
+            } catch (Throwable e) {
+                topic = null;
+                logMetacat.warn("SeriesHeadCache.SeriesHeadCache - the invalidations will only be local since the Hazelcast topic " 
+                                 + topicName + " isn't available: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the singleton instance of the cache
+     * @return the instance
+     */
+    public static SeriesHeadCache getInstance() {
+        if (cache == null) {
+            synchronized (SeriesHeadCache.class) {
+                if (cache == null) {
+                    cache = new SeriesHeadCache();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the cached head of a series
+     * @param sid  the series id
+     * @return the pid of the head, or null if it isn't cached or has expired
+     */
+    public String get(String sid) {
+        return heads.get(sid);
+    }
+
+    /**
+     * Get the generation of the cache, which a lookup gets before it reads the head
+     * from the database and passes to put
+     * @return the generation
+     */
+    public long getGeneration() {
+        return heads.getGeneration();
+    }
+
+    /**
+     * Cache the head of a series, unless a series was invalidated since the given 
+     * generation, since the head may have been read before the change was committed
+     * @param sid  the series id
+     * @param guid  the pid of the head
+     * @param generation  the generation before the head was read
+     */
+    public void put(String sid, String guid, long generation) {
+        heads.putIfNotInvalidated(sid, guid, generation);
+    }
+
+    /**
+     * Remove the heads of the given series on this member and the other members
+     * @param sids  the series ids
+     */
+    public void invalidate(Collection<String> sids) {
+        if (sids == null || !heads.isEnabled()) {
+            return;
+        }
+        for (String sid : sids) {
+            heads.invalidate(sid);
+            if (topic != null) {
+                try {
+                    topic.publish(sid);
+                } catch (RuntimeException e) {
+                    logMetacat.warn("SeriesHeadCache.invalidate - couldn't publish the invalidation of " + sid + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all of the cached heads on this member, e.g. after the series_head table was rebuilt
+     */
+    public void clear() {
+        heads.clear();
+    }
+
+    /**
+     * Drop the head of a series invalidated by a member of the cluster
+     */
+    @Override
+    public void onMessage(Message<String> message) {
+        String sid = message.getMessageObject();
+        if (sid != null) {
+            heads.invalidate(sid);
+        }
+    }
+}
@@ -92,6 +92,8 @@ import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.replication.ReplicationService;
 import edu.ucsb.nceas.metacat.shared.AccessException;
 import edu.ucsb.nceas.metacat.shared.HandlerException;
+import edu.ucsb.nceas.metacat.storage.DocumentStore;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.utilities.ParseLSIDException;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -246,8 +248,11 @@ public class SystemMetadataFactory {
 		// set the size from file on disk, don't read bytes again
 		File fileOnDisk = getFileOnDisk(localId);
 		long fileSize = 0;
-		if (fileOnDisk.exists()) {
+		if (fileOnDisk.exists() && doctype.trim().equals("BIN")) {
 			fileSize = fileOnDisk.length();
+		} else if (fileOnDisk.exists()) {
+			// a metadata document may be stored compressed
+			fileSize = DocumentStore.getSize(fileOnDisk);
 		}
 		sysMeta.setSize(BigInteger.valueOf(fileSize));
 		
@@ -776,8 +781,12 @@ public class SystemMetadataFactory {
 
 		// deal with data or metadata cases
 		if (doc.getRootNodeID() == 0) {
-			// this is a data file
-			filepath = PropertyService.getProperty("application.datafilepath");
+			// this is a data file, which is kept by the object store
+			try {
+				return ObjectStore.getInstance().getFile(docid);
+			} catch (IOException e) {
+				throw new McdbException("Could not find the data file of " + docid + " in the object store: " + e.getMessage());
+			}
 		} else {
 			filepath = PropertyService.getProperty("application.documentfilepath");
 		}
@@ -0,0 +1,428 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeByteArrayInputStream;
+import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeInputStream;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * A cache of the documents rendered by the view method, keyed by the pid, the view
+ * format (skin) and the version of the style sheets. The rendered output doesn't depend
+ * on who reads it, since the view method checks the access of every caller before the
+ * cache is consulted, so all readers share the entries.
+ *
+ * There are two tiers, both bounded by bytes and evicting the least recently used
+ * entries: the small documents are kept in memory and the larger ones as files in a
+ * directory. Every document is rendered into a file first, so it is never held in
+ * memory as a whole while it is transformed. The entries of a pid are removed when its
+ * system metadata changes (update, archive, access policy and so on). Nothing survives a
+ * restart: the directory is emptied when the cache is created.
+ *
+ * A rendering which started before its pid was invalidated must not be cached afterwards.
+ * So the view method gets the generation before it starts and passes it to put, which
+ * doesn't cache the document if the pid was invalidated since then. The generations of the
+ * latest invalidations are remembered per pid; once the oldest are forgotten, a rendering
+ * which started before them isn't cached at all.
+ */
+public class ViewCache {
+    private static final long DEFAULT_MEMORY_SIZE = 64L * 1024 * 1024;
+    private static final long DEFAULT_MAX_MEMORY_ENTRY_SIZE = 1024L * 1024;
+    private static final long DEFAULT_DISK_SIZE = 1024L * 1024 * 1024;
+    private static final String SEPARATOR = "\n";
+    private static final int MAX_INVALIDATIONS = 10000;
+    private static Log logMetacat = LogFactory.getLog(ViewCache.class);
+    private static volatile ViewCache cache = null;
+
+    //access order makes the first entries the least recently used ones
+    private LinkedHashMap<String, ViewEntry> memory = new LinkedHashMap<String, ViewEntry>(16, 0.75f, true);
+    private LinkedHashMap<String, ViewEntry> disk = new LinkedHashMap<String, ViewEntry>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private long diskBytes = 0;
+    private long memorySize = DEFAULT_MEMORY_SIZE;
+    private long maxMemoryEntrySize = DEFAULT_MAX_MEMORY_ENTRY_SIZE;
+    private long diskSize = DEFAULT_DISK_SIZE;
+    private File dir = null;
+    //the generation of the last invalidation of the pids, the oldest first
+    private LinkedHashMap<String, Long> invalidations = new LinkedHashMap<String, Long>();
+    private long generation = 0;
+    private long forgottenGeneration = 0;
+
+    /*
+     * Constructor. It reads the sizes and the directory from the properties and
+     * removes the files left by the last run.
+     */
+    private ViewCache() {
+        try {
+            memorySize = Long.parseLong(PropertyService.getProperty("dataone.view.cacheSize"));
+        } catch (Exception e) {
+            logMetacat.debug("ViewCache.ViewCache - use the default memory size " + DEFAULT_MEMORY_SIZE + " since " + e.getMessage());
+        }
+        try {
+            maxMemoryEntrySize = Long.parseLong(PropertyService.getProperty("dataone.view.maxMemoryEntrySize"));
+        } catch (Exception e) {
+            logMetacat.debug("ViewCache.ViewCache - use the default maximum memory entry size " + DEFAULT_MAX_MEMORY_ENTRY_SIZE
+                              + " since " + e.getMessage());
+        }
+        try {
+            diskSize = Long.parseLong(PropertyService.getProperty("dataone.view.diskCacheSize"));
+        } catch (Exception e) {
+            logMetacat.debug("ViewCache.ViewCache - use the default disk size " + DEFAULT_DISK_SIZE + " since " + e.getMessage());
+        }
+        String dirName = null;
+        try {
+            dirName = PropertyService.getProperty("dataone.view.cacheDir");
+        } catch (Exception e) {
+            try {
+                dirName = PropertyService.getProperty("application.tempDir") + File.separator + "views";
+            } catch (Exception ee) {
+                dirName = System.getProperty("java.io.tmpdir") + File.separator + "metacat-views";
+            }
+        }
+        dir = new File(dirName);
+        if (!dir.exists() && !dir.mkdirs()) {
+            logMetacat.warn("ViewCache.ViewCache - couldn't create the directory " + dirName
+                             + ", so the system temporary directory will be used and the disk tier is off");
+            dir = null;
+            diskSize = 0;
+        } else {
+            File[] oldFiles = dir.listFiles();
+            if (oldFiles != null) {
+                for (File oldFile : oldFiles) {
+                    if (!oldFile.delete()) {
+                        logMetacat.debug("ViewCache.ViewCache - couldn't delete the old file " + oldFile);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Constructor with the given sizes and directory, which must exist
+     */
+    ViewCache(long memorySize, long maxMemoryEntrySize, long diskSize, File dir) {
+        this.memorySize = memorySize;
+        this.maxMemoryEntrySize = maxMemoryEntrySize;
+        this.diskSize = diskSize;
+        this.dir = dir;
+    }
+
+    /**
+     * Get the singleton instance of the cache
+     * @return the instance
+     */
+    public static ViewCache getInstance() {
+        if (cache == null) {
+            synchronized (ViewCache.class) {
+                if (cache == null) {
+                    cache = new ViewCache();
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Get the key of a rendered document
+     * @param pid  the pid of the document
+     * @param format  the view format (skin)
+     * @param stylesheetVersion  the version of the style sheets
+     * @return the key
+     */
+    public static String getKey(String pid, String format, long stylesheetVersion) {
+        return pid + SEPARATOR + format + SEPARATOR + stylesheetVersion;
+    }
+
+    /**
+     * Get a stream of a cached rendered document
+     * @param key  the key of the document
+     * @return the stream, or null if the document isn't cached
+     */
+    public synchronized InputStream get(String key) {
+        ViewEntry entry = memory.get(key);
+        if (entry != null) {
+            ContentTypeByteArrayInputStream stream = new ContentTypeByteArrayInputStream(entry.content);
+            stream.setContentType(entry.contentType);
+            return stream;
+        }
+        entry = disk.get(key);
+        if (entry != null) {
+            try {
+                return new ViewInputStream(entry.file, entry.contentType, false);
+            } catch (FileNotFoundException e) {
+                logMetacat.warn("ViewCache.get - the cached file " + entry.file + " is gone: " + e.getMessage());
+                disk.remove(key);
+                diskBytes -= entry.size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the current generation, which the caller passes to put after rendering a document
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Create a new file which a document can be rendered into before it is put into the cache
+     * @return the file
+     * @throws IOException
+     */
+    public File newRenderFile() throws IOException {
+        return File.createTempFile("render", ".tmp", dir);
+    }
+
+    /**
+     * Put a rendered document into the cache and get a stream of it for the response.
+     * The small documents go into memory, the others into the directory. If the document
+     * doesn't fit in either, or the pid was invalidated after the rendering started, it
+     * isn't cached and the file is deleted when the returned stream is closed.
+     * @param key  the key of the document
+     * @param pid  the pid of the document
+     * @param rendered  the file the document was rendered into by newRenderFile
+     * @param contentType  the content type of the rendered document
+     * @param renderGeneration  the generation from getGeneration before the rendering started
+     * @return the stream of the document
+     * @throws IOException
+     */
+    public InputStream put(String key, String pid, File rendered, String contentType, long renderGeneration) throws IOException {
+        long size = rendered.length();
+        if (size <= maxMemoryEntrySize && size <= memorySize) {
+            byte[] content = Files.readAllBytes(rendered.toPath());
+            deleteFile(rendered);
+            putInMemory(key, new ViewEntry(pid, contentType, content, null, size), renderGeneration);
+            ContentTypeByteArrayInputStream stream = new ContentTypeByteArrayInputStream(content);
+            stream.setContentType(contentType);
+            return stream;
+        }
+        if (dir != null && size <= diskSize) {
+            File file = new File(dir, "view-" + Long.toHexString(System.nanoTime()) + "-" + Integer.toHexString(key.hashCode()));
+            Files.move(rendered.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            //open it before it can be evicted, the open stream keeps a deleted file readable
+            InputStream stream = new ViewInputStream(file, contentType, false);
+            if (!putOnDisk(key, new ViewEntry(pid, contentType, null, file, size), renderGeneration)) {
+                deleteFile(file);
+            }
+            return stream;
+        }
+        return new ViewInputStream(rendered, contentType, true);
+    }
+
+    /**
+     * Remove the rendered documents of a pid in all of the formats
+     * @param pid  the pid whose documents will be removed
+     */
+    public synchronized void invalidate(String pid) {
+        if (pid == null) {
+            return;
+        }
+        generation++;
+        invalidations.remove(pid);
+        invalidations.put(pid, generation);
+        Iterator<Long> generations = invalidations.values().iterator();
+        while (invalidations.size() > MAX_INVALIDATIONS && generations.hasNext()) {
+            forgottenGeneration = generations.next();
+            generations.remove();
+        }
+        Iterator<ViewEntry> it = memory.values().iterator();
+        while (it.hasNext()) {
+            ViewEntry entry = it.next();
+            if (entry.pid.equals(pid)) {
+                it.remove();
+                memoryBytes -= entry.size;
+            }
+        }
+        it = disk.values().iterator();
+        while (it.hasNext()) {
+            ViewEntry entry = it.next();
+            if (entry.pid.equals(pid)) {
+                it.remove();
+                diskBytes -= entry.size;
+                deleteFile(entry.file);
+            }
+        }
+    }
+
+    /**
+     * Remove all of the rendered documents
+     */
+    public synchronized void clear() {
+        generation++;
+        invalidations.clear();
+        forgottenGeneration = generation;
+        memory.clear();
+        memoryBytes = 0;
+        for (ViewEntry entry : disk.values()) {
+            deleteFile(entry.file);
+        }
+        disk.clear();
+        diskBytes = 0;
+    }
+
+    /*
+     * If the pid was invalidated after the given generation. An invalidation which was
+     * forgotten may have been, so a rendering older than it counts as invalidated.
+     */
+    private boolean isInvalidatedSince(String pid, long renderGeneration) {
+        if (renderGeneration < forgottenGeneration) {
+            return true;
+        }
+        Long invalidated = invalidations.get(pid);
+        return invalidated != null && invalidated.longValue() > renderGeneration;
+    }
+
+    /*
+     * Put an entry into the memory tier and evict the least recently used ones beyond the size
+     */
+    private synchronized boolean putInMemory(String key, ViewEntry entry, long renderGeneration) {
+        if (isInvalidatedSince(entry.pid, renderGeneration)) {
+            logMetacat.debug("ViewCache.putInMemory - don't cache " + entry.pid + " since it changed while it was rendered");
+            return false;
+        }
+        ViewEntry old = memory.put(key, entry);
+        if (old != null) {
+            memoryBytes -= old.size;
+        }
+        memoryBytes += entry.size;
+        Iterator<ViewEntry> it = memory.values().iterator();
+        while (memoryBytes > memorySize && it.hasNext()) {
+            ViewEntry eldest = it.next();
+            it.remove();
+            memoryBytes -= eldest.size;
+        }
+        return true;
+    }
+
+    /*
+     * Put an entry into the disk tier and evict the least recently used ones beyond the size
+     */
+    private synchronized boolean putOnDisk(String key, ViewEntry entry, long renderGeneration) {
+        if (isInvalidatedSince(entry.pid, renderGeneration)) {
+            logMetacat.debug("ViewCache.putOnDisk - don't cache " + entry.pid + " since it changed while it was rendered");
+            return false;
+        }
+        List<File> evicted = new ArrayList<File>();
+        ViewEntry old = disk.put(key, entry);
+        if (old != null) {
+            diskBytes -= old.size;
+            evicted.add(old.file);
+        }
+        diskBytes += entry.size;
+        Iterator<Map.Entry<String, ViewEntry>> it = disk.entrySet().iterator();
+        while (diskBytes > diskSize && it.hasNext()) {
+            ViewEntry eldest = it.next().getValue();
+            it.remove();
+            diskBytes -= eldest.size;
+            evicted.add(eldest.file);
+        }
+        for (File file : evicted) {
+            deleteFile(file);
+        }
+        return true;
+    }
+
+    /*
+     * Delete a file and only log the failure
+     */
+    private static void deleteFile(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            logMetacat.warn("ViewCache.deleteFile - couldn't delete the file " + file);
+        }
+    }
+
+    /*
+     * A rendered document, either in memory or in a file
+     */
+    private static class ViewEntry {
+        private String pid;
+        private String contentType;
+        private byte[] content;
+        private File file;
+        private long size;
+
+        private ViewEntry(String pid, String contentType, byte[] content, File file, long size) {
+            this.pid = pid;
+            this.contentType = contentType;
+            this.content = content;
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    /*
+     * A stream of a rendered document in a file, which knows its content type. The file of
+     * an uncached document is deleted when the stream is closed.
+     */
+    private static class ViewInputStream extends FileInputStream implements ContentTypeInputStream {
+        private String contentType;
+        private File file;
+        private boolean deleteOnClose;
+
+        private ViewInputStream(File file, String contentType, boolean deleteOnClose) throws FileNotFoundException {
+            super(file);
+            this.file = file;
+            this.contentType = contentType;
+            this.deleteOnClose = deleteOnClose;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (deleteOnClose) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+}
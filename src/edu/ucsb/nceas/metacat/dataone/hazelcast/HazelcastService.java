@@ -45,6 +45,7 @@ import org.dataone.service.exceptions.InvalidSystemMetadata;
 import org.dataone.service.types.v1.Identifier;
 import org.dataone.service.types.v2.SystemMetadata;
 
+import com.codahale.metrics.Gauge;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.FileSystemXmlConfig;
 import com.hazelcast.core.EntryEvent;
@@ -61,6 +62,8 @@ import com.hazelcast.core.LifecycleListener;
 import com.hazelcast.core.Member;
 import com.hazelcast.core.MembershipEvent;
 import com.hazelcast.core.MembershipListener;
+import com.hazelcast.partition.MigrationEvent;
+import com.hazelcast.partition.MigrationListener;
 import com.hazelcast.partition.Partition;
 import com.hazelcast.partition.PartitionService;
 
@@ -68,6 +71,8 @@ import edu.ucsb.nceas.metacat.IdentifierManager;
 import edu.ucsb.nceas.metacat.McdbDocNotFoundException;
 import edu.ucsb.nceas.metacat.common.index.IndexTask;
 import edu.ucsb.nceas.metacat.common.index.event.IndexEvent;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
+import edu.ucsb.nceas.metacat.dataone.ViewCache;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.BaseService;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
@@ -78,7 +83,8 @@ import edu.ucsb.nceas.utilities.PropertyNotFoundException;
  * The Hazelcast service enables Metacat as a Hazelcast cluster member
  */
 public class HazelcastService extends BaseService
-  implements EntryListener<Identifier, SystemMetadata>, MembershipListener, LifecycleListener, ItemListener<Identifier> {
+  implements EntryListener<Identifier, SystemMetadata>, MembershipListener, LifecycleListener, ItemListener<Identifier>,
+    MigrationListener {
   
   private static final String MISSING_PID_PREFIX = "missing-";
 
@@ -220,6 +226,13 @@ public class HazelcastService extends BaseService
       // Listen for lifecycle state changes
       hzInstance.getLifecycleService().addLifecycleListener(this);
       
+      // Listen for partitions moving between the members
+      hzInstance.getPartitionService().addMigrationListener(this);
+      
+      registerMapGauges("hazelcast.systemMetadata", systemMetadata);
+      registerMapGauges("hazelcast.indexQueue", indexQueue);
+      registerMapGauges("hazelcast.indexEvents", indexEventMap);
+      
     } catch (PropertyNotFoundException e) {
 
       String msg = "Couldn't find Hazelcast properties for the DataONE clusters. " +
@@ -239,6 +252,33 @@ public class HazelcastService extends BaseService
         
   }
   
+  /*
+   * Publish the statistics of the part of a map which this member owns. They are local,
+   * so reading them doesn't call the other members.
+   */
+  private void registerMapGauges(String name, final IMap<?, ?> map) {
+      MetacatMetrics.registerGauge(name + ".ownedEntries", new Gauge<Long>() {
+          public Long getValue() {
+              return map.getLocalMapStats().getOwnedEntryCount();
+          }
+      });
+      MetacatMetrics.registerGauge(name + ".hits", new Gauge<Long>() {
+          public Long getValue() {
+              return map.getLocalMapStats().getHits();
+          }
+      });
+      MetacatMetrics.registerGauge(name + ".gets", new Gauge<Long>() {
+          public Long getValue() {
+              return map.getLocalMapStats().getOperationStats().getNumberOfGets();
+          }
+      });
+      MetacatMetrics.registerGauge(name + ".puts", new Gauge<Long>() {
+          public Long getValue() {
+              return map.getLocalMapStats().getOperationStats().getNumberOfPuts();
+          }
+      });
+  }
+  
   /**
    * Get the system metadata map
    * 
@@ -284,6 +324,7 @@ public class HazelcastService extends BaseService
 	identifier.setValue(guid);
 	// force hazelcast to update system metadata in memory from the store
 	HazelcastService.getInstance().getSystemMetadataMap().evict(identifier);
+	ViewCache.getInstance().invalidate(guid);
   }
 
   public Lock getLock(String identifier) {
@@ -329,6 +370,8 @@ public class HazelcastService extends BaseService
   public void stop() throws ServiceException {
     
 	  this.hzInstance.getLifecycleService().shutdown();
+	  // no more changes come from the map, so the journaled ones can be written to the database
+	  SystemMetadataWriteBehind.shutdown();
     
   }
 
@@ -406,6 +449,7 @@ public class HazelcastService extends BaseService
         identifiers.remove(event.getKey());
         
     }
+    ViewCache.getInstance().invalidate(event.getKey().getValue());
 
 	}
 	
@@ -420,6 +464,8 @@ public class HazelcastService extends BaseService
 	public void entryUpdated(EntryEvent<Identifier, SystemMetadata> event) {
 
 		logMetacat.debug("Entry added/updated to System Metadata map: " + event.getKey().getValue());
+		// every member gets the event, so the rendered views are dropped cluster wide
+		ViewCache.getInstance().invalidate(event.getKey().getValue());
 		PartitionService partitionService = this.hzInstance.getPartitionService();
 		Partition partition = partitionService.getPartition(event.getKey());
 		Member ownerMember = partition.getOwner();
@@ -616,6 +662,34 @@ public class HazelcastService extends BaseService
 		}
 	}
 
+	@Override
+	public void migrationStarted(MigrationEvent event) {
+		// nothing to do until the new owner has the partition
+	}
+
+	/**
+	 * When a partition moves away from this member, the new owner stores the changes of its
+	 * pids from then on, so the changes journaled here are drained to the database
+	 * @param event
+	 */
+	@Override
+	public void migrationCompleted(MigrationEvent event) {
+		Member oldOwner = event.getOldOwner();
+		Member newOwner = event.getNewOwner();
+		if (oldOwner != null && oldOwner.localMember() && (newOwner == null || !newOwner.localMember())) {
+			SystemMetadataWriteBehind writeBehind = SystemMetadataWriteBehind.getInstance();
+			if (writeBehind != null) {
+				logMetacat.info("HazelcastService.migrationCompleted - partition " + event.getPartitionId()
+				                + " moved away from this member, draining the system metadata journal");
+				writeBehind.requestDrain();
+			}
+		}
+	}
+
+	public void migrationFailed(MigrationEvent event) {
+		logMetacat.warn("HazelcastService.migrationFailed - the migration of partition " + event.getPartitionId() + " failed");
+	}
+
 	/**
 	 * Load all System Metadata keys from the backing store
 	 * @return set of pids
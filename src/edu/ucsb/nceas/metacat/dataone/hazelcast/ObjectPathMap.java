@@ -1,5 +1,6 @@
 package edu.ucsb.nceas.metacat.dataone.hazelcast;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,6 +28,7 @@ import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.replication.ReplicationService;
 import edu.ucsb.nceas.metacat.shared.HandlerException;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.utilities.FileUtil;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
 
@@ -41,11 +43,13 @@ import edu.ucsb.nceas.utilities.PropertyNotFoundException;
  * the paths to their associated files.  The getAllKeys() method will
  * return null in a live setting, to avoid possibly expensive preloading
  * 
+ * The paths of the data objects are asked from the ObjectStore first, which
+ * resolves the identifiers it holds without querying the database.
+ * 
  * @author rnahf
  */
 public class ObjectPathMap implements MapLoader<Identifier, String> {
 	private static IdentifierManager im;
-	private static String dataPath;
 	private static String metadataPath;
   private Log logMetacat = LogFactory.getLog(ObjectPathMap.class);
 
@@ -56,7 +60,6 @@ public class ObjectPathMap implements MapLoader<Identifier, String> {
 	public ObjectPathMap() {
 		try {
 			PropertyService ps = PropertyService.getInstance();
-			dataPath = PropertyService.getProperty("application.datafilepath");
 			metadataPath = PropertyService.getProperty("application.documentfilepath");
 		} catch (PropertyNotFoundException e) {
 			// TODO Auto-generated catch block
@@ -79,13 +82,31 @@ public class ObjectPathMap implements MapLoader<Identifier, String> {
 	                                                  McdbException, SAXException  {	
 	    SystemMetadata systemMetadata = IdentifierManager.getInstance().getSystemMetadata(key.getValue());
 		if (!D1NodeService.isScienceMetadata(systemMetadata)) {
-			return dataPath + FileUtil.getFS() + localid;
+			return ObjectStore.getInstance().getFile(localid).getAbsolutePath();
 		} else {
 			return metadataPath + FileUtil.getFS() + localid;
 		}		
 	}
 
 	
+	/*
+	 * Ask the object store for the path of a data object. The store can 
+	 * resolve the identifiers of the objects it holds without the database.
+	 * Return null if it can't.
+	 */
+	private String pathFromObjectStore(Identifier key) {
+		try {
+			File file = ObjectStore.getInstance().getFile(key);
+			if (file != null) {
+				return file.getAbsolutePath();
+			}
+		} catch (IOException e) {
+			logMetacat.debug("ObjectPathMap.pathFromObjectStore - couldn't resolve " + key.getValue() + " in the object store: " + e.getMessage());
+		}
+		return null;
+	}
+
+	
 	/**
 	 *  Implementation of hazelcast MapLoader interface method.
 	 *  For the provided Identifier (as key), returns the path to the
@@ -97,7 +118,10 @@ public class ObjectPathMap implements MapLoader<Identifier, String> {
 	{
 
 		String docid = null;
-		String path = null;
+		String path = pathFromObjectStore(key);
+		if (path != null) {
+			return path;
+		}
 		try {
 			docid = im.getLocalId(key.getValue());
 			path = pathToDocid(docid, key);			
@@ -122,6 +146,11 @@ public class ObjectPathMap implements MapLoader<Identifier, String> {
 		
 		Hashtable<Identifier,String> map = new Hashtable<Identifier,String>();
 		for (Identifier id : identifiers) {
+			String path = pathFromObjectStore(id);
+			if (path != null) {
+				map.put(id, path);
+				continue;
+			}
 			try {
 				String docid = im.getLocalId(id.getValue());
 				map.put(id, pathToDocid(docid, id));
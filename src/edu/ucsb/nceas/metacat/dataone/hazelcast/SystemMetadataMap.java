@@ -1,5 +1,6 @@
 package edu.ucsb.nceas.metacat.dataone.hazelcast;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -19,7 +20,10 @@ import edu.ucsb.nceas.metacat.IdentifierManager;
 import edu.ucsb.nceas.metacat.McdbDocNotFoundException;
 
 /**
- * Storage implementation for Hazelcast System Metadata
+ * Storage implementation for Hazelcast System Metadata. If
+ * dataone.hazelcast.storageCluster.writeBehind is true, the changes go to the
+ * SystemMetadataWriteBehind, which journals them and writes them to the database
+ * in batches, and the pending changes are loaded before the database.
  * @author leinfelder
  *
  */
@@ -27,12 +31,22 @@ public class SystemMetadataMap
     implements MapStore<Identifier, SystemMetadata>, MapLoader<Identifier, SystemMetadata> {
 
   private Log logMetacat = LogFactory.getLog(SystemMetadataMap.class);
+  private SystemMetadataWriteBehind writeBehind = SystemMetadataWriteBehind.getInstance();
 
 	@Override
 	public void delete(Identifier arg0) {
 		if(arg0!= null) {
 			logMetacat.debug("delete the identifier"+arg0.getValue());
-			boolean success = IdentifierManager.getInstance().deleteSystemMetadata(arg0.getValue());
+			boolean success = false;
+			if (writeBehind != null) {
+				try {
+					success = writeBehind.delete(arg0.getValue());
+				} catch (IOException e) {
+					throw new RuntimeException(e.getMessage(), e);
+				}
+			} else {
+				success = IdentifierManager.getInstance().deleteSystemMetadata(arg0.getValue());
+			}
 			if(!success) {
 				throw new RuntimeException("SystemMetadataMap.delete - the system metadata of guid - "+arg0.getValue()+" can't be removed successfully.");
 			}
@@ -49,7 +63,14 @@ public class SystemMetadataMap
 	public void store(Identifier pid, SystemMetadata sm) {
 		try {
 			logMetacat.debug("Storing System Metadata to store: " + pid.getValue());
-			IdentifierManager.getInstance().insertOrUpdateSystemMetadata(sm);
+			if (writeBehind != null) {
+				writeBehind.store(sm);
+			} else {
+				IdentifierManager.getInstance().insertOrUpdateSystemMetadata(sm);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.getMessage(), e);
+
 		} catch (McdbDocNotFoundException e) {
 			throw new RuntimeException(e.getMessage(), e);
 			
@@ -63,8 +84,18 @@ public class SystemMetadataMap
 
 	@Override
 	public void storeAll(Map<Identifier, SystemMetadata> map) {
-		for (Identifier key: map.keySet()) {
-			store(key, map.get(key));
+		try {
+			if (writeBehind != null) {
+				logMetacat.debug("Storing " + map.size() + " System Metadata to the write-behind journal");
+				writeBehind.storeAll(map.values());
+			} else {
+				logMetacat.debug("Storing " + map.size() + " System Metadata to store in one transaction");
+				IdentifierManager.getInstance().insertOrUpdateSystemMetadata(map.values());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e.getMessage(), e);
+		} catch (SQLException e) {
+			throw new RuntimeException(e.getMessage(), e);
 		}
 	}
 
@@ -75,6 +106,13 @@ public class SystemMetadataMap
     
     try {
 			logMetacat.debug("loading from store: " + pid.getValue());
+			if (writeBehind != null) {
+				// a change which isn't flushed yet is newer than the database
+				sm = writeBehind.get(pid.getValue());
+				if (sm != null) {
+					return sm;
+				}
+			}
 			sm = IdentifierManager.getInstance().getSystemMetadata(pid.getValue());
 		} catch (McdbDocNotFoundException e) {
 			//throw new RuntimeException(e.getMessage(), e);
@@ -0,0 +1,818 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone.hazelcast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+import org.dataone.service.util.TypeMarshaller;
+
+import com.codahale.metrics.Gauge;
+
+import edu.ucsb.nceas.metacat.IdentifierManager;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * Writes the system metadata of the hzSystemMetadata map behind. A change is appended to a
+ * local journal, which is synced to disk before the change is acknowledged, and a flusher
+ * thread writes the last change of every pid to the database in batched transactions, so a
+ * bulk update costs a few commits instead of one per object. The writers which arrive while
+ * the journal is synced share that sync.
+ *
+ * The journal is split into segments. A flush starts a new segment and removes the older ones
+ * once their changes are in the database; the changes which couldn't be saved are written to
+ * the new segment again. When Metacat starts, the segments left behind are replayed, so an
+ * acknowledged change survives a crash. The pending changes are read before the database when
+ * the map loads an entry, so reads of a pid through the map see the writes which aren't
+ * flushed yet. The queries which go to the database directly don't: listObjects,
+ * countSystemMetadata and the other searches of the systemMetadata table may see a change up
+ * to dataone.hazelcast.storageCluster.writeBehind.flushInterval milliseconds later.
+ *
+ * The exception is a change of the series id, the obsoletes or the obsoletedBy id of a pid.
+ * The series_head table and the SeriesHeadCache are maintained when the system metadata is
+ * written to the database, so such a change is written through right after it is journaled,
+ * and getHeadPID resolves a series id to the new head at once. If that write fails, the change
+ * stays pending and the head is updated by the flush which stores it.
+ *
+ * A change which the database rejects dataone.hazelcast.storageCluster.writeBehind.maxAttempts
+ * times in a row is given up: its document is written to the dead-letter directory of the
+ * journal, it is dropped from the pending changes and evicted from the map, so the map
+ * doesn't keep serving a value which will never be stored.
+ *
+ * The changes are only written over rows which aren't newer, by serial version and then by
+ * modification date, so a late flush or a replay can't undo a change which another member of
+ * the cluster wrote after the partition of the pid moved to it. When a partition moves away
+ * from this member, the journal is drained. If the journal can't be replayed at the start,
+ * its segments are moved to a quarantine directory before the changes go to the database
+ * directly, so they are never replayed over the changes which are made in the meantime.
+ */
+public class SystemMetadataWriteBehind {
+    private static final String SEGMENT_PREFIX = "journal.";
+    private static final String DEAD_LETTER = "dead-letter";
+    private static final String QUARANTINE = "quarantine";
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static Log logMetacat = LogFactory.getLog(SystemMetadataWriteBehind.class);
+    private static SystemMetadataWriteBehind instance = null;
+    private static boolean initialized = false;
+
+    private File dir;
+    private long flushInterval = 1000;
+    private int batchSize = 500;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    // the last change of every pid which isn't in the database yet, guarded by this
+    private Map<String, SystemMetadata> pending = new LinkedHashMap<String, SystemMetadata>();
+    // the changes which the flusher is writing to the database, guarded by this
+    private Map<String, SystemMetadata> flushing = new HashMap<String, SystemMetadata>();
+    // the failed writes of the pending change of a pid, guarded by this
+    private Map<String, Integer> attempts = new HashMap<String, Integer>();
+    private long segment = 0;
+    private FileOutputStream segmentFile = null;
+    private DataOutputStream out = null;
+    private long appended = 0;
+    private long segmentRecords = 0;
+    // the journal is synced up to this record, guarded by syncLock
+    private long synced = 0;
+    private final Object syncLock = new Object();
+    // held while a batch is written, so a deletion can't be overwritten by an older change
+    private final Object flushLock = new Object();
+    private volatile boolean running = true;
+    private volatile boolean drainRequested = false;
+    private Thread flusher = null;
+
+    /**
+     * Constructor. It replays the journal in the directory and starts the flusher.
+     * @param dir  the directory of the journal
+     * @param flushInterval  the milliseconds between the flushes
+     * @param batchSize  the number of changes written in one transaction
+     * @throws IOException if the journal can't be read or opened
+     */
+    protected SystemMetadataWriteBehind(File dir, long flushInterval, int batchSize) throws IOException {
+        this(dir, flushInterval, batchSize, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Constructor. It replays the journal in the directory and starts the flusher.
+     * @param dir  the directory of the journal
+     * @param flushInterval  the milliseconds between the flushes
+     * @param batchSize  the number of changes written in one transaction
+     * @param maxAttempts  the number of the failed writes after which a change is dead-lettered
+     * @throws IOException if the journal can't be read or opened
+     */
+    protected SystemMetadataWriteBehind(File dir, long flushInterval, int batchSize, int maxAttempts) throws IOException {
+        this.dir = dir;
+        this.flushInterval = flushInterval;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create the journal directory " + dir.getAbsolutePath());
+        }
+        replay();
+        openSegment();
+        flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "SystemMetadataWriteBehind");
+        flusher.setDaemon(true);
+        flusher.start();
+        MetacatMetrics.registerGauge("systemMetadata.writeBehind.pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getPendingCount();
+            }
+        });
+    }
+
+    /**
+     * Get the write-behind store of the system metadata.
+     * @return the single instance, or null if dataone.hazelcast.storageCluster.writeBehind isn't
+     * true and the changes are written to the database directly
+     */
+    public static synchronized SystemMetadataWriteBehind getInstance() {
+        if (!initialized) {
+            File dir = null;
+            try {
+                if (Boolean.parseBoolean(PropertyService.getProperty("dataone.hazelcast.storageCluster.writeBehind"))) {
+                    dir = new File(PropertyService.getProperty("dataone.hazelcast.storageCluster.writeBehind.journalDir"));
+                    long interval = Long.parseLong(PropertyService.getProperty("dataone.hazelcast.storageCluster.writeBehind.flushInterval"));
+                    int size = Integer.parseInt(PropertyService.getProperty("dataone.hazelcast.storageCluster.writeBehind.batchSize"));
+                    int max = DEFAULT_MAX_ATTEMPTS;
+                    try {
+                        max = Integer.parseInt(PropertyService.getProperty("dataone.hazelcast.storageCluster.writeBehind.maxAttempts"));
+                    } catch (Exception e) {
+                        logMetacat.debug("SystemMetadataWriteBehind.getInstance - use the default max attempts " + DEFAULT_MAX_ATTEMPTS
+                                         + " since " + e.getMessage());
+                    }
+                    instance = new SystemMetadataWriteBehind(dir, interval, size, max);
+                    logMetacat.info("SystemMetadataWriteBehind.getInstance - the system metadata is written behind with the journal in "
+                                    + dir.getAbsolutePath());
+                }
+            } catch (Exception e) {
+                instance = null;
+                // the segments left behind would be replayed over newer rows at a later start
+                if (dir != null && !quarantine(dir)) {
+                    throw new IllegalStateException("The write-behind store of the system metadata can't be started and its journal in "
+                                                    + dir.getAbsolutePath() + " can't be quarantined: " + e.getMessage(), e);
+                }
+                // without the journal the changes aren't durable, so they go to the database directly
+                logMetacat.error("SystemMetadataWriteBehind.getInstance - the system metadata will be written to the database "
+                                 + "directly since the write-behind store can't be started: " + e.getMessage(), e);
+            }
+            initialized = true;
+        }
+        return instance;
+    }
+
+    /*
+     * Move the segments of the journal into a new quarantine directory, where an administrator
+     * can inspect them, so they are never replayed.
+     * @return true if no segment is left in the journal directory
+     */
+    private static boolean quarantine(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return true;
+        }
+        File target = new File(new File(dir, QUARANTINE), String.valueOf(System.currentTimeMillis()));
+        boolean success = true;
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().startsWith(SEGMENT_PREFIX)) {
+                continue;
+            }
+            if ((!target.isDirectory() && !target.mkdirs() && !target.isDirectory())
+                    || !file.renameTo(new File(target, file.getName()))) {
+                logMetacat.error("SystemMetadataWriteBehind.quarantine - couldn't move " + file.getAbsolutePath() + " to "
+                                 + target.getAbsolutePath());
+                success = false;
+            }
+        }
+        if (success && target.isDirectory()) {
+            logMetacat.error("SystemMetadataWriteBehind.quarantine - the journal segments were moved to " + target.getAbsolutePath()
+                             + ". Their changes were not written to the database");
+        }
+        return success;
+    }
+
+    /**
+     * Ask the flusher to drain the journal. It is called when a partition of the map moves to
+     * another member, which writes the changes of its pids from then on.
+     */
+    public void requestDrain() {
+        drainRequested = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write all the pending changes to the database and truncate the journal. The changes
+     * which the database still rejects stay pending.
+     */
+    public void drain() {
+        synchronized (flushLock) {
+            flush();
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (!pending.isEmpty() || segmentRecords > 0) {
+                        logMetacat.warn("SystemMetadataWriteBehind.drain - " + pending.size()
+                                        + " changes are still pending and stay in the journal");
+                        return;
+                    }
+                    try {
+                        rotate();
+                    } catch (IOException e) {
+                        logMetacat.error("SystemMetadataWriteBehind.drain - couldn't start a new journal segment: " + e.getMessage(), e);
+                        return;
+                    }
+                    deleteSegmentsBefore(segment);
+                }
+            }
+        }
+        logMetacat.info("SystemMetadataWriteBehind.drain - the journal is drained");
+    }
+
+    /**
+     * Flush the pending changes and stop the flusher. It is called when Hazelcast is stopped.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+        initialized = false;
+    }
+
+    /**
+     * Save a change. It returns after the change is in the journal on disk.
+     * @param sysmeta  the changed system metadata
+     * @throws IOException if the journal can't be written
+     */
+    public void store(SystemMetadata sysmeta) throws IOException {
+        List<SystemMetadata> sysmetas = new ArrayList<SystemMetadata>();
+        sysmetas.add(sysmeta);
+        storeAll(sysmetas);
+    }
+
+    /**
+     * Save many changes with one sync of the journal.
+     * @param sysmetas  the changed system metadata
+     * @throws IOException if the journal can't be written
+     */
+    public void storeAll(Collection<SystemMetadata> sysmetas) throws IOException {
+        List<byte[]> documents = new ArrayList<byte[]>();
+        List<SystemMetadata> chainChanges = new ArrayList<SystemMetadata>();
+        for (SystemMetadata sysmeta : sysmetas) {
+            documents.add(marshal(sysmeta));
+            if (changesChain(sysmeta)) {
+                chainChanges.add(sysmeta);
+            }
+        }
+        long record;
+        synchronized (this) {
+            int i = 0;
+            for (SystemMetadata sysmeta : sysmetas) {
+                String pid = sysmeta.getIdentifier().getValue();
+                append(PUT, pid, documents.get(i++));
+                pending.put(pid, sysmeta);
+                // a new change gets its own attempts
+                attempts.remove(pid);
+            }
+            record = appended;
+            if (pending.size() >= batchSize) {
+                notifyAll();
+            }
+        }
+        sync(record);
+        if (!chainChanges.isEmpty()) {
+            writeThrough(chainChanges);
+        }
+    }
+
+    /*
+     * Check if a change moves the pid in the obsoletes chains, i.e. it has another series id,
+     * obsoletes or obsoletedBy id than the pending change or the database row of the pid
+     */
+    private boolean changesChain(SystemMetadata sysmeta) {
+        String[] ids = getChainIds(sysmeta);
+        String[] previous;
+        SystemMetadata pendingChange = get(sysmeta.getIdentifier().getValue());
+        if (pendingChange != null) {
+            previous = getChainIds(pendingChange);
+        } else {
+            try {
+                previous = IdentifierManager.getInstance().getChainIds(sysmeta.getIdentifier().getValue());
+            } catch (SQLException e) {
+                logMetacat.warn("SystemMetadataWriteBehind.changesChain - couldn't read the series of "
+                                + sysmeta.getIdentifier().getValue() + ", so its change is written through: " + e.getMessage());
+                return true;
+            }
+            if (previous == null) {
+                // a new pid only moves a chain if it is part of one
+                previous = new String[ids.length];
+            }
+        }
+        return !Arrays.equals(ids, previous);
+    }
+
+    private static String[] getChainIds(SystemMetadata sysmeta) {
+        return new String[] {getValue(sysmeta.getSeriesId()), getValue(sysmeta.getObsoletes()), getValue(sysmeta.getObsoletedBy())};
+    }
+
+    private static String getValue(Identifier identifier) {
+        return identifier == null ? null : identifier.getValue();
+    }
+
+    /*
+     * Write journaled changes to the database now, so the series heads are updated with them.
+     * The written changes are no longer pending unless a newer change came in meanwhile; the
+     * ones which fail stay pending for the flusher.
+     */
+    private void writeThrough(List<SystemMetadata> sysmetas) {
+        synchronized (flushLock) {
+            List<SystemMetadata> failed = write(sysmetas);
+            synchronized (this) {
+                for (SystemMetadata sysmeta : sysmetas) {
+                    String pid = sysmeta.getIdentifier().getValue();
+                    if (failed.contains(sysmeta)) {
+                        logMetacat.warn("SystemMetadataWriteBehind.writeThrough - the head of the series of " + pid
+                                        + " is updated when its change is flushed");
+                    } else if (pending.get(pid) == sysmeta) {
+                        pending.remove(pid);
+                        attempts.remove(pid);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the change of a pid which isn't in the database yet
+     * @param pid  the identifier
+     * @return the pending system metadata, or null if the database has the last change
+     */
+    public synchronized SystemMetadata get(String pid) {
+        SystemMetadata sysmeta = pending.get(pid);
+        if (sysmeta == null) {
+            sysmeta = flushing.get(pid);
+        }
+        return sysmeta;
+    }
+
+    /**
+     * Delete the system metadata of a pid. The pending change of the pid is dropped, and the
+     * deletion is recorded in the journal before the row is removed, so a replay doesn't bring
+     * the pid back.
+     * @param pid  the identifier
+     * @return true if the system metadata was removed from the database
+     * @throws IOException if the journal can't be written
+     */
+    public boolean delete(String pid) throws IOException {
+        synchronized (flushLock) {
+            long record;
+            synchronized (this) {
+                pending.remove(pid);
+                attempts.remove(pid);
+                record = append(DELETE, pid, null);
+            }
+            sync(record);
+            return IdentifierManager.getInstance().deleteSystemMetadata(pid);
+        }
+    }
+
+    /**
+     * Write the pending changes to the database
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long start = System.nanoTime();
+            Map<String, SystemMetadata> batch;
+            long current;
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (segmentRecords == 0 && pending.isEmpty()) {
+                        return;
+                    }
+                    batch = pending;
+                    pending = new LinkedHashMap<String, SystemMetadata>();
+                    flushing = batch;
+                    try {
+                        rotate();
+                    } catch (IOException e) {
+                        logMetacat.error("SystemMetadataWriteBehind.flush - couldn't start a new journal segment: " + e.getMessage(), e);
+                        pending = batch;
+                        flushing = new HashMap<String, SystemMetadata>();
+                        return;
+                    }
+                    current = segment;
+                }
+            }
+            List<SystemMetadata> failed = write(batch.values());
+            List<SystemMetadata> rejected = new ArrayList<SystemMetadata>();
+            long record;
+            synchronized (this) {
+                Map<String, Integer> previous = attempts;
+                attempts = new HashMap<String, Integer>();
+                for (Iterator<SystemMetadata> it = failed.iterator(); it.hasNext();) {
+                    SystemMetadata sysmeta = it.next();
+                    String pid = sysmeta.getIdentifier().getValue();
+                    if (pending.containsKey(pid)) {
+                        // a newer change replaces it and gets its own attempts
+                        continue;
+                    }
+                    Integer count = previous.get(pid);
+                    int attempt = (count == null ? 0 : count.intValue()) + 1;
+                    if (attempt >= maxAttempts) {
+                        rejected.add(sysmeta);
+                        it.remove();
+                    } else {
+                        attempts.put(pid, attempt);
+                    }
+                }
+                try {
+                    // the changes which aren't in the database go to the new segment, unless a newer change is there
+                    for (SystemMetadata sysmeta : failed) {
+                        String pid = sysmeta.getIdentifier().getValue();
+                        if (!pending.containsKey(pid)) {
+                            append(PUT, pid, marshal(sysmeta));
+                            pending.put(pid, sysmeta);
+                        }
+                    }
+                } catch (IOException e) {
+                    // keep the old segments, they still hold the changes
+                    logMetacat.error("SystemMetadataWriteBehind.flush - couldn't journal the unsaved changes again: " + e.getMessage(), e);
+                    // the rejected changes are given up at the next flush, when the journal works again
+                    for (SystemMetadata sysmeta : rejected) {
+                        attempts.put(sysmeta.getIdentifier().getValue(), maxAttempts - 1);
+                    }
+                    failed.addAll(rejected);
+                    for (SystemMetadata sysmeta : failed) {
+                        String pid = sysmeta.getIdentifier().getValue();
+                        if (!pending.containsKey(pid)) {
+                            pending.put(pid, sysmeta);
+                        }
+                    }
+                    flushing = new HashMap<String, SystemMetadata>();
+                    return;
+                }
+                flushing = new HashMap<String, SystemMetadata>();
+                record = appended;
+            }
+            try {
+                sync(record);
+                deleteSegmentsBefore(current);
+            } catch (IOException e) {
+                logMetacat.error("SystemMetadataWriteBehind.flush - couldn't sync the journal: " + e.getMessage(), e);
+            }
+            for (SystemMetadata sysmeta : rejected) {
+                deadLetter(sysmeta);
+            }
+            MetacatMetrics.stopTimer("systemMetadata.writeBehind.flush", start);
+            logMetacat.debug("SystemMetadataWriteBehind.flush - wrote " + (batch.size() - failed.size()) + " system metadata to the database, "
+                             + failed.size() + " are kept for the next flush, " + rejected.size() + " are dead-lettered");
+        }
+    }
+
+    /*
+     * Give up a change which the database rejected maxAttempts times. Its document is kept in the
+     * dead-letter directory, so an administrator can fix and resubmit it, and the pid is evicted
+     * from the map, so the next read loads what the database has.
+     */
+    private void deadLetter(SystemMetadata sysmeta) {
+        String pid = sysmeta.getIdentifier().getValue();
+        File file = null;
+        try {
+            File deadLetters = new File(dir, DEAD_LETTER);
+            if (!deadLetters.isDirectory() && !deadLetters.mkdirs() && !deadLetters.isDirectory()) {
+                throw new IOException("Couldn't create the directory " + deadLetters.getAbsolutePath());
+            }
+            file = new File(deadLetters, URLEncoder.encode(pid, "UTF-8") + "." + System.currentTimeMillis() + ".xml");
+            FileOutputStream document = new FileOutputStream(file);
+            try {
+                document.write(marshal(sysmeta));
+            } finally {
+                document.close();
+            }
+        } catch (IOException e) {
+            logMetacat.error("SystemMetadataWriteBehind.deadLetter - couldn't write the dead letter of " + pid + ": " + e.getMessage(), e);
+            file = null;
+        }
+        logMetacat.error("SystemMetadataWriteBehind.deadLetter - gave up the change of the system metadata of " + pid + " after "
+                         + maxAttempts + " failed writes to the database. The rejected document is "
+                         + (file == null ? "lost" : "in " + file.getAbsolutePath()));
+        MetacatMetrics.counter("systemMetadata.writeBehind.deadLetter").inc();
+        try {
+            Identifier identifier = new Identifier();
+            identifier.setValue(pid);
+            HazelcastService.getInstance().getSystemMetadataMap().evict(identifier);
+        } catch (Exception e) {
+            logMetacat.warn("SystemMetadataWriteBehind.deadLetter - couldn't evict " + pid + " from the map: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Write the changes in transactions of batchSize changes. If a transaction fails, the changes
+     * of the batch are written one by one, so one bad document doesn't hold up the others.
+     * A change is skipped if the database already has a newer version of the pid.
+     * @return the changes which couldn't be written
+     */
+    private List<SystemMetadata> write(Collection<SystemMetadata> sysmetas) {
+        List<SystemMetadata> failed = new ArrayList<SystemMetadata>();
+        List<SystemMetadata> stale = new ArrayList<SystemMetadata>();
+        List<SystemMetadata> all = new ArrayList<SystemMetadata>(sysmetas);
+        for (int i = 0; i < all.size(); i += batchSize) {
+            List<SystemMetadata> chunk = all.subList(i, Math.min(i + batchSize, all.size()));
+            try {
+                stale.addAll(IdentifierManager.getInstance().insertOrUpdateSystemMetadataIfNewer(chunk));
+            } catch (SQLException e) {
+                logMetacat.warn("SystemMetadataWriteBehind.write - couldn't write a batch of " + chunk.size()
+                                + " system metadata, so they are written one by one: " + e.getMessage());
+                for (SystemMetadata sysmeta : chunk) {
+                    try {
+                        List<SystemMetadata> single = new ArrayList<SystemMetadata>();
+                        single.add(sysmeta);
+                        stale.addAll(IdentifierManager.getInstance().insertOrUpdateSystemMetadataIfNewer(single));
+                    } catch (Exception ee) {
+                        logMetacat.error("SystemMetadataWriteBehind.write - couldn't write the system metadata of "
+                                         + sysmeta.getIdentifier().getValue() + ": " + ee.getMessage(), ee);
+                        failed.add(sysmeta);
+                    }
+                }
+            }
+        }
+        for (SystemMetadata sysmeta : stale) {
+            logMetacat.warn("SystemMetadataWriteBehind.write - dropped the journaled change of " + sysmeta.getIdentifier().getValue()
+                            + " since the database has a newer version");
+        }
+        MetacatMetrics.counter("systemMetadata.writeBehind.stale").inc(stale.size());
+        return failed;
+    }
+
+    /*
+     * Flush the pending changes every flushInterval milliseconds, or sooner if a batch is full
+     */
+    private void runFlusher() {
+        while (running) {
+            try {
+                synchronized (this) {
+                    if (running && !drainRequested && pending.size() < batchSize) {
+                        wait(flushInterval);
+                    }
+                }
+                if (drainRequested) {
+                    drainRequested = false;
+                    drain();
+                } else {
+                    flush();
+                }
+            } catch (InterruptedException e) {
+                // stop was called
+            } catch (Exception e) {
+                logMetacat.error("SystemMetadataWriteBehind.runFlusher - the flush failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /*
+     * Stop the flusher, flush what is left and close the journal
+     */
+    private void close() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            flusher.join(flushInterval + 60000);
+        } catch (InterruptedException e) {
+            logMetacat.warn("SystemMetadataWriteBehind.close - interrupted while waiting for the flusher");
+        }
+        flush();
+        synchronized (this) {
+            try {
+                out.flush();
+                segmentFile.getChannel().force(false);
+                out.close();
+            } catch (IOException e) {
+                logMetacat.error("SystemMetadataWriteBehind.close - couldn't close the journal: " + e.getMessage(), e);
+            }
+            if (!pending.isEmpty()) {
+                logMetacat.warn("SystemMetadataWriteBehind.close - " + pending.size()
+                                + " changes couldn't be flushed, they will be replayed from the journal at the next start");
+            }
+        }
+    }
+
+    private synchronized int getPendingCount() {
+        return pending.size() + flushing.size();
+    }
+
+    /*
+     * Append a record to the current segment. The caller holds the lock of this object.
+     * @return the number of the record
+     */
+    private long append(byte type, String pid, byte[] document) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(pid);
+        if (type == PUT) {
+            out.writeInt(document.length);
+            out.write(document);
+        }
+        out.flush();
+        segmentRecords++;
+        return ++appended;
+    }
+
+    /*
+     * Make sure the journal is on disk up to the record. One sync covers all the records
+     * appended before it starts, so the concurrent writers wait for one sync instead of
+     * each doing its own.
+     */
+    private void sync(long record) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= record) {
+                return;
+            }
+            long last;
+            FileOutputStream file;
+            synchronized (this) {
+                last = appended;
+                file = segmentFile;
+            }
+            file.getChannel().force(false);
+            synced = last;
+        }
+    }
+
+    /*
+     * Close the current segment and open the next one. The caller holds syncLock and the lock of this object.
+     */
+    private void rotate() throws IOException {
+        out.flush();
+        segmentFile.getChannel().force(false);
+        out.close();
+        synced = appended;
+        segment++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        segmentFile = new FileOutputStream(new File(dir, SEGMENT_PREFIX + segment), true);
+        out = new DataOutputStream(new BufferedOutputStream(segmentFile));
+        segmentRecords = 0;
+    }
+
+    private void deleteSegmentsBefore(long number) {
+        for (File file : listSegments()) {
+            if (getSegmentNumber(file) < number && !file.delete()) {
+                logMetacat.warn("SystemMetadataWriteBehind.deleteSegmentsBefore - couldn't delete " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /*
+     * Read the segments left by the last run into the pending changes and redo the deletions.
+     * A record cut off by a crash was never acknowledged, so the rest of its segment is skipped.
+     */
+    private void replay() throws IOException {
+        Set<String> deletions = new LinkedHashSet<String>();
+        int records = 0;
+        for (File file : listSegments()) {
+            segment = Math.max(segment, getSegmentNumber(file) + 1);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    byte type;
+                    try {
+                        type = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    String pid = in.readUTF();
+                    if (type == PUT) {
+                        byte[] document = new byte[in.readInt()];
+                        in.readFully(document);
+                        pending.put(pid, unmarshal(document));
+                        deletions.remove(pid);
+                    } else {
+                        pending.remove(pid);
+                        deletions.add(pid);
+                    }
+                    records++;
+                }
+            } catch (EOFException e) {
+                logMetacat.warn("SystemMetadataWriteBehind.replay - skipped the incomplete record at the end of " + file.getAbsolutePath());
+            } finally {
+                in.close();
+            }
+        }
+        for (String pid : deletions) {
+            IdentifierManager.getInstance().deleteSystemMetadata(pid);
+        }
+        if (pending.isEmpty()) {
+            deleteSegmentsBefore(segment);
+        }
+        if (records > 0) {
+            logMetacat.warn("SystemMetadataWriteBehind.replay - replayed " + records + " records of the journal, "
+                            + pending.size() + " changes will be written to the database");
+        }
+    }
+
+    /*
+     * List the segments of the journal in their order
+     */
+    private List<File> listSegments() {
+        List<File> segments = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(SEGMENT_PREFIX) && getSegmentNumber(file) >= 0) {
+                    segments.add(file);
+                }
+            }
+        }
+        File[] sorted = segments.toArray(new File[segments.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(getSegmentNumber(first), getSegmentNumber(second));
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    private static long getSegmentNumber(File file) {
+        try {
+            return Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] marshal(SystemMetadata sysmeta) throws IOException {
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        try {
+            TypeMarshaller.marshalTypeToOutputStream(sysmeta, document);
+        } catch (Exception e) {
+            throw new IOException("Couldn't serialize the system metadata of " + sysmeta.getIdentifier().getValue()
+                                  + ": " + e.getMessage(), e);
+        }
+        return document.toByteArray();
+    }
+
+    private static SystemMetadata unmarshal(byte[] document) throws IOException {
+        try {
+            return TypeMarshaller.unmarshalTypeFromStream(SystemMetadata.class, new ByteArrayInputStream(document));
+        } catch (Exception e) {
+            throw new IOException("Couldn't read the system metadata in the journal: " + e.getMessage(), e);
+        }
+    }
+}
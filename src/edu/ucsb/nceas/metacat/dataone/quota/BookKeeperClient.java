@@ -122,6 +122,18 @@ public class BookKeeperClient {
         httpClient = HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
     }
     
+    /**
+     * A constructor with the given service url and token, e.g. for a local stub of the service
+     * @param bookKeeperURL  the url of the book keeper service
+     * @param token  the token to access the service
+     */
+    protected BookKeeperClient(String bookKeeperURL, String token) {
+        this.bookKeeperURL = bookKeeperURL.endsWith("/") ? bookKeeperURL : bookKeeperURL + "/";
+        header = new BasicHeader(AUTHORIZATION,  BEARER + " " + token);
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(5 * 1000).build();
+        httpClient = HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
+    }
+    
     /**
      * Read the token from the token file
      * @return  the token string
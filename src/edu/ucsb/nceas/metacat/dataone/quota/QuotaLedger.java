@@ -0,0 +1,366 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone.quota;
+
+import java.io.UnsupportedEncodingException;
+import java.sql.ResultSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.api.Usage;
+import org.dataone.configuration.Settings;
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.exceptions.NotFound;
+import org.dataone.service.exceptions.ServiceFailure;
+
+/**
+ * An in-process ledger of the quotas and usages, so the quota enforcement doesn't need to call
+ * the remote book keeper server on every request. The quotas are cached per quota subject, requestor
+ * and quota type. A cached entry is used as it is within the time to live; after that it is still
+ * used, but refreshed by a background thread, until it is older than the maximum staleness.
+ *
+ * The usages created by this Metacat instance are kept as pending usages and added to the total usage
+ * of the cached quotas, until the usage has been reported to the book keeper server (by a UsageTask,
+ * either right away or by the FailedReportingAttemptChecker later) and the quota has been refreshed
+ * after that. Archiving and deleting usages are not applied locally; they only expire the cached quotas,
+ * so the local total usage is never lower than the remote one.
+ * @author tao
+ *
+ */
+public class QuotaLedger {
+    private static Log logMetacat  = LogFactory.getLog(QuotaLedger.class);
+    private static final long DEFAULT_TTL = 60000; //one minute
+    private static final long DEFAULT_MAX_STALE = 600000; //ten minutes
+    private static volatile QuotaLedger ledger = null;
+
+    private BookKeeperClient client = null;
+    private long ttl = DEFAULT_TTL;
+    private long maxStale = DEFAULT_MAX_STALE;
+    private Map<String, CachedQuotas> quotas = new ConcurrentHashMap<String, CachedQuotas>();
+    private Map<String, PendingUsage> pendingUsages = new ConcurrentHashMap<String, PendingUsage>();
+    private ExecutorService refresher = null;
+
+    /**
+     * Constructor
+     * @param client  the client to connect the remote book keeper server
+     * @param ttl  the time in milliseconds a cached quota is used without refreshing it
+     * @param maxStale  the time in milliseconds a cached quota can be used while it is refreshed in the background
+     */
+    QuotaLedger(BookKeeperClient client, long ttl, long maxStale) {
+        this.client = client;
+        this.ttl = ttl;
+        this.maxStale = Math.max(ttl, maxStale);
+        refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "QuotaLedger refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the singleton instance of the ledger. The usages which failed to be reported to the book keeper
+     * server before will be loaded as the pending usages.
+     * @param client  the client to connect the remote book keeper server
+     * @return the ledger instance
+     */
+    public static QuotaLedger getInstance(BookKeeperClient client) {
+        if (ledger == null) {
+            synchronized (QuotaLedger.class) {
+                if (ledger == null) {
+                    long ttl = Settings.getConfiguration().getLong("dataone.quotas.cache.ttl", DEFAULT_TTL);
+                    long maxStale = Settings.getConfiguration().getLong("dataone.quotas.cache.maxStale", DEFAULT_MAX_STALE);
+                    QuotaLedger newLedger = new QuotaLedger(client, ttl, maxStale);
+                    newLedger.loadUnReportedUsages();
+                    ledger = newLedger;
+                }
+            }
+        }
+        return ledger;
+    }
+
+    /**
+     * Tell the ledger that a usage has been reported to the book keeper server. It does nothing if the
+     * ledger hasn't been created.
+     * @param usage  the usage which was reported
+     */
+    static void notifyReported(Usage usage) {
+        QuotaLedger current = ledger;
+        if (current != null) {
+            current.reported(usage);
+        }
+    }
+
+    /**
+     * Tell the ledger that a usage was neither reported to the book keeper server nor saved locally,
+     * so its reservation is released. It does nothing if the ledger hasn't been created.
+     * @param usage  the usage which was lost
+     */
+    static void notifyLost(Usage usage) {
+        QuotaLedger current = ledger;
+        if (current != null) {
+            current.release(usage);
+        }
+    }
+
+    /**
+     * List the quotas associated with the given subject. The cached quotas will be returned if they
+     * are not older than the maximum staleness; otherwise they will be fetched from the book keeper server.
+     * @param quotaSubject  the subject who owns the quotas
+     * @param requestor  the subject of user who will request a usage
+     * @param quotaType  the type of the quotas (storage or portal)
+     * @return  the list of quotas associated with the subject.
+     * @throws ServiceFailure
+     * @throws NotFound
+     * @throws InvalidRequest
+     * @throws UnsupportedEncodingException
+     */
+    public List<Quota> listQuotas(String quotaSubject, String requestor, String quotaType) throws ServiceFailure, NotFound, InvalidRequest, UnsupportedEncodingException {
+        final String key = quotaSubject + "\n" + requestor + "\n" + quotaType;
+        CachedQuotas cached = quotas.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.fetched <= maxStale) {
+            if (now - cached.fetched > ttl && cached.startRefresh()) {
+                logMetacat.debug("QuotaLedger.listQuotas - refresh the stale quotas of the subject " + quotaSubject + " with the type " + quotaType + " in the background");
+                final String subject = quotaSubject;
+                final String user = requestor;
+                final String type = quotaType;
+                refresher.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            fetch(key, subject, user, type);
+                        } catch (Exception e) {
+                            logMetacat.warn("QuotaLedger.listQuotas - can't refresh the quotas of the subject " + subject + " with the type " + type + " since " + e.getMessage());
+                            CachedQuotas stale = quotas.get(key);
+                            if (stale != null) {
+                                stale.refreshing.set(false);
+                            }
+                        }
+                    }
+                });
+            }
+            return cached.quotas;
+        }
+        return fetch(key, quotaSubject, requestor, quotaType);
+    }
+
+    /*
+     * Fetch the quotas from the book keeper server and reconcile the pending usages with them
+     */
+    private List<Quota> fetch(String key, String quotaSubject, String requestor, String quotaType) throws ServiceFailure, NotFound, InvalidRequest, UnsupportedEncodingException {
+        long start = System.currentTimeMillis();
+        List<Quota> result = client.listQuotas(quotaSubject, requestor, quotaType);
+        quotas.put(key, new CachedQuotas(result, start));
+        for (Quota quota : result) {
+            if (quota != null && quota.getId() != null) {
+                reconcile(quota.getId(), start);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Remove the pending usages of the given quota which had been reported before the quota was fetched,
+     * since the total usage from the book keeper server already includes them.
+     */
+    private void reconcile(int quotaId, long fetched) {
+        Iterator<PendingUsage> iterator = pendingUsages.values().iterator();
+        while (iterator.hasNext()) {
+            PendingUsage pending = iterator.next();
+            if (pending.quotaId == quotaId && pending.reported > 0 && pending.reported < fetched) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the total usage of the quota, which is the total usage from the book keeper server plus the
+     * pending usages of this Metacat instance.
+     * @param quota  the quota
+     * @return the total usage
+     */
+    public double getTotalUsage(Quota quota) {
+        double total = 0;
+        if (quota.getTotalUsage() != null) {
+            total = quota.getTotalUsage().doubleValue();
+        }
+        for (PendingUsage pending : pendingUsages.values()) {
+            if (quota.getId() != null && pending.quotaId == quota.getId().intValue()) {
+                total = total + pending.quantity;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Reserve the given quantity of the quota for the instance if the quota has enough space. The
+     * reservation is a pending usage until it has been reported to the book keeper server.
+     * @param quota  the quota which will be used
+     * @param instanceId  the id of the usage instance
+     * @param quantity  the amount of the usage
+     * @return true if the quota had enough space and the quantity was reserved; otherwise false.
+     */
+    public synchronized boolean reserve(Quota quota, String instanceId, double quantity) {
+        double hardLimit = 0;
+        if (quota.getHardLimit() != null) {
+            hardLimit = quota.getHardLimit().doubleValue();
+        }
+        double existedUsages = getTotalUsage(quota);
+        logMetacat.debug("QuotaLedger.reserve - the hardLimit in the quota " + quota.getId() + " is " + hardLimit + ", the existed usages (including the pending ones) is " + existedUsages + " and the request amount of usage is " + quantity + " for the instance id " + instanceId);
+        if (hardLimit >= existedUsages + quantity) {
+            pendingUsages.put(getPendingKey(quota.getId(), instanceId), new PendingUsage(quota.getId(), quantity));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that the usage has been reported to the book keeper server. A created usage stays pending
+     * until the quota has been fetched again; archived or deleted usages expire the cached quota.
+     * @param usage  the usage which was reported
+     */
+    public void reported(Usage usage) {
+        if (usage == null || usage.getQuotaId() == null) {
+            return;
+        }
+        int quotaId = usage.getQuotaId().intValue();
+        if (QuotaServiceManager.ACTIVE.equals(usage.getStatus())) {
+            PendingUsage pending = pendingUsages.get(getPendingKey(quotaId, usage.getInstanceId()));
+            if (pending != null) {
+                pending.reported = System.currentTimeMillis();
+            }
+        } else {
+            invalidate(quotaId);
+        }
+    }
+
+    /**
+     * Release the reservation of a created usage which will never be reported, e.g. since it couldn't
+     * be saved in the local database after the reporting failed. Other usages are ignored.
+     * @param usage  the usage whose reservation is released
+     */
+    public void release(Usage usage) {
+        if (usage == null || usage.getQuotaId() == null || !QuotaServiceManager.ACTIVE.equals(usage.getStatus())) {
+            return;
+        }
+        if (pendingUsages.remove(getPendingKey(usage.getQuotaId().intValue(), usage.getInstanceId())) != null) {
+            logMetacat.warn("QuotaLedger.release - released the pending usage of the quota " + usage.getQuotaId() 
+                            + " for the instance id " + usage.getInstanceId() + " since it will never be reported");
+        }
+    }
+
+    /**
+     * Expire the cached quotas which contain the quota with the given id, so the next enforcement
+     * fetches them from the book keeper server.
+     * @param quotaId  the id of the quota
+     */
+    public void invalidate(int quotaId) {
+        Iterator<CachedQuotas> iterator = quotas.values().iterator();
+        while (iterator.hasNext()) {
+            CachedQuotas cached = iterator.next();
+            for (Quota quota : cached.quotas) {
+                if (quota != null && quota.getId() != null && quota.getId().intValue() == quotaId) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all of the cached quotas and pending usages
+     */
+    public void clear() {
+        quotas.clear();
+        pendingUsages.clear();
+    }
+
+    /*
+     * Load the created usages which haven't been reported to the book keeper server as pending usages.
+     * The FailedReportingAttemptChecker will report them later.
+     */
+    private void loadUnReportedUsages() {
+        try {
+            ResultSet rs = QuotaDBManager.getUnReportedUsages();
+            while (rs.next()) {
+                if (QuotaServiceManager.ACTIVE.equals(rs.getString(6))) {
+                    int quotaId = rs.getInt(2);
+                    pendingUsages.put(getPendingKey(quotaId, rs.getString(3)), new PendingUsage(quotaId, rs.getDouble(4)));
+                }
+            }
+            rs.close();
+            logMetacat.debug("QuotaLedger.loadUnReportedUsages - loaded " + pendingUsages.size() + " un-reported usages as pending usages");
+        } catch (Exception e) {
+            logMetacat.error("QuotaLedger.loadUnReportedUsages - can't load the un-reported usages since " + e.getMessage());
+        }
+    }
+
+    /*
+     * Get the key of a pending usage
+     */
+    private static String getPendingKey(int quotaId, String instanceId) {
+        return quotaId + "\n" + instanceId;
+    }
+
+    /*
+     * The quotas of a subject and the time when they were fetched
+     */
+    private static class CachedQuotas {
+        private List<Quota> quotas;
+        private long fetched;
+        private AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        private CachedQuotas(List<Quota> quotas, long fetched) {
+            this.quotas = quotas;
+            this.fetched = fetched;
+        }
+
+        /*
+         * Return true if the caller should start a refresh
+         */
+        private boolean startRefresh() {
+            return refreshing.compareAndSet(false, true);
+        }
+    }
+
+    /*
+     * A usage which may not be included in the total usage from the book keeper server yet.
+     * The reported field is the time it was reported, or 0 if it hasn't been reported.
+     */
+    private static class PendingUsage {
+        private int quotaId;
+        private double quantity;
+        private volatile long reported = 0;
+
+        private PendingUsage(int quotaId, double quantity) {
+            this.quotaId = quotaId;
+            this.quantity = quantity;
+        }
+    }
+}
@@ -158,25 +158,18 @@ public abstract class QuotaService {
      protected int checkQuota(boolean checkEnoughSpace, String quotaSubject, String requestor, String quotaType, double quantity, String instanceId) throws InvalidRequest, ServiceFailure, InsufficientResources, NotFound, UnsupportedEncodingException {
         int quotaId = DEFAULT_QUOTA_ID;
         boolean hasSpace = false;
-        List<Quota> quotas = client.getInstance().listQuotas(quotaSubject, requestor, quotaType);
+        QuotaLedger ledger = QuotaLedger.getInstance(client);
+        List<Quota> quotas = ledger.listQuotas(quotaSubject, requestor, quotaType);
         for (Quota quota : quotas) {
             if (quota != null) {
                 if (checkEnoughSpace) {
-                    double hardLimit = 0;
-                    double existedUsages = 0;
-                    Double hardLimitObj = quota.getHardLimit();
-                    if (hardLimitObj != null) {
-                        hardLimit = hardLimitObj.doubleValue();
-                    }
-                    Double existedUsagesObj = quota.getTotalUsage();
-                    if (existedUsagesObj != null) {
-                        existedUsages = existedUsagesObj.doubleValue();
-                    }
-                    logMetacat.debug("QuotaService.lookUpQuotaId - need to check space: the hardLimit in the quota with the quota subject " + quotaSubject + " with the type " + quotaType + "is " + hardLimit + ", the existed usages is " + existedUsages + " and the request amount of usage is " + quantity + " for the instance id " + instanceId);
-                    if (hardLimit  >= existedUsages + quantity) {
+                    //the ledger checks the hard limit against the cached total usage plus the usages not reported yet,
+                    //and reserves the quantity, so the concurrent requests can't overrun the quota.
+                    logMetacat.debug("QuotaService.lookUpQuotaId - need to check space: the quota with the quota subject " + quotaSubject + " with the type " + quotaType + " has the id " + quota.getId() + " and the request amount of usage is " + quantity + " for the instance id " + instanceId);
+                    if (ledger.reserve(quota, instanceId, quantity)) {
                         quotaId = quota.getId();
                         hasSpace = true;
-                        logMetacat.debug("QuotaService.lookUpQuotaId - the hardLimit in the quota is " + hardLimit + " and it is greater than or equals the request amount of usage " + quantity + " plus existed usage " + existedUsages +". So the request is granted for the instance id " + instanceId);
+                        logMetacat.debug("QuotaService.lookUpQuotaId - the hardLimit in the quota " + quotaId + " is greater than or equals the request amount of usage " + quantity + " plus existed usage. So the request is granted for the instance id " + instanceId);
                         break;
                     }
                 } else {
@@ -213,7 +206,16 @@ public abstract class QuotaService {
         usage.setStatus(QuotaServiceManager.ACTIVE);
         usage.setNodeId(nodeId);
         CreateUsageTask task = new CreateUsageTask(usage, client);
-        executor.submit(task);
+        boolean submitted = false;
+        try {
+            executor.submit(task);
+            submitted = true;
+        } finally {
+            if (!submitted) {
+                //the usage won't be reported or saved, so its reservation has to be released
+                QuotaLedger.notifyLost(usage);
+            }
+        }
     }
     
     /**
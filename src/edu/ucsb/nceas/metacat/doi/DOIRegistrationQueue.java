@@ -0,0 +1,182 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.doi;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
+import edu.ucsb.nceas.metacat.shared.DurableQueue;
+
+/**
+ * A durable queue of the DOI registrations, kept in the doi_registration_queue table,
+ * so creating, updating and publishing an object don't wait for the DOI registrar.
+ * 
+ * Only the pid is queued; a worker reads the current system metadata when it submits
+ * the registration. So the repeated updates of an object which arrive before its
+ * registration is submitted collapse into one row and one call to the registrar.
+ * The claiming, versioning and back-off of the rows are done by the DurableQueue;
+ * after guid.doi.queue.maxAttempts attempts the row is marked failed and kept for 
+ * the administrator (see requeueFailed).
+ */
+public class DOIRegistrationQueue extends DurableQueue<DOIRegistrationQueue.Claim> {
+    private static Log logMetacat = LogFactory.getLog(DOIRegistrationQueue.class);
+
+    private DOIService registrar = null;
+
+    /**
+     * Constructor. It reads the settings from the properties, but doesn't start the workers.
+     * @param registrar  the DOI service which submits the registrations
+     */
+    public DOIRegistrationQueue(DOIService registrar) {
+        super("DOIRegistration", "doi_registration_queue", new String[] {"guid"}, "guid.doi.queue", 2, 30000, 12);
+        this.registrar = registrar;
+    }
+
+    /**
+     * Queue the registration of an object. If the object is queued already, the rows
+     * are merged and the registration is due right away.
+     * @param pid  the identifier of the object
+     * @throws DOIException if the row can't be saved
+     */
+    public void enqueue(Identifier pid) throws DOIException {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("DOIRegistrationQueue.enqueue");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement("INSERT INTO doi_registration_queue "
+                    + "(guid, status, attempts, version, date_queued, next_attempt) VALUES (?, ?, 0, 1, now(), now()) "
+                    + "ON CONFLICT (guid) DO UPDATE SET status = excluded.status, attempts = 0, "
+                    + "version = doi_registration_queue.version + 1, date_queued = now(), next_attempt = now(), last_error = NULL");
+            stmt.setString(1, pid.getValue());
+            stmt.setString(2, QUEUED);
+            stmt.executeUpdate();
+            logMetacat.debug("DOIRegistrationQueue.enqueue - queued the DOI registration of " + pid.getValue());
+        } catch (SQLException e) {
+            throw new DOIException("DOIRegistrationQueue.enqueue - couldn't queue the DOI registration of " 
+                                    + pid.getValue() + " since " + e.getMessage());
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        // don't wait for the next poll
+        pollNow();
+    }
+
+    @Override
+    protected String getClaimColumns() {
+        return null;
+    }
+
+    @Override
+    protected Claim readClaim(ResultSet rs) throws SQLException {
+        return new Claim(rs.getString(1), rs.getLong(2), rs.getInt(3));
+    }
+
+    @Override
+    protected String describe(Claim claim) {
+        return "the DOI registration of " + claim.getGuid();
+    }
+
+    /**
+     * Submit the registration of a claimed row and record the outcome. It runs in a worker thread.
+     * @param claim  the claimed row
+     */
+    @Override
+    protected void process(Claim claim) {
+        Identifier pid = new Identifier();
+        pid.setValue(claim.getGuid());
+        String error = null;
+        try {
+            SystemMetadata sysMeta = getSystemMetadata(pid);
+            if (sysMeta == null) {
+                error = "the system metadata can't be found";
+            } else {
+                registrar.registerDOI(sysMeta);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = "the registration was interrupted";
+        } catch (Exception e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        complete(claim, error);
+    }
+
+    /**
+     * Get the current system metadata of a queued object
+     * @param pid  the identifier of the object
+     * @return the system metadata, or null if it doesn't exist
+     */
+    protected SystemMetadata getSystemMetadata(Identifier pid) {
+        return HazelcastService.getInstance().getSystemMetadataMap().get(pid);
+    }
+
+    /**
+     * Queue the failed registrations again, e.g. after the registrar was fixed
+     * @return the number of the registrations queued again
+     * @throws DOIException
+     */
+    public int requeueFailed() throws DOIException {
+        try {
+            return requeue();
+        } catch (SQLException e) {
+            throw new DOIException("DOIRegistrationQueue.requeueFailed - couldn't queue the failed registrations again since " 
+                                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the status of the queue: the numbers of the queued, failed and running 
+     * registrations, the age of the oldest queued one in milliseconds, and the 
+     * numbers of the registrations submitted, retried and given up since the start.
+     * @return the metrics by name
+     */
+    public Map<String, Long> getStatus() {
+        return getStatus("registered");
+    }
+
+    /**
+     * A row claimed by the poller
+     */
+    protected static class Claim extends DurableQueue.Claim {
+        protected Claim(String guid, long version, int attempts) {
+            super(new String[] {guid}, version, attempts);
+        }
+
+        protected String getGuid() {
+            return getKey()[0];
+        }
+    }
+}
@@ -45,6 +45,16 @@ public interface DOIService {
     public boolean registerDOI(SystemMetadata sysMeta) throws InvalidRequest, DOIException, NotImplemented, 
                                                                 ServiceFailure, InterruptedException;
 
+    /**
+     * Check if registerDOI would submit anything for the object, e.g. if its pid or sid
+     * is a DOI of this node. It is used to skip the objects which don't need to be queued.
+     * @param sysMeta  the system metadata of the object
+     * @return true if the object may need a registration. The default is true.
+     */
+    public default boolean needsRegistration(SystemMetadata sysMeta) {
+        return true;
+    }
+
     /**
      * Generate a DOI using the DOI service as configured
      * @return  the identifier which was minted by the DOI service
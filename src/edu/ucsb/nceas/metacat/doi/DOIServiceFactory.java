@@ -29,9 +29,12 @@ import edu.ucsb.nceas.utilities.PropertyNotFoundException;
  */
 public class DOIServiceFactory {
     private static DOIService doiService = null;
+    private static DOIRegistrationQueue registrationQueue = null;
     
     /**
-     * Get a singleton instance of DOIService
+     * Get a singleton instance of DOIService. If guid.doi.queue.enabled is true, the
+     * configured service is wrapped by a QueuedDOIService, so the registrations are
+     * queued and submitted in the background.
      * @return  the instance of DOIService
      * @throws PropertyNotFoundException 
      * @throws ClassNotFoundException 
@@ -45,11 +48,36 @@ public class DOIServiceFactory {
                 if (doiService == null) {
                     String className = PropertyService.getProperty("guid.doiservice.plugin.class");
                     Object object = Class.forName(className).newInstance();
-                    doiService = (DOIService) object;
+                    DOIService service = (DOIService) object;
+                    boolean queueEnabled = false;
+                    try {
+                        queueEnabled = Boolean.parseBoolean(PropertyService.getProperty("guid.doi.queue.enabled"));
+                    } catch (PropertyNotFoundException e) {
+                        queueEnabled = false;
+                    }
+                    if (queueEnabled) {
+                        registrationQueue = new DOIRegistrationQueue(service);
+                        service = new QueuedDOIService(service, registrationQueue);
+                    }
+                    doiService = service;
                 }
             }
         }
         return doiService;
     }
 
+    /**
+     * Get the queue of the DOI registrations
+     * @return the queue, or null if the registrations are not queued
+     * @throws PropertyNotFoundException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws ClassNotFoundException
+     */
+    public static DOIRegistrationQueue getRegistrationQueue() throws PropertyNotFoundException, InstantiationException, 
+                                                                    IllegalAccessException, ClassNotFoundException {
+        getDOIService();
+        return registrationQueue;
+    }
+
 }
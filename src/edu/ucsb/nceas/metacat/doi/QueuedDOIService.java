@@ -0,0 +1,99 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.doi;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * A DOIService which only queues the registrations in a DOIRegistrationQueue and 
+ * returns right away. The queue submits them to the configured DOI service later.
+ * Minting a DOI is still done synchronously since the caller needs the identifier.
+ */
+public class QueuedDOIService implements DOIService {
+    private static Log logMetacat = LogFactory.getLog(QueuedDOIService.class);
+    private DOIService delegate = null;
+    private DOIRegistrationQueue queue = null;
+
+    /**
+     * Constructor
+     * @param delegate  the DOI service which does the real work
+     * @param queue  the queue of the registrations
+     */
+    public QueuedDOIService(DOIService delegate, DOIRegistrationQueue queue) {
+        this.delegate = delegate;
+        this.queue = queue;
+    }
+
+    /**
+     * Queue the registration of the object if the DOI service would register anything for it
+     * @param sysMeta  the system metadata of the object. It must be saved already.
+     * @return true if the registration was queued; false if the object doesn't need one
+     * @throws DOIException if the registration couldn't be queued
+     */
+    @Override
+    public boolean registerDOI(SystemMetadata sysMeta) throws DOIException {
+        if (sysMeta == null || sysMeta.getIdentifier() == null || !delegate.needsRegistration(sysMeta)) {
+            return false;
+        }
+        queue.enqueue(sysMeta.getIdentifier());
+        logMetacat.debug("QueuedDOIService.registerDOI - queued " + sysMeta.getIdentifier().getValue());
+        return true;
+    }
+
+    @Override
+    public boolean needsRegistration(SystemMetadata sysMeta) {
+        return delegate.needsRegistration(sysMeta);
+    }
+
+    @Override
+    public Identifier generateDOI() throws DOIException, InvalidRequest {
+        return delegate.generateDOI();
+    }
+
+    @Override
+    public void refreshStatus() throws PropertyNotFoundException {
+        delegate.refreshStatus();
+    }
+
+    /**
+     * Get the DOI service which does the real work
+     * @return the wrapped DOI service
+     */
+    public DOIService getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Get the queue of the registrations
+     * @return the queue
+     */
+    public DOIRegistrationQueue getQueue() {
+        return queue;
+    }
+}
@@ -209,24 +209,13 @@ public class EzidDOIService implements DOIService {
 
 		// only continue if we have the feature turned on
 		if (doiEnabled) {
-		    boolean identifierIsDOI = false;
-		    boolean sidIsDOI = false;
 			String identifier = sysMeta.getIdentifier().getValue();
 			String sid = null;
 			if(sysMeta.getSeriesId() != null) {
 			    sid = sysMeta.getSeriesId().getValue();
 			}
-
-			// determine if this DOI identifier is in our configured list of shoulders
-            for (String shoulder : shoulderMap.values()) {
-			    if (shoulder != null && !shoulder.trim().equals("") && identifier != null && identifier.startsWith(shoulder)) {
-			        identifierIsDOI = true;
-			    }
-			    // determine if this DOI sid is in our configured shoulder
-                if (shoulder != null && !shoulder.trim().equals("") && sid != null && sid.startsWith(shoulder)) {
-                    sidIsDOI = true;
-                }
-            }
+		    boolean identifierIsDOI = isDOI(identifier);
+		    boolean sidIsDOI = isDOI(sid);
 
             // only continue if this DOI identifier or sid is in our configured shoulder list
 			if(identifierIsDOI || sidIsDOI) {
@@ -247,6 +236,35 @@ public class EzidDOIService implements DOIService {
 		return true;
 	}
 
+	/**
+	 * Check if the pid or the sid of the object is a DOI in one of the configured shoulders
+	 * @param sysMeta  the system metadata of the object
+	 * @return true if the DOI service is enabled and the pid or the sid is a DOI
+	 */
+	@Override
+	public boolean needsRegistration(SystemMetadata sysMeta) {
+	    if (!doiEnabled || sysMeta == null || sysMeta.getIdentifier() == null) {
+	        return false;
+	    }
+	    return isDOI(sysMeta.getIdentifier().getValue()) 
+	            || (sysMeta.getSeriesId() != null && isDOI(sysMeta.getSeriesId().getValue()));
+	}
+
+	/*
+	 * Determine if the identifier is in our configured list of shoulders
+	 */
+	private boolean isDOI(String identifier) {
+	    if (identifier == null || shoulderMap == null) {
+	        return false;
+	    }
+	    for (String shoulder : shoulderMap.values()) {
+	        if (shoulder != null && !shoulder.trim().equals("") && identifier.startsWith(shoulder)) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
 	/**
 	 * Register the metadata for the given identifier. The given identifier can be an SID.
 	 * @param identifier  the given identifier will be registered with the metadata
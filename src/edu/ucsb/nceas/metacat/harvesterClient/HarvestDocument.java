@@ -29,12 +29,14 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 
 import edu.ucsb.nceas.metacat.client.InsufficientKarmaException;
 import edu.ucsb.nceas.metacat.client.Metacat;
@@ -68,8 +70,16 @@ public class HarvestDocument {
   boolean accessError = false;
   boolean inserted = false;
   boolean metacatHasIt = false;
+  boolean notModified = false;
   boolean updated = false;
   boolean uploadError = false;
+  
+  /* The number of bytes retrieved from the site, and the ETag and 
+   * Last-Modified validators the site returned with the document.
+   */
+  long bytesRetrieved = 0;
+  private String eTag = null;
+  private String lastModified = null;
     
 
   /**
@@ -107,9 +117,13 @@ public class HarvestDocument {
 
 
   /**
-   * Retrieve the document from the site using its <documentURL> value.
+   * Retrieve the document from the site using its <documentURL> value. If
+   * this document was harvested from the same URL before, the request is
+   * made conditional on the ETag and Last-Modified values the site returned
+   * then, and null is returned when the site reports that the document was 
+   * not modified.
    * 
-   * @return   A StringReader containing the document string.
+   * @return   A StringReader containing the document string, or null.
    */
   public StringReader getSiteDocument() {
     String documentString;
@@ -117,12 +131,36 @@ public class HarvestDocument {
     InputStreamReader inputStreamReader;
     StringReader stringReader = null;
     URL url;
+    URLConnection urlConnection;
     
     try {
       url = new URL(documentURL);
-      inputStream = url.openStream();
+      urlConnection = url.openConnection();
+      
+      if (urlConnection instanceof HttpURLConnection) {
+        setConditionalHeaders(urlConnection);
+        
+        if (((HttpURLConnection) urlConnection).getResponseCode() == 
+            HttpURLConnection.HTTP_NOT_MODIFIED) {
+          notModified = true;
+          harvester.addLogEntry(0,
+                                "Not modified since last harvest: " + 
+                                documentURL, 
+                                "harvester.DocNotModified", 
+                                harvestSiteSchedule.siteScheduleID, 
+                                null, 
+                                "");
+          return null;
+        }
+        
+        eTag = urlConnection.getHeaderField("ETag");
+        lastModified = urlConnection.getHeaderField("Last-Modified");
+      }
+      
+      inputStream = urlConnection.getInputStream();
       inputStreamReader = new InputStreamReader(inputStream);
       documentString = IOUtil.getAsString(inputStreamReader, true);
+      bytesRetrieved = documentString.length();
       stringReader = new StringReader(documentString);
       harvester.addLogEntry(0,
                             "Retrieved: " + documentURL, 
@@ -148,14 +186,27 @@ public class HarvestDocument {
   }
     
 
+  /**
+   * Harvest the document from the site, putting it to Metacat with the 
+   * Harvester's Metacat client.
+   */
+  public void harvestDocument() {
+    harvestDocument(harvester.metacat);
+  }
+  
+
   /**
    * Harvest the document from the site. Unless Metacat already has the
    * document, retrieve the document from the site and put (insert or
    * update) it to Metacat. If Metacat already has the document, determine
    * the highest revision stored in Metacat so that this can be reported
    * back to the user.
+   * 
+   * @param metacat   the logged in Metacat client to put the document with.
+   *                  Documents of a site are harvested in parallel, each
+   *                  thread using a client of its own.
    */
-  public void harvestDocument() {
+  public void harvestDocument(Metacat metacat) {
     int highestRevision;
     boolean insert = false;
     String metacatReturnString;
@@ -190,7 +241,11 @@ public class HarvestDocument {
       stringReader = getSiteDocument();
       if (stringReader != null) {
         if (validateDocument()) {
-          putMetacatDocument(insert, update, stringReader);
+          putMetacatDocument(metacat, insert, update, stringReader);
+          
+          if (inserted || updated) {
+            saveValidators();
+          }
         }
       }
     }
@@ -259,15 +314,15 @@ public class HarvestDocument {
    *          document.
    */
   public int metacatHighestRevision() {
-    Connection conn = harvester.getConnection();
+    Connection conn = harvestSiteSchedule.getConnection();
     int         highestRevision = -1;
-		String query = "SELECT REV FROM XML_DOCUMENTS WHERE DOCID = " +
-                   "'" + docid + "'";
-		Statement stmt;
+		String query = "SELECT REV FROM XML_DOCUMENTS WHERE DOCID = ?";
+		PreparedStatement stmt;
     
 		try {
-			stmt = conn.createStatement();							
-			ResultSet rs = stmt.executeQuery(query);
+			stmt = conn.prepareStatement(query);
+			stmt.setString(1, docid);
+			ResultSet rs = stmt.executeQuery();
 	
 			while (rs.next()) {
 				highestRevision = rs.getInt("REV");
@@ -312,14 +367,15 @@ public class HarvestDocument {
    * Insert or update this document to Metacat. If revision equals 1, do an
    * insert; otherwise, do an update.
    * 
+   * @param metacat      the Metacat client
    * @param insert       true if this is an insert operation
    * @param update       true if this is an update operation
    * @param stringReader the StringReader object holding the document text
    */
-  private void putMetacatDocument(boolean insert,
+  private void putMetacatDocument(Metacat metacat,
+                                  boolean insert,
                                   boolean update, 
                                   StringReader stringReader) {
-    Metacat metacat = harvester.metacat;
     String metacatReturnString = "";
     
     if (harvester.connectToMetacat()) {
@@ -373,6 +429,79 @@ public class HarvestDocument {
   }
   
   
+  /**
+   * Stores the ETag and Last-Modified values the site returned with this
+   * document in the HARVEST_DOCUMENT_VALIDATOR table, so the next harvest
+   * can skip the document if it wasn't modified.
+   */
+  private void saveValidators() {
+    Connection conn = harvestSiteSchedule.getConnection();
+    PreparedStatement stmt;
+    
+    if ((eTag == null) && (lastModified == null)) {
+      return;
+    }
+    
+    try {
+      stmt = conn.prepareStatement(
+          "INSERT INTO HARVEST_DOCUMENT_VALIDATOR (DOCUMENTURL, ETAG, " +
+          "LAST_MODIFIED, DOCID, DATE_HARVESTED) VALUES (?, ?, ?, ?, now()) " +
+          "ON CONFLICT (DOCUMENTURL) DO UPDATE SET ETAG = EXCLUDED.ETAG, " +
+          "LAST_MODIFIED = EXCLUDED.LAST_MODIFIED, DOCID = EXCLUDED.DOCID, " +
+          "DATE_HARVESTED = EXCLUDED.DATE_HARVESTED");
+      stmt.setString(1, documentURL);
+      stmt.setString(2, eTag);
+      stmt.setString(3, lastModified);
+      stmt.setString(4, docid);
+      stmt.executeUpdate();
+      stmt.close();
+    }
+    catch(SQLException e) {
+      System.out.println("SQLException: " + e.getMessage());
+    }
+  }
+  
+  
+  /**
+   * Adds the If-None-Match and If-Modified-Since headers to the request if
+   * this document was harvested from the same URL before.
+   * 
+   * @param urlConnection  the connection to the document URL
+   */
+  private void setConditionalHeaders(URLConnection urlConnection) {
+    Connection conn = harvestSiteSchedule.getConnection();
+    PreparedStatement stmt;
+    
+    try {
+      stmt = conn.prepareStatement(
+          "SELECT ETAG, LAST_MODIFIED FROM HARVEST_DOCUMENT_VALIDATOR " +
+          "WHERE DOCUMENTURL = ? AND DOCID = ?");
+      stmt.setString(1, documentURL);
+      stmt.setString(2, docid);
+      ResultSet rs = stmt.executeQuery();
+      
+      if (rs.next()) {
+        String storedETag = rs.getString("ETAG");
+        String storedLastModified = rs.getString("LAST_MODIFIED");
+        
+        if (storedETag != null) {
+          urlConnection.setRequestProperty("If-None-Match", storedETag);
+        }
+        
+        if (storedLastModified != null) {
+          urlConnection.setRequestProperty("If-Modified-Since", 
+                                           storedLastModified);
+        }
+      }
+      
+      stmt.close();
+    }
+    catch(SQLException e) {
+      System.out.println("SQLException: " + e.getMessage());
+    }
+  }
+  
+  
   /**
    * Validate the document to determine whether it is valid EML prior to 
    * inserting or updating it to Metacat. This is QA/QC measure. 
@@ -58,6 +58,7 @@ public class HarvestLog {
   private String harvestOperationCodeLevel;
   private String timestamp;
   private HarvestDetailLog harvestDetailLog;  // Associated detail log, if any
+  boolean reportedToAdministrator = false;  // Set once it was reported
     
 
   /** 
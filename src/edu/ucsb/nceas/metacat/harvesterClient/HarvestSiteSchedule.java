@@ -40,7 +40,14 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import javax.xml.parsers.ParserConfigurationException;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
@@ -54,7 +61,9 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 import edu.ucsb.nceas.metacat.client.Metacat;
 import edu.ucsb.nceas.metacat.client.MetacatException;
+import edu.ucsb.nceas.metacat.client.MetacatFactory;
 import edu.ucsb.nceas.metacat.client.MetacatInaccessibleException;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
 
 
 /**
@@ -65,11 +74,17 @@ import edu.ucsb.nceas.metacat.client.MetacatInaccessibleException;
  */
 public class HarvestSiteSchedule {
     
+  private Connection conn = null;
   private String contactEmail;
+  private ThreadLocal<Connection> documentConnection = 
+                                                 new ThreadLocal<Connection>();
+  private List<Connection> documentConnections = 
+                      Collections.synchronizedList(new ArrayList<Connection>());
   private String dateLastHarvest;
   private String dateNextHarvest;
   private long delta;
   private String documentListURL;
+  private int documentThreads = 4;
   private Harvester harvester;
   private ArrayList harvestDocumentList = new ArrayList();
   private String harvestSiteEndTime;
@@ -152,7 +167,7 @@ public class HarvestSiteSchedule {
     Statement stmt;
     long timeNextHarvest;
     
-    conn = harvester.getConnection();
+    conn = getConnection();
     now = new Date();
     currentTime = now.getTime();
     timeNextHarvest = currentTime + delta;
@@ -215,6 +230,30 @@ public class HarvestSiteSchedule {
   }
   
 
+  /**
+   * Gets the database connection used while this site is harvested. Each
+   * site harvest opens a connection of its own, so that sites can be
+   * harvested in parallel, and each of its document threads opens another
+   * one, since a JDBC connection must not be used by several threads at
+   * once. Outside of a site harvest, the Harvester's connection is used.
+   * 
+   * @return  the database Connection object
+   */
+  Connection getConnection() {
+    Connection siteConnection = documentConnection.get();
+    
+    if (siteConnection == null) {
+      siteConnection = conn;
+    }
+    
+    if (siteConnection == null) {
+      siteConnection = harvester.getConnection();
+    }
+    
+    return siteConnection;
+  }
+  
+
   /**
    * Accessor method for the schemaLocation field.
    * 
@@ -226,56 +265,268 @@ public class HarvestSiteSchedule {
 
 
   /**
-   * Harvests each document in the site document list.
+   * Harvests each document in the site document list. The documents are
+   * harvested by a pool of documentThreads threads, each with a Metacat
+   * client of its own. The number of threads is read from the
+   * harvester.documentThreads.<siteScheduleID> property, or from the
+   * harvester.documentThreads property if the site doesn't have one.
    * 
-   * @throws SAXException
-   * @throws IOException
-   * @throws ParserConfigurationException
+   * @return  true if the site was due for harvest and was harvested
    */
-  public void harvestDocumentList() {
+  public boolean harvestDocumentList() {
+    BlockingQueue clients = null;
+    ExecutorService documentPool;
     HarvestDocument harvestDocument;
+    long startTime;
     boolean success;
     
-    if (dueForHarvest()) {
-      try {
-        success = parseHarvestList();
+    if (!dueForHarvest()) {
+      return false;
+    }
+    
+    readDocumentThreads();
+    conn = harvester.openConnection();
+    
+    try {
+      success = parseHarvestList();
 
-        /* If the document list was validated, then proceed with harvesting
-         * the documents
-         */
-        if (success) {
-          metacatLogin();
+      /* If the document list was validated, then proceed with harvesting
+       * the documents
+       */
+      if (success) {
+        startTime = System.currentTimeMillis();
         
-          for (int i = 0; i < harvestDocumentList.size(); i++) {
-            harvestDocument = (HarvestDocument) harvestDocumentList.get(i);
+        if (harvester.connectToMetacat()) {
+          clients = new ArrayBlockingQueue(documentThreads);
           
-            if (harvestDocument != null) {
-              harvestDocument.harvestDocument();
+          for (int i = 0; i < documentThreads; i++) {
+            Metacat metacat = metacatLogin();
+            
+            if (metacat != null) {
+              clients.add(metacat);
             }
           }
+          
+          if (clients.isEmpty()) {
+            clients = null;
+          }
+        }
+        
+        documentPool = Executors.newFixedThreadPool(documentThreads);
+      
+        for (int i = 0; i < harvestDocumentList.size(); i++) {
+          harvestDocument = (HarvestDocument) harvestDocumentList.get(i);
+        
+          if (harvestDocument != null) {
+            final HarvestDocument document = harvestDocument;
+            final BlockingQueue documentClients = clients;
+            
+            documentPool.execute(new Runnable() {
+              public void run() {
+                harvestDocument(document, documentClients);
+              }
+            });
+          }
+        }
+        
+        documentPool.shutdown();
+        
+        try {
+          documentPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+          System.out.println("InterruptedException: " + e.getMessage());
+          documentPool.shutdownNow();
+        }
 
-          metacatLogout();      
-          dbUpdateHarvestDates();  // Update the schedule
+        while ((clients != null) && !clients.isEmpty()) {
+          metacatLogout((Metacat) clients.poll());
+        }
+        
+        dbUpdateHarvestDates();  // Update the schedule
+        logThroughput(System.currentTimeMillis() - startTime);
+      }
+    }
+    catch (ParserConfigurationException e) {
+      System.out.println("ParserConfigurationException: " + e.getMessage());
+    }
+    finally {
+      closeConnection();
+    }
+    
+    reportToSiteContact();
+    return true;
+  }
+  
+  
+  /**
+   * Harvests a single document with one of the Metacat clients, returning
+   * the client to the queue afterwards. The first document of a thread
+   * opens the database connection of the thread.
+   * 
+   * @param harvestDocument  the document to harvest
+   * @param clients          the queue of the Metacat clients, or null if 
+   *                         there are none
+   */
+  private void harvestDocument(HarvestDocument harvestDocument, 
+                               BlockingQueue clients) {
+    Metacat metacat = null;
+    
+    try {
+      if (clients != null) {
+        metacat = (Metacat) clients.take();
+      }
+    }
+    catch (InterruptedException e) {
+      System.out.println("InterruptedException: " + e.getMessage());
+      return;
+    }
+    
+    if (documentConnection.get() == null) {
+      Connection connection = harvester.openConnection();
+      documentConnection.set(connection);
+      documentConnections.add(connection);
+    }
+    
+    try {
+      harvestDocument.harvestDocument(metacat);
+    }
+    catch (RuntimeException e) {
+      harvester.addLogEntry(1, "RuntimeException", "harvester.GetDocError", 
+                            siteScheduleID, harvestDocument, 
+                            "RuntimeException: " + e.getMessage());
+    }
+    finally {
+      if (clients != null) {
+        clients.add(metacat);
+      }
+    }
+  }
+  
+  
+  /**
+   * Reads the number of the document harvesting threads of this site.
+   */
+  private void readDocumentThreads() {
+    String threads = null;
+    
+    try {
+      threads = PropertyService.getProperty(
+                          "harvester.documentThreads." + siteScheduleID);
+    }
+    catch (Exception e) {
+      // the site doesn't have a property of its own
+    }
+    
+    try {
+      if (threads == null) {
+        threads = PropertyService.getProperty("harvester.documentThreads");
+      }
+      
+      documentThreads = Math.max(1, Integer.parseInt(threads.trim()));
+    }
+    catch (Exception e) {
+      System.out.println("Defaulting to documentThreads of " + 
+                         documentThreads + " for siteScheduleID=" + 
+                         siteScheduleID);
+    }
+  }
+  
+  
+  /**
+   * Closes the database connections of this site harvest and its document
+   * threads.
+   */
+  private void closeConnection() {
+    synchronized (documentConnections) {
+      for (Connection connection : documentConnections) {
+        try {
+          connection.close();
+        }
+        catch (SQLException e) {
+          System.out.println("SQLException: " + e.getMessage());
         }
       }
-      catch (ParserConfigurationException e) {
-        System.out.println("ParserConfigurationException: " + e.getMessage());
+      
+      documentConnections.clear();
+    }
+    
+    if (conn != null) {
+      try {
+        conn.close();
       }
+      catch (SQLException e) {
+        System.out.println("SQLException: " + e.getMessage());
+      }
+      
+      conn = null;
+    }
+  }
+  
+  
+  /**
+   * Logs the throughput of the site harvest to the harvest log.
+   * 
+   * @param elapsed  the duration of the document harvests in milliseconds
+   */
+  private void logThroughput(long elapsed) {
+    HarvestDocument harvestDocument;
+    long bytes = 0;
+    int nDocuments = 0;
+    int nErrors = 0;
+    int nInserted = 0;
+    int nMetacatHasIt = 0;
+    int nNotModified = 0;
+    int nUpdated = 0;
+    double seconds = Math.max(elapsed, 1) / 1000.0;
+    
+    for (int i = 0; i < harvestDocumentList.size(); i++) {
+      harvestDocument = (HarvestDocument) harvestDocumentList.get(i);
       
-      reportToSiteContact();
+      if (harvestDocument != null) {
+        nDocuments++;
+        bytes += harvestDocument.bytesRetrieved;
+        if (harvestDocument.inserted)     { nInserted++; }
+        if (harvestDocument.updated)      { nUpdated++; }
+        if (harvestDocument.notModified)  { nNotModified++; }
+        if (harvestDocument.metacatHasIt) { nMetacatHasIt++; }
+        if (harvestDocument.accessError || harvestDocument.uploadError) {
+          nErrors++;
+        }
+      }
     }
+    
+    harvester.addLogEntry(0, 
+                          "Harvested " + nDocuments + " documents (" + 
+                          nInserted + " inserted, " + nUpdated + 
+                          " updated, " + nNotModified + " not modified, " + 
+                          nMetacatHasIt + " already in Metacat, " + nErrors + 
+                          " errors) with " + documentThreads + 
+                          " threads in " + Math.round(seconds) + 
+                          " seconds: " + 
+                          Math.round(nDocuments * 60 / seconds) + 
+                          " documents/minute, " + 
+                          Math.round(bytes / 1024 / seconds) + " KB/second",
+                          "harvester.SiteThroughput",
+                          siteScheduleID,
+                          null,
+                          "");
   }
 
 
   /**
-   * Login to Metacat using the ldapDN and ldapPwd
+   * Login to Metacat using the ldapDN and ldapPwd with a new Metacat client.
+   * 
+   * @return  the Metacat client, or null if the Harvester doesn't connect to
+   *          Metacat
    */
-  public void metacatLogin() {
-    Metacat metacat = harvester.metacat;
+  public Metacat metacatLogin() {
+    Metacat metacat = null;
     String response;
 
     if (harvester.connectToMetacat()) {
       try {
+        metacat = MetacatFactory.createMetacatConnection(harvester.metacatURL);
         System.out.println("Logging in to Metacat: " + ldapDN);
         response = metacat.login(ldapDN, ldapPwd);
         //System.out.println("Metacat login response: " + response);
@@ -286,17 +537,19 @@ public class HarvestSiteSchedule {
       catch (Exception e) {
         System.out.println("Metacat login failed." + e.getMessage());
       }
-    }    
+    }
+    
+    return metacat;
   }
   
   
   /**
    * Logout from Metacat
+   * 
+   * @param metacat  the Metacat client to log out
    */
-  private void metacatLogout() {
-    Metacat metacat = harvester.metacat;
-
-    if (harvester.connectToMetacat()) {
+  private void metacatLogout(Metacat metacat) {
+    if (harvester.connectToMetacat() && (metacat != null)) {
       try {    
         // Log out from the Metacat session
         System.out.println("Logging out from Metacat");
@@ -401,6 +654,7 @@ public class HarvestSiteSchedule {
    *   A list of documents that could not be accessed at the site.
    *   A list of documents that could not be uploaded to Metacat.
    *   A list of documents that were already found in Metacat.
+   *   A list of documents that were not modified since the last harvest.
    *   
    * @param out  the PrintStream to write to
    */
@@ -409,6 +663,7 @@ public class HarvestSiteSchedule {
     int nAccessError = 0;
     int nInserted = 0;
     int nMetacatHasIt = 0;
+    int nNotModified = 0;
     int nUpdated = 0;
     int nUploadError = 0;
     
@@ -419,6 +674,7 @@ public class HarvestSiteSchedule {
         if (harvestDocument.accessError)  { nAccessError++; }
         if (harvestDocument.inserted)     { nInserted++; }
         if (harvestDocument.metacatHasIt) { nMetacatHasIt++; }
+        if (harvestDocument.notModified)  { nNotModified++; }
         if (harvestDocument.updated)      { nUpdated++; }
         if (harvestDocument.uploadError)  { nUploadError++; }
       }
@@ -499,6 +755,22 @@ public class HarvestSiteSchedule {
       printSiteSummaryTrailer(out);
     }
 
+    if (nNotModified > 0) {
+      printSiteSummaryHeader(out);
+      out.println("* The following document(s) were not modified at the site");
+      out.println("* since they were last harvested:");
+
+      for (int i = 0; i < harvestDocumentList.size(); i++) {
+        harvestDocument = (HarvestDocument) harvestDocumentList.get(i);
+        if (harvestDocument != null) {
+          if (harvestDocument.notModified)  {
+            harvestDocument.prettyPrint(out);
+          }
+        }
+      }
+      printSiteSummaryTrailer(out);
+    }
+
   }
   
 
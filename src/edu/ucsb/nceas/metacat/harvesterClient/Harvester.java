@@ -35,7 +35,17 @@ import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.ucsb.nceas.metacat.client.Metacat;
 import edu.ucsb.nceas.metacat.client.MetacatFactory;
@@ -58,7 +68,7 @@ public class Harvester {
    */
 
   public static final String filler = "*";
-  private static boolean keepRunning = true;
+  private static volatile boolean keepRunning = true;
   public static final String marker =
 "*****************************************************************************";
 //  public static PropertyService propertyService = null;
@@ -113,20 +123,18 @@ public class Harvester {
 		int delay = delayDefault.intValue(); // Delay in hours before first
 												// harvest
 		Integer d; // Used for determining delay
-		long delta; // endTime - startTime
-		long endTime; // time that a harvest completes
-		Harvester harvester; // object for a single harvest run
+		Harvester harvester; // object driving the harvests
 		Integer maxHarvestsDefault = new Integer(0); // Default max harvests
 		int maxHarvests = maxHarvestsDefault.intValue(); // Max number of
 															// harvests
 		Integer mh; // used in determining max harvests
-		int nHarvests = 0; // counts the number of harvest runs
 		final long oneHour = (60 * 60 * 1000); // milliseconds in one hour
 		Integer periodDefault = new Integer(24); // Default hours between
 													// harvests
 		int period = periodDefault.intValue(); // Hours between harvests
 		Integer p; // Used in determining the period
-		long startTime; // time that a harvest run starts
+		long checkInterval; // Minutes between the checks of the site schedule
+		final long oneMinute = (60 * 1000); // milliseconds in one minute
 		
 		String metacatContextDir = null;
 
@@ -200,51 +208,38 @@ public class Harvester {
 			period = periodDefault.intValue();
 		}
 
-		// Sleep for delay number of hours prior to starting first harvest
+		// Parse the checkInterval property. Use the period if it isn't set.
+		try {
+			checkInterval = Long.parseLong(PropertyService.getProperty("harvester.checkInterval"));
+		} catch (NumberFormatException e) {
+			System.out.println("NumberFormatException: Error parsing checkInterval: "
+					+ e.getMessage());
+			checkInterval = period * 60L;
+		} catch (PropertyNotFoundException pnfe) {
+			checkInterval = period * 60L;
+		}
+		System.out.println("The harvest schedule will be checked every " + 
+		                   checkInterval + " minutes.");
+
 		if (delay > 0) {
-			try {
-				System.out.print("First harvest will begin in " + delay);
-				if (delay == 1) {
-					System.out.println(" hour.");
-				} else {
-					System.out.println(" hours.");
-				}
-				Thread.sleep(delay * oneHour);
-			} catch (InterruptedException e) {
-				System.err.println("InterruptedException: " + e.getMessage());
-				System.exit(1);
+			System.out.print("First harvest will begin in " + delay);
+			if (delay == 1) {
+				System.out.println(" hour.");
+			} else {
+				System.out.println(" hours.");
 			}
 		}
 
-    // Repeat a new harvest once every period number of hours, until we reach
-    // the maximum number of harvests, or indefinitely if maxHarvests <= 0.
-    // Subtract delta from the time period so
-    // that each harvest will start at a fixed interval.
+    // Check the schedule of the sites every checkInterval minutes, until we
+    // reach the maximum number of checks, or indefinitely if 
+    // maxHarvests <= 0. Each site which is due is harvested in its own thread,
+    // so a slow site doesn't delay the others.
     //
-    while (keepRunning && ((nHarvests < maxHarvests) || (maxHarvests <= 0))) {
-      nHarvests++;
-      startTime = System.currentTimeMillis();
-      harvester = new Harvester();                // New object for this
-													// harvest
-      harvester.startup(nHarvests, maxHarvests);  // Start up Harvester
-      harvester.readHarvestSiteSchedule();        // Read the database table
-      harvester.harvest();                        // Harvest the documents
-      harvester.shutdown();                       // Shut down Harvester
-      endTime = System.currentTimeMillis();
-      delta = endTime - startTime;
-
-      if ((nHarvests < maxHarvests) || (maxHarvests <= 0)) {
-        try {
-          System.out.println("Next harvest will begin in " + 
-                             period + " hours.");
-          Thread.sleep((period * oneHour) - delta);
-        }
-        catch (InterruptedException e) {
-          System.err.println("InterruptedException: " + e.getMessage());
-          System.exit(1);
-        }
-      }
-    }
+    harvester = new Harvester();
+    harvester.startup();
+    harvester.runScheduler(delay * oneHour, checkInterval * oneMinute, 
+                           maxHarvests);
+    harvester.shutdown();
   }
   
   
@@ -290,8 +285,27 @@ public class Harvester {
   /** List of HarvestLog objects. Stores log entries for report generation. */
   private ArrayList harvestLogList = new ArrayList();
   
-  /** List of HarvestSiteSchedule objects */
-  private ArrayList harvestSiteScheduleList = new ArrayList();
+  /** List of HarvestSiteSchedule objects, replaced at each schedule check */
+  private volatile ArrayList harvestSiteScheduleList = new ArrayList();
+  
+  /** The siteScheduleIDs of the sites being harvested right now */
+  private Set<Integer> runningSites = 
+                               Collections.synchronizedSet(new HashSet<Integer>());
+  
+  /** Number of site harvests completed since the last administrator report */
+  private AtomicInteger completedSites = new AtomicInteger(0);
+  
+  /** Number of the checks of the site schedule so far */
+  private AtomicInteger nChecks = new AtomicInteger(0);
+  
+  /** Thread pool harvesting the sites which are due */
+  private ExecutorService sitePool;
+  
+  /** Number of sites which may be harvested at the same time */
+  int siteThreads = 4;
+  
+  /** URL of the Metacat servlet. Each site harvest opens its own sessions. */
+  String metacatURL;
   
   /** Start time of this harvest session */
   private Date harvestStartTime;
@@ -326,7 +340,7 @@ public class Harvester {
    * @param  errorMessage    additional error message pertaining to document
    *                         error.
    */
-  void addLogEntry(int    status,
+  synchronized void addLogEntry(int    status,
                    String message,
                    String harvestOperationCode,
                    int    siteScheduleID,
@@ -414,60 +428,75 @@ public class Harvester {
   
   /**
    * Returns a connection to the database. Opens the connection if a connection
-   * has not already been made previously.
+   * has not already been made previously. It is used for the harvest log and 
+   * the schedule; each site harvest opens its own connection.
    * 
    * @return  conn  the database Connection object
    */
-  public Connection getConnection() {
+  public synchronized Connection getConnection() {
+    if (conn == null) {
+      conn = openConnection();
+    }
+    
+    return conn;
+  }
+
+
+  /**
+   * Opens a new connection to the database.
+   * 
+   * @return  the new database Connection object
+   */
+  public Connection openConnection() {
+    Connection conn = null;
     String dbDriver = "";
     String defaultDB = null;
     String password = null;
     String user = null;
     SQLWarning warn;
     
-    if (conn == null) {
-    	try {
-			dbDriver = PropertyService.getProperty("database.driver");
-			defaultDB = PropertyService.getProperty("database.connectionURI");
-			password = PropertyService.getProperty("database.password");
-			user = PropertyService.getProperty("database.user");
-		} catch (PropertyNotFoundException pnfe) {
-			System.out.println("Can't find property " + pnfe);
-	        System.exit(1);
-		}
+    try {
+      dbDriver = PropertyService.getProperty("database.driver");
+      defaultDB = PropertyService.getProperty("database.connectionURI");
+      password = PropertyService.getProperty("database.password");
+      user = PropertyService.getProperty("database.user");
+    } 
+    catch (PropertyNotFoundException pnfe) {
+      System.out.println("Can't find property " + pnfe);
+      System.exit(1);
+    }
 
-      // Load the jdbc driver
-      try {
-        Class.forName(dbDriver);
-      }
-      catch (ClassNotFoundException e) {
-        System.out.println("Can't load driver " + e);
-        System.exit(1);
-      } 
+    // Load the jdbc driver
+    try {
+      Class.forName(dbDriver);
+    }
+    catch (ClassNotFoundException e) {
+      System.out.println("Can't load driver " + e);
+      System.exit(1);
+    } 
 
-      // Make the database connection
-      try {
-        System.out.println("Getting connection to Harvester tables");
-        conn = DriverManager.getConnection(defaultDB, user, password);
+    // Make the database connection
+    try {
+      System.out.println("Getting connection to Harvester tables");
+      conn = DriverManager.getConnection(defaultDB, user, password);
 
-        // If a SQLWarning object is available, print its warning(s).
-        // There may be multiple warnings chained.
-        warn = conn.getWarnings();
-      
-        if (warn != null) {
-          while (warn != null) {
-            System.out.println("SQLState: " + warn.getSQLState());
-            System.out.println("Message:  " + warn.getMessage());
-            System.out.println("Vendor: " + warn.getErrorCode());
-            System.out.println("");
-            warn = warn.getNextWarning();
-          }
+      // If a SQLWarning object is available, print its warning(s).
+      // There may be multiple warnings chained.
+      warn = conn.getWarnings();
+    
+      if (warn != null) {
+        while (warn != null) {
+          System.out.println("SQLState: " + warn.getSQLState());
+          System.out.println("Message:  " + warn.getMessage());
+          System.out.println("Vendor: " + warn.getErrorCode());
+          System.out.println("");
+          warn = warn.getNextWarning();
         }
       }
-      catch (SQLException e) {
-        System.out.println("Database access failed " + e);
-        System.exit(1);
-      }
+    }
+    catch (SQLException e) {
+      System.out.println("Database access failed " + e);
+      System.exit(1);
     }
     
     return conn;
@@ -480,7 +509,7 @@ public class Harvester {
    * 
    * @return  the current value of the detailLogID
    */
-  public int getDetailLogID() {
+  public synchronized int getDetailLogID() {
     int currentValue = detailLogID;
     
     detailLogID++;
@@ -494,7 +523,7 @@ public class Harvester {
    * 
    * @return  the current value of the detailLogID
    */
-  public int getHarvestLogID() {
+  public synchronized int getHarvestLogID() {
     int currentValue = harvestLogID;
     
     harvestLogID++;
@@ -573,24 +602,98 @@ public class Harvester {
   
   
   /**
-   * For every Harvest site schedule in the database, harvest the
-   * documents for that site if they are due to be harvested.
-   * 
-   * @throws SAXException
-   * @throws IOException
-   * @throws ParserConfigurationException
+   * Reads the site schedule and starts a harvest for every site which isn't
+   * being harvested already. Each site decides itself whether it is due, and
+   * runs in the site pool, so a slow site doesn't delay the others. The log 
+   * entries of the site harvests completed since the last check are reported
+   * to the Harvester Administrator first.
    */
-  private void harvest() {
-    HarvestSiteSchedule harvestSiteSchedule;
-
-    for (int i = 0; i < harvestSiteScheduleList.size(); i++) {
-      harvestSiteSchedule = (HarvestSiteSchedule)harvestSiteScheduleList.get(i);
-      
-      if (Harvester.schemaLocation != null) {
-        harvestSiteSchedule.setSchemaLocation(Harvester.schemaLocation);
+  private void checkSchedule() {
+    nChecks.incrementAndGet();
+    
+    try {
+      if (completedSites.getAndSet(0) > 0) {
+        reportToAdministrator("debug");
+        pruneHarvestLog();
       }
       
-      harvestSiteSchedule.harvestDocumentList();
+      readHarvestSiteSchedule();
+      ArrayList siteList = harvestSiteScheduleList;
+      
+      for (int i = 0; i < siteList.size(); i++) {
+        final HarvestSiteSchedule harvestSiteSchedule = 
+                                         (HarvestSiteSchedule) siteList.get(i);
+        
+        if (Harvester.schemaLocation != null) {
+          harvestSiteSchedule.setSchemaLocation(Harvester.schemaLocation);
+        }
+        
+        if (runningSites.add(harvestSiteSchedule.siteScheduleID)) {
+          sitePool.execute(new Runnable() {
+            public void run() {
+              try {
+                if (harvestSiteSchedule.harvestDocumentList()) {
+                  completedSites.incrementAndGet();
+                }
+              }
+              catch (RuntimeException e) {
+                System.out.println("Error harvesting siteScheduleID=" + 
+                                   harvestSiteSchedule.siteScheduleID + ": " + e);
+              }
+              finally {
+                runningSites.remove(harvestSiteSchedule.siteScheduleID);
+              }
+            }
+          });
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      // an exception would cancel the scheduled checks
+      System.out.println("Error checking the harvest schedule: " + e);
+    }
+  }
+  
+  
+  /**
+   * Checks the site schedule periodically until maxHarvests checks were done
+   * or keepRunning is set to false, and then waits for the running site 
+   * harvests to complete.
+   * 
+   * @param initialDelay   milliseconds before the first check
+   * @param interval       milliseconds between the checks
+   * @param maxHarvests    the maximum number of checks, or 0 for no limit
+   */
+  private void runScheduler(long initialDelay, long interval, int maxHarvests) {
+    ScheduledExecutorService scheduler = 
+                                     Executors.newSingleThreadScheduledExecutor();
+    sitePool = Executors.newFixedThreadPool(siteThreads);
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        checkSchedule();
+      }
+    }, initialDelay, interval, TimeUnit.MILLISECONDS);
+    
+    try {
+      while (keepRunning && ((maxHarvests <= 0) || (nChecks.get() < maxHarvests))) {
+        Thread.sleep(1000);
+      }
+    }
+    catch (InterruptedException e) {
+      System.err.println("InterruptedException: " + e.getMessage());
+    }
+    
+    System.out.println("Waiting for the running site harvests to complete.");
+    scheduler.shutdown();
+    
+    try {
+      scheduler.awaitTermination(1, TimeUnit.HOURS);
+      sitePool.shutdown();
+      sitePool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      System.err.println("InterruptedException: " + e.getMessage());
+      sitePool.shutdownNow();
     }
   }
   
@@ -605,6 +708,46 @@ public class Harvester {
   }
   
 
+  /**
+   * Gets a copy of the log entries, which may be read while the site 
+   * harvests keep adding entries.
+   * 
+   * @return  the list of HarvestLog objects
+   */
+  synchronized List getLogEntries() {
+    return new ArrayList(harvestLogList);
+  }
+  
+  
+  /**
+   * Gets the log entries which weren't reported to the Harvester 
+   * Administrator yet and marks them reported. The reported entries are 
+   * dropped unless their site is still being harvested, since the site 
+   * contact report at the end of a site harvest needs them.
+   * 
+   * @return  the list of HarvestLog objects to report
+   */
+  private synchronized List takeUnreportedEntries() {
+    ArrayList unreported = new ArrayList();
+    Iterator iterator = harvestLogList.iterator();
+    
+    while (iterator.hasNext()) {
+      HarvestLog harvestLog = (HarvestLog) iterator.next();
+      
+      if (!harvestLog.reportedToAdministrator) {
+        harvestLog.reportedToAdministrator = true;
+        unreported.add(harvestLog);
+      }
+      
+      if (!runningSites.contains(harvestLog.getSiteScheduleID())) {
+        iterator.remove();
+      }
+    }
+    
+    return unreported;
+  }
+  
+  
   /**
    * Prints the header of the harvest report.
    * 
@@ -616,13 +759,22 @@ public class Harvester {
    *                       particular Site Contact.
    */
   void printHarvestHeader(PrintStream out, int siteScheduleID) {
+    printHarvestHeader(out, getLogEntries(), siteScheduleID);
+  }
+  
+  
+  /*
+   * Prints the header of the harvest report for the given log entries.
+   */
+  private void printHarvestHeader(PrintStream out, List entries, 
+                                  int siteScheduleID) {
     HarvestLog harvestLog;
     int logSiteScheduleID;
     int nErrors = 0;
     String phrase;
     
-    for (int i = 0; i < harvestLogList.size(); i++) {
-      harvestLog = (HarvestLog) harvestLogList.get(i);
+    for (int i = 0; i < entries.size(); i++) {
+      harvestLog = (HarvestLog) entries.get(i);
       logSiteScheduleID = harvestLog.getSiteScheduleID();
       
       if ((siteScheduleID == 0) || (siteScheduleID == logSiteScheduleID)) {
@@ -666,6 +818,15 @@ public class Harvester {
    */
   void printHarvestLog(PrintStream out, String maxCodeLevel, int siteScheduleID
                       ) {
+    printHarvestLog(out, getLogEntries(), maxCodeLevel, siteScheduleID);
+  }
+  
+  
+  /*
+   * Prints the given harvest log entries.
+   */
+  private void printHarvestLog(PrintStream out, List entries, 
+                               String maxCodeLevel, int siteScheduleID) {
     HarvestLog harvestLog;
     int logSiteScheduleID;
     int nErrors = 0;
@@ -678,8 +839,8 @@ public class Harvester {
     out.println(filler);
     out.println(marker);
 
-    for (int i = 0; i < harvestLogList.size(); i++) {
-      harvestLog = (HarvestLog) harvestLogList.get(i);
+    for (int i = 0; i < entries.size(); i++) {
+      harvestLog = (HarvestLog) entries.get(i);
       logSiteScheduleID = harvestLog.getSiteScheduleID();
       if ((siteScheduleID == 0) || (siteScheduleID == logSiteScheduleID)) {
         harvestLog.printOutput(out, maxCodeLevel);
@@ -697,8 +858,10 @@ public class Harvester {
   void printHarvestSiteSchedule(PrintStream out, int siteScheduleID) {
     HarvestSiteSchedule harvestSiteSchedule;
 
-    for (int i = 0; i < harvestSiteScheduleList.size(); i++) {
-      harvestSiteSchedule = (HarvestSiteSchedule)harvestSiteScheduleList.get(i);
+    ArrayList siteList = harvestSiteScheduleList;
+    
+    for (int i = 0; i < siteList.size(); i++) {
+      harvestSiteSchedule = (HarvestSiteSchedule) siteList.get(i);
       if (harvestSiteSchedule.siteScheduleID == siteScheduleID) {
         harvestSiteSchedule.printOutput(out);
       }
@@ -712,7 +875,7 @@ public class Harvester {
    * logPeriod object field. First deletes records from the HARVEST_DETAIL_LOG
    * table that reference the to-be-pruned entries in the HARVEST_LOG table.
    */
-  private void pruneHarvestLog() {
+  private synchronized void pruneHarvestLog() {
     long currentTime = harvestStartTime.getTime(); // time in milliseconds
     Date dateLastLog;                    // Prune everything prior to this date
     String deleteString;
@@ -799,7 +962,8 @@ public class Harvester {
    * Reads the HARVEST_SITE_SCHEDULE table in the database, creating
    * a HarvestSiteSchedule object for each row in the table.
    */
-  private void readHarvestSiteSchedule() {
+  private synchronized void readHarvestSiteSchedule() {
+    ArrayList siteList = new ArrayList();
     HarvestSiteSchedule harvestSiteSchedule;
     ResultSet rs;
     SQLWarning warn;
@@ -871,11 +1035,12 @@ public class Harvester {
                                                       unit,
                                                       contactEmail
                                                      );
-        harvestSiteScheduleList.add(harvestSiteSchedule);
+        siteList.add(harvestSiteSchedule);
       }
       
       rs.close();
       stmt.close();
+      harvestSiteScheduleList = siteList;
     }
     catch (SQLException e) {
       System.out.println("Database access failed " + e);
@@ -899,8 +1064,12 @@ public class Harvester {
     String[] fromArray;
     MailMessage msg;
     int siteScheduleID = 0;
-    String subject = "Report from Metacat Harvester: " + timestamp;
+    String subject = "Report from Metacat Harvester: " + new Date();
     String to = harvesterAdministrator;
+    List entries = takeUnreportedEntries();
+    
+    // Print the entries to standard output and then email them
+    printHarvestLog(System.out, entries, maxCodeLevel, siteScheduleID);
     
     if (!to.equals("")) {
       System.out.println("Sending report to Harvester Administrator at address "
@@ -938,8 +1107,8 @@ public class Harvester {
         
         msg.setSubject(subject);
         body = msg.getPrintStream();
-        printHarvestHeader(body, siteScheduleID);
-        printHarvestLog(body, maxCodeLevel, siteScheduleID);
+        printHarvestHeader(body, entries, siteScheduleID);
+        printHarvestLog(body, entries, maxCodeLevel, siteScheduleID);
         msg.sendAndClose();
       }
       catch (IOException e) {
@@ -967,16 +1136,14 @@ public class Harvester {
   private void shutdown() {
     String maxCodeLevel = "debug";  // Print all log entries from level 1
                                     // ("error") to level 5 ("debug")
-    int siteScheduleID = 0;
 
     // Log shutdown operation
     System.out.println("Shutting Down Harvester");
     addLogEntry(0, "Shutting Down Harvester", "harvester.HarvesterShutdown", 0, null, "");
     pruneHarvestLog();
-    closeConnection();
     // Print log to standard output and then email the Harvester administrator
-    printHarvestLog(System.out, maxCodeLevel, siteScheduleID);
-    reportToAdministrator(maxCodeLevel);      // Send a copy to harvester admin
+    reportToAdministrator(maxCodeLevel);
+    closeConnection();
   }
     
 
@@ -987,19 +1154,19 @@ public class Harvester {
 	 * @param maxHarvests      the maximum number of harvests that this process
 	 *                         can run
 	 */
-	private void startup(int nHarvests, int maxHarvests) {
+	private void startup() {
 		Boolean ctm;
 		Integer lp;
-		String metacatURL;
 		Date now = new Date();
 
 		timestamp = now.toString();
 		System.out.println(Harvester.marker);
-		System.out.print(timestamp + ": Starting Next Harvest");
-		if (maxHarvests > 0) {
-			System.out.print(" (" + nHarvests + "/" + maxHarvests + ")");
+		System.out.println(timestamp + ": Starting Harvester");
+		try {
+			siteThreads = Integer.parseInt(PropertyService.getProperty("harvester.siteThreads"));
+		} catch (Exception e) {
+			System.out.println("Defaulting to siteThreads of " + siteThreads);
 		}
-		System.out.print("\n");
 		try {
 			ctm = Boolean.valueOf(PropertyService.getProperty("harvester.connectToMetacat"));
 			connectToMetacat = ctm.booleanValue();
@@ -33,6 +33,7 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -68,6 +69,7 @@ import edu.ucsb.nceas.metacat.common.query.SolrQueryResponseWriterFactory;
 import edu.ucsb.nceas.metacat.common.query.SolrQueryService;
 import edu.ucsb.nceas.metacat.common.query.SolrQueryServiceController;
 import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeByteArrayInputStream;
+import edu.ucsb.nceas.metacat.common.resourcemap.ResourceMapNamespaces;
 import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -324,6 +326,38 @@ public class MetacatSolrIndex {
 		}
     }
     
+    /**
+     * Submit the index tasks of many new objects with one call to the index queue. The queue
+     * gives no order across its entries, so a resource map of the batch may be indexed before
+     * the objects it describes, as it may when they are submitted one by one.
+     * @param sysmetaList  the system metadata of the new objects
+     */
+    public void submitAll(List<SystemMetadata> sysmetaList) {
+        if (nodeType == null || !nodeType.equalsIgnoreCase("mn")) {
+            //only works for MNs
+            log.info("MetacatSolrIndex.submitAll - The node is not configured as a member node. So the objects" +
+                     " will not be submitted into the index queue on hazelcast service.");
+            return;
+        }
+        Map<Identifier, IndexTask> tasks = new LinkedHashMap<Identifier, IndexTask>();
+        int resourceMaps = 0;
+        long start = System.currentTimeMillis();
+        for (SystemMetadata systemMetadata : sysmetaList) {
+            IndexTask task = new IndexTask();
+            task.setSystemMetadata(systemMetadata);
+            task.setTimeAddToQueque(start);
+            if (ResourceMapNamespaces.isResourceMap(systemMetadata.getFormatId())) {
+                resourceMaps++;
+            }
+            tasks.put(systemMetadata.getIdentifier(), task);
+        }
+        if (!tasks.isEmpty()) {
+            HazelcastService.getInstance().getIndexQueue().putAll(tasks);
+        }
+        log.info("MetacatSolrIndex.submitAll - put " + (tasks.size() - resourceMaps) + " objects and " + resourceMaps +
+                 " resource maps into the index queue on hazelcast service successfully.");
+    }
+    
     
 
 }
@@ -0,0 +1,272 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.ucsb.nceas.metacat.oaipmh.harvester;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Remembers how far a harvest got, so an interrupted harvest can be resumed 
+ * with the resumption token of the last page which was completely processed.
+ * 
+ * The records are inserted by a pool of workers, so the pages finish out of 
+ * order. Each page is tracked with a count of its pending records, and the 
+ * checkpoint only moves past a page when it and all of the pages before it 
+ * are done. The checkpoint file is a properties file with the harvest options
+ * and the token; it is only used again for the same options.
+ */
+public class HarvestCheckpoint {
+  
+  /* Class variables */
+
+  private static final String RESUMPTION_TOKEN = "resumptionToken";
+  private static Log logger = LogFactory.getLog(HarvestCheckpoint.class);
+
+  
+  /* Instance variables */
+  
+  private File file = null;
+  private Properties options = new Properties();
+  private LinkedList<Page> pages = new LinkedList<Page>();
+  
+  
+  /* Constructors */
+  
+  /**
+   * Constructor
+   * 
+   * @param file             the checkpoint file. It can be null, and then
+   *                         nothing is saved.
+   * @param baseURL          the base URL of the data provider
+   * @param from             a date string or null
+   * @param until            a date string or null
+   * @param metadataPrefix   the metadata prefix
+   * @param setSpec          a set specification or null
+   */
+  public HarvestCheckpoint(File file, String baseURL, String from, 
+                           String until, String metadataPrefix, 
+                           String setSpec) {
+    this.file = file;
+    setOption("baseURL", baseURL);
+    setOption("from", from);
+    setOption("until", until);
+    setOption("metadataPrefix", metadataPrefix);
+    setOption("setSpec", setSpec);
+  }
+  
+  
+  /* Instance methods */
+  
+  /*
+   * Set an option of the harvest; the null values are left out
+   */
+  private void setOption(String name, String value) {
+    if (value != null) {
+      options.setProperty(name, value);
+    }
+  }
+  
+  
+  /**
+   * Load the resumption token of an interrupted harvest with the same options
+   * 
+   * @return the resumption token, or null if the harvest has to start from 
+   *         the beginning
+   */
+  public String load() {
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    
+    Properties saved = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      saved.load(in);
+    }
+    catch (IOException e) {
+      logger.warn("Couldn't read the checkpoint " + file + ": " + e.getMessage());
+      return null;
+    }
+    finally {
+      close(in);
+    }
+    
+    String token = (String) saved.remove(RESUMPTION_TOKEN);
+    if (!saved.equals(options)) {
+      logger.info("Ignoring the checkpoint " + file + 
+                  " since it belongs to a harvest with other options.");
+      return null;
+    }
+    
+    return token;
+  }
+  
+  
+  /**
+   * Start tracking a page. The page is pending until finishParsing() was 
+   * called and all of its records are done.
+   * 
+   * @return the page
+   */
+  public synchronized Page startPage() {
+    Page page = new Page();
+    pages.add(page);
+    return page;
+  }
+  
+  
+  /**
+   * Record that a page was completely read
+   * 
+   * @param page             the page
+   * @param resumptionToken  the token of the next page, or null or an empty
+   *                         string if it was the last page
+   */
+  public void finishParsing(Page page, String resumptionToken) {
+    synchronized (this) {
+      page.resumptionToken = resumptionToken;
+    }
+    recordDone(page);
+  }
+  
+  
+  /**
+   * Add a pending record to a page
+   * 
+   * @param page  the page
+   */
+  public synchronized void recordStarted(Page page) {
+    page.pending++;
+  }
+  
+  
+  /**
+   * Record that a record of a page was processed, whether it succeeded or not
+   * 
+   * @param page  the page
+   */
+  public synchronized void recordDone(Page page) {
+    page.pending--;
+    String token = null;
+    boolean advanced = false;
+    
+    while (!pages.isEmpty() && pages.getFirst().pending == 0) {
+      token = pages.removeFirst().resumptionToken;
+      advanced = true;
+    }
+    
+    if (advanced) {
+      if (token == null || token.length() == 0) {
+        if (pages.isEmpty()) {
+          delete();
+        }
+      }
+      else {
+        save(token);
+      }
+    }
+  }
+  
+  
+  /*
+   * Write the checkpoint to a temporary file and move it into place, so a 
+   * crash never leaves a truncated checkpoint
+   */
+  private void save(String token) {
+    if (file == null) {
+      return;
+    }
+    
+    Properties saved = new Properties();
+    saved.putAll(options);
+    saved.setProperty(RESUMPTION_TOKEN, token);
+    File tmp = new File(file.getPath() + ".tmp");
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(tmp);
+      saved.store(out, "OAI-PMH harvester checkpoint");
+      out.close();
+      out = null;
+      if (!tmp.renameTo(file)) {
+        file.delete();
+        if (!tmp.renameTo(file)) {
+          throw new IOException("couldn't rename " + tmp + " to " + file);
+        }
+      }
+      logger.debug("Saved the checkpoint " + token);
+    }
+    catch (IOException e) {
+      logger.warn("Couldn't save the checkpoint " + file + ": " + e.getMessage());
+    }
+    finally {
+      close(out);
+    }
+  }
+  
+  
+  /**
+   * Remove the checkpoint file, e.g. when the harvest is complete
+   */
+  public void delete() {
+    if (file != null && file.exists() && !file.delete()) {
+      logger.warn("Couldn't delete the checkpoint " + file);
+    }
+  }
+  
+  
+  /*
+   * Close a stream quietly
+   */
+  private static void close(java.io.Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      }
+      catch (IOException e) {
+        logger.debug("Couldn't close the checkpoint stream: " + e.getMessage());
+      }
+    }
+  }
+  
+  
+  /**
+   * A page of the harvest. It starts with one pending unit for the parsing 
+   * of the page itself.
+   */
+  public static class Page {
+    private int pending = 1;
+    private String resumptionToken = null;
+  }
+}
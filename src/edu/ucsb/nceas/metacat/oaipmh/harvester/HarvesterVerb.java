@@ -44,7 +44,6 @@ import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.StringTokenizer;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.InflaterInputStream;
@@ -89,8 +88,9 @@ public abstract class HarvesterVerb {
     "http://www.openarchives.org/OAI/2.0/ " +
     "http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd";
   
-  private static HashMap<Thread, DocumentBuilder> builderMap = 
-                                         new HashMap<Thread, DocumentBuilder>();
+  /* DocumentBuilder isn't thread-safe, so each harvester thread has its own */
+  private static ThreadLocal<DocumentBuilder> builders = 
+                                               new ThreadLocal<DocumentBuilder>();
   private static DocumentBuilderFactory documentBuilderFactory = null;
   private static Element namespaceElement = null;
   private static TransformerFactory transformerFactory = 
@@ -135,9 +135,8 @@ public abstract class HarvesterVerb {
       /* Load DOM Document */
       documentBuilderFactory = DocumentBuilderFactory.newInstance();
       documentBuilderFactory.setNamespaceAware(true);
-      Thread thread = Thread.currentThread();
       DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
-      builderMap.put(thread, builder);
+      builders.set(builder);
 
       DOMImplementation impl = builder.getDOMImplementation();
       
@@ -257,17 +256,14 @@ public abstract class HarvesterVerb {
 
 
   /**
-   * Preforms the OAI request for this OAI-PMH verb
+   * Sends an OAI request and opens the (decompressed) response. A 503 response
+   * is retried after the Retry-After delay given by the server.
    * 
+   * @param requestURL  the OAI request URL
+   * @return the input stream of the response body
    * @throws IOException
-   * @throws ParserConfigurationException
-   * @throws SAXException
-   * @throws TransformerException
    */
-  public void runVerb() 
-          throws IOException, ParserConfigurationException, 
-                 SAXException, TransformerException {
-    //logger.debug("requestURL=" + requestURL);
+  protected static InputStream openStream(String requestURL) throws IOException {
     InputStream in = null;
     URL url = new URL(requestURL);
     HttpURLConnection con = null;
@@ -332,14 +328,31 @@ public abstract class HarvesterVerb {
       in = con.getInputStream();
     }
 
+    return in;
+  }
+
+
+  /**
+   * Preforms the OAI request for this OAI-PMH verb
+   * 
+   * @throws IOException
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   * @throws TransformerException
+   */
+  public void runVerb() 
+          throws IOException, ParserConfigurationException, 
+                 SAXException, TransformerException {
+    //logger.debug("requestURL=" + requestURL);
+    InputStream in = openStream(requestURL);
+
     InputSource data = new InputSource(in);
 
-    Thread t = Thread.currentThread();
-    DocumentBuilder builder = builderMap.get(t);
+    DocumentBuilder builder = builders.get();
     
     if (builder == null) {
       builder = documentBuilderFactory.newDocumentBuilder();
-      builderMap.put(t, builder);
+      builders.set(builder);
     }
     
     document = builder.parse(data);
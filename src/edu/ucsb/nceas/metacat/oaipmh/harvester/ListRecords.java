@@ -122,9 +122,9 @@ public class ListRecords extends HarvesterVerb {
    * 
    * @return a String containing the query portion of the http request
    */
-  private static String getRequestURL(String baseURL, String from,
-                                      String until, String metadataPrefix, 
-                                      String setSpec) 
+  static String getRequestURL(String baseURL, String from,
+                              String until, String metadataPrefix, 
+                              String setSpec) 
   {
     StringBuffer requestURL = new StringBuffer(baseURL);
     requestURL.append("?verb=ListRecords");
@@ -147,7 +147,7 @@ public class ListRecords extends HarvesterVerb {
    * @return
    */
   @SuppressWarnings("deprecation")
-  private static String getRequestURL(String baseURL, String resumptionToken) {
+  static String getRequestURL(String baseURL, String resumptionToken) {
     StringBuffer requestURL = new StringBuffer(baseURL);
     requestURL.append("?verb=ListRecords");
     requestURL.append("&resumptionToken=").append(
@@ -0,0 +1,387 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package edu.ucsb.nceas.metacat.oaipmh.harvester;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Reads one page of a ListRecords response with StAX. The records are returned
+ * one at a time while the response is being downloaded, so a page is never 
+ * held in memory as a DOM. The resumption token and the OAI errors are known
+ * after the last record was read.
+ */
+public class ListRecordsStream {
+  
+  /* Class variables */
+
+  public static final String OAI_NAMESPACE = "http://www.openarchives.org/OAI/2.0/";
+  private static final String XML_DECLARATION = 
+                                 "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+  private static Log logger = LogFactory.getLog(ListRecordsStream.class);
+  private static XMLInputFactory inputFactory = null;
+  private static XMLOutputFactory outputFactory = null;
+  
+  static {
+    inputFactory = XMLInputFactory.newInstance();
+    inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    outputFactory = XMLOutputFactory.newInstance();
+    // the metadata may use the prefixes declared on the OAI-PMH root element
+    outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+  }
+
+  
+  /* Instance variables */
+  
+  private String requestURL = null;
+  private InputStream in = null;
+  private XMLEventReader reader = null;
+  private String resumptionToken = null;
+  private List<String> errors = new ArrayList<String>();
+  private boolean finished = false;
+  
+  
+  /* Constructors */
+  
+  /**
+   * Sends the ListRecords request and starts reading the response
+   * 
+   * @param requestURL  the ListRecords request URL
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public ListRecordsStream(String requestURL) 
+          throws IOException, XMLStreamException {
+    this(requestURL, HarvesterVerb.openStream(requestURL));
+  }
+  
+  
+  /*
+   * Starts reading a response which was already opened
+   */
+  ListRecordsStream(String requestURL, InputStream in) 
+          throws XMLStreamException {
+    this.requestURL = requestURL;
+    this.in = in;
+    this.reader = inputFactory.createXMLEventReader(in);
+  }
+  
+  
+  /**
+   * Starts a harvest
+   * 
+   * @param baseURL          the base URL of the data provider
+   * @param from             a date string or null
+   * @param until            a date string or null
+   * @param metadataPrefix   the metadata prefix
+   * @param setSpec          a set specification or null
+   * @return the stream of the first page
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static ListRecordsStream open(String baseURL, String from, 
+                                       String until, String metadataPrefix, 
+                                       String setSpec)
+          throws IOException, XMLStreamException {
+    return new ListRecordsStream(ListRecords.getRequestURL(baseURL, from, 
+                                             until, metadataPrefix, setSpec));
+  }
+  
+  
+  /**
+   * Continues a harvest
+   * 
+   * @param baseURL          the base URL of the data provider
+   * @param resumptionToken  the resumption token of the previous page
+   * @return the stream of the next page
+   * @throws IOException
+   * @throws XMLStreamException
+   */
+  public static ListRecordsStream open(String baseURL, String resumptionToken)
+          throws IOException, XMLStreamException {
+    return new ListRecordsStream(ListRecords.getRequestURL(baseURL, 
+                                                           resumptionToken));
+  }
+
+  
+  /* Instance methods */
+  
+  /**
+   * Reads the next record of the page
+   * 
+   * @return the record, or null if the page has no more records
+   * @throws XMLStreamException
+   */
+  public Record nextRecord() throws XMLStreamException {
+    while (!finished && reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      
+      if (event.isStartElement()) {
+        StartElement element = event.asStartElement();
+        String name = element.getName().getLocalPart();
+        
+        if (name.equals("record")) {
+          return readRecord();
+        }
+        else if (name.equals("resumptionToken")) {
+          resumptionToken = reader.getElementText().trim();
+        }
+        else if (name.equals("error")) {
+          String code = getAttribute(element, "code");
+          errors.add(code + ": " + reader.getElementText().trim());
+        }
+      }
+    }
+    
+    close();
+    return null;
+  }
+  
+  
+  /*
+   * Reads the header and the metadata of a record. The reader is positioned
+   * right after the record start tag.
+   */
+  private Record readRecord() throws XMLStreamException {
+    Record record = new Record();
+    int depth = 1;
+    
+    while (depth > 0 && reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      
+      if (event.isStartElement()) {
+        StartElement element = event.asStartElement();
+        String name = element.getName().getLocalPart();
+        
+        if (name.equals("header")) {
+          record.deleted = "deleted".equals(getAttribute(element, "status"));
+          depth++;
+        }
+        else if (name.equals("identifier") && depth == 2) {
+          record.identifier = reader.getElementText().trim();
+        }
+        else if (name.equals("datestamp") && depth == 2) {
+          record.datestamp = reader.getElementText().trim();
+        }
+        else if (name.equals("metadata") && depth == 1) {
+          record.metadata = readMetadata();
+        }
+        else {
+          skipElement();
+        }
+      }
+      else if (event.isEndElement()) {
+        depth--;
+      }
+    }
+    
+    return record;
+  }
+  
+  
+  /*
+   * Serializes the child element of a metadata element, which is the 
+   * harvested document itself. The reader is positioned right after the 
+   * metadata start tag and is left right after its end tag.
+   */
+  private String readMetadata() throws XMLStreamException {
+    StringWriter stringWriter = new StringWriter();
+    stringWriter.write(XML_DECLARATION);
+    XMLEventWriter writer = outputFactory.createXMLEventWriter(stringWriter);
+    boolean found = false;
+    int depth = 0;
+    
+    while (reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      
+      if (event.isStartElement()) {
+        depth++;
+        found = true;
+      }
+      else if (event.isEndElement()) {
+        if (depth == 0) {
+          break; // the end of the metadata element
+        }
+        depth--;
+      }
+      
+      if (depth > 0 || event.isEndElement()) {
+        writer.add(event);
+      }
+    }
+    
+    writer.flush();
+    writer.close();
+    stringWriter.write("\n");
+    return found ? stringWriter.toString() : null;
+  }
+  
+  
+  /*
+   * Skips the element whose start tag was just read
+   */
+  private void skipElement() throws XMLStreamException {
+    int depth = 1;
+    
+    while (depth > 0 && reader.hasNext()) {
+      XMLEvent event = reader.nextEvent();
+      if (event.isStartElement()) {
+        depth++;
+      }
+      else if (event.isEndElement()) {
+        depth--;
+      }
+    }
+  }
+  
+  
+  /*
+   * Gets the value of an unqualified attribute, or null
+   */
+  private static String getAttribute(StartElement element, String name) {
+    Attribute attribute = element.getAttributeByName(new QName(name));
+    return attribute == null ? null : attribute.getValue();
+  }
+  
+  
+  /**
+   * Get the resumption token of the page. It is only known after 
+   * nextRecord() returned null.
+   * 
+   * @return the resumption token, or null or an empty string if this is the
+   *         last page
+   */
+  public String getResumptionToken() {
+    return resumptionToken;
+  }
+  
+  
+  /**
+   * Get the OAI errors of the response, e.g. "noRecordsMatch: ...". They are
+   * only complete after nextRecord() returned null.
+   * 
+   * @return the list of "code: message" strings
+   */
+  public List<String> getErrors() {
+    return errors;
+  }
+  
+  
+  /**
+   * Get the OAI request URL of this page
+   * 
+   * @return the OAI request URL
+   */
+  public String getRequestURL() {
+    return requestURL;
+  }
+  
+  
+  /**
+   * Closes the response. It is safe to call this method more than once.
+   */
+  public void close() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    
+    try {
+      reader.close();
+    }
+    catch (XMLStreamException e) {
+      logger.warn("Couldn't close the reader of " + requestURL + ": " + e.getMessage());
+    }
+    
+    try {
+      in.close();
+    }
+    catch (IOException e) {
+      logger.warn("Couldn't close the response of " + requestURL + ": " + e.getMessage());
+    }
+  }
+  
+  
+  /**
+   * A record of a ListRecords response
+   */
+  public static class Record {
+    private String identifier = null;
+    private String datestamp = null;
+    private boolean deleted = false;
+    private String metadata = null;
+    
+    /**
+     * Get the OAI identifier of the record
+     * @return the identifier
+     */
+    public String getIdentifier() {
+      return identifier;
+    }
+    
+    /**
+     * Get the datestamp of the record
+     * @return the datestamp
+     */
+    public String getDatestamp() {
+      return datestamp;
+    }
+    
+    /**
+     * Does the header have the deleted status?
+     * @return true if the record was deleted in the repository
+     */
+    public boolean isDeleted() {
+      return deleted;
+    }
+    
+    /**
+     * Get the harvested document
+     * @return the document with an XML declaration, or null if the record 
+     *         has no metadata
+     */
+    public String getMetadata() {
+      return metadata;
+    }
+  }
+}
@@ -46,22 +46,22 @@ import java.sql.SQLException;
 import java.sql.SQLWarning;
 import java.sql.Statement;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.w3c.dom.Text;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import edu.ucsb.nceas.metacat.client.InsufficientKarmaException;
@@ -87,16 +87,27 @@ public class OaipmhHarvester {
   /* Class variables */
 
   private static final String METACAT_CONFIG_DIR = "../../build/war/WEB-INF";
-  private static HashMap<String, String> metacatDatestamps = 
-                                                  new HashMap<String, String>();
-  private static HashMap<String, Integer> metacatRevisions = 
-                                                 new HashMap<String, Integer>();
+  private static final int DEFAULT_WORKERS = 4;
+  /* The records waiting for a worker, per worker */
+  private static final int QUEUE_PER_WORKER = 10;
+  /* 
+   * The records of a document are processed one at a time, so two revisions 
+   * of it never compute the same new revision from the catalog
+   */
+  private static final Object[] DOCID_LOCKS = new Object[64];
+  private static Map<String, String> metacatDatestamps = 
+                                        new ConcurrentHashMap<String, String>();
+  private static Map<String, Integer> metacatRevisions = 
+                                       new ConcurrentHashMap<String, Integer>();
   private static Metacat metacatClient = null;
   private static String metacatURL = null;
 
   private static Log logger = LogFactory.getLog(OaipmhHarvester.class);
   static {
     BasicConfigurator.configure();
+    for (int i = 0; i < DOCID_LOCKS.length; i++) {
+      DOCID_LOCKS[i] = new Object();
+    }
   }
   
   /*
@@ -220,42 +231,6 @@ public class OaipmhHarvester {
   }
   
   
-  /**
-   * Extracts the metadata content from the XML string returned by the GetRecord
-   * verb.
-   * 
-   * @param getRecordString    The XML string returned by the GetRecord verb
-   *                           operation.
-   * @return  metadataString   The document string extracted from the GetRecord
-   *                           XML string.
-   */
-  private static String extractMetadata(String getRecordString) {
-    String metadataString = null;
-    StringBuffer stringBuffer = 
-               new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-    
-    /* The document string is everything between the <metadata> and </metadata>
-     * tags.
-     */
-    int metadataStartIndex = getRecordString.indexOf("<metadata>");
-    int metadataEndIndex = getRecordString.indexOf("</metadata>");
-
-    if ((metadataStartIndex >= 0) &&
-        (metadataEndIndex >= 0) &&
-        (metadataStartIndex < metadataEndIndex)
-       ) {
-      int startPosition = metadataStartIndex + "<metadata>".length();
-      int endPosition = metadataEndIndex;
-      String docString = getRecordString.substring(startPosition, endPosition);
-      stringBuffer.append(docString);
-      stringBuffer.append("\n");
-      metadataString = stringBuffer.toString();
-    }
-    
-    return metadataString;
-  }
-  
-  
   /**
    * Returns a connection to the database. Opens the connection if a connection
    * has not already been made previously.
@@ -350,32 +325,6 @@ public class OaipmhHarvester {
   }
   
   
-  /**
-   * Boolean to determine whether the content returned from the GetRecord verb
-   * indicates a deleted document.
-   * 
-   * @param    getRecordString    the content returned by the GetRecord verb
-   * @return   true if this is a deleted record, else false
-   */
-  private static boolean isDeletedRecord(String getRecordString) {
-    boolean isDeleted = false;
-    final String DELETED_FLAG_1 = "status=\"deleted\"";
-    final String DELETED_FLAG_2 = "status='deleted'";
-    
-    if (getRecordString != null) {
-      if ((getRecordString.contains(DELETED_FLAG_1) ||
-           getRecordString.contains(DELETED_FLAG_2)
-          ) &&
-          !getRecordString.contains("<metadata>")
-         ) {
-        isDeleted = true;
-      }
-    }
-    
-    return isDeleted;
-  }
-
-  
   /**
    * Load datestamps for all Metacat documents. This will be used to determine
    * whether the document in the OAI-PMH repository is newer than the copy
@@ -408,6 +357,16 @@ public class OaipmhHarvester {
   }
     
   
+  /**
+   * Forget the datestamps and revisions of the Metacat documents, e.g. before
+   * a test harvests into an empty catalog
+   */
+  static void clearMetacatCatalog() {
+    metacatDatestamps = new ConcurrentHashMap<String, String>();
+    metacatRevisions = new ConcurrentHashMap<String, Integer>();
+  }
+  
+  
   /**
    * Loads OaipmhHarvester properties from a configuration file. These are
    * configuration values that are not specified on the command line, such
@@ -445,6 +404,11 @@ public class OaipmhHarvester {
    *  <-metadataPrefix prefix>  -- metadata prefix of the harvest documents,
    *                               e.g. 'oai_dc'
    *  <-setSpec setName>        -- set specification of the harvest documents
+   *  <-workers n>              -- number of the threads inserting the
+   *                               documents into Metacat, 4 by default
+   *  <-checkpoint file>        -- file to save the progress in; an 
+   *                               interrupted harvest with the same options
+   *                               is resumed from it
    *  baseURL                   -- base URL of the OAI-PMH data provider
    *
    *  Command options appearing inside angle brackets (<>) are optional.
@@ -460,9 +424,14 @@ public class OaipmhHarvester {
       String metadataPrefix = (String) options.get("-metadataPrefix");
       String metacatConfigDir = (String) options.get("-metacatConfigDir");
       String setSpec = (String) options.get("-setSpec");
+      String workersString = (String) options.get("-workers");
+      String checkpoint = (String) options.get("-checkpoint");
+      int workers = DEFAULT_WORKERS;
       
       /* Use default values if the values aren't specified on command line */
       if (metadataPrefix == null) { metadataPrefix = "oai_dc"; }
+      if (workersString != null) { workers = Integer.parseInt(workersString); }
+      if (workers < 1) { throw new IllegalArgumentException(); }
       if (metacatConfigDir == null) { metacatConfigDir = METACAT_CONFIG_DIR; }
 
       OaipmhHarvester.loadProperties(metacatConfigDir);
@@ -477,7 +446,9 @@ public class OaipmhHarvester {
           (metacatClient != null) && 
           (metacatDatestamps != null)
          ) {
-        run(baseURL, dn, password, from, until, metadataPrefix, setSpec); 
+        File checkpointFile = (checkpoint == null) ? null : new File(checkpoint);
+        run(baseURL, dn, password, from, until, metadataPrefix, setSpec,
+            workers, checkpointFile); 
       }
       else {
         logger.error("Unable to load document catalog from Metacat database.");
@@ -491,6 +462,8 @@ public class OaipmhHarvester {
                    "<-until date> " +
                    "<-metadataPrefix prefix> " +
                    "<-setSpec setName> " +
+                   "<-workers n> " +
+                   "<-checkpoint file> " +
                    "baseURL"
                   );
 	}
@@ -550,18 +523,20 @@ public class OaipmhHarvester {
   /**
    * Login to Metacat using the ldapDN and ldapPwd
    * 
+   * @param  client   the Metacat client to log in
    * @param  ldapDN   the LDAP distinguished name, e.g.
    *                  "uid=dryad,o=LTER,dc=ecoinformatics,dc=org"
    * @param  ldapPwd  the corresponding LDAP password string
    * 
    * @return  loginSuccess, true if login succeeded, else false
    */
-  private static boolean metacatLogin(String ldapDN, String ldapPwd) {
+  private static boolean metacatLogin(Metacat client, String ldapDN, 
+                                      String ldapPwd) {
     boolean loginSuccess = false;
     
     try {
       logger.info("Logging in to Metacat: " + ldapDN);
-      String response = metacatClient.login(ldapDN, ldapPwd);
+      String response = client.login(ldapDN, ldapPwd);
       logger.info("Metacat login response: " + response);
       loginSuccess = true;
     } 
@@ -578,12 +553,14 @@ public class OaipmhHarvester {
   
   /**
    * Logout from Metacat
+   * 
+   * @param  client   the Metacat client to log out
    */
-  private static void metacatLogout() {
+  private static void metacatLogout(Metacat client) {
     try {    
       // Log out from the Metacat session
       logger.info("Logging out from Metacat");
-      metacatClient.logout();
+      client.logout();
     }
     catch (MetacatInaccessibleException e) {
       logger.error("Metacat inaccessible: " + e.getMessage());
@@ -610,154 +587,88 @@ public class OaipmhHarvester {
   
   
   /**
-   * Process the output of the ListIdentifiers verb. For each identifier
-   * listed, determine whether the document should be harvested (inserted or
-   * updated), deleted, or if no action is needed.
+   * Process a record of the ListRecords verb. Determine whether the document
+   * should be harvested (inserted or updated), deleted, or if no action is 
+   * needed. A page may have several revisions of a document, so the records
+   * of a docid are processed one at a time; an older revision which comes 
+   * after a newer one is skipped by the datestamp check.
    * 
-   * @param baseURL          The base URL of the data provider.
-   * @param from             Value of 'from' option, a date string or null
-   * @param until            Value of 'until' option, a date string or null
-   * @param metadataPrefix   Value of 'metadataPrefix' option, may be null
-   * @param setSpec          Value of 'setSpec' option, may be null
-   * @param xmlString        The XML string from ListIdentifiers
-   * @param principal        Distinguished name of the LDAP account for the
-   *                         harvester user, 
-   *                         e.g. "uid=dryad,o=LTER,dc=ecoinformatics,dc=org"
+   * @param record     The record read from the ListRecords response
+   * @param client     The Metacat client to use
+   * @param principal  Distinguished name of the LDAP account for the
+   *                   harvester user, 
+   *                   e.g. "uid=dryad,o=LTER,dc=ecoinformatics,dc=org"
    */
-  private static void processListIdentifiers(String baseURL, 
-                                             String from, 
-                                             String until,
-                                             String metadataPrefix,
-                                             String setSpec,
-                                             String xmlString,
-                                             String principal) {
-    DocumentBuilderFactory documentBuilderFactory =
-                                           DocumentBuilderFactory.newInstance();
-    StringReader stringReader = new StringReader(xmlString);
-     
+  static void processRecord(ListRecordsStream.Record record,
+                            Metacat client,
+                            String principal) {
+    String identifier = record.getIdentifier();
+    String datestamp = record.getDatestamp();
+    
+    if (identifier == null) {
+      return;
+    }
+    
+    String docid = docidFromIdentifier(identifier);
+    logger.debug("identifier: " + identifier + 
+                 "; docid: " + docid + 
+                 "; datestamp: " + datestamp);
+    
+    if (docid == null) { 
+      logger.warn("Unrecognized identifier format: " + identifier);
+      return;
+    }
+    
+    synchronized (DOCID_LOCKS[(docid.hashCode() & 0x7fffffff) % DOCID_LOCKS.length]) {
+      processRecord(record, docid, client, principal);
+    }
+  }
+  
+  
+  /*
+   * Process a record while the lock of its docid is held
+   */
+  private static void processRecord(ListRecordsStream.Record record,
+                                    String docid,
+                                    Metacat client,
+                                    String principal) {
+    String identifier = record.getIdentifier();
+    String datestamp = record.getDatestamp();
+    
     try {
-      DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
-      InputSource inputSource = new InputSource(stringReader);
-      Document document = documentBuilder.parse(inputSource);
-      Element rootElement = document.getDocumentElement();
-      NodeList nodeList = rootElement.getChildNodes();
-      
-      for (int i = 0; i < nodeList.getLength(); i++) {
-        Node child = nodeList.item(i);
-        
-        if (child instanceof Element) {
-          Element childElement = (Element) child;
-
-          if (childElement.getTagName().equals("ListIdentifiers")) {
-            NodeList listIdentifiersNodeList = childElement.getChildNodes();
-            
-            for (int j = 0; j < listIdentifiersNodeList.getLength(); j++) {
-              Node listIdentifiersNode = listIdentifiersNodeList.item(j);
-              
-              if (listIdentifiersNode instanceof Element) {
-                Element listIdentifiersElement = (Element) listIdentifiersNode;
-
-                if (listIdentifiersElement.getTagName().equals("header")) {
-                  NodeList headerNodeList = listIdentifiersElement.getChildNodes();
-                  String identifier = null;
-                  String datestamp = null;
-                  
-                  for (int k = 0; k < headerNodeList.getLength(); k++) {
-                    Node headerNode = headerNodeList.item(k);
-                    
-                    if (headerNode instanceof Element) {
-                      Element headerElement = (Element) headerNode;
-                      
-                      if (headerElement.getTagName().equals("identifier")) {
-                        Text textNode = (Text) headerElement.getFirstChild();
-                        identifier = textNode.getData().trim();
-                      }
-                      else if (headerElement.getTagName().equals("datestamp")) {
-                        Text textNode = (Text) headerElement.getFirstChild();
-                        datestamp = textNode.getData().trim();
-                      }             
-                    }
-                  }
-                  
-                  if (identifier != null) {
-                    String docid = docidFromIdentifier(identifier);
-                    logger.debug("identifier: " + identifier + 
-                                 "; docid: " + docid + 
-                                 "; datestamp: " + datestamp);
-       
-                    if (docid != null) { 
-                      if (shouldHarvestDocument(docid, datestamp)) {                    
-                        GetRecord getRecord = 
-                             new GetRecord(baseURL, identifier, metadataPrefix);
-                        getRecord.runVerb();  // Run the GetRecord verb
-                        
-                        NodeList errors = getRecord.getErrors();
-                        if (errors != null && errors.getLength() > 0) {
-                          logger.error("Found errors in GetRecord results");
-                          int length = errors.getLength();
-
-                          for (int l = 0; l < length; ++l) {
-                            Node item = errors.item(l);
-                            logger.error(item);
-                          }
-
-                          logger.error("Error record: " + getRecord.toString());
-                        }
-                        else {
-                          String getRecordString = getRecord.toString();
-                          boolean isDeleted = isDeletedRecord(getRecordString);
-                          
-                          if (isDeleted) {
-                            logger.info("GetRecord indicates deleted record: " + 
-                                        docid);
-                            if (metacatHasDocid(docid)) {
-                              logger.info(
-                                        "Deleting " + docid + " from Metacat.");
-                              String deleteReturnString = null;
-                              deleteReturnString = metacatClient.delete(docid);
-                              if (deleteReturnString != null && 
-                                  !deleteReturnString.equals("")) {
-                                logger.info(deleteReturnString);
-                              }
-                            }                           
-                          }
-                          else {
-                            String metadataString = 
-                                               extractMetadata(getRecordString);
-                            uploadToMetacat(docid, datestamp, metadataString, 
-                                            principal);
-                          }
-                        }
-                      }
-                      else {
-                        logger.info(
-                          "Not harvesting docid '" + docid + 
-                          "' from the OAI-PMH provider. " +
-                          "Metacat already has this document at datestamp '" + 
-                          datestamp + "' or higher.");
-                      }
-                    }
-                    else {
-                      logger.warn("Unrecognized identifier format: " +
-                                  identifier);
-                    }
-                  }
-                }             
-              }
-            }
+      if (record.isDeleted()) {
+        logger.info("ListRecords indicates deleted record: " + docid);
+        if (metacatHasDocid(docid)) {
+          logger.info("Deleting " + docid + " from Metacat.");
+          String deleteReturnString = client.delete(docid);
+          if (deleteReturnString != null && !deleteReturnString.equals("")) {
+            logger.info(deleteReturnString);
           }
+          metacatDatestamps.remove(docid);
+          metacatRevisions.remove(docid);
         }
       }
+      else if (shouldHarvestDocument(docid, datestamp)) {
+        uploadToMetacat(client, docid, datestamp, record.getMetadata(), 
+                        principal);
+      }
+      else {
+        logger.info(
+          "Not harvesting docid '" + docid + 
+          "' from the OAI-PMH provider. " +
+          "Metacat already has this document at datestamp '" + 
+          datestamp + "' or higher.");
+      }
     }
     catch (Exception e) {
-      logger.error("General exception:\n" + e.getMessage());
-      e.printStackTrace();
+      logger.error("Error harvesting " + identifier + ": " + e.getMessage(), e);
     }
   }
   
   
   /**
-   * Runs a OAI-PMH harvest.
+   * Runs a OAI-PMH harvest with the default number of workers and without
+   * a checkpoint.
    * 
    * @param baseURL          The base URL of the data provider.
    * @param dn               Value of 'dn' option, a LDAP distinguished name,
@@ -779,59 +690,157 @@ public class OaipmhHarvester {
                         )
           throws IOException, ParserConfigurationException, SAXException, 
                  TransformerException, NoSuchFieldException 
+  {
+    run(baseURL, dn, password, from, until, metadataPrefix, setSpec, 
+        DEFAULT_WORKERS, null);
+  }
+  
+  
+  /**
+   * Runs a OAI-PMH harvest. The ListRecords pages are read with a streaming
+   * parser and each record is handed to a bounded pool of workers, so the 
+   * next page is downloaded and parsed while the records of the current page
+   * are still being inserted. When the pool and its queue are full, the 
+   * reading thread inserts a record itself, which keeps the memory bounded.
+   * Each worker uses its own Metacat session.
+   * 
+   * @param baseURL          The base URL of the data provider.
+   * @param dn               Value of 'dn' option, a LDAP distinguished name,
+   *                         e.g. "uid=dryad,o=LTER,dc=ecoinformatics,dc=org"
+   * @param password         Value of 'password' option, a string
+   * @param from             Value of 'from' option, a date string or null
+   * @param until            Value of 'until' option, a date string or null
+   * @param metadataPrefix   Value of 'metadataPrefix' option, may be null
+   * @param setSpec          Value of 'setSpec' option, may be null
+   * @param workers          The number of the threads inserting documents
+   * @param checkpointFile   The file to save the progress in, or null
+   * @throws IOException
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   * @throws TransformerException
+   * @throws NoSuchFieldException
+   */
+  public static void run(String baseURL, String dn, String password, 
+                         String from, String until,
+                         String metadataPrefix, String setSpec,
+                         int workers, File checkpointFile
+                        )
+          throws IOException, ParserConfigurationException, SAXException, 
+                 TransformerException, NoSuchFieldException 
   {
     logger.info("Starting OAI-PMH Harvester.");
-    if ((dn != null) && (password != null)) {
-      boolean loginSuccess = metacatLogin(dn, password);
+    if ((dn == null) || (password == null)) {
+      logger.error("Distinguished name (-dn) and/or password (-password) " +
+      		       "were not specified.");
+      return;
+    }
+    
+    final BlockingQueue<Metacat> clients = 
+                                     new ArrayBlockingQueue<Metacat>(workers);
+    for (int i = 0; i < workers; i++) {
+      Metacat client = metacatClient;
+      if (i > 0) {
+        try {
+          client = MetacatFactory.createMetacatConnection(metacatURL);
+        }
+        catch (MetacatInaccessibleException e) {
+          logger.error("Couldn't create a Metacat client: " + e.getMessage());
+          break;
+        }
+      }
       
       // Terminate harvester execution if login failed
-      if (!loginSuccess) { 
+      if (!metacatLogin(client, dn, password)) { 
         logger.warn("Terminating OAI-PMH Harvester execution due to login failure.");
+        for (Metacat loggedIn : clients) {
+          metacatLogout(loggedIn);
+        }
         return; 
       } 
-    }
-    else {
-      logger.error("Distinguished name (-dn) and/or password (-password) " +
-      		       "were not specified.");
-      return;
+      clients.add(client);
     }
     
-    ListIdentifiers listIdentifiers = 
-             new ListIdentifiers(baseURL, from, until, metadataPrefix, setSpec);
-    listIdentifiers.runVerb();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(
+              clients.size(), clients.size(), 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(clients.size() * QUEUE_PER_WORKER),
+              new ThreadPoolExecutor.CallerRunsPolicy());
+    final HarvestCheckpoint checkpoint = new HarvestCheckpoint(checkpointFile, 
+                                 baseURL, from, until, metadataPrefix, setSpec);
+    final String principal = dn;
+    String resumptionToken = checkpoint.load();
     
-    while (listIdentifiers != null) {
-      NodeList errors = listIdentifiers.getErrors();
-
-      if (errors != null && errors.getLength() > 0) {
-        logger.error("Found errors in ListIdentifier results");
-        int length = errors.getLength();
-
-        for (int i = 0; i < length; ++i) {
-          Node item = errors.item(i);
-          logger.error(item);
+    try {
+      if (resumptionToken != null) {
+        logger.info("Resuming the harvest at the checkpoint " + resumptionToken);
+      }
+      
+      do {
+        ListRecordsStream page = (resumptionToken == null) ?
+            ListRecordsStream.open(baseURL, from, until, metadataPrefix, setSpec) :
+            ListRecordsStream.open(baseURL, resumptionToken);
+        final HarvestCheckpoint.Page checkpointPage = checkpoint.startPage();
+        
+        try {
+          ListRecordsStream.Record record = null;
+          while ((record = page.nextRecord()) != null) {
+            final ListRecordsStream.Record current = record;
+            checkpoint.recordStarted(checkpointPage);
+            executor.execute(new Runnable() {
+              public void run() {
+                Metacat client = null;
+                try {
+                  client = clients.take();
+                  processRecord(current, client, principal);
+                }
+                catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                finally {
+                  if (client != null) {
+                    clients.add(client);
+                  }
+                  checkpoint.recordDone(checkpointPage);
+                }
+              }
+            });
+          }
         }
-
-        logger.error("Error record: " + listIdentifiers.toString());
-        break;
+        finally {
+          page.close();
+        }
+        
+        List<String> errors = page.getErrors();
+        if (!errors.isEmpty()) {
+          logger.error("Found errors in ListRecords results of " + 
+                       page.getRequestURL() + ": " + errors);
+          break;
+        }
+        
+        resumptionToken = page.getResumptionToken();
+        logger.debug("resumptionToken: " + resumptionToken);
+        checkpoint.finishParsing(checkpointPage, resumptionToken);
+        
+        if (resumptionToken != null && resumptionToken.length() == 0) {
+          resumptionToken = null;
+        }
+      } while (resumptionToken != null);
+    }
+    catch (XMLStreamException e) {
+      logger.error("Error reading the ListRecords response: " + e.getMessage());
+    }
+    finally {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
       }
-
-      String xmlString = listIdentifiers.toString();
-      processListIdentifiers(baseURL, from, until, metadataPrefix, setSpec,
-                             xmlString, dn);
-      String resumptionToken = listIdentifiers.getResumptionToken();
-      logger.debug("resumptionToken: " + resumptionToken);
-
-      if (resumptionToken == null || resumptionToken.length() == 0) {
-        listIdentifiers = null;
-      } 
-      else {
-        listIdentifiers = new ListIdentifiers(baseURL, resumptionToken);
-        listIdentifiers.runVerb();
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      for (Metacat client : clients) {
+        metacatLogout(client);
       }
     }
 
-    metacatLogout();
     logger.info("Harvest completed. Shutting down OAI-PMH Harvester.");
   }
   
@@ -852,6 +861,10 @@ public class OaipmhHarvester {
     String providerDatestamp;
     boolean shouldHarvest = false;
     String metacatDatestamp = metacatDatestamp(docid);
+    
+    if (providerTimestamp == null) {
+      return metacatDatestamp == null;
+    }
  
     /*
      * Since Metacat stores its 'last_updated' field as a datestamp (no time),
@@ -887,14 +900,16 @@ public class OaipmhHarvester {
    * Insert or update the document to Metacat. If Metacat already has this
    * document, increment the 'rev' number by 1 to update it.
    * 
+   * @param   client          The Metacat client to use
    * @param   docid           The Metacat docid
    * @param   datestamp       The datestamp in the OAI-PMH provider catalog.
-   * @param   metadataString  The metadata string extracted by the GetRecord 
+   * @param   metadataString  The metadata string extracted by the ListRecords 
    * @param   principal       The distinguished name of the principal
    *                          verb
    * @return  true if the upload succeeded, else false.
    */
-  private static boolean uploadToMetacat(String docid,
+  private static boolean uploadToMetacat(Metacat client,
+                                         String docid,
                                          String datestamp,
                                          String metadataString,
                                          String principal) {
@@ -937,13 +952,13 @@ public class OaipmhHarvester {
           if (insert) {
             logger.info("Inserting document: " + docidFull);
             metacatReturnString = 
-                            metacatClient.insert(docidFull, stringReader, null);
+                            client.insert(docidFull, stringReader, null);
           
             /* Add "all" permission for the dataset owner */
             String permission = "all";
             String permType = "allow";
             String permOrder = "allowFirst";
-            accessReturnString = metacatClient.setAccess(
+            accessReturnString = client.setAccess(
                              docid, principal, permission, permType, permOrder);
             if (accessReturnString != null && !accessReturnString.equals("")) {
               logger.info(accessReturnString);
@@ -951,7 +966,7 @@ public class OaipmhHarvester {
           
             /* Add "read" permission for public users */
             permission = "read";
-            accessReturnString = metacatClient.setAccess(
+            accessReturnString = client.setAccess(
                               docid, "public", permission, permType, permOrder);
 
             if (accessReturnString != null && !accessReturnString.equals("")) {
@@ -961,8 +976,12 @@ public class OaipmhHarvester {
           else if (update) {
             logger.info("Updating document: " + docidFull);
             metacatReturnString = 
-                            metacatClient.update(docidFull, stringReader, null);
+                            client.update(docidFull, stringReader, null);
           }
+          
+          /* Later records of the same document compare with this revision */
+          metacatRevisions.put(docid, insert ? 1 : metacatRevision + 1);
+          metacatDatestamps.put(docid, datestamp);
         
           if (metacatReturnString != null && !metacatReturnString.equals("")) {
             logger.info(metacatReturnString);
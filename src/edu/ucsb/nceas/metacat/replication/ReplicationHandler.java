@@ -70,6 +70,7 @@ import edu.ucsb.nceas.metacat.ReadOnlyChecker;
 import edu.ucsb.nceas.metacat.SchemaLocationResolver;
 import edu.ucsb.nceas.metacat.accesscontrol.AccessControlForSingleFile;
 import edu.ucsb.nceas.metacat.client.InsufficientKarmaException;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.database.DBConnection;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
@@ -671,6 +672,7 @@ public class ReplicationHandler extends TimerTask
       /*String accnum=docId+util.getProperty("document.accNumSeparator")+
                                               (String)docinfoHash.get("rev");*/
 
+      // the data file is only staged here, writeDataFileInReplication moves it into the object store
       String datafilePath = PropertyService.getProperty("application.datafilepath");
       // Get data file content
       String readDataURLString = "https://" + remoteserver + "?server="+
@@ -1383,6 +1385,7 @@ public class ReplicationHandler extends TimerTask
 			String remoteServer = (String) w.elementAt(2);
 			remoteServer = remoteServer.trim();
 
+			long start = System.nanoTime();
 			try {
 				if (tableName.equals(DocumentImpl.DOCUMENTTABLE)) {
 					handleDocInXMLDocuments(docid, rev, remoteServer, dataFile);
@@ -1391,8 +1394,9 @@ public class ReplicationHandler extends TimerTask
 				} else {
 					continue;
 				}
-
+				MetacatMetrics.stopTimer("replication.metacat.document", start);
 			} catch (Exception e) {
+				MetacatMetrics.counter("replication.metacat.document.failures").inc();
 				logMetacat.error("ReplicationHandler.handleDocList - " + ReplicationService.METACAT_REPL_ERROR_MSG);                         
 				logReplication.error("ReplicationHandler.handleDocList - error to handle update doc in " + tableName
 						+ " in time replication" + e.getMessage(), e);
@@ -114,6 +114,7 @@ import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.shared.BaseService;
 import edu.ucsb.nceas.metacat.shared.HandlerException;
 import edu.ucsb.nceas.metacat.shared.ServiceException;
+import edu.ucsb.nceas.metacat.storage.ObjectStore;
 import edu.ucsb.nceas.metacat.util.DocumentUtil;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
 import edu.ucsb.nceas.metacat.util.ReplicationUtil;
@@ -1006,6 +1007,7 @@ public class ReplicationService extends BaseService {
 				URL url = new URL("https://" + server + "?server="
 						+ MetacatUtil.getLocalReplicationServerName()
 						+ "&action=readdata&docid=" + docid);
+				// the data file is only staged here, writeDataFileInReplication moves it into the object store
 				String datafilePath = PropertyService
 						.getProperty("application.datafilepath");
 
@@ -1344,8 +1346,8 @@ public class ReplicationService extends BaseService {
 			Hashtable<String, String[]> params, HttpServletResponse response)
 
 	{
-		// File path for data file
-		String filepath;
+		// File name of the data file
+		String filename;
 		// Request docid
 		String docId = ((String[]) (params.get("docid")))[0];
 		//check if the doicd is null
@@ -1358,7 +1360,8 @@ public class ReplicationService extends BaseService {
 		//try to open a https stream to test if the request server's public key
 		//in the key store, this is security issue
 		try {
-			filepath = PropertyService.getProperty("application.datafilepath");
+			// Get the file of the data object in the object store
+			filename = ObjectStore.getInstance().getFile(docId).getAbsolutePath();
 			String server = params.get("server")[0];
 			URL u = new URL("https://" + server + "?server="
 					+ MetacatUtil.getLocalReplicationServerName() + "&action=test");
@@ -1376,12 +1379,6 @@ public class ReplicationService extends BaseService {
 			return;
 		}//catch
 
-		if (!filepath.endsWith("/")) {
-			filepath += "/";
-		}
-		// Get file aboslute file name
-		String filename = filepath + docId;
-
 		//MIME type
 		String contentType = null;
 		if (filename.endsWith(".xml")) {
@@ -1443,7 +1440,6 @@ public class ReplicationService extends BaseService {
 		String urlString = null;
 		String documentPath = null;
 		String errorMsg = null;
-		FileOutputStream fos = null;
 		InputStream is = null;
 		OutputStream outputStream = null;
 		try {
@@ -1477,9 +1473,8 @@ public class ReplicationService extends BaseService {
 			// it to disk.
 			if (FileUtil.getFileStatus(documentPath) == FileUtil.DOES_NOT_EXIST
 					|| FileUtil.getFileSize(documentPath) == 0) {
-				fos = new FileOutputStream(documentPath);
-				is = di.toXml(fos, null, null, true);
-				fos.close();
+				// toXml writes the document file (compressed if the document store compresses)
+				is = di.toXml(null, null, null, true);
 				is.close();
 			}
 
@@ -1536,7 +1531,6 @@ public class ReplicationService extends BaseService {
 			// e.printStackTrace(System.out);
 			errorMsg = e.getMessage();
 		} finally {
-            IOUtils.closeQuietly(fos);
             IOUtils.closeQuietly(is);
             IOUtils.closeQuietly(outputStream);
 		}
@@ -23,12 +23,15 @@
 package edu.ucsb.nceas.metacat.restservice;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -56,16 +59,19 @@ import org.dataone.service.exceptions.InvalidRequest;
 import org.dataone.service.exceptions.NotFound;
 import org.dataone.service.exceptions.ServiceFailure;
 import org.dataone.service.types.v1.Group;
+import org.dataone.service.types.v1.Identifier;
 import org.dataone.service.types.v1.Person;
 import org.dataone.service.types.v1.Session;
 import org.dataone.service.types.v1.Subject;
 import org.dataone.service.types.v1.SubjectInfo;
 
 import edu.ucsb.nceas.metacat.AuthSession;
+import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.restservice.multipart.MultipartRequestWithSysmeta;
 import edu.ucsb.nceas.metacat.restservice.multipart.StreamingMultipartRequestResolver;
 import edu.ucsb.nceas.metacat.service.SessionService;
+import edu.ucsb.nceas.metacat.storage.StoredFileInputStream;
 import edu.ucsb.nceas.metacat.util.RequestUtil;
 import edu.ucsb.nceas.metacat.util.SessionData;
 import edu.ucsb.nceas.utilities.PropertyNotFoundException;
@@ -113,6 +119,14 @@ public class D1ResourceHandler {
      */
     protected static final String FUNCTION_NAME_INSERT = "insert";
     protected static final String FUNCTION_NAME_UPDATE = "update";
+
+    /*
+     * The request attributes of the sendfile support of Tomcat's NIO and APR connectors
+     */
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
     
     protected static AuthSession auth = null;
     protected static int authCacheSzie = Settings.getConfiguration().getInt("auth.groupCacheSize", 100);
@@ -556,6 +570,74 @@ public class D1ResourceHandler {
         return tmpDir;
     }
     
+    /**
+     * Write the bytes of an object to the response. If the object is a file, the Content-Length
+     * is set from the size in its system metadata and the bytes don't go through the heap: the
+     * file is handed to the sendfile support of the container if the connector has it. Otherwise,
+     * and for the other streams, the bytes are copied to the response. The sendfile path can be
+     * turned off with dataone.get.zeroCopy.
+     * @param data  the bytes of the object. It is closed.
+     * @param size  the size of the object in its system metadata, or null if it is unknown
+     * @throws IOException
+     */
+    protected void writeObject(InputStream data, BigInteger size) throws IOException {
+        try {
+            if (!(data instanceof FileInputStream) || !isZeroCopyEnabled()) {
+                IOUtils.copyLarge(data, response.getOutputStream());
+                return;
+            }
+            FileChannel channel = ((FileInputStream) data).getChannel();
+            long position = channel.position();
+            long length = channel.size() - position;
+            if (size != null && size.longValue() != length) {
+                // the file is what gets sent, so a wrong size in the system metadata mustn't cut it off
+                logMetacat.warn("D1ResourceHandler.writeObject - the system metadata gives the size " + size
+                                + ", but the file has " + length + " bytes. Its length is used for the Content-Length.");
+            }
+            response.setHeader("Content-Length", Long.toString(length));
+            if (data instanceof StoredFileInputStream && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                // the connector sends the file after the handler returns, so nothing is written here
+                request.setAttribute(SENDFILE_FILENAME, ((StoredFileInputStream) data).getFile().getCanonicalPath());
+                request.setAttribute(SENDFILE_START, Long.valueOf(position));
+                request.setAttribute(SENDFILE_END, Long.valueOf(position + length));
+                return;
+            }
+            // the response stream isn't a channel the kernel can write to, so transferTo would copy as well
+            IOUtils.copyLarge(data, response.getOutputStream());
+        } finally {
+            IOUtils.closeQuietly(data);
+        }
+    }
+
+    /*
+     * If the file-backed objects are handed to the sendfile support of the connector
+     */
+    private static boolean isZeroCopyEnabled() {
+        try {
+            return Boolean.parseBoolean(PropertyService.getProperty("dataone.get.zeroCopy"));
+        } catch (PropertyNotFoundException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the size of an object from its system metadata. The access isn't checked, so it is
+     * only used after the caller was allowed to get the object.
+     * @param pid  the identifier of the object
+     * @return the size, or null if it is unknown
+     */
+    protected BigInteger getObjectSize(Identifier pid) {
+        try {
+            org.dataone.service.types.v2.SystemMetadata sysmeta = HazelcastService.getInstance().getSystemMetadataMap().get(pid);
+            if (sysmeta != null) {
+                return sysmeta.getSize();
+            }
+        } catch (Exception e) {
+            logMetacat.warn("D1ResourceHandler.getObjectSize - couldn't get the size of " + pid.getValue() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Prints xml response
      * @param message Message to be displayed
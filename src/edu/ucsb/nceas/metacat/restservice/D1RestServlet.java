@@ -23,27 +23,44 @@
 package edu.ucsb.nceas.metacat.restservice;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.dataone.quota.QuotaServiceManager;
 
 /**
  * Metacat implemantation of Earthgrid (Ecogrid) REST API as a servlet. In each request
  * REST Servlet initialize a D1ResourceHandler object and then D1ResourceHandler object 
  * handles with request and writes approriate response. 
+ * 
+ * Every request is timed. The timer and the counters of the responses are named by
+ * the servlet path, the resource and the verb, e.g. d1.mn.v2.object.GET and
+ * d1.mn.v2.object.GET.responses. The status of a response is a label of the counter.
  *  
  */
 public class D1RestServlet extends HttpServlet {
 
+    //the resources which have their own timers, the others share the "other" timer
+    private static final Set<String> RESOURCES = new HashSet<String>(Arrays.asList("accessRules", "archive", "batch", "checksum",
+            "dirtySystemMetadata", "error", "formats", "generate", "isAuthorized", "log", "meta", "monitor", "node", "object",
+            "obsoletedBy", "owner", "packages", "publish", "query", "removeReplicaMetadata", "replica", "replicaAuthorizations",
+            "replicaMetadata", "replicaNotifications", "replicaPolicies", "replicate", "reserve", "resolve", "token", "views",
+            "whoami"));
+    private static final String OTHER_RESOURCE = "other";
+
     protected Log logMetacat = LogFactory.getLog(this.getClass());;
     protected D1ResourceHandler handler;
 
@@ -82,8 +99,7 @@ public class D1RestServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
         //System.out.println("HTTP Verb: GET");
         logMetacat.info("D1RestServlet.doGet - HTTP Verb: GET");
-        handler = createHandler(request, response);
-        handler.handle(D1ResourceHandler.GET);
+        handle(request, response, D1ResourceHandler.GET, "GET");
     }
 
     /** Handle "POST" method requests from HTTP clients */
@@ -92,8 +108,7 @@ public class D1RestServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
         //System.out.println("HTTP Verb: POST");
         logMetacat.info("D1RestServlet.doPost - HTTP Verb: POST");
-        handler = createHandler(request, response);
-        handler.handle(D1ResourceHandler.POST);
+        handle(request, response, D1ResourceHandler.POST, "POST");
     }
 
     /** Handle "DELETE" method requests from HTTP clients */
@@ -102,8 +117,7 @@ public class D1RestServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
         //System.out.println("HTTP Verb: DELETE");
         logMetacat.info("D1RestServlet.doDelete - HTTP Verb: DELETE");
-        handler = createHandler(request, response);
-        handler.handle(D1ResourceHandler.DELETE);
+        handle(request, response, D1ResourceHandler.DELETE, "DELETE");
     }
 
     /** Handle "PUT" method requests from HTTP clients */
@@ -112,8 +126,7 @@ public class D1RestServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
         //System.out.println("HTTP Verb: PUT");
         logMetacat.info("D1RestServlet.doPut - HTTP Verb: PUT");
-        handler = createHandler(request, response);
-        handler.handle(D1ResourceHandler.PUT);
+        handle(request, response, D1ResourceHandler.PUT, "PUT");
     }
 
     /** Handle "PUT" method requests from HTTP clients */
@@ -122,7 +135,96 @@ public class D1RestServlet extends HttpServlet {
             HttpServletResponse response) throws ServletException, IOException {
         //System.out.println("HTTP Verb: HEAD");
         logMetacat.info("D1RestServlet.doHead - HTTP Verb: HEAD");
-        handler = createHandler(request, response);
-        handler.handle(D1ResourceHandler.HEAD);
+        handle(request, response, D1ResourceHandler.HEAD, "HEAD");
+    }
+
+    /*
+     * Create the handler of the request, let it handle the request and record the time
+     * and the status of the response.
+     */
+    private void handle(HttpServletRequest request, HttpServletResponse response, byte httpVerb, String verbName)
+                                    throws ServletException, IOException {
+        String metricName = getMetricName(request, verbName);
+        StatusRecordingResponse recordingResponse = new StatusRecordingResponse(response);
+        long start = System.nanoTime();
+        try {
+            handler = createHandler(request, recordingResponse);
+            handler.handle(httpVerb);
+        } finally {
+            MetacatMetrics.stopTimer(metricName, start);
+            MetacatMetrics.counter(MetacatMetrics.labeled(metricName + ".responses", "status",
+                                                          Integer.toString(recordingResponse.getStatus()))).inc();
+        }
+    }
+
+    /*
+     * Get the name of the metrics of a request, e.g. d1.mn.v2.object.GET. Only the known
+     * resources get their own name, so the clients can't create metrics at will.
+     */
+    private static String getMetricName(HttpServletRequest request, String verbName) {
+        String path = request.getServletPath();
+        if (path == null) {
+            path = "";
+        }
+        path = path.replaceAll("^/+|/+$", "").replace('/', '.');
+        String resource = request.getPathInfo();
+        if (resource == null || resource.replaceAll("/", "").equals("")) {
+            resource = "node";
+        } else {
+            resource = resource.replaceAll("^/+", "");
+            int index = resource.indexOf("/");
+            if (index >= 0) {
+                resource = resource.substring(0, index);
+            }
+            if (!RESOURCES.contains(resource)) {
+                resource = OTHER_RESOURCE;
+            }
+        }
+        return path + "." + resource + "." + verbName;
+    }
+
+    /*
+     * A response which remembers the status set by the handler
+     */
+    private static class StatusRecordingResponse extends HttpServletResponseWrapper {
+        private int status = HttpServletResponse.SC_OK;
+
+        private StatusRecordingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        public void setStatus(int status, String message) {
+            this.status = status;
+            super.setStatus(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            this.status = status;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            this.status = status;
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.status = HttpServletResponse.SC_FOUND;
+            super.sendRedirect(location);
+        }
+
+        private int getStatus() {
+            return status;
+        }
     }
 }
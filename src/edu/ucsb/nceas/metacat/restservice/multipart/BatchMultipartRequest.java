@@ -0,0 +1,59 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.restservice.multipart;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataone.mimemultipart.MultipartRequest;
+import org.dataone.service.types.v1.SystemMetadata;
+
+/**
+ * A multipart request carrying many objects. The parts of an object share a key:
+ * sysmeta.&lt;key&gt; is its system metadata and object.&lt;key&gt; its bytes.
+ * The files and the system metadata are mapped by the keys in the order of the request.
+ */
+public class BatchMultipartRequest extends MultipartRequest {
+    private Map<String, SystemMetadata> systemMetadataParts = null;
+
+    /**
+     * Constructor
+     * @param request
+     * @param mpFiles  the object files by their keys
+     * @param mpParams
+     * @param systemMetadataParts  the system metadata by their keys
+     */
+    public BatchMultipartRequest(HttpServletRequest request, Map<String, File> mpFiles, Map<String, List<String>> mpParams,
+                                  Map<String, SystemMetadata> systemMetadataParts) {
+        super(request, mpFiles, mpParams);
+        this.systemMetadataParts = systemMetadataParts;
+    }
+
+    /**
+     * Get the system metadata of the objects
+     * @return the system metadata by the keys of the objects
+     */
+    public Map<String, SystemMetadata> getSystemMetadataParts() {
+        return systemMetadataParts;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.restservice.multipart;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.exceptions.MarshallingException;
+import org.dataone.mimemultipart.MultipartRequest;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.SystemMetadata;
+
+/**
+ * Streams a multipart request carrying many objects into temporary files. The parts of an
+ * object share a key: sysmeta.&lt;key&gt; is its system metadata and object.&lt;key&gt; its
+ * bytes. If the system metadata part comes before the object part, the checksum of the object
+ * is calculated while it is streamed, the same way the StreamingMultipartRequestResolver does
+ * for a single object.
+ */
+public class BatchMultipartRequestResolver extends StreamingMultipartRequestResolver {
+
+    public static final String SYSMETA_PREFIX = SYSMETA + ".";
+    public static final String OBJECT_PREFIX = "object.";
+    private static Log log = LogFactory.getLog(BatchMultipartRequestResolver.class);
+    private ServletFileUpload upload;
+
+    /**
+     * Constructor
+     * @param tmpUploadDir  the directory will temporarily host the stored files from the file parts in the http multiparts request.
+     * @param maxUploadSize  the threshold size of the whole request
+     */
+    public BatchMultipartRequestResolver(String tmpUploadDir, int maxUploadSize) {
+        super(tmpUploadDir, maxUploadSize);
+        this.upload = new ServletFileUpload();
+        this.upload.setSizeMax(maxUploadSize);
+    }
+
+    @Override
+    /**
+     * Parse the request into a BatchMultipartRequest with the object files and the system metadata by their keys
+     * @param request  the request needs to be resolved
+     * @return the BatchMultipartRequest
+     */
+    public MultipartRequest resolveMultipart(HttpServletRequest request) throws IOException, FileUploadException, InstantiationException,
+                                                 IllegalAccessException, MarshallingException, NoSuchAlgorithmException {
+        Map<String, List<String>> mpParams = new HashMap<String, List<String>>();
+        Map<String, File> mpFiles = new LinkedHashMap<String, File>();
+        Map<String, SystemMetadata> sysmetas = new LinkedHashMap<String, SystemMetadata>();
+        BatchMultipartRequest multipartRequest = new BatchMultipartRequest(request, mpFiles, mpParams, sysmetas);
+        if (!isMultipartContent(request)) {
+            return multipartRequest;
+        }
+        long start = System.currentTimeMillis();
+        FileItemIterator iter = upload.getItemIterator(request);
+        while (iter.hasNext()) {
+            FileItemStream item = iter.next();
+            String name = item.getFieldName();
+            InputStream stream = item.openStream();
+            try {
+                if (item.isFormField()) {
+                    String value = Streams.asString(stream);
+                    if (mpParams.containsKey(name)) {
+                        mpParams.get(name).add(value);
+                    } else {
+                        List<String> values = new ArrayList<String>();
+                        values.add(value);
+                        mpParams.put(name, values);
+                    }
+                } else if (name.startsWith(SYSMETA_PREFIX)) {
+                    String key = name.substring(SYSMETA_PREFIX.length());
+                    sysmetas.put(key, parseSystemMetadata(stream));
+                } else if (name.startsWith(OBJECT_PREFIX)) {
+                    String key = name.substring(OBJECT_PREFIX.length());
+                    SystemMetadata sysmeta = sysmetas.get(key);
+                    if (sysmeta != null && sysmeta.getChecksum() != null && sysmeta.getChecksum().getAlgorithm() != null
+                            && !sysmeta.getChecksum().getAlgorithm().trim().equals("")) {
+                        String pid = "UNKNOWN";
+                        if (sysmeta.getIdentifier() != null && sysmeta.getIdentifier().getValue() != null) {
+                            pid = sysmeta.getIdentifier().getValue();
+                        }
+                        File newFile = generateTmpFile("checked-object");
+                        mpFiles.put(key, writeStreamToCheckedFile(newFile, stream, sysmeta.getChecksum().getAlgorithm(), pid));
+                    } else {
+                        log.debug("BatchMultipartRequestResolver.resolveMultipart - the object part " + name
+                                  + " comes before its system metadata, so its checksum will be calculated later.");
+                        File newFile = generateTmpFile("unchecked-object");
+                        writeStreamToFile(newFile, stream);
+                        Checksum checksum = null;
+                        mpFiles.put(key, new CheckedFile(newFile.getCanonicalPath(), checksum));
+                    }
+                } else {
+                    log.warn("BatchMultipartRequestResolver.resolveMultipart - ignored the part " + name
+                             + " which is neither a system metadata nor an object part.");
+                }
+            } catch (Exception e) {
+                //if an exception happened, we need to delete those temporary files
+                for (File tempFile : mpFiles.values()) {
+                    deleteTempFile(tempFile);
+                }
+                mpFiles.clear();
+                throw e;
+            } finally {
+                try {
+                    stream.close();
+                } catch (Exception e) {
+                    log.warn("BatchMultipartRequestResolver.resolveMultipart - couldn't close the stream since " + e.getMessage());
+                }
+            }
+        }
+        log.info("BatchMultipartRequestResolver.resolveMultipart - streamed " + mpFiles.size() + " objects and " + sysmetas.size()
+                 + " system metadata into the temporary directory in " + (System.currentTimeMillis() - start) + " ms");
+        return multipartRequest;
+    }
+}
@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.xml.bind.DatatypeConverter;
@@ -56,6 +57,8 @@ import org.dataone.service.types.v1.Checksum;
 import org.dataone.service.types.v1.SystemMetadata;
 import org.dataone.service.util.TypeMarshaller;
 
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
+
 
 /**
  * This class will stream the file parts of the multipart request into a temporary file. 
@@ -128,25 +131,10 @@ public class StreamingMultipartRequestResolver extends MultipartRequestResolver
                     log.debug("StreamingMultipartRequestResolver.resoloveMulitpart -File field " + name + " with file name " + item.getName() + " detected.");
                     // Process the input stream
                     if (name.equals(SYSMETA)) {
-                        //copy the stream to a byte array output stream so we can read it multiple times. Since we don't know it is v1 or v2, we need to try two times.
-                        ByteArrayOutputStream os = new ByteArrayOutputStream();
-                        IOUtils.copy(stream, os);
-                        byte[] sysmetaBytes = os.toByteArray();
-                        os.close();
-                        ByteArrayInputStream input = new ByteArrayInputStream(sysmetaBytes);
-                        try {
-                            org.dataone.service.types.v2.SystemMetadata sysMeta2 = TypeMarshaller.unmarshalTypeFromStream(org.dataone.service.types.v2.SystemMetadata.class, input);
-                            sysMeta = sysMeta2;
-                        } catch (Exception e) {
-                            //Transforming to the v2 systemmeta object failed. Try to transform to v1
-                            input.reset();
-                            sysMeta = TypeMarshaller.unmarshalTypeFromStream(SystemMetadata.class, input);
-                            log.info("StreamingMultipartRequestResolver.resoloveMulitpart - the system metadata is v1 for the pid " + sysMeta.getIdentifier().getValue());
-                        }
+                        sysMeta = parseSystemMetadata(stream);
                         if (sysMeta != null && sysMeta.getIdentifier() != null ) {
                             pid = sysMeta.getIdentifier().getValue();
                         }
-                        input.close();
                         multipartRequest.setSystemMetadata(sysMeta);
                     } else if (name.equals("object")){
                         start = System.currentTimeMillis();
@@ -203,27 +191,59 @@ public class StreamingMultipartRequestResolver extends MultipartRequestResolver
             String predicate = null;
             if (sysmetaFirst) {
                 predicate = "with";
+                MetacatMetrics.timer("d1.multipart.object.withChecksum").update(end - start, TimeUnit.MILLISECONDS);
             } else {
                 predicate = "without";
+                MetacatMetrics.timer("d1.multipart.object.withoutChecksum").update(end - start, TimeUnit.MILLISECONDS);
             }
-            log.info(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
+            log.debug(edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG + 
                     pid + 
                     edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + 
                     " Write the object file from the http multipart to the disk " + 
                     predicate + 
                     " calculating the checksum" + 
                     edu.ucsb.nceas.metacat.common.Settings.PERFORMANCELOG_DURATION + 
-                    (end-start)/1000);
+                    (end-start) + " ms");
         }
         return multipartRequest;
     }
     
+    /**
+     * Parse a system metadata part, which can be either v2 or v1
+     * @param stream  the stream of the part
+     * @return the system metadata object
+     * @throws IOException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws MarshallingException
+     */
+    protected static SystemMetadata parseSystemMetadata(InputStream stream) throws IOException, InstantiationException, IllegalAccessException, MarshallingException {
+        SystemMetadata sysMeta = null;
+        //copy the stream to a byte array output stream so we can read it multiple times. Since we don't know it is v1 or v2, we need to try two times.
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        IOUtils.copy(stream, os);
+        byte[] sysmetaBytes = os.toByteArray();
+        os.close();
+        ByteArrayInputStream input = new ByteArrayInputStream(sysmetaBytes);
+        try {
+            org.dataone.service.types.v2.SystemMetadata sysMeta2 = TypeMarshaller.unmarshalTypeFromStream(org.dataone.service.types.v2.SystemMetadata.class, input);
+            sysMeta = sysMeta2;
+        } catch (Exception e) {
+            //Transforming to the v2 systemmeta object failed. Try to transform to v1
+            input.reset();
+            sysMeta = TypeMarshaller.unmarshalTypeFromStream(SystemMetadata.class, input);
+            log.info("StreamingMultipartRequestResolver.parseSystemMetadata - the system metadata is v1 for the pid " + sysMeta.getIdentifier().getValue());
+        }
+        input.close();
+        return sysMeta;
+    }
+    
     /**
      * Create a temporary new file
      * @return
      * @throws IOException
      */
-    private File generateTmpFile(String prefix) throws IOException {
+    protected File generateTmpFile(String prefix) throws IOException {
         String newPrefix = prefix + "-" + System.currentTimeMillis();
         String suffix =  null;
         File newFile = null;
@@ -284,7 +304,7 @@ public class StreamingMultipartRequestResolver extends MultipartRequestResolver
      * @return
      * @throws IOException
      */
-    private static File writeStreamToFile(File file, InputStream dataStream) throws IOException {
+    protected static File writeStreamToFile(File file, InputStream dataStream) throws IOException {
         FileOutputStream os = null;
         try {
             os = new FileOutputStream(file);
@@ -81,6 +81,7 @@ import org.dataone.service.util.TypeMarshaller;
 import org.dataone.speedbagit.SpeedBagIt;
 import org.xml.sax.SAXException;
 
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeInputStream;
 import edu.ucsb.nceas.metacat.dataone.D1AuthHelper;
 import edu.ucsb.nceas.metacat.dataone.v1.MNodeService;
@@ -903,11 +904,15 @@ public class MNResourceHandler extends D1ResourceHandler {
         Runnable runner = new Runnable() {
 			@Override
 			public void run() {
+				long start = System.nanoTime();
 				try {
 			        MNodeService.getInstance(request).replicate(session, sysmeta, sourceNode);
 				} catch (Exception e) {
+					MetacatMetrics.counter("replication.d1.replicate.failures").inc();
 					logMetacat.error("Error running replication: " + e.getMessage(), e);
 					throw new RuntimeException(e.getMessage(), e);
+				} finally {
+					MetacatMetrics.stopTimer("replication.d1.replicate", start);
 				}
 			}
     	};
@@ -936,7 +941,6 @@ public class MNResourceHandler extends D1ResourceHandler {
         
         Identifier pid = new Identifier();
         pid.setValue(id);
-        OutputStream out = null;
         InputStream dataBytes = null;
                 
         try {
@@ -945,9 +949,8 @@ public class MNResourceHandler extends D1ResourceHandler {
 
             response.setContentType("application/octet-stream");
             response.setStatus(200);
-            out = response.getOutputStream();
             // write the object to the output stream
-            IOUtils.copyLarge(dataBytes, out);
+            writeObject(dataBytes, getObjectSize(pid));
             
         } catch (IOException e) {
             String msg = "There was an error writing the output: " + e.getMessage();
@@ -1130,8 +1133,7 @@ public class MNResourceHandler extends D1ResourceHandler {
             }
             response.setContentType(mimeType);
             response.setHeader("Content-Disposition", "inline; filename=\"" + filename+"\"");
-            out = response.getOutputStream();  
-            IOUtils.copyLarge(data, out);
+            writeObject(data, sm.getSize());
             
         }
         else
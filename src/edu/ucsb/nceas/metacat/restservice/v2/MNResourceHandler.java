@@ -32,8 +32,10 @@ import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,9 +43,11 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.logging.LogFactory;
 import org.dataone.client.v2.formats.ObjectFormatCache;
 import org.dataone.client.v2.formats.ObjectFormatInfo;
@@ -91,11 +95,18 @@ import org.xml.sax.SAXException;
 import edu.ucsb.nceas.metacat.MetaCatServlet;
 import edu.ucsb.nceas.metacat.ReadOnlyChecker;
 import edu.ucsb.nceas.metacat.common.Settings;
+import edu.ucsb.nceas.metacat.common.metrics.MetacatMetrics;
 import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeInputStream;
+import edu.ucsb.nceas.metacat.dataone.BatchIngester;
+import edu.ucsb.nceas.metacat.dataone.BatchIngester.BatchItem;
 import edu.ucsb.nceas.metacat.dataone.D1AuthHelper;
 import edu.ucsb.nceas.metacat.dataone.MNodeService;
+import edu.ucsb.nceas.metacat.dataone.LogStreamWriter;
+import edu.ucsb.nceas.metacat.dataone.ObjectListStreamWriter;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.restservice.D1ResourceHandler;
+import edu.ucsb.nceas.metacat.restservice.multipart.BatchMultipartRequest;
+import edu.ucsb.nceas.metacat.restservice.multipart.BatchMultipartRequestResolver;
 import edu.ucsb.nceas.metacat.restservice.multipart.CheckedFile;
 import edu.ucsb.nceas.metacat.restservice.multipart.DetailedFileInputStream;
 import edu.ucsb.nceas.metacat.restservice.multipart.MultipartRequestWithSysmeta;
@@ -133,6 +144,7 @@ import edu.ucsb.nceas.utilities.PropertyNotFoundException;
  * 		archive() - PUT /d1/mn/archive/PID
  *      updateSystemMetadata() - PUT /d1/mn/meta
  *    systemMetadataChanged() - POST /dirtySystemMetadata/PID
+ *    batch() - POST /d1/mn/batch
  * 	
  * 	MNReplication
  * 		replicate() - POST /d1/mn/replicate
@@ -156,6 +168,11 @@ public class MNResourceHandler extends D1ResourceHandler {
     protected static final String RESOURCE_PACKAGE = "packages";
     protected static final String RESOURCE_TOKEN = "token";
     protected static final String RESOURCE_WHOAMI = "whoami";
+    protected static final String RESOURCE_BATCH = "batch";
+    
+    //the query parameter and the response header of the keyset paging mode of listObjects and getLogRecords
+    protected static final String CONTINUATION_TOKEN = "continuationToken";
+    protected static final String CONTINUATION_TOKEN_HEADER = "X-Metacat-Continuation-Token";
 
 
 
@@ -477,6 +494,12 @@ public class MNResourceHandler extends D1ResourceHandler {
                         getPackage(format, pid);
                         status = true;
                     }  
+                } else if (resource.startsWith(RESOURCE_BATCH)) {
+                    logMetacat.debug("Using resource: " + RESOURCE_BATCH);
+                    if (httpVerb == POST) {
+                        batchObjects();
+                        status = true;
+                    }
                 } else if (resource.startsWith(RESOURCE_VIEWS)) {
 	                logMetacat.debug("Using resource " + RESOURCE_VIEWS);
 	                // after the command
@@ -583,7 +606,7 @@ public class MNResourceHandler extends D1ResourceHandler {
 	                // write the results to the output stream
 	                IOUtils.copyLarge(stream, out);
 	                long end = System.currentTimeMillis();
-	                logMetacat.info(Settings.PERFORMANCELOG + Settings.PERFORMANCELOG_QUERY_METHOD + query + " Total query method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+	                logMetacat.debug(Settings.PERFORMANCELOG + Settings.PERFORMANCELOG_QUERY_METHOD + query + " Total query method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
 	                IOUtils.closeQuietly(out);
 	                return;
 	    		} else {
@@ -704,7 +727,7 @@ public class MNResourceHandler extends D1ResourceHandler {
     			}
             long end = System.currentTimeMillis();
             IOUtils.closeQuietly(out);
-            logMetacat.info(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_VIEW_METHOD + " Total view method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+            logMetacat.debug(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_VIEW_METHOD + " Total view method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
             return;
     		} else {
     			// TODO: list the registered views
@@ -1115,11 +1138,15 @@ public class MNResourceHandler extends D1ResourceHandler {
         Runnable runner = new Runnable() {
 			@Override
 			public void run() {
+				long start = System.nanoTime();
 				try {
 			        MNodeService.getInstance(request, ipAddress, userAgent).replicate(session, sysmeta, sourceNode);
 				} catch (Exception e) {
+					MetacatMetrics.counter("replication.d1.replicate.failures").inc();
 					logMetacat.error("Error running replication: " + e.getMessage(), e);
 					throw new RuntimeException(e.getMessage(), e);
+				} finally {
+					MetacatMetrics.stopTimer("replication.d1.replicate", start);
 				}
 			}
     	};
@@ -1147,7 +1174,6 @@ public class MNResourceHandler extends D1ResourceHandler {
         
         Identifier pid = new Identifier();
         pid.setValue(id);
-        OutputStream out = null;
         InputStream dataBytes = null;
                 
         try {
@@ -1156,10 +1182,8 @@ public class MNResourceHandler extends D1ResourceHandler {
 
             response.setContentType("application/octet-stream");
             response.setStatus(200);
-            out = response.getOutputStream();
             // write the object to the output stream
-            IOUtils.copyLarge(dataBytes, out);
-            IOUtils.closeQuietly(out);
+            writeObject(dataBytes, getObjectSize(pid));
         } catch (IOException e) {
             String msg = "There was an error writing the output: " + e.getMessage();
             logMetacat.error(msg);
@@ -1294,6 +1318,36 @@ public class MNResourceHandler extends D1ResourceHandler {
             logMetacat.warn("Could not parse pidFilter: " + e.getMessage());
         }
         
+        if (params.get(CONTINUATION_TOKEN) != null) {
+            // keyset paging - the log is written while the rows are read
+            // and the token of the next page goes to a response header
+            String[] value = params.get(CONTINUATION_TOKEN);
+            String continuationToken = value.length > 0 && value[0] != null ? value[0] : "";
+            logMetacat.debug("calling getLogRecords with the continuation token " + continuationToken);
+            LogStreamWriter writer = null;
+            try {
+                writer = new LogStreamWriter();
+            } catch (XMLStreamException e) {
+                throw new ServiceFailure("1490", "Couldn't create the log writer: " + e.getMessage());
+            }
+            String nextToken = MNodeService.getInstance(request).getLogRecords(session, fromDate, toDate, event, 
+                    pidFilter, continuationToken, count, writer);
+            if (nextToken != null) {
+                response.setHeader(CONTINUATION_TOKEN_HEADER, nextToken);
+            }
+            OutputStream out = response.getOutputStream();
+            response.setStatus(200);
+            response.setContentType("text/xml");
+            try {
+                writer.writeTo(out);
+            } catch (XMLStreamException e) {
+                throw new ServiceFailure("1490", "Couldn't write the log: " + e.getMessage());
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            return;
+        }
+        
         logMetacat.debug("calling getLogRecords");
         Log log = MNodeService.getInstance(request).getLogRecords(session, fromDate, toDate, event, pidFilter, start, count);
         
@@ -1395,17 +1449,15 @@ public class MNResourceHandler extends D1ResourceHandler {
             InputStream data = null;
             try {
                 data = MNodeService.getInstance(request).get(session, id);
-                out = response.getOutputStream();  
                 response.setStatus(200);
-                IOUtils.copyLarge(data, out);
-                IOUtils.closeQuietly(out);
+                writeObject(data, sm.getSize());
             } finally {
                 if (data != null) {
                    IOUtils.closeQuietly(data);
                 }
             }
             long end = System.currentTimeMillis();
-            logMetacat.info(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_GET_METHOD + " Total get method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+            logMetacat.debug(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_GET_METHOD + " Total get method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
         }
         else
         { //call listObjects with specified params
@@ -1417,6 +1469,7 @@ public class MNResourceHandler extends D1ResourceHandler {
             int start = 0;
             //TODO: make the max count into a const
             int count = 1000;
+            String continuationToken = null;
             Enumeration paramlist = request.getParameterNames();
             while (paramlist.hasMoreElements()) 
             { //parse the params and make the crud call
@@ -1478,12 +1531,44 @@ public class MNResourceHandler extends D1ResourceHandler {
                 {
                     count = new Integer(value[0]).intValue();
                 }
+                else if(name.equals(CONTINUATION_TOKEN) && value != null)
+                {
+                    // an empty token asks for the first page in the keyset paging mode
+                    continuationToken = value.length > 0 && value[0] != null ? value[0] : "";
+                }
             }
             //make the crud call
             logMetacat.debug("session: " + session + " startTime: " + startTime +
                     " endTime: " + endTime + " formatId: " + 
                     formatId + " replicaStatus: " + replicaStatus + 
-                    " start: " + start + " count: " + count);
+                    " start: " + start + " count: " + count + " continuationToken: " + continuationToken);
+            
+            if (continuationToken != null) {
+                // keyset paging - the list is written while the rows are read
+                // and the token of the next page goes to a response header
+                ObjectListStreamWriter writer = null;
+                try {
+                    writer = new ObjectListStreamWriter();
+                } catch (XMLStreamException e) {
+                    throw new ServiceFailure("1580", "Couldn't create the object list writer: " + e.getMessage());
+                }
+                String nextToken = MNodeService.getInstance(request).listObjects(session, startTime, endTime, 
+                        formatId, identifier, replicaStatus, continuationToken, count, writer);
+                if (nextToken != null) {
+                    response.setHeader(CONTINUATION_TOKEN_HEADER, nextToken);
+                }
+                out = response.getOutputStream();
+                response.setStatus(200);
+                response.setContentType("text/xml");
+                try {
+                    writer.writeTo(out);
+                } catch (XMLStreamException e) {
+                    throw new ServiceFailure("1580", "Couldn't write the object list: " + e.getMessage());
+                } finally {
+                    IOUtils.closeQuietly(out);
+                }
+                return;
+            }
            
             ObjectList ol = 
            	 MNodeService.getInstance(request).listObjects(session, startTime, endTime, 
@@ -1536,7 +1621,7 @@ public class MNResourceHandler extends D1ResourceHandler {
             IOUtils.copyLarge(is, out);
             IOUtils.closeQuietly(out);
             long end = System.currentTimeMillis();
-            logMetacat.info(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_GET_PACKAGE_METHOD + " Total getPackage method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+            logMetacat.debug(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_GET_PACKAGE_METHOD + " Total getPackage method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
             
         } finally {
             IOUtils.closeQuietly(is);
@@ -1682,7 +1767,7 @@ public class MNResourceHandler extends D1ResourceHandler {
                 }
                 IOUtils.closeQuietly(out);
                 long end = System.currentTimeMillis();
-                logMetacat.info(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + " Total create/update method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+                logMetacat.debug(Settings.PERFORMANCELOG + pid.getValue() + Settings.PERFORMANCELOG_CREATE_UPDATE_METHOD + " Total create/update method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
         } catch (Exception e) {
             if(objFile != null) {
                 //objFile.deleteOnExit();
@@ -1692,6 +1777,76 @@ public class MNResourceHandler extends D1ResourceHandler {
         }
     }
 
+    /**
+     * Create many objects of one multipart request. The parts of an object share a key:
+     * sysmeta.&lt;key&gt; is its system metadata and object.&lt;key&gt; its bytes. An object
+     * whose system metadata obsoletes another one updates that object. The response lists
+     * the result of every object, so the objects fail on their own. A created object whose DOI
+     * couldn't be registered carries a warning.
+     * @throws Exception
+     */
+    protected void batchObjects() throws Exception {
+        long start = System.nanoTime();
+        File tmpDir = getTempDirectory();
+        BatchMultipartRequestResolver resolver = new BatchMultipartRequestResolver(tmpDir.getAbsolutePath(), MAX_UPLOAD_SIZE);
+        BatchMultipartRequest multiparts = (BatchMultipartRequest) resolver.resolveMultipart(request);
+        Map<String, File> files = multiparts.getMultipartFiles();
+        Map<String, org.dataone.service.types.v1.SystemMetadata> sysmetas = multiparts.getSystemMetadataParts();
+        try {
+            Set<String> keys = new LinkedHashSet<String>(sysmetas.keySet());
+            keys.addAll(files.keySet());
+            if (keys.isEmpty()) {
+                throw new InvalidRequest("1102", "The batch must contain at least one pair of the sysmeta.<key> and object.<key> parts.");
+            }
+            BatchIngester ingester = new BatchIngester(request, session, request.getRemoteAddr(), request.getHeader("User-Agent"));
+            for (String key : keys) {
+                ingester.add(key, sysmetas.get(key), files.get(key));
+            }
+            List<BatchItem> items = ingester.ingest();
+            int failed = 0;
+            StringBuffer results = new StringBuffer();
+            for (BatchItem item : items) {
+                MetacatMetrics.counter(MetacatMetrics.labeled("d1.batch.objects", "status", item.getStatus())).inc();
+                results.append("  <object key=\"" + StringEscapeUtils.escapeXml(item.getKey()) + "\"");
+                if (item.getPid() != null) {
+                    results.append(" pid=\"" + StringEscapeUtils.escapeXml(item.getPid()) + "\"");
+                }
+                results.append(" status=\"" + item.getStatus() + "\"");
+                if (item.getError() != null) {
+                    failed++;
+                    results.append(">\n" + toBatchResultElement("error", item.getError()) + "  </object>\n");
+                } else if (item.getWarning() != null) {
+                    results.append(">\n" + toBatchResultElement("warning", item.getWarning()) + "  </object>\n");
+                } else {
+                    results.append("/>\n");
+                }
+            }
+            response.setStatus(200);
+            response.setContentType("text/xml");
+            OutputStream out = response.getOutputStream();
+            IOUtils.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<batchResults total=\"" + items.size() + "\" succeeded=\""
+                          + (items.size() - failed) + "\" failed=\"" + failed + "\">\n" + results + "</batchResults>\n", out, "UTF-8");
+            IOUtils.closeQuietly(out);
+        } catch (Exception e) {
+            MetacatMetrics.counter("d1.batch.failures").inc();
+            throw e;
+        } finally {
+            MetacatMetrics.stopTimer("d1.batch", start);
+            for (File file : files.values()) {
+                StreamingMultipartRequestResolver.deleteTempFile(file);
+            }
+        }
+    }
+
+    /*
+     * Describe the error or the warning of an object of a batch
+     */
+    private String toBatchResultElement(String name, BaseException e) {
+        return "    <" + name + " name=\"" + e.getClass().getSimpleName() + "\" errorCode=\"" + e.getCode()
+               + "\" detailCode=\"" + StringEscapeUtils.escapeXml(e.getDetail_code()) + "\">"
+               + StringEscapeUtils.escapeXml(e.getDescription()) + "</" + name + ">\n";
+    }
+
     /**
      * Handle delete 
      * @param pid ID of data object to be deleted
@@ -1719,7 +1874,7 @@ public class MNResourceHandler extends D1ResourceHandler {
         TypeMarshaller.marshalTypeToOutputStream(id, out);
         long end = System.currentTimeMillis();
         IOUtils.closeQuietly(out);
-        logMetacat.info(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_DELETE_METHOD + " Total delete method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+        logMetacat.debug(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_DELETE_METHOD + " Total delete method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
 
     }
     
@@ -1749,7 +1904,7 @@ public class MNResourceHandler extends D1ResourceHandler {
         TypeMarshaller.marshalTypeToOutputStream(id, out);
         IOUtils.closeQuietly(out);
         long end = System.currentTimeMillis();
-        logMetacat.info(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_ARCHIVE_METHOD + " Total archive method" + Settings.PERFORMANCELOG_DURATION + (end-start)/1000);
+        logMetacat.debug(Settings.PERFORMANCELOG + pid + Settings.PERFORMANCELOG_ARCHIVE_METHOD + " Total archive method" + Settings.PERFORMANCELOG_DURATION + (end-start) + " ms");
     }
 
 	protected SynchronizationFailed collectSynchronizationFailed() throws IOException, ServiceFailure, InvalidRequest, MarshallingException, InstantiationException, IllegalAccessException, ParserConfigurationException, SAXException  {
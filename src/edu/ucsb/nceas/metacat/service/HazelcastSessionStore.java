@@ -0,0 +1,120 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.service;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.hazelcast.core.IMap;
+
+import edu.ucsb.nceas.metacat.dataone.hazelcast.HazelcastService;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.SessionData;
+
+/**
+ * Keeps the sessions in a Hazelcast map of the instance of the HazelcastService,
+ * so all Metacat instances of the cluster see the same sessions. The map must not 
+ * have a near cache or cache its values (see hazelcast.xml): touch and the 
+ * CartManager change the SessionData they get, which would change the instance 
+ * that every thread of the member is handed, so each get has to return a copy.
+ * 
+ * Writing the session to the cluster whenever a request touches it would cost a 
+ * network round trip per request, so the last accessed time is only written when 
+ * the saved one is older than session.hazelcast.touchInterval milliseconds. Each 
+ * write also sets the time to live of the entry to the timeout, so Hazelcast 
+ * drops the abandoned sessions by itself.
+ */
+public class HazelcastSessionStore extends SessionStore {
+    private static final String DEFAULT_MAP_NAME = "hzSessions";
+    private static final long DEFAULT_TOUCH_INTERVAL = 60000; //one minute
+    private static Log logMetacat = LogFactory.getLog(HazelcastSessionStore.class);
+
+    private IMap<String, SessionData> sessions = null;
+    private long touchInterval = DEFAULT_TOUCH_INTERVAL;
+
+    /**
+     * Constructor. It gets the session map from the HazelcastService.
+     */
+    public HazelcastSessionStore() {
+        String mapName = DEFAULT_MAP_NAME;
+        try {
+            mapName = PropertyService.getProperty("session.hazelcast.sessionMap");
+        } catch (Exception e) {
+            logMetacat.debug("HazelcastSessionStore.HazelcastSessionStore - use the default map name " + DEFAULT_MAP_NAME + " since " + e.getMessage());
+        }
+        try {
+            touchInterval = Long.parseLong(PropertyService.getProperty("session.hazelcast.touchInterval"));
+        } catch (Exception e) {
+            logMetacat.debug("HazelcastSessionStore.HazelcastSessionStore - use the default touch interval " + DEFAULT_TOUCH_INTERVAL + " since " + e.getMessage());
+        }
+        sessions = HazelcastService.getInstance().getHazelcastInstance().getMap(mapName);
+    }
+
+    @Override
+    public SessionData get(String sessionId) {
+        SessionData sessionData = sessions.get(sessionId);
+        if (sessionData != null && isExpired(sessionData)) {
+            sessions.remove(sessionId);
+            return null;
+        }
+        return sessionData;
+    }
+
+    @Override
+    public void put(SessionData sessionData) {
+        if (timeoutMillis == Long.MAX_VALUE) {
+            sessions.put(sessionData.getId(), sessionData);
+        } else {
+            sessions.put(sessionData.getId(), sessionData, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    @Override
+    public void touch(String sessionId) {
+        SessionData sessionData = get(sessionId);
+        if (sessionData != null 
+                && System.currentTimeMillis() - sessionData.getLastAccessedMillis() >= touchInterval) {
+            sessionData.setLastAccessedTime();
+            put(sessionData);
+        }
+    }
+
+    @Override
+    public Set<String> getSessionIds() {
+        return new HashSet<String>(sessions.keySet());
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+}
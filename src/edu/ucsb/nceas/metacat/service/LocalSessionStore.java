@@ -0,0 +1,115 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.service;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.ucsb.nceas.metacat.util.SessionData;
+
+/**
+ * Keeps the sessions of this Metacat instance in a ConcurrentHashMap, whose 
+ * lock-striped segments let the requests of different sessions proceed without 
+ * waiting for each other.
+ * 
+ * Besides dropping an expired session when it is read, each registration checks 
+ * a small sample of the sessions, continuing where the previous one stopped, so the
+ * abandoned sessions are cleaned up bit by bit.
+ */
+public class LocalSessionStore extends SessionStore {
+    private static final int CONCURRENCY_LEVEL = 64;
+    private static final int SAMPLE_SIZE = 20;
+
+    private ConcurrentHashMap<String, SessionData> sessions = 
+            new ConcurrentHashMap<String, SessionData>(256, 0.75f, CONCURRENCY_LEVEL);
+    private Iterator<SessionData> sampler = null;
+    private ReentrantLock samplerLock = new ReentrantLock();
+
+    @Override
+    public SessionData get(String sessionId) {
+        SessionData sessionData = sessions.get(sessionId);
+        if (sessionData != null && isExpired(sessionData)) {
+            sessions.remove(sessionId, sessionData);
+            return null;
+        }
+        return sessionData;
+    }
+
+    @Override
+    public void put(SessionData sessionData) {
+        sessions.put(sessionData.getId(), sessionData);
+        removeExpiredSample();
+    }
+
+    @Override
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    @Override
+    public void touch(String sessionId) {
+        SessionData sessionData = get(sessionId);
+        if (sessionData != null) {
+            sessionData.setLastAccessedTime();
+        }
+    }
+
+    @Override
+    public Set<String> getSessionIds() {
+        return new HashSet<String>(sessions.keySet());
+    }
+
+    /*
+     * Check the next few sessions and remove the expired ones. It is skipped if 
+     * another thread is doing it.
+     */
+    private void removeExpiredSample() {
+        if (!samplerLock.tryLock()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                if (sampler == null || !sampler.hasNext()) {
+                    if (i > 0) {
+                        //start over next time
+                        sampler = null;
+                        break;
+                    }
+                    sampler = sessions.values().iterator();
+                    if (!sampler.hasNext()) {
+                        break;
+                    }
+                }
+                SessionData sessionData = sampler.next();
+                if (isExpired(sessionData)) {
+                    sessions.remove(sessionData.getId(), sessionData);
+                }
+            }
+        } finally {
+            samplerLock.unlock();
+        }
+    }
+}
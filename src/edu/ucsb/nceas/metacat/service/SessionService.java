@@ -28,9 +28,6 @@ package edu.ucsb.nceas.metacat.service;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.Calendar;
-import java.util.Enumeration;
-import java.util.Hashtable;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -45,15 +42,16 @@ import edu.ucsb.nceas.utilities.PropertyNotFoundException;
 
 public class SessionService extends BaseService {
 	
-	private static SessionService sessionService = null;
+	private static volatile SessionService sessionService = null;
 	private static int sessionTimeoutMinutes;
 	
 	private static Log logMetacat = LogFactory.getLog(SessionService.class);
-	private static Hashtable<String, SessionData> sessionHash = null;
+	private static volatile SessionStore sessionStore = null;
+	// the public session never expires and is never shared, so it stays out of the store
+	private static SessionData publicSession = null;
 	
 	private static final String PUBLIC_SESSION_ID = "0";
-	
-	private static Object lockObj = new Object();
+	public static final String DEFAULT_STORE_CLASS_NAME = LocalSessionStore.class.getName();
 
 	/**
 	 * private constructor since this is a singleton
@@ -63,9 +61,11 @@ public class SessionService extends BaseService {
 		
 		String sessionTimeoutStr = null;
 		try {
-			sessionHash = new Hashtable<String, SessionData>();
 			sessionTimeoutStr = PropertyService.getProperty("session.timeoutMinutes");
 			sessionTimeoutMinutes = Integer.parseInt(sessionTimeoutStr);
+			// the configured store may rely on services which haven't started yet (see startSessionStore)
+			sessionStore = new LocalSessionStore();
+			sessionStore.setTimeout(sessionTimeoutMinutes * 60L * 1000L);
 		
 			logMetacat.debug("SessionService() - Registering public session id: " + 
 					PUBLIC_SESSION_ID);
@@ -79,6 +79,59 @@ public class SessionService extends BaseService {
 		}
 	}
 	
+	/*
+	 * Create the session store named by the session.store.classname property. 
+	 * A LocalSessionStore is used if the property is missing or the store can't be created.
+	 */
+	private static SessionStore createSessionStore() {
+		String className = DEFAULT_STORE_CLASS_NAME;
+		try {
+			className = PropertyService.getProperty("session.store.classname");
+			return (SessionStore) Class.forName(className).newInstance();
+		} catch (Exception e) {
+			logMetacat.error("SessionService.createSessionStore - couldn't create the session store " + className 
+					+ ", so the default one " + DEFAULT_STORE_CLASS_NAME + " is used: " + e.getMessage(), e);
+			return new LocalSessionStore();
+		}
+	}
+	
+	/**
+	 * Replace the LocalSessionStore, which keeps the sessions registered while Metacat starts or
+	 * is being configured, with the store named by the session.store.classname property. It should
+	 * be called after the services the store relies on, such as the DatabaseService and the
+	 * HazelcastService, have started. The sessions in the replaced store are copied into the new
+	 * one, before the swap and once more after it for the sessions registered in between.
+	 */
+	public synchronized void startSessionStore() {
+		SessionStore store = createSessionStore();
+		store.setTimeout(sessionTimeoutMinutes * 60L * 1000L);
+		logMetacat.info("SessionService.startSessionStore - keep the sessions in " + store.getClass().getName());
+		SessionStore previous = sessionStore;
+		int copied = copySessions(previous, store);
+		sessionStore = store;
+		copied += copySessions(previous, store);
+		logMetacat.info("SessionService.startSessionStore - copied " + copied + " sessions from the replaced store");
+	}
+	
+	/*
+	 * Copy the unexpired sessions of one store into another one. A session which the 
+	 * target already has, e.g. one registered by another instance of a cluster, is kept.
+	 */
+	static int copySessions(SessionStore from, SessionStore to) {
+		int copied = 0;
+		if (from == null || from == to) {
+			return copied;
+		}
+		for (String sessionId : from.getSessionIds()) {
+			SessionData sessionData = from.get(sessionId);
+			if (sessionData != null && to.get(sessionId) == null) {
+				to.put(sessionData);
+				copied++;
+			}
+		}
+		return copied;
+	}
+	
 	/**
 	 * Get the single instance of SessionService.
 	 * 
@@ -88,7 +141,11 @@ public class SessionService extends BaseService {
 	    try
 	    {
 	        if (sessionService == null) {
-	            sessionService = new SessionService();
+	            synchronized (SessionService.class) {
+	                if (sessionService == null) {
+	                    sessionService = new SessionService();
+	                }
+	            }
 	        }
 	        return sessionService;
 	    }
@@ -127,16 +184,14 @@ public class SessionService extends BaseService {
 	 */
 	public void registerSession(String sessionId, String userName,
 			String[] groupNames, String password, String name) throws ServiceException {
-		synchronized(lockObj) {
-			if (sessionId == null) {
-				throw new ServiceException("SessionService.registerSession - " + 
-						"Cannot register a null session id");
-			}
-			logMetacat.debug("SessionService.registerSession - Registering session id: " + sessionId);
-			SessionData sessionData = new SessionData(sessionId, userName, groupNames,
-					password, name);
-			sessionHash.put(sessionId, sessionData);
+		if (sessionId == null) {
+			throw new ServiceException("SessionService.registerSession - " + 
+					"Cannot register a null session id");
 		}
+		logMetacat.debug("SessionService.registerSession - Registering session id: " + sessionId);
+		SessionData sessionData = new SessionData(sessionId, userName, groupNames,
+				password, name);
+		registerSession(sessionData);
 	}
 	
 	/**
@@ -146,14 +201,16 @@ public class SessionService extends BaseService {
 	 *            the session data object to add to the session hash
 	 */
 	public void registerSession(SessionData sessionData) throws ServiceException {
-		synchronized(lockObj) {
-			if (sessionData == null) {
-				throw new ServiceException("SessionService.registerSession - " + 
-						"Cannot register null session data");
-			}
-			logMetacat.debug("SessionService.registerSession - Registering session " + 
-					"data with id: " + sessionData.getId());
-			sessionHash.put(sessionData.getId(), sessionData);
+		if (sessionData == null) {
+			throw new ServiceException("SessionService.registerSession - " + 
+					"Cannot register null session data");
+		}
+		logMetacat.debug("SessionService.registerSession - Registering session " + 
+				"data with id: " + sessionData.getId());
+		if (PUBLIC_SESSION_ID.equals(sessionData.getId())) {
+			publicSession = sessionData;
+		} else {
+			sessionStore.put(sessionData);
 		}
 	}
 	
@@ -164,39 +221,34 @@ public class SessionService extends BaseService {
 	 *            the id of the session to remove.
 	 */
 	public void unRegisterSession(String sessionId) {
-		synchronized(lockObj) {
-			if (sessionId == null) {
-				logMetacat.error("SessionService.unRegisterSession - trying to " + 
-					"unregister a session with null id");
-				return;
-			}
-			if (sessionId.equals(PUBLIC_SESSION_ID)) {
-				logMetacat.error("SessionService.unRegisterSession - cannot unregister public session, " +
-					"sessionId=" + sessionId);
-				return;
-			}
-		
-			logMetacat.info("SessionService.unRegisterSession - unRegistering session: " + sessionId);
-			sessionHash.remove(sessionId);
+		if (sessionId == null) {
+			logMetacat.error("SessionService.unRegisterSession - trying to " + 
+				"unregister a session with null id");
+			return;
+		}
+		if (sessionId.equals(PUBLIC_SESSION_ID)) {
+			logMetacat.error("SessionService.unRegisterSession - cannot unregister public session, " +
+				"sessionId=" + sessionId);
+			return;
 		}
+	
+		logMetacat.info("SessionService.unRegisterSession - unRegistering session: " + sessionId);
+		sessionStore.remove(sessionId);
 	}
 	
 	/**
 	 * Unregister all sessions from the session hash table except the public session.
-	 * 
-	 * @param sessionId
-	 *            the id of the session to remove.
+	 * Nothing is done if the store is shared, since the other Metacat instances of
+	 * the cluster still serve those sessions.
 	 */
 	public void unRegisterAllSessions() {
-		synchronized(lockObj) {
-			Enumeration<String> keyEnum = sessionHash.keys();
-			while (keyEnum.hasMoreElements()) {
-				String sessionId = keyEnum.nextElement();
-				if (!sessionId.equals(PUBLIC_SESSION_ID)) {
-					logMetacat.info("SessionService.unRegisterAllSessions - unRegistering session: " + sessionId);
-					sessionHash.remove(sessionId);
-				}
-			}
+		if (sessionStore.isShared()) {
+			logMetacat.info("SessionService.unRegisterAllSessions - the sessions are shared with the cluster, so they are kept");
+			return;
+		}
+		for (String sessionId : sessionStore.getSessionIds()) {
+			logMetacat.info("SessionService.unRegisterAllSessions - unRegistering session: " + sessionId);
+			sessionStore.remove(sessionId);
 		}
 	}
 	
@@ -213,9 +265,7 @@ public class SessionService extends BaseService {
 			return false;
 		}
 		
-		checkTimeout(sessionId);
-		
-		return sessionHash.containsKey(sessionId);
+		return getRegisteredSession(sessionId) != null;
 	}
 	
 	/**
@@ -274,8 +324,8 @@ public class SessionService extends BaseService {
 	}
 	
 	/**
-	 * Get a registered session from the session hash table. 
-	 * TODO MCD need to time sessions out
+	 * Get a registered session from the session store. An expired session
+	 * is unregistered and null is returned.
 	 * 
 	 * @param sessionId
 	 *            the id of the session to retrieve.
@@ -285,16 +335,18 @@ public class SessionService extends BaseService {
 			logMetacat.error("SessionService.getRegisteredSession - trying to get a session with null id");
 			return null;
 		}
-		checkTimeout(sessionId);
+		if (sessionId.equals(PUBLIC_SESSION_ID)) {
+			return publicSession;
+		}
 		
-		return sessionHash.get(sessionId);
+		return sessionStore.get(sessionId);
 	}
 	
 	/**
-	 * Get the public session from the session hash table. 
+	 * Get the public session. 
 	 */
 	public SessionData getPublicSession() {
-		return sessionHash.get(PUBLIC_SESSION_ID);
+		return publicSession;
 	}
 	
 	/**
@@ -303,29 +355,14 @@ public class SessionService extends BaseService {
 	 * @param sessionId
 	 *            the id of the session to update.
 	 */
-	public synchronized void touchSession(String sessionId) {
+	public void touchSession(String sessionId) {
 		if (sessionId == null) {
 			logMetacat.error("SessionService.touchSession - trying to touch a session with null id");
-		} else if (isSessionRegistered(sessionId)) {
-			synchronized(lockObj) {
-				SessionData sessionData = getRegisteredSession(sessionId);
-				sessionData.setLastAccessedTime();
-			}
+		} else if (!sessionId.equals(PUBLIC_SESSION_ID)) {
+			sessionStore.touch(sessionId);
 		}
 	}
 	
-	private void checkTimeout (String sessionId) {
-		SessionData sessionData = null;
-		if ((sessionData = sessionHash.get(sessionId)) != null) {
-			Calendar expireTime = Calendar.getInstance();
-			Calendar lastAccessedTime = sessionData.getLastAccessedTime();
-			expireTime.add(Calendar.MINUTE, 0 - sessionTimeoutMinutes);
-			if(lastAccessedTime.compareTo(expireTime) < 0 ) {
-				unRegisterSession(sessionId);
-			}
-		}		
-	}
-	
 	/*
 	 * Add user's groups information into the response
 	 */
@@ -0,0 +1,97 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.service;
+
+import java.util.Set;
+
+import edu.ucsb.nceas.metacat.util.SessionData;
+
+/**
+ * Where the SessionService keeps the registered sessions. A session which hasn't 
+ * been touched for the timeout is expired lazily: the store drops it when it is 
+ * read, and may drop a few more while other sessions are registered, instead of 
+ * sweeping all of the sessions under one lock.
+ * 
+ * The implementation is chosen by the session.store.classname property. 
+ * LocalSessionStore keeps the sessions in this JVM; HazelcastSessionStore shares 
+ * them between the Metacat instances of a cluster, so a session survives a failover.
+ */
+public abstract class SessionStore {
+    protected long timeoutMillis = Long.MAX_VALUE;
+
+    /**
+     * Set how long a session stays valid after it was last touched
+     * @param timeoutMillis  the timeout in milliseconds
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Get a session
+     * @param sessionId  the id of the session
+     * @return the session, or null if it isn't registered or has expired
+     */
+    public abstract SessionData get(String sessionId);
+
+    /**
+     * Register a session or save the changes of a registered one
+     * @param sessionData  the session
+     */
+    public abstract void put(SessionData sessionData);
+
+    /**
+     * Remove a session
+     * @param sessionId  the id of the session
+     */
+    public abstract void remove(String sessionId);
+
+    /**
+     * Update the last accessed time of a session
+     * @param sessionId  the id of the session
+     */
+    public abstract void touch(String sessionId);
+
+    /**
+     * Get the ids of the registered sessions. Some of them may have expired.
+     * @return a snapshot of the ids
+     */
+    public abstract Set<String> getSessionIds();
+
+    /**
+     * Check if the store is shared with the other Metacat instances of a cluster
+     * @return true if the other instances see the same sessions
+     */
+    public boolean isShared() {
+        return false;
+    }
+
+    /**
+     * Check if a session has not been touched for longer than the timeout
+     * @param sessionData  the session
+     * @return true if the session has expired
+     */
+    protected boolean isExpired(SessionData sessionData) {
+        return System.currentTimeMillis() - sessionData.getLastAccessedMillis() > timeoutMillis;
+    }
+}
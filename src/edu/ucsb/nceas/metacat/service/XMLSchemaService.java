@@ -30,6 +30,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -760,7 +761,7 @@ public class XMLSchemaService extends BaseService {
      * @throws SAXException 
      * @throws PropertyNotFoundException 
 	 */
-	public static String findDocumentNamespace(StringReader xml) throws IOException, PropertyNotFoundException, SAXException {
+	public static String findDocumentNamespace(Reader xml) throws IOException, PropertyNotFoundException, SAXException {
 		String namespace = null;
 
 		/*String eml2_0_0NameSpace = DocumentImpl.EML2_0_0NAMESPACE;
@@ -829,7 +830,7 @@ public class XMLSchemaService extends BaseService {
 	 * @throws PropertyNotFoundException 
 	 * @throws IOException 
 	 */
-	public static String findNoNamespaceSchemaLocationAttr(StringReader xml) throws PropertyNotFoundException, SAXException, IOException {
+	public static String findNoNamespaceSchemaLocationAttr(Reader xml) throws PropertyNotFoundException, SAXException, IOException {
 	    String noNamespaceSchemaLocation = null;
 	    XMLNamespaceParser namespaceParser = new XMLNamespaceParser(xml);
         namespaceParser.parse();
@@ -0,0 +1,567 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.shared;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+
+/**
+ * A durable work queue kept in a database table, which a pool of workers drains in the
+ * background. The table has the key columns of the subclass and the columns status,
+ * attempts, version, date_queued, next_attempt and last_error.
+ *
+ * A poller claims the due rows with FOR UPDATE SKIP LOCKED and pushes their next_attempt
+ * forward by a lease, so several Metacat instances can share the table and a row claimed
+ * by a crashed instance becomes due again after the lease. Queuing a row again increases
+ * its version; a worker only removes or updates the row if the version is still the one
+ * it claimed, so the work queued during an attempt is done again afterwards. A failed
+ * attempt is retried with exponential back-off; after maxAttempts attempts the row is
+ * marked failed and kept for the administrator.
+ *
+ * The settings are read from the properties prefix.workers, prefix.pollInterval,
+ * prefix.baseBackoff, prefix.maxBackoff, prefix.maxAttempts and prefix.lease.
+ *
+ * @param <C>  the type of the claimed rows
+ */
+public abstract class DurableQueue<C extends DurableQueue.Claim> extends BaseService {
+    public static final String QUEUED = "queued";
+    public static final String FAILED = "failed";
+    private static final int MAX_ERROR_LENGTH = 2000;
+    private static Log logMetacat = LogFactory.getLog(DurableQueue.class);
+
+    protected int workers = 2;
+    protected long pollInterval = 5000;
+    protected long baseBackoff = 30000;
+    protected long maxBackoff = 3600000;
+    protected int maxAttempts = 10;
+    protected long lease = 600000;
+    private String name = null;
+    private String table = null;
+    private String[] keyColumns = null;
+    private ScheduledExecutorService poller = null;
+    private ExecutorService workerPool = null;
+    private AtomicInteger inFlight = new AtomicInteger(0);
+    private AtomicLong completed = new AtomicLong(0);
+    private AtomicLong retried = new AtomicLong(0);
+    private AtomicLong failed = new AtomicLong(0);
+
+    /**
+     * Constructor. It reads the settings from the properties, but doesn't start the workers.
+     * @param name  the name of the queue, used for the service and its threads, e.g. DOIRegistration
+     * @param table  the table keeping the queue
+     * @param keyColumns  the columns identifying a row of the table
+     * @param propertyPrefix  the prefix of the properties of the settings
+     * @param defaultWorkers  the number of the workers if the property isn't set
+     * @param defaultBaseBackoff  the delay after the first failure if the property isn't set
+     * @param defaultMaxAttempts  the number of the attempts before a row fails if the property isn't set
+     */
+    protected DurableQueue(String name, String table, String[] keyColumns, String propertyPrefix,
+                           int defaultWorkers, long defaultBaseBackoff, int defaultMaxAttempts) {
+        _serviceName = name + "Queue";
+        this.name = name;
+        this.table = table;
+        this.keyColumns = keyColumns;
+        workers = (int) getLongProperty(propertyPrefix + ".workers", defaultWorkers);
+        pollInterval = getLongProperty(propertyPrefix + ".pollInterval", pollInterval);
+        baseBackoff = getLongProperty(propertyPrefix + ".baseBackoff", defaultBaseBackoff);
+        maxBackoff = getLongProperty(propertyPrefix + ".maxBackoff", maxBackoff);
+        maxAttempts = (int) getLongProperty(propertyPrefix + ".maxAttempts", defaultMaxAttempts);
+        lease = getLongProperty(propertyPrefix + ".lease", lease);
+    }
+
+    /**
+     * Read a numeric property, or use the default value
+     * @param name  the name of the property
+     * @param defaultValue  the value used if the property is missing or isn't a number
+     * @return the value of the property
+     */
+    protected static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(PropertyService.getProperty(name));
+        } catch (Exception e) {
+            logMetacat.debug("DurableQueue.getLongProperty - use the default value " + defaultValue + " for " + name
+                              + " since " + e.getMessage());
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The columns returned for a claimed row besides the key columns, version and attempts.
+     * They are read by readClaim.
+     * @return the comma separated columns, or null if there are none
+     */
+    protected abstract String getClaimColumns();
+
+    /**
+     * Create a claim from a row returned by the poller. The row has the key columns, the
+     * claim columns, the version and the attempts in this order.
+     * @param rs  the result set positioned at the row
+     * @return the claim
+     * @throws SQLException
+     */
+    protected abstract C readClaim(ResultSet rs) throws SQLException;
+
+    /**
+     * Do the work of a claimed row and record the outcome with complete. It runs in a worker thread.
+     * @param claim  the claimed row
+     */
+    protected abstract void process(C claim);
+
+    /**
+     * Describe the work of a claimed row for the log, e.g. "the DOI registration of doi:10.x/y"
+     * @param claim  the claimed row
+     * @return the description
+     */
+    protected abstract String describe(C claim);
+
+    /**
+     * Reserve what a claimed row needs before it is handed to a worker. The default
+     * reserves nothing.
+     * @param claim  the claimed row
+     * @return false if the row should wait for a later poll, e.g. with postpone
+     */
+    protected boolean reserve(C claim) {
+        return true;
+    }
+
+    /**
+     * Give back what reserve took when the row couldn't be handed to a worker.
+     * @param claim  the claimed row
+     */
+    protected void unreserve(C claim) {
+    }
+
+    /**
+     * Start the poller and the workers. The rows left by an earlier run are picked up.
+     */
+    public synchronized void start() {
+        if (poller != null) {
+            return;
+        }
+        workerPool = Executors.newFixedThreadPool(workers, new DaemonThreadFactory(name + "Worker"));
+        poller = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name + "Poller"));
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                poll();
+            }
+        }, 0, pollInterval, TimeUnit.MILLISECONDS);
+        logMetacat.info(_serviceName + ".start - started " + workers + " workers");
+    }
+
+    /**
+     * Poll now instead of waiting for the next poll, e.g. after rows were queued
+     */
+    protected void pollNow() {
+        ScheduledExecutorService currentPoller = poller;
+        if (currentPoller != null) {
+            try {
+                currentPoller.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                });
+            } catch (RuntimeException e) {
+                logMetacat.debug(_serviceName + ".pollNow - the poller is stopped: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Claim the due rows and hand them to the workers. It runs in the poller thread.
+     */
+    protected void poll() {
+        int free = workers - inFlight.get();
+        if (free <= 0) {
+            return;
+        }
+        String keys = join(keyColumns, ", ");
+        String claimColumns = getClaimColumns();
+        List<C> claims = new ArrayList<C>();
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection(_serviceName + ".poll");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement("UPDATE " + table + " SET attempts = attempts + 1, "
+                    + "next_attempt = now() + ? * interval '1 millisecond' WHERE (" + keys + ") IN "
+                    + "(SELECT " + keys + " FROM " + table + " WHERE status = ? AND next_attempt <= now() "
+                    + "ORDER BY next_attempt LIMIT ? FOR UPDATE SKIP LOCKED) "
+                    + "RETURNING " + keys + (claimColumns == null ? "" : ", " + claimColumns) + ", version, attempts");
+            stmt.setLong(1, lease);
+            stmt.setString(2, QUEUED);
+            stmt.setInt(3, free);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                claims.add(readClaim(rs));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            logMetacat.error(_serviceName + ".poll - couldn't claim the due rows of " + table + ": " + e.getMessage(), e);
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        for (final C claim : claims) {
+            if (!reserve(claim)) {
+                continue;
+            }
+            inFlight.incrementAndGet();
+            try {
+                workerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(claim);
+                        } finally {
+                            inFlight.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // the pool is stopped; the row becomes due again after the lease
+                inFlight.decrementAndGet();
+                unreserve(claim);
+                logMetacat.warn(_serviceName + ".poll - couldn't hand " + describe(claim) + " to a worker: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Record the outcome of an attempt: the row is removed if it succeeded, retried after
+     * the back-off if it failed, or marked failed after maxAttempts attempts.
+     * @param claim  the claimed row
+     * @param error  the reason of the failure, or null if the attempt succeeded
+     */
+    protected void complete(C claim, String error) {
+        String where = getWhereClause();
+        if (error == null) {
+            completed.incrementAndGet();
+            update("DELETE FROM " + table + where, claim);
+            logMetacat.debug(_serviceName + ".complete - finished " + describe(claim));
+        } else if (isLastAttempt(claim)) {
+            failed.incrementAndGet();
+            update("UPDATE " + table + " SET status = ?, last_error = ?" + where, claim, FAILED, truncate(error));
+            logMetacat.error(_serviceName + ".complete - gave up " + describe(claim) + " after "
+                              + claim.getAttempts() + " attempts: " + error);
+        } else {
+            retried.incrementAndGet();
+            long backoff = getBackoff(claim.getAttempts());
+            update("UPDATE " + table + " SET last_error = ?, next_attempt = now() + ? * interval '1 millisecond'" + where,
+                   claim, truncate(error), backoff);
+            logMetacat.warn(_serviceName + ".complete - " + describe(claim) + " failed (attempt " + claim.getAttempts()
+                             + "), it will be retried in " + backoff + " ms: " + error);
+        }
+    }
+
+    /**
+     * Check if a failure of the attempt of a claimed row makes the row fail for good
+     * @param claim  the claimed row
+     * @return true if the claim is the last attempt
+     */
+    protected boolean isLastAttempt(C claim) {
+        return claim.getAttempts() >= maxAttempts;
+    }
+
+    /**
+     * Get the number of the rows the workers are processing
+     * @return the number of the running rows
+     */
+    protected int getRunning() {
+        return inFlight.get();
+    }
+
+    /**
+     * Give a claimed row back without counting the attempt, so it is due again after the delay
+     * @param claim  the claimed row
+     * @param delay  the milliseconds until the row is due again
+     */
+    protected void postpone(C claim, long delay) {
+        update("UPDATE " + table + " SET attempts = attempts - 1, next_attempt = now() + ? * interval '1 millisecond'"
+               + getWhereClause(), claim, delay);
+    }
+
+    /**
+     * Get the delay before the next attempt: baseBackoff doubled for each failed
+     * attempt, but at most maxBackoff
+     * @param attempts  the number of the attempts so far
+     * @return the delay in milliseconds
+     */
+    protected long getBackoff(int attempts) {
+        long backoff = baseBackoff;
+        for (int i = 1; i < attempts && backoff < maxBackoff; i++) {
+            backoff = backoff * 2;
+        }
+        return Math.min(backoff, maxBackoff);
+    }
+
+    /*
+     * Run an update of a claimed row. The parameters are bound in their order, followed by
+     * the key and the version of the claim, so every placeholder of the statement is bound.
+     */
+    private void update(String sql, C claim, Object... parameters) {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection(_serviceName + ".update");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement(sql);
+            int index = 1;
+            for (Object parameter : parameters) {
+                if (parameter instanceof Long) {
+                    stmt.setLong(index++, (Long) parameter);
+                } else {
+                    stmt.setString(index++, (String) parameter);
+                }
+            }
+            for (String key : claim.getKey()) {
+                stmt.setString(index++, key);
+            }
+            stmt.setLong(index, claim.getVersion());
+            if (stmt.executeUpdate() == 0) {
+                logMetacat.debug(_serviceName + ".update - " + describe(claim) + " was queued again during the attempt");
+            }
+        } catch (SQLException e) {
+            // the row stays claimed and becomes due again after the lease
+            logMetacat.error(_serviceName + ".update - couldn't update the queue row of " + describe(claim) + ": "
+                              + e.getMessage(), e);
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /**
+     * Queue the failed rows again, e.g. after the remote service was fixed
+     * @return the number of the rows queued again
+     * @throws SQLException
+     */
+    protected int requeue() throws SQLException {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection(_serviceName + ".requeue");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement("UPDATE " + table + " SET status = ?, attempts = 0, next_attempt = now() WHERE status = ?");
+            stmt.setString(1, QUEUED);
+            stmt.setString(2, FAILED);
+            return stmt.executeUpdate();
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /**
+     * Get the status of the queue: the numbers of the queued, failed and running rows,
+     * the age of the oldest queued row in milliseconds, and the numbers of the rows
+     * completed, retried and given up since the start.
+     * @param completedName  the name of the number of the completed rows, e.g. registered
+     * @return the metrics by name
+     */
+    protected Map<String, Long> getStatus(String completedName) {
+        Map<String, Long> status = new LinkedHashMap<String, Long>();
+        status.put(QUEUED, 0L);
+        status.put(FAILED, 0L);
+        status.put("oldestQueuedAge", 0L);
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        PreparedStatement stmt = null;
+        try {
+            dbConn = DBConnectionPool.getDBConnection(_serviceName + ".getStatus");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            stmt = dbConn.prepareStatement("SELECT status, count(*), "
+                    + "COALESCE(EXTRACT(EPOCH FROM now() - min(date_queued)) * 1000, 0) FROM " + table + " GROUP BY status");
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                status.put(rs.getString(1), rs.getLong(2));
+                if (QUEUED.equals(rs.getString(1))) {
+                    status.put("oldestQueuedAge", rs.getLong(3));
+                }
+            }
+            rs.close();
+        } catch (SQLException e) {
+            logMetacat.error(_serviceName + ".getStatus - couldn't count the rows of " + table + ": " + e.getMessage(), e);
+        } finally {
+            close(stmt);
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        status.put("running", (long) getRunning());
+        status.put(completedName, completed.get());
+        status.put("retried", retried.get());
+        status.put("gaveUp", failed.get());
+        return status;
+    }
+
+    public boolean refreshable() {
+        return false;
+    }
+
+    protected void doRefresh() throws ServiceException {
+        return;
+    }
+
+    /**
+     * Stop the poller and the workers. The queued rows stay in the table.
+     */
+    public synchronized void stop() throws ServiceException {
+        if (poller != null) {
+            poller.shutdownNow();
+            workerPool.shutdown();
+            try {
+                workerPool.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            poller = null;
+            workerPool = null;
+        }
+    }
+
+    /**
+     * The milliseconds stop waits for the running attempts
+     * @return the poll interval by default
+     */
+    protected long getStopTimeout() {
+        return pollInterval;
+    }
+
+    /**
+     * Close a statement and log the error
+     * @param stmt  the statement. It can be null.
+     */
+    protected static void close(PreparedStatement stmt) {
+        if (stmt != null) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                logMetacat.warn("DurableQueue.close - couldn't close the statement: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * The condition selecting the claimed version of a row, e.g. " WHERE guid = ? AND version = ?"
+     */
+    private String getWhereClause() {
+        StringBuilder where = new StringBuilder(" WHERE ");
+        for (String column : keyColumns) {
+            where.append(column).append(" = ? AND ");
+        }
+        return where.append("version = ?").toString();
+    }
+
+    private static String truncate(String error) {
+        return error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+    }
+
+    private static String join(String[] values, String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    /**
+     * A row claimed by the poller
+     */
+    protected static class Claim {
+        private String[] key;
+        private long version;
+        private int attempts;
+
+        /**
+         * Constructor
+         * @param key  the values of the key columns
+         * @param version  the version of the row when it was claimed
+         * @param attempts  the number of the attempts including this one
+         */
+        protected Claim(String[] key, long version, int attempts) {
+            this.key = key;
+            this.version = version;
+            this.attempts = attempts;
+        }
+
+        protected String[] getKey() {
+            return key;
+        }
+
+        protected long getVersion() {
+            return version;
+        }
+
+        protected int getAttempts() {
+            return attempts;
+        }
+    }
+
+    /**
+     * Create named daemon threads, so the queue doesn't keep the JVM alive
+     */
+    protected static class DaemonThreadFactory implements ThreadFactory {
+        private String name = null;
+        private AtomicInteger count = new AtomicInteger(0);
+
+        /**
+         * Constructor
+         * @param name  the prefix of the thread names
+         */
+        public DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.metacat.database.DBConnection;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * A deduplicating object store which keeps the bytes of the data objects under
+ * the hex digest of their content (SHA-256 by default). Objects with identical
+ * bytes share one file. The files are spread over nested directories named by
+ * the leading characters of the digest, e.g. objects/4b/02/7a/4b027a...,
+ * so no directory grows to millions of entries.
+ * 
+ * The object_store_ref table maps the local ids (and identifiers) to the digests
+ * and the object_store_content table counts the references to each digest. Both 
+ * tables are changed while the content row is locked, so a put and a delete of the
+ * same content can't race each other. The content file is removed after the 
+ * transaction dropping its last reference commits, so a rolled back delete never
+ * loses the bytes; the file is only removed if the row still has no references.
+ * 
+ * Besides the database rows, small reference files under refs/localids and 
+ * refs/pids (named by the sharded digest of the local id or the identifier)
+ * hold the content digest. They let the store resolve a local id or an 
+ * identifier to its file without a database round trip, e.g. for the
+ * ObjectPathMap shared with the indexer. A local id without a reference 
+ * is looked up in application.datafilepath, where the objects stored before 
+ * the store was enabled stay until MigrateDataToObjectStore moves them.
+ */
+public class ContentAddressedObjectStore extends ObjectStore {
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    private static final int DEFAULT_DEPTH = 3;
+    private static final int DEFAULT_WIDTH = 2;
+    private static final String OBJECTS = "objects";
+    private static final String LOCALID_REFS = "refs" + File.separator + "localids";
+    private static final String PID_REFS = "refs" + File.separator + "pids";
+    private static Log logMetacat = LogFactory.getLog(ContentAddressedObjectStore.class);
+
+    private File root = null;
+    private int depth = DEFAULT_DEPTH;
+    private int width = DEFAULT_WIDTH;
+    private String algorithm = DEFAULT_ALGORITHM;
+
+    /**
+     * Constructor. The root directory is the storage.objectStore.path property. If it is 
+     * missing, the directory "objects" next to application.datafilepath is used.
+     * @throws PropertyNotFoundException
+     */
+    public ContentAddressedObjectStore() throws PropertyNotFoundException {
+        String path = null;
+        try {
+            path = PropertyService.getProperty("storage.objectStore.path");
+        } catch (PropertyNotFoundException e) {
+            logMetacat.debug("ContentAddressedObjectStore.ContentAddressedObjectStore - storage.objectStore.path isn't set: " + e.getMessage());
+        }
+        if (path == null || path.trim().equals("")) {
+            root = new File(getDataDirectory().getAbsoluteFile().getParentFile(), OBJECTS);
+        } else {
+            root = new File(path.trim());
+        }
+        try {
+            depth = Integer.parseInt(PropertyService.getProperty("storage.objectStore.depth"));
+        } catch (Exception e) {
+            logMetacat.debug("ContentAddressedObjectStore.ContentAddressedObjectStore - use the default depth " + DEFAULT_DEPTH + " since " + e.getMessage());
+        }
+        try {
+            width = Integer.parseInt(PropertyService.getProperty("storage.objectStore.width"));
+        } catch (Exception e) {
+            logMetacat.debug("ContentAddressedObjectStore.ContentAddressedObjectStore - use the default width " + DEFAULT_WIDTH + " since " + e.getMessage());
+        }
+        try {
+            algorithm = PropertyService.getProperty("storage.objectStore.algorithm");
+        } catch (PropertyNotFoundException e) {
+            logMetacat.debug("ContentAddressedObjectStore.ContentAddressedObjectStore - use the default algorithm " + DEFAULT_ALGORITHM + " since " + e.getMessage());
+        }
+        logMetacat.info("ContentAddressedObjectStore.ContentAddressedObjectStore - the root of the store is " + root.getAbsolutePath());
+    }
+
+    @Override
+    public File getFile(String localId) throws IOException {
+        String hash = readRef(getLocalIdRefFile(localId));
+        if (hash == null) {
+            try {
+                return new File(getDataDirectory(), localId);
+            } catch (PropertyNotFoundException e) {
+                throw new IOException("ContentAddressedObjectStore.getFile - couldn't find the data directory: " + e.getMessage(), e);
+            }
+        }
+        return getContentFile(hash);
+    }
+
+    @Override
+    public File getFile(Identifier pid) throws IOException {
+        if (pid == null || pid.getValue() == null) {
+            return null;
+        }
+        String hash = readRef(getPidRefFile(pid.getValue()));
+        if (hash == null) {
+            return null;
+        }
+        return getContentFile(hash);
+    }
+
+    @Override
+    public File put(String localId, Identifier pid, File source, Checksum checksum) throws IOException {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("ContentAddressedObjectStore.put");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            return put(dbConn.getConnections(), localId, pid, source, checksum);
+        } catch (SQLException e) {
+            throw new IOException("ContentAddressedObjectStore.put - couldn't store the object " + localId + ": " + e.getMessage(), e);
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /**
+     * Put a file into the store using the given database connection. The changes
+     * are committed before the method returns.
+     * @param conn  the database connection
+     * @param localId  the local id (docid.rev) of the object
+     * @param pid  the identifier of the object. It can be null.
+     * @param source  the file with the bytes of the object. It is moved into the store,
+     *                or deleted if the store already has the same bytes.
+     * @param checksum  the verified checksum of the bytes. It can be null.
+     * @return the file holding the object in the store
+     * @throws IOException
+     * @throws SQLException
+     */
+    public File put(Connection conn, String localId, Identifier pid, File source, Checksum checksum) 
+                    throws IOException, SQLException {
+        if (!source.isFile()) {
+            throw new IOException("ContentAddressedObjectStore.put - the file " + source.getAbsolutePath() + " doesn't exist");
+        }
+        String hash = getContentHash(source, checksum);
+        File content = getContentFile(hash);
+        String guid = pid == null ? null : pid.getValue();
+        boolean autoCommit = conn.getAutoCommit();
+        boolean moved = false;
+        File localIdRef = getLocalIdRefFile(localId);
+        File pidRef = guid == null ? null : getPidRefFile(guid);
+        String previousLocalIdRef = null;
+        String previousPidRef = null;
+        boolean localIdRefWritten = false;
+        boolean pidRefWritten = false;
+        conn.setAutoCommit(false);
+        try {
+            String[] ref = lockRef(conn, localId);
+            if (ref != null && ref[0].equals(hash)) {
+                logMetacat.debug("ContentAddressedObjectStore.put - the object " + localId + " is already stored as " + hash);
+                if (!content.getCanonicalPath().equals(source.getCanonicalPath())) {
+                    FileUtils.deleteQuietly(source);
+                }
+                conn.commit();
+                return content;
+            }
+            boolean unreferenced = false;
+            if (ref != null) {
+                // the local id is overwritten with different bytes
+                unreferenced = release(conn, localId, ref[0]);
+            }
+            long refCount = addReference(conn, hash, source.length());
+            if (!content.exists()) {
+                FileUtils.moveFile(source, content);
+                moved = true;
+            } else {
+                logMetacat.info("ContentAddressedObjectStore.put - the object " + localId + " has the same content as " 
+                                 + (refCount - 1) + " stored object(s), so the file " + source.getAbsolutePath() + " is dropped");
+                FileUtils.deleteQuietly(source);
+            }
+            PreparedStatement stmt = conn.prepareStatement("INSERT INTO object_store_ref (localid, guid, content_hash) VALUES (?, ?, ?)");
+            try {
+                stmt.setString(1, localId);
+                stmt.setString(2, guid);
+                stmt.setString(3, hash);
+                stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+            previousLocalIdRef = readRef(localIdRef);
+            localIdRefWritten = true;
+            writeRef(localIdRef, hash);
+            if (pidRef != null) {
+                previousPidRef = readRef(pidRef);
+                pidRefWritten = true;
+                writeRef(pidRef, hash);
+            }
+            conn.commit();
+            if (ref != null && ref[1] != null && !ref[1].equals(guid)) {
+                FileUtils.deleteQuietly(getPidRefFile(ref[1]));
+            }
+            if (unreferenced) {
+                purge(conn, ref[0]);
+            }
+            logMetacat.debug("ContentAddressedObjectStore.put - stored the object " + localId + " as " + content.getAbsolutePath());
+            return content;
+        } catch (IOException | SQLException e) {
+            conn.rollback();
+            if (moved) {
+                FileUtils.moveFile(content, source);
+            }
+            // only undo the references this call wrote
+            if (localIdRefWritten) {
+                restoreRef(localIdRef, previousLocalIdRef);
+            }
+            if (pidRefWritten) {
+                restoreRef(pidRef, previousPidRef);
+            }
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public boolean delete(String localId) throws IOException {
+        DBConnection dbConn = null;
+        int serialNumber = -1;
+        try {
+            dbConn = DBConnectionPool.getDBConnection("ContentAddressedObjectStore.delete");
+            serialNumber = dbConn.getCheckOutSerialNumber();
+            Connection conn = dbConn.getConnections();
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                String[] ref = lockRef(conn, localId);
+                if (ref == null) {
+                    conn.commit();
+                    File file = new File(getDataDirectory(), localId);
+                    return file.exists() && file.delete();
+                }
+                boolean unreferenced = release(conn, localId, ref[0]);
+                conn.commit();
+                FileUtils.deleteQuietly(getLocalIdRefFile(localId));
+                if (ref[1] != null) {
+                    FileUtils.deleteQuietly(getPidRefFile(ref[1]));
+                }
+                if (unreferenced) {
+                    purge(conn, ref[0]);
+                }
+                return true;
+            } catch (SQLException | PropertyNotFoundException | IOException e) {
+                conn.rollback();
+                throw new IOException("ContentAddressedObjectStore.delete - couldn't delete the object " + localId + ": " + e.getMessage(), e);
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IOException("ContentAddressedObjectStore.delete - couldn't delete the object " + localId + ": " + e.getMessage(), e);
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+
+    /**
+     * Get the file where the content with the given digest is stored
+     * @param hash  the hex digest of the content
+     * @return the file in the sharded directories
+     */
+    public File getContentFile(String hash) {
+        return new File(new File(root, OBJECTS), shard(hash));
+    }
+
+    /*
+     * Lock the reference row of the local id. Return the content hash and guid, or null
+     * if the local id isn't in the store.
+     */
+    private String[] lockRef(Connection conn, String localId) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("SELECT content_hash, guid FROM object_store_ref WHERE localid = ? FOR UPDATE");
+        try {
+            stmt.setString(1, localId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return new String[] {rs.getString(1), rs.getString(2)};
+            }
+            return null;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * Count one more reference to the content and return the new count. The content
+     * row stays locked until the transaction ends.
+     */
+    private long addReference(Connection conn, String hash, long size) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("INSERT INTO object_store_content (content_hash, ref_count, size) VALUES (?, 1, ?) "
+                + "ON CONFLICT (content_hash) DO UPDATE SET ref_count = object_store_content.ref_count + 1 RETURNING ref_count");
+        try {
+            stmt.setString(1, hash);
+            stmt.setLong(2, size);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /*
+     * Remove the reference of the local id to the content. The content row is kept, even
+     * when it was the last reference, and the file isn't touched, since the transaction may
+     * still be rolled back; the caller purges the content after the commit.
+     * @return true if the content has no references any more
+     */
+    private boolean release(Connection conn, String localId, String hash) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement("DELETE FROM object_store_ref WHERE localid = ?");
+        try {
+            stmt.setString(1, localId);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+        long refCount = 0;
+        stmt = conn.prepareStatement("UPDATE object_store_content SET ref_count = ref_count - 1 WHERE content_hash = ? RETURNING ref_count");
+        try {
+            stmt.setString(1, hash);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                refCount = rs.getLong(1);
+            }
+        } finally {
+            stmt.close();
+        }
+        return refCount <= 0;
+    }
+
+    /*
+     * Delete the content row and file of a digest which has no references, in a transaction
+     * of its own after the release committed. The row stays locked while the file is deleted,
+     * so a put of the same content waits and then stores the file again; if a put referenced
+     * the content in the meantime, nothing is deleted. A failure only leaves an unreferenced
+     * file behind, which the next release of the content purges.
+     */
+    private void purge(Connection conn, String hash) {
+        try {
+            PreparedStatement stmt = conn.prepareStatement("DELETE FROM object_store_content WHERE content_hash = ? AND ref_count <= 0");
+            int deleted = 0;
+            try {
+                stmt.setString(1, hash);
+                deleted = stmt.executeUpdate();
+            } finally {
+                stmt.close();
+            }
+            File content = getContentFile(hash);
+            if (deleted > 0 && content.exists() && !content.delete()) {
+                conn.rollback();
+                logMetacat.warn("ContentAddressedObjectStore.purge - couldn't delete the file " + content.getAbsolutePath());
+                return;
+            }
+            conn.commit();
+            if (deleted > 0) {
+                logMetacat.debug("ContentAddressedObjectStore.purge - deleted the unreferenced content " + hash);
+            }
+        } catch (SQLException e) {
+            logMetacat.warn("ContentAddressedObjectStore.purge - couldn't delete the unreferenced content " + hash + ": " + e.getMessage());
+            try {
+                conn.rollback();
+            } catch (SQLException ee) {
+                logMetacat.warn("ContentAddressedObjectStore.purge - couldn't roll back: " + ee.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Put back the value a reference file had before a failed put, or remove it if it didn't exist
+     */
+    private static void restoreRef(File ref, String previous) {
+        try {
+            if (previous == null) {
+                FileUtils.deleteQuietly(ref);
+            } else {
+                writeRef(ref, previous);
+            }
+        } catch (IOException e) {
+            logMetacat.error("ContentAddressedObjectStore.restoreRef - couldn't restore the reference " + ref.getAbsolutePath()
+                              + ": " + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Get the hex digest of the file. The value of the checksum is used if it has
+     * the algorithm of the store, so the file isn't read again.
+     */
+    private String getContentHash(File file, Checksum checksum) throws IOException {
+        if (checksum != null && checksum.getValue() != null && checksum.getAlgorithm() != null
+                && normalize(checksum.getAlgorithm()).equals(normalize(algorithm))) {
+            String value = checksum.getValue().trim().toLowerCase();
+            if (value.matches("[0-9a-f]+")) {
+                return value;
+            }
+        }
+        InputStream in = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            in = new DigestInputStream(new FileInputStream(file), md);
+            IOUtils.copyLarge(in, NullOutputStream.NULL_OUTPUT_STREAM);
+            return DatatypeConverter.printHexBinary(md.digest()).toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("ContentAddressedObjectStore.getContentHash - the algorithm " + algorithm + " isn't supported", e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /*
+     * The reference file of a local id
+     */
+    private File getLocalIdRefFile(String localId) throws IOException {
+        return new File(new File(root, LOCALID_REFS), shard(digest(localId)));
+    }
+
+    /*
+     * The reference file of an identifier
+     */
+    private File getPidRefFile(String pid) throws IOException {
+        return new File(new File(root, PID_REFS), shard(digest(pid)));
+    }
+
+    /*
+     * Read the content hash from a reference file. Return null if it doesn't exist.
+     */
+    private static String readRef(File ref) throws IOException {
+        if (!ref.exists()) {
+            return null;
+        }
+        String hash = new String(Files.readAllBytes(ref.toPath()), StandardCharsets.UTF_8).trim();
+        return hash.equals("") ? null : hash;
+    }
+
+    /*
+     * Write the content hash into a reference file. The file is written under a temporary
+     * name first, so readers never see a partial reference.
+     */
+    private static void writeRef(File ref, String hash) throws IOException {
+        File dir = ref.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("ContentAddressedObjectStore.writeRef - couldn't create the directory " + dir.getAbsolutePath());
+        }
+        File temp = File.createTempFile(ref.getName(), ".tmp", dir);
+        try {
+            Files.write(temp.toPath(), hash.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), ref.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    /*
+     * The relative path of a digest in the nested directories, e.g. 4b/02/7a/4b027a... 
+     * for the depth 3 and the width 2
+     */
+    private String shard(String hash) {
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth && (i + 1) * width < hash.length(); i++) {
+            path.append(hash, i * width, (i + 1) * width).append(File.separator);
+        }
+        return path.append(hash).toString();
+    }
+
+    /*
+     * The hex digest of a name (a local id or an identifier) with the algorithm of the store
+     */
+    private String digest(String name) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            return DatatypeConverter.printHexBinary(md.digest(name.getBytes(StandardCharsets.UTF_8))).toLowerCase();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("ContentAddressedObjectStore.digest - the algorithm " + algorithm + " isn't supported", e);
+        }
+    }
+
+    /*
+     * Make the names of the algorithms comparable, e.g. SHA-256 and sha256
+     */
+    private static String normalize(String algorithm) {
+        return algorithm.replace("-", "").trim().toUpperCase();
+    }
+}
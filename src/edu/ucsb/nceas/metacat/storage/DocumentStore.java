@@ -0,0 +1,131 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.common.storage.DocumentCodec;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * The metadata documents under application.documentfilepath. They are written compressed
+ * when the storage.document.compress property is true and read back the same way whether
+ * they are compressed or not (see DocumentCodec), so the property can be switched at any
+ * time and the existing documents can be migrated later by the DocumentStoreMigration.
+ *
+ * The checksums of the documents are always about the original bytes: the writers digest
+ * the bytes going into the stream create returns, and the readers get the inflated bytes.
+ */
+public class DocumentStore {
+    public static final String COMPRESS_PROPERTY_NAME = "storage.document.compress";
+    private static Log logMetacat = LogFactory.getLog(DocumentStore.class);
+
+    /**
+     * If the new documents are written compressed
+     * @return the value of the storage.document.compress property, false if it is missing
+     */
+    public static boolean isCompressionEnabled() {
+        try {
+            return Boolean.parseBoolean(PropertyService.getProperty(COMPRESS_PROPERTY_NAME));
+        } catch (PropertyNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a stream of the original bytes of a document
+     * @param path  the full path of the document file
+     * @return the stream of the document
+     * @throws IOException
+     */
+    public static InputStream read(String path) throws IOException {
+        return DocumentCodec.openInputStream(new File(path));
+    }
+
+    /**
+     * Open a stream writing a new document file. The bytes are compressed if the
+     * compression is enabled.
+     * @param path  the full path of the document file
+     * @return the stream which the original bytes of the document are written into
+     * @throws IOException
+     */
+    public static OutputStream create(String path) throws IOException {
+        if (isCompressionEnabled()) {
+            return DocumentCodec.openCompressingOutputStream(new File(path));
+        } else {
+            return new FileOutputStream(path);
+        }
+    }
+
+    /**
+     * Move a plain file (e.g. the temporary file of a multipart request whose checksum was
+     * verified) to the place of a document. If the compression is enabled, the file is
+     * compressed into the target while it is copied and then deleted.
+     * @param source  the plain file
+     * @param target  the document file, which shouldn't exist
+     * @throws IOException
+     */
+    public static void moveIn(File source, File target) throws IOException {
+        if (!isCompressionEnabled()) {
+            FileUtils.moveFile(source, target);
+            return;
+        }
+        InputStream in = DocumentCodec.openInputStream(source);
+        OutputStream out = null;
+        try {
+            out = DocumentCodec.openCompressingOutputStream(target);
+            IOUtils.copyLarge(in, out);
+            out.close();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            target.delete();
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (!source.delete()) {
+            logMetacat.warn("DocumentStore.moveIn - couldn't delete the source file " + source.getAbsolutePath()
+                            + " after compressing it into " + target.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Get the size of the original bytes of a document
+     * @param file  the document file
+     * @return the size, which is 0 if the file doesn't exist
+     * @throws IOException
+     */
+    public static long getSize(File file) throws IOException {
+        return DocumentCodec.getOriginalLength(file);
+    }
+}
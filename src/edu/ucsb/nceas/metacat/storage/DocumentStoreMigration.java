@@ -0,0 +1,188 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.ucsb.nceas.metacat.common.storage.DocumentCodec;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * Compresses (or decompresses) the existing metadata documents in application.documentfilepath
+ * in a background thread. Each document is rewritten and verified by DocumentCodec and replaces
+ * the old file by a rename, so the documents stay readable while the migration runs. Only one
+ * migration runs at a time.
+ */
+public class DocumentStoreMigration implements Runnable {
+    private static Log logMetacat = LogFactory.getLog(DocumentStoreMigration.class);
+    private static DocumentStoreMigration running = null;
+
+    private File directory = null;
+    private boolean compress = true;
+    private long pause = 0;
+    private volatile boolean cancelled = false;
+    private volatile long converted = 0;
+    private volatile long skipped = 0;
+    private volatile long failed = 0;
+    private volatile long bytesBefore = 0;
+    private volatile long bytesAfter = 0;
+
+    /**
+     * Constructor
+     * @param directory  the directory of the documents
+     * @param compress  true to compress the plain documents, false to decompress the compressed ones
+     * @param pause  the milliseconds to pause after each converted document
+     */
+    public DocumentStoreMigration(File directory, boolean compress, long pause) {
+        this.directory = directory;
+        this.compress = compress;
+        this.pause = pause;
+    }
+
+    /**
+     * Start a migration of the documents in application.documentfilepath in a background thread
+     * @param compress  true to compress the documents, false to decompress them
+     * @return the new migration
+     * @throws IOException  if another migration is running
+     * @throws PropertyNotFoundException
+     */
+    public static synchronized DocumentStoreMigration start(boolean compress) throws IOException, PropertyNotFoundException {
+        if (running != null) {
+            throw new IOException("A migration of the documents is running: " + running.getStatus());
+        }
+        long pause = 0;
+        try {
+            pause = Long.parseLong(PropertyService.getProperty("storage.document.migration.pause"));
+        } catch (Exception e) {
+            logMetacat.debug("DocumentStoreMigration.start - no pause between the documents: " + e.getMessage());
+        }
+        File directory = new File(PropertyService.getProperty("application.documentfilepath"));
+        running = new DocumentStoreMigration(directory, compress, pause);
+        Thread thread = new Thread(running, "DocumentStoreMigration");
+        thread.setDaemon(true);
+        thread.start();
+        return running;
+    }
+
+    /**
+     * Get the running migration
+     * @return the running migration or null if there is none
+     */
+    public static synchronized DocumentStoreMigration getRunning() {
+        return running;
+    }
+
+    /**
+     * Stop the migration after the current document
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Get the progress of the migration
+     * @return the numbers of the converted, skipped and failed documents and the sizes on disk
+     */
+    public String getStatus() {
+        return (compress ? "compressed " : "decompressed ") + converted + " documents (" + bytesBefore + " bytes to "
+                + bytesAfter + " bytes), skipped " + skipped + " and failed " + failed + " documents in "
+                + directory.getAbsolutePath() + (cancelled ? " - cancelled" : "");
+    }
+
+    /**
+     * Convert the documents in the directory one by one
+     */
+    public void run() {
+        long start = System.currentTimeMillis();
+        logMetacat.info("DocumentStoreMigration.run - start to " + (compress ? "compress" : "decompress")
+                        + " the documents in " + directory.getAbsolutePath());
+        DirectoryStream<Path> files = null;
+        try {
+            files = Files.newDirectoryStream(directory.toPath());
+            for (Path path : files) {
+                if (cancelled) {
+                    break;
+                }
+                File file = path.toFile();
+                if (!file.isFile()) {
+                    continue;
+                }
+                if (file.getName().endsWith(DocumentCodec.TEMP_SUFFIX)) {
+                    //left behind by a migration which was interrupted
+                    file.delete();
+                    continue;
+                }
+                convert(file);
+            }
+        } catch (IOException e) {
+            logMetacat.error("DocumentStoreMigration.run - couldn't list the documents in " + directory.getAbsolutePath()
+                             + ": " + e.getMessage(), e);
+        } finally {
+            if (files != null) {
+                try {
+                    files.close();
+                } catch (IOException e) {
+                    logMetacat.warn("DocumentStoreMigration.run - couldn't close the directory listing: " + e.getMessage());
+                }
+            }
+            synchronized (DocumentStoreMigration.class) {
+                running = null;
+            }
+        }
+        logMetacat.info("DocumentStoreMigration.run - " + getStatus() + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /*
+     * Convert a document and count it
+     */
+    private void convert(File file) {
+        long before = file.length();
+        try {
+            boolean changed = compress ? DocumentCodec.compress(file) : DocumentCodec.decompress(file);
+            if (changed) {
+                converted++;
+                bytesBefore += before;
+                bytesAfter += file.length();
+                if (pause > 0) {
+                    Thread.sleep(pause);
+                }
+            } else {
+                skipped++;
+            }
+        } catch (IOException e) {
+            failed++;
+            logMetacat.error("DocumentStoreMigration.convert - couldn't convert the document " + file.getAbsolutePath()
+                             + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * The original layout of the data objects: one file per object named by its
+ * local id in the application.datafilepath directory.
+ */
+public class FileSystemObjectStore extends ObjectStore {
+    private static Log logMetacat = LogFactory.getLog(FileSystemObjectStore.class);
+
+    @Override
+    public File getFile(String localId) throws IOException {
+        try {
+            return new File(getDataDirectory(), localId);
+        } catch (PropertyNotFoundException e) {
+            throw new IOException("FileSystemObjectStore.getFile - couldn't find the data directory: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The file names are local ids, so the identifier can't be resolved without the database
+     * @return always null
+     */
+    @Override
+    public File getFile(Identifier pid) throws IOException {
+        return null;
+    }
+
+    @Override
+    public File put(String localId, Identifier pid, File source, Checksum checksum) throws IOException {
+        File target = getFile(localId);
+        if (!target.getCanonicalPath().equals(source.getCanonicalPath())) {
+            if (target.exists()) {
+                throw new IOException("FileSystemObjectStore.put - the file " + target.getAbsolutePath() + " already exists");
+            }
+            FileUtils.moveFile(source, target);
+            logMetacat.debug("FileSystemObjectStore.put - moved " + source.getAbsolutePath() + " to " + target.getAbsolutePath());
+        }
+        return target;
+    }
+
+    @Override
+    public boolean delete(String localId) throws IOException {
+        File file = getFile(localId);
+        return file.exists() && file.delete();
+    }
+}
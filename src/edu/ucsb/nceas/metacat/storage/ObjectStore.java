@@ -0,0 +1,124 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.utilities.PropertyNotFoundException;
+
+/**
+ * The place where the bytes of the data objects live. The rest of Metacat only
+ * knows the local id (docid.rev) of a data object and asks the store for the
+ * file holding it, so the layout on disk can be changed by configuring another
+ * implementation in the storage.objectStore.classname property.
+ * 
+ * The metadata documents under application.documentfilepath are not managed by
+ * the store.
+ */
+public abstract class ObjectStore {
+    public static final String DEFAULT_CLASS_NAME = FileSystemObjectStore.class.getName();
+    private static Log logMetacat = LogFactory.getLog(ObjectStore.class);
+    private static volatile ObjectStore store = null;
+
+    /**
+     * Get the configured object store
+     * @return the instance of the class in the storage.objectStore.classname property,
+     *         or a FileSystemObjectStore if the property is missing or invalid.
+     */
+    public static ObjectStore getInstance() {
+        if (store == null) {
+            synchronized (ObjectStore.class) {
+                if (store == null) {
+                    String className = DEFAULT_CLASS_NAME;
+                    try {
+                        className = PropertyService.getProperty("storage.objectStore.classname");
+                        store = (ObjectStore) Class.forName(className).newInstance();
+                    } catch (Exception e) {
+                        logMetacat.error("ObjectStore.getInstance - couldn't create the object store " + className 
+                                          + ", so the default one " + DEFAULT_CLASS_NAME + " is used: " + e.getMessage(), e);
+                        store = new FileSystemObjectStore();
+                    }
+                    logMetacat.info("ObjectStore.getInstance - the data objects are stored by " + store.getClass().getName());
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Get the directory of the data files named by their local ids 
+     * (the application.datafilepath property)
+     * @return the data directory
+     * @throws PropertyNotFoundException
+     */
+    public static File getDataDirectory() throws PropertyNotFoundException {
+        return new File(PropertyService.getProperty("application.datafilepath"));
+    }
+
+    /**
+     * Get the file holding the bytes of a data object
+     * @param localId  the local id (docid.rev) of the object
+     * @return the file. It may not exist if the store doesn't know the object.
+     * @throws IOException
+     */
+    public abstract File getFile(String localId) throws IOException;
+
+    /**
+     * Get the file holding the bytes of a data object without looking up
+     * the local id of the identifier in the database
+     * @param pid  the identifier of the object
+     * @return the file, or null if the store can't resolve the identifier by itself
+     * @throws IOException
+     */
+    public abstract File getFile(Identifier pid) throws IOException;
+
+    /**
+     * Put a file into the store as the bytes of a data object. The store takes over
+     * the source file: it may be moved, or deleted if the store already has the same
+     * bytes. The source file may be the file getFile(localId) returns for a store
+     * keeping the file names as they are.
+     * @param localId  the local id (docid.rev) of the object
+     * @param pid  the identifier of the object. It can be null if it is unknown.
+     * @param source  the file with the bytes of the object
+     * @param checksum  the verified checksum of the bytes. It can be null.
+     * @return the file holding the object in the store
+     * @throws IOException
+     */
+    public abstract File put(String localId, Identifier pid, File source, Checksum checksum) throws IOException;
+
+    /**
+     * Remove a data object from the store. The bytes may be kept if other
+     * objects still refer to them.
+     * @param localId  the local id (docid.rev) of the object
+     * @return true if the object was removed
+     * @throws IOException
+     */
+    public abstract boolean delete(String localId) throws IOException;
+}
@@ -0,0 +1,55 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+/**
+ * A stream reading a file which Metacat keeps, such as the file of a data object in the
+ * object store. It knows its file, so the file can be handed to the sendfile support of the
+ * container. Unlike the DetailedFileInputStream of the multipart requests, its file is not
+ * temporary and must never be moved or deleted by the code reading it.
+ */
+public class StoredFileInputStream extends FileInputStream {
+    private File file = null;
+
+    /**
+     * Constructor
+     * @param file  the stored file
+     * @throws FileNotFoundException
+     */
+    public StoredFileInputStream(File file) throws FileNotFoundException {
+        super(file);
+        this.file = file;
+    }
+
+    /**
+     * Get the stored file
+     * @return the file which the stream reads
+     */
+    public File getFile() {
+        return file;
+    }
+}
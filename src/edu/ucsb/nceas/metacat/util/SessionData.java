@@ -26,26 +26,27 @@
 
 package edu.ucsb.nceas.metacat.util;
 
+import java.io.Serializable;
 import java.util.Calendar;
-import java.util.Date;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.ucsb.nceas.metacat.cart.DocumentCart;
 
-public class SessionData {
+public class SessionData implements Serializable {
 	
+	private static final long serialVersionUID = 1L;
 	private String id = null;
 	private String userName = null;
 	private String[] groupNames = null;
 	private String password = null;
 	private String name = null;
 	private final Calendar creationTime = Calendar.getInstance();
-	private Calendar lastAccessedTime = Calendar.getInstance();
+	private volatile long lastAccessedTime = System.currentTimeMillis();
 	private DocumentCart documentCart = null;
 	
-	private Log logMetacat = LogFactory.getLog(SessionData.class);
+	private static Log logMetacat = LogFactory.getLog(SessionData.class);
 	
 	/**
 	 * 
@@ -98,11 +99,21 @@ public class SessionData {
 	}
 	
 	public Calendar getLastAccessedTime() {
+		Calendar time = Calendar.getInstance();
+		time.setTimeInMillis(lastAccessedTime);
+		return time;
+	}
+	
+	/**
+	 * Get the last accessed time without creating a Calendar
+	 * @return the last accessed time in milliseconds
+	 */
+	public long getLastAccessedMillis() {
 		return lastAccessedTime;
 	}
 	
 	public void setLastAccessedTime() {
-		lastAccessedTime.setTime(new Date());
+		lastAccessedTime = System.currentTimeMillis();
 	}
 	
 	public Calendar getCreationTime() {
@@ -0,0 +1,241 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory cache whose entries expire after a time to live. When the cache
+ * is full, the expired entries are removed; if all of them are still alive, the cache
+ * simply starts over rather than tracking the usage of the entries.
+ *
+ * A lookup which reads the value from its source while the value is changed may read
+ * the old value and cache it after the change was invalidated. To avoid that, the caller
+ * gets the generation before it reads the source and caches the value with putIfNotInvalidated,
+ * which drops the value if anything was invalidated in the meantime.
+ *
+ * A time to live of zero or less disables the cache.
+ */
+public class TimeToLiveCache<V> {
+    private Map<String, Entry<V>> entries = new ConcurrentHashMap<String, Entry<V>>();
+    private AtomicLong generation = new AtomicLong();
+    private long ttl = 0;
+    private int maxSize = 0;
+
+    /**
+     * Constructor
+     * @param ttl  the time to live of the entries in milliseconds
+     * @param maxSize  the most entries the cache holds
+     */
+    public TimeToLiveCache(long ttl, int maxSize) {
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * If the cache is enabled
+     * @return true if the time to live is positive
+     */
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * Get the entry of a key
+     * @param key  the key
+     * @return the entry, or null if the key isn't cached or has expired
+     */
+    public Entry<V> getEntry(String key) {
+        if (!isEnabled() || key == null) {
+            return null;
+        }
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration < now()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Get the value of a key
+     * @param key  the key
+     * @return the value, or null if the key isn't cached or has expired
+     */
+    public V get(String key) {
+        Entry<V> entry = getEntry(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Get the generation of the invalidations, which a lookup passes to
+     * putIfNotInvalidated after it has read its source
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Cache a value for the time to live
+     * @param key  the key
+     * @param value  the value. It can be null.
+     */
+    public void put(String key, V value) {
+        put(key, value, ttl);
+    }
+
+    /**
+     * Cache a value for the given time
+     * @param key  the key
+     * @param value  the value. It can be null.
+     * @param timeToLive  the time to live of this entry in milliseconds
+     */
+    public void put(String key, V value, long timeToLive) {
+        if (!isEnabled() || key == null) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            removeExpired();
+            if (entries.size() >= maxSize) {
+                entries.clear();
+            }
+        }
+        entries.put(key, new Entry<V>(value, now() + timeToLive));
+    }
+
+    /**
+     * Cache a value which was read after getGeneration returned the given generation. The
+     * value isn't kept if an entry was invalidated since then, since it may have been read
+     * before the change which was invalidated.
+     * @param key  the key
+     * @param value  the value. It can be null.
+     * @param readGeneration  the generation before the value was read
+     * @return true if the value was cached
+     */
+    public boolean putIfNotInvalidated(String key, V value, long readGeneration) {
+        if (!isEnabled() || key == null || generation.get() != readGeneration) {
+            return false;
+        }
+        put(key, value);
+        //an invalidation may have happened between the check and the put
+        if (generation.get() != readGeneration) {
+            entries.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remove the entry of a key
+     * @param key  the key
+     */
+    public void invalidate(String key) {
+        if (key == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        entries.remove(key);
+    }
+
+    /**
+     * Remove the entries whose keys start with the given prefix
+     * @param prefix  the prefix
+     */
+    public void invalidatePrefix(String prefix) {
+        if (prefix == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all of the entries
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Get the number of the entries, including the expired ones which weren't removed yet
+     * @return the number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * The current time in milliseconds
+     * @return the time
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /*
+     * Remove the expired entries
+     */
+    private void removeExpired() {
+        long now = now();
+        Iterator<Map.Entry<String, Entry<V>>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().expiration < now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A cached value and the time when it expires
+     */
+    public static class Entry<V> {
+        private V value;
+        private long expiration;
+
+        private Entry(V value, long expiration) {
+            this.value = value;
+            this.expiration = expiration;
+        }
+
+        /**
+         * Get the cached value
+         * @return the value. It can be null, e.g. for a cached miss.
+         */
+        public V getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Ensure xml_catalog sequence is at table max
+ */
+
+SELECT setval('xml_catalog_id_seq', (SELECT max(catalog_id) from xml_catalog));
+
+/*
+ * Composite index for the keyset (continuation token) paging of listObjects
+ */
+CREATE INDEX systemMetadata_date_modified_guid on systemMetadata(date_modified, guid);
+
+/*
+ * Composite indexes for the keyset paging of the nodes of a document, so each
+ * page is a range scan in nodeid order instead of a sort of the whole document
+ */
+CREATE INDEX xml_nodes_idx5 ON xml_nodes (rootnodeid, nodeid);
+CREATE INDEX xml_nodes_revisions_idx4 ON xml_nodes_revisions (rootnodeid, nodeid);
+
+/*
+ * Usage rollups -- the daily counts of the access_log events per object, event
+ * and anonymous flag. They are maintained incrementally by Metacat from the
+ * access_log entries after the high-water mark in access_log_rollup_status.
+ */
+CREATE TABLE access_log_rollup (
+  docid         VARCHAR(250),   -- the document id # (with revision, as in access_log)
+  event         VARCHAR(512),   -- the code symbolizing the event type
+  anonymous     BOOLEAN,        -- true if the events were generated by the public user
+  day           DATE,           -- the day on which the events occurred
+  event_count   INT8,           -- the number of the events
+  CONSTRAINT access_log_rollup_pk PRIMARY KEY (docid, event, anonymous, day)
+);
+CREATE INDEX access_log_rollup_day ON access_log_rollup(day);
+CREATE TABLE access_log_rollup_status (
+  last_entryid  INT8,           -- the entryid of the last access_log entry in the rollups
+  date_updated  TIMESTAMP       -- the time when the rollups were updated
+);
+INSERT INTO access_log_rollup_status (last_entryid, date_updated) VALUES (0, now());
+
+/*
+ * object_store_content -- the contents kept by the content-addressed object store,
+ * one row per distinct content with the number of data objects referring to it
+ */
+CREATE TABLE object_store_content (
+  content_hash  VARCHAR(128),   -- the hex digest of the content (SHA-256 by default)
+  ref_count     INT8,           -- the number of the data objects with this content
+  size          INT8,           -- the size of the content in bytes
+  CONSTRAINT object_store_content_pk PRIMARY KEY (content_hash)
+);
+/*
+ * object_store_ref -- maps the local ids of the data objects to their contents
+ */
+CREATE TABLE object_store_ref (
+  localid       VARCHAR(255),   -- the local id (docid.rev) of the data object
+  guid          TEXT,           -- the identifier of the data object, if it is known
+  content_hash  VARCHAR(128),   -- the hex digest of the content of the data object
+  CONSTRAINT object_store_ref_pk PRIMARY KEY (localid),
+  CONSTRAINT object_store_ref_content_fk FOREIGN KEY (content_hash) REFERENCES object_store_content
+);
+CREATE INDEX object_store_ref_content_hash ON object_store_ref(content_hash);
+
+/*
+ * series_head -- the head (current) version of each series, maintained with the
+ * system metadata so a series id resolves without walking the obsoletes chain
+ */
+CREATE TABLE series_head (
+  series_id     TEXT,           -- the series identifier
+  guid          TEXT,           -- the identifier of the head version of the series
+  date_modified TIMESTAMP,      -- the time when the head was computed
+  CONSTRAINT series_head_pk PRIMARY KEY (series_id)
+);
+
+/*
+ * doi_registration_queue -- the DOI registrations waiting to be submitted to the
+ * DOI service. There is one row per object; queuing it again bumps the version.
+ */
+CREATE TABLE doi_registration_queue (
+  guid          TEXT,           -- the identifier of the object
+  status        VARCHAR(20),    -- queued or failed
+  attempts      INT4,           -- the number of the attempts since it was queued
+  version       INT8,           -- increased each time the object is queued again
+  date_queued   TIMESTAMP,      -- the time when the object was queued last
+  next_attempt  TIMESTAMP,      -- the time when the next attempt is due
+  last_error    TEXT,           -- the error of the last failed attempt
+  CONSTRAINT doi_registration_queue_pk PRIMARY KEY (guid)
+);
+CREATE INDEX doi_registration_queue_due ON doi_registration_queue(status, next_attempt);
+
+/*
+ * replica_notification_queue -- the systemMetadataChanged notifications waiting to be
+ * sent to the replica nodes. There is one row per object and node; queuing it again
+ * bumps the version.
+ */
+CREATE TABLE replica_notification_queue (
+  guid           TEXT,           -- the identifier of the object
+  node_id        TEXT,           -- the identifier of the replica node
+  serial_version INT8,           -- the serial version of the changed system metadata
+  date_modified  TIMESTAMP,      -- the modification date of the changed system metadata
+  status         VARCHAR(20),    -- queued or failed
+  attempts       INT4,           -- the number of the attempts since it was queued
+  version        INT8,           -- increased each time the object is queued again
+  date_queued    TIMESTAMP,      -- the time when the object was queued last
+  next_attempt   TIMESTAMP,      -- the time when the next attempt is due
+  last_error     TEXT,           -- the error of the last failed attempt
+  CONSTRAINT replica_notification_queue_pk PRIMARY KEY (guid, node_id)
+);
+CREATE INDEX replica_notification_queue_due ON replica_notification_queue(status, next_attempt);
+
+/*
+ * harvest_document_validator -- the ETag and Last-Modified values a harvest
+ *                               site returned with a harvested document
+ */
+CREATE TABLE harvest_document_validator (
+  documenturl    TEXT,          -- document URL
+  etag           TEXT,          -- the ETag header of the document
+  last_modified  TEXT,          -- the Last-Modified header of the document
+  docid          VARCHAR(250),  -- scope.identifier of the document
+  date_harvested TIMESTAMP,     -- the time when it was harvested last
+  CONSTRAINT harvest_document_validator_pk PRIMARY KEY (documenturl)
+);
+
+/*
+ * update the database version
+ */
+UPDATE db_version SET status=0;
+
+INSERT INTO db_version (version, status, date_created)
+  VALUES ('2.17.0', 1, CURRENT_DATE);
@@ -80,6 +80,10 @@ CREATE INDEX xml_nodes_idx1 ON xml_nodes (rootnodeid);
 CREATE INDEX xml_nodes_idx2 ON xml_nodes (parentnodeid);
 CREATE INDEX xml_nodes_idx3 ON xml_nodes (nodename);
 CREATE INDEX xml_nodes_idx4 ON xml_nodes (docid);
+/*
+ * Index for the keyset paging of the nodes of a document in nodeid order
+ */
+CREATE INDEX xml_nodes_idx5 ON xml_nodes (rootnodeid, nodeid);
 
 
 /*
@@ -114,6 +118,7 @@ CREATE TABLE xml_nodes_revisions (
 CREATE INDEX xml_nodes_revisions_idx1 ON xml_nodes_revisions (rootnodeid);
 CREATE INDEX xml_nodes_revisions_idx2 ON xml_nodes_revisions (parentnodeid);
 CREATE INDEX xml_nodes_revisions_idx3 ON xml_nodes_revisions (nodename);
+CREATE INDEX xml_nodes_revisions_idx4 ON xml_nodes_revisions (rootnodeid, nodeid);
                                                                                                                                                              
 
 
@@ -325,6 +330,7 @@ CREATE TABLE systemMetadata (
 CREATE INDEX systemMetadata_series_id on systemMetadata(series_id);
 CREATE INDEX systemMetadata_date_uploaded on systemMetadata(date_uploaded);
 CREATE INDEX systemMetadata_date_modified on systemMetadata(date_modified);
+CREATE INDEX systemMetadata_date_modified_guid on systemMetadata(date_modified, guid);
 CREATE INDEX systemMetadata_object_format on systemMetadata(object_format);
 CREATE INDEX systemMetadata_archived on systemMetadata(archived);
 
@@ -423,10 +429,121 @@ CREATE TABLE access_log (
   principal     VARCHAR(512),   -- the user initiating the event
   docid         VARCHAR(250),	-- the document id #
   event         VARCHAR(512),   -- the code symbolizing the event type
-  date_logged   TIMESTAMP,      -- the datetime on which the event occurred
-  CONSTRAINT access_log_pk PRIMARY KEY (entryid)
-);
+  date_logged   TIMESTAMP NOT NULL, -- the datetime on which the event occurred
+  -- a partitioned table's key has to include the partition key, so entryid alone
+  -- is only unique as long as it comes from access_log_id_seq
+  CONSTRAINT access_log_key UNIQUE (entryid, date_logged)
+) PARTITION BY RANGE (date_logged);
 CREATE INDEX access_log_docid ON access_log(docid);
+CREATE INDEX access_log_date_logged ON access_log(date_logged);
+-- the monthly partitions (access_log_yYYYYmMM) are created by Metacat ahead of time;
+-- rows outside of them go to the default partition (needs PostgreSQL 11 or later)
+CREATE TABLE access_log_default PARTITION OF access_log DEFAULT;
+-- create the partitions of the current and the next month, so no event is logged into
+-- the default partition before Metacat creates the later ones
+CREATE FUNCTION create_access_log_partitions() RETURNS void AS $$
+DECLARE
+  month_start TIMESTAMP := date_trunc('month', localtimestamp);
+BEGIN
+  FOR i IN 0..1 LOOP
+    EXECUTE format('CREATE TABLE IF NOT EXISTS access_log_y%sm%s PARTITION OF access_log FOR VALUES FROM (%L) TO (%L)',
+                   to_char(month_start, 'YYYY'), to_char(month_start, 'MM'), month_start, month_start + interval '1 month');
+    month_start := month_start + interval '1 month';
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql
+/
+SELECT create_access_log_partitions();
+DROP FUNCTION create_access_log_partitions();
+
+/*
+ * Usage rollups -- the daily counts of the access_log events per object, event
+ * and anonymous flag. They are maintained incrementally by Metacat from the
+ * access_log entries after the high-water mark in access_log_rollup_status.
+ */
+CREATE TABLE access_log_rollup (
+  docid         VARCHAR(250),   -- the document id # (with revision, as in access_log)
+  event         VARCHAR(512),   -- the code symbolizing the event type
+  anonymous     BOOLEAN,        -- true if the events were generated by the public user
+  day           DATE,           -- the day on which the events occurred
+  event_count   INT8,           -- the number of the events
+  CONSTRAINT access_log_rollup_pk PRIMARY KEY (docid, event, anonymous, day)
+);
+CREATE INDEX access_log_rollup_day ON access_log_rollup(day);
+CREATE TABLE access_log_rollup_status (
+  last_entryid  INT8,           -- the entryid of the last access_log entry in the rollups
+  date_updated  TIMESTAMP       -- the time when the rollups were updated
+);
+INSERT INTO access_log_rollup_status (last_entryid, date_updated) VALUES (0, now());
+
+/*
+ * object_store_content -- the contents kept by the content-addressed object store,
+ * one row per distinct content with the number of data objects referring to it
+ */
+CREATE TABLE object_store_content (
+  content_hash  VARCHAR(128),   -- the hex digest of the content (SHA-256 by default)
+  ref_count     INT8,           -- the number of the data objects with this content
+  size          INT8,           -- the size of the content in bytes
+  CONSTRAINT object_store_content_pk PRIMARY KEY (content_hash)
+);
+/*
+ * object_store_ref -- maps the local ids of the data objects to their contents
+ */
+CREATE TABLE object_store_ref (
+  localid       VARCHAR(255),   -- the local id (docid.rev) of the data object
+  guid          TEXT,           -- the identifier of the data object, if it is known
+  content_hash  VARCHAR(128),   -- the hex digest of the content of the data object
+  CONSTRAINT object_store_ref_pk PRIMARY KEY (localid),
+  CONSTRAINT object_store_ref_content_fk FOREIGN KEY (content_hash) REFERENCES object_store_content
+);
+CREATE INDEX object_store_ref_content_hash ON object_store_ref(content_hash);
+
+/*
+ * series_head -- the head (current) version of each series, maintained with the
+ * system metadata so a series id resolves without walking the obsoletes chain
+ */
+CREATE TABLE series_head (
+  series_id     TEXT,           -- the series identifier
+  guid          TEXT,           -- the identifier of the head version of the series
+  date_modified TIMESTAMP,      -- the time when the head was computed
+  CONSTRAINT series_head_pk PRIMARY KEY (series_id)
+);
+
+/*
+ * doi_registration_queue -- the DOI registrations waiting to be submitted to the
+ * DOI service. There is one row per object; queuing it again bumps the version.
+ */
+CREATE TABLE doi_registration_queue (
+  guid          TEXT,           -- the identifier of the object
+  status        VARCHAR(20),    -- queued or failed
+  attempts      INT4,           -- the number of the attempts since it was queued
+  version       INT8,           -- increased each time the object is queued again
+  date_queued   TIMESTAMP,      -- the time when the object was queued last
+  next_attempt  TIMESTAMP,      -- the time when the next attempt is due
+  last_error    TEXT,           -- the error of the last failed attempt
+  CONSTRAINT doi_registration_queue_pk PRIMARY KEY (guid)
+);
+CREATE INDEX doi_registration_queue_due ON doi_registration_queue(status, next_attempt);
+
+/*
+ * replica_notification_queue -- the systemMetadataChanged notifications waiting to be
+ * sent to the replica nodes. There is one row per object and node; queuing it again
+ * bumps the version.
+ */
+CREATE TABLE replica_notification_queue (
+  guid           TEXT,           -- the identifier of the object
+  node_id        TEXT,           -- the identifier of the replica node
+  serial_version INT8,           -- the serial version of the changed system metadata
+  date_modified  TIMESTAMP,      -- the modification date of the changed system metadata
+  status         VARCHAR(20),    -- queued or failed
+  attempts       INT4,           -- the number of the attempts since it was queued
+  version        INT8,           -- increased each time the object is queued again
+  date_queued    TIMESTAMP,      -- the time when the object was queued last
+  next_attempt   TIMESTAMP,      -- the time when the next attempt is due
+  last_error     TEXT,           -- the error of the last failed attempt
+  CONSTRAINT replica_notification_queue_pk PRIMARY KEY (guid, node_id)
+);
+CREATE INDEX replica_notification_queue_due ON replica_notification_queue(status, next_attempt);
 
 
 /*
@@ -516,6 +633,19 @@ CREATE TABLE harvest_detail_log (
         FOREIGN KEY (harvest_log_id) REFERENCES harvest_log
 );
 
+/*
+ * harvest_document_validator -- the ETag and Last-Modified values a harvest
+ *                               site returned with a harvested document
+ */
+CREATE TABLE harvest_document_validator (
+  documenturl    TEXT,          -- document URL
+  etag           TEXT,          -- the ETag header of the document
+  last_modified  TEXT,          -- the Last-Modified header of the document
+  docid          VARCHAR(250),  -- scope.identifier of the document
+  date_harvested TIMESTAMP,     -- the time when it was harvested last
+  CONSTRAINT harvest_document_validator_pk PRIMARY KEY (documenturl)
+);
+
 /*
  * db_version -- table to store the version history of this database
  */
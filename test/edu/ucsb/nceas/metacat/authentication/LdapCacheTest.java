@@ -0,0 +1,104 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.authentication;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.util.TimeToLiveCache;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the LdapCache class.
+ */
+public class LdapCacheTest extends MCTestCase {
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public LdapCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new LdapCacheTest("initialize"));
+        suite.addTest(new LdapCacheTest("testGetAndPut"));
+        suite.addTest(new LdapCacheTest("testInvalidate"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test caching a result and a miss
+     * @throws Exception
+     */
+    public void testGetAndPut() throws Exception {
+        LdapCache cache = LdapCache.getInstance();
+        String user = "uid=ldapcachetest" + System.currentTimeMillis() + ",o=NCEAS,dc=ecoinformatics,dc=org";
+        String[][] groups = {{"cn=group1,o=NCEAS,dc=ecoinformatics,dc=org", "group 1"}};
+        assertNull(cache.get(LdapCache.GROUPS, user, "ldap://localhost/"));
+        cache.put(LdapCache.GROUPS, user, "ldap://localhost/", groups);
+        TimeToLiveCache.Entry<Object> entry = cache.get(LdapCache.GROUPS, " " + user.toUpperCase(), "ldap://localhost/");
+        assertNotNull(entry);
+        assertEquals("group 1", ((String[][]) entry.getValue())[0][1]);
+        // a different qualifier is a different lookup
+        assertNull(cache.get(LdapCache.GROUPS, user, "ldap://otherhost/"));
+        // a cached miss has an entry with a null value
+        cache.put(LdapCache.DN, user, "ldap://localhost/", null);
+        entry = cache.get(LdapCache.DN, user, "ldap://localhost/");
+        assertNotNull(entry);
+        assertNull(entry.getValue());
+        cache.invalidate(user);
+    }
+
+    /**
+     * Test removing the cached lookups of a user
+     * @throws Exception
+     */
+    public void testInvalidate() throws Exception {
+        LdapCache cache = LdapCache.getInstance();
+        long time = System.currentTimeMillis();
+        String user1 = "uid=ldapcachetest" + time + "a,o=NCEAS,dc=ecoinformatics,dc=org";
+        String user2 = "uid=ldapcachetest" + time + "b,o=NCEAS,dc=ecoinformatics,dc=org";
+        cache.put(LdapCache.GROUPS, user1, null, new String[][] {{"cn=a", "a"}});
+        cache.put(LdapCache.DN, user1, null, "uid=a");
+        cache.put(LdapCache.GROUPS, user2, null, new String[][] {{"cn=b", "b"}});
+        cache.invalidate(user1);
+        assertNull(cache.get(LdapCache.GROUPS, user1, null));
+        assertNull(cache.get(LdapCache.DN, user1, null));
+        assertNotNull(cache.get(LdapCache.GROUPS, user2, null));
+        cache.invalidate(user2);
+        assertNull(cache.get(LdapCache.GROUPS, user2, null));
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.authentication;
+
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import javax.naming.Context;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the LdapContextPool class. The contexts are real JNDI contexts
+ * connected to an embedded in-memory directory server, and the connections it accepts 
+ * and closes are counted from its access log.
+ */
+public class LdapContextPoolTest extends MCTestCase {
+    private static final long NEVER = 3600000;
+    private static final String BASE = "dc=example,dc=com";
+
+    private InMemoryDirectoryServer server = null;
+    private ConnectionCounter counter = null;
+    private DenyingInterceptor interceptor = null;
+    private String url = null;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public LdapContextPoolTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new LdapContextPoolTest("initialize"));
+        suite.addTest(new LdapContextPoolTest("testReuse"));
+        suite.addTest(new LdapContextPoolTest("testInvalidate"));
+        suite.addTest(new LdapContextPoolTest("testExhausted"));
+        suite.addTest(new LdapContextPoolTest("testValidation"));
+        suite.addTest(new LdapContextPoolTest("testIdleTimeout"));
+        suite.addTest(new LdapContextPoolTest("testAnonymousAndSeparatePools"));
+        suite.addTest(new LdapContextPoolTest("testContextNotFromThePool"));
+        suite.addTest(new LdapContextPoolTest("testClear"));
+        return suite;
+    }
+
+    /**
+     * Start an embedded directory server on a free port
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+        counter = new ConnectionCounter();
+        config.setAccessLogHandler(counter);
+        interceptor = new DenyingInterceptor();
+        config.addInMemoryOperationInterceptor(interceptor);
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: " + BASE, "objectClass: top", "objectClass: domain", "dc: example");
+        server.startListening();
+        url = "ldap://localhost:" + server.getListenPort();
+    }
+
+    /**
+     * Stop the embedded directory server
+     */
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.shutDown(true);
+        }
+        super.tearDown();
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that a returned context is handed out again instead of opening a new connection
+     * @throws Exception
+     */
+    public void testReuse() throws Exception {
+        LdapContextPool pool = new LdapContextPool(2, 100, NEVER, NEVER);
+        DirContext ctx = pool.getContext(createEnv(url));
+        pool.returnContext(ctx);
+        assertSame(ctx, pool.getContext(createEnv(url)));
+        assertEquals(1, counter.connects.get());
+        assertEquals(0, counter.disconnects.get());
+    }
+
+    /**
+     * Test that an invalidated context is closed and its permit is given back
+     * @throws Exception
+     */
+    public void testInvalidate() throws Exception {
+        LdapContextPool pool = new LdapContextPool(1, 100, NEVER, NEVER);
+        DirContext ctx = pool.getContext(createEnv(url));
+        pool.invalidate(ctx);
+        waitForDisconnects(1);
+        DirContext newCtx = pool.getContext(createEnv(url));
+        assertNotSame(ctx, newCtx);
+        assertEquals(2, counter.connects.get());
+    }
+
+    /**
+     * Test that a caller gets an error after the borrow timeout when all of the contexts
+     * are borrowed, and a context can be borrowed again once one is returned
+     * @throws Exception
+     */
+    public void testExhausted() throws Exception {
+        LdapContextPool pool = new LdapContextPool(2, 50, NEVER, NEVER);
+        DirContext ctx1 = pool.getContext(createEnv(url));
+        pool.getContext(createEnv(url));
+        try {
+            pool.getContext(createEnv(url));
+            fail("the pool should be exhausted");
+        } catch (ServiceUnavailableException e) {
+            assertTrue(e.getMessage().contains(url));
+        }
+        pool.returnContext(ctx1);
+        assertSame(ctx1, pool.getContext(createEnv(url)));
+        assertEquals(2, counter.connects.get());
+    }
+
+    /**
+     * Test that an idle context whose connection was closed by the server is dropped when 
+     * it is borrowed, while one without the permission to read the base entry is still used
+     * @throws Exception
+     */
+    public void testValidation() throws Exception {
+        // validate every idle context
+        LdapContextPool pool = new LdapContextPool(2, 100, -1, NEVER);
+        DirContext ctx = pool.getContext(createEnv(url));
+        interceptor.deny = true;
+        pool.returnContext(ctx);
+        assertSame(ctx, pool.getContext(createEnv(url)));
+        interceptor.deny = false;
+
+        server.closeAllConnections(false);
+        waitForDisconnects(1);
+        pool.returnContext(ctx);
+        DirContext newCtx = pool.getContext(createEnv(url));
+        assertNotSame(ctx, newCtx);
+        assertEquals(2, counter.connects.get());
+    }
+
+    /**
+     * Test that a context idle longer than the idle timeout is closed instead of reused
+     * @throws Exception
+     */
+    public void testIdleTimeout() throws Exception {
+        LdapContextPool pool = new LdapContextPool(2, 100, NEVER, -1);
+        DirContext ctx = pool.getContext(createEnv(url));
+        pool.returnContext(ctx);
+        assertNotSame(ctx, pool.getContext(createEnv(url)));
+        waitForDisconnects(1);
+        assertEquals(2, counter.connects.get());
+    }
+
+    /**
+     * Test that the pooled contexts bind anonymously and each provider url has its own pool
+     * @throws Exception
+     */
+    public void testAnonymousAndSeparatePools() throws Exception {
+        LdapContextPool pool = new LdapContextPool(1, 100, NEVER, NEVER);
+        Hashtable<String, String> env = createEnv(url);
+        // the server would refuse this bind, so the context must be anonymous
+        env.put(Context.SECURITY_AUTHENTICATION, "simple");
+        env.put(Context.SECURITY_PRINCIPAL, "uid=someone," + BASE);
+        env.put(Context.SECURITY_CREDENTIALS, "secret");
+        DirContext ctx = pool.getContext(env);
+        assertNull(ctx.getEnvironment().get(Context.SECURITY_PRINCIPAL));
+        assertNotNull(ctx.getAttributes(BASE, new String[] {"dc"}).get("dc"));
+        // the other url isn't blocked by the exhausted pool of the first one
+        pool.getContext(createEnv("ldap://127.0.0.1:" + server.getListenPort()));
+        assertEquals(2, counter.connects.get());
+    }
+
+    /**
+     * Test that returning a context which doesn't come from the pool, e.g. a referral
+     * context, closes it
+     * @throws Exception
+     */
+    public void testContextNotFromThePool() throws Exception {
+        LdapContextPool pool = new LdapContextPool(1, 100, NEVER, NEVER);
+        DirContext referral = new InitialDirContext(createEnv(url));
+        assertEquals(1, counter.connects.get());
+        pool.returnContext(referral);
+        waitForDisconnects(1);
+        pool.returnContext(null);
+        pool.invalidate(null);
+    }
+
+    /**
+     * Test that clear closes the idle contexts
+     * @throws Exception
+     */
+    public void testClear() throws Exception {
+        LdapContextPool pool = new LdapContextPool(2, 100, NEVER, NEVER);
+        DirContext ctx = pool.getContext(createEnv(url));
+        pool.returnContext(ctx);
+        pool.clear();
+        waitForDisconnects(1);
+        assertNotSame(ctx, pool.getContext(createEnv(url)));
+    }
+
+    private Hashtable<String, String> createEnv(String url) {
+        Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+        env.put(Context.PROVIDER_URL, url);
+        env.put(Context.REFERRAL, "throw");
+        return env;
+    }
+
+    /*
+     * The server notices a closed connection asynchronously, so wait for it a while
+     */
+    private void waitForDisconnects(int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (counter.disconnects.get() < expected && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(expected, counter.disconnects.get());
+    }
+
+    /**
+     * Counts the connections the server accepts and closes from its access log
+     */
+    private static class ConnectionCounter extends Handler {
+        private AtomicInteger connects = new AtomicInteger();
+        private AtomicInteger disconnects = new AtomicInteger();
+
+        @Override
+        public void publish(LogRecord record) {
+            String message = record.getMessage();
+            if (message == null) {
+                return;
+            }
+            if (message.contains(" CONNECT ")) {
+                connects.incrementAndGet();
+            } else if (message.contains(" DISCONNECT ")) {
+                disconnects.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Refuses the reads of the root entry while deny is set, like a server which
+     * doesn't let anonymous users read it
+     */
+    private static class DenyingInterceptor extends InMemoryOperationInterceptor {
+        private volatile boolean deny = false;
+
+        @Override
+        public void processSearchRequest(InMemoryInterceptedSearchRequest request) throws LDAPException {
+            if (deny && request.getRequest().getBaseDN().equals("")) {
+                throw new LDAPException(ResultCode.INSUFFICIENT_ACCESS_RIGHTS, "no permission");
+            }
+        }
+    }
+}
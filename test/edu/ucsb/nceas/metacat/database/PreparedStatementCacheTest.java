@@ -0,0 +1,245 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.database;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the PreparedStatementCache class. The statements come from a
+ * mocked connection, so no database is needed.
+ */
+public class PreparedStatementCacheTest extends MCTestCase {
+    private static final String STALE_PLAN = "ERROR: cached plan must not change result type";
+
+    private Connection conn;
+    private List<PreparedStatement> prepared;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public PreparedStatementCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new PreparedStatementCacheTest("initialize"));
+        suite.addTest(new PreparedStatementCacheTest("testHitsAndMisses"));
+        suite.addTest(new PreparedStatementCacheTest("testStatementInUse"));
+        suite.addTest(new PreparedStatementCacheTest("testEviction"));
+        suite.addTest(new PreparedStatementCacheTest("testRelease"));
+        suite.addTest(new PreparedStatementCacheTest("testClear"));
+        suite.addTest(new PreparedStatementCacheTest("testStalePlan"));
+        suite.addTest(new PreparedStatementCacheTest("testStalePlanInTransaction"));
+        return suite;
+    }
+
+    /**
+     * Create the mocked connection, which prepares a new mocked statement every time
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        prepared = new ArrayList<PreparedStatement>();
+        conn = Mockito.mock(Connection.class);
+        Mockito.when(conn.getAutoCommit()).thenReturn(true);
+        Mockito.when(conn.prepareStatement(Mockito.anyString())).thenAnswer(new Answer<PreparedStatement>() {
+            @Override
+            public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+                PreparedStatement statement = Mockito.mock(PreparedStatement.class);
+                prepared.add(statement);
+                return statement;
+            }
+        });
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that a closed statement is handed out again and the hits and misses are counted,
+     * also in the metrics of all connections
+     * @throws Exception
+     */
+    public void testHitsAndMisses() throws Exception {
+        long totalHits = DBConnection.getStatementCacheHits();
+        long totalMisses = DBConnection.getStatementCacheMisses();
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        cache.prepareStatement("select a").close();
+        cache.prepareStatement("select a").close();
+        cache.prepareStatement("select b").close();
+        assertEquals(2, prepared.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertEquals(totalHits + 1, DBConnection.getStatementCacheHits());
+        assertEquals(totalMisses + 2, DBConnection.getStatementCacheMisses());
+        Mockito.verify(prepared.get(0), Mockito.never()).close();
+    }
+
+    /**
+     * Test that a statement which is still in use isn't handed out a second time
+     * @throws Exception
+     */
+    public void testStatementInUse() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        PreparedStatement outer = cache.prepareStatement("select a");
+        PreparedStatement inner = cache.prepareStatement("select a");
+        assertTrue(Proxy.isProxyClass(outer.getClass()));
+        assertSame(prepared.get(1), inner);
+        assertEquals(1, cache.size());
+        inner.close();
+        outer.close();
+        Mockito.verify(prepared.get(0), Mockito.never()).close();
+    }
+
+    /**
+     * Test that the least recently used statement is closed when the cache is full
+     * @throws Exception
+     */
+    public void testEviction() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 2);
+        cache.prepareStatement("select a").close();
+        cache.prepareStatement("select b").close();
+        cache.prepareStatement("select a").close();
+        cache.prepareStatement("select c").close();
+        assertEquals(2, cache.size());
+        Mockito.verify(prepared.get(1)).close();
+        Mockito.verify(prepared.get(0), Mockito.never()).close();
+    }
+
+    /**
+     * Test that a released statement is reset and its handle can't be used any more
+     * @throws Exception
+     */
+    public void testRelease() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        PreparedStatement handle = cache.prepareStatement("select a where b = ?");
+        handle.setString(1, "b");
+        handle.setFetchSize(100);
+        handle.close();
+        handle.close();
+        PreparedStatement statement = prepared.get(0);
+        Mockito.verify(statement).clearParameters();
+        Mockito.verify(statement).setFetchSize(0);
+        Mockito.verify(statement, Mockito.never()).close();
+        assertTrue(handle.isClosed());
+        try {
+            handle.executeQuery();
+            fail("a closed handle shouldn't be used");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("closed"));
+        }
+    }
+
+    /**
+     * Test that clear closes the idle statements now and the ones in use when they are closed
+     * @throws Exception
+     */
+    public void testClear() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        cache.prepareStatement("select a").close();
+        PreparedStatement inUse = cache.prepareStatement("select b");
+        cache.clear();
+        assertEquals(0, cache.size());
+        Mockito.verify(prepared.get(0)).close();
+        Mockito.verify(prepared.get(1), Mockito.never()).close();
+        inUse.close();
+        Mockito.verify(prepared.get(1)).close();
+    }
+
+    /**
+     * Test that a statement whose plan went stale is prepared again and executed once more
+     * with the same parameters and settings when there is no transaction
+     * @throws Exception
+     */
+    public void testStalePlan() throws Exception {
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        PreparedStatement handle = cache.prepareStatement("select * from a where b = ?");
+        PreparedStatement stale = prepared.get(0);
+        Mockito.when(stale.executeQuery()).thenThrow(new SQLException(STALE_PLAN));
+        handle.setFetchSize(100);
+        handle.setString(1, "b");
+        ResultSet resultSet = handle.executeQuery();
+
+        assertEquals(2, prepared.size());
+        PreparedStatement fresh = prepared.get(1);
+        Mockito.verify(fresh).executeQuery();
+        assertNull(resultSet);
+        Mockito.verify(stale).close();
+        Mockito.verify(fresh).setFetchSize(100);
+        Mockito.verify(fresh).setString(1, "b");
+        handle.close();
+        // the fresh statement is the cached one now
+        cache.prepareStatement("select * from a where b = ?").close();
+        assertEquals(2, prepared.size());
+        Mockito.verify(fresh, Mockito.never()).close();
+    }
+
+    /**
+     * Test that a statement whose plan went stale in a transaction fails and leaves the cache
+     * @throws Exception
+     */
+    public void testStalePlanInTransaction() throws Exception {
+        Mockito.when(conn.getAutoCommit()).thenReturn(false);
+        PreparedStatementCache cache = new PreparedStatementCache(conn, 10);
+        PreparedStatement handle = cache.prepareStatement("update a set b = ?");
+        PreparedStatement stale = prepared.get(0);
+        Mockito.when(stale.executeUpdate()).thenThrow(new SQLException(STALE_PLAN));
+        handle.setString(1, "b");
+        try {
+            handle.executeUpdate();
+            fail("the error should be thrown in a transaction");
+        } catch (SQLException e) {
+            assertEquals(STALE_PLAN, e.getMessage());
+        }
+        assertEquals(1, prepared.size());
+        assertEquals(0, cache.size());
+        handle.close();
+        Mockito.verify(stale).close();
+        cache.prepareStatement("update a set b = ?").close();
+        assertEquals(2, prepared.size());
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dataone.service.exceptions.IdentifierNotUnique;
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.exceptions.InvalidSystemMetadata;
+import org.dataone.service.exceptions.ServiceFailure;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v1.Subject;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.metacat.dataone.BatchIngester.BatchItem;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.restservice.multipart.CheckedFile;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the BatchIngester class
+ */
+public class BatchIngesterTest extends D1NodeServiceTest {
+    private static final String MAX_OBJECTS = "dataone.batch.maxObjects";
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public BatchIngesterTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new BatchIngesterTest("initialize"));
+        suite.addTest(new BatchIngesterTest("testCreate"));
+        suite.addTest(new BatchIngesterTest("testObjectsFailOnTheirOwn"));
+        suite.addTest(new BatchIngesterTest("testSystemMetadataFailsOnItsOwn"));
+        suite.addTest(new BatchIngesterTest("testDuplicateSeriesId"));
+        suite.addTest(new BatchIngesterTest("testUpdate"));
+        suite.addTest(new BatchIngesterTest("testDOIFailure"));
+        suite.addTest(new BatchIngesterTest("testMaxObjects"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that all of the objects of a batch are created in the order they were added
+     * @throws Exception
+     */
+    public void testCreate() throws Exception {
+        Session session = getTestSession();
+        BatchIngester ingester = new BatchIngester(request, session, null, null);
+        Identifier[] pids = new Identifier[3];
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = createPid("testCreate" + i);
+            String content = "the object " + i;
+            ingester.add("key" + i, createSystemMetadata(pids[i], session, content), createFile(content, null));
+        }
+        List<BatchItem> items = ingester.ingest();
+        assertEquals(pids.length, items.size());
+        for (int i = 0; i < pids.length; i++) {
+            BatchItem item = items.get(i);
+            assertEquals("key" + i, item.getKey());
+            assertEquals(pids[i].getValue(), item.getPid());
+            assertEquals(BatchIngester.STATUS_CREATED, item.getStatus());
+            assertNull(item.getError());
+            assertNull(item.getWarning());
+            assertEquals("the object " + i, readObject(session, pids[i]));
+        }
+    }
+
+    /**
+     * Test that the invalid objects of a batch fail, while the valid ones are created
+     * @throws Exception
+     */
+    public void testObjectsFailOnTheirOwn() throws Exception {
+        Session session = getTestSession();
+        BatchIngester ingester = new BatchIngester(request, session, null, null);
+        Identifier valid = createPid("testObjectsFailOnTheirOwn.valid");
+        BatchItem validItem = ingester.add("valid", createSystemMetadata(valid, session, "valid"), createFile("valid", null));
+        BatchItem noSysmeta = ingester.add("noSysmeta", null, createFile("no sysmeta", null));
+        Identifier noFile = createPid("testObjectsFailOnTheirOwn.noFile");
+        BatchItem noFileItem = ingester.add("noFile", createSystemMetadata(noFile, session, "no file"), null);
+        // the same identifier as the valid object
+        BatchItem duplicate = ingester.add("duplicate", createSystemMetadata(valid, session, "valid"), createFile("valid", null));
+        Identifier wrongChecksum = createPid("testObjectsFailOnTheirOwn.wrongChecksum");
+        SystemMetadata sysmeta = createSystemMetadata(wrongChecksum, session, "checked");
+        Checksum streamed = new Checksum();
+        streamed.setAlgorithm(sysmeta.getChecksum().getAlgorithm());
+        streamed.setValue("0123456789");
+        BatchItem wrongChecksumItem = ingester.add("wrongChecksum", sysmeta, createFile("checked", streamed));
+        ingester.ingest();
+
+        assertEquals(BatchIngester.STATUS_CREATED, validItem.getStatus());
+        assertEquals("valid", readObject(session, valid));
+        assertEquals(BatchIngester.STATUS_FAILED, noSysmeta.getStatus());
+        assertTrue(noSysmeta.getError() instanceof InvalidRequest);
+        assertEquals(BatchIngester.STATUS_FAILED, noFileItem.getStatus());
+        assertTrue(noFileItem.getError() instanceof InvalidRequest);
+        assertEquals(BatchIngester.STATUS_FAILED, duplicate.getStatus());
+        assertTrue(duplicate.getError() instanceof IdentifierNotUnique);
+        assertEquals(BatchIngester.STATUS_FAILED, wrongChecksumItem.getStatus());
+        assertTrue(wrongChecksumItem.getError() instanceof InvalidSystemMetadata);
+        assertFalse(objectExists(session, noFile));
+        assertFalse(objectExists(session, wrongChecksum));
+    }
+
+    /**
+     * Test that an object whose system metadata the database rejects fails, while the others
+     * of the batch are created
+     * @throws Exception
+     */
+    public void testSystemMetadataFailsOnItsOwn() throws Exception {
+        Session session = getTestSession();
+        BatchIngester ingester = new BatchIngester(request, session, null, null);
+        Identifier valid = createPid("testSystemMetadataFailsOnItsOwn.valid");
+        BatchItem validItem = ingester.add("valid", createSystemMetadata(valid, session, "valid"), createFile("valid", null));
+        Identifier rejected = createPid("testSystemMetadataFailsOnItsOwn.rejected");
+        SystemMetadata sysmeta = createSystemMetadata(rejected, session, "rejected");
+        // longer than the rights_holder column
+        StringBuilder longName = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            longName.append('x');
+        }
+        Subject rightsHolder = new Subject();
+        rightsHolder.setValue(longName.toString());
+        sysmeta.setRightsHolder(rightsHolder);
+        BatchItem rejectedItem = ingester.add("rejected", sysmeta, createFile("rejected", null));
+        ingester.ingest();
+        assertEquals(BatchIngester.STATUS_CREATED, validItem.getStatus());
+        assertEquals("valid", readObject(session, valid));
+        assertEquals(BatchIngester.STATUS_FAILED, rejectedItem.getStatus());
+        assertTrue(rejectedItem.getError() instanceof ServiceFailure);
+    }
+
+    /**
+     * Test that only the first of the new objects sharing a series id is created
+     * @throws Exception
+     */
+    public void testDuplicateSeriesId() throws Exception {
+        Session session = getTestSession();
+        BatchIngester ingester = new BatchIngester(request, session, null, null);
+        Identifier sid = createPid("testDuplicateSeriesId.sid");
+        Identifier first = createPid("testDuplicateSeriesId.first");
+        SystemMetadata firstSysmeta = createSystemMetadata(first, session, "first");
+        firstSysmeta.setSeriesId(sid);
+        BatchItem firstItem = ingester.add("first", firstSysmeta, createFile("first", null));
+        Identifier second = createPid("testDuplicateSeriesId.second");
+        SystemMetadata secondSysmeta = createSystemMetadata(second, session, "second");
+        secondSysmeta.setSeriesId(sid);
+        BatchItem secondItem = ingester.add("second", secondSysmeta, createFile("second", null));
+        ingester.ingest();
+        assertEquals(BatchIngester.STATUS_CREATED, firstItem.getStatus());
+        assertEquals(BatchIngester.STATUS_FAILED, secondItem.getStatus());
+        assertTrue(secondItem.getError() instanceof InvalidSystemMetadata);
+        assertFalse(objectExists(session, second));
+    }
+
+    /**
+     * Test that an object obsoleting an existing one updates it
+     * @throws Exception
+     */
+    public void testUpdate() throws Exception {
+        Session session = getTestSession();
+        Identifier original = createPid("testUpdate.original");
+        MNodeService.getInstance(request).create(session, original, new ByteArrayInputStream("original".getBytes("UTF-8")),
+                                                 createSystemMetadata(original, session, "original"));
+        BatchIngester ingester = new BatchIngester(request, session, null, null);
+        Identifier newPid = createPid("testUpdate.new");
+        SystemMetadata sysmeta = createSystemMetadata(newPid, session, "new version");
+        sysmeta.setObsoletes(original);
+        BatchItem item = ingester.add("new", sysmeta, createFile("new version", null));
+        ingester.ingest();
+        assertEquals(BatchIngester.STATUS_UPDATED, item.getStatus());
+        assertNull(item.getError());
+        assertEquals("new version", readObject(session, newPid));
+        SystemMetadata originalSysmeta = MNodeService.getInstance(request).getSystemMetadata(session, original);
+        assertEquals(newPid.getValue(), originalSysmeta.getObsoletedBy().getValue());
+    }
+
+    /**
+     * Test that an object whose DOI couldn't be registered is still created and the failure
+     * is reported as a warning
+     * @throws Exception
+     */
+    public void testDOIFailure() throws Exception {
+        Session session = getTestSession();
+        BatchIngester ingester = new BatchIngester(request, session, null, null) {
+            @Override
+            protected void registerDOI(SystemMetadata sysmeta) throws Exception {
+                throw new Exception("the DOI service is down");
+            }
+        };
+        Identifier pid = createPid("testDOIFailure");
+        BatchItem item = ingester.add("doi", createSystemMetadata(pid, session, "doi"), createFile("doi", null));
+        ingester.ingest();
+        assertEquals(BatchIngester.STATUS_CREATED, item.getStatus());
+        assertNull(item.getError());
+        assertTrue(item.getWarning() instanceof ServiceFailure);
+        assertTrue(item.getWarning().getDescription().contains("the DOI service is down"));
+        assertEquals("doi", readObject(session, pid));
+    }
+
+    /**
+     * Test that a batch carrying more objects than dataone.batch.maxObjects is rejected
+     * before anything is saved
+     * @throws Exception
+     */
+    public void testMaxObjects() throws Exception {
+        String originalMax = PropertyService.getProperty(MAX_OBJECTS);
+        PropertyService.setPropertyNoPersist(MAX_OBJECTS, "1");
+        try {
+            Session session = getTestSession();
+            BatchIngester ingester = new BatchIngester(request, session, null, null);
+            Identifier pid1 = createPid("testMaxObjects1");
+            Identifier pid2 = createPid("testMaxObjects2");
+            ingester.add("key1", createSystemMetadata(pid1, session, "one"), createFile("one", null));
+            ingester.add("key2", createSystemMetadata(pid2, session, "two"), createFile("two", null));
+            try {
+                ingester.ingest();
+                fail("a batch with more than one object should be rejected");
+            } catch (InvalidRequest e) {
+                assertFalse(objectExists(session, pid1));
+                assertFalse(objectExists(session, pid2));
+            }
+        } finally {
+            PropertyService.setPropertyNoPersist(MAX_OBJECTS, originalMax);
+        }
+    }
+
+    private Identifier createPid(String prefix) {
+        Identifier pid = new Identifier();
+        pid.setValue(prefix + "." + System.currentTimeMillis());
+        return pid;
+    }
+
+    private SystemMetadata createSystemMetadata(Identifier pid, Session session, String content) throws Exception {
+        return createSystemMetadata(pid, session.getSubject(), new ByteArrayInputStream(content.getBytes("UTF-8")));
+    }
+
+    /*
+     * Create the file of an object the way the BatchMultipartRequestResolver does
+     */
+    private File createFile(String content, Checksum checksum) throws Exception {
+        File file = File.createTempFile("BatchIngesterTest", ".bin");
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return new CheckedFile(file.getCanonicalPath(), checksum);
+    }
+
+    private String readObject(Session session, Identifier pid) throws Exception {
+        InputStream object = MNodeService.getInstance(request).get(session, pid);
+        try {
+            return IOUtils.toString(object, "UTF-8");
+        } finally {
+            object.close();
+        }
+    }
+
+    private boolean objectExists(Session session, Identifier pid) throws Exception {
+        try {
+            MNodeService.getInstance(request).getSystemMetadata(session, pid);
+            return true;
+        } catch (org.dataone.service.exceptions.NotFound e) {
+            return false;
+        }
+    }
+}
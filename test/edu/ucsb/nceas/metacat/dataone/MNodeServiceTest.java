@@ -179,6 +179,7 @@ public class MNodeServiceTest extends D1NodeServiceTest {
     suite.addTest(new MNodeServiceTest("testGetSystemMetadata"));
     suite.addTest(new MNodeServiceTest("testDescribe"));
     suite.addTest(new MNodeServiceTest("testListObjects"));
+    suite.addTest(new MNodeServiceTest("testListObjectsWithContinuationToken"));
     suite.addTest(new MNodeServiceTest("testGetSID"));
     // this requires CN certificate
     suite.addTest(new MNodeServiceTest("testSynchronizationFailed"));
@@ -186,6 +187,7 @@ public class MNodeServiceTest extends D1NodeServiceTest {
     // MNCore tests
     suite.addTest(new MNodeServiceTest("testPing"));
     suite.addTest(new MNodeServiceTest("testGetLogRecords"));
+    suite.addTest(new MNodeServiceTest("testGetLogRecordsWithContinuationToken"));
     suite.addTest(new MNodeServiceTest("testGetCapabilities"));
     
     // MNAuthorization tests
@@ -212,6 +214,7 @@ public class MNodeServiceTest extends D1NodeServiceTest {
     suite.addTest(new MNodeServiceTest("testInvalidIds"));
     suite.addTest(new MNodeServiceTest("testPublishPackage"));
     suite.addTest(new MNodeServiceTest("testPublishPrivatePackage"));
+    suite.addTest(new MNodeServiceTest("testPublishDataObject"));
     suite.addTest(new MNodeServiceTest("testAllowList"));
     suite.addTest(new MNodeServiceTest("testInsertJson_LD"));
     suite.addTest(new MNodeServiceTest("testCreateAndUpdateEventLog"));
@@ -1314,6 +1317,51 @@ public class MNodeServiceTest extends D1NodeServiceTest {
       }
   }
 
+  /**
+   * Test the keyset paging mode of listObjects
+   * @throws Exception
+   */
+  public void testListObjectsWithContinuationToken() throws Exception {
+      printTestHeader("testListObjectsWithContinuationToken");
+      Session session = getTestSession();
+      // insert at least two objects
+      testCreate();
+      testCreate();
+      int count = 1;
+      ObjectListStreamWriter writer = new ObjectListStreamWriter();
+      String token = MNodeService.getInstance(request).listObjects(session, null, null, 
+              null, null, true, "", count, writer);
+      assertNotNull(token);
+      assertTrue(writer.getCount() == count);
+      ByteArrayOutputStream firstPage = new ByteArrayOutputStream();
+      writer.writeTo(firstPage);
+      ObjectList firstList = TypeMarshaller.unmarshalTypeFromStream(ObjectList.class, 
+              new ByteArrayInputStream(firstPage.toByteArray()));
+      assertTrue(firstList.getCount() == count);
+      assertTrue(firstList.getTotal() >= 2);
+      // the second page starts right after the first one
+      writer = new ObjectListStreamWriter();
+      MNodeService.getInstance(request).listObjects(session, null, null, 
+              null, null, true, token, count, writer);
+      ByteArrayOutputStream secondPage = new ByteArrayOutputStream();
+      writer.writeTo(secondPage);
+      ObjectList secondList = TypeMarshaller.unmarshalTypeFromStream(ObjectList.class, 
+              new ByteArrayInputStream(secondPage.toByteArray()));
+      assertTrue(secondList.getCount() == count);
+      assertTrue(secondList.getObjectInfo(0).getDateSysMetadataModified().getTime() 
+              <= firstList.getObjectInfo(0).getDateSysMetadataModified().getTime());
+      assertFalse(secondList.getObjectInfo(0).getIdentifier().getValue()
+              .equals(firstList.getObjectInfo(0).getIdentifier().getValue()));
+      // a broken token is an invalid request
+      try {
+          MNodeService.getInstance(request).listObjects(session, null, null, 
+                  null, null, true, "not-a-token", count, new ObjectListStreamWriter());
+          fail("The listObjects method should reject a broken token");
+      } catch (InvalidRequest e) {
+          assertTrue(e.getMessage().contains("not-a-token"));
+      }
+  }
+
   public void testGetCapabilities() throws Exception {
       printTestHeader("testGetCapabilities");
       String originAllowedSubmitters = PropertyService.getInstance().getProperty("auth.allowedSubmitters");
@@ -1512,6 +1560,51 @@ public class MNodeServiceTest extends D1NodeServiceTest {
     }
   }
 
+  /**
+   * Test getting the log records page by page with the continuation token
+   */
+  public void testGetLogRecordsWithContinuationToken() throws Exception {
+      printTestHeader("testGetLogRecordsWithContinuationToken");
+      // insert at least two objects
+      testCreate();
+      testCreate();
+      Session session = getCNSession();
+      int count = 1;
+      LogStreamWriter writer = new LogStreamWriter();
+      String token = MNodeService.getInstance(request).getLogRecords(session, null, null, 
+              Event.CREATE.xmlValue(), null, "", count, writer);
+      assertNotNull(token);
+      ByteArrayOutputStream firstPage = new ByteArrayOutputStream();
+      writer.writeTo(firstPage);
+      Log firstLog = TypeMarshaller.unmarshalTypeFromStream(Log.class, 
+              new ByteArrayInputStream(firstPage.toByteArray()));
+      assertTrue(firstLog.getCount() == count);
+      assertTrue(firstLog.getTotal() >= 2);
+      assertTrue(firstLog.getLogEntry(0).getEvent().equals(Event.CREATE.xmlValue()));
+      // the token is opaque, but remembers the last entry of the page
+      assertFalse(token.equals(firstLog.getLogEntry(0).getEntryId()));
+      assertEquals(Long.parseLong(firstLog.getLogEntry(0).getEntryId()), LogRecordsToken.decode(token).getEntryId());
+      // the second page starts right after the first one
+      writer = new LogStreamWriter();
+      MNodeService.getInstance(request).getLogRecords(session, null, null, 
+              Event.CREATE.xmlValue(), null, token, count, writer);
+      ByteArrayOutputStream secondPage = new ByteArrayOutputStream();
+      writer.writeTo(secondPage);
+      Log secondLog = TypeMarshaller.unmarshalTypeFromStream(Log.class, 
+              new ByteArrayInputStream(secondPage.toByteArray()));
+      assertTrue(secondLog.getCount() == count);
+      assertTrue(Long.parseLong(secondLog.getLogEntry(0).getEntryId()) 
+              > Long.parseLong(firstLog.getLogEntry(0).getEntryId()));
+      // a broken token is an invalid request
+      try {
+          MNodeService.getInstance(request).getLogRecords(session, null, null, 
+                  null, null, "not-a-token", count, new LogStreamWriter());
+          fail("The getLogRecords method should reject a broken token");
+      } catch (InvalidRequest e) {
+          assertTrue(e.getMessage().contains("not-a-token"));
+      }
+  }
+
   /**
    * Testing setting access on a known object
    */
@@ -1992,6 +2085,36 @@ public class MNodeServiceTest extends D1NodeServiceTest {
 		}
 	}
 
+	/**
+     * Test that publishing a data object keeps the bytes of the original revision, since
+     * the stream read from the store is not a temporary file
+     */
+    public void testPublishDataObject() throws Exception {
+        printTestHeader("testPublishDataObject");
+        Session session = getTestSession();
+        Identifier guid = new Identifier();
+        guid.setValue("testPublishDataObject." + System.currentTimeMillis());
+        InputStream object = new ByteArrayInputStream("test publish a data object".getBytes("UTF-8"));
+        SystemMetadata sysmeta = createSystemMetadata(guid, session.getSubject(), object);
+        MNodeService.getInstance(request).create(session, guid, object, sysmeta);
+        Identifier doi = MNodeService.getInstance(request).publish(session, guid);
+        assertFalse(doi.getValue().equals(guid.getValue()));
+        object.reset();
+        InputStream original = MNodeService.getInstance(request).get(session, guid);
+        try {
+            assertTrue(IOUtils.contentEquals(original, object));
+        } finally {
+            original.close();
+        }
+        object.reset();
+        InputStream published = MNodeService.getInstance(request).get(session, doi);
+        try {
+            assertTrue(IOUtils.contentEquals(published, object));
+        } finally {
+            published.close();
+        }
+    }
+
 	/**
      * Test to publish a package
      */
@@ -0,0 +1,239 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.NodeReference;
+import org.dataone.service.types.v1.Replica;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the ReplicaNotificationQueue class. It uses a stub instead of
+ * calling the member nodes.
+ */
+public class ReplicaNotificationQueueTest extends MCTestCase {
+    private static final long WAIT = 30000;
+    private static final String FAST_NODE = "urn:node:testFast";
+    private static final String SLOW_NODE = "urn:node:testSlow";
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public ReplicaNotificationQueueTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new ReplicaNotificationQueueTest("initialize"));
+        suite.addTest(new ReplicaNotificationQueueTest("testCoalescing"));
+        suite.addTest(new ReplicaNotificationQueueTest("testRetry"));
+        suite.addTest(new ReplicaNotificationQueueTest("testSlowNode"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the changes queued before they are sent reach each node once with the last serial version
+     * @throws Exception
+     */
+    public void testCoalescing() throws Exception {
+        StubQueue queue = new StubQueue(0, 0);
+        String pid = "testCoalescing." + System.currentTimeMillis();
+        queue.enqueue(createSystemMetadata(pid, 1, FAST_NODE, SLOW_NODE));
+        queue.enqueue(createSystemMetadata(pid, 3, FAST_NODE, SLOW_NODE));
+        queue.enqueue(createSystemMetadata(pid, 2, FAST_NODE, SLOW_NODE));
+        try {
+            queue.start();
+            queue.waitFor(pid, FAST_NODE, 1);
+            queue.waitFor(pid, SLOW_NODE, 1);
+            Thread.sleep(1000);
+            assertEquals(1, queue.getCalls(pid, FAST_NODE));
+            assertEquals(1, queue.getCalls(pid, SLOW_NODE));
+            assertEquals(3, queue.getLastSerialVersion(pid, FAST_NODE));
+            assertEquals(3, queue.getLastSerialVersion(pid, SLOW_NODE));
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Test that a failed notification is retried until it succeeds
+     * @throws Exception
+     */
+    public void testRetry() throws Exception {
+        StubQueue queue = new StubQueue(2, 0);
+        String pid = "testRetry." + System.currentTimeMillis();
+        queue.enqueue(createSystemMetadata(pid, 1, FAST_NODE));
+        try {
+            queue.start();
+            queue.waitFor(pid, FAST_NODE, 3);
+            assertEquals(3, queue.getCalls(pid, FAST_NODE));
+            Map<String, Long> status = queue.getStatus();
+            assertTrue(status.get("retried") >= 2);
+            assertTrue(status.get("notified") >= 1);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Test that a slow node doesn't hold up the other nodes and only gets a few calls at a time
+     * @throws Exception
+     */
+    public void testSlowNode() throws Exception {
+        StubQueue queue = new StubQueue(0, 2000);
+        long now = System.currentTimeMillis();
+        List<String> pids = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            String pid = "testSlowNode." + i + "." + now;
+            pids.add(pid);
+            queue.enqueue(createSystemMetadata(pid, 1, SLOW_NODE, FAST_NODE));
+        }
+        try {
+            long start = System.currentTimeMillis();
+            queue.start();
+            for (String pid : pids) {
+                queue.waitFor(pid, FAST_NODE, 1);
+            }
+            long fast = System.currentTimeMillis() - start;
+            for (String pid : pids) {
+                queue.waitFor(pid, SLOW_NODE, 1);
+                assertEquals(1, queue.getCalls(pid, SLOW_NODE));
+            }
+            assertTrue("the fast node waited " + fast + " ms for the slow one", fast < 2000 * pids.size());
+            assertTrue(queue.maxRunning.get() <= 2);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /*
+     * Create the system metadata of an object with replicas on the nodes
+     */
+    private SystemMetadata createSystemMetadata(String pid, long serialVersion, String... nodes) {
+        SystemMetadata sysmeta = new SystemMetadata();
+        Identifier identifier = new Identifier();
+        identifier.setValue(pid);
+        sysmeta.setIdentifier(identifier);
+        sysmeta.setSerialVersion(BigInteger.valueOf(serialVersion));
+        sysmeta.setDateSysMetadataModified(new Date());
+        for (String node : nodes) {
+            NodeReference nodeRef = new NodeReference();
+            nodeRef.setValue(node);
+            Replica replica = new Replica();
+            replica.setReplicaMemberNode(nodeRef);
+            sysmeta.addReplica(replica);
+        }
+        return sysmeta;
+    }
+
+    /*
+     * A queue which records the notifications instead of calling the nodes. The first calls
+     * of each notification fail and the calls to the slow node take a while.
+     */
+    private static class StubQueue extends ReplicaNotificationQueue {
+        private int failures = 0;
+        private long slowness = 0;
+        private Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+        private Map<String, Long> serialVersions = new ConcurrentHashMap<String, Long>();
+        private AtomicInteger running = new AtomicInteger(0);
+        private AtomicInteger maxRunning = new AtomicInteger(0);
+
+        private StubQueue(int failures, long slowness) {
+            this.failures = failures;
+            this.slowness = slowness;
+        }
+
+        @Override
+        protected boolean notifyNode(Claim claim) throws Exception {
+            String key = claim.getGuid() + " " + claim.getNodeId();
+            calls.putIfAbsent(key, new AtomicInteger(0));
+            if (calls.get(key).incrementAndGet() <= failures) {
+                throw new Exception("the stub node fails on purpose");
+            }
+            if (SLOW_NODE.equals(claim.getNodeId())) {
+                int current = running.incrementAndGet();
+                if (current > maxRunning.get()) {
+                    maxRunning.set(current);
+                }
+                try {
+                    Thread.sleep(slowness);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+            serialVersions.put(key, claim.getSerialVersion());
+            return true;
+        }
+
+        @Override
+        protected long getBackoff(int attempts) {
+            return 10;
+        }
+
+        private int getCalls(String pid, String node) {
+            AtomicInteger count = calls.get(pid + " " + node);
+            return count == null ? 0 : count.get();
+        }
+
+        private long getLastSerialVersion(String pid, String node) {
+            Long serialVersion = serialVersions.get(pid + " " + node);
+            return serialVersion == null ? -1 : serialVersion;
+        }
+
+        /*
+         * Wait until the node was called the given times and notified of the pid
+         */
+        private void waitFor(String pid, String node, int times) throws InterruptedException {
+            long end = System.currentTimeMillis() + WAIT;
+            while ((getCalls(pid, node) < times || !serialVersions.containsKey(pid + " " + node))
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.common.query.stream.ContentTypeInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the ViewCache class. Every test uses its own cache and directory.
+ */
+public class ViewCacheTest extends MCTestCase {
+    private File dir = null;
+    private ViewCache cache = null;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public ViewCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new ViewCacheTest("initialize"));
+        suite.addTest(new ViewCacheTest("testMemoryAndDisk"));
+        suite.addTest(new ViewCacheTest("testTooLarge"));
+        suite.addTest(new ViewCacheTest("testInvalidate"));
+        suite.addTest(new ViewCacheTest("testStaleRendering"));
+        suite.addTest(new ViewCacheTest("testClear"));
+        return suite;
+    }
+
+    /**
+     * Create the cache with 10 bytes in memory, at most 5 bytes per memory entry
+     * and 20 bytes on disk
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("ViewCacheTest", "");
+        dir.delete();
+        dir.mkdirs();
+        cache = new ViewCache(10, 5, 20, dir);
+    }
+
+    /**
+     * Remove the directory
+     */
+    public void tearDown() throws Exception {
+        FileUtils.deleteQuietly(dir);
+        super.tearDown();
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the small documents are cached in memory, the larger ones on disk and the least
+     * recently used ones are evicted
+     * @throws Exception
+     */
+    public void testMemoryAndDisk() throws Exception {
+        String small = ViewCache.getKey("pid1", "default", 1);
+        String large = ViewCache.getKey("pid2", "default", 1);
+        assertEquals("small", read(cache.put(small, "pid1", render("small"), "text/html", cache.getGeneration())));
+        assertEquals("a larger one", read(cache.put(large, "pid2", render("a larger one"), "text/html", cache.getGeneration())));
+        InputStream stream = cache.get(small);
+        assertEquals("text/html", ((ContentTypeInputStream) stream).getContentType());
+        assertEquals("small", read(stream));
+        assertEquals("a larger one", read(cache.get(large)));
+        assertEquals(1, countFiles());
+
+        // the disk tier holds 20 bytes, so the least recently used document goes
+        String other = ViewCache.getKey("pid3", "default", 1);
+        cache.put(other, "pid3", render("another large"), "text/html", cache.getGeneration());
+        assertNull(cache.get(large));
+        assertEquals("another large", read(cache.get(other)));
+        assertEquals(1, countFiles());
+        assertNull(cache.get(ViewCache.getKey("pid1", "other", 1)));
+        assertNull(cache.get(ViewCache.getKey("pid1", "default", 2)));
+    }
+
+    /**
+     * Test that a document which fits in neither tier is returned but not cached
+     * @throws Exception
+     */
+    public void testTooLarge() throws Exception {
+        String key = ViewCache.getKey("pid1", "default", 1);
+        File rendered = render("a document which is much too large");
+        assertEquals("a document which is much too large", read(cache.put(key, "pid1", rendered, "text/html", cache.getGeneration())));
+        assertNull(cache.get(key));
+        assertFalse(rendered.exists());
+    }
+
+    /**
+     * Test that invalidating a pid removes its documents in all of the formats
+     * @throws Exception
+     */
+    public void testInvalidate() throws Exception {
+        String key1 = ViewCache.getKey("pid1", "default", 1);
+        String key2 = ViewCache.getKey("pid1", "other", 1);
+        String key3 = ViewCache.getKey("pid2", "default", 1);
+        cache.put(key1, "pid1", render("one"), "text/html", cache.getGeneration());
+        cache.put(key2, "pid1", render("the other one"), "text/html", cache.getGeneration());
+        cache.put(key3, "pid2", render("two"), "text/html", cache.getGeneration());
+        cache.invalidate("pid1");
+        assertNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertEquals("two", read(cache.get(key3)));
+        assertEquals(0, countFiles());
+    }
+
+    /**
+     * Test that a document rendered before its pid was invalidated isn't cached, while the
+     * documents of the other pids and the renderings after the invalidation are
+     * @throws Exception
+     */
+    public void testStaleRendering() throws Exception {
+        String key = ViewCache.getKey("pid1", "default", 1);
+        String largeKey = ViewCache.getKey("pid1", "other", 1);
+        String otherKey = ViewCache.getKey("pid2", "default", 1);
+        long generation = cache.getGeneration();
+        // the document is rendered, then the object changes
+        cache.invalidate("pid1");
+        assertEquals("old", read(cache.put(key, "pid1", render("old"), "text/html", generation)));
+        assertNull(cache.get(key));
+        assertEquals("an old large", read(cache.put(largeKey, "pid1", render("an old large"), "text/html", generation)));
+        assertNull(cache.get(largeKey));
+        assertEquals(0, countFiles());
+        cache.put(otherKey, "pid2", render("two"), "text/html", generation);
+        assertEquals("two", read(cache.get(otherKey)));
+
+        generation = cache.getGeneration();
+        cache.put(key, "pid1", render("new"), "text/html", generation);
+        assertEquals("new", read(cache.get(key)));
+    }
+
+    /**
+     * Test that clear removes everything and a document rendered before it isn't cached
+     * @throws Exception
+     */
+    public void testClear() throws Exception {
+        String key = ViewCache.getKey("pid1", "default", 1);
+        String largeKey = ViewCache.getKey("pid2", "default", 1);
+        cache.put(key, "pid1", render("one"), "text/html", cache.getGeneration());
+        cache.put(largeKey, "pid2", render("a larger one"), "text/html", cache.getGeneration());
+        long generation = cache.getGeneration();
+        cache.clear();
+        assertNull(cache.get(key));
+        assertNull(cache.get(largeKey));
+        assertEquals(0, countFiles());
+        cache.put(key, "pid1", render("old"), "text/html", generation);
+        assertNull(cache.get(key));
+    }
+
+    private File render(String content) throws Exception {
+        File file = cache.newRenderFile();
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    private String read(InputStream stream) throws Exception {
+        try {
+            return IOUtils.toString(stream, "UTF-8");
+        } finally {
+            stream.close();
+        }
+    }
+
+    /*
+     * The number of the cached files, without the render files
+     */
+    private int countFiles() {
+        return dir.list().length;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone.hazelcast;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.metacat.IdentifierManager;
+import edu.ucsb.nceas.metacat.McdbDocNotFoundException;
+import edu.ucsb.nceas.metacat.dataone.D1NodeServiceTest;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the SystemMetadataWriteBehind class
+ */
+public class SystemMetadataWriteBehindTest extends D1NodeServiceTest {
+    // long enough that nothing is flushed unless the test asks for it
+    private static final long NEVER = 3600000;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public SystemMetadataWriteBehindTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new SystemMetadataWriteBehindTest("initialize"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testCoalescing"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testReplay"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testDelete"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testDeadLetter"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testStaleChange"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testDrain"));
+        suite.addTest(new SystemMetadataWriteBehindTest("testSeriesHead"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the changes of a pid are read back before the flush and only the last one is written
+     * @throws Exception
+     */
+    public void testCoalescing() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        Identifier pid = new Identifier();
+        pid.setValue("testCoalescing." + System.currentTimeMillis());
+        for (int i = 1; i <= 3; i++) {
+            writeBehind.store(createSystemMetadata(pid, i));
+        }
+        assertEquals(3, writeBehind.get(pid.getValue()).getSerialVersion().intValue());
+        assertFalse(IdentifierManager.getInstance().systemMetadataPIDExists(pid.getValue()));
+        writeBehind.flush();
+        assertNull(writeBehind.get(pid.getValue()));
+        SystemMetadata saved = IdentifierManager.getInstance().getSystemMetadata(pid.getValue());
+        assertEquals(3, saved.getSerialVersion().intValue());
+        // the flushed segment is gone
+        assertEquals(1, dir.listFiles().length);
+        writeBehind.delete(pid.getValue());
+    }
+
+    /**
+     * Test that the changes which were acknowledged, but not flushed before a crash are replayed
+     * @throws Exception
+     */
+    public void testReplay() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind crashed = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        Identifier pid = new Identifier();
+        pid.setValue("testReplay." + System.currentTimeMillis());
+        crashed.store(createSystemMetadata(pid, 1));
+        crashed.store(createSystemMetadata(pid, 2));
+        // the first one is never closed, as if the process died
+        SystemMetadataWriteBehind restarted = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        assertEquals(2, restarted.get(pid.getValue()).getSerialVersion().intValue());
+        restarted.flush();
+        assertEquals(2, IdentifierManager.getInstance().getSystemMetadata(pid.getValue()).getSerialVersion().intValue());
+        restarted.delete(pid.getValue());
+    }
+
+    /**
+     * Test that a deletion drops the pending change and isn't undone by a replay
+     * @throws Exception
+     */
+    public void testDelete() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        Identifier pid = new Identifier();
+        pid.setValue("testDelete." + System.currentTimeMillis());
+        writeBehind.store(createSystemMetadata(pid, 1));
+        writeBehind.flush();
+        writeBehind.store(createSystemMetadata(pid, 2));
+        writeBehind.delete(pid.getValue());
+        assertNull(writeBehind.get(pid.getValue()));
+        SystemMetadataWriteBehind restarted = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        assertNull(restarted.get(pid.getValue()));
+        restarted.flush();
+        try {
+            IdentifierManager.getInstance().getSystemMetadata(pid.getValue());
+            fail("the system metadata of " + pid.getValue() + " should be deleted");
+        } catch (McdbDocNotFoundException e) {
+            assertTrue(e.getMessage() != null);
+        }
+    }
+
+    /**
+     * Test that a change which the database keeps rejecting is given up after the max attempts
+     * and its document is kept in the dead-letter directory
+     * @throws Exception
+     */
+    public void testDeadLetter() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10, 2);
+        Identifier pid = new Identifier();
+        pid.setValue("testDeadLetter." + System.currentTimeMillis());
+        SystemMetadata sysmeta = createSystemMetadata(pid, 1);
+        // the size is required, so the database rejects the change
+        sysmeta.setSize(null);
+        writeBehind.store(sysmeta);
+        writeBehind.flush();
+        // it is retried at the next flush
+        assertNotNull(writeBehind.get(pid.getValue()));
+        assertFalse(new File(dir, "dead-letter").exists());
+        writeBehind.flush();
+        assertNull(writeBehind.get(pid.getValue()));
+        assertFalse(IdentifierManager.getInstance().systemMetadataPIDExists(pid.getValue()));
+        File[] deadLetters = new File(dir, "dead-letter").listFiles();
+        assertEquals(1, deadLetters.length);
+        assertTrue(deadLetters[0].getName().startsWith(pid.getValue()));
+        // it isn't replayed either
+        SystemMetadataWriteBehind restarted = new SystemMetadataWriteBehind(dir, NEVER, 10, 2);
+        assertNull(restarted.get(pid.getValue()));
+    }
+
+    /**
+     * Test that a journaled change doesn't overwrite a newer version which was written elsewhere
+     * @throws Exception
+     */
+    public void testStaleChange() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        Identifier pid = new Identifier();
+        pid.setValue("testStaleChange." + System.currentTimeMillis());
+        writeBehind.store(createSystemMetadata(pid, 3));
+        // e.g. the new owner of the partition wrote a newer version
+        IdentifierManager.getInstance().insertOrUpdateSystemMetadata(createSystemMetadata(pid, 5));
+        writeBehind.flush();
+        assertNull(writeBehind.get(pid.getValue()));
+        assertEquals(5, IdentifierManager.getInstance().getSystemMetadata(pid.getValue()).getSerialVersion().intValue());
+        writeBehind.delete(pid.getValue());
+    }
+
+    /**
+     * Test that a drain writes the pending changes and leaves an empty journal
+     * @throws Exception
+     */
+    public void testDrain() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        Identifier pid = new Identifier();
+        pid.setValue("testDrain." + System.currentTimeMillis());
+        writeBehind.store(createSystemMetadata(pid, 1));
+        writeBehind.drain();
+        assertNull(writeBehind.get(pid.getValue()));
+        assertEquals(1, IdentifierManager.getInstance().getSystemMetadata(pid.getValue()).getSerialVersion().intValue());
+        File[] segments = dir.listFiles();
+        assertEquals(1, segments.length);
+        assertEquals(0, segments[0].length());
+        writeBehind.delete(pid.getValue());
+    }
+
+    /**
+     * Test that a change of the obsoletes chain is written through, so the series id resolves
+     * to the new head before the flush, while the other changes stay pending
+     * @throws Exception
+     */
+    public void testSeriesHead() throws Exception {
+        File dir = createJournalDir();
+        SystemMetadataWriteBehind writeBehind = new SystemMetadataWriteBehind(dir, NEVER, 10);
+        long now = System.currentTimeMillis();
+        Identifier sid = new Identifier();
+        sid.setValue("testSeriesHead.sid." + now);
+        Identifier pid1 = new Identifier();
+        pid1.setValue("testSeriesHead.1." + now);
+        Identifier pid2 = new Identifier();
+        pid2.setValue("testSeriesHead.2." + now);
+        SystemMetadata first = createSystemMetadata(pid1, 1);
+        first.setSeriesId(sid);
+        writeBehind.store(first);
+        assertNull(writeBehind.get(pid1.getValue()));
+        assertEquals(pid1.getValue(), IdentifierManager.getInstance().getHeadPID(sid).getValue());
+        // a change which doesn't touch the chain is written behind
+        first = createSystemMetadata(pid1, 2);
+        first.setSeriesId(sid);
+        writeBehind.store(first);
+        assertNotNull(writeBehind.get(pid1.getValue()));
+        SystemMetadata second = createSystemMetadata(pid2, 1);
+        second.setSeriesId(sid);
+        second.setObsoletes(pid1);
+        first = createSystemMetadata(pid1, 3);
+        first.setSeriesId(sid);
+        first.setObsoletedBy(pid2);
+        List<SystemMetadata> update = new ArrayList<SystemMetadata>();
+        update.add(second);
+        update.add(first);
+        writeBehind.storeAll(update);
+        assertNull(writeBehind.get(pid1.getValue()));
+        assertNull(writeBehind.get(pid2.getValue()));
+        assertEquals(pid2.getValue(), IdentifierManager.getInstance().getHeadPID(sid).getValue());
+        writeBehind.delete(pid1.getValue());
+        writeBehind.delete(pid2.getValue());
+    }
+
+    private SystemMetadata createSystemMetadata(Identifier pid, long serialVersion) throws Exception {
+        SystemMetadata sysmeta = createSystemMetadata(pid, getTestSession().getSubject(),
+                                                      new ByteArrayInputStream("test".getBytes("UTF-8")));
+        sysmeta.setSerialVersion(BigInteger.valueOf(serialVersion));
+        return sysmeta;
+    }
+
+    private File createJournalDir() throws Exception {
+        File dir = File.createTempFile("sysmeta-journal", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+}
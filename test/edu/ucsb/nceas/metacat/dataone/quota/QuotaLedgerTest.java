@@ -0,0 +1,194 @@
+/**
+ *  Copyright: 2026 Regents of the University of California and the
+ *             National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.dataone.quota;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dataone.bookkeeper.api.Quota;
+import org.dataone.bookkeeper.api.Usage;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.ucsb.nceas.MCTestCase;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Junit test to test the class QuotaLedger against a local stub of the book keeper service
+ * @author tao
+ *
+ */
+public class QuotaLedgerTest extends MCTestCase {
+    private static final String SUBJECT = "CN=membership-test,DC=dataone,DC=org";
+    private static final String REQUESTOR = "http://orcid.org/0000-0000-0000-0000";
+    private HttpServer server = null;
+    private AtomicInteger requests = new AtomicInteger(0);
+    private volatile double remoteTotalUsage = 1;
+    private BookKeeperClient client = null;
+
+    /**
+     * Constructor
+     * @param name  name of method will be tested
+     */
+    public QuotaLedgerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new QuotaLedgerTest("initialize"));
+        suite.addTest(new QuotaLedgerTest("testCachedQuotas"));
+        suite.addTest(new QuotaLedgerTest("testReserve"));
+        suite.addTest(new QuotaLedgerTest("testReconcile"));
+        suite.addTest(new QuotaLedgerTest("testRelease"));
+        return suite;
+    }
+
+    /**
+     * Start the stub of the book keeper service. It returns one portal quota with the hard limit 3.
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/quotas", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                String body = "{\"quotas\":[{\"id\":7,\"object\":\"quota\",\"quotaType\":\"portal\"," +
+                        "\"hardLimit\":3.0,\"totalUsage\":" + remoteTotalUsage + "}]}";
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, bytes.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(bytes);
+                out.close();
+            }
+        });
+        server.start();
+        client = new BookKeeperClient("http://localhost:" + server.getAddress().getPort(), "token");
+    }
+
+    /**
+     * Stop the stub
+     */
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Run an initial test that always passes to check that the test harness is
+     * working.
+     */
+    public void initialize() {
+        assertTrue(1 == 1);
+    }
+
+    /**
+     * Test that the quotas are fetched once within the time to live
+     * @throws Exception
+     */
+    public void testCachedQuotas() throws Exception {
+        QuotaLedger ledger = new QuotaLedger(client, 60000, 600000);
+        List<Quota> quotas = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL);
+        assertTrue(quotas.size() == 1);
+        assertTrue(quotas.get(0).getId() == 7);
+        quotas = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL);
+        assertTrue(quotas.size() == 1);
+        assertTrue(requests.get() == 1);
+        //another subject has its own entry
+        ledger.listQuotas("foo", REQUESTOR, QuotaTypeDeterminer.PORTAL);
+        assertTrue(requests.get() == 2);
+        //an expired entry is fetched again
+        ledger.invalidate(7);
+        ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL);
+        assertTrue(requests.get() == 3);
+    }
+
+    /**
+     * Test that the reservations count against the hard limit before they are reported
+     * @throws Exception
+     */
+    public void testReserve() throws Exception {
+        QuotaLedger ledger = new QuotaLedger(client, 60000, 600000);
+        Quota quota = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL).get(0);
+        assertTrue(ledger.getTotalUsage(quota) == 1);
+        assertTrue(ledger.reserve(quota, "urn:uuid:1", 1));
+        assertTrue(ledger.reserve(quota, "urn:uuid:2", 1));
+        assertTrue(ledger.getTotalUsage(quota) == 3);
+        assertFalse(ledger.reserve(quota, "urn:uuid:3", 1));
+        assertTrue(requests.get() == 1);
+    }
+
+    /**
+     * Test that a reported usage is dropped from the pending usages once the quota is fetched again
+     * @throws Exception
+     */
+    public void testReconcile() throws Exception {
+        QuotaLedger ledger = new QuotaLedger(client, 0, 0);
+        Quota quota = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL).get(0);
+        assertTrue(ledger.reserve(quota, "urn:uuid:1", 1));
+        //not reported yet, so the usage stays pending after the quota is fetched again
+        quota = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL).get(0);
+        assertTrue(ledger.getTotalUsage(quota) == 2);
+        //reported, and the remote server counts it now
+        Usage usage = new Usage();
+        usage.setQuotaId(7);
+        usage.setInstanceId("urn:uuid:1");
+        usage.setQuantity(1.0);
+        usage.setStatus(QuotaServiceManager.ACTIVE);
+        ledger.reported(usage);
+        remoteTotalUsage = 2;
+        Thread.sleep(10);
+        quota = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL).get(0);
+        assertTrue(ledger.getTotalUsage(quota) == 2);
+    }
+
+    /**
+     * Test that the reservation of a usage which can't be reported or saved is released
+     * @throws Exception
+     */
+    public void testRelease() throws Exception {
+        QuotaLedger ledger = new QuotaLedger(client, 60000, 600000);
+        Quota quota = ledger.listQuotas(SUBJECT, REQUESTOR, QuotaTypeDeterminer.PORTAL).get(0);
+        assertTrue(ledger.reserve(quota, "urn:uuid:1", 1));
+        assertTrue(ledger.reserve(quota, "urn:uuid:2", 1));
+        assertFalse(ledger.reserve(quota, "urn:uuid:3", 1));
+        Usage usage = new Usage();
+        usage.setQuotaId(7);
+        usage.setInstanceId("urn:uuid:2");
+        usage.setQuantity(1.0);
+        //only a created usage holds a reservation
+        usage.setStatus(QuotaServiceManager.INACTIVE);
+        ledger.release(usage);
+        assertTrue(ledger.getTotalUsage(quota) == 3);
+        usage.setStatus(QuotaServiceManager.ACTIVE);
+        ledger.release(usage);
+        assertTrue(ledger.getTotalUsage(quota) == 2);
+        assertTrue(ledger.reserve(quota, "urn:uuid:3", 1));
+    }
+}
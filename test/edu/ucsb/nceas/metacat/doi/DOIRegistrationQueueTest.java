@@ -0,0 +1,182 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.doi;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v2.SystemMetadata;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the DOIRegistrationQueue class. It uses a local stub 
+ * registrar instead of a real DOI service.
+ */
+public class DOIRegistrationQueueTest extends MCTestCase {
+    private static final long WAIT = 30000;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public DOIRegistrationQueueTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new DOIRegistrationQueueTest("initialize"));
+        suite.addTest(new DOIRegistrationQueueTest("testCoalescing"));
+        suite.addTest(new DOIRegistrationQueueTest("testRetry"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that queuing the same object several times only submits it once
+     * @throws Exception
+     */
+    public void testCoalescing() throws Exception {
+        StubRegistrar registrar = new StubRegistrar(0);
+        DOIRegistrationQueue queue = new StubQueue(registrar);
+        Identifier pid = new Identifier();
+        pid.setValue("testCoalescing." + System.currentTimeMillis());
+        queue.enqueue(pid);
+        queue.enqueue(pid);
+        queue.enqueue(pid);
+        try {
+            queue.start();
+            waitFor(registrar, pid.getValue(), 1);
+            Thread.sleep(1000);
+            assertEquals(1, registrar.getCalls(pid.getValue()));
+            assertTrue(queue.getStatus().get("registered") >= 1);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Test that a failed registration is retried until it succeeds
+     * @throws Exception
+     */
+    public void testRetry() throws Exception {
+        StubRegistrar registrar = new StubRegistrar(2);
+        DOIRegistrationQueue queue = new StubQueue(registrar);
+        Identifier pid = new Identifier();
+        pid.setValue("testRetry." + System.currentTimeMillis());
+        queue.enqueue(pid);
+        try {
+            queue.start();
+            waitFor(registrar, pid.getValue(), 3);
+            assertEquals(3, registrar.getCalls(pid.getValue()));
+            Map<String, Long> status = queue.getStatus();
+            assertTrue(status.get("retried") >= 2);
+            assertTrue(status.get("registered") >= 1);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /*
+     * Wait until the registrar was called the given times for the pid
+     */
+    private void waitFor(StubRegistrar registrar, String pid, int calls) throws InterruptedException {
+        long end = System.currentTimeMillis() + WAIT;
+        while (registrar.getCalls(pid) < calls && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+        }
+    }
+
+    /*
+     * A queue which doesn't need the objects to exist and retries right away
+     */
+    private static class StubQueue extends DOIRegistrationQueue {
+        private StubQueue(DOIService registrar) {
+            super(registrar);
+        }
+
+        @Override
+        protected SystemMetadata getSystemMetadata(Identifier pid) {
+            SystemMetadata sysMeta = new SystemMetadata();
+            sysMeta.setIdentifier(pid);
+            return sysMeta;
+        }
+
+        @Override
+        protected long getBackoff(int attempts) {
+            return 10;
+        }
+    }
+
+    /*
+     * A registrar which fails the first calls of each object and counts the calls
+     */
+    private static class StubRegistrar implements DOIService {
+        private int failures = 0;
+        private Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private StubRegistrar(int failures) {
+            this.failures = failures;
+        }
+
+        private int getCalls(String pid) {
+            AtomicInteger count = calls.get(pid);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public boolean registerDOI(SystemMetadata sysMeta) throws DOIException {
+            String pid = sysMeta.getIdentifier().getValue();
+            calls.putIfAbsent(pid, new AtomicInteger(0));
+            if (calls.get(pid).incrementAndGet() <= failures) {
+                throw new DOIException("the stub registrar fails on purpose");
+            }
+            return true;
+        }
+
+        @Override
+        public Identifier generateDOI() throws DOIException, InvalidRequest {
+            throw new DOIException("the stub registrar doesn't mint DOIs");
+        }
+
+        @Override
+        public void refreshStatus() {
+        }
+    }
+}
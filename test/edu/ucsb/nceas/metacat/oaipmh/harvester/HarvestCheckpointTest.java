@@ -0,0 +1,167 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.oaipmh.harvester;
+
+import java.io.File;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the HarvestCheckpoint class
+ */
+public class HarvestCheckpointTest extends MCTestCase {
+    private static final String BASE_URL = "http://localhost/oai";
+    private File file = null;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public HarvestCheckpointTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new HarvestCheckpointTest("initialize"));
+        suite.addTest(new HarvestCheckpointTest("testResume"));
+        suite.addTest(new HarvestCheckpointTest("testPagesFinishingOutOfOrder"));
+        suite.addTest(new HarvestCheckpointTest("testOtherOptions"));
+        suite.addTest(new HarvestCheckpointTest("testCompleteHarvest"));
+        suite.addTest(new HarvestCheckpointTest("testNoFile"));
+        return suite;
+    }
+
+    /**
+     * Get a file name for the checkpoint
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("HarvestCheckpointTest", ".properties");
+        file.delete();
+    }
+
+    /**
+     * Remove the checkpoint
+     */
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that a harvest with the same options resumes from the token of the last page
+     * which was completely processed
+     * @throws Exception
+     */
+    public void testResume() throws Exception {
+        HarvestCheckpoint checkpoint = createCheckpoint("oai_dc");
+        assertNull(checkpoint.load());
+        HarvestCheckpoint.Page page = checkpoint.startPage();
+        checkpoint.recordStarted(page);
+        checkpoint.finishParsing(page, "token1");
+        // a record of the page is still being inserted
+        assertFalse(file.exists());
+        checkpoint.recordDone(page);
+        assertTrue(file.exists());
+        assertEquals("token1", createCheckpoint("oai_dc").load());
+    }
+
+    /**
+     * Test that a page which is done before an earlier one doesn't move the checkpoint
+     * past the earlier one
+     * @throws Exception
+     */
+    public void testPagesFinishingOutOfOrder() throws Exception {
+        HarvestCheckpoint checkpoint = createCheckpoint("oai_dc");
+        HarvestCheckpoint.Page first = checkpoint.startPage();
+        checkpoint.recordStarted(first);
+        checkpoint.finishParsing(first, "token1");
+        HarvestCheckpoint.Page second = checkpoint.startPage();
+        checkpoint.recordStarted(second);
+        checkpoint.finishParsing(second, "token2");
+        checkpoint.recordDone(second);
+        assertNull(createCheckpoint("oai_dc").load());
+        checkpoint.recordDone(first);
+        assertEquals("token2", createCheckpoint("oai_dc").load());
+    }
+
+    /**
+     * Test that the checkpoint of a harvest with other options is ignored
+     * @throws Exception
+     */
+    public void testOtherOptions() throws Exception {
+        HarvestCheckpoint checkpoint = createCheckpoint("oai_dc");
+        HarvestCheckpoint.Page page = checkpoint.startPage();
+        checkpoint.finishParsing(page, "token1");
+        assertEquals("token1", createCheckpoint("oai_dc").load());
+        assertNull(createCheckpoint("eml").load());
+        assertNull(new HarvestCheckpoint(file, BASE_URL, "2020-01-01", null, "oai_dc", null).load());
+    }
+
+    /**
+     * Test that the checkpoint is removed when the last page is done
+     * @throws Exception
+     */
+    public void testCompleteHarvest() throws Exception {
+        HarvestCheckpoint checkpoint = createCheckpoint("oai_dc");
+        HarvestCheckpoint.Page first = checkpoint.startPage();
+        checkpoint.finishParsing(first, "token1");
+        assertTrue(file.exists());
+        HarvestCheckpoint.Page last = checkpoint.startPage();
+        checkpoint.recordStarted(last);
+        checkpoint.finishParsing(last, "");
+        assertTrue(file.exists());
+        checkpoint.recordDone(last);
+        assertFalse(file.exists());
+    }
+
+    /**
+     * Test that nothing is saved without a file
+     * @throws Exception
+     */
+    public void testNoFile() throws Exception {
+        HarvestCheckpoint checkpoint = new HarvestCheckpoint(null, BASE_URL, null, null, "oai_dc", null);
+        assertNull(checkpoint.load());
+        HarvestCheckpoint.Page page = checkpoint.startPage();
+        checkpoint.finishParsing(page, "token1");
+        assertNull(checkpoint.load());
+    }
+
+    private HarvestCheckpoint createCheckpoint(String metadataPrefix) {
+        return new HarvestCheckpoint(file, BASE_URL, null, null, metadataPrefix, null);
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.oaipmh.harvester;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the ListRecordsStream class. The pages are read from strings
+ * instead of a data provider.
+ */
+public class ListRecordsStreamTest extends MCTestCase {
+    private static final String EML_NAMESPACE = "eml://ecoinformatics.org/eml-2.1.0";
+    private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public ListRecordsStreamTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new ListRecordsStreamTest("initialize"));
+        suite.addTest(new ListRecordsStreamTest("testRecords"));
+        suite.addTest(new ListRecordsStreamTest("testNamespaceRepair"));
+        suite.addTest(new ListRecordsStreamTest("testLastPage"));
+        suite.addTest(new ListRecordsStreamTest("testErrors"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the headers of the records, the deleted status and the resumption token are read
+     * @throws Exception
+     */
+    public void testRecords() throws Exception {
+        ListRecordsStream page = open(
+              record("urn:lsid:knb.ecoinformatics.org:test:1", "2020-01-01", "<eml:eml packageId=\"test.1\"/>")
+            + "<record><header status=\"deleted\"><identifier>urn:lsid:knb.ecoinformatics.org:test:2</identifier>"
+            + "<datestamp>2020-01-02</datestamp></header></record>"
+            + "<resumptionToken cursor=\"0\" completeListSize=\"3\">token1</resumptionToken>");
+        ListRecordsStream.Record record = page.nextRecord();
+        assertEquals("urn:lsid:knb.ecoinformatics.org:test:1", record.getIdentifier());
+        assertEquals("2020-01-01", record.getDatestamp());
+        assertFalse(record.isDeleted());
+        assertNotNull(record.getMetadata());
+        // the resumption token comes after the records
+        assertNull(page.getResumptionToken());
+        record = page.nextRecord();
+        assertEquals("urn:lsid:knb.ecoinformatics.org:test:2", record.getIdentifier());
+        assertTrue(record.isDeleted());
+        assertNull(record.getMetadata());
+        assertNull(page.nextRecord());
+        assertEquals("token1", page.getResumptionToken());
+        assertTrue(page.getErrors().isEmpty());
+        // a closed page has no more records
+        assertNull(page.nextRecord());
+    }
+
+    /**
+     * Test that the metadata is a document of its own even though its prefixes are declared
+     * on the root element of the response
+     * @throws Exception
+     */
+    public void testNamespaceRepair() throws Exception {
+        ListRecordsStream page = open(record("urn:lsid:knb.ecoinformatics.org:test:1", "2020-01-01",
+            "<eml:eml packageId=\"test.1\" xsi:schemaLocation=\"" + EML_NAMESPACE + " eml.xsd\">"
+            + "<dataset xmlns=\"\"><title>A title</title></dataset></eml:eml>"));
+        String metadata = page.nextRecord().getMetadata();
+        assertTrue(metadata.startsWith("<?xml"));
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document document = builder.parse(new InputSource(new StringReader(metadata)));
+        Element root = document.getDocumentElement();
+        assertEquals(EML_NAMESPACE, root.getNamespaceURI());
+        assertEquals("eml", root.getLocalName());
+        assertEquals("test.1", root.getAttribute("packageId"));
+        assertEquals(EML_NAMESPACE + " eml.xsd", root.getAttributeNS(XSI_NAMESPACE, "schemaLocation"));
+        Element dataset = (Element) root.getElementsByTagNameNS("*", "dataset").item(0);
+        assertNull(dataset.getNamespaceURI());
+        assertEquals("A title", dataset.getTextContent());
+        assertEquals(-1, metadata.indexOf(ListRecordsStream.OAI_NAMESPACE));
+    }
+
+    /**
+     * Test that the empty resumption token of the last page is kept
+     * @throws Exception
+     */
+    public void testLastPage() throws Exception {
+        ListRecordsStream page = open(record("urn:lsid:knb.ecoinformatics.org:test:1", "2020-01-01", "<eml:eml/>")
+                                      + "<resumptionToken cursor=\"1\"/>");
+        assertNotNull(page.nextRecord());
+        assertNull(page.nextRecord());
+        assertEquals("", page.getResumptionToken());
+    }
+
+    /**
+     * Test that the OAI errors are reported
+     * @throws Exception
+     */
+    public void testErrors() throws Exception {
+        String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<OAI-PMH xmlns=\"" + ListRecordsStream.OAI_NAMESPACE + "\">"
+            + "<request verb=\"ListRecords\">http://localhost/oai</request>"
+            + "<error code=\"noRecordsMatch\">No records match the request</error></OAI-PMH>";
+        ListRecordsStream page = new ListRecordsStream("http://localhost/oai", new ByteArrayInputStream(response.getBytes("UTF-8")));
+        assertNull(page.nextRecord());
+        assertEquals(1, page.getErrors().size());
+        assertEquals("noRecordsMatch: No records match the request", page.getErrors().get(0));
+        assertNull(page.getResumptionToken());
+    }
+
+    /*
+     * Open a ListRecords response with the given content, whose root element declares the
+     * eml and xsi prefixes
+     */
+    private ListRecordsStream open(String content) throws Exception {
+        String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<OAI-PMH xmlns=\"" + ListRecordsStream.OAI_NAMESPACE + "\" xmlns:xsi=\"" + XSI_NAMESPACE
+            + "\" xmlns:eml=\"" + EML_NAMESPACE + "\"><responseDate>2020-01-03T00:00:00Z</responseDate>"
+            + "<request verb=\"ListRecords\">http://localhost/oai</request><ListRecords>"
+            + content + "</ListRecords></OAI-PMH>";
+        return new ListRecordsStream("http://localhost/oai", new ByteArrayInputStream(response.getBytes("UTF-8")));
+    }
+
+    /*
+     * A record with the given header and metadata
+     */
+    private static String record(String identifier, String datestamp, String metadata) {
+        return "<record><header><identifier>" + identifier + "</identifier><datestamp>" + datestamp
+               + "</datestamp><setSpec>test</setSpec></header><metadata>" + metadata + "</metadata></record>";
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.oaipmh.harvester;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.client.Metacat;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for processing the harvested records in the OaipmhHarvester class.
+ * The documents go to a mocked Metacat client, which remembers the revisions written.
+ */
+public class OaipmhHarvesterTest extends MCTestCase {
+    private static final String PRINCIPAL = "uid=harvester,o=NCEAS,dc=ecoinformatics,dc=org";
+    private Metacat client = null;
+    // the docids with revision and the documents in the order they were written
+    private List<String[]> written = null;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public OaipmhHarvesterTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new OaipmhHarvesterTest("initialize"));
+        suite.addTest(new OaipmhHarvesterTest("testRevisions"));
+        suite.addTest(new OaipmhHarvesterTest("testConcurrentRevisions"));
+        return suite;
+    }
+
+    /**
+     * Start with an empty catalog and a client which records the documents
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        OaipmhHarvester.clearMetacatCatalog();
+        written = Collections.synchronizedList(new ArrayList<String[]>());
+        Answer<String> write = new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                written.add(new String[] {(String) args[0], IOUtils.toString((Reader) args[1])});
+                return null;
+            }
+        };
+        client = Mockito.mock(Metacat.class);
+        Mockito.when(client.insert(Mockito.anyString(), Mockito.any(Reader.class), Mockito.any(Reader.class))).thenAnswer(write);
+        Mockito.when(client.update(Mockito.anyString(), Mockito.any(Reader.class), Mockito.any(Reader.class))).thenAnswer(write);
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the revisions of a document are inserted and updated with the next revisions,
+     * an older one is skipped and a deleted record deletes the document
+     * @throws Exception
+     */
+    public void testRevisions() throws Exception {
+        List<ListRecordsStream.Record> records = readRecords(
+              record("test", 1, "2020-01-01", "first")
+            + record("test", 1, "2020-02-01", "second")
+            + record("test", 1, "2020-01-15", "older")
+            + "<record><header status=\"deleted\"><identifier>urn:lsid:knb.ecoinformatics.org:test:1</identifier>"
+            + "<datestamp>2020-03-01</datestamp></header></record>");
+        OaipmhHarvester.processRecord(records.get(0), client, PRINCIPAL);
+        Mockito.verify(client).insert(Mockito.eq("test.1.1"), Mockito.any(Reader.class), Mockito.any(Reader.class));
+        Mockito.verify(client).setAccess("test.1", PRINCIPAL, "all", "allow", "allowFirst");
+        Mockito.verify(client).setAccess("test.1", "public", "read", "allow", "allowFirst");
+        OaipmhHarvester.processRecord(records.get(1), client, PRINCIPAL);
+        Mockito.verify(client).update(Mockito.eq("test.1.2"), Mockito.any(Reader.class), Mockito.any(Reader.class));
+        OaipmhHarvester.processRecord(records.get(2), client, PRINCIPAL);
+        assertEquals(2, written.size());
+        assertTrue(written.get(1)[1].contains("second"));
+        OaipmhHarvester.processRecord(records.get(3), client, PRINCIPAL);
+        Mockito.verify(client).delete("test.1");
+        // the document is harvested again from the start after it was deleted
+        OaipmhHarvester.processRecord(records.get(1), client, PRINCIPAL);
+        assertEquals("test.1.1", written.get(2)[0]);
+    }
+
+    /**
+     * Test that the revisions of the same documents processed by several threads at once
+     * never write the same revision twice, and the newest revision is written last
+     * @throws Exception
+     */
+    public void testConcurrentRevisions() throws Exception {
+        int documents = 20;
+        int revisions = 5;
+        StringBuffer content = new StringBuffer();
+        for (int revision = 1; revision <= revisions; revision++) {
+            for (int document = 1; document <= documents; document++) {
+                content.append(record("test", document, "2020-01-0" + revision, "revision " + revision));
+            }
+        }
+        List<ListRecordsStream.Record> records = readRecords(content.toString());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (final ListRecordsStream.Record record : records) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    OaipmhHarvester.processRecord(record, client, PRINCIPAL);
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+        Map<String, Integer> lastRevisions = new HashMap<String, Integer>();
+        Map<String, String> lastDocuments = new HashMap<String, String>();
+        for (String[] document : written) {
+            String docid = document[0].substring(0, document[0].lastIndexOf('.'));
+            int revision = Integer.parseInt(document[0].substring(document[0].lastIndexOf('.') + 1));
+            // every revision follows the one written before it
+            Integer lastRevision = lastRevisions.get(docid);
+            assertEquals(lastRevision == null ? 1 : lastRevision.intValue() + 1, revision);
+            lastRevisions.put(docid, revision);
+            lastDocuments.put(docid, document[1]);
+        }
+        assertEquals(documents, lastDocuments.size());
+        for (String lastDocument : lastDocuments.values()) {
+            assertTrue(lastDocument.contains("revision " + revisions));
+        }
+    }
+
+    /*
+     * Read the records of a ListRecords page with the given content
+     */
+    private List<ListRecordsStream.Record> readRecords(String content) throws Exception {
+        String response = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<OAI-PMH xmlns=\"" + ListRecordsStream.OAI_NAMESPACE + "\"><ListRecords>"
+            + content + "</ListRecords></OAI-PMH>";
+        ListRecordsStream page = new ListRecordsStream("http://localhost/oai", new ByteArrayInputStream(response.getBytes("UTF-8")));
+        List<ListRecordsStream.Record> records = new ArrayList<ListRecordsStream.Record>();
+        ListRecordsStream.Record record = null;
+        while ((record = page.nextRecord()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    /*
+     * A record of a document whose LSID has the given scope and identifier
+     */
+    private static String record(String scope, int identifier, String datestamp, String title) {
+        return "<record><header><identifier>urn:lsid:knb.ecoinformatics.org:" + scope + ":" + identifier
+               + "</identifier><datestamp>" + datestamp + "</datestamp></header><metadata>"
+               + "<dataset xmlns=\"\"><title>" + title + "</title></dataset></metadata></record>";
+    }
+}
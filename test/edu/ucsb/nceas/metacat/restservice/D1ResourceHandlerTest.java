@@ -0,0 +1,197 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.restservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.FileUtils;
+import org.mockito.Mockito;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.storage.StoredFileInputStream;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the writeObject method of the D1ResourceHandler, which sends the
+ * bytes of the get and getReplica calls
+ */
+public class D1ResourceHandlerTest extends MCTestCase {
+    private static final String CONTENT = "the bytes of a data object";
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String ZERO_COPY = "dataone.get.zeroCopy";
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ByteArrayOutputStream body;
+    private File file;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public D1ResourceHandlerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new D1ResourceHandlerTest("initialize"));
+        suite.addTest(new D1ResourceHandlerTest("testSendfile"));
+        suite.addTest(new D1ResourceHandlerTest("testCopyWithoutSendfile"));
+        suite.addTest(new D1ResourceHandlerTest("testWrongSizeInSystemMetadata"));
+        suite.addTest(new D1ResourceHandlerTest("testZeroCopyDisabled"));
+        suite.addTest(new D1ResourceHandlerTest("testStreamWhichIsNotAFile"));
+        return suite;
+    }
+
+    /**
+     * Create the file and the mocked request and response
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("D1ResourceHandlerTest", ".bin");
+        FileUtils.writeStringToFile(file, CONTENT, "UTF-8");
+        body = new ByteArrayOutputStream();
+        request = Mockito.mock(HttpServletRequest.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        PropertyService.setPropertyNoPersist(ZERO_COPY, "true");
+    }
+
+    /**
+     * Delete the file and restore the switch
+     */
+    public void tearDown() throws Exception {
+        PropertyService.setPropertyNoPersist(ZERO_COPY, "true");
+        file.delete();
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that a stored file is handed to the sendfile support of the connector and nothing is written
+     * @throws Exception
+     */
+    public void testSendfile() throws Exception {
+        Mockito.when(request.getAttribute(SENDFILE_SUPPORT)).thenReturn(Boolean.TRUE);
+        createHandler().writeObject(new StoredFileInputStream(file), BigInteger.valueOf(file.length()));
+        Mockito.verify(request).setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+        Mockito.verify(request).setAttribute(SENDFILE_START, Long.valueOf(0));
+        Mockito.verify(request).setAttribute(SENDFILE_END, Long.valueOf(file.length()));
+        Mockito.verify(response).setHeader("Content-Length", Long.toString(file.length()));
+        assertEquals(0, body.size());
+    }
+
+    /**
+     * Test that a file is copied to the response if the connector has no sendfile support
+     * @throws Exception
+     */
+    public void testCopyWithoutSendfile() throws Exception {
+        createHandler().writeObject(new StoredFileInputStream(file), BigInteger.valueOf(file.length()));
+        Mockito.verify(request, Mockito.never()).setAttribute(Mockito.eq(SENDFILE_FILENAME), Mockito.any());
+        Mockito.verify(response).setHeader("Content-Length", Long.toString(file.length()));
+        assertEquals(CONTENT, body.toString("UTF-8"));
+    }
+
+    /**
+     * Test that the Content-Length is the length of the file if the system metadata gives another size
+     * @throws Exception
+     */
+    public void testWrongSizeInSystemMetadata() throws Exception {
+        Mockito.when(request.getAttribute(SENDFILE_SUPPORT)).thenReturn(Boolean.TRUE);
+        createHandler().writeObject(new StoredFileInputStream(file), BigInteger.valueOf(file.length() + 10));
+        Mockito.verify(response).setHeader("Content-Length", Long.toString(file.length()));
+        Mockito.verify(request).setAttribute(SENDFILE_END, Long.valueOf(file.length()));
+    }
+
+    /**
+     * Test that the file is copied and sendfile isn't used when dataone.get.zeroCopy is false
+     * @throws Exception
+     */
+    public void testZeroCopyDisabled() throws Exception {
+        PropertyService.setPropertyNoPersist(ZERO_COPY, "false");
+        Mockito.when(request.getAttribute(SENDFILE_SUPPORT)).thenReturn(Boolean.TRUE);
+        createHandler().writeObject(new StoredFileInputStream(file), BigInteger.valueOf(file.length()));
+        Mockito.verify(request, Mockito.never()).setAttribute(Mockito.eq(SENDFILE_FILENAME), Mockito.any());
+        assertEquals(CONTENT, body.toString("UTF-8"));
+    }
+
+    /**
+     * Test that the streams which are not files, such as a plain file stream without a known
+     * file or the bytes of a document, are copied
+     * @throws Exception
+     */
+    public void testStreamWhichIsNotAFile() throws Exception {
+        Mockito.when(request.getAttribute(SENDFILE_SUPPORT)).thenReturn(Boolean.TRUE);
+        createHandler().writeObject(new ByteArrayInputStream(CONTENT.getBytes("UTF-8")), null);
+        Mockito.verify(request, Mockito.never()).setAttribute(Mockito.eq(SENDFILE_FILENAME), Mockito.any());
+        assertEquals(CONTENT, body.toString("UTF-8"));
+        body.reset();
+        // a plain file stream may not be one of the stored files, so it isn't handed to the connector
+        createHandler().writeObject(new FileInputStream(file), null);
+        Mockito.verify(request, Mockito.never()).setAttribute(Mockito.eq(SENDFILE_FILENAME), Mockito.any());
+        assertEquals(CONTENT, body.toString("UTF-8"));
+    }
+
+    private D1ResourceHandler createHandler() {
+        return new D1ResourceHandler(null, request, response);
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.restservice.multipart;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v1.SystemMetadata;
+import org.dataone.service.util.TypeMarshaller;
+import org.mockito.Mockito;
+
+import edu.ucsb.nceas.metacat.dataone.D1NodeServiceTest;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * Junit test class for the class BatchMultipartRequestResolver
+ */
+public class BatchMultipartRequestResolverTest extends D1NodeServiceTest {
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public BatchMultipartRequestResolverTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new BatchMultipartRequestResolverTest("initialize"));
+        suite.addTest(new BatchMultipartRequestResolverTest("testResolveMultipart"));
+        suite.addTest(new BatchMultipartRequestResolverTest("testObjectBeforeSystemMetadata"));
+        suite.addTest(new BatchMultipartRequestResolverTest("testOtherParts"));
+        suite.addTest(new BatchMultipartRequestResolverTest("testNotMultipart"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the parts are mapped by their keys in the order of the request and the checksums
+     * of the objects following their system metadata are calculated while they are streamed
+     * @throws Exception
+     */
+    public void testResolveMultipart() throws Exception {
+        Session session = getTestSession();
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        SystemMetadata[] sysmetas = new SystemMetadata[3];
+        for (int i = 0; i < sysmetas.length; i++) {
+            Identifier pid = new Identifier();
+            pid.setValue("testResolveMultipart" + i + "." + System.currentTimeMillis());
+            byte[] content = ("the object " + i).getBytes("UTF-8");
+            sysmetas[i] = createSystemMetadata(pid, session.getSubject(), new ByteArrayInputStream(content));
+            builder.addPart(BatchMultipartRequestResolver.SYSMETA_PREFIX + "key" + i, new ByteArrayBody(toBytes(sysmetas[i]), "sysmeta.xml"));
+            builder.addPart(BatchMultipartRequestResolver.OBJECT_PREFIX + "key" + i, new ByteArrayBody(content, "object" + i));
+        }
+        BatchMultipartRequest result = resolve(builder.build());
+
+        Map<String, File> files = result.getMultipartFiles();
+        Map<String, SystemMetadata> parsed = result.getSystemMetadataParts();
+        assertEquals(sysmetas.length, files.size());
+        assertEquals(sysmetas.length, parsed.size());
+        assertEquals("key0", new ArrayList<String>(files.keySet()).get(0));
+        assertEquals("key2", new ArrayList<String>(parsed.keySet()).get(2));
+        for (int i = 0; i < sysmetas.length; i++) {
+            String key = "key" + i;
+            assertEquals(sysmetas[i].getIdentifier(), parsed.get(key).getIdentifier());
+            CheckedFile file = (CheckedFile) files.get(key);
+            assertEquals("the object " + i, FileUtils.readFileToString(file, "UTF-8"));
+            assertEquals(sysmetas[i].getChecksum().getAlgorithm(), file.getChecksum().getAlgorithm());
+            assertTrue(file.getChecksum().getValue().equalsIgnoreCase(sysmetas[i].getChecksum().getValue()));
+            StreamingMultipartRequestResolver.deleteTempFile(file);
+        }
+    }
+
+    /**
+     * Test that an object coming before its system metadata is saved without a checksum
+     * @throws Exception
+     */
+    public void testObjectBeforeSystemMetadata() throws Exception {
+        Identifier pid = new Identifier();
+        pid.setValue("testObjectBeforeSystemMetadata." + System.currentTimeMillis());
+        byte[] content = "the object".getBytes("UTF-8");
+        SystemMetadata sysmeta = createSystemMetadata(pid, getTestSession().getSubject(), new ByteArrayInputStream(content));
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        builder.addPart(BatchMultipartRequestResolver.OBJECT_PREFIX + "key", new ByteArrayBody(content, "object"));
+        builder.addPart(BatchMultipartRequestResolver.SYSMETA_PREFIX + "key", new ByteArrayBody(toBytes(sysmeta), "sysmeta.xml"));
+        BatchMultipartRequest result = resolve(builder.build());
+
+        CheckedFile file = (CheckedFile) result.getMultipartFiles().get("key");
+        assertNull(file.getChecksum());
+        assertEquals("the object", FileUtils.readFileToString(file, "UTF-8"));
+        assertEquals(pid, result.getSystemMetadataParts().get("key").getIdentifier());
+        StreamingMultipartRequestResolver.deleteTempFile(file);
+    }
+
+    /**
+     * Test that the form fields are kept as parameters and the other file parts are ignored
+     * @throws Exception
+     */
+    public void testOtherParts() throws Exception {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        builder.addPart("comment", new StringBody("a batch", ContentType.MULTIPART_FORM_DATA));
+        builder.addPart("foo", new ByteArrayBody("neither sysmeta nor object".getBytes("UTF-8"), "foo"));
+        BatchMultipartRequest result = resolve(builder.build());
+        assertEquals("a batch", result.getMultipartParameters().get("comment").get(0));
+        assertTrue(result.getMultipartFiles().isEmpty());
+        assertTrue(result.getSystemMetadataParts().isEmpty());
+    }
+
+    /**
+     * Test that a request which isn't a multipart one has no parts
+     * @throws Exception
+     */
+    public void testNotMultipart() throws Exception {
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("post");
+        Mockito.when(request.getContentType()).thenReturn("text/plain");
+        BatchMultipartRequestResolver resolver = new BatchMultipartRequestResolver("build", 10000000);
+        BatchMultipartRequest result = (BatchMultipartRequest) resolver.resolveMultipart(request);
+        assertTrue(result.getMultipartFiles().isEmpty());
+        assertTrue(result.getSystemMetadataParts().isEmpty());
+    }
+
+    private byte[] toBytes(SystemMetadata sysmeta) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TypeMarshaller.marshalTypeToOutputStream(sysmeta, output);
+        return output.toByteArray();
+    }
+
+    private BatchMultipartRequest resolve(HttpEntity entity) throws Exception {
+        ByteArrayOutputStream requestContent = new ByteArrayOutputStream();
+        entity.writeTo(requestContent);
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("post");
+        Mockito.when(request.getContentType()).thenReturn(entity.getContentType().getValue());
+        Mockito.when(request.getInputStream()).thenReturn(new WrappingServletInputStream(new ByteArrayInputStream(requestContent.toByteArray())));
+        BatchMultipartRequestResolver resolver = new BatchMultipartRequestResolver("build", 10000000);
+        return (BatchMultipartRequest) resolver.resolveMultipart(request);
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.restservice.v2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.dataone.service.exceptions.InvalidRequest;
+import org.dataone.service.types.v1.Identifier;
+import org.dataone.service.types.v1.Session;
+import org.dataone.service.types.v2.SystemMetadata;
+import org.dataone.service.util.TypeMarshaller;
+import org.mockito.Mockito;
+
+import edu.ucsb.nceas.metacat.dataone.D1NodeServiceTest;
+import edu.ucsb.nceas.metacat.dataone.MNodeService;
+import edu.ucsb.nceas.metacat.restservice.multipart.BatchMultipartRequestResolver;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the batch endpoint of the MNResourceHandler
+ */
+public class MNResourceHandlerTest extends D1NodeServiceTest {
+
+    private ByteArrayOutputStream body;
+    private HttpServletResponse response;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public MNResourceHandlerTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new MNResourceHandlerTest("initialize"));
+        suite.addTest(new MNResourceHandlerTest("testBatchObjects"));
+        suite.addTest(new MNResourceHandlerTest("testEmptyBatch"));
+        return suite;
+    }
+
+    /**
+     * Create the mocked response
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        body = new ByteArrayOutputStream();
+        response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the objects of a batch are created and the result of every object is reported
+     * @throws Exception
+     */
+    public void testBatchObjects() throws Exception {
+        Session session = getTestSession();
+        Identifier created = new Identifier();
+        created.setValue("testBatchObjects.created." + System.currentTimeMillis());
+        Identifier failed = new Identifier();
+        failed.setValue("testBatchObjects.failed." + System.currentTimeMillis());
+        byte[] content = "the object".getBytes("UTF-8");
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        builder.addPart(BatchMultipartRequestResolver.SYSMETA_PREFIX + "created",
+                        new ByteArrayBody(toBytes(createSystemMetadata(created, session.getSubject(), new ByteArrayInputStream(content))), "sysmeta.xml"));
+        builder.addPart(BatchMultipartRequestResolver.OBJECT_PREFIX + "created", new ByteArrayBody(content, "object"));
+        // the object part is missing
+        builder.addPart(BatchMultipartRequestResolver.SYSMETA_PREFIX + "failed",
+                        new ByteArrayBody(toBytes(createSystemMetadata(failed, session.getSubject(), new ByteArrayInputStream(content))), "sysmeta.xml"));
+        createHandler(builder.build(), session).batchObjects();
+
+        Mockito.verify(response).setStatus(200);
+        String results = body.toString("UTF-8");
+        assertTrue(results.contains("<batchResults total=\"2\" succeeded=\"1\" failed=\"1\">"));
+        assertTrue(results.contains("<object key=\"created\" pid=\"" + created.getValue() + "\" status=\"created\"/>"));
+        assertTrue(results.contains("<object key=\"failed\" pid=\"" + failed.getValue() + "\" status=\"failed\">"));
+        assertTrue(results.contains("<error name=\"InvalidRequest\" errorCode=\"400\" detailCode=\"1102\">"));
+        InputStream object = MNodeService.getInstance(request).get(session, created);
+        try {
+            assertEquals("the object", IOUtils.toString(object, "UTF-8"));
+        } finally {
+            object.close();
+        }
+    }
+
+    /**
+     * Test that a batch without any object is rejected
+     * @throws Exception
+     */
+    public void testEmptyBatch() throws Exception {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
+        builder.addPart("comment", new StringBody("an empty batch", ContentType.MULTIPART_FORM_DATA));
+        try {
+            createHandler(builder.build(), getTestSession()).batchObjects();
+            fail("a batch without objects should be rejected");
+        } catch (InvalidRequest e) {
+            assertEquals("1102", e.getDetail_code());
+            assertEquals(0, body.size());
+        }
+    }
+
+    private byte[] toBytes(SystemMetadata sysmeta) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        TypeMarshaller.marshalTypeToOutputStream(sysmeta, output);
+        return output.toByteArray();
+    }
+
+    /*
+     * Create a handler of the multipart request carrying the given parts
+     */
+    private MNResourceHandler createHandler(HttpEntity entity, Session session) throws Exception {
+        ByteArrayOutputStream requestContent = new ByteArrayOutputStream();
+        entity.writeTo(requestContent);
+        final ByteArrayInputStream input = new ByteArrayInputStream(requestContent.toByteArray());
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("post");
+        Mockito.when(request.getContentType()).thenReturn(entity.getContentType().getValue());
+        Mockito.when(request.getRemoteAddr()).thenReturn("127.0.0.1");
+        Mockito.when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return input.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+        });
+        return new SessionHandler(request, response, session);
+    }
+
+    /*
+     * A handler whose session is already set, as the handle method would do
+     */
+    private static class SessionHandler extends MNResourceHandler {
+        SessionHandler(HttpServletRequest request, HttpServletResponse response, Session session) {
+            super(null, request, response);
+            this.session = session;
+        }
+    }
+}
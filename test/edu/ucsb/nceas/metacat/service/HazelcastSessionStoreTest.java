@@ -0,0 +1,166 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.service;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.properties.PropertyService;
+import edu.ucsb.nceas.metacat.util.SessionData;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the HazelcastSessionStore class. The sessions are kept in
+ * the Hazelcast instance of the HazelcastService.
+ */
+public class HazelcastSessionStoreTest extends MCTestCase {
+    private static final String TOUCH_INTERVAL = "session.hazelcast.touchInterval";
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public HazelcastSessionStoreTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new HazelcastSessionStoreTest("initialize"));
+        suite.addTest(new HazelcastSessionStoreTest("testPutGetRemove"));
+        suite.addTest(new HazelcastSessionStoreTest("testSharedBetweenStores"));
+        suite.addTest(new HazelcastSessionStoreTest("testTouchInterval"));
+        suite.addTest(new HazelcastSessionStoreTest("testExpiration"));
+        suite.addTest(new HazelcastSessionStoreTest("testUnRegisterAllSessionsKeepsSharedSessions"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test registering, reading and removing a session
+     * @throws Exception
+     */
+    public void testPutGetRemove() throws Exception {
+        HazelcastSessionStore store = new HazelcastSessionStore();
+        store.setTimeout(60000);
+        String id = "testPutGetRemove." + System.currentTimeMillis();
+        store.put(new SessionData(id, "uid=test", new String[] {"cn=group"}, "password", "Test User"));
+        SessionData session = store.get(id);
+        assertNotNull(session);
+        assertEquals("uid=test", session.getUserName());
+        assertEquals("cn=group", session.getGroupNames()[0]);
+        assertTrue(store.getSessionIds().contains(id));
+        assertTrue(store.isShared());
+        store.remove(id);
+        assertNull(store.get(id));
+        assertFalse(store.getSessionIds().contains(id));
+    }
+
+    /**
+     * Test that a session registered through one store is seen and removed through another,
+     * as it would be by another Metacat instance of the cluster
+     * @throws Exception
+     */
+    public void testSharedBetweenStores() throws Exception {
+        HazelcastSessionStore store1 = new HazelcastSessionStore();
+        HazelcastSessionStore store2 = new HazelcastSessionStore();
+        store1.setTimeout(60000);
+        store2.setTimeout(60000);
+        String id = "testSharedBetweenStores." + System.currentTimeMillis();
+        store1.put(new SessionData(id, "uid=test", null, "password", "Test User"));
+        assertNotNull(store2.get(id));
+        store2.remove(id);
+        assertNull(store1.get(id));
+    }
+
+    /**
+     * Test that touching a session only writes it to the cluster once the saved last
+     * accessed time is older than the touch interval
+     * @throws Exception
+     */
+    public void testTouchInterval() throws Exception {
+        String originalInterval = PropertyService.getProperty(TOUCH_INTERVAL);
+        PropertyService.setPropertyNoPersist(TOUCH_INTERVAL, "300");
+        try {
+            HazelcastSessionStore store = new HazelcastSessionStore();
+            store.setTimeout(60000);
+            String id = "testTouchInterval." + System.currentTimeMillis();
+            store.put(new SessionData(id, "uid=test", null, "password", "Test User"));
+            long saved = store.get(id).getLastAccessedMillis();
+            store.touch(id);
+            assertEquals(saved, store.get(id).getLastAccessedMillis());
+            Thread.sleep(400);
+            store.touch(id);
+            assertTrue(store.get(id).getLastAccessedMillis() > saved);
+            store.remove(id);
+        } finally {
+            PropertyService.setPropertyNoPersist(TOUCH_INTERVAL, originalInterval);
+        }
+    }
+
+    /**
+     * Test that the sessions which weren't touched for the timeout expire
+     * @throws Exception
+     */
+    public void testExpiration() throws Exception {
+        HazelcastSessionStore store = new HazelcastSessionStore();
+        store.setTimeout(200);
+        String id = "testExpiration." + System.currentTimeMillis();
+        store.put(new SessionData(id, "uid=test", null, "password", "Test User"));
+        assertNotNull(store.get(id));
+        Thread.sleep(500);
+        assertNull(store.get(id));
+    }
+
+    /**
+     * Test that unregistering all sessions, as a restarting Metacat instance does, leaves
+     * the sessions of a shared store to the rest of the cluster
+     * @throws Exception
+     */
+    public void testUnRegisterAllSessionsKeepsSharedSessions() throws Exception {
+        String originalClassName = PropertyService.getProperty("session.store.classname");
+        String id = "testUnRegisterAllSessions." + System.currentTimeMillis();
+        SessionService sessionService = SessionService.getInstance();
+        try {
+            PropertyService.setPropertyNoPersist("session.store.classname", HazelcastSessionStore.class.getName());
+            sessionService.startSessionStore();
+            sessionService.registerSession(id, "uid=test", null, "password", "Test User");
+            sessionService.unRegisterAllSessions();
+            assertTrue(sessionService.isSessionRegistered(id));
+            sessionService.unRegisterSession(id);
+            assertFalse(sessionService.isSessionRegistered(id));
+        } finally {
+            PropertyService.setPropertyNoPersist("session.store.classname", originalClassName);
+            sessionService.startSessionStore();
+        }
+    }
+}
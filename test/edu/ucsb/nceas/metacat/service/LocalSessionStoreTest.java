@@ -0,0 +1,125 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.service;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.util.SessionData;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the LocalSessionStore class.
+ */
+public class LocalSessionStoreTest extends MCTestCase {
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public LocalSessionStoreTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new LocalSessionStoreTest("initialize"));
+        suite.addTest(new LocalSessionStoreTest("testPutGetRemove"));
+        suite.addTest(new LocalSessionStoreTest("testExpiration"));
+        suite.addTest(new LocalSessionStoreTest("testCopySessions"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test registering, reading and removing a session
+     * @throws Exception
+     */
+    public void testPutGetRemove() throws Exception {
+        LocalSessionStore store = new LocalSessionStore();
+        store.setTimeout(60000);
+        SessionData session = new SessionData("session1", "uid=test", null, "password", "Test User");
+        store.put(session);
+        assertSame(session, store.get("session1"));
+        assertTrue(store.getSessionIds().contains("session1"));
+        store.touch("session1");
+        store.remove("session1");
+        assertNull(store.get("session1"));
+        assertFalse(store.getSessionIds().contains("session1"));
+    }
+
+    /**
+     * Test that the sessions which weren't touched for the timeout expire
+     * @throws Exception
+     */
+    public void testExpiration() throws Exception {
+        LocalSessionStore store = new LocalSessionStore();
+        store.setTimeout(200);
+        for (int i = 0; i < 10; i++) {
+            store.put(new SessionData("expired" + i, "uid=test", null, "password", "Test User"));
+        }
+        Thread.sleep(500);
+        // registering another session removes a sample of the expired ones
+        store.put(new SessionData("alive", "uid=test", null, "password", "Test User"));
+        assertTrue(store.getSessionIds().size() < 11);
+        assertNull(store.get("expired0"));
+        assertNotNull(store.get("alive"));
+        Thread.sleep(500);
+        assertNull(store.get("alive"));
+    }
+
+    /**
+     * Test that the sessions of a replaced store are copied into the new one, without
+     * the expired ones and without overwriting the sessions the new store already has
+     * @throws Exception
+     */
+    public void testCopySessions() throws Exception {
+        LocalSessionStore from = new LocalSessionStore();
+        from.setTimeout(1000);
+        from.put(new SessionData("expired", "uid=test", null, "password", "Test User"));
+        Thread.sleep(1500);
+        SessionData session = new SessionData("session1", "uid=test", null, "password", "Test User");
+        from.put(session);
+        from.put(new SessionData("shared", "uid=old", null, "password", "Old User"));
+        LocalSessionStore to = new LocalSessionStore();
+        to.setTimeout(60000);
+        SessionData shared = new SessionData("shared", "uid=new", null, "password", "New User");
+        to.put(shared);
+        assertEquals(0, SessionService.copySessions(from, from));
+        assertEquals(1, SessionService.copySessions(from, to));
+        assertSame(session, to.get("session1"));
+        assertSame(shared, to.get("shared"));
+        assertNull(to.get("expired"));
+        // copying again doesn't change anything
+        assertEquals(0, SessionService.copySessions(from, to));
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.shared;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.doi.DOIRegistrationQueue;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the DurableQueue class. The stub queue works on the rows of
+ * the doi_registration_queue table.
+ */
+public class DurableQueueTest extends MCTestCase {
+    private static final long WAIT = 30000;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public DurableQueueTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new DurableQueueTest("initialize"));
+        suite.addTest(new DurableQueueTest("testBackoff"));
+        suite.addTest(new DurableQueueTest("testRetryWithoutDelay"));
+        suite.addTest(new DurableQueueTest("testGiveUp"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the delay doubles after each failure and is capped
+     * @throws Exception
+     */
+    public void testBackoff() throws Exception {
+        DurableQueue<?> queue = new DOIRegistrationQueue(null);
+        long first = queue.getBackoff(1);
+        long max = queue.getBackoff(1000);
+        assertTrue(first > 0);
+        assertEquals(Math.min(first * 2, max), queue.getBackoff(2));
+        assertEquals(Math.min(first * 4, max), queue.getBackoff(3));
+        assertTrue(queue.getBackoff(999) <= max);
+    }
+
+    /**
+     * Test that a failed row is retried when the back-off is zero, so the delay of the
+     * update is bound even if it is zero
+     * @throws Exception
+     */
+    public void testRetryWithoutDelay() throws Exception {
+        StubQueue queue = new StubQueue(2, 10);
+        String pid = "testRetryWithoutDelay." + System.currentTimeMillis();
+        enqueue(pid);
+        try {
+            queue.start();
+            queue.waitFor(pid, 3);
+            assertEquals(3, queue.getCalls(pid));
+            Map<String, Long> status = queue.getStatus("done");
+            assertTrue(status.get("retried") >= 2);
+            assertTrue(status.get("done") >= 1);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /**
+     * Test that a row is marked failed after the max attempts and is queued again by requeue
+     * @throws Exception
+     */
+    public void testGiveUp() throws Exception {
+        StubQueue queue = new StubQueue(Integer.MAX_VALUE, 2);
+        String pid = "testGiveUp." + System.currentTimeMillis();
+        enqueue(pid);
+        try {
+            queue.start();
+            queue.waitFor(pid, 2);
+            long end = System.currentTimeMillis() + WAIT;
+            while (queue.getStatus("done").get("gaveUp") < 1 && System.currentTimeMillis() < end) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, queue.getStatus("done").get("gaveUp").longValue());
+            assertTrue(queue.getStatus("done").get(DurableQueue.FAILED) >= 1);
+            Thread.sleep(1000);
+            assertEquals(2, queue.getCalls(pid));
+            assertTrue(queue.requeue() >= 1);
+            queue.waitFor(pid, 3);
+            assertTrue(queue.getCalls(pid) >= 3);
+        } finally {
+            queue.stop();
+        }
+    }
+
+    /*
+     * Queue a row in the doi_registration_queue table
+     */
+    private void enqueue(String pid) throws Exception {
+        Identifier identifier = new Identifier();
+        identifier.setValue(pid);
+        new DOIRegistrationQueue(null).enqueue(identifier);
+    }
+
+    /*
+     * A queue which fails the first attempts of each row without waiting between them
+     */
+    private static class StubQueue extends DurableQueue<DurableQueue.Claim> {
+        private int failures = 0;
+        private Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private StubQueue(int failures, int maxAttempts) {
+            super("DurableQueueTest", "doi_registration_queue", new String[] {"guid"},
+                  "durableQueueTest", 2, 0, maxAttempts);
+            this.failures = failures;
+            this.pollInterval = 100;
+        }
+
+        @Override
+        protected String getClaimColumns() {
+            return null;
+        }
+
+        @Override
+        protected Claim readClaim(ResultSet rs) throws SQLException {
+            return new Claim(new String[] {rs.getString(1)}, rs.getLong(2), rs.getInt(3));
+        }
+
+        @Override
+        protected void process(Claim claim) {
+            String pid = claim.getKey()[0];
+            calls.putIfAbsent(pid, new AtomicInteger(0));
+            if (calls.get(pid).incrementAndGet() <= failures) {
+                complete(claim, "the stub fails on purpose");
+            } else {
+                complete(claim, null);
+            }
+        }
+
+        @Override
+        protected String describe(Claim claim) {
+            return "the stub work of " + claim.getKey()[0];
+        }
+
+        private int getCalls(String pid) {
+            AtomicInteger count = calls.get(pid);
+            return count == null ? 0 : count.get();
+        }
+
+        /*
+         * Wait until the row was processed the given times
+         */
+        private void waitFor(String pid, int times) throws InterruptedException {
+            long end = System.currentTimeMillis() + WAIT;
+            while (getCalls(pid) < times && System.currentTimeMillis() < end) {
+                Thread.sleep(100);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.dataone.service.types.v1.Checksum;
+import org.dataone.service.types.v1.Identifier;
+
+import edu.ucsb.nceas.MCTestCase;
+import edu.ucsb.nceas.metacat.database.DBConnectionPool;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the ContentAddressedObjectStore class.
+ */
+public class ContentAddressedObjectStoreTest extends MCTestCase {
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public ContentAddressedObjectStoreTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Establish a testing framework by initializing appropriate objects
+     */
+    public void setUp() throws Exception {
+        super.setUp();
+        DBConnectionPool.getInstance();
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new ContentAddressedObjectStoreTest("initialize"));
+        suite.addTest(new ContentAddressedObjectStoreTest("testDeduplication"));
+        suite.addTest(new ContentAddressedObjectStoreTest("testOverwrite"));
+        suite.addTest(new ContentAddressedObjectStoreTest("testFailedPut"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that identical contents share one file which is removed with the last reference
+     * @throws Exception
+     */
+    public void testDeduplication() throws Exception {
+        ContentAddressedObjectStore store = new ContentAddressedObjectStore();
+        long time = System.currentTimeMillis();
+        String content = "content-addressed object store test " + time;
+        String localId1 = "objectstoretest." + time + ".1";
+        String localId2 = "objectstoretest." + time + ".2";
+        Identifier pid1 = new Identifier();
+        pid1.setValue("testDeduplication1." + time);
+        Identifier pid2 = new Identifier();
+        pid2.setValue("testDeduplication2." + time);
+        
+        File source1 = File.createTempFile("objectstoretest", ".txt");
+        FileUtils.writeStringToFile(source1, content, StandardCharsets.UTF_8);
+        File stored1 = store.put(localId1, pid1, source1, null);
+        assertTrue(stored1.exists());
+        assertFalse(source1.exists());
+        assertEquals(content, FileUtils.readFileToString(stored1, StandardCharsets.UTF_8));
+        
+        // the same content with a checksum in another algorithm is stored only once
+        File source2 = File.createTempFile("objectstoretest", ".txt");
+        FileUtils.writeStringToFile(source2, content, StandardCharsets.UTF_8);
+        Checksum checksum = new Checksum();
+        checksum.setAlgorithm("MD5");
+        checksum.setValue("0123456789abcdef0123456789abcdef");
+        File stored2 = store.put(localId2, pid2, source2, checksum);
+        assertEquals(stored1.getAbsolutePath(), stored2.getAbsolutePath());
+        assertFalse(source2.exists());
+        
+        // both local ids and identifiers resolve to the shared file
+        assertEquals(stored1.getAbsolutePath(), store.getFile(localId1).getAbsolutePath());
+        assertEquals(stored1.getAbsolutePath(), store.getFile(localId2).getAbsolutePath());
+        assertEquals(stored1.getAbsolutePath(), store.getFile(pid1).getAbsolutePath());
+        assertEquals(stored1.getAbsolutePath(), store.getFile(pid2).getAbsolutePath());
+        Identifier unknown = new Identifier();
+        unknown.setValue("testDeduplication3." + time);
+        assertNull(store.getFile(unknown));
+        
+        // the file stays until the last reference is deleted
+        assertTrue(store.delete(localId1));
+        assertTrue(stored1.exists());
+        assertNull(store.getFile(pid1));
+        assertTrue(store.delete(localId2));
+        assertFalse(stored1.exists());
+        assertNull(store.getFile(pid2));
+        assertFalse(store.getFile(localId2).exists());
+    }
+
+    /**
+     * Test that overwriting a local id with other bytes removes the old content once it is committed
+     * @throws Exception
+     */
+    public void testOverwrite() throws Exception {
+        ContentAddressedObjectStore store = new ContentAddressedObjectStore();
+        long time = System.currentTimeMillis();
+        String localId = "objectstoretest." + time + ".3";
+        Identifier pid = new Identifier();
+        pid.setValue("testOverwrite." + time);
+        File first = store.put(localId, pid, createSource("the first content " + time), null);
+        File second = store.put(localId, pid, createSource("the second content " + time), null);
+        assertFalse(first.getAbsolutePath().equals(second.getAbsolutePath()));
+        assertFalse(first.exists());
+        assertEquals(second.getAbsolutePath(), store.getFile(localId).getAbsolutePath());
+        assertEquals(second.getAbsolutePath(), store.getFile(pid).getAbsolutePath());
+        assertTrue(store.delete(localId));
+        assertFalse(second.exists());
+    }
+
+    /**
+     * Test that a put which fails leaves the references and files of the earlier puts alone
+     * @throws Exception
+     */
+    public void testFailedPut() throws Exception {
+        ContentAddressedObjectStore store = new ContentAddressedObjectStore();
+        long time = System.currentTimeMillis();
+        String localId = "objectstoretest." + time + ".4";
+        Identifier pid = new Identifier();
+        pid.setValue("testFailedPut." + time);
+        File stored = store.put(localId, pid, createSource("the stored content " + time), null);
+        // the local id is too long for its column, so the insert fails after the file was moved
+        StringBuilder tooLong = new StringBuilder("objectstoretest.");
+        while (tooLong.length() < 300) {
+            tooLong.append(time);
+        }
+        File source = createSource("the content of the failed put " + time);
+        try {
+            store.put(tooLong.toString(), pid, source, null);
+            fail("the put of a local id longer than its column should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage() != null);
+        }
+        assertTrue(source.exists());
+        assertTrue(stored.exists());
+        assertEquals(stored.getAbsolutePath(), store.getFile(pid).getAbsolutePath());
+        assertEquals(stored.getAbsolutePath(), store.getFile(localId).getAbsolutePath());
+        assertTrue(store.delete(localId));
+        source.delete();
+    }
+
+    private File createSource(String content) throws IOException {
+        File source = File.createTempFile("objectstoretest", ".txt");
+        FileUtils.writeStringToFile(source, content, StandardCharsets.UTF_8);
+        return source;
+    }
+}
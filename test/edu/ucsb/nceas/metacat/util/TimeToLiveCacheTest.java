@@ -0,0 +1,181 @@
+/**
+ *  '$RCSfile$'
+ *  Copyright: 2026 Regents of the University of California and the
+ *              National Center for Ecological Analysis and Synthesis
+ *
+ *   '$Author:  $'
+ *     '$Date:  $'
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package edu.ucsb.nceas.metacat.util;
+
+import edu.ucsb.nceas.MCTestCase;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+/**
+ * A JUnit test class for the TimeToLiveCache class. The clock of the cache is set by
+ * the tests, so the entries expire without waiting.
+ */
+public class TimeToLiveCacheTest extends MCTestCase {
+    private long now = 0;
+
+    /**
+     * Constructor
+     * @param name
+     */
+    public TimeToLiveCacheTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Create a suite of tests to be run together
+     */
+    public static Test suite() throws Exception {
+        TestSuite suite = new TestSuite();
+        suite.addTest(new TimeToLiveCacheTest("initialize"));
+        suite.addTest(new TimeToLiveCacheTest("testExpiration"));
+        suite.addTest(new TimeToLiveCacheTest("testCachedNull"));
+        suite.addTest(new TimeToLiveCacheTest("testMaxSize"));
+        suite.addTest(new TimeToLiveCacheTest("testInvalidate"));
+        suite.addTest(new TimeToLiveCacheTest("testStaleLookup"));
+        suite.addTest(new TimeToLiveCacheTest("testDisabled"));
+        return suite;
+    }
+
+    /**
+     * init
+     */
+    public void initialize() {
+        assertTrue(1==1);
+    }
+
+    /**
+     * Test that the entries expire after their time to live
+     * @throws Exception
+     */
+    public void testExpiration() throws Exception {
+        TimeToLiveCache<String> cache = createCache(1000, 10);
+        cache.put("a", "value a");
+        cache.put("b", "value b", 100);
+        now = 100;
+        assertEquals("value a", cache.get("a"));
+        assertEquals("value b", cache.get("b"));
+        now = 101;
+        assertNull(cache.get("b"));
+        assertEquals("value a", cache.get("a"));
+        now = 1001;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that a cached null, e.g. a miss, has an entry
+     * @throws Exception
+     */
+    public void testCachedNull() throws Exception {
+        TimeToLiveCache<String> cache = createCache(1000, 10);
+        assertNull(cache.getEntry("miss"));
+        cache.put("miss", null);
+        assertNotNull(cache.getEntry("miss"));
+        assertNull(cache.getEntry("miss").getValue());
+    }
+
+    /**
+     * Test that a full cache drops the expired entries first and starts over if all of
+     * them are alive
+     * @throws Exception
+     */
+    public void testMaxSize() throws Exception {
+        TimeToLiveCache<String> cache = createCache(1000, 2);
+        cache.put("a", "value a", 10);
+        cache.put("b", "value b");
+        now = 11;
+        cache.put("c", "value c");
+        assertNull(cache.get("a"));
+        assertEquals("value b", cache.get("b"));
+        assertEquals("value c", cache.get("c"));
+        cache.put("d", "value d");
+        assertEquals(1, cache.size());
+        assertEquals("value d", cache.get("d"));
+    }
+
+    /**
+     * Test removing one entry, the entries of a prefix and all of the entries
+     * @throws Exception
+     */
+    public void testInvalidate() throws Exception {
+        TimeToLiveCache<String> cache = createCache(1000, 10);
+        cache.put("user1\ngroups", "groups 1");
+        cache.put("user1\ndn", "dn 1");
+        cache.put("user2\ngroups", "groups 2");
+        cache.invalidatePrefix("user1\n");
+        assertNull(cache.get("user1\ngroups"));
+        assertNull(cache.get("user1\ndn"));
+        assertEquals("groups 2", cache.get("user2\ngroups"));
+        cache.invalidate("user2\ngroups");
+        assertNull(cache.get("user2\ngroups"));
+        cache.put("user3\ngroups", "groups 3");
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test that a value read before an invalidation isn't cached after it, while a
+     * value read afterwards is
+     * @throws Exception
+     */
+    public void testStaleLookup() throws Exception {
+        TimeToLiveCache<String> cache = createCache(1000, 10);
+        long generation = cache.getGeneration();
+        // the lookup reads the old value, then the change commits and invalidates the key
+        cache.invalidate("sid");
+        assertFalse(cache.putIfNotInvalidated("sid", "old head", generation));
+        assertNull(cache.get("sid"));
+        generation = cache.getGeneration();
+        assertTrue(cache.putIfNotInvalidated("sid", "new head", generation));
+        assertEquals("new head", cache.get("sid"));
+        // clear is an invalidation too
+        generation = cache.getGeneration();
+        cache.clear();
+        assertFalse(cache.putIfNotInvalidated("sid", "old head", generation));
+        assertNull(cache.get("sid"));
+    }
+
+    /**
+     * Test that nothing is cached when the time to live isn't positive
+     * @throws Exception
+     */
+    public void testDisabled() throws Exception {
+        TimeToLiveCache<String> cache = createCache(0, 10);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "value a");
+        assertNull(cache.get("a"));
+        assertFalse(cache.putIfNotInvalidated("a", "value a", cache.getGeneration()));
+        assertEquals(0, cache.size());
+    }
+
+    private TimeToLiveCache<String> createCache(long ttl, int maxSize) {
+        now = 0;
+        return new TimeToLiveCache<String>(ttl, maxSize) {
+            @Override
+            protected long now() {
+                return now;
+            }
+        };
+    }
+}
@@ -29,6 +29,7 @@ import edu.ucsb.nceas.MCTestCase;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 
 import edu.ucsb.nceas.metacat.AuthLdap;
+import edu.ucsb.nceas.metacat.authentication.LdapCache;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -59,6 +60,8 @@ public class AuthLdapTest extends MCTestCase
         suite.addTest(new AuthLdapTest("initialize"));
         suite.addTest(new AuthLdapTest("getPrincipals"));
         suite.addTest(new AuthLdapTest("testAliasedAccount"));
+        suite.addTest(new AuthLdapTest("testPooledContextsAreReturned"));
+        suite.addTest(new AuthLdapTest("testCachedGroups"));
         return suite;
     }
 
@@ -102,6 +105,40 @@ public class AuthLdapTest extends MCTestCase
     	
     }
     
+    /**
+     * Test that the searches give their pooled contexts back, so more searches than
+     * the size of the pool succeed one after another
+     * @throws Exception
+     */
+    public void testPooledContextsAreReturned() throws Exception {
+        int poolSize = Integer.parseInt(PropertyService.getProperty("ldap.pool.maxSize"));
+        AuthLdap ldap = new AuthLdap();
+        for (int i = 0; i <= poolSize; i++) {
+            String[][] users = ldap.getUsers(username, password);
+            assertNotNull("The search " + i + " couldn't borrow a context from the pool", users);
+            assertTrue(users.length > 0);
+        }
+    }
+
+    /**
+     * Test that the groups of a user are cached and a cached copy can't be changed by the caller
+     * @throws Exception
+     */
+    public void testCachedGroups() throws Exception {
+        AuthLdap.clearCache();
+        AuthLdap ldap = new AuthLdap();
+        String[][] groups = ldap.getGroups(username, password, username);
+        String qualifier = PropertyService.getProperty("auth.url") + PropertyService.getProperty("auth.base");
+        assertNotNull(LdapCache.getInstance().get(LdapCache.GROUPS, username, qualifier));
+        if (groups != null && groups.length > 0) {
+            String first = groups[0][0];
+            groups[0][0] = "cn=changed";
+            assertEquals(first, ldap.getGroups(username, password, username)[0][0]);
+        }
+        AuthLdap.clearCache();
+        assertNull(LdapCache.getInstance().get(LdapCache.GROUPS, username, qualifier));
+    }
+
     /**
      * To Do: add more methods test
      */
@@ -30,6 +30,7 @@ import java.text.SimpleDateFormat;
 import edu.ucsb.nceas.MCTestCase;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.EventLog;
+import edu.ucsb.nceas.metacat.EventLogRollup;
 
 /**
  * Test the logging facility against the database connection.
@@ -144,4 +145,44 @@ public class EventLogTest extends MCTestCase
         deleted = EventLog.getInstance().isDeleted(id);
         assertTrue(deleted == true);
     }
+    
+    /**
+     * Test the event counts and the usage report from the rollups. The entries are
+     * logged synchronously, so the rollup is bounded by the time after the logging
+     * rather than by waiting.
+     */
+    public void testRollup() throws Exception {
+        long time = System.nanoTime();
+        String id = "test-1934-rollup-3-1"+time+".1";
+        Timestamp beforeLogging = new Timestamp(System.currentTimeMillis());
+        EventLog.getInstance().log("192.168.1.103", "Mozilla", "public", id, "read");
+        EventLog.getInstance().log("192.168.1.104", "Mozilla", "someone", id, "read");
+        // the entries were logged at or before now, so they are all older than a millisecond later
+        Timestamp afterLogging = new Timestamp(System.currentTimeMillis() + 1);
+        // the new entries are counted from the access_log before they are rolled up
+        assertTrue(EventLog.getInstance().getEventCount(id, "read") == 2);
+        new EventLogRollup().rollup(afterLogging);
+        assertTrue(EventLog.getInstance().getEventCount(id, "read") == 2);
+        assertTrue(EventLog.getInstance().getEventCount(id, "update") == 0);
+        String report = EventLog.getInstance().getUsageReport(null, null, new String[] {id}, "read", null, null);
+        assertTrue(report.contains("<docid>"+id+"</docid>"));
+        assertTrue(report.contains("<anonymous>true</anonymous>"));
+        assertTrue(report.contains("<anonymous>false</anonymous>"));
+        // the principal and ip address filters are applied to the raw entries
+        report = EventLog.getInstance().getUsageReport(null, new String[] {"someone"}, new String[] {id}, "read",
+                beforeLogging, afterLogging);
+        assertTrue(report.contains("<docid>"+id+"</docid>"));
+        assertFalse(report.contains("<anonymous>true</anonymous>"));
+        assertTrue(report.contains("<count>1</count>"));
+        report = EventLog.getInstance().getUsageReport(new String[] {"192.168.1.103"}, null, new String[] {id}, "read",
+                beforeLogging, afterLogging);
+        assertFalse(report.contains("<anonymous>false</anonymous>"));
+        assertTrue(report.contains("<count>1</count>"));
+        report = EventLog.getInstance().getUsageReport(new String[] {"192.168.1.105"}, null, new String[] {id}, "read",
+                null, null);
+        assertFalse(report.contains("<docid>"+id+"</docid>"));
+        // more events after the rollup
+        EventLog.getInstance().log("192.168.1.103", "Mozilla", "public", id, "read");
+        assertTrue(EventLog.getInstance().getEventCount(id, "read") == 3);
+    }
 }
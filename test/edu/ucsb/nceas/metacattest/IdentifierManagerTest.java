@@ -28,6 +28,8 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.File;
 import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
 
@@ -66,6 +68,7 @@ import edu.ucsb.nceas.metacat.database.DBConnectionPool;
 import edu.ucsb.nceas.metacat.dataone.CNodeService;
 import edu.ucsb.nceas.metacat.dataone.D1NodeServiceTest;
 import edu.ucsb.nceas.metacat.dataone.MNodeService;
+import edu.ucsb.nceas.metacat.dataone.SeriesHeadCache;
 
 import org.dataone.service.exceptions.InvalidSystemMetadata;
 import org.dataone.service.exceptions.NotFound;
@@ -94,6 +97,8 @@ public class IdentifierManagerTest extends D1NodeServiceTest {
         suite.addTest(new IdentifierManagerTest("testCreateMapping"));
         suite.addTest(new IdentifierManagerTest("testGenerateLocalId"));
         suite.addTest(new IdentifierManagerTest("testGetHeadPID"));
+        suite.addTest(new IdentifierManagerTest("testSeriesHeadTable"));
+        suite.addTest(new IdentifierManagerTest("testStaleSeriesHeadNotCached"));
         suite.addTest(new IdentifierManagerTest("testMediaType"));
         suite.addTest(new IdentifierManagerTest("testQuerySystemMetadata"));
         suite.addTest(new IdentifierManagerTest("testSystemMetadataPIDExists"));
@@ -340,6 +345,87 @@ public class IdentifierManagerTest extends D1NodeServiceTest {
         exist = IdentifierManager.getInstance().systemMetadataSIDExists(seriesId);
         assertTrue(!exist);
     }
+    /**
+     * Test that a head which was read before the series changed isn't cached after the
+     * change was invalidated
+     */
+    public void testStaleSeriesHeadNotCached() throws Exception {
+        String sid = "sid." + System.nanoTime();
+        SeriesHeadCache cache = SeriesHeadCache.getInstance();
+        long generation = cache.getGeneration();
+        // the update commits and invalidates the series while the lookup is reading the table
+        cache.invalidate(Collections.singleton(sid));
+        cache.put(sid, "stale.head", generation);
+        assertNull(cache.get(sid));
+        cache.put(sid, "new.head", cache.getGeneration());
+        assertEquals("new.head", cache.get(sid));
+        cache.invalidate(Collections.singleton(sid));
+        assertNull(cache.get(sid));
+    }
+
+    /**
+     * Test that the series_head table follows the updates of a series
+     */
+    public void testSeriesHeadTable() throws Exception {
+        Session session = getTestSession();
+        Identifier guid = new Identifier();
+        guid.setValue(generateDocumentId());
+        InputStream object = new ByteArrayInputStream("test".getBytes("UTF-8"));
+        SystemMetadata sysmeta = createSystemMetadata(guid, session.getSubject(), object);
+        Identifier seriesId = new Identifier();
+        seriesId.setValue("sid." + System.nanoTime());
+        sysmeta.setSeriesId(seriesId);
+        object = new ByteArrayInputStream("test".getBytes("UTF-8"));
+        MNodeService.getInstance(request).create(session, guid, object, sysmeta);
+        assertEquals(guid.getValue(), getSeriesHeadRow(seriesId.getValue()));
+        assertEquals(guid.getValue(), IdentifierManager.getInstance().getHeadPID(seriesId).getValue());
+        
+        Thread.sleep(1000);
+        Identifier newPid = new Identifier();
+        newPid.setValue(generateDocumentId() + "1");
+        object = new ByteArrayInputStream("test".getBytes("UTF-8"));
+        SystemMetadata newSysMeta = createSystemMetadata(newPid, session.getSubject(), object);
+        newSysMeta.setObsoletes(guid);
+        newSysMeta.setSeriesId(seriesId);
+        object = new ByteArrayInputStream("test".getBytes("UTF-8"));
+        MNodeService.getInstance(request).update(session, guid, object, newPid, newSysMeta);
+        // the table and the cached head are updated with the system metadata
+        assertEquals(newPid.getValue(), getSeriesHeadRow(seriesId.getValue()));
+        assertEquals(newPid.getValue(), IdentifierManager.getInstance().getHeadPID(seriesId).getValue());
+        
+        // the table agrees with the chain
+        DBConnection dbConn = DBConnectionPool.getDBConnection("IdentifierManagerTest.testSeriesHeadTable");
+        int serialNumber = dbConn.getCheckOutSerialNumber();
+        try {
+            assertEquals(newPid.getValue(), 
+                    IdentifierManager.getInstance().computeHeadPID(seriesId, dbConn.getConnections()).getValue());
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+    }
+    
+    /*
+     * Read the guid in the series_head table for the series id
+     */
+    private String getSeriesHeadRow(String sid) throws SQLException {
+        String guid = null;
+        DBConnection dbConn = DBConnectionPool.getDBConnection("IdentifierManagerTest.getSeriesHeadRow");
+        int serialNumber = dbConn.getCheckOutSerialNumber();
+        try {
+            PreparedStatement stmt = dbConn.prepareStatement("select guid from series_head where series_id = ?");
+            stmt.setString(1, sid);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                guid = rs.getString(1);
+            }
+            rs.close();
+            stmt.close();
+        } finally {
+            DBConnectionPool.returnDBConnection(dbConn, serialNumber);
+        }
+        return guid;
+    }
+    
     /**
      * Test the method - getHeadPID for a speicified SID
      */
@@ -31,6 +31,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.zip.GZIPInputStream;
 
 import edu.ucsb.nceas.MCTestCase;
 import edu.ucsb.nceas.metacat.database.DBConnectionPool;
@@ -39,6 +40,7 @@ import edu.ucsb.nceas.metacat.Sitemap;
 import edu.ucsb.nceas.metacat.client.MetacatAuthException;
 import edu.ucsb.nceas.metacat.client.MetacatInaccessibleException;
 import edu.ucsb.nceas.utilities.FileUtil;
+import edu.ucsb.nceas.utilities.IOUtil;
 
 /**
  * Test the Sitemap class by generating the sitemaps in a separate directory.
@@ -127,11 +129,10 @@ public class SitemapTest extends MCTestCase {
 			Sitemap smap = new Sitemap(directory, locationBase, entryBase, portalBase, portalFormats);
 			smap.generateSitemaps();
 
-			File sitemap1 = new File(directory, "sitemap1.xml");
+			File sitemap1 = new File(directory, "sitemap1.xml.gz");
 			assertTrue(sitemap1.exists() && sitemap1.isFile());
 
-			String doc = FileUtil.readFileToString(sitemapTempDir.toString() +
-					"/sitemap1.xml");
+			String doc = readGzipFile(sitemap1);
 			String indexDoc = FileUtil.readFileToString(
 					sitemapTempDir.toString() + "/sitemap_index.xml");
 
@@ -158,6 +159,13 @@ public class SitemapTest extends MCTestCase {
 			// docid2.2
 			assertTrue(doc.indexOf(docid2 + ".1") == -1);
 
+			// nothing changed, so the next run shouldn't regenerate the sitemap file
+			long lastModified = sitemap1.lastModified();
+			Thread.sleep(1000);
+			smap.generateSitemaps();
+			assertEquals(lastModified, sitemap1.lastModified());
+			assertTrue(new File(directory, "sitemap_index.xml").exists());
+
 		} catch (MetacatAuthException mae) {
 			fail("Authorization failed:\n" + mae.getMessage());
 		} catch (MetacatInaccessibleException mie) {
@@ -167,6 +175,16 @@ public class SitemapTest extends MCTestCase {
 		}
     }
 
+		/*
+		 * Read a gzip-compressed file into a string
+		 */
+		private String readGzipFile(File file) throws IOException {
+			try (Reader reader = new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(file)), "UTF-8")) {
+				return IOUtil.getAsString(reader, true);
+			}
+		}
+
 		/**
 		 * Basic smoke test. This should always return a non-zero-length string
 		 * unless something is either very wrong with DataONE or we totally change
@@ -34,8 +34,20 @@ import edu.ucsb.nceas.metacat.harvesterClient.Harvester;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -151,6 +163,71 @@ public class HarvestDocumentTest extends MCTestCase {
   }
   
   
+  /**
+   * Tests that a document which was harvested before is requested with the
+   * ETag stored then, and that it is skipped when the site reports that it 
+   * wasn't modified, while a document without a stored ETag is retrieved.
+   */
+  public void testNotModified() throws Exception {
+    final String eTag = "\"version1\"";
+    final List<String> ifNoneMatch = 
+                              Collections.synchronizedList(new ArrayList<String>());
+    String scope = "harvesterNotModified" + System.currentTimeMillis();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String requestETag = exchange.getRequestHeaders().getFirst("If-None-Match");
+        ifNoneMatch.add(requestETag);
+        if (eTag.equals(requestETag)) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        byte[] bytes = "<eml:eml xmlns:eml=\"eml://ecoinformatics.org/eml-2.0.1\"/>".getBytes("UTF-8");
+        exchange.getResponseHeaders().set("ETag", eTag);
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+      }
+    });
+    server.start();
+    String baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+    String harvestedURL = baseURL + "/harvested.xml";
+    Connection conn = harvester.getConnection();
+    PreparedStatement stmt = conn.prepareStatement(
+        "INSERT INTO HARVEST_DOCUMENT_VALIDATOR (DOCUMENTURL, ETAG, " +
+        "LAST_MODIFIED, DOCID, DATE_HARVESTED) VALUES (?, ?, NULL, ?, now())");
+    stmt.setString(1, harvestedURL);
+    stmt.setString(2, eTag);
+    stmt.setString(3, scope + ".1");
+    stmt.executeUpdate();
+    stmt.close();
+    
+    try {
+      HarvestDocument harvested = new HarvestDocument(harvester, 
+          harvestSiteSchedule, scope, 1, 2, 
+          "eml://ecoinformatics.org/eml-2.0.1", harvestedURL);
+      assertNull(harvested.getSiteDocument());
+      assertEquals(eTag, ifNoneMatch.get(0));
+      
+      HarvestDocument newDocument = new HarvestDocument(harvester, 
+          harvestSiteSchedule, scope, 2, 1, 
+          "eml://ecoinformatics.org/eml-2.0.1", baseURL + "/new.xml");
+      assertNotNull(newDocument.getSiteDocument());
+      assertNull(ifNoneMatch.get(1));
+    }
+    finally {
+      stmt = conn.prepareStatement(
+          "DELETE FROM HARVEST_DOCUMENT_VALIDATOR WHERE DOCUMENTURL = ?");
+      stmt.setString(1, harvestedURL);
+      stmt.executeUpdate();
+      stmt.close();
+      server.stop(0);
+    }
+  }
+
+
   /**
    * Tests that the harvesterDocument object was created successfully.
    */
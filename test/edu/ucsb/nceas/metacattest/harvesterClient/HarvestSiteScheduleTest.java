@@ -33,7 +33,23 @@ import edu.ucsb.nceas.metacat.harvesterClient.HarvestSiteSchedule;
 import edu.ucsb.nceas.metacat.properties.PropertyService;
 import edu.ucsb.nceas.metacat.util.MetacatUtil;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.xml.parsers.ParserConfigurationException;
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -185,6 +201,115 @@ public class HarvestSiteScheduleTest extends MCTestCase {
   public void testPrintOutput() {
     harvestSiteScheduleFuture.printOutput(System.out);
   }
+
+
+  /**
+   * Tests that the documents of a site are harvested by several threads,
+   * each with a database connection of its own, and that the connections
+   * are closed after the harvest. The harvest list and the documents are 
+   * served by a local HTTP server, which holds the document requests until
+   * all of the document threads are waiting, so every thread gets a document.
+   */
+  public void testDocumentThreadConnections() throws Exception {
+    final int documentThreads = 3;
+    final int nDocuments = 6;
+    final String scope = "harvesterThreads" + System.currentTimeMillis();
+    final CyclicBarrier barrier = new CyclicBarrier(documentThreads);
+    final AtomicInteger documentRequests = new AtomicInteger();
+    final List<Connection> opened = 
+                      Collections.synchronizedList(new ArrayList<Connection>());
+    ExecutorService serverThreads = Executors.newCachedThreadPool();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(serverThreads);
+    final String baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+    
+    server.createContext("/harvestList.xml", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        StringBuffer list = new StringBuffer();
+        list.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+        list.append("<hrv:harvestList xmlns:hrv=\"eml://ecoinformatics.org/harvestList\">\n");
+        for (int i = 1; i <= nDocuments; i++) {
+          list.append("<document><docid><scope>" + scope + "</scope><identifier>" + i + 
+                      "</identifier><revision>1</revision></docid>" +
+                      "<documentType>eml://ecoinformatics.org/eml-2.0.1</documentType>" +
+                      "<documentURL>" + baseURL + "/document" + i + ".xml</documentURL></document>\n");
+        }
+        list.append("</hrv:harvestList>\n");
+        send(exchange, list.toString());
+      }
+    });
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        documentRequests.incrementAndGet();
+        try {
+          barrier.await(30, TimeUnit.SECONDS);
+        }
+        catch (Exception e) {
+          System.out.println("The document threads didn't wait together: " + e);
+        }
+        send(exchange, "<eml:eml xmlns:eml=\"eml://ecoinformatics.org/eml-2.0.1\"/>");
+      }
+    });
+    server.start();
+    
+    Harvester countingHarvester = new Harvester() {
+      public Connection openConnection() {
+        Connection connection = super.openConnection();
+        opened.add(connection);
+        return connection;
+      }
+    };
+    
+    try {
+      countingHarvester.getConnection();
+      countingHarvester.initLogIDs();
+      countingHarvester.setHarvestStartTime(new Date());
+      opened.clear();
+      PropertyService.setPropertyNoPersist("harvester.documentThreads.1", 
+                                           "" + documentThreads);
+      HarvestSiteSchedule schedule = new HarvestSiteSchedule(countingHarvester,
+                                                  1,
+                                                  baseURL + "/harvestList.xml",
+                                                  "uid=jdoe,o=lter,dc=ecoinformatics,dc=org",
+                                                  "secretpassword",
+                                                  "2000-01-01 00:00:00.0",
+                                                  "2004-04-01 00:00:00.0",
+                                                  1,
+                                                  "months",
+                                                  ""
+                                                 );
+      schedule.setSchemaLocation(
+         "eml://ecoinformatics.org/harvestList ./lib/harvester/harvestList.xsd");
+      
+      assertTrue(schedule.harvestDocumentList());
+      assertEquals(nDocuments, documentRequests.get());
+      // the connection of the site and one connection per document thread
+      assertEquals(1 + documentThreads, opened.size());
+      for (Connection connection : opened) {
+        assertTrue(connection.isClosed());
+      }
+    }
+    finally {
+      PropertyService.setPropertyNoPersist("harvester.documentThreads.1", "");
+      countingHarvester.closeConnection();
+      server.stop(0);
+      serverThreads.shutdownNow();
+    }
+  }
+  
+  
+  /*
+   * Sends a response with the given XML content
+   */
+  private static void send(HttpExchange exchange, String content) 
+          throws IOException {
+    byte[] bytes = content.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "text/xml");
+    exchange.sendResponseHeaders(200, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
   
 
   /**